@@ -0,0 +1,60 @@
+package gov.nih.ncats.molvec.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves benchmark input images. Paths given to the benchmarks are
+ * relative to the molvec checkout, which defaults to the parent directory
+ * of this module and can be changed with {@code -Dmolvec.root=<path>}.
+ */
+final class BenchmarkInputs {
+
+    static final String ROOT_PROPERTY = "molvec.root";
+
+    private static final List<String> IMAGE_EXTENSIONS = Arrays.asList(
+            ".png", ".gif", ".jpg", ".jpeg", ".tif", ".tiff");
+
+    private BenchmarkInputs(){
+        //can not instantiate
+    }
+
+    static File root(){
+        return new File(System.getProperty(ROOT_PROPERTY, ".."));
+    }
+
+    static File resolve(String path) throws IOException{
+        File f = new File(path);
+        if(!f.isAbsolute()){
+            f = new File(root(), path);
+        }
+        if(!f.exists()){
+            throw new IOException("benchmark input " + f.getAbsolutePath() + " does not exist; set -D" + ROOT_PROPERTY);
+        }
+        return f;
+    }
+
+    /**
+     * List the first {@code limit} images in the given directory, in name order
+     * so the same corpus is measured from run to run.
+     */
+    static List<File> images(String dir, int limit) throws IOException{
+        File d = resolve(dir);
+        File[] files = d.listFiles(f-> f.isFile() && isImage(f.getName()));
+        if(files ==null || files.length==0){
+            throw new IOException("no images found in " + d.getAbsolutePath());
+        }
+        return Arrays.stream(files)
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isImage(String name){
+        String lower = name.toLowerCase();
+        return IMAGE_EXTENSIONS.stream().anyMatch(lower::endsWith);
+    }
+}
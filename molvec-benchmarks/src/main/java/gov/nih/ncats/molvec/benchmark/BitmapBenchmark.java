@@ -0,0 +1,89 @@
+package gov.nih.ncats.molvec.benchmark;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
+
+/**
+ * Benchmarks for the raster stages of the pipeline: decoding and
+ * binarization, thinning, connected components and segment extraction.
+ * <p>
+ * {@link Bitmap} caches some of its derived data, so every invocation
+ * works on a fresh copy of the prepared bitmap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitmapBenchmark {
+
+    @Param({
+        "test/cas-50-42-0.tif",
+        "test/jm-2010-00608j_0011.tif",
+        "test/jmex1.png",
+        "test/photoBIG.jpg",
+        "src/test/resources/regressionTest/usan/CANGRELOR.png",
+        "src/test/resources/regressionTest/uspto/US07314511-20080101-C00002.TIF"
+    })
+    public String image;
+
+    private File file;
+    private Raster raster;
+    private Bitmap bitmap;
+    private Bitmap thin;
+
+    @Setup
+    public void setup() throws IOException{
+        file = BenchmarkInputs.resolve(image);
+        raster = ImageUtil.grayscale(file).getData();
+        bitmap = Bitmap.createBitmap(raster, StructureImageExtractor.DEF_BINARIZATION).clean();
+        thin = new Bitmap(bitmap).thin();
+    }
+
+    @Benchmark
+    public Bitmap read() throws IOException{
+        return Bitmap.read(file, StructureImageExtractor.DEF_BINARIZATION);
+    }
+
+    @Benchmark
+    public Bitmap binarize(){
+        return Bitmap.createBitmap(raster, StructureImageExtractor.DEF_BINARIZATION);
+    }
+
+    @Benchmark
+    public Bitmap thin(){
+        return new Bitmap(bitmap).thin();
+    }
+
+    @Benchmark
+    public List<Shape> connectedComponents(){
+        return new Bitmap(bitmap).connectedComponents(Bitmap.Bbox.DoublePolygon);
+    }
+
+    @Benchmark
+    public List<Path2D> segments(){
+        return new Bitmap(thin).segments();
+    }
+}
@@ -0,0 +1,68 @@
+package gov.nih.ncats.molvec.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.MolvecOptions;
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+
+/**
+ * Benchmarks the stages that run on a finished {@link ConnectionTable}:
+ * ring perception and writing the mol file through {@link MolvecOptions}.
+ * Both results are cached on the table, so each call works on a clone;
+ * {@link #cloneTab()} measures that overhead on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionTableBenchmark {
+
+    @Param({
+        "test/cas-50-42-0.tif",
+        "test/jm-2010-00608j_0011.tif",
+        "src/test/resources/regressionTest/usan/CANGRELOR.png"
+    })
+    public String image;
+
+    private ConnectionTable ctab;
+    private MolvecOptions options;
+
+    @Setup
+    public void setup() throws IOException{
+        ctab = new StructureImageExtractor(BenchmarkInputs.resolve(image)).getCtab();
+        options = new MolvecOptions();
+    }
+
+    @Benchmark
+    public ConnectionTable cloneTab(){
+        return ctab.cloneTab();
+    }
+
+    @Benchmark
+    public List<ConnectionTable.Ring> getRings(){
+        return ctab.cloneTab().getRings();
+    }
+
+    @Benchmark
+    public Optional<String> toMol(){
+        return options.computeResult(ctab.cloneTab()).getMolfile();
+    }
+}
@@ -0,0 +1,67 @@
+package gov.nih.ncats.molvec.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.util.GeomUtil;
+import gov.nih.ncats.molvec.internal.util.GeomUtil.ShapeWrapper;
+
+/**
+ * Benchmarks {@link GeomUtil#groupThings(java.util.Collection, java.util.function.Predicate)}
+ * with the "closer than 3 pixels" predicate used to stitch broken polygons back together,
+ * applied to all the connected components of an image, against
+ * {@link GeomUtil#groupThings(java.util.Collection, java.util.function.Function, double, java.util.function.Predicate)},
+ * which only tries the pairs whose bounds are within that distance of each other.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeomUtilBenchmark {
+
+    @Param({
+        "test/jmex1.png",
+        "test/photoBIG.jpg",
+        "src/test/resources/regressionTest/usan/CANGRELOR.png"
+    })
+    public String image;
+
+    private List<ShapeWrapper> polygons;
+
+    @Setup
+    public void setup() throws IOException{
+        Bitmap bitmap = Bitmap.read(BenchmarkInputs.resolve(image), StructureImageExtractor.DEF_BINARIZATION).clean();
+        polygons = bitmap.connectedComponents(Bitmap.Bbox.DoublePolygon)
+                .stream()
+                .map(s->ShapeWrapper.of(s))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<List<ShapeWrapper>> groupThings(){
+        return GeomUtil.groupThings(polygons, t-> GeomUtil.distance(t.k(), t.v()) < 3);
+    }
+
+    @Benchmark
+    public List<List<ShapeWrapper>> groupThingsByBounds(){
+        return GeomUtil.groupThings(polygons, ShapeWrapper::getBounds, 3, t-> GeomUtil.distance(t.k(), t.v()) < 3);
+    }
+}
@@ -0,0 +1,103 @@
+package gov.nih.ncats.molvec.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.nih.ncats.molvec.Molvec;
+import gov.nih.ncats.molvec.MolvecOptions;
+import gov.nih.ncats.molvec.MolvecResult;
+
+/**
+ * End to end benchmarks of {@link Molvec#ocr(File, MolvecOptions)}.
+ * {@link Single} measures one image at a time; {@link Corpus} measures a whole
+ * directory (the first {@code limit} images of it) as a single shot so that
+ * regression sets can be compared between commits.
+ */
+public class MolvecBenchmark {
+
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, time = 5)
+    @Measurement(iterations = 5, time = 5)
+    @Fork(1)
+    public static class Single {
+        @Param({
+            "test/cas-50-42-0.tif",
+            "test/jm-2010-00608j_0011.tif",
+            "test/jmex1.png",
+            "test/photoBIG.jpg",
+            "src/test/resources/regressionTest/usan/CANGRELOR.png",
+            "src/test/resources/regressionTest/uspto/US07314511-20080101-C00002.TIF"
+        })
+        public String image;
+
+        private File file;
+        private MolvecOptions options;
+
+        @Setup
+        public void setup() throws IOException{
+            file = BenchmarkInputs.resolve(image);
+            options = new MolvecOptions();
+        }
+
+        @Benchmark
+        public MolvecResult ocr() throws IOException{
+            return Molvec.ocr(file, options);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    @Fork(1)
+    public static class Corpus {
+        @Param({
+            "test",
+            "src/test/resources/regressionTest/usan",
+            "src/test/resources/regressionTest/uspto",
+            "src/test/resources/regressionTest/trec"
+        })
+        public String dir;
+
+        @Param({"25"})
+        public int limit;
+
+        private List<File> files;
+        private MolvecOptions options;
+
+        @Setup
+        public void setup() throws IOException{
+            files = BenchmarkInputs.images(dir, limit);
+            options = new MolvecOptions();
+        }
+
+        @Benchmark
+        public void ocr(Blackhole bh){
+            for(File f : files){
+                try{
+                    bh.consume(Molvec.ocr(f, options));
+                }catch(IOException e){
+                    bh.consume(e);
+                }
+            }
+        }
+    }
+}
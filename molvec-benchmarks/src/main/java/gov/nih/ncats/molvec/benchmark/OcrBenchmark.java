@@ -0,0 +1,75 @@
+package gov.nih.ncats.molvec.benchmark;
+
+import java.awt.Shape;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR;
+import gov.nih.ncats.molvec.ui.SCOCR;
+import gov.nih.ncats.molvec.ui.StupidestPossibleSCOCRSansSerif;
+
+/**
+ * Benchmarks {@link RasterBasedCosineSCOCR#getRanking(Bitmap)} over every
+ * connected component of an image, set up with the same alphabet
+ * {@link StructureImageExtractor} uses for its default OCR engine.
+ * One operation ranks all the components of the image; a new lazy crop is made
+ * for each component every time so no scaled bitmap is reused between calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OcrBenchmark {
+
+    @Param({
+        "test/cas-50-42-0.tif",
+        "test/jmex1.png",
+        "src/test/resources/regressionTest/usan/CANGRELOR.png"
+    })
+    public String image;
+
+    private RasterBasedCosineSCOCR ocr;
+    private Bitmap bitmap;
+    private List<Shape> polygons;
+
+    @Setup
+    public void setup() throws IOException{
+        ocr = new StupidestPossibleSCOCRSansSerif();
+        Set<Character> alpha = SCOCR.SET_COMMON_CHEM_ALL();
+        alpha.add(Character.valueOf('/'));
+        alpha.add(Character.valueOf('\\'));
+        ocr.setAlphabet(alpha);
+
+        bitmap = Bitmap.read(BenchmarkInputs.resolve(image), StructureImageExtractor.DEF_BINARIZATION).clean();
+        polygons = bitmap.connectedComponents(Bitmap.Bbox.DoublePolygon);
+    }
+
+    @Benchmark
+    public void getRanking(Blackhole bh){
+        for(Shape s : polygons){
+            Bitmap crop = bitmap.getLazyCrop(s);
+            if(crop!=null){
+                bh.consume(ocr.getRanking(crop));
+            }
+        }
+    }
+}
@@ -42,7 +42,7 @@ public final class Molvec {
 	 */
 	public static MolvecResult ocr(File image, MolvecOptions options) throws IOException{
 		checkNotNull(image);
-		StructureImageExtractor sie = new StructureImageExtractor(image);
+		StructureImageExtractor sie = new StructureImageExtractor(image, false, options);
 		if(options ==null) {
 			return DEFAULT_OPTIONS.computeResult(sie.getCtab());
 		}
@@ -82,7 +82,7 @@ public final class Molvec {
 	 */
 	public static MolvecResult ocr(byte[] image, MolvecOptions options) throws IOException{
 		checkNotNull(image);
-		StructureImageExtractor sie = new StructureImageExtractor(image);
+		StructureImageExtractor sie = new StructureImageExtractor(image, false, options);
 		if(options ==null) {
 			return DEFAULT_OPTIONS.computeResult(sie.getCtab());
 		}
@@ -116,7 +116,7 @@ public final class Molvec {
 	 */
 	public static MolvecResult ocr(BufferedImage image, MolvecOptions options) throws IOException{
 		checkNotNull(image);
-		StructureImageExtractor sie = StructureImageExtractor.createFromImage(image);
+		StructureImageExtractor sie = StructureImageExtractor.createFromImage(image, options);
 		if(options ==null) {
 			return DEFAULT_OPTIONS.computeResult(sie.getCtab());
 		}
@@ -0,0 +1,272 @@
+package gov.nih.ncats.molvec;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Process many images with a bounded amount of work in flight.
+ * <p>
+ * Images are pulled from the input only as results are consumed, so at most
+ * {@link #concurrency(int) concurrency} images are being processed or waiting to be
+ * consumed at any time no matter how large the input is.  Results are returned in
+ * input order by default, or in the order they finish with {@code ordered(false)}.
+ *
+ * <pre>
+ * try(Stream&lt;MolvecBatchResult&lt;File&gt;&gt; results = new MolvecBatch()
+ *                                                  .options(options)
+ *                                                  .concurrency(8)
+ *                                                  .ocrFiles(files)){
+ *     results.forEach(r-&gt; ...);
+ * }
+ * </pre>
+ * The returned Stream should be closed if it is not fully consumed so that any
+ * remaining work is cancelled.  Images that can not be processed produce
+ * an error {@link MolvecResult} instead of stopping the batch.
+ * <p>
+ * A MolvecBatch may be reused for several batches but should not be
+ * modified while one of its Streams is being consumed.
+ *
+ * @since 0.9.10
+ */
+public class MolvecBatch {
+
+    private MolvecOptions options;
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private boolean ordered = true;
+    private Executor executor;
+
+    /**
+     * Set the {@link MolvecOptions} to use for every image.
+     * @param options the options to use; if null, the default options are used.
+     * @return this
+     */
+    public MolvecBatch options(MolvecOptions options){
+        this.options = options;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of images that may be in flight (processing, or finished
+     * but not consumed yet) at one time.  Defaults to the number of available processors.
+     * @param concurrency the limit, must be &gt; 0.
+     * @return this
+     */
+    public MolvecBatch concurrency(int concurrency){
+        if(concurrency <=0){
+            throw new IllegalArgumentException("concurrency must be > 0");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Should results be returned in input order (the default) or
+     * in the order they finish.  Finish order avoids waiting on a slow image
+     * while later results are already done.
+     * @param ordered true to return results in input order.
+     * @return this
+     */
+    public MolvecBatch ordered(boolean ordered){
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Set the Executor to run the images on.  If not set (or null), each batch
+     * uses its own pool of {@code concurrency} daemon threads which is shut down
+     * when the batch finishes or its Stream is closed.
+     * @param executor the executor to use; may be null.
+     * @return this
+     */
+    public MolvecBatch executor(Executor executor){
+        this.executor = executor;
+        return this;
+    }
+
+    public Stream<MolvecBatchResult<File>> ocrFiles(Iterator<File> images){
+        return ocr(images, Molvec::ocr);
+    }
+
+    public Stream<MolvecBatchResult<File>> ocrFiles(Stream<File> images){
+        return ocrFiles(images.iterator()).onClose(images::close);
+    }
+
+    public Stream<MolvecBatchResult<byte[]>> ocrBytes(Iterator<byte[]> images){
+        return ocr(images, Molvec::ocr);
+    }
+
+    public Stream<MolvecBatchResult<byte[]>> ocrBytes(Stream<byte[]> images){
+        return ocrBytes(images.iterator()).onClose(images::close);
+    }
+
+    public Stream<MolvecBatchResult<BufferedImage>> ocrImages(Iterator<BufferedImage> images){
+        return ocr(images, Molvec::ocr);
+    }
+
+    public Stream<MolvecBatchResult<BufferedImage>> ocrImages(Stream<BufferedImage> images){
+        return ocrImages(images.iterator()).onClose(images::close);
+    }
+
+    private <T> Stream<MolvecBatchResult<T>> ocr(Iterator<T> images, OcrFunction<T> ocr){
+        Objects.requireNonNull(images, "images can not be null");
+        BatchIterator<T> iter = new BatchIterator<>(images, ocr, options, concurrency, ordered, executor);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(iter::close);
+    }
+
+    @FunctionalInterface
+    private interface OcrFunction<T>{
+        MolvecResult ocr(T image, MolvecOptions options) throws IOException;
+    }
+
+    private static class BatchIterator<T> implements Iterator<MolvecBatchResult<T>>{
+        private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+        private final Iterator<T> images;
+        private final OcrFunction<T> ocr;
+        private final MolvecOptions options;
+        private final int concurrency;
+        private final boolean ordered;
+
+        private Executor executor;
+        private ExecutorService ownPool;
+        private CompletionService<MolvecBatchResult<T>> completionService;
+        //everything submitted and not yet returned, in submission order
+        private final Deque<Future<MolvecBatchResult<T>>> inFlight = new ArrayDeque<>();
+        private long nextIndex;
+        private boolean closed;
+
+        BatchIterator(Iterator<T> images, OcrFunction<T> ocr, MolvecOptions options, int concurrency, boolean ordered, Executor executor){
+            this.images = images;
+            this.ocr = ocr;
+            this.options = options;
+            this.concurrency = concurrency;
+            this.ordered = ordered;
+            this.executor = executor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            return !inFlight.isEmpty();
+        }
+
+        @Override
+        public MolvecBatchResult<T> next() {
+            if(!hasNext()){
+                throw new NoSuchElementException();
+            }
+            MolvecBatchResult<T> result;
+            try{
+                if(ordered){
+                    result = inFlight.removeFirst().get();
+                }else{
+                    Future<MolvecBatchResult<T>> done = completionService.take();
+                    inFlight.remove(done);
+                    result = done.get();
+                }
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("interrupted while waiting for results", e);
+            }catch(ExecutionException e){
+                //the tasks catch everything so this shouldn't happen
+                throw new IllegalStateException(e.getCause());
+            }
+            fill();
+            return result;
+        }
+
+        private void fill(){
+            if(closed){
+                return;
+            }
+            while(inFlight.size() < concurrency && images.hasNext()){
+                T image = images.next();
+                long index = nextIndex++;
+                Callable<MolvecBatchResult<T>> task = ()->{
+                    MolvecResult r;
+                    try{
+                        r = ocr.ocr(image, options);
+                    }catch(Throwable t){
+                        r = MolvecResult.createFromError(t);
+                    }
+                    return new MolvecBatchResult<>(image, index, r);
+                };
+                inFlight.add(submit(task));
+            }
+            if(inFlight.isEmpty()){
+                //all done
+                shutdownOwnPool();
+            }
+        }
+
+        private Future<MolvecBatchResult<T>> submit(Callable<MolvecBatchResult<T>> task){
+            if(executor ==null){
+                ownPool = Executors.newFixedThreadPool(concurrency, newDaemonThreadFactory());
+                executor = ownPool;
+            }
+            if(ordered){
+                FutureTask<MolvecBatchResult<T>> f = new FutureTask<>(task);
+                executor.execute(f);
+                return f;
+            }
+            if(completionService ==null){
+                completionService = new ExecutorCompletionService<>(executor);
+            }
+            return completionService.submit(task);
+        }
+
+        void close(){
+            if(closed){
+                return;
+            }
+            closed = true;
+            for(Future<MolvecBatchResult<T>> f : inFlight){
+                f.cancel(true);
+            }
+            inFlight.clear();
+            if(ownPool !=null){
+                ownPool.shutdownNow();
+            }
+        }
+
+        private void shutdownOwnPool(){
+            if(ownPool !=null){
+                ownPool.shutdown();
+            }
+        }
+
+        private static ThreadFactory newDaemonThreadFactory(){
+            int poolNumber = POOL_COUNT.incrementAndGet();
+            AtomicInteger threadCount = new AtomicInteger();
+            return r->{
+                Thread t = new Thread(r, "molvec-batch-" + poolNumber + "-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+}
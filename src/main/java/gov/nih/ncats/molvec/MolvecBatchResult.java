@@ -0,0 +1,48 @@
+package gov.nih.ncats.molvec;
+
+import java.util.Objects;
+
+/**
+ * The {@link MolvecResult} for one image of a {@link MolvecBatch},
+ * along with the image it came from and its position in the input.
+ *
+ * @param <T> the type of image source (File, byte[] or BufferedImage).
+ *
+ * @since 0.9.10
+ */
+public final class MolvecBatchResult<T> {
+    private final T source;
+    private final long index;
+    private final MolvecResult result;
+
+    MolvecBatchResult(T source, long index, MolvecResult result) {
+        this.source = source;
+        this.index = index;
+        this.result = Objects.requireNonNull(result);
+    }
+
+    /**
+     * The image that was processed.
+     * @return the image source object that was passed in.
+     */
+    public T getSource() {
+        return source;
+    }
+
+    /**
+     * The 0-based position of the image in the input.
+     * @return the index.
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * The result for this image; if the image could not be processed
+     * this will be an error result (see {@link MolvecResult#hasError()}).
+     * @return the {@link MolvecResult}; will never be null.
+     */
+    public MolvecResult getResult() {
+        return result;
+    }
+}
@@ -19,6 +19,8 @@ public class MolvecOptions {
     private boolean includeSgroups = true;
 
     private String name;
+    private MolvecStepListener stepListener;
+    private boolean speculativeBinarization = false;
 
     public MolvecOptions setName(String name){
         this.name = name;
@@ -42,6 +44,49 @@ public class MolvecOptions {
         return this;
     }
 
+    /**
+     * Set a {@link MolvecStepListener} to be notified with timing and size
+     * measurements after each step of the structure recognition.
+     * @param stepListener the listener to use; or null to turn off measuring (the default).
+     * @return this
+     *
+     * @since 0.9.10
+     */
+    public MolvecOptions stepListener(MolvecStepListener stepListener){
+        this.stepListener = stepListener;
+        return this;
+    }
+
+    public MolvecStepListener getStepListener(){
+        return stepListener;
+    }
+
+    /**
+     * Some images are too spotty or too small to process with the default threshold
+     * and have to be processed again with a different threshold and/or scaled up,
+     * one attempt after the other.  If speculative binarization is turned on,
+     * those extra attempts are started on other threads at the same time
+     * as the default one and cancelled once they are not needed.  This uses more CPU
+     * per image but lowers the worst case latency. The result is the same either way.
+     * <p>
+     * The {@link #stepListener(MolvecStepListener) step listener} is told about the same steps
+     * as without it: the steps of an extra attempt are kept and only reported, on the
+     * calling thread, if the attempt turns out to be needed.
+     * </p>
+     * @param speculativeBinarization true to turn on speculative binarization; defaults to false.
+     * @return this
+     *
+     * @since 0.9.10
+     */
+    public MolvecOptions speculativeBinarization(boolean speculativeBinarization){
+        this.speculativeBinarization = speculativeBinarization;
+        return this;
+    }
+
+    public boolean isSpeculativeBinarization(){
+        return speculativeBinarization;
+    }
+
     public MolvecResult computeResult(ConnectionTable ct){
         String mol= toMol(ct);
 
@@ -0,0 +1,22 @@
+package gov.nih.ncats.molvec;
+
+/**
+ * Callback that is notified after each step of the structure
+ * recognition pipeline finishes.  Set one with
+ * {@link MolvecOptions#stepListener(MolvecStepListener)} to find out
+ * where the time goes on a particular image.
+ * <p>
+ * The listener is called on the thread running the recognition, so
+ * implementations that are shared between concurrent calls must be thread-safe.
+ * When no listener is set, no measurements are taken at all.
+ *
+ * @since 0.9.10
+ */
+@FunctionalInterface
+public interface MolvecStepListener {
+    /**
+     * Called after a step of the pipeline has finished.
+     * @param metrics the measurements for the step that just finished; will never be null.
+     */
+    void onStep(MolvecStepMetrics metrics);
+}
@@ -0,0 +1,84 @@
+package gov.nih.ncats.molvec;
+
+/**
+ * Measurements taken for a single step of the structure recognition
+ * pipeline, reported to a {@link MolvecStepListener}.
+ * <p>
+ * Steps numbered 1 and up are the numbered connection table steps; the
+ * image processing stages that run before any connection table exists
+ * (thinning, connected components, OCR and line segments) are reported as step 0.
+ * If the image has to be re-processed (for example with a different threshold),
+ * the step numbers start over.
+ *
+ * @since 0.9.10
+ */
+public interface MolvecStepMetrics {
+    /**
+     * The step number, 0 for the stages before the connection table is built.
+     * Some step numbers are used by more than one step.
+     * @return the step number.
+     */
+    int getStepNumber();
+    /**
+     * A short description of what the step does.
+     * @return the description; will never be null.
+     */
+    String getDescription();
+    /**
+     * The wall clock time in nanoseconds since the previous step finished
+     * (or since processing of the binarized image started for the first step).
+     * @return the elapsed time in nanoseconds.
+     */
+    long getWallTimeNanos();
+    /**
+     * The number of bytes allocated during the step by the thread running the
+     * recognition, and only that thread.
+     * <p>
+     * Some of the work is done on other threads and is not counted: OCR
+     * batches of more than a few shapes, and the cropping for them, are run on
+     * the common {@link java.util.concurrent.ForkJoinPool}. So for the OCR steps
+     * this can be much less than what the step really allocates; use it to compare
+     * runs of the same image, not as a total. With speculative binarization the
+     * steps of an extra attempt are measured on the thread that ran that attempt.
+     * </p>
+     * @return the number of bytes allocated on the calling thread, or -1 if the
+     * JVM does not support measuring it.
+     */
+    long getAllocatedBytes();
+    /**
+     * The number of connected component polygons found in the image at the end of the step.
+     * @return the polygon count.
+     */
+    int getPolygonCount();
+    /**
+     * The number of line segments found in the thinned image at the end of the step,
+     * 0 if the segments haven't been computed yet.
+     * @return the line segment count.
+     */
+    int getSegmentCount();
+    /**
+     * The number of nodes in the connection table before the step ran.
+     * @return the node count.
+     */
+    int getNodeCountBefore();
+    /**
+     * The number of nodes in the connection table after the step ran.
+     * @return the node count.
+     */
+    int getNodeCountAfter();
+    /**
+     * The number of edges in the connection table before the step ran.
+     * @return the edge count.
+     */
+    int getEdgeCountBefore();
+    /**
+     * The number of edges in the connection table after the step ran.
+     * @return the edge count.
+     */
+    int getEdgeCountAfter();
+    /**
+     * The number of shapes sent to the OCR engine during the step.
+     * @return the number of OCR calls.
+     */
+    long getOcrCalls();
+}
@@ -0,0 +1,209 @@
+package gov.nih.ncats.molvec.internal.algo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import gov.nih.ncats.molvec.MolvecStepListener;
+import gov.nih.ncats.molvec.MolvecStepMetrics;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+
+/**
+ * Measures the steps of a {@link StructureImageExtractor} run and reports
+ * them to a {@link MolvecStepListener}.  Only created when a listener is set.
+ */
+class StepTimer {
+
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+	private static final boolean ALLOCATION_SUPPORTED = isAllocationSupported();
+
+	private final MolvecStepListener listener;
+	//only for recording timers
+	private final List<MolvecStepMetrics> recorded;
+	private final LongAdder ocrCalls = new LongAdder();
+
+	private long lastTime;
+	private long lastAllocated;
+	private long lastOcrCalls;
+	private int lastNodes;
+	private int lastEdges;
+
+	StepTimer(MolvecStepListener listener){
+		this(listener, null);
+	}
+
+	private StepTimer(MolvecStepListener listener, List<MolvecStepMetrics> recorded){
+		this.listener = listener;
+		this.recorded = recorded;
+	}
+
+	/**
+	 * A timer that keeps the steps instead of reporting them, for
+	 * work whose steps only count if its result is used.
+	 * @see #replayTo(StepTimer)
+	 */
+	static StepTimer recording(){
+		List<MolvecStepMetrics> recorded = new ArrayList<>();
+		return new StepTimer(recorded::add, recorded);
+	}
+
+	/**
+	 * Report the steps kept by this recording timer to the listener of
+	 * the given timer, on the calling thread.
+	 */
+	void replayTo(StepTimer other){
+		if(recorded==null){
+			return;
+		}
+		for(MolvecStepMetrics m : recorded){
+			other.listener.onStep(m);
+		}
+	}
+
+	/**
+	 * Start (or restart) timing from now, called each time the
+	 * binarized image is (re)processed.
+	 */
+	void start(){
+		lastTime = System.nanoTime();
+		lastAllocated = allocatedBytes();
+		lastOcrCalls = ocrCalls.sum();
+		lastNodes = 0;
+		lastEdges = 0;
+	}
+
+	void ocrCalled(){
+		ocrCalls.increment();
+	}
+
+	void step(int stepNum, String msg, int polygons, int segments, ConnectionTable ctab){
+		long now = System.nanoTime();
+		long allocated = allocatedBytes();
+		long calls = ocrCalls.sum();
+		int nodes = ctab==null?0:ctab.getNodes().size();
+		int edges = ctab==null?0:ctab.getEdges().size();
+
+		Metrics m = new Metrics(stepNum, msg, now-lastTime,
+				allocated<0?-1:allocated-lastAllocated,
+				polygons, segments, lastNodes, nodes, lastEdges, edges, calls-lastOcrCalls);
+
+		listener.onStep(m);
+
+		//don't count the listener itself against the next step
+		lastTime = System.nanoTime();
+		lastAllocated = allocatedBytes();
+		lastOcrCalls = calls;
+		lastNodes = nodes;
+		lastEdges = edges;
+	}
+
+	private static boolean isAllocationSupported(){
+		try{
+			if(THREAD_BEAN instanceof com.sun.management.ThreadMXBean){
+				com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)THREAD_BEAN;
+				if(bean.isThreadAllocatedMemorySupported()){
+					if(!bean.isThreadAllocatedMemoryEnabled()){
+						bean.setThreadAllocatedMemoryEnabled(true);
+					}
+					return true;
+				}
+			}
+		}catch(Throwable t){
+			//not a HotSpot-like JVM or not allowed to turn it on
+		}
+		return false;
+	}
+
+	//only the current thread, see MolvecStepMetrics.getAllocatedBytes() for what that leaves out
+	private static long allocatedBytes(){
+		if(!ALLOCATION_SUPPORTED){
+			return -1;
+		}
+		return ((com.sun.management.ThreadMXBean)THREAD_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static final class Metrics implements MolvecStepMetrics{
+		private final int stepNumber;
+		private final String description;
+		private final long wallTimeNanos;
+		private final long allocatedBytes;
+		private final int polygonCount;
+		private final int segmentCount;
+		private final int nodeCountBefore;
+		private final int nodeCountAfter;
+		private final int edgeCountBefore;
+		private final int edgeCountAfter;
+		private final long ocrCalls;
+
+		Metrics(int stepNumber, String description, long wallTimeNanos, long allocatedBytes,
+				int polygonCount, int segmentCount, int nodeCountBefore, int nodeCountAfter,
+				int edgeCountBefore, int edgeCountAfter, long ocrCalls){
+			this.stepNumber = stepNumber;
+			this.description = description;
+			this.wallTimeNanos = wallTimeNanos;
+			this.allocatedBytes = allocatedBytes;
+			this.polygonCount = polygonCount;
+			this.segmentCount = segmentCount;
+			this.nodeCountBefore = nodeCountBefore;
+			this.nodeCountAfter = nodeCountAfter;
+			this.edgeCountBefore = edgeCountBefore;
+			this.edgeCountAfter = edgeCountAfter;
+			this.ocrCalls = ocrCalls;
+		}
+
+		@Override
+		public int getStepNumber() {
+			return stepNumber;
+		}
+		@Override
+		public String getDescription() {
+			return description;
+		}
+		@Override
+		public long getWallTimeNanos() {
+			return wallTimeNanos;
+		}
+		@Override
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+		@Override
+		public int getPolygonCount() {
+			return polygonCount;
+		}
+		@Override
+		public int getSegmentCount() {
+			return segmentCount;
+		}
+		@Override
+		public int getNodeCountBefore() {
+			return nodeCountBefore;
+		}
+		@Override
+		public int getNodeCountAfter() {
+			return nodeCountAfter;
+		}
+		@Override
+		public int getEdgeCountBefore() {
+			return edgeCountBefore;
+		}
+		@Override
+		public int getEdgeCountAfter() {
+			return edgeCountAfter;
+		}
+		@Override
+		public long getOcrCalls() {
+			return ocrCalls;
+		}
+		@Override
+		public String toString() {
+			return "STEP[" + stepNumber + "] " + description + " time=" + (wallTimeNanos/1000) + "us"
+					+ " alloc=" + allocatedBytes + " polygons=" + polygonCount + " segments=" + segmentCount
+					+ " nodes=" + nodeCountBefore + "->" + nodeCountAfter
+					+ " edges=" + edgeCountBefore + "->" + edgeCountAfter
+					+ " ocr=" + ocrCalls;
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package gov.nih.ncats.molvec.internal.algo;
 
-import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Shape;
@@ -8,6 +7,7 @@ import java.awt.geom.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
@@ -29,6 +29,12 @@ import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
@@ -37,14 +43,17 @@ import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import javax.imageio.ImageIO;
-
+import gov.nih.ncats.molvec.MolvecOptions;
+import gov.nih.ncats.molvec.MolvecStepListener;
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 import gov.nih.ncats.molvec.internal.image.Bitmap.WedgeInfo;
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
 import gov.nih.ncats.molvec.internal.util.CachedSupplier;
 import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
+import gov.nih.ncats.molvec.internal.image.binarization.ImageStats;
 import gov.nih.ncats.molvec.internal.image.binarization.LeastPopulatedThreshold;
 import gov.nih.ncats.molvec.internal.image.binarization.SigmaThreshold;
+import gov.nih.ncats.molvec.ui.CachedSCOCR;
 import gov.nih.ncats.molvec.ui.FontBasedRasterCosineSCOCR;
 import gov.nih.ncats.molvec.ui.SCOCR;
 import gov.nih.ncats.molvec.ui.StupidestPossibleSCOCRSansSerif;
@@ -59,6 +68,7 @@ import gov.nih.ncats.molvec.internal.util.GeomUtil.BoundingBox;
 import gov.nih.ncats.molvec.internal.util.GeomUtil.LineWrapper;
 import gov.nih.ncats.molvec.internal.util.GeomUtil.ShapeWrapper;
 import gov.nih.ncats.molvec.internal.util.RunningAverage;
+import gov.nih.ncats.molvec.internal.util.SpatialIndex;
 
 /**
  * StructureImageExtractor takes in an Image file, byte array, or {@link BufferedImage} and produces a chemical structure connection table,
@@ -93,7 +103,21 @@ public class StructureImageExtractor {
 			});
 
 
-	private static final SCOCR OCR_ALL=new FontBasedRasterCosineSCOCR();
+	//threads for the speculative binarization attempts, at most one per processor
+	//so concurrent extractions queue up instead of piling on more threads. Idle threads time out.
+	//An attempt still in the queue when it's needed is run by the thread needing it, see SpeculativeAttempt
+	private static final ExecutorService SPECULATIVE_EXECUTOR;
+	static{
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), r->{
+					Thread t = new Thread(r, "molvec-speculative-binarization");
+					t.setDaemon(true);
+					return t;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		SPECULATIVE_EXECUTOR = executor;
+	}
 
 	static{
 		Set<Character> alpha=SCOCR.SET_COMMON_CHEM_ALL();
@@ -102,13 +126,15 @@ public class StructureImageExtractor {
 		OCR_DEFAULT.setAlphabet(alpha);
 		OCR_BACKUP.setAlphabet(alpha);
 
-		Set<Character> alphaAll=SCOCR.SET_COMMON_PUCTUATION();
-		alphaAll.addAll(SCOCR.SET_ALPHANUMERIC());
-		OCR_ALL.setAlphabet(alphaAll);
-
 		//((FontBasedRasterCosineSCOCR)OCR_BACKUP).debug();
 	}
 	private boolean DEBUG=false;
+	private StepTimer stepTimer=null;
+	private boolean speculative=false;
+	//called once the default binarization is known not to be too spotty
+	private Runnable onPassedSpottyCheck=null;
+	//called once the default binarization is known not to be too small
+	private Runnable onPassedSizeCheck=null;
 
 	public static int SKIP_STEP_AT = -1;
 	private Bitmap bitmap; // original bitmap
@@ -150,9 +176,23 @@ public class StructureImageExtractor {
 	private final double MAX_TOLERANCE_FOR_DASH_BONDS = 2.0;
 	private final double MAX_TOLERANCE_FOR_SINGLE_BONDS = 0.4;
 
-	private final double OCRcutoffCosine=0.65;
+	private static final double OCRcutoffCosine=0.65;
 	private final double OCRcutoffCosineRescueInitial=0.55;
 	private final double OCRcutoffCosineRescue=0.50;
+
+	//shared by every extraction in the JVM, the same labels come up over and over in a batch
+	private static final int OCR_CACHE_SIZE = 4_096;
+	private static final SCOCR.OrElseSCOCR OCR_CASCADE = OCR_DEFAULT.orElse(OCR_BACKUP, OCRcutoffCosine);
+	private static final CachedSCOCR OCR_CACHED = OCR_CASCADE.cached(OCR_CACHE_SIZE);
+
+	/**
+	 * How many OCR lookups were answered by the sans serif templates and
+	 * how many needed the serif ones, for every extraction in this JVM so far.
+	 * Lookups answered from the cache aren't counted.
+	 */
+	public static long[] getOCRTierCounts(){
+		return OCR_CASCADE.getTierCounts();
+	}
 	
 
 	private final double WEDGE_LIKE_PEARSON_SCORE_CUTOFF=.60;
@@ -278,15 +318,15 @@ public class StructureImageExtractor {
 	 * @throws IOException
 	 */
 	public static StructureImageExtractor createFromImage(BufferedImage bufferedImage)throws IOException{
+		return createFromImage(bufferedImage, (MolvecOptions)null);
+	}
+	
+	public static StructureImageExtractor createFromImage(BufferedImage bufferedImage, MolvecOptions options)throws IOException{
 		BufferedImage img = bufferedImage;
 		if(BufferedImage.TYPE_BYTE_GRAY != bufferedImage.getType()){
 			img = toGrayScale(bufferedImage);
 		}
-		try {
-			return new StructureImageExtractor(img.getRaster());
-		}catch(InterruptedException e){
-			throw new IOException("interrupted", e);
-		}
+		return new StructureImageExtractor(img.getRaster(), false, options);
 
 	}
 
@@ -329,27 +369,35 @@ public class StructureImageExtractor {
 	 * @throws Exception
 	 */
 	public StructureImageExtractor(Raster raster, boolean debug )throws IOException{
+		this(raster, debug, (MolvecOptions)null);
+	}
+	
+	/**
+	 * Create a new {@link StructureImageExtractor}, using a given {@link Raster} and
+	 * the processing settings ({@link MolvecStepListener}, speculative binarization)
+	 * of the given {@link MolvecOptions}.
+	 * @param raster the raster to be processed
+	 * @param debug if true, print debug information to standard out
+	 * @param options the {@link MolvecOptions} to use; may be null.
+	 * @throws IOException
+	 * 
+	 * @since 0.9.10
+	 */
+	public StructureImageExtractor(Raster raster, boolean debug, MolvecOptions options)throws IOException{
 		this.DEBUG = debug;
+		setOptions(options);
 		try {
-			try {
-				load(Bitmap.createBitmap(raster, DEF_BINARIZATION).clean(), true);
-			} catch (ImageTooSmallException e) {
-				File bi = stdResize(raster, 3);
-				load(bitmap = Bitmap.read(bi, RESIZE_BINARIZATION).clean(), false);
-			} catch (ImageTooSpottyException e) {
-				try {
-					load(Bitmap.createBitmap(raster, TOO_WASHED_BINARIZATION).clean(), false);
-				} catch (ImageTooSmallException ex) {
-					File bi = stdResize(raster, 3);
-					load(bitmap = Bitmap.read(bi, RESIZE_BINARIZATION).clean(), false);
-				}
-			}
+			load(raster, null);
 		}catch(InterruptedException e){
 			throw new IOException("interrupted", e);
 		}
 	}
 	public StructureImageExtractor(byte[] file, boolean debug) throws IOException{
+		this(file, debug, (MolvecOptions)null);
+	}
+	public StructureImageExtractor(byte[] file, boolean debug, MolvecOptions options) throws IOException{
 		this.DEBUG=debug;
+		setOptions(options);
 		try {
 			load(file);
 		}catch(InterruptedException e){
@@ -357,7 +405,11 @@ public class StructureImageExtractor {
 		}
 	}
 	public StructureImageExtractor(File file, boolean debug) throws IOException{
+		this(file, debug, (MolvecOptions)null);
+	}
+	public StructureImageExtractor(File file, boolean debug, MolvecOptions options) throws IOException{
 		this.DEBUG=debug;
+		setOptions(options);
 		try{
 			load(file);
 		}catch(InterruptedException e){
@@ -372,6 +424,23 @@ public class StructureImageExtractor {
 		this(file,false);
 	}
 	
+	private void setOptions(MolvecOptions options){
+		if(options==null){
+			return;
+		}
+		MolvecStepListener listener = options.getStepListener();
+		this.stepTimer = listener==null? null : new StepTimer(listener);
+		this.speculative = options.isSpeculativeBinarization();
+	}
+	
+	/**
+	 * Used for the speculative binarization attempts, which are loaded
+	 * separately by {@link #speculate(BitmapSupplier)}.
+	 */
+	private StructureImageExtractor(boolean debug){
+		this.DEBUG=debug;
+	}
+	
 	
 	
 	
@@ -456,6 +525,21 @@ public class StructureImageExtractor {
 		List<ShapeWrapper> toAddShapes = Collections.synchronizedList(new ArrayList<>());
 		List<ShapeWrapper> toRemoveShapes = Collections.synchronizedList(new ArrayList<>());
 
+		if (Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		//all of the shapes are scored in one batch first
+		List<ShapeWrapper> ocrShapes = polygons.stream()
+											   .filter(s->s.getBounds().getWidth()>0 && s.getBounds().getHeight()>0)
+											   .collect(Collectors.toList());
+		List<List<Tuple<Character,Number>>> ocrMatches = processOCRShapes(socr, ocrShapes, bitmap);
+		Map<ShapeWrapper,List<Tuple<Character,Number>>> firstMatches = new HashMap<>();
+		for(int i=0;i<ocrShapes.size();i++){
+			if(ocrMatches.get(i)!=null){
+				firstMatches.put(ocrShapes.get(i), ocrMatches.get(i));
+			}
+		}
+
 		Stream<ShapeWrapper> stream;
 		
 		if(polygons.size()>20){
@@ -475,11 +559,10 @@ public class StructureImageExtractor {
 			Rectangle2D bounds2d = s.getBounds();
 			if(bounds2d.getWidth()>0 && bounds2d.getHeight()>0){
 				List<Tuple<Character,Number>> ll = new ArrayList<>();
-				
-				processOCRShape(socr,s,bitmap,(sf,lf)->{
-					ll.addAll(lf);
-					//onFind.accept(sf, lf);
-				});
+				List<Tuple<Character,Number>> first = firstMatches.get(s);
+				if(first!=null){
+					ll.addAll(first);
+				}
 				
 				double bestMatch1 = ll.stream().findFirst().map(t->t.v().doubleValue()).orElse(0.0);
 				double[] bestMatch = new double[]{bestMatch1,bestMatch1};
@@ -641,190 +724,245 @@ public class StructureImageExtractor {
 		polygons.addAll(toAddShapes);
 	}
 
+	/**
+	 * A shape cropped and ready to be scored by an {@link SCOCR}, see
+	 * {@link #prepareOCRShape(ShapeWrapper, Bitmap)}.
+	 */
+	private static class OCRCandidate{
+		private final ShapeWrapper shape;
+		private final double area;
+		private final Bitmap cropped;
+		private final Bitmap thinCropped;
+		//almost all on, these aren't scored
+		private final boolean solid;
+
+		private OCRCandidate(ShapeWrapper shape, double area, Bitmap cropped, Bitmap thinCropped, boolean solid){
+			this.shape=shape;
+			this.area=area;
+			this.cropped=cropped;
+			this.thinCropped=thinCropped;
+			this.solid=solid;
+		}
+	}
+
 	private void processOCRShape(SCOCR socr, ShapeWrapper inputShape, Bitmap bitmap, BiConsumer<ShapeWrapper,List<Tuple<Character,Number>>> onFind){
+		OCRCandidate c = prepareOCRShape(inputShape, bitmap);
+		if(c==null)return;
+		finishOCRShape(c, c.solid?null:socr.getNBestMatches(4, c.cropped, c.thinCropped), onFind);
+	}
+
+	/**
+	 * Same as {@link #processOCRShape(SCOCR, ShapeWrapper, Bitmap, BiConsumer)} for each of the shapes,
+	 * but all of them are scored in one batch.
+	 * @return the matches of each shape in the same order, null for shapes that
+	 * processOCRShape wouldn't report.
+	 */
+	private List<List<Tuple<Character,Number>>> processOCRShapes(SCOCR socr, List<ShapeWrapper> shapes, Bitmap bitmap){
+		Stream<ShapeWrapper> stream = (shapes.size()>SCOCR.PARALLEL_BATCH_SIZE)?shapes.parallelStream():shapes.stream();
+		List<OCRCandidate> cands = stream.map(s->prepareOCRShape(s, bitmap))
+										 .collect(Collectors.toList());
+		List<Bitmap[]> batch = cands.stream()
+									.filter(c->c!=null && !c.solid)
+									.map(c->new Bitmap[]{c.cropped, c.thinCropped})
+									.collect(Collectors.toList());
+		List<List<Map.Entry<Character,Number>>> scored = socr.getNBestMatchesForEach(4, batch);
+
+		List<List<Tuple<Character,Number>>> results = new ArrayList<>(cands.size());
+		int j=0;
+		for(OCRCandidate c : cands){
+			List<List<Tuple<Character,Number>>> found = new ArrayList<>(1);
+			if(c!=null){
+				finishOCRShape(c, c.solid?null:scored.get(j++), (sf,lf)->found.add(lf));
+			}
+			results.add(found.isEmpty()?null:found.get(0));
+		}
+		return results;
+	}
+
+	/**
+	 * Crop the shape for OCR.
+	 * @return null if the shape is too small to bother with.
+	 */
+	private OCRCandidate prepareOCRShape(ShapeWrapper inputShape, Bitmap bitmap){
 		//this is a critical section that is called thousands of times
 		//so some work as been put in to optimize it
 		//shaving off a few ms really adds up!
-		ShapeWrapper sTest=inputShape;
-
-		if(sTest.getBounds().getWidth()>0 && sTest.getBounds().getHeight()>0){
-			
-			
-			
-			double areareal=inputShape.getArea();
-			
+		if(!(inputShape.getBounds().getWidth()>0 && inputShape.getBounds().getHeight()>0)){
+			return null;
+		}
+		double areareal=inputShape.getArea();
+		if(areareal<=5)return null;
 
-			if(areareal<=5)return;
-			
-//			if(areareal > 20*20*6){ //quite big
-//				bitmap = bitmap.half();
-//				thin=thin.half();
-//				AffineTransform scaleDown = new AffineTransform();
-//				scaleDown.scale(0.5, 0.5);
-//				sTest=scaleDown.createTransformedShape(sTest);
-//				
-//			}
-			
-			//we compute this a couple of times in the if statements below so cache it.
-			CachedSupplier<Double> areaRealDivByAreaBox = CachedSupplier.of(() ->areareal/ GeomUtil.area(inputShape.getBounds()));
-			
-			//we only really care about the "best" character and never update that value
-			//even after filtering...
-			//the rest of the time char lookups just look for contains without worrying about order
-			Character[] best =new Character[1]; //this is done to set it in a lambda
-			boolean[] asciiCache = new boolean[128]; // we only check against ASCII values
+		Bitmap cropped = bitmap.getLazyCrop(inputShape.getShape());
+		if(cropped.fractionPixelsOn()>0.9){
+			return new OCRCandidate(inputShape, areareal, cropped, null, true);
+		}
+		if(stepTimer!=null)stepTimer.ocrCalled();
+		return new OCRCandidate(inputShape, areareal, cropped, thin.getLazyCrop(inputShape.getShape()), false);
+	}
 
-			Bitmap cropped = bitmap.getLazyCrop(sTest.getShape());
-			
-			if(cropped.fractionPixelsOn()>0.9){
-				if(sTest.getBounds().getWidth()>sTest.getBounds().getHeight()){
-					onFind.accept(inputShape, Stream.of('-','-','-','-').map(c->Tuple.of(c, (Number)0.8)).collect(Collectors.toList()));
-				}else{
-					onFind.accept(inputShape, Stream.of('I','l','t','i').map(c->Tuple.of(c, (Number)0.8)).collect(Collectors.toList()));
-				}
-				return;
-				
+	/**
+	 * Clean up the raw matches of the candidate, and report them.
+	 * @param matches the best 4 matches, null if the candidate is solid.
+	 */
+	private void finishOCRShape(OCRCandidate candidate, List<Map.Entry<Character,Number>> matches, BiConsumer<ShapeWrapper,List<Tuple<Character,Number>>> onFind){
+		ShapeWrapper inputShape=candidate.shape;
+		ShapeWrapper sTest=inputShape;
+		double areareal=candidate.area;
+		
+		//we compute this a couple of times in the if statements below so cache it.
+		CachedSupplier<Double> areaRealDivByAreaBox = CachedSupplier.of(() ->areareal/ GeomUtil.area(inputShape.getBounds()));
+		
+		//we only really care about the "best" character and never update that value
+		//even after filtering...
+		//the rest of the time char lookups just look for contains without worrying about order
+		Character[] best =new Character[1]; //this is done to set it in a lambda
+		boolean[] asciiCache = new boolean[128]; // we only check against ASCII values
+
+		if(candidate.solid){
+			if(sTest.getBounds().getWidth()>sTest.getBounds().getHeight()){
+				onFind.accept(inputShape, Stream.of('-','-','-','-').map(c->Tuple.of(c, (Number)0.8)).collect(Collectors.toList()));
+			}else{
+				onFind.accept(inputShape, Stream.of('I','l','t','i').map(c->Tuple.of(c, (Number)0.8)).collect(Collectors.toList()));
 			}
+			return;
 			
-			List<Tuple<Character,Number>> potential = socr.getNBestMatches(4,
-					cropped
-					,thin.getLazyCrop(sTest.getShape())
-					
-					)
-					.stream()
-					.map(Tuple::of)
-					.map(t->adjustConfidence(t))
-					.map(t->t.withVComparator())
-					.sorted(Comparator.reverseOrder())
-					.peek(t->{
-						if(best[0] ==null){
-							best[0] = t.k();
-						}
-						char c = t.k();
-						if(c < 128){
-							asciiCache[c]=true;
-						}
-					})
-					.collect(Collectors.toList());
-
-			if(asciiCache['N'] || asciiCache['S']|| asciiCache['s']){
-
-
-				//this usually means it's not a real "N" or S
-				boolean alreadyFiltered=false;
-				if(areaRealDivByAreaBox.get() <0.5){
-					if(asciiCache['\\'] || asciiCache['X'] || asciiCache['K'] ||
-							asciiCache['k'] || asciiCache['-']){
-						potential = potential.stream()
-								.filter(t->!t.k().equals('N') && !t.k().equals('S') && !t.k().equals('s'))
-								.collect(Collectors.toList());
-						alreadyFiltered=true;
+		}
+		
+		List<Tuple<Character,Number>> potential = matches
+				.stream()
+				.map(Tuple::of)
+				.map(t->adjustConfidence(t))
+				.map(t->t.withVComparator())
+				.sorted(Comparator.reverseOrder())
+				.peek(t->{
+					if(best[0] ==null){
+						best[0] = t.k();
 					}
-				}
-				if(!alreadyFiltered){
-					Rectangle2D rbox = inputShape.getBounds();
-					//probably not an N or S
-					if(rbox.getWidth()>rbox.getHeight()*1.3){
-						potential = potential.stream()
-								.filter(t->!t.k().equals('N') && !t.k().equals('S') && !t.k().equals('s'))
-								.collect(Collectors.toList());
+					char c = t.k();
+					if(c < 128){
+						asciiCache[c]=true;
 					}
-				}
-				
-				//This is the least justified tweak, just a strange thing about N+ that I've noticed
-			}else if(asciiCache['M'] && asciiCache['m'] && (asciiCache['P'] || (asciiCache['K'] && asciiCache['-']))){
+				})
+				.collect(Collectors.toList());
 
-				boolean goodEnough=potential.stream().filter(t->t.v().doubleValue()>0.4).findAny().isPresent();
-				boolean badEnough=potential.stream().filter(t->t.v().doubleValue()>0.3).findAny().isPresent();
-				
-				if(!goodEnough && badEnough){
-					if(areaRealDivByAreaBox.get() >0.5){
-						potential.add(0,Tuple.of('?',0.7));
-					}
-				}
-			}else if((asciiCache['9'] && asciiCache['p'] && asciiCache['b'] && asciiCache['3'] ) ||
-					 (asciiCache['9'] && asciiCache['I'] && asciiCache['i'] && asciiCache['3'] )
-					 ){
+		if(asciiCache['N'] || asciiCache['S']|| asciiCache['s']){
 
-				boolean goodEnough=potential.stream().filter(t->t.v().doubleValue()>0.4).findAny().isPresent();
-				boolean badEnough=potential.stream().filter(t->t.v().doubleValue()>0.3).findAny().isPresent();
-				
-				if(!goodEnough && badEnough){
-					if(areaRealDivByAreaBox.get() >0.5){
-						potential.add(0,Tuple.of(')',0.7));
-					}
-				}
-			}else if(asciiCache['C'] && asciiCache['c'] && asciiCache['6'] && (asciiCache['0'] )){
 
-				boolean goodEnough=potential.stream().filter(t->t.v().doubleValue()>0.45).findAny().isPresent();
-				boolean badEnough=potential.stream().filter(t->t.v().doubleValue()>0.3).findAny().isPresent();
-				
-				if(!goodEnough && badEnough){
-					if(areaRealDivByAreaBox.get() >0.5){
-						potential.add(0,Tuple.of('(',0.7));
-					}
+			//this usually means it's not a real "N" or S
+			boolean alreadyFiltered=false;
+			if(areaRealDivByAreaBox.get() <0.5){
+				if(asciiCache['\\'] || asciiCache['X'] || asciiCache['K'] ||
+						asciiCache['k'] || asciiCache['-']){
+					potential = potential.stream()
+							.filter(t->!t.k().equals('N') && !t.k().equals('S') && !t.k().equals('s'))
+							.collect(Collectors.toList());
+					alreadyFiltered=true;
 				}
 			}
-
-			if(Character.valueOf('L').equals(best[0])){
+			if(!alreadyFiltered){
 				Rectangle2D rbox = inputShape.getBounds();
-				if(rbox.getWidth()>rbox.getHeight()*0.6){
-					//Too wide for an L, but since it's the highest confidence, it's
-					//probably just part of a bond system. 
+				//probably not an N or S
+				if(rbox.getWidth()>rbox.getHeight()*1.3){
 					potential = potential.stream()
-							.map(Tuple.vmap(n->(Number)Double.valueOf(0D)))
+							.filter(t->!t.k().equals('N') && !t.k().equals('S') && !t.k().equals('s'))
 							.collect(Collectors.toList());
 				}
 			}
-			if(asciiCache['K']  && asciiCache['X']){
-				if(areaRealDivByAreaBox.get() <0.5){
+			
+			//This is the least justified tweak, just a strange thing about N+ that I've noticed
+		}else if(asciiCache['M'] && asciiCache['m'] && (asciiCache['P'] || (asciiCache['K'] && asciiCache['-']))){
 
-					potential = potential.stream()
-							.map(Tuple.vmap(n->(Number)0.0))
-							.collect(Collectors.toList());
+			boolean goodEnough=potential.stream().filter(t->t.v().doubleValue()>0.4).findAny().isPresent();
+			boolean badEnough=potential.stream().filter(t->t.v().doubleValue()>0.3).findAny().isPresent();
+			
+			if(!goodEnough && badEnough){
+				if(areaRealDivByAreaBox.get() >0.5){
+					potential.add(0,Tuple.of('?',0.7));
+				}
+			}
+		}else if((asciiCache['9'] && asciiCache['p'] && asciiCache['b'] && asciiCache['3'] ) ||
+				 (asciiCache['9'] && asciiCache['I'] && asciiCache['i'] && asciiCache['3'] )
+				 ){
 
+			boolean goodEnough=potential.stream().filter(t->t.v().doubleValue()>0.4).findAny().isPresent();
+			boolean badEnough=potential.stream().filter(t->t.v().doubleValue()>0.3).findAny().isPresent();
+			
+			if(!goodEnough && badEnough){
+				if(areaRealDivByAreaBox.get() >0.5){
+					potential.add(0,Tuple.of(')',0.7));
+				}
+			}
+		}else if(asciiCache['C'] && asciiCache['c'] && asciiCache['6'] && (asciiCache['0'] )){
+
+			boolean goodEnough=potential.stream().filter(t->t.v().doubleValue()>0.45).findAny().isPresent();
+			boolean badEnough=potential.stream().filter(t->t.v().doubleValue()>0.3).findAny().isPresent();
+			
+			if(!goodEnough && badEnough){
+				if(areaRealDivByAreaBox.get() >0.5){
+					potential.add(0,Tuple.of('(',0.7));
 				}
 			}
+		}
 
-			if(asciiCache['S']  && asciiCache['s'] && asciiCache['8']){
-				//It's probably an S in this case, slightly adjust numbers for those
+		if(Character.valueOf('L').equals(best[0])){
+			Rectangle2D rbox = inputShape.getBounds();
+			if(rbox.getWidth()>rbox.getHeight()*0.6){
+				//Too wide for an L, but since it's the highest confidence, it's
+				//probably just part of a bond system. 
 				potential = potential.stream()
-						.map(t->{
-							if(t.k().equals('S') || t.k().equals('s')){
-								return Tuple.of(t.k(),(Number)Math.max(0, (1-(1-t.v().doubleValue())*0.8)));
-							}
-							return t;
-						})
-						.map(t->t.withVComparator())
-						.sorted(Comparator.reverseOrder())
+						.map(Tuple.vmap(n->(Number)Double.valueOf(0D)))
 						.collect(Collectors.toList());
 			}
+		}
+		if(asciiCache['K']  && asciiCache['X']){
+			if(areaRealDivByAreaBox.get() <0.5){
 
-			if(asciiCache['D'] && (asciiCache['U'] ||asciiCache['u'])){
+				potential = potential.stream()
+						.map(Tuple.vmap(n->(Number)0.0))
+						.collect(Collectors.toList());
 
-				if(best[0] != null && (best[0].equals('D') || best[0].equals('U') || best[0].equals('u'))){
-					//It's probably an O, just got flagged wrong
-					potential = potential.stream()
-							.map(Tuple.kmap(c->'O'))
-							.collect(Collectors.toList());
-				}
 			}
-			if(asciiCache['H'] && (asciiCache['a'] )){
-				if(best[0] != null && (best[0].equals('a'))){
-					//'a' characters are usually 'H' characters, provided H is above cutoff
-					if(potential.get(1).k().charValue()=='H'){
-						if(potential.get(1).v().doubleValue()>0.5){
-							Tuple<Character,Number> cc=potential.remove(0);
-							
-							potential.add(Tuple.of(cc.k(),0));
+		}
+
+		if(asciiCache['S']  && asciiCache['s'] && asciiCache['8']){
+			//It's probably an S in this case, slightly adjust numbers for those
+			potential = potential.stream()
+					.map(t->{
+						if(t.k().equals('S') || t.k().equals('s')){
+							return Tuple.of(t.k(),(Number)Math.max(0, (1-(1-t.v().doubleValue())*0.8)));
 						}
+						return t;
+					})
+					.map(t->t.withVComparator())
+					.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList());
+		}
+
+		if(asciiCache['D'] && (asciiCache['U'] ||asciiCache['u'])){
+
+			if(best[0] != null && (best[0].equals('D') || best[0].equals('U') || best[0].equals('u'))){
+				//It's probably an O, just got flagged wrong
+				potential = potential.stream()
+						.map(Tuple.kmap(c->'O'))
+						.collect(Collectors.toList());
+			}
+		}
+		if(asciiCache['H'] && (asciiCache['a'] )){
+			if(best[0] != null && (best[0].equals('a'))){
+				//'a' characters are usually 'H' characters, provided H is above cutoff
+				if(potential.get(1).k().charValue()=='H'){
+					if(potential.get(1).v().doubleValue()>0.5){
+						Tuple<Character,Number> cc=potential.remove(0);
+						
+						potential.add(Tuple.of(cc.k(),0));
 					}
-					
 				}
+				
 			}
-
-			onFind.accept(inputShape, potential);
 		}
+
+		onFind.accept(inputShape, potential);
 	}
 	
 	/**
@@ -845,50 +983,203 @@ public class StructureImageExtractor {
 
 	
 	private void load(byte[] file) throws IOException, InterruptedException{
+		BufferedImage grayscale = ImageUtil.grayscale(file);
+		load(grayscale.getData(), grayscale);
+	}
+	private void load(File file) throws IOException, InterruptedException{
+		BufferedImage grayscale = ImageUtil.grayscale(file);
+		load(grayscale.getData(), grayscale);
+	}
+	/**
+	 * Binarize and process the given grayscale raster, retrying with a different threshold
+	 * if the image looks spotty and with a scaled up image if it looks too small.
+	 * The raster is only decoded once and its {@link ImageStats} computed once
+	 * for all of the attempts.
+	 * @param raster the grayscale raster to process.
+	 * @param image the decoded image the raster came from, used if it needs to be resized;
+	 * if null, the raster itself is resized.
+	 */
+	private void load(Raster raster, RenderedImage image) throws IOException, InterruptedException{
+		ImageStats stats = Binarization.computeImageStats(raster);
+		if(speculative){
+			loadSpeculative(raster, image, stats);
+			return;
+		}
 		try{
-			load(bitmap = Bitmap.read(file,DEF_BINARIZATION).clean(), true);
+			load(bitmap = Bitmap.createBitmap(raster, stats, DEF_BINARIZATION).clean(), true);
 		}catch(ImageTooSmallException e){
-			File bi= stdResize(file,3);
-			load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(), false);
+			load(bitmap = Bitmap.createBitmap(stdResize(raster, image), RESIZE_BINARIZATION).clean(), false);
 		}catch( ImageTooSpottyException e){
 			try{
-				load(Bitmap.read(file,TOO_WASHED_BINARIZATION).clean(), false);
+				load(Bitmap.createBitmap(raster, stats, TOO_WASHED_BINARIZATION).clean(), false);
 			}catch(ImageTooSmallException ex){
-				File bi= stdResize(file,3);
-				load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
+				load(bitmap = Bitmap.createBitmap(stdResize(raster, image), RESIZE_BINARIZATION).clean(), false);
 			}
 		}
 
 	}
-	private void load(File file) throws IOException, InterruptedException{
+	/**
+	 * Same as the fallbacks in {@link #load(Raster, RenderedImage)}, but the TOO_WASHED and
+	 * resized attempts are started right away on other threads, each in its own
+	 * {@link StructureImageExtractor}, while the default binarization runs on this thread.
+	 * The first acceptable result in the usual order of preference is kept and copied into this
+	 * instance, and the attempts that aren't needed anymore are cancelled: the TOO_WASHED one as soon as
+	 * the default binarization passes the spotty check, and the resized one as soon as the
+	 * default binarization passes the size check, or once the TOO_WASHED one finishes.
+	 */
+	private void loadSpeculative(Raster raster, RenderedImage image, ImageStats stats) throws IOException, InterruptedException{
+		SpeculativeAttempt washed = speculate(()->Bitmap.createBitmap(raster, stats, TOO_WASHED_BINARIZATION));
+		SpeculativeAttempt resized = speculate(()->Bitmap.createBitmap(stdResize(raster, image), RESIZE_BINARIZATION));
+		onPassedSpottyCheck = washed::cancel;
+		onPassedSizeCheck = resized::cancel;
 		try{
-			load(bitmap = Bitmap.read(file,DEF_BINARIZATION).clean(),true);
-		}catch(ImageTooSmallException e){
-			File bi= stdResize(file,3);
-			load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
-		}catch( ImageTooSpottyException e){
 			try{
-				load(Bitmap.read(file,TOO_WASHED_BINARIZATION).clean(), false);
-			}catch(ImageTooSmallException ex){
-				File bi= stdResize(file,3);
-				load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
+				load(bitmap = Bitmap.createBitmap(raster, stats, DEF_BINARIZATION).clean(), true);
+				return;
+			}catch(ImageTooSmallException e){
+				//use resized
+			}catch(ImageTooSpottyException e){
+				onPassedSpottyCheck = null;
+				try{
+					copyStateFrom(washed.await(stepTimer));
+					return;
+				}catch(ImageTooSmallException ex){
+					//use resized
+				}
 			}
+			copyStateFrom(resized.await(stepTimer));
+		}finally{
+			onPassedSpottyCheck = null;
+			onPassedSizeCheck = null;
+			washed.cancel();
+			resized.cancel();
 		}
-
 	}
-	private static File stdResize(Raster r, double scale) throws IOException{
+	
+	@FunctionalInterface
+	private interface BitmapSupplier{
+		Bitmap get() throws IOException;
+	}
+	
+	private SpeculativeAttempt speculate(BitmapSupplier bitmapSupplier){
+		return new SpeculativeAttempt(bitmapSupplier, DEBUG, stepTimer!=null);
+	}
+	
+	/**
+	 * One speculative binarization attempt.  It's run by whichever thread gets to it
+	 * first: one of the {@link #SPECULATIVE_EXECUTOR} threads, or the thread that
+	 * needs its result, so that thread never waits on an attempt that is still queued
+	 * behind the attempts of other extractions.
+	 * <p>
+	 * If there is a step listener, the steps of the attempt are recorded and only reported
+	 * once the attempt is awaited, whether it worked or not, so the listener is told about
+	 * the same steps as when the attempts are made one after the other.
+	 * </p>
+	 */
+	private static final class SpeculativeAttempt{
+		private final BitmapSupplier bitmapSupplier;
+		private final boolean debug;
+		//null if there's no step listener
+		private final StepTimer steps;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private final Future<StructureImageExtractor> future;
+		
+		SpeculativeAttempt(BitmapSupplier bitmapSupplier, boolean debug, boolean recordSteps){
+			this.bitmapSupplier = bitmapSupplier;
+			this.debug = debug;
+			this.steps = recordSteps? StepTimer.recording() : null;
+			this.future = SPECULATIVE_EXECUTOR.submit(()->claimed.compareAndSet(false, true)? run() : null);
+		}
+		
+		private StructureImageExtractor run() throws IOException, InterruptedException{
+			StructureImageExtractor sie = new StructureImageExtractor(debug);
+			sie.stepTimer = steps;
+			sie.load(sie.bitmap = bitmapSupplier.get().clean(), false);
+			return sie;
+		}
+		
+		private void replayTo(StepTimer stepTimer){
+			if(steps!=null && stepTimer!=null){
+				steps.replayTo(stepTimer);
+			}
+		}
+		
+		void cancel(){
+			claimed.set(true);
+			future.cancel(true);
+		}
+		
+		/**
+		 * Get the result of this attempt, running it on this thread if it hasn't started yet.
+		 * @param stepTimer the timer to replay the steps of the attempt to; may be null.
+		 */
+		StructureImageExtractor await(StepTimer stepTimer) throws IOException, InterruptedException{
+			if(claimed.compareAndSet(false, true)){
+				//not started yet, don't wait for a thread to free up
+				future.cancel(false);
+				try{
+					return run();
+				}finally{
+					replayTo(stepTimer);
+				}
+			}
+			try{
+				StructureImageExtractor sie = future.get();
+				replayTo(stepTimer);
+				return sie;
+			}catch(ExecutionException e){
+				replayTo(stepTimer);
+				Throwable t = e.getCause();
+				if(t instanceof IOException){
+					throw (IOException)t;
+				}
+				if(t instanceof InterruptedException){
+					throw (InterruptedException)t;
+				}
+				if(t instanceof RuntimeException){
+					throw (RuntimeException)t;
+				}
+				if(t instanceof Error){
+					throw (Error)t;
+				}
+				throw new IOException(t);
+			}
+		}
+	}
+	
+	private void copyStateFrom(StructureImageExtractor other){
+		this.bitmap = other.bitmap;
+		this.thin = other.thin;
+		this.polygons = other.polygons;
+		this.rescueOCRShapes = other.rescueOCRShapes;
+		this.lines = other.lines;
+		this.linesJoined = other.linesJoined;
+		this.linesOrder = other.linesOrder;
+		this.ocrAttempt = other.ocrAttempt;
+		this.bestGuessOCR = other.bestGuessOCR;
+		this.ctab = other.ctab;
+		this.ctabRaw = other.ctabRaw;
+	}
+	
+	private static Raster stdResize(Raster r, RenderedImage image) throws IOException{
+		if(image!=null){
+			return stdResize(image, 3);
+		}
+		return stdResize(r, 3);
+	}
+	private static Raster stdResize(Raster r, double scale) throws IOException{
+		 //rasters from createFromImage are single band grayscale
 		 BufferedImage image = new BufferedImage
-		            (r.getWidth(), r.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+		            (r.getWidth(), r.getHeight(), r.getNumBands()==1?BufferedImage.TYPE_BYTE_GRAY:BufferedImage.TYPE_3BYTE_BGR);
 		 image.setData (r);
 		 return stdResize(image,scale);
 	}
-	private static File stdResize(File f , double scale) throws IOException{
-		return stdResize(Bitmap.readToImage(f),scale);
-	}
-	private static File stdResize(byte[] f , double scale) throws IOException{
-		return stdResize(Bitmap.readToImage(f),scale);
-	}
-	private static File stdResize(RenderedImage ri , double scale) throws IOException{
+	/**
+	 * Scale up the given image and return the grayscale raster of it, ready
+	 * to be binarized.  This is all done in memory; the result is the same as
+	 * writing the scaled image out as a PNG and reading it back in.
+	 */
+	private static Raster stdResize(RenderedImage ri , double scale) throws IOException{
 		
 		
 		int nwidth=(int) (ri.getWidth() *scale);
@@ -896,7 +1187,7 @@ public class StructureImageExtractor {
 		
         // creates output image
         BufferedImage outputImage = new BufferedImage(nwidth,
-                nheight,ColorModel.BITMASK);
+                nheight,BufferedImage.TYPE_INT_ARGB);
  
         // scales the input image to the output image
         Graphics2D g2d = outputImage.createGraphics();
@@ -909,22 +1200,14 @@ public class StructureImageExtractor {
         g2d.drawImage(convertRenderedImage(ri), 0, 0,null);
         g2d.dispose();
         
-        for (int x = 0; x < outputImage.getWidth(); x++) {
-            for (int y = 0; y < outputImage.getHeight(); y++) {
-                int rgba = outputImage.getRGB(x, y);
-                Color col = new Color(rgba, true);
-                col = new Color(255 - col.getRed(),
-                                255 - col.getGreen(),
-                                255 - col.getBlue());
-                outputImage.setRGB(x, y, col.getRGB());
-            }
+        //invert the colors and make every pixel opaque, working
+        //directly on the packed ARGB ints instead of pixel by pixel
+        int[] pixels = ((DataBufferInt)outputImage.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++) {
+        	pixels[i] = 0xFF000000 | (~pixels[i] & 0x00FFFFFF);
         }
-        
-
-		File tfile = File.createTempFile("tmp", ".png");
-		ImageIO.write(outputImage, "png", tfile);
 
-		return tfile;
+		return ImageUtil.decode(outputImage).getData();
 	}
 	
 	public static BufferedImage convertRenderedImage(RenderedImage img) {
@@ -1071,52 +1354,50 @@ public class StructureImageExtractor {
 			        });
 			//Step 6. For each candidate bounding box, compute similarity to OCR library 
 			//
-			rescueShapes1.forEach(bb->{
-//				cons.accept(bb.getCenteredConvexRect(), null);
-				boolean[] got = new boolean[]{false};
-
-				if(!got[0]){
-					//I'm not sure 1 is the right number here
-					ShapeWrapper nshape = ShapeWrapper.of(bb.getCenteredConvexRect())
-							                          .growShapeBounds(1);
-					
-					
-					
-					
-					processOCRShape(scocr,nshape,bitmap,(s,potential)->{
-						String st=potential.get(0).k().toString();
-						double cos=potential.get(0).v().doubleValue();
-						if(cos>OCRcutoffCosineRescueInitial){
-							BranchNode n=BranchNode.interpretOCRStringAsAtom2(st);
-							if(n!=null && n.isRealNode()){
-								if(cos>OCRcutoffCosine || bb.getLineDensity()>ldensityCutoff*1.05){
-									cons.accept(nshape, potential);
-									got[0]=true;
-								}
-							}
-						}	
-					});
+			//I'm not sure 1 is the right number here
+			List<ShapeWrapper> centeredShapes = rescueShapes1.stream()
+					.map(bb->ShapeWrapper.of(bb.getCenteredConvexRect()).growShapeBounds(1))
+					.collect(Collectors.toList());
+			List<List<Tuple<Character,Number>>> centeredMatches = processOCRShapes(scocr, centeredShapes, bitmap);
+			
+			boolean[] got = new boolean[rescueShapes1.size()];
+			List<Integer> retry = new ArrayList<>();
+			for(int i=0;i<rescueShapes1.size();i++){
+				got[i] = centeredMatches.get(i)!=null && isRescuedOCR(centeredMatches.get(i), rescueShapes1.get(i), ldensityCutoff);
+				if(!got[i]){
+					retry.add(i);
 				}
-				if(!got[0]){
-					ShapeWrapper nshape =  ShapeWrapper.of(bb.getRect())
-													   .growShapeBounds(1);
-					
-					processOCRShape(scocr,nshape,bitmap,(s,potential)->{
-						
-						String st=potential.get(0).k().toString();
-						double cos=potential.get(0).v().doubleValue();
-						
-						if(cos>OCRcutoffCosineRescueInitial){
-							BranchNode n=BranchNode.interpretOCRStringAsAtom2(st);
-							if(n!=null && n.isRealNode()){
-								if(cos>OCRcutoffCosine || bb.getLineDensity()>ldensityCutoff*1.05){
-									cons.accept(nshape, potential);
-								}
-							}
-						}	
-					});
+			}
+			//the full rectangle is only tried when the centered one didn't work
+			List<ShapeWrapper> rectShapes = retry.stream()
+					.map(i->ShapeWrapper.of(rescueShapes1.get(i).getRect()).growShapeBounds(1))
+					.collect(Collectors.toList());
+			List<List<Tuple<Character,Number>>> rectMatches = processOCRShapes(scocr, rectShapes, bitmap);
+			
+			int j=0;
+			for(int i=0;i<rescueShapes1.size();i++){
+				if(got[i]){
+					cons.accept(centeredShapes.get(i), centeredMatches.get(i));
+				}else{
+					List<Tuple<Character,Number>> potential = rectMatches.get(j);
+					if(potential!=null && isRescuedOCR(potential, rescueShapes1.get(i), ldensityCutoff)){
+						cons.accept(rectShapes.get(j), potential);
+					}
+					j++;
 				}
-			});
+			}
+	}
+
+	private boolean isRescuedOCR(List<Tuple<Character,Number>> potential, BoundingBox bb, double ldensityCutoff){
+		String st=potential.get(0).k().toString();
+		double cos=potential.get(0).v().doubleValue();
+		if(cos>OCRcutoffCosineRescueInitial){
+			BranchNode n=BranchNode.interpretOCRStringAsAtom2(st);
+			if(n!=null && n.isRealNode()){
+				return cos>OCRcutoffCosine || bb.getLineDensity()>ldensityCutoff*1.05;
+			}
+		}
+		return false;
 	}
 
 	private void load(Bitmap aBitMap, boolean allowThresholdTooLowThrow) throws IOException, InterruptedException{
@@ -1128,8 +1409,9 @@ public class StructureImageExtractor {
 		ctabRaw.clear();
 		ocrAttempt.clear();
 		bitmap = aBitMap;
+		if(stepTimer!=null)stepTimer.start();
 
-		SCOCR[] socr=new SCOCR[]{OCR_DEFAULT.orElse(OCR_BACKUP, OCRcutoffCosine)};
+		SCOCR[] socr=new SCOCR[]{OCR_CACHED};
 
 		double[] maxBondLength=new double[]{INITIAL_MAX_BOND_LENGTH};    
 
@@ -1254,6 +1536,8 @@ public class StructureImageExtractor {
 		if (isLarge) {
 			throw new IOException("Cannot support images with over 4000 polygons at this time");
 		}
+		if(onPassedSpottyCheck!=null)onPassedSpottyCheck.run();
+		logStage(0,"thinning and connected components");
 
 		Set<ShapeWrapper> likelyOCR= Collections.synchronizedSet(new LinkedHashSet<>());
 		Set<ShapeWrapper> likelyOCRNumbers= Collections.synchronizedSet(new LinkedHashSet<>());
@@ -1340,6 +1624,8 @@ public class StructureImageExtractor {
 		
 		
 		
+		logStage(0,"OCR of connected components");
+		
 		verticalShapes.stream()
 		              .filter(s->s.getHeight()>averageHeightOCR1*1.5)
 		              .forEach(s->{
@@ -1377,6 +1663,8 @@ public class StructureImageExtractor {
 		
 		
 		
+		logStage(0,"line segments of thinned image");
+		
 		ctabRaw.clear();
 
 		boolean[] foundNewOCR=new boolean[]{true};
@@ -1544,14 +1832,16 @@ public class StructureImageExtractor {
 
 
 
+			//likelyOCRNonBond doesn't change again until the bonds are settled
+			SpatialIndex<ShapeWrapper> likelyOCRNonBondIndex = SpatialIndex.ofShapes(likelyOCRNonBond);
 			Predicate<Line2D> isInOCRShape = (l)->{
 				if(likelyOCR.isEmpty())return false;
-				Optional<Tuple<ShapeWrapper,Double>> shape1=GeomUtil.findClosestShapeWTo(likelyOCRNonBond, l.getP1());
+				Optional<Tuple<ShapeWrapper,Double>> shape1=GeomUtil.findClosestShapeWTo(likelyOCRNonBondIndex, l.getP1());
 				
 				if(!shape1.isPresent() || shape1.get().v()>OCR_TO_BOND_MAX_DISTANCE){
 					return false;
 				}
-				Optional<Tuple<ShapeWrapper,Double>> shape2=GeomUtil.findClosestShapeWTo(likelyOCRNonBond, l.getP2());
+				Optional<Tuple<ShapeWrapper,Double>> shape2=GeomUtil.findClosestShapeWTo(likelyOCRNonBondIndex, l.getP2());
 				if(!shape2.isPresent() || shape2.get().v()>OCR_TO_BOND_MAX_DISTANCE){
 					return false;
 				}
@@ -1606,10 +1896,11 @@ public class StructureImageExtractor {
 			List<Point2D> verts = smallLines.stream()
 					.flatMap(l->l.streamPoints())
 					.collect(Collectors.toList());
+			SpatialIndex<Point2D> vertIndex = SpatialIndex.ofPoints(verts, p->p);
 			//find average spacing from OCR shapes to closest vertex         
 			double[] lDistOCRToLine=likelyOCR.stream()
 					.map(s->Tuple.of(s,s.centerOfBounds()))
-					.map(Tuple.vmap(p->Tuple.of(p,GeomUtil.findClosestPoint(verts, p))))
+					.map(Tuple.vmap(p->Tuple.of(p,GeomUtil.findClosestPoint(vertIndex, p))))
 					.filter(p->p.k() !=null && p.v().v() !=null)
                     .map(Tuple.vmap(t->t.k().distance(t.v())))
 					.mapToDouble(t->t.v())
@@ -1730,7 +2021,7 @@ public class StructureImageExtractor {
 						GeomUtil.longerThan(maxBondLength[0]).negate())
 						.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
 
-				if(DEBUG)logState(1,"initial connection table, and merging of extremely close nodes");
+				logState(1,"initial connection table, and merging of extremely close nodes");
 				
 				ctab.getEdgesWhichMightBeWiggleLines()
 					.forEach(t->{
@@ -1773,11 +2064,11 @@ public class StructureImageExtractor {
 				    		foundNewOCR[0]=true;
 				    	}
 					});
-				if(DEBUG)logState(2,"add edges where wiggle bonds appear to be");
+				logState(2,"add edges where wiggle bonds appear to be");
 				
 				ctab.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
 				ctab.standardCleanEdges();			
-				if(DEBUG)logState(3,"second pass:merge nodes that are extremely close together");
+				logState(3,"second pass:merge nodes that are extremely close together");
 
 				RunningAverage allDashLengths = new RunningAverage(2);
 				
@@ -1811,11 +2102,11 @@ public class StructureImageExtractor {
 				    	}
 				    	
 				    });
-				if(DEBUG)logState(4,"add dashed bonds for found dotted line areas, mark for recomputing ABL when found");
+				logState(4,"add dashed bonds for found dotted line areas, mark for recomputing ABL when found");
 				ctab.standardCleanEdges();
 				ctab.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
 				
-				if(DEBUG)logState(5,"third pass:merge nodes that are extremely close together");
+				logState(5,"third pass:merge nodes that are extremely close together");
 				
 				double avgDot=allDashLengths.computeAvg();
 				
@@ -1830,14 +2121,14 @@ public class StructureImageExtractor {
 					ctab.mergeAllNodesInsideCenter(s, OCR_TO_BOND_MAX_DISTANCE);
 				}
 
-				if(DEBUG)logState(6,"merge nodes inside of OCR shapes");
+				logState(6,"merge nodes inside of OCR shapes");
 				
 				
 				
 				
 				//ctab.mergeNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_INITIAL_1);
 				
-				if(DEBUG)logState(59,"fourth pass:merge nodes that are extremely close together");
+				logState(59,"fourth pass:merge nodes that are extremely close together");
 
 				List<List<Node>> newNodesForMerge = new ArrayList<>();
 
@@ -1962,7 +2253,7 @@ public class StructureImageExtractor {
 
 				});
 
-				if(DEBUG)logState(58,"initial merging of close nodes, ignoring those nodes that are quite far apart");
+				logState(58,"initial merging of close nodes, ignoring those nodes that are quite far apart");
 				
 				
 				newNodesForMerge.forEach(ln->{
@@ -1976,7 +2267,7 @@ public class StructureImageExtractor {
 				ctab.removeOrphanNodes();
 				ctab.standardCleanEdges();
 				
-				if(DEBUG)logState(7,"initial merging of close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
+				logState(7,"initial merging of close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
 				
 				
 
@@ -2038,7 +2329,7 @@ public class StructureImageExtractor {
 				ctab.removeOrphanNodes();
 				ctab.standardCleanEdges();
 
-				if(DEBUG)logState(8,"merge close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
+				logState(8,"merge close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
 				
 				
 				Set<Edge> splitEdges = new HashSet<Edge>();
@@ -2066,13 +2357,13 @@ public class StructureImageExtractor {
 				    	
 				    });
 
-				if(DEBUG)logState(9,"create nodes on intersecting edges, removing edges that do not have line-segment support");
+				logState(9,"create nodes on intersecting edges, removing edges that do not have line-segment support");
 
 				ctab.mergeFilteredNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_AFTER_SPLIT, n->true);
 				ctab.standardCleanEdges();
 				
 
-				if(DEBUG)logState(10,"merge very close nodes");
+				logState(10,"merge very close nodes");
 
 				
 
@@ -2099,7 +2390,7 @@ public class StructureImageExtractor {
 				ctab.mergeNodesExtendingTo(likelyOCR,maxRatio,maxTotalRatio);
 				ctab.removeOrphanNodes();
 				
-				if(DEBUG)logState(11,"merge nodes extending to OCR shapes");
+				logState(11,"merge nodes extending to OCR shapes");
 				
 				ctab.mergeFilteredNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_AFTER_SPLIT, n->true);
 				ctab.standardCleanEdges();
@@ -2110,16 +2401,16 @@ public class StructureImageExtractor {
 					}
 					return true;
 				});
-				if(DEBUG)logState(12,"merge nodes that are sufficiently close and are not likely intersection points for cages");
+				logState(12,"merge nodes that are sufficiently close and are not likely intersection points for cages");
 				
 				for(ShapeWrapper s: likelyOCR){
 					ctab.mergeAllNodesInsideCenter(s, OCR_TO_BOND_MAX_DISTANCE);
 				}				
-				if(DEBUG)logState(13,"merge and center all existing nodes inside of OCR shapes");
+				logState(13,"merge and center all existing nodes inside of OCR shapes");
 
 				ctab.makeMissingNodesForShapes(likelyOCR,MAX_BOND_TO_AVG_BOND_RATIO_FOR_NOVEL,MIN_BOND_TO_AVG_BOND_RATIO_FOR_NOVEL);
 				
-				if(DEBUG)logState(14,"add nodes for OCR shapes which were not captured as nodes yet");
+				logState(14,"add nodes for OCR shapes which were not captured as nodes yet");
 				
 				
 				Set<Node> toRemove = new LinkedHashSet<Node>();
@@ -2207,7 +2498,7 @@ public class StructureImageExtractor {
 				toRemoveEdgesImmediately.forEach(e->ctab.removeEdge(e));
 				
 				
-				if(DEBUG)logState(15,"make missing bonds to neighbors that are close enough with enough pixel support, and are not seen as redundant");
+				logState(15,"make missing bonds to neighbors that are close enough with enough pixel support, and are not seen as redundant");
 				
 				List<Tuple<Edge, Tuple<Node,Node>>> removeMe = new ArrayList<>();
 				
@@ -2355,7 +2646,7 @@ public class StructureImageExtractor {
 					
 				});
 				
-				if(DEBUG)logState(16,"remove edges which appear to have been noise / generated from proximity around a ring");
+				logState(16,"remove edges which appear to have been noise / generated from proximity around a ring");
 
 				double avgBondLength=ctab.getAverageBondLength();
 				maxBondLength[0]=avgBondLength*MAX_BOND_TO_AVG_BOND_RATIO_TO_KEEP;
@@ -2391,13 +2682,13 @@ public class StructureImageExtractor {
 			}, (nn)->{
 				intersectionNodes.add(nn.getPoint());
 			});
-			if(DEBUG)logState(17,"create nodes on intersecting lines if there are 3 or more lines that would be long enough compared to ABL");
+			logState(17,"create nodes on intersecting lines if there are 3 or more lines that would be long enough compared to ABL");
 
 			if(anyOtherIntersections.get()){
 				ctab.mergeNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE);
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(18,"merge very close nodes if there were more intersections computed");
+			logState(18,"merge very close nodes if there were more intersections computed");
 
 			//This is probably where we try to add some missed OCR based on the nodes
 
@@ -2645,7 +2936,7 @@ public class StructureImageExtractor {
 
 			
 			ctab.mergeNodesExtendingTo(likelyOCR,maxRatio,maxTotalRatio);
-			if(DEBUG)logState(20,"merge nodes extending to likely OCR shapes");
+			logState(20,"merge nodes extending to likely OCR shapes");
 
 			double cosThetaOCRShape =Math.cos(MAX_THETA_FOR_OCR_SEPERATION);
 			
@@ -2678,7 +2969,7 @@ public class StructureImageExtractor {
 
 			        
 			List<ShapeWrapper> maybeDashCollection = 
-					GeomUtil.groupThings(maybeDash, t->{						
+					GeomUtil.groupThings(maybeDash, ShapeWrapper::getBounds, Math.sqrt(ctab.getAverageBondLengthSquared()/9), t->{						
 											Point2D p1=t.k().centerOfBounds();
 											Point2D p2=t.v().centerOfBounds();
 											return p1.distanceSq(p2)<ctab.getAverageBondLengthSquared()/9;
@@ -2733,13 +3024,14 @@ public class StructureImageExtractor {
 			
 			double wid=averageWidthOCR;
 
-			List<List<ShapeWrapper>> ocrGroupList=GeomUtil.groupShapesIfClosestPointsMatchCriteriaSW(likelyOCRAll, t->{
+			double ocrSpacingCutoff=Math.max(ctab.getAverageBondLength()*MAX_BOND_RATIO_FOR_OCR_CHAR_SPACING,wid);
+			List<List<ShapeWrapper>> ocrGroupList=GeomUtil.groupShapesIfClosestPointsMatchCriteriaSW(likelyOCRAll, ocrSpacingCutoff, t->{
 				Point2D[] pts=t.v();
 				ShapeWrapper[] shapes =t.k();
 
 				//Line2D l2 = new Line2D.Double(pts[0],pts[1]);
 				double dist=pts[0].distanceSq(pts[1]);
-				double cutoff=Math.max(ctab.getAverageBondLength()*MAX_BOND_RATIO_FOR_OCR_CHAR_SPACING,wid);
+				double cutoff=ocrSpacingCutoff;
 				
 				if(dist>cutoff*cutoff){
 					return false;
@@ -3103,6 +3395,7 @@ public class StructureImageExtractor {
 					.stream()
 					.filter(s->BranchNode.interpretOCRStringAsAtom2(bestGuessOCR.get(s))!=null)
 					.collect(Collectors.toList());
+			SpatialIndex<ShapeWrapper> ocrMeaningfulIndex = SpatialIndex.ofShapes(ocrMeaningful);
 
 			//ctab.removeOrphanNodes();
 
@@ -3260,7 +3553,7 @@ public class StructureImageExtractor {
 								//This is likely the source of lots of problems
 								ctab.mergeAllNodesInside(s, MAX_BOND_RATIO_FOR_MERGING_TO_OCR*ctab.getAverageBondLength(),(n)->{
 									if(sym.equals("H")){
-										Optional<Tuple<ShapeWrapper, Double>> findClosestShapeTo = GeomUtil.findClosestShapeWTo(ocrMeaningful, n.getPoint());
+										Optional<Tuple<ShapeWrapper, Double>> findClosestShapeTo = GeomUtil.findClosestShapeWTo(ocrMeaningfulIndex, n.getPoint());
 										if(!findClosestShapeTo.isPresent() || findClosestShapeTo.get().k() !=s){
 											return false;
 										}
@@ -3336,7 +3629,7 @@ public class StructureImageExtractor {
 								},(l)->{
 			
 									boolean matchesOthers=l.stream()
-											.map(pt->GeomUtil.findClosestShapeWTo(ocrMeaningful, pt))
+											.map(pt->GeomUtil.findClosestShapeWTo(ocrMeaningfulIndex, pt))
 											.filter(Optional::isPresent)
 											.map(o-> o.get().k())
 											
@@ -3361,7 +3654,7 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 
 			
-			if(DEBUG)logState(21,"merge nodes that are roughly in OCR shapes to be in the center of the shape, or at the area of maximal intersection");
+			logState(21,"merge nodes that are roughly in OCR shapes to be in the center of the shape, or at the area of maximal intersection");
 
 			
 
@@ -3376,7 +3669,7 @@ public class StructureImageExtractor {
 			Set<Line2D> taken = new HashSet<Line2D>();
 			List<Tuple<List<Line2D>,Tuple<Node,Node>>> edgesToMake = new ArrayList<>();
 
-			GeomUtil.groupShapesIfClosestPointsMatchCriteriaSW(likelyOCR, (t)->{
+			GeomUtil.groupShapesIfClosestPointsMatchCriteriaSW(likelyOCR, ctab.getAverageBondLength()*.9, (t)->{
 				Point2D[] pts=t.v();
 				if(pts[0].distanceSq(pts[1])<ctab.getAverageBondLengthSquared()*.9*.9){
 					return true;
@@ -3543,7 +3836,7 @@ public class StructureImageExtractor {
 						});
 
 			ctab.standardCleanEdges();
-			if(DEBUG)logState(22,"add missing non-crossing bonds if there is line support, assign order based on number of reasonable lines between nodes. Also remove/update bonds with little line support");
+			logState(22,"add missing non-crossing bonds if there is line support, assign order based on number of reasonable lines between nodes. Also remove/update bonds with little line support");
 			
 			
 			
@@ -3558,7 +3851,7 @@ public class StructureImageExtractor {
 					}
 					addedCloseEdges.add(t.v());
 				});
-				if(DEBUG)logState(23,"add missing bonds to close neighbors if there is pixel-support");
+				logState(23,"add missing bonds to close neighbors if there is pixel-support");
 				addedCloseEdges.stream()
 				 .forEach(ne->{
 					 LineWrapper lwe = LineWrapper.of(ne.getLine());
@@ -3569,7 +3862,7 @@ public class StructureImageExtractor {
 						 ne.setOrder(2);
 					 }  				  	 
 				 });
-				if(DEBUG)logState(58,"adjusted bond order of found edges");
+				logState(58,"adjusted bond order of found edges");
 			}
 			
 			
@@ -3679,7 +3972,7 @@ public class StructureImageExtractor {
 			}
 			ctab.removeOrphanNodes();
 
-			if(DEBUG)logState(24,"remove bonds that form triangles if the triangle isn't roughly equilateral and nothing is expected to be a cage");
+			logState(24,"remove bonds that form triangles if the triangle isn't roughly equilateral and nothing is expected to be a cage");
 			
 		
 			double fbondlength=ctab.getAverageBondLength();
@@ -3748,7 +4041,7 @@ public class StructureImageExtractor {
 						}
 					});
 			
-			if(DEBUG)logState(26,"split long triple bonds into single-triple composites");
+			logState(26,"split long triple bonds into single-triple composites");
 			
 			List<ShapeWrapper> appliedOCR = new ArrayList<>();
 			AtomicInteger groupNumber = new AtomicInteger(0);
@@ -3916,7 +4209,7 @@ public class StructureImageExtractor {
 					}
 				}
 			}			
-			if(DEBUG)logState(27,"add atom labels and computable groups");
+			logState(27,"add atom labels and computable groups");
 			
 			
 			ctab.getNodes()
@@ -4009,7 +4302,7 @@ public class StructureImageExtractor {
 				
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(28,"look for 5-membered ring-like structures where the nodes are not actually in a ring yet. If they're found, add edges to complete the ring.");
+			logState(28,"look for 5-membered ring-like structures where the nodes are not actually in a ring yet. If they're found, add edges to complete the ring.");
 			
 			
 
@@ -4026,6 +4319,7 @@ public class StructureImageExtractor {
 					throw new ImageTooSmallException();
 				}
 			}
+			if(onPassedSizeCheck!=null)onPassedSizeCheck.run();
 			
 			
 			
@@ -4085,7 +4379,7 @@ public class StructureImageExtractor {
 				}
 				//realRescueOCRCandidates.add(crop);
 			}
-			if(DEBUG)logState(29,"crop out sections of the image which make disconnected connection tables that have incompatible ABLs, if any are found, restart from beginning");
+			logState(29,"crop out sections of the image which make disconnected connection tables that have incompatible ABLs, if any are found, restart from beginning");
 			
 			
 			if(foundNewOCR[0] && repeats<MAX_OCR_FULL_REPEATS){
@@ -4148,7 +4442,7 @@ public class StructureImageExtractor {
 			}while(!toRemove.isEmpty());
 
 
-			if(DEBUG)logState(30,"remove nodes which have very short edges where their 2 neighbors seem better suited for a bond");
+			logState(30,"remove nodes which have very short edges where their 2 neighbors seem better suited for a bond");
 
 
 			//Cleanup "duplicate" lines that are probably problems. 
@@ -4195,7 +4489,7 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 
 
-			if(DEBUG)logState(31,"remove duplicate long edges which appear to be meant for neighbor");
+			logState(31,"remove duplicate long edges which appear to be meant for neighbor");
 
 			
 			CachedSupplier<List<Tuple<LineWrapper,Shape>>> linesJoinedInfluence = CachedSupplier.of(()->linesJoined
@@ -4328,7 +4622,7 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 			
 			
-			if(DEBUG)logState(32,"very short non-intersection-derived edges are either removed, or their neighbors are merged based on the resulting fidelity to ABL");
+			logState(32,"very short non-intersection-derived edges are either removed, or their neighbors are merged based on the resulting fidelity to ABL");
 			
 			boolean highValCarbon = ctab.getNodes()
 										.stream()
@@ -4342,7 +4636,7 @@ public class StructureImageExtractor {
 				ctab.standardCleanEdges();
 			}
 			
-			if(DEBUG)logState(33,"remove high valance carbons if present");
+			logState(33,"remove high valance carbons if present");
 			
 			List<Node> toRemoveNodesCage = new ArrayList<>();
 			
@@ -4487,7 +4781,7 @@ public class StructureImageExtractor {
 			for(Node r:toRemoveNodesCage){
 				ctab.removeNodeAndEdges(r);
 			}
-			if(DEBUG)logState(33,"Cage: C nodes with 4 single bonds that are in several rings are evaluated, possibly removed with the cross-neighbors getting new bonds");
+			logState(33,"Cage: C nodes with 4 single bonds that are in several rings are evaluated, possibly removed with the cross-neighbors getting new bonds");
 			
 			
 			toRemoveNodesCage.clear();
@@ -4530,7 +4824,7 @@ public class StructureImageExtractor {
 			
 			
 			ctab.removeOrphanNodes();
-			if(DEBUG)logState(34,"Cage: Nodes that have 2 single-bond neighbors which are sufficiently collinear are removed, a new bond is added between the old neighbors");
+			logState(34,"Cage: Nodes that have 2 single-bond neighbors which are sufficiently collinear are removed, a new bond is added between the old neighbors");
 			
 			
 			List<Shape> singleBondInfluenceAreas = ctab.getEdges()
@@ -4584,7 +4878,7 @@ public class StructureImageExtractor {
 						}
 						//ctab.removeEdge(e);
 				});
-			if(DEBUG)logState(35,"C-C double bonds are diminished to single if the second part of the double bond was based on a close single bond");
+			logState(35,"C-C double bonds are diminished to single if the second part of the double bond was based on a close single bond");
 			
 			//clean bad triple bonds
 			ctab.getEdges().stream()
@@ -4646,7 +4940,7 @@ public class StructureImageExtractor {
 						
 						//ctab.removeEdge(e);
 				});
-			if(DEBUG)logState(36,"C-C triple bonds are diminished to double/single if there is not enough support for them being triple bonds");
+			logState(36,"C-C triple bonds are diminished to double/single if there is not enough support for them being triple bonds");
 			
 			
 			//look for pentavalent Carbons
@@ -4720,7 +5014,7 @@ public class StructureImageExtractor {
 				 		}
 			    	}
 			    });
-			if(DEBUG)logState(37,"pentavalent and hexavalent carbons have dashed bonds removed, or high-order bonds moved to lower order");
+			logState(37,"pentavalent and hexavalent carbons have dashed bonds removed, or high-order bonds moved to lower order");
 			
 			
 			//Here, we should remove some bad cage bonds			
@@ -4745,7 +5039,7 @@ public class StructureImageExtractor {
 			    	}
 			    });
 			
-			if(DEBUG)logState(38,"Cage: all bonds less than 0.5 ABL that are in 2 4-membered rings where it is the smalest bond in both rings are removed");
+			logState(38,"Cage: all bonds less than 0.5 ABL that are in 2 4-membered rings where it is the smalest bond in both rings are removed");
 			
 			
 			//Find floating methyls
@@ -4904,7 +5198,7 @@ public class StructureImageExtractor {
 				}
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(39,"find and add floating dashed methyl groups, and tweak/assign dashed bonds that are well-behaved");
+			logState(39,"find and add floating dashed methyl groups, and tweak/assign dashed bonds that are well-behaved");
 			
 			
 			//Not sure about this, sometimes want to do a final merge
@@ -4929,7 +5223,7 @@ public class StructureImageExtractor {
 			    	ctab.standardCleanEdges();
 			    });
 			
-			if(DEBUG)logState(40,"merge all node pairs that are isolated and are < 0.2 ABL away from each other");
+			logState(40,"merge all node pairs that are isolated and are < 0.2 ABL away from each other");
 			
 			@SuppressWarnings("unchecked")
 			List<Tuple<Edge,WedgeInfo>> winfo=(List<Tuple<Edge, WedgeInfo>>) ctab.getEdges()
@@ -5031,7 +5325,7 @@ public class StructureImageExtractor {
 					.filter(t->t.isPresent())
 					.map(o->o.get())
 					.collect(Collectors.toList());
-			if(DEBUG)logState(41,"calculate wedge statistics and assign dashed bonds when there is a dotted/dashed line that would make sense there, otherwise make the edge non-dashed");
+			logState(41,"calculate wedge statistics and assign dashed bonds when there is a dotted/dashed line that would make sense there, otherwise make the edge non-dashed");
 			
 			
 			Predicate<Node> couldBeStereoCenter = (n1)->n1.getEdgeCount()>=3 && n1.getSymbol().equals("C") && !n1.getEdges().stream().filter(e1->e1.getOrder()>1).findAny().isPresent();
@@ -5115,7 +5409,7 @@ public class StructureImageExtractor {
 					}
 				}
 			});
-			if(DEBUG)logState(42,"assign wedges based on relative thickness and/or wedgeness");
+			logState(42,"assign wedges based on relative thickness and/or wedgeness");
 			
 			
 			if(thickEdges.size()>0 && wedgeEdges.size()>0){
@@ -5131,7 +5425,7 @@ public class StructureImageExtractor {
 						  })
 				          .forEach(w->w.setWedge(false));
 			}
-			if(DEBUG)logState(43,"if there are both thick edges and wedge edges, turn off all thick-edge wedge assignments which are attached to real wedge edges");
+			logState(43,"if there are both thick edges and wedge edges, turn off all thick-edge wedge assignments which are attached to real wedge edges");
 			
 			
 
@@ -5173,7 +5467,7 @@ public class StructureImageExtractor {
 							centerOfExplicitDashes.add(e.getCenterPoint());
 						}
 					});
-			if(DEBUG)logState(44,"add dashed bond to nodes that are close enough and have 2 or more small shapes along the line between them");
+			logState(44,"add dashed bond to nodes that are close enough and have 2 or more small shapes along the line between them");
 			
 			ctab.getEdges()
 			    .stream()
@@ -5196,7 +5490,7 @@ public class StructureImageExtractor {
 			    	}
 			    });
 			
-			if(DEBUG)logState(45,"remove dashed edges which don't have strong support from line segments");
+			logState(45,"remove dashed edges which don't have strong support from line segments");
 
 			ctab.getEdges()
 				.stream()
@@ -5207,7 +5501,7 @@ public class StructureImageExtractor {
 					}
 				});
 			
-			if(DEBUG)logState(46,"reorient the stereo bonds if they don't make sense where they're pointing");
+			logState(46,"reorient the stereo bonds if they don't make sense where they're pointing");
 
 			//sometimes there's an atom in the middle of an existing bond, when this happens, it should be removed
 			
@@ -5233,7 +5527,7 @@ public class StructureImageExtractor {
 			}
 			
 			
-			if(DEBUG)logState(46,"look for an atom in the middle of an existing bond, when this happens, it should be removed");
+			logState(46,"look for an atom in the middle of an existing bond, when this happens, it should be removed");
 			
 	
 //			
@@ -5285,7 +5579,7 @@ public class StructureImageExtractor {
 			    	}
 			    });
 			
-			if(DEBUG)logState(47,"look for possible missing double bond on 6-membered rings");
+			logState(47,"look for possible missing double bond on 6-membered rings");
 			
 			
 			ctab.getRings()
@@ -5346,7 +5640,7 @@ public class StructureImageExtractor {
 			    	
 			    });
 
-			if(DEBUG)logState(48,"resize/stretch aromatic rings to be planar");
+			logState(48,"resize/stretch aromatic rings to be planar");
 
 			//fix dashes which might not have had support
 			//but only if they're over-specified
@@ -5364,7 +5658,7 @@ public class StructureImageExtractor {
 			    	e.setDashed(false);
 			    	
 			    });
-			if(DEBUG)logState(49,"remove dashed bonds that had little support and that are over-specified");
+			logState(49,"remove dashed bonds that had little support and that are over-specified");
 
 		}
 		if(Thread.currentThread().isInterrupted()){
@@ -5408,7 +5702,7 @@ public class StructureImageExtractor {
 		    		//probably a C
 		    		n.setSymbol("C");
 		    });
-		if(DEBUG)logState(50,"change symbols for H and F to C if there are more bonds than there should be");		
+		logState(50,"change symbols for H and F to C if there are more bonds than there should be");		
 
 
 		
@@ -5430,7 +5724,7 @@ public class StructureImageExtractor {
 			    			 ctab.removeEdge(t.v());
 			    		 });
 			    });
-		if(DEBUG)logState(51,"remove erroneous bonds to halogens if there are more bonds than there should be");
+		logState(51,"remove erroneous bonds to halogens if there are more bonds than there should be");
 		
 
 		//fix bad Sulfurs
@@ -5509,7 +5803,7 @@ public class StructureImageExtractor {
 		    		}
 		    });
 		
-		if(DEBUG)logState(52,"charge nitrogens and sulfurs with large number of bonds");
+		logState(52,"charge nitrogens and sulfurs with large number of bonds");
 		
 		List<ShapeWrapper> mightBeNegative=polygons.stream()
 										    .filter(s->s.getHeight()<ctab.getAverageBondLength()/10)
@@ -5605,7 +5899,7 @@ public class StructureImageExtractor {
 			}
 		}
 		
-		if(DEBUG)logState(53,"negative charge detection");
+		logState(53,"negative charge detection");
 		
 		ctab.getNodes()
 			.stream()
@@ -5640,7 +5934,7 @@ public class StructureImageExtractor {
 			});
 		
 		
-		if(DEBUG)logState(54,"change bond order for high valance N and S");
+		logState(54,"change bond order for high valance N and S");
 		
 
 
@@ -5657,7 +5951,7 @@ public class StructureImageExtractor {
 		    	ctab.removeOrphanNodes();
 		    });
 		
-		if(DEBUG)logState(55,"removed bad dashed isolated bonds");
+		logState(55,"removed bad dashed isolated bonds");
 		
 		
 		// clean up 5-membered rings
@@ -5706,7 +6000,7 @@ public class StructureImageExtractor {
 				
 			});
 			
-			if(DEBUG)logState(56,"Dash clean up");
+			logState(56,"Dash clean up");
 			
 			ctab.getRings()
 			    .stream()
@@ -5770,7 +6064,7 @@ public class StructureImageExtractor {
 				ctab.simpleClean();
 				
 				
-				if(DEBUG)logState(57,"5 member clean up");
+				logState(57,"5 member clean up");
 	
 	
 				
@@ -5965,7 +6259,7 @@ public class StructureImageExtractor {
 					n.setInvented(false);
 				});
 			
-			if(DEBUG)logState(58,"minor adjustments to layout for rings and terminal groups");
+			logState(58,"minor adjustments to layout for rings and terminal groups");
 			
 			
 		
@@ -6025,7 +6319,7 @@ public class StructureImageExtractor {
 		    	}
 		    });
 		
-		if(DEBUG)logState(59,"attempt to rescue ocr shapes which are around a node but may have been disconnected due to internal or external thresholding");
+		logState(59,"attempt to rescue ocr shapes which are around a node but may have been disconnected due to internal or external thresholding");
 		
 		ctab.getNodes()
 			.stream()
@@ -6062,12 +6356,19 @@ public class StructureImageExtractor {
 				       .forEach(Edge::setToAromatic);
 		       });
 		
-		if(DEBUG)logState(60,"set aromatic bonds");		
+		logState(60,"set aromatic bonds");		
 	}
 	
 	
 	
-	private void logState(int stepNum, String msg){
+	private void logState(int stepNum, String msg) throws InterruptedException{
+		if(Thread.currentThread().isInterrupted()){
+			throw new InterruptedException();
+		}
+		if(stepTimer!=null){
+			logStage(stepNum, msg);
+		}
+		if(!DEBUG)return;
 		int stateNum = ctabRaw.size();		
 		System.out.println("STATE[" + stepNum + "," + stateNum + "]" + msg);
 		
@@ -6079,6 +6380,17 @@ public class StructureImageExtractor {
 		
 	}
 	
+	/**
+	 * Report the end of a step to the {@link MolvecStepListener}, if there is one.
+	 * Unlike {@link #logState(int, String)} this can be called before there is a connection table.
+	 */
+	private void logStage(int stepNum, String msg){
+		if(stepTimer!=null){
+			//before step 1 the connection table is either not made yet or left over from an earlier attempt
+			stepTimer.step(stepNum, msg, polygons==null?0:polygons.size(), lines==null?0:lines.size(), stepNum==0?null:ctab);
+		}
+	}
+	
 	/**
 	 * Returns a molfile of the chemical structure.
 	 * @return
@@ -33,13 +33,13 @@ import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -211,63 +211,202 @@ public class Bitmap implements Serializable {
         DEBUG = debug;
     }
     
-    public static class BitmapScaled{
-    	public int twidth;
-    	public int theight;
-    	public int[][] ccount;
-    	public List<int[]> xys;
-    	public int tcount;
+    /**
+     * The on pixels of a bitmap counted on a smaller grid, for OCR.
+     * Cells are numbered x*sheight+y.
+     */
+    public static final class BitmapScaled{
+    	//size of the bitmap
+    	private final int twidth;
+    	private final int theight;
+    	//size of the grid
+    	private final int swidth;
+    	private final int sheight;
+    	//shared between bitmaps of the same size, see ccount()
+    	private final int[] ccount;
+    	private final int[] onCell;
+    	private final int[] onCount;
+    	private final int tcount;
+
+    	private BitmapScaled(int twidth, int theight, int swidth, int sheight,
+    			int[] ccount, int[] onCell, int[] onCount, int tcount){
+    		this.twidth=twidth;
+    		this.theight=theight;
+    		this.swidth=swidth;
+    		this.sheight=sheight;
+    		this.ccount=ccount;
+    		this.onCell=onCell;
+    		this.onCount=onCount;
+    		this.tcount=tcount;
+    	}
+
+    	/**
+    	 * The width of the bitmap that was scaled.
+    	 */
+    	public int twidth(){
+    		return twidth;
+    	}
+    	/**
+    	 * The height of the bitmap that was scaled.
+    	 */
+    	public int theight(){
+    		return theight;
+    	}
+    	/**
+    	 * The width of the grid.
+    	 */
+    	public int swidth(){
+    		return swidth;
+    	}
+    	/**
+    	 * The height of the grid.
+    	 */
+    	public int sheight(){
+    		return sheight;
+    	}
+    	/**
+    	 * How many pixels, on or not, fall in each cell. This only depends on the
+    	 * sizes so the array is shared between bitmaps; it is not copied
+    	 * and must not be changed.
+    	 */
+    	public int[] ccount(){
+    		return ccount;
+    	}
+    	/**
+    	 * The distinct cells with on pixels, in increasing order.
+    	 * Not copied, must not be changed.
+    	 */
+    	public int[] onCell(){
+    		return onCell;
+    	}
+    	/**
+    	 * How many on pixels each cell of {@link #onCell()} has.
+    	 * Not copied, must not be changed.
+    	 */
+    	public int[] onCount(){
+    		return onCount;
+    	}
+    	/**
+    	 * The total number of on pixels.
+    	 */
+    	public int tcount(){
+    		return tcount;
+    	}
+
+    	//ccount of each size, keyed by the four sizes packed in a long
+    	private static final Map<Long,int[]> CCOUNT_BY_SIZE = new ConcurrentHashMap<>();
+    	private static final int MAX_CACHED_SIZES = 4096;
+
+    	//per thread on pixel counts of each cell, all 0 between uses
+    	private static final ThreadLocal<int[]> CELL_COUNTS = ThreadLocal.withInitial(()->new int[0]);
 
     	public static BitmapScaled of(Bitmap r, int DEF_WIDTH, int DEF_HEIGHT){
 	    	int twidth = r.width();
 			int theight = r.height();
-			
-			int[][] ccount = new int[DEF_WIDTH][DEF_HEIGHT];
-			
-			List<int[]> xys=r.getXYOnPoints()
-							    .map(xy->{
-							    	int cx = (xy[0] * DEF_WIDTH) / twidth;
-							    	int cy = (xy[1] * DEF_HEIGHT) / theight;
-							    	return new int[]{cx,cy,1};
-							    })
-							    .collect(Collectors.groupingBy(i->i[0]+","+i[1]))
-							    .values()
-							    .stream()
-							    .map(il->{
-							    	int[] r1=il.get(0);
-							    	r1[2]=il.size();
-							    	return r1;
-							    })
-							    .collect(Collectors.toList());
-			
-			int tcount= xys.stream().mapToInt(r1->r1[2]).sum();
-			
-			for(int i=0;i<twidth;i++){
-				for(int j=0;j<theight;j++){
-				   	int cx = (i * DEF_WIDTH) / twidth;
-			    	int cy = (j * DEF_HEIGHT) / theight;
-			    	ccount[cx][cy]++;
+			int cells = DEF_WIDTH*DEF_HEIGHT;
+
+			int[] counts = CELL_COUNTS.get();
+			if(counts.length<cells){
+				counts = new int[cells];
+				CELL_COUNTS.set(counts);
+			}
+			int[] onCell;
+			int[] onCount;
+			int tcount=0;
+			try{
+				if(r instanceof CropBackedBitmap){
+					((CropBackedBitmap)r).countCells(counts, DEF_WIDTH, DEF_HEIGHT);
+				}else{
+					int[] buf = counts;
+					r.getXYOnPoints()
+					 .sequential()
+					 .forEach(xy->{
+					    	int cx = (xy[0] * DEF_WIDTH) / twidth;
+					    	int cy = (xy[1] * DEF_HEIGHT) / theight;
+					    	buf[cx*DEF_HEIGHT + cy]++;
+					 });
 				}
+
+				int n=0;
+				for(int k=0;k<cells;k++){
+					if(counts[k]!=0)n++;
+				}
+				onCell = new int[n];
+				onCount = new int[n];
+				n=0;
+				for(int k=0;k<cells;k++){
+					if(counts[k]!=0){
+						onCell[n]=k;
+						onCount[n]=counts[k];
+						tcount+=counts[k];
+						n++;
+					}
+				}
+			}finally{
+				//zeroed even if counting fails, so the next scaling on this thread starts clean
+				Arrays.fill(counts, 0, cells, 0);
 			}
-			BitmapScaled bms=new BitmapScaled();
-			bms.ccount=ccount;
-			bms.twidth=twidth;
-			bms.theight=theight;
-			bms.xys=xys;
-			bms.tcount=tcount;
-			return bms;
+
+			return new BitmapScaled(twidth, theight, DEF_WIDTH, DEF_HEIGHT,
+					cellCounts(twidth, theight, DEF_WIDTH, DEF_HEIGHT), onCell, onCount, tcount);
+    	}
+
+    	private static int[] cellCounts(int twidth, int theight, int swidth, int sheight){
+    		if(twidth>=(1<<20) || theight>=(1<<20) || swidth>=(1<<12) || sheight>=(1<<12)){
+    			return computeCellCounts(twidth, theight, swidth, sheight);
+    		}
+    		long key = ((long)twidth<<44) | ((long)theight<<24) | ((long)swidth<<12) | sheight;
+    		int[] cc = CCOUNT_BY_SIZE.get(key);
+    		if(cc==null){
+    			if(CCOUNT_BY_SIZE.size()>=MAX_CACHED_SIZES){
+    				CCOUNT_BY_SIZE.clear();
+    			}
+    			cc = computeCellCounts(twidth, theight, swidth, sheight);
+    			CCOUNT_BY_SIZE.put(key, cc);
+    		}
+    		return cc;
+    	}
+
+    	private static int[] computeCellCounts(int twidth, int theight, int swidth, int sheight){
+    		//the cell of a pixel's x only depends on x, and the same for y
+    		int[] colCount = new int[swidth];
+    		for(int i=0;i<twidth;i++){
+    			colCount[(i * swidth) / twidth]++;
+    		}
+    		int[] rowCount = new int[sheight];
+    		for(int j=0;j<theight;j++){
+    			rowCount[(j * sheight) / theight]++;
+    		}
+    		int[] cc = new int[swidth*sheight];
+    		for(int x=0;x<swidth;x++){
+    			for(int y=0;y<sheight;y++){
+    				cc[x*sheight + y] = colCount[x]*rowCount[y];
+    			}
+    		}
+    		return cc;
     	}
     }
     
-    private Map<String,BitmapScaled> _scaleMap = new HashMap<>();
+    //only one size is used in practice, so just the last one is kept
+    private volatile BitmapScaled _scaled;
     
     public BitmapScaled getScaled(int nwid, int nhit){
-    	return _scaleMap.computeIfAbsent(nwid+"_"+nhit, k->{
-    		return BitmapScaled.of(this, nwid, nhit);
-    	});
+    	BitmapScaled bms = _scaled;
+    	if(bms==null || bms.swidth!=nwid || bms.sheight!=nhit){
+    		bms = BitmapScaled.of(this, nwid, nhit);
+    		_scaled = bms;
+    	}
+    	return bms;
     }
     
     
+    /**
+     * A view of the part of a bitmap inside a shape, as if it were cropped
+     * with {@link Bitmap#crop(Shape)}, but reading the packed pixels of the
+     * original bitmap instead of copying them.
+     * Only the window under the shape's bounds is looked at, and the shape is
+     * only tested for pixels that are on.
+     */
     public static class CropBackedBitmap extends Bitmap{
 
     	private Rectangle r = null;
@@ -280,20 +419,8 @@ public class Bitmap implements Serializable {
     	private int w;
     	private int h;
 
-    	private CachedSupplier<List<int[]>> onXYs = CachedSupplier.of(()->{
-    		   		
-    		if(w*h<400){
-    			return real.crop(cropShape).getXYOnPoints().collect(Collectors.toList());
-    		}
-    		
-    		return real.getXYOnPoints()
-    				   .filter(xy->(xy[0]>=x0 && xy[0]<=x1) && (xy[1]>=y0 && xy[1]<=y1))
-    				   .filter(xy->xy[0]==x1||xy[1]==y1||cropShape.contains(xy[0], xy[1]))
-    				   .map(xy->new int[]{(int)(xy[0]-x0),(int)(xy[1]-y0)})
-    				   .collect(Collectors.toList());
-    	});
-     	
-    	
+    	//on pixels of the crop, as y*w+x, in the same order as a cropped bitmap
+    	private CachedSupplier<int[]> onPoints = CachedSupplier.of(()->scanOnPoints());
     	
 		public CropBackedBitmap(Bitmap copy, Shape cropShape) {
 			real = copy;
@@ -309,6 +436,36 @@ public class Bitmap implements Serializable {
 		    y0 = r.y;
 		}
 
+		private int[] scanOnPoints(){
+			int xs = Math.max(x0, 0);
+			int xe = Math.min(x1, real.width-1);
+			int ys = Math.max(y0, 0);
+			int ye = Math.min(y1, real.height-1);
+
+			int[] pts = new int[16];
+			int n=0;
+			byte[] data = real.data;
+			for(int y=ys;y<=ye;y++){
+				int band = real.getScanlineFor(y);
+				for(int x=xs;x<=xe;x++){
+					int b = data[band + x / 8];
+					if(b==0){
+						//nothing on until the next byte
+						x |= 7;
+						continue;
+					}
+					if((b & MASK[x % 8]) == 0)continue;
+					if(x==x1 || y==y1 || cropShape.contains(x, y)){
+						if(n==pts.length){
+							pts = Arrays.copyOf(pts, n*2);
+						}
+						pts[n++] = (y-y0)*w + (x-x0);
+					}
+				}
+			}
+			return Arrays.copyOf(pts, n);
+		}
+
 		public int height() {
 			return h;
 		}
@@ -318,12 +475,20 @@ public class Bitmap implements Serializable {
 		}
 		
 		public Stream<int[]> getXYOnPoints() {
-			return onXYs.get().stream();
+			return Arrays.stream(onPoints.get())
+						 .mapToObj(p->new int[]{p%w, p/w});
 		}
     	public double fractionPixelsOn(){
-    		return onXYs.get().size()/((double)(width()*height()));
+    		return onPoints.get().length/((double)(width()*height()));
+    	}
+    	
+    	private void countCells(int[] counts, int swidth, int sheight){
+    		for(int p : onPoints.get()){
+    			int cx = ((p%w) * swidth) / w;
+		    	int cy = ((p/w) * sheight) / h;
+		    	counts[cx*sheight + cy]++;
+    		}
     	}
-    	    	
     }
     
     
@@ -504,70 +669,22 @@ public class Bitmap implements Serializable {
     public enum Bbox {
         Rectangular{
             @Override
-            List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                Map<Short, Rectangle> ltab = new LinkedHashMap<Short, Rectangle> ();
+            List<Shape> computeConnectedComponentShapes(RunLengthLabeling labels) {
                 List<Shape> comps = new ArrayList<Shape> ();
-//labels = new short[height][width + 1];
-                int height = labels.length;
-                int width = labels[0].length -1;
-                for (int y = 0; y < height; ++y) {
-                    //TODO is this an off by 1 error since label array goes +1 ?
-                    for (int x = 0; x < width; ++x) {
-                        short label = labels[y][x];
-                        if (label != 0) {
-                            short l = label;
-                            /* find equivalence class */
-                            while (eqvtab[l] > 0)
-                                l = eqvtab[l];
-
-                            labels[y][x] = l;
-                    /* create bounding box for each class and make
-                       sure that it does not go outside of the image
-                       boundary */
-                            Rectangle r = ltab.get(l);
-                            if (r == null) {
-                                ltab.put(l, r = new Rectangle(x, y, 1, 1));
-                                comps.add(r);
-                            }
-                            int x0 = Math.min(r.x, x);
-                            int y0 = Math.min(r.y, y);
-                            int x1 = Math.min(width, Math.max(r.x + r.width, x + 1));
-                            int y1 = Math.min(height, Math.max(r.y + r.height, y + 1));
-                            r.setBounds(x0, y0, x1 - x0, y1 - y0);
-                        }
-                    }
+                for (int c = 0; c < labels.getComponentCount(); ++c) {
+                    int[] r = labels.getBounds(c);
+                    comps.add (new Rectangle(r[0], r[1], r[2], r[3]));
                 }
                 return comps;
             }
         },
             Polygon{
                 @Override
-                List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                    Map<Short, List<Point>> coords = new LinkedHashMap<Short, List<Point>> ();
-                    //labels = new short[height][width + 1];
-                    int height = labels.length;
-                    int width = labels[0].length -1;
-                    for (int y = 0; y < height; ++y)
-                        for (int x = 0; x < width; ++x) {
-                            short label = labels[y][x];
-                            if (label != 0) {
-                                short l = label;
-                                /* find equivalence class */
-                                while (eqvtab[l] > 0)
-                                    l = eqvtab[l];
-
-                                labels[y][x] = l;
-
-                                List<Point> pts = coords.get (l);
-                                if (pts == null) {
-                                    coords.put (l, pts = new ArrayList<Point> ());
-                                }
-                                pts.add (new Point (x, y));
-                            }
-                        }
-
+                List<Shape> computeConnectedComponentShapes(RunLengthLabeling labels) {
                     List<Shape> comps = new ArrayList<Shape> ();
-                    for (List<Point> pts : coords.values ()) {
+                    for (int c = 0; c < labels.getComponentCount(); ++c) {
+                        List<Point> pts = new ArrayList<Point> (labels.getPixelCount(c));
+                        labels.forEachPixel(c, (x,y)->pts.add (new Point (x, y)));
                         Polygon hull = GeomUtil.convexHullOldIntPrecision (pts.toArray (new Point[0]));
                         comps.add (hull);
                     }
@@ -580,43 +697,12 @@ public class Bitmap implements Serializable {
          */
             DoublePolygon{
                 @Override
-                List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                    Map<Short, List<Point>> coords = new LinkedHashMap<Short, List<Point>> ();
-                    //labels = new short[height][width + 1];
-                    int height = labels.length;
-                    int width = labels[0].length -1;
-                    for (int y = 0; y < height; ++y)
-                        for (int x = 0; x < width; ++x) {
-                            short label = labels[y][x];
-                            if (label != 0) {
-                                short l = label;
-                                /* find equivalence class */
-                                while (eqvtab[l] > 0)
-                                    l = eqvtab[l];
-
-                                labels[y][x] = l;
-
-                                List<Point> pts = coords.get (l);
-                                if (pts == null) {
-                                    coords.put (l, pts = new ArrayList<Point> ());
-                                }
-                                pts.add (new Point (x, y));
-                            }
-                        }
-
+                List<Shape> computeConnectedComponentShapes(RunLengthLabeling labels) {
                     List<Shape> comps = new ArrayList<Shape> ();
-                    for (List<Point> pts : coords.values ()) {
-                        Point2D[] ptsadjusted=pts.stream()
-                                .flatMap(pt->{
-                                    return Stream.of(new Point2D.Double(pt.getX(),pt.getY()));
-
-//	    	    	return Stream.of(new Point2D.Double(pt.getX()-0.5,pt.getY()-0.5)
-//	    	    					 ,new Point2D.Double(pt.getX()-0.5,pt.getY()+0.5)
-//	    	    					 ,new Point2D.Double(pt.getX()+0.5,pt.getY()-0.5)
-//	    	    					 ,new Point2D.Double(pt.getX()+0.5,pt.getY()+0.5)
-//	    	    			);
-                                })
-                                .toArray(i->new Point2D[i]);
+                    for (int c = 0; c < labels.getComponentCount(); ++c) {
+                        Point2D[] ptsadjusted = new Point2D[labels.getPixelCount(c)];
+                        int[] n = new int[]{0};
+                        labels.forEachPixel(c, (x,y)->ptsadjusted[n[0]++] = new Point2D.Double(x,y));
                         Shape hull = GeomUtil.convexHull2 (ptsadjusted);
 
                         comps.add (hull);
@@ -627,7 +713,7 @@ public class Bitmap implements Serializable {
             }
         ;
 
-        abstract List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels);
+        abstract List<Shape> computeConnectedComponentShapes(RunLengthLabeling labels);
 
 
             }
@@ -1073,345 +1159,122 @@ public class Bitmap implements Serializable {
     
     
     
-    //Prime for optimization
     //This is just a map of the l2 distances from each pixel location to the nearest
     //feature pixel. This is sometimes called the "distance transform", and is useful
     //for a few things like thickening, etc. Here, it's used mostly for giving some 
     //tolerance when walking line segments through the bitmap.
     
-    //This algorithm below is a fairly intensive one, and only works up to a fixed
-    //radius from feature pixels.
-    //A better implementation would likely be:
-    //http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.507.6791
+    //The transform itself is exact for the whole image, but anything further
+    //than growUntil away from a feature pixel is treated as far away.
     //
     private CachedSupplier<byte[]> distanceData = CachedSupplier.of(()->{
-    	//TODO may want to fiddle with this number/algorithm
-    	long start=System.currentTimeMillis();
+    	//TODO may want to fiddle with this number
     	int growUntil = 5;
-
-//    	
-//    	byte[] distanceX=new byte[width*height];
-//    	byte[] distanceY=new byte[width*height];
-//    	
-//    	
-//    	
-//    	
-//    	int nscan=width;
-//
-//    	Arrays.fill(distanceX, Byte.MAX_VALUE);
-//    	Arrays.fill(distanceY, Byte.MAX_VALUE);
-//    	int[] dx = new int[]{-1, 0, 1,-1,1,-1,0,1};
-//    	int[] dy = new int[]{-1,-1,-1, 0,0, 1,1,1};
-//    	
-//    	HashSet<Integer> currentUpdates = new HashSet<>();
-//    	for(int[] xy:onInts.get()){
-//    		int loc = xy[1] * nscan + xy[0];
-//           	distanceX[loc] =0;
-//       		distanceY[loc] =0;
-//       		for(int i=0;i<dx.length;i++){
-//       			int nx = xy[0]+dx[i];
-//       			int ny = xy[1]+dy[i];
-//       			if(nx>=0 && nx<width && ny>=0 && ny<height){
-//	       			int locn = ny * nscan + nx;
-//	       			currentUpdates.add(locn);
-//       			}
-//       		}
-//    	}
-//    	
-//    	
-//    	HashSet<Integer> nextUpdates = new HashSet<>();
-//       
-//    	Stack<int[]> toChange = new Stack<>();
-//    	
-//    	
-//    	double MIN_SQ=Byte.MAX_VALUE*Byte.MAX_VALUE+Byte.MAX_VALUE*Byte.MAX_VALUE;
-//    	for (int r = 0; r<growUntil;r++){
-//    		int p=r%2;
-//    		
-//    		HashSet<Integer> cur;
-//    		HashSet<Integer> nex;
-//    		
-//    		
-//    		if(p==0){
-//    			cur=currentUpdates;
-//    			nex=nextUpdates;
-//    		}else{
-//    			nex=currentUpdates;
-//    			cur=nextUpdates;
-//    		}
-//    		
-//    		for(int loc:cur){
-//    			if(distanceX[loc]==Byte.MAX_VALUE && distanceY[loc] == Byte.MAX_VALUE){
-//   				 int x = loc %nscan;
-//   				 int y = loc /nscan;
-//   				//It's unset
-//         			 int mini=-1;
-//         			 byte ndx=0;
-//         			 byte ndy=0;
-//    				 double minsqdist=MIN_SQ;
-//         			 for(int i=0;i<dx.length;i++){
-//         				 int nx = dx[i]+x;
-//         				 int ny = dy[i]+y;
-//         				 if(nx<this.width && nx>=0 && ny<this.height && ny>=0){
-//         					int nloc=ny*nscan + nx;
-//         					double bdx=distanceX[nloc] + Math.abs(dx[i]);
-//         					double bdy=distanceY[nloc] + Math.abs(dy[i]);
-//         					
-//         					double d = bdx*bdx+bdy*bdy;
-//         					if(d<MIN_SQ){
-//	          					if(d<minsqdist){
-//	          						minsqdist=d;
-//	          						mini=i;
-//	          						ndx=(byte) Math.min(Byte.MAX_VALUE, bdx);
-//	          						ndy=(byte) Math.min(Byte.MAX_VALUE, bdy);
-//	          					}
-//         					}else{
-//         						nex.add(nloc);
-//         					}
-//         				 }	 
-//         			 }
-//         			 if(mini>=0){
-//     					toChange.add(new int[]{loc,ndx,ndy});
-//     					
-//         			 }
-//   			 }
-//    		}
-//    		
-//    		while(!toChange.empty()){
-//    			int[] v=toChange.pop();
-//    			distanceX[v[0]] =(byte)v[1];
-//				distanceY[v[0]] =(byte)v[2];
-//				nex.remove(v[0]);
-//				
-//    		}
-//    		cur.clear();
-//    	}
-//    	
-////    	System.out.println("Total Time:" + (System.currentTimeMillis() - start));
-//    	
-//    	for (int y = 0; y < this.height; ++y) {
-//    		int yoff=y*nscan;
-//    		
-//            for (int x = 0; x < this.width; ++x) {
-//          		 int loc = yoff + x;
-//          		 byte ddx=distanceX[loc];
-//         		 byte ddy=distanceY[loc];
-//          		 if(ddx>=Byte.MAX_VALUE || ddy>=Byte.MAX_VALUE){
-//          			distanceX[loc] = (byte)Byte.MAX_VALUE;
-//          			continue;
-//          		 }          		 
-//          		 int dd=ddx*ddx+ddy*ddy;
-//          		 distanceX[loc]=sqrtCache[dd];
-//            }
-//       }
-//	BufferedImage gg=getGrayscale(width, distanceX);
-//    	
-//    	try {
-//			ImageIO.write(gg, "PNG", new File("loWARBrute.png"));
-//		} catch (IOException e) {
-//			// TODO Auto-generated catch block
-//			e.printStackTrace();
-//		}
-//    	System.out.println("Total Time:" + (System.currentTimeMillis() - start));
-//    	return distanceX;
-    	
-    	
-    	//This method should be faster, but isn't yet ... probably because it
-    	//has to compute the real thing, not just the first few pixels
-    	
     	return getNNPixelMapX(growUntil);
-    	
-    	
     }); //distance to nearest pixel*4
     
 
     
-    //Based roughly on this publication:
-    //http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.507.6791
+    /**
+     * Exact Euclidean distance transform, using the linear time algorithm from:
+     * A. Meijster, J.B.T.M. Roerdink, W.H. Hesselink, A general algorithm for computing
+     * distance transforms in linear time, Mathematical Morphology and its Applications
+     * to Image and Signal Processing, 331-340, 2000.
+     * 
+     * All of the arithmetic is done on integers, so there are no rounding issues.
+     * 
+     * @param limit the distance (in pixels) to look out to. Pixels where the squared distance
+     * is at least 2*limit*limit are given {@link Byte#MAX_VALUE}.
+     * @return the distance from each pixel (at x + y*width) to the nearest on pixel, 
+     * times 4, capped at {@link Byte#MAX_VALUE}.
+     */
     public byte[] getNNPixelMapX(int limit){
-    	int BAD= Integer.MAX_VALUE;
-    	int pow2widt=Integer.highestOneBit(width);
-		if(pow2widt<width){
-			pow2widt=pow2widt*2;
-		}
-		int pow2wid = pow2widt;
-		
-		int nshift = (int)Math.round(Math.log(pow2wid)/Math.log(2.0));
-		
-    	int[] bestIndex = new int[pow2wid*height];
-    	byte[] distanceY=new byte[width*height];
-    	
-    	IntStream.range(0, height)
-//    	   .parallel()
-    	   .forEach(y->{
-	       		int lOnx = -1;
-	       		//each column
-	       		for(int x=0;x<width;x++){	
-	       			boolean on=isOn(x,y);
-	       			int locn = y * pow2wid + x;
-	       			if(on){
-	       				
-	       				bestIndex[locn] = locn;
-	       				int upto=x;
-	       				int setx=lOnx;
-	       				if(lOnx>-1){
-	       					upto=((lOnx+x)/2);
-	       				}else{
-	       					setx=x;
-	       				}
-	       				if(x>lOnx+1){
-	   	    				//update nn for last point
-	   	    				for(int i=lOnx+1;i<=upto;i++){
-	   	    					int locn2 = (y) * pow2wid + i;
-	   	    					bestIndex[locn2] = y*pow2wid +setx;
-	   	    				}
-	   	    				for(int i=upto+1;i<x;i++){
-	   	    					int locn2 = (y) * pow2wid + i;
-	   	    					bestIndex[locn2] = locn;
-	   	    				}
-	       				}
-	       				lOnx=x;
-	       			}else{
-	       				bestIndex[locn] = BAD;
-	       			}
-	       		}
-	       		if(lOnx>-1){
-	       			for(int i=lOnx+1;i<width;i++){
-	   					int locn2 = (y) * pow2wid + i;
-	   					bestIndex[locn2] = y*pow2wid+lOnx;
-	   				}
-	       		}
-    	   });
-    	
-//
-////		//each column
-    	IntStream.range(0, width)
-//    	.parallel()
- 	   .forEach(x->{
- 		  List<Double> cutoffs = new ArrayList<>();
- 		  List<Integer> locationsX = new ArrayList<>();
- 		  List<Integer> locationsY = new ArrayList<>();
- 		  
- 		  
- 		  
- 		  
- 		  
- 		  int startY=0;
- 		  
- 		  //find first real candidate
- 		  for(int y=0;y<height;y++){
- 			int locn = y*pow2wid + x;
-				
-			
- 		  	if(bestIndex[locn] != BAD){
- 		  		int bx = bestIndex[locn]& (pow2wid - 1); 
-				int by = bestIndex[locn]>>nshift; // unnecessary probably
- 		  		locationsX.add(bx);
- 		  		locationsY.add(by);
- 		  		
- 		  		cutoffs.add(0.0);
- 		  		startY=y+1;
- 		  		break;	
- 		  		
- 		  	}
- 		  }
- 		  if(!locationsX.isEmpty()){
- 			 //construct voronoi
- 			  for(int y=startY;y<height;y++){
- 	 			int locn = y*pow2wid + x;
- 	 			
- 	 		  	if(bestIndex[locn] != BAD){
- 	 		  		
- 	 		  		//need to iterate here until it's okay
- 	 		  		int bx = bestIndex[locn]& (pow2wid - 1); 
- 	 		  		int by = bestIndex[locn]>>nshift; // unnecessary probably
- 			 		int dx2= (x-bx);
- 			 		
- 			 		
- 			 		
- 			 		double iy=Double.NEGATIVE_INFINITY;
- 			 		
- 			 		while(locationsX.size()>0){
-	 	 		  		int plocX = locationsX.get(locationsX.size()-1);
-	 	 		  		int plocY = locationsY.get(locationsY.size()-1);
-	 	 		  		double pcut = cutoffs.get(cutoffs.size()-1);
-	 	 		  		double dy = by -plocY;
-	 	 		  		int dx1= (x-plocX);
-	 	 		  		
-	 	 		  		//intersection point
-	 	 		  		iy = (dx2*dx2-dx1*dx1+dy*dy) / ((double)2*dy) + plocY;
-	 	 		  		
-	 	 		  		if(iy<pcut){
-	 	 		  			//need to remove and loop
-	 	 		  			locationsX.remove(locationsX.size()-1);
-	 	 		  			locationsY.remove(locationsY.size()-1);
-	 	 		  			cutoffs.remove(cutoffs.size()-1);
-	 	 		  		}else{
-		 	 		  		break;
-	 	 		  		}
- 			 		}
- 			 		locationsX.add(bx);
- 	 		  		locationsY.add(by);
- 	 		  		cutoffs.add(iy);
- 	 		  	}
- 	 		 }
- 			 cutoffs.add(Double.POSITIVE_INFINITY);
- 			 locationsX.add(Integer.MAX_VALUE);
-		  	 locationsY.add(Integer.MAX_VALUE);
- 			  			 
- 			 int py=0;
- 			 double pco=cutoffs.get(0);
- 			 for(int ci=1;ci<cutoffs.size();ci++){
- 				 double co=Math.min(cutoffs.get(ci),height);
- 				 int vx=locationsX.get(ci-1);
-	 		  	 int vy=locationsY.get(ci-1);
-	 		  	 
- 				 int from=(int)Math.round(Math.max(pco, py));
- 				 for(int y=from;y<co;y++){
- 					 int locn = y*pow2wid + x;
- 		 		  	 bestIndex[locn]=vy*pow2wid + vx;
- 					 py=y+1;
- 				 } 				 
- 				 pco=co;
- 			 }
- 			 
- 		  }
- 		 for(int y=0;y<height;y++){
- 			int locn = y*pow2wid + x;
- 			int bx = bestIndex[locn]& (pow2wid - 1); 
-		  	int by = bestIndex[locn]>>nshift; 
- 			int ddx=Math.abs(bx-x);
-   			int ddy=Math.abs(by-y);
-   			
-   		 	int bloc =width*y+x;
-   		 
-    		 if(ddx>=Byte.MAX_VALUE || ddy>=Byte.MAX_VALUE){
-    			distanceY[bloc] = (byte)Byte.MAX_VALUE;
-    			continue;
-    		 }          		 
-    		 int dd=ddx*ddx+ddy*ddy;
-    		 
-    		 if(dd < limit*limit*2){
-    			distanceY[bloc]=(byte) Math.min(sqrtCache[dd], Byte.MAX_VALUE);	 
-    		 }else{
-    			distanceY[bloc] = (byte)Byte.MAX_VALUE;
-    		 }
- 		 }
- 		   
- 	   });
-//
-//    	BufferedImage gg=getGrayscale(width, distanceY);
-//    	
-//    	try {
-//			ImageIO.write(gg, "PNG", new File("loWARvoronFull.png"));
-//		} catch (IOException e) {
-//			// TODO Auto-generated catch block
-//			e.printStackTrace();
-//		}
-
-    	
-    	return distanceY;
+    	int[] dd = getSquaredDistanceMap();
+    	byte[] distance=new byte[width*height];
+    	long cutoff = 2L*limit*limit;
+    	
+    	for(int i=0;i<dd.length;i++){
+    		int d = dd[i];
+    		if(d < cutoff && d < sqrtCache.length){
+    			distance[i]=sqrtCache[d];
+    		}else{
+    			distance[i]=(byte)Byte.MAX_VALUE;
+    		}
+    	}
+    	return distance;
+    }
+    
+    /**
+     * The squared Euclidean distance from each pixel (at x + y*width) to the
+     * nearest on pixel, see {@link #getNNPixelMapX(int)}. If nothing is on in the
+     * whole image, every value is larger than any real distance could be.
+     */
+    public int[] getSquaredDistanceMap(){
+    	int[] g = new int[width*height];
+    	//further than anything in the image can be
+    	int inf = width + height;
+    	
+    	//phase 1, vertical distance to the nearest on pixel in each column
+    	for(int x=0;x<width;x++){
+    		g[x] = isOn(x,0)?0:inf;
+    		for(int y=1;y<height;y++){
+    			int loc = y*width+x;
+    			g[loc] = isOn(x,y)?0:Math.min(inf, g[loc-width]+1);
+    		}
+    		for(int y=height-2;y>=0;y--){
+    			int loc = y*width+x;
+    			if(g[loc+width] < g[loc]){
+    				g[loc] = g[loc+width]+1;
+    			}
+    		}
+    	}
     	
+    	//phase 2, lower envelope of the parabolas in each row
+    	int[] dd = new int[width*height];
+    	int[] s = new int[width];
+    	int[] t = new int[width];
+    	for(int y=0;y<height;y++){
+    		int row = y*width;
+    		int q=0;
+    		s[0]=0;
+    		t[0]=0;
+    		for(int u=1;u<width;u++){
+    			while(q>=0 && edtF(t[q], s[q], g, row) > edtF(t[q], u, g, row)){
+    				q--;
+    			}
+    			if(q<0){
+    				q=0;
+    				s[0]=u;
+    			}else{
+    				long w = 1 + edtSep(s[q], u, g, row);
+    				if(w<width){
+    					q++;
+    					s[q]=u;
+    					t[q]=(int)w;
+    				}
+    			}
+    		}
+    		for(int u=width-1;u>=0;u--){
+    			long d = edtF(u, s[q], g, row);
+    			dd[row+u] = (int)Math.min(Integer.MAX_VALUE, d);
+    			if(u==t[q]){
+    				q--;
+    			}
+    		}
+    	}
+    	return dd;
+    }
+    
+    private static long edtF(int x, int i, int[] g, int row){
+    	long gi = g[row+i];
+    	long dx = x-i;
+    	return dx*dx + gi*gi;
+    }
+    
+    private static long edtSep(int i, int u, int[] g, int row){
+    	long gi = g[row+i];
+    	long gu = g[row+u];
+    	return Math.floorDiv((long)u*u - (long)i*i + gu*gu - gi*gi, 2L*(u-i));
     }
     
     
@@ -1439,6 +1302,19 @@ public class Bitmap implements Serializable {
    }
     
     public static Bitmap createBitmap (Raster raster, Binarization bb) {
+    	return createBitmap(raster, null, bb);
+    }
+    
+    /**
+     * Binarize the given raster, reusing {@link ImageStats} already computed for it
+     * with {@link Binarization#computeImageStats(Raster)}.  The given stats are not modified,
+     * so they can be shared by several attempts to binarize the same raster.
+     * @param raster the single band raster to binarize.
+     * @param stats the stats of the raster; if null, they will be computed.
+     * @param bb the {@link Binarization} to use.
+     * @return a new Bitmap.
+     */
+    public static Bitmap createBitmap (Raster raster, ImageStats stats, Binarization bb) {
         SampleModel model = raster.getSampleModel();
         int band = model.getNumBands ();
         if (band > 1) {
@@ -1453,7 +1329,7 @@ public class Bitmap implements Serializable {
         
         
         
-    	Bitmap bm= bb.binarize(raster, null, stat->{
+    	Bitmap bm= bb.binarize(raster, stats==null?null:stats.copy(), stat->{
         	is[0]=stat;
         });
 
@@ -1755,8 +1631,21 @@ public class Bitmap implements Serializable {
     
     
     
-    private static final boolean[] thinCache1 = new boolean[256];
-    private static final boolean[] thinCache2 = new boolean[256];
+    /**
+     * Images with at least this many pixels are thinned in parallel by {@link #thin()}.
+     * Read once from the "bitmap.parallelThinMinPixels" system property, defaults to 1,000,000.
+     */
+    private static final int PARALLEL_THIN_MIN_PIXELS;
+    static {
+        int minPixels = 1_000_000;
+        try {
+            minPixels = Integer.getInteger ("bitmap.parallelThinMinPixels", minPixels);
+        } catch (Exception ex) { }
+        PARALLEL_THIN_MIN_PIXELS = minPixels;
+    }
+    
+    static final boolean[] thinCache1 = new boolean[256];
+    static final boolean[] thinCache2 = new boolean[256];
     
     static{
     	 for(int i=0;i<256;i++){
@@ -1995,93 +1884,38 @@ public class Bitmap implements Serializable {
      * It's based on the following paper:
      * R. Carrsco, M. Forcada, A note on the Nagendraprasad-Wang-Gupta
      * thinning algorithm, Pattern Recognition Letters, 16, 539-541, 1995.
+     * 
+     * Images with at least {@link #PARALLEL_THIN_MIN_PIXELS} pixels are thinned
+     * on multiple threads when there is more than one core, see {@link #thin(boolean)}.
      */
     public Bitmap thin () {
+    	boolean parallel = (long)width*height >= PARALLEL_THIN_MIN_PIXELS
+    			&& ForkJoinPool.getCommonPoolParallelism() > 1;
+    	return thin(parallel);
+    }
+    
+    /**
+     * Same as {@link #thin()}, but choosing if the work should be split
+     * across threads. The result is the same either way.
+     * @param parallel true to thin bands of rows on the common ForkJoinPool.
+     */
+    public Bitmap thin (boolean parallel) {
         Bitmap thin = new Bitmap (this);
-        byte[] copy = new byte[this.data.length];
-        System.arraycopy (thin.data, 0, copy, 0, copy.length);
-
-        int parity = 1;
-        boolean changed;
         
         Grid gg = thin.onGrid;
         List<Rectangle> lookGrids = gg.getLeafBoundsInside(0,width,height);
-        do {
-        	changed = false;
-            parity = 1 - parity;
-            
-            
-            for(int i=0;i<lookGrids.size();i++){
-            	Rectangle tgrid = lookGrids.get(i);
-            	for (int y = tgrid.y; y < tgrid.height; ++y){
-	                for (int x = tgrid.x; x < tgrid.width; ++x) {
-	                    if (thin.isOn(x, y)) {
-	                    	int ni = thin.neighbor8Index(x, y);
-	                    	
-	                    	boolean should = thin.shouldThin(ni, parity);
-	                        if(should){
-	                        	copy[getScanlineFor(y) + x / 8] &= ~MASK[x % 8];
-                                gg.remove(x, y);
-                                changed = true;
-	                        }
-	                        
-	                        
-	                        
-	                    } // if pixel is on
-	                } // endfor each pixel
-	            }
-        	}
-            // update the image
-            if (changed) {
-                System.arraycopy (copy, 0, thin.data, 0, copy.length);
-            }
-        }
-        while (changed);
-        copy = null;
+        
+        PackedThinning thinning = new PackedThinning(thin.data, scanline, width, height, lookGrids);
+        thinning.thin(parallel);
+        thinning.forEachRemoved((x,y)->{
+        	thin.data[getScanlineFor(y) + x / 8] &= ~MASK[x % 8];
+        	gg.remove(x, y);
+        });
 
         return thin;
     }
     
     
-    void union (short[] eqvtab, short cls1, short cls2) {
-        short i = cls1, j = cls2, k;
-		short one = 1;
-        //logger.info("union "+cls1+" "+cls2);
-
-        while (eqvtab[i] > 0) i = eqvtab[i];
-        while (eqvtab[j] > 0) j = eqvtab[j];
-
-        while (eqvtab[cls1] > 0) {
-            k = cls1;
-            cls1 = eqvtab[cls1];
-            eqvtab[k] = i;
-        }
-
-        while (eqvtab[cls2] > 0) {
-            k = cls2;
-            cls2 = eqvtab[cls2];
-            eqvtab[k] = j;
-        }
-
-        if (i != j) {
-            if (eqvtab[j] < eqvtab[i]) {
-				int sum =eqvtab[j] + (eqvtab[i] - one);
-				if( sum < Short.MAX_VALUE && sum > Short.MIN_VALUE) {
-					eqvtab[j] = (short) sum;
-				}
-                //eqvtab[j] += eqvtab[i] - one;
-                eqvtab[i] = j;
-            } else {
-				int sum = eqvtab[i] + (eqvtab[j] - one);
-				if( sum < Short.MAX_VALUE && sum > Short.MIN_VALUE) {
-					eqvtab[i] = (short) sum;
-				}
-                //eqvtab[i] += eqvtab[j] - one;
-                eqvtab[j] = i;
-            }
-        }
-    }
-
     /*
      * return connected components as rectangular bounding boxes
      */
@@ -2106,122 +1940,8 @@ public class Bitmap implements Serializable {
 
     public List<Shape> connectedComponents (Bbox shape) {
     	return _cacheShapes.computeIfAbsent(shape, (ss)->{
-    		short[] label = new short[]{0}; // current label
-            final short[][] labels = new short[height][width + 1];
-
-            // equivalence class
-            short[][] eqvtab = new short[1][]; 
-            short[] L = new short[4];
-            
-            eqvtab[0] = new short[500]; //some initial default
-
-            List<int[]> xys = onInts.get();
-            
-            for(int p=0;p<xys.size();p++){
-            	int[] xy = xys.get(p);
-            	int x = xy[0];
-            	int y = xy[1];
-            	if (y == 0 && x == 0) {
-                    labels[y][x] = ++label[0];
-                } else if (y == 0) {
-                    short label1 = labels[y][x - 1];
-                    if (label1 == 0) {
-                        label1 = ++label[0];
-                    }
-                    labels[y][x] = label1;
-                } else if (x == 0) {
-                    int label1 = labels[y - 1][x];
-                    int label2 = labels[y - 1][x + 1];
-                    if (label1 != 0 && label2 != 0)
-                        label1 = Math.min (label1, label2);
-                    else if (label1 == 0 && label2 == 0) {
-                        label1 = ++label[0];
-                    } else
-                        label1 = Math.max (label1, label2);
-                    labels[y][x] = (short) label1;
-                }
-                /* assign new label */
-                else if (labels[y][x - 1] == 0
-                         && labels[y - 1][x] == 0
-                         && labels[y - 1][x - 1] == 0
-                         && labels[y - 1][x + 1] == 0) {
-                    labels[y][x] = ++label[0];
-                } else {
-                    L[0] = labels[y - 1][x - 1];
-                    L[1] = labels[y - 1][x];
-                    L[2] = labels[y - 1][x + 1];
-                    L[3] = labels[y][x - 1];
-
-                    Arrays.sort (L);
-
-                    /* skip all non-labeled pixels */
-                    int n;
-                    for (n = 0; n < 4 && L[n] == 0; ++n)
-                        ;
-                    /* n should not be 4 */
-                    if (n == 4) {
-                        throw new IllegalStateException ("n == 4");
-                    }
-
-                    labels[y][x] = L[n];
-                    /* now enumerate from n to 4 - 1 */
-                    for (int i = n; i < 4; ++i)
-                        for (int j = i + 1; j < 4; ++j)
-                            /* update equivalence table */
-                            union (eqvtab[0], L[i], L[j]);
-                }
-
-                if (label[0] == Short.MAX_VALUE) {
-                    logger.log (Level.SEVERE, "Max number of labels reached: "
-                                + label + "; truncating search!");
-                    break;
-                }
-                // ensure there's enough space in the eqvtab
-                else if (label[0] >= eqvtab[0].length) {
-                    short[] newtab = new short[label[0] + 100];
-                    System.arraycopy (eqvtab[0], 0, newtab, 0, eqvtab[0].length);
-                    eqvtab[0] = newtab;
-                }
-            }
-            
-
-            if (DEBUG) {
-                System.err.print ("eqvtab:");
-                for (int i = 1; i <= label[0]; ++i) {
-                    System.err.print (" " + i + ":" + eqvtab[0][i]);
-                }
-                System.err.println ();
-                System.err.println ("label: " + label);
-
-                System.err.println ("eqv class labels...");
-                for (int y = 0; y < height; ++y) {
-                    for (int x = 0; x < width; ++x) {
-                        System.err.print
-                            (get (x, y) ? String.valueOf (labels[y][x]) : '.');
-                    }
-                    System.err.println ();
-                }
-            }
-
-
-            List<Shape> comps = ss.computeConnectedComponentShapes(eqvtab[0], labels);
-
-            if (DEBUG) {
-                System.err.println ("merged labels...");
-                for (int y = 0; y < height; ++y) {
-                    for (int x = 0; x < width; ++x) {
-                        System.err.print
-                            (get (x, y) ? String.valueOf (labels[y][x]) : '.');
-                    }
-                    System.err.println ();
-                }
-            }
-//            eqvtab = null;
-//            labels = null;
-
-            return comps;
+    		return ss.computeConnectedComponentShapes(new RunLengthLabeling(data, scanline, width, height));
     	});
-
     }
 
 
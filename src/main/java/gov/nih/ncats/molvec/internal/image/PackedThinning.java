@@ -0,0 +1,283 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Thinning engine used by {@link Bitmap#thin()}. The image is packed
+ * into 64 bit words (one row after another, least significant bit
+ * is the leftmost pixel) so that the 8 neighbors of a whole word of pixels
+ * can be gathered with a few shifts, and each pixel is then decided
+ * with the same 256 entry lookup tables used by {@link Bitmap#shouldThin(int, int)}.
+ *
+ * <p>
+ * Like the per-pixel version, every pass decides on the image as it was at the start
+ * of the pass. A pixel whose neighborhood hasn't changed since the last pass with the
+ * same parity would get the same answer as before, so after the first 2 passes only the
+ * pixels next to something removed in the previous 2 passes are looked at again.
+ * </p>
+ *
+ * <p>
+ * Only pixels inside of the given grid cells are ever removed, so the result
+ * is exactly the same as the per-pixel version.
+ * </p>
+ */
+final class PackedThinning {
+
+	//smallest band of rows worth handing to another thread
+	private static final int MIN_BAND_HEIGHT = 32;
+
+	private final int width;
+	private final int height;
+	private final int words;
+
+	//current image
+	private final long[] on;
+	//pixels which are allowed to be removed
+	private final long[] allowed;
+	//everything removed so far
+	private final long[] removedAll;
+
+	PackedThinning(byte[] data, int scanline, int width, int height, List<Rectangle> lookGrids){
+		this.width=width;
+		this.height=height;
+		this.words = (width + 63) >>> 6;
+		this.on = new long[words*height];
+		this.allowed = new long[words*height];
+		this.removedAll = new long[words*height];
+
+		long lastMask = (width & 63)==0? -1L : (1L<<(width & 63))-1;
+		for(int y=0;y<height;y++){
+			int ri = y*words;
+			int di = y*scanline;
+			for(int bx=0;bx<scanline;bx++){
+				int b = data[di + bx] & 0xFF;
+				if(b==0)continue;
+				long rev = (Integer.reverse(b)>>>24) & 0xFFL;
+				on[ri + (bx>>>3)] |= rev << ((bx & 7)<<3);
+			}
+			//padding after the last pixel never counts
+			on[ri + words-1] &= lastMask;
+		}
+
+		for(Rectangle r: lookGrids){
+			//the grid rectangles have the end coordinates in width/height
+			for(int y=r.y;y<r.height;y++){
+				setRange(allowed, y*words, r.x, r.width);
+			}
+		}
+	}
+
+	private static void setRange(long[] row, int ri, int x0, int x1){
+		for(int x=x0;x<x1;){
+			int w = x>>>6;
+			int b = x & 63;
+			int n = Math.min(64 - b, x1 - x);
+			long m = (n==64)? -1L : ((1L<<n)-1)<<b;
+			row[ri + w] |= m;
+			x+=n;
+		}
+	}
+
+	/**
+	 * Thin the image until a pass doesn't remove anything.
+	 * @param parallel if true, each pass is split into bands of rows
+	 * which are done on the common {@link java.util.concurrent.ForkJoinPool}.
+	 * Every band only reads the image as it was at the start of the pass, including
+	 * the rows just outside of it, and nothing is removed until every band is done,
+	 * so the result is the same either way.
+	 */
+	void thin(boolean parallel){
+		int size = on.length;
+		long[] cand = new long[size];
+		long[][] removed = new long[][]{new long[size], new long[size]};
+
+		int bandHeight = parallel ? Math.max(MIN_BAND_HEIGHT, height / (4*ForkJoinPool.getCommonPoolParallelism())) : height;
+		int bands = (height + bandHeight - 1) / bandHeight;
+
+		forEachBand(parallel, bands, bandHeight, (y0,y1)->{
+			for(int i=y0*words;i<y1*words;i++){
+				cand[i] = on[i] & allowed[i];
+			}
+			return false;
+		});
+
+		int parity = 1;
+		int pass = 0;
+		boolean changed;
+		do{
+			parity = 1 - parity;
+			boolean[] lut = (parity==0)?Bitmap.thinCache1:Bitmap.thinCache2;
+			long[] rem = removed[pass & 1];
+			long[] remPrev = removed[(pass+1) & 1];
+
+			changed = forEachBand(parallel, bands, bandHeight, (y0,y1)->pass(y0, y1, cand, rem, lut));
+			if(changed){
+				forEachBand(parallel, bands, bandHeight, (y0,y1)->{
+					for(int i=y0*words;i<y1*words;i++){
+						long r = rem[i];
+						if(r!=0){
+							on[i] &= ~r;
+							removedAll[i] |= r;
+						}
+					}
+					return false;
+				});
+			}
+			pass++;
+
+			if(pass==1){
+				//the other parity hasn't looked at anything yet
+				forEachBand(parallel, bands, bandHeight, (y0,y1)->{
+					for(int i=y0*words;i<y1*words;i++){
+						cand[i] = on[i] & allowed[i];
+					}
+					return false;
+				});
+			}else{
+				forEachBand(parallel, bands, bandHeight, (y0,y1)->{
+					nextCandidates(y0, y1, rem, remPrev, cand);
+					return false;
+				});
+			}
+		}while(changed);
+	}
+
+	@FunctionalInterface
+	private interface BandTask{
+		boolean run(int y0, int y1);
+	}
+
+	/**
+	 * Run the task on every band of rows, waiting for all of them to finish.
+	 * @return true if the task returned true for any band.
+	 */
+	private boolean forEachBand(boolean parallel, int bands, int bandHeight, BandTask task){
+		if(!parallel || bands<2){
+			return task.run(0, height);
+		}
+		//no short circuit here, every band has to run
+		return IntStream.range(0, bands)
+				.parallel()
+				.map(b-> task.run(b*bandHeight, Math.min(height, (b+1)*bandHeight))?1:0)
+				.sum()>0;
+	}
+
+	/**
+	 * Decide every candidate pixel in the rows from y0 (inclusive) to y1 (exclusive)
+	 * against the current image, marking
+	 * the ones to be removed. Nothing is changed in the image itself.
+	 * @return true if anything should be removed.
+	 */
+	private boolean pass(int y0, int y1, long[] cand, long[] removed, boolean[] lut){
+		boolean any=false;
+		int last = words-1;
+		for(int y=y0;y<y1;y++){
+			int ri = y*words;
+			int ui = ri - words;
+			int di = ri + words;
+			boolean hasUp = y>0;
+			boolean hasDown = y+1<height;
+
+			for(int w=0;w<words;w++){
+				int i = ri+w;
+				long c = cand[i];
+				if(c==0){
+					removed[i]=0;
+					continue;
+				}
+				boolean hasLeft = w>0;
+				boolean hasRight = w<last;
+
+				long cur = on[i];
+				long up = hasUp ? on[ui+w] : 0;
+				long down = hasDown ? on[di+w] : 0;
+
+				long curL = hasLeft? on[i-1] : 0;
+				long curR = hasRight? on[i+1] : 0;
+				long upL = (hasUp && hasLeft)? on[ui+w-1] : 0;
+				long upR = (hasUp && hasRight)? on[ui+w+1] : 0;
+				long downL = (hasDown && hasLeft)? on[di+w-1] : 0;
+				long downR = (hasDown && hasRight)? on[di+w+1] : 0;
+
+				//neighbor planes, each lined up with the center pixel
+				long n  = up;
+				long ne = (up>>>1) | (upR<<63);
+				long e  = (cur>>>1) | (curR<<63);
+				long se = (down>>>1) | (downR<<63);
+				long s  = down;
+				long sw = (down<<1) | (downL>>>63);
+				long wp = (cur<<1) | (curL>>>63);
+				long nw = (up<<1) | (upL>>>63);
+
+				//interior pixels are never removed
+				c &= ~(n & ne & e & se & s & sw & wp & nw);
+
+				long rem=0;
+				while(c!=0){
+					int b = Long.numberOfTrailingZeros(c);
+					int idx = (int)((n>>>b) & 1)
+							| (int)((ne>>>b) & 1)<<1
+							| (int)((e>>>b) & 1)<<2
+							| (int)((se>>>b) & 1)<<3
+							| (int)((s>>>b) & 1)<<4
+							| (int)((sw>>>b) & 1)<<5
+							| (int)((wp>>>b) & 1)<<6
+							| (int)((nw>>>b) & 1)<<7;
+					if(lut[idx]){
+						rem |= 1L<<b;
+					}
+					c &= c-1;
+				}
+				removed[i]=rem;
+				if(rem!=0)any=true;
+			}
+		}
+		return any;
+	}
+
+	/**
+	 * The next candidates, in the rows from y0 (inclusive) to y1 (exclusive),
+	 * are the pixels still on which are within 1 pixel of something removed in either of
+	 * the last 2 passes.
+	 */
+	private void nextCandidates(int y0, int y1, long[] removed, long[] removedPrev, long[] cand){
+		int last = words-1;
+		for(int y=y0;y<y1;y++){
+			int ri = y*words;
+			for(int w=0;w<words;w++){
+				long d = 0;
+				for(int dy=-1;dy<=1;dy++){
+					int yy = y+dy;
+					if(yy<0 || yy>=height)continue;
+					int i = yy*words + w;
+					long m = removed[i] | removedPrev[i];
+					long mL = w>0? removed[i-1] | removedPrev[i-1] : 0;
+					long mR = w<last? removed[i+1] | removedPrev[i+1] : 0;
+					d |= m | (m<<1) | (mL>>>63) | (m>>>1) | (mR<<63);
+				}
+				int i = ri+w;
+				cand[i] = d & on[i] & allowed[i];
+			}
+		}
+	}
+
+	/**
+	 * Call the consumer for every pixel which was removed by {@link #thin(boolean)}.
+	 */
+	void forEachRemoved(PixelConsumer consumer){
+		for(int y=0;y<height;y++){
+			int ri = y*words;
+			for(int w=0;w<words;w++){
+				long r = removedAll[ri+w];
+				while(r!=0){
+					int b = Long.numberOfTrailingZeros(r);
+					consumer.accept((w<<6) + b, y);
+					r &= r-1;
+				}
+			}
+		}
+	}
+}
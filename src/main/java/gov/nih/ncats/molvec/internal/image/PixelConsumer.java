@@ -0,0 +1,10 @@
+package gov.nih.ncats.molvec.internal.image;
+
+/**
+ * Receives pixel coordinates from the packed bitmap helpers
+ * without boxing them.
+ */
+@FunctionalInterface
+interface PixelConsumer {
+	void accept(int x, int y);
+}
@@ -0,0 +1,176 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.util.Arrays;
+
+import gov.nih.ncats.molvec.internal.algo.UnionFind;
+
+/**
+ * 8-connected component labelling done on horizontal runs of
+ * on pixels instead of single pixels. The runs of each row are found straight
+ * from the packed bitmap data, each run is joined to the runs it touches
+ * in the row above using {@link UnionFind}, and then the runs are grouped
+ * by component.
+ *
+ * <p>
+ * Components are numbered in the order their first pixel is found when scanning
+ * the image row by row (top to bottom, then left to right), and the runs of each
+ * component are kept in that same order.
+ * </p>
+ */
+final class RunLengthLabeling {
+
+	private int runCount=0;
+	private int[] runY = new int[256];
+	private int[] runX0 = new int[256];
+	//exclusive
+	private int[] runX1 = new int[256];
+
+	private int componentCount;
+	//runs of component c are runOrder[componentStart[c]] to runOrder[componentStart[c+1]-1]
+	private int[] componentStart;
+	private int[] runOrder;
+
+	RunLengthLabeling(byte[] data, int scanline, int width, int height){
+		int[] rowStart = new int[height+1];
+		for(int y=0;y<height;y++){
+			rowStart[y]=runCount;
+			findRuns(data, y*scanline, width, y);
+		}
+		rowStart[height]=runCount;
+
+		UnionFind uf = new UnionFind(runCount);
+		for(int y=1;y<height;y++){
+			int j = rowStart[y-1];
+			int prevEnd = rowStart[y];
+			for(int i=rowStart[y];i<rowStart[y+1];i++){
+				int s = runX0[i];
+				int e = runX1[i];
+				//runs above that end before the pixel diagonally up-left can't touch this or any later run
+				while(j<prevEnd && runX1[j] < s){
+					j++;
+				}
+				//runs above that start at or before the pixel diagonally up-right
+				for(int k=j;k<prevEnd && runX0[k] <= e;k++){
+					uf.union(i, k);
+				}
+			}
+		}
+
+		int[] compOfRun = new int[runCount];
+		int[] compOfRoot = new int[runCount];
+		Arrays.fill(compOfRoot, -1);
+		componentCount=0;
+		int[] sizes = new int[runCount+1];
+		for(int r=0;r<runCount;r++){
+			int root = uf.getComponent(r);
+			int c = compOfRoot[root];
+			if(c<0){
+				c = compOfRoot[root] = componentCount++;
+			}
+			compOfRun[r]=c;
+			sizes[c+1]++;
+		}
+
+		componentStart = new int[componentCount+1];
+		for(int c=0;c<componentCount;c++){
+			componentStart[c+1] = componentStart[c] + sizes[c+1];
+		}
+		int[] next = Arrays.copyOf(componentStart, componentCount);
+		runOrder = new int[runCount];
+		for(int r=0;r<runCount;r++){
+			runOrder[next[compOfRun[r]]++]=r;
+		}
+	}
+
+	private void findRuns(byte[] data, int offset, int width, int y){
+		int x=0;
+		while(x<width){
+			x = nextBit(data, offset, x, width, true);
+			if(x>=width)break;
+			int end = nextBit(data, offset, x, width, false);
+			addRun(y, x, end);
+			x = end;
+		}
+	}
+
+	/**
+	 * Find the first pixel at or after x which is on (or off),
+	 * skipping whole bytes at a time where possible.
+	 * @return the pixel, or width if there isn't one.
+	 */
+	private static int nextBit(byte[] data, int offset, int x, int width, boolean on){
+		while(x<width){
+			int bx = x>>>3;
+			int b = data[offset + bx] & 0xFF;
+			if(!on){
+				b = ~b & 0xFF;
+			}
+			//clear the pixels before x in this byte, MSB is the leftmost pixel
+			b &= 0xFF >>> (x & 7);
+			if(b!=0){
+				int found = (bx<<3) + Integer.numberOfLeadingZeros(b) - 24;
+				return Math.min(found, width);
+			}
+			x = (bx+1)<<3;
+		}
+		return width;
+	}
+
+	private void addRun(int y, int x0, int x1){
+		if(runCount==runY.length){
+			int n = runCount*2;
+			runY = Arrays.copyOf(runY, n);
+			runX0 = Arrays.copyOf(runX0, n);
+			runX1 = Arrays.copyOf(runX1, n);
+		}
+		runY[runCount]=y;
+		runX0[runCount]=x0;
+		runX1[runCount]=x1;
+		runCount++;
+	}
+
+	int getComponentCount(){
+		return componentCount;
+	}
+
+	int getPixelCount(int component){
+		int n=0;
+		for(int i=componentStart[component];i<componentStart[component+1];i++){
+			int r = runOrder[i];
+			n+= runX1[r]-runX0[r];
+		}
+		return n;
+	}
+
+	/**
+	 * Call the consumer for each of the pixels of the component,
+	 * row by row.
+	 */
+	void forEachPixel(int component, PixelConsumer consumer){
+		for(int i=componentStart[component];i<componentStart[component+1];i++){
+			int r = runOrder[i];
+			int y = runY[r];
+			for(int x=runX0[r];x<runX1[r];x++){
+				consumer.accept(x, y);
+			}
+		}
+	}
+
+	/**
+	 * The bounding rectangle of the component as x, y, width, height.
+	 */
+	int[] getBounds(int component){
+		int first = runOrder[componentStart[component]];
+		int last = runOrder[componentStart[component+1]-1];
+		int x0=Integer.MAX_VALUE;
+		int x1=Integer.MIN_VALUE;
+		for(int i=componentStart[component];i<componentStart[component+1];i++){
+			int r = runOrder[i];
+			x0 = Math.min(x0, runX0[r]);
+			x1 = Math.max(x1, runX1[r]);
+		}
+		int y0 = runY[first];
+		int y1 = runY[last]+1;
+		return new int[]{x0, y0, x1-x0, y1-y0};
+	}
+}
@@ -10,6 +10,24 @@ public class ImageStats {
 	public int[] histogramRaw;
 	public double count;
 
+	/**
+	 * Make a copy of these stats.  The histograms are shared, since
+	 * binarizations only ever change the threshold.
+	 * @return a new ImageStats with the same values.
+	 */
+	public ImageStats copy(){
+		ImageStats copy = new ImageStats();
+		copy.min=min;
+		copy.max=max;
+		copy.stdev=stdev;
+		copy.mean=mean;
+		copy.threshold=threshold;
+		copy.histogram=histogram;
+		copy.histogramRaw=histogramRaw;
+		copy.count=count;
+		return copy;
+	}
+
 	public double getPercentageThreshold(){
 		return 100*(threshold-min)/(max-min);
 	}
@@ -8,6 +8,7 @@ import java.awt.Stroke;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.*;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
@@ -785,11 +786,26 @@ public class ConnectionTable{
 		return this.edges.get(this.edges.size()-1);
 	}
 	
+	/**
+	 * Whether the point is close enough to the bounds of the shape that it
+	 * could be within tol of the shape (or inside it). This is much cheaper
+	 * than the distance to the shape, and rules out most nodes.
+	 */
+	private static boolean mayBeWithin(ShapeWrapper s, Point2D p, double tol){
+		if(!Double.isFinite(tol))return true;
+		Rectangle2D r = s.getBounds();
+		double dx = Math.max(0, Math.max(r.getMinX()-p.getX(), p.getX()-r.getMaxX()));
+		double dy = Math.max(0, Math.max(r.getMinY()-p.getY(), p.getY()-r.getMaxY()));
+		double lim = Math.max(tol, 0)*(1+1e-9)+1e-9;
+		return !(dx*dx+dy*dy>lim*lim);
+	}
+	
 	public List<Node> getNodesInsideShape(ShapeWrapper s, double tol){
 		List<Node> mnodes= new ArrayList<>();
 		
 		for(int i=nodes.size()-1;i>=0;i--){
 			Point2D pn = nodes.get(i).point;
+			if(!mayBeWithin(s,pn,tol))continue;
 			if(s.distanceTo(pn)<tol || s.contains(pn)){
 				mnodes.add(nodes.get(i));
 			}
@@ -946,6 +962,7 @@ public class ConnectionTable{
 		List<Integer> toMerge = new ArrayList<Integer>();
 		for(int i=nodes.size()-1;i>=0;i--){
 			Point2D pn = nodes.get(i).point;
+			if(!mayBeWithin(s,pn,tol))continue;
 			if(s.distanceTo(pn)<=tol){
 				toMerge.add(i);
 			}
@@ -962,6 +979,7 @@ public class ConnectionTable{
 		List<Node> toMerge = new ArrayList<Node>();
 		for(int i=nodes.size()-1;i>=0;i--){
 			Point2D pn = nodes.get(i).point;
+			if(!mayBeWithin(s,pn,tol))continue;
 			if(s.distanceTo(pn)<tol){
 				toMerge.add(nodes.get(i));
 			}
@@ -1172,11 +1190,25 @@ public class ConnectionTable{
 		boolean splitOne =true;
 		while(splitOne){
 			splitOne=false;
+			
+			//the crossing point is within tol of both edges, so the edges
+			//are within 2*tol of each other, only those need to be looked at
+			List<int[]> close = GeomUtil.findIntersectingSegments(edges.stream()
+																	   .map(e->e.getLine())
+																	   .collect(Collectors.toList()), 2*tol);
+			List<List<Integer>> closeTo = IntStream.range(0, edges.size())
+												   .mapToObj(i->new ArrayList<Integer>())
+												   .collect(Collectors.toList());
+			for(int[] pair : close){
+				closeTo.get(pair[0]).add(pair[1]);
+				closeTo.get(pair[1]).add(pair[0]);
+			}
+			closeTo.forEach(l->Collections.sort(l));
 		
 			for(int i=0;i<edges.size();i++){
 				Edge e1=edges.get(i);
 				Set<Integer> i1set=e1.getNodeSet();
-				for(int j=0;j<edges.size();j++){
+				for(int j : closeTo.get(i)){
 					Edge e2=edges.get(j);
 					//can't share a neighbor
 					if(i1set.contains(e2.n1) || i1set.contains(e2.n2)){
@@ -1695,14 +1727,18 @@ public class ConnectionTable{
 			nmap.computeIfAbsent(e.n1,k->new HashSet<>()).add(e.n2);
 			nmap.computeIfAbsent(e.n2,k->new HashSet<>()).add(e.n1);
 		});
+		//only the nodes close enough to each other need to be looked at
+		SpatialIndex<Node> nodeIndex = SpatialIndex.ofPoints(nodes, n->n.point);
+		SpatialIndex<ShapeWrapper> ocrIndex = SpatialIndex.ofShapes(OCRSet);
 		for(int i =0 ;i<this.nodes.size();i++){
 			Node n1=nodes.get(i);
-			for(int j =i+1 ;j<this.nodes.size();j++){
+			for(int j : nodeIndex.indexesNear(n1.point, avg*d)){
+				if(j<=i)continue;
 				if(!nmap.getOrDefault(i,nullSet).contains(j)){
 					Node n2=nodes.get(j);
 					if(n1.distanceTo(n2)<avg*d){
-						Tuple<ShapeWrapper,Double> t1=GeomUtil.findClosestShapeWTo(OCRSet, n1.point).orElse(null);
-						Tuple<ShapeWrapper,Double> t2=GeomUtil.findClosestShapeWTo(OCRSet, n2.point).orElse(null);
+						Tuple<ShapeWrapper,Double> t1=GeomUtil.findClosestShapeWTo(ocrIndex, n1.point).orElse(null);
+						Tuple<ShapeWrapper,Double> t2=GeomUtil.findClosestShapeWTo(ocrIndex, n2.point).orElse(null);
 						
 						Point2D pt1=n1.point;
 						Point2D pt2=n2.point;
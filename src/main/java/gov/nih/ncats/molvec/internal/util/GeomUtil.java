@@ -14,11 +14,11 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -40,6 +40,7 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import gov.nih.ncats.molvec.internal.algo.Tuple;
+import gov.nih.ncats.molvec.internal.algo.UnionFind;
 
 
 public class GeomUtil {
@@ -953,10 +954,84 @@ public class GeomUtil {
         return vertices.toArray (new Point2D[0]);
     }
     
+    /**
+     * The same vertices as {@link #vertices(Shape)}, packed into one array without
+     * a Point2D for each: the n x values first, then the n y values.
+     */
+    public static double[] packedVertices (Shape shape) {
+    	if(shape ==null){
+    		return new double[0];
+    	}
+    	PathIterator p = shape.getPathIterator (null);
+    	double[] xs = new double[8];
+    	double[] ys = new double[8];
+    	int n=0;
+    	double[] coord = new double[6];
+    	while (!p.isDone ()) {
+    		int type = p.currentSegment (coord);
+    		if (type != PathIterator.SEG_CLOSE) {
+    			if(n==xs.length){
+    				xs=Arrays.copyOf(xs, n*2);
+    				ys=Arrays.copyOf(ys, n*2);
+    			}
+    			xs[n]=coord[0];
+    			ys[n]=coord[1];
+    			n++;
+    		}
+    		p.next ();
+    	}
+    	double[] packed = new double[2*n];
+    	System.arraycopy(xs, 0, packed, 0, n);
+    	System.arraycopy(ys, 0, packed, n, n);
+    	return packed;
+    }
+    
+    /**
+     * Points from an array made by {@link #packedVertices(Shape)}.
+     */
+    public static Point2D[] unpackVertices (double[] packed) {
+    	int n = packed.length/2;
+    	Point2D[] pts = new Point2D[n];
+    	for(int i=0;i<n;i++){
+    		pts[i]=new Point2D.Double(packed[i], packed[n+i]);
+    	}
+    	return pts;
+    }
+    
+    /**
+     * Line segments packed into one array, all the x1 values, then the y1, x2 and y2 values.
+     */
+    public static double[] packedSegments (Line2D[] lines) {
+    	int n = lines.length;
+    	double[] packed = new double[4*n];
+    	for(int i=0;i<n;i++){
+    		packed[i]=lines[i].getX1();
+    		packed[n+i]=lines[i].getY1();
+    		packed[2*n+i]=lines[i].getX2();
+    		packed[3*n+i]=lines[i].getY2();
+    	}
+    	return packed;
+    }
+    
+    /**
+     * The smallest squared distance from the point to any of the packed segments,
+     * see {@link #packedSegments(Line2D[])}. Infinite if there are none.
+     */
+    public static double minPtSegDistSq (double[] segs, double px, double py) {
+    	int n = segs.length/4;
+    	double min = Double.POSITIVE_INFINITY;
+    	for(int i=0;i<n;i++){
+    		min = Math.min(min, Line2D.ptSegDistSq(segs[i], segs[n+i], segs[2*n+i], segs[3*n+i], px, py));
+    	}
+    	return min;
+    }
+    
     public static class ShapeWrapper{
     	private Shape s;
     	private Rectangle2D r;
     	private Line2D[] lines;
+    	private double[] packedLines;
+    	private double[] packedVerts;
     	private Point2D[] verts;
     	private Double signedArea = null;
     	
@@ -968,6 +1043,8 @@ public class GeomUtil {
     	
     	private LineWrapper longestSplittingLine = null;
     	
+    	private Boolean convex = null;
+    	
     	public ShapeWrapper(Shape s){
     		this.s=s;
     	}
@@ -981,19 +1058,20 @@ public class GeomUtil {
     		if(longestSplittingLine==null){
 	        	if(s instanceof Line2D)return LineWrapper.of((Line2D)s);
 	        	
-	        	Point2D[] verts = this.getVerts();
-	        	if(verts.length==2){
-	        		longestSplittingLine =  LineWrapper.of(new Line2D.Double(verts[0], verts[1]));
+	        	double[] packed = this.getPackedVerts();
+	        	int n = packed.length/2;
+	        	if(n==2){
+	        		longestSplittingLine =  LineWrapper.of(new Line2D.Double(packed[0], packed[2], packed[1], packed[3]));
 	        		return longestSplittingLine;
 	        	}
 	        	
 	        	Point2D center = centerOfMass();
 	        	
-	        	double[] xs = new double[verts.length];
-	        	double[] ys = new double[verts.length];
-	        	for(int i=0;i<verts.length;i++){
-	        		xs[i]=verts[i].getX()-center.getX();
-	        		ys[i]=verts[i].getY()-center.getY();
+	        	double[] xs = new double[n];
+	        	double[] ys = new double[n];
+	        	for(int i=0;i<n;i++){
+	        		xs[i]=packed[i]-center.getX();
+	        		ys[i]=packed[n+i]-center.getY();
 	        	}
 	        	
 	        	double[] stats=getSecondMomentXYandCross(xs,ys);
@@ -1034,14 +1112,11 @@ public class GeomUtil {
     	    	return 0;
     	    }
     		
-    	    return Math.sqrt(Arrays.stream(getLines())
-    	    	      .mapToDouble(l->l.ptSegDistSq(pt))
-    	    	      .min()
-    	    	      .getAsDouble());    	    
+    	    return Math.sqrt(minPtSegDistSq(getPackedLines(), pt.getX(), pt.getY()));
     	}
     	
     	public Point2D[] closestPointsTo(ShapeWrapper sw){
-    		return GeomUtil.closestPoints(getLines(), sw.getLines());
+    		return GeomUtil.closestPoints(getLines(), getPackedLines(), sw.getLines(), sw.getPackedLines());
     	}
     	
     	public Point2D[] getPairOfFarthestPoints(){
@@ -1073,8 +1148,8 @@ public class GeomUtil {
     	private void cacheAll(){
     		this.r=s.getBounds2D();
     		this.lines = GeomUtil.lines(s);
-    		this.verts=vertices(s);
-    		this.signedArea = areaVerticesCW(verts);    		
+    		this.packedVerts=packedVertices(s);
+    		this.signedArea = areaVerticesCW(packedVerts);    		
     	}
     	
     	
@@ -1134,6 +1209,14 @@ public class GeomUtil {
     		return lines;
     	}
     	
+    	/**
+    	 * The lines of the shape, packed, see {@link GeomUtil#packedSegments(Line2D[])}.
+    	 */
+    	public double[] getPackedLines(){
+    		if(packedLines==null)packedLines = packedSegments(getLines());
+    		return packedLines;
+    	}
+    	
     	public List<Point2D> getAllIntersections(Line2D l1){
     		   	List<Point2D> plist= Arrays.stream(getLines())
     								    	      .map(l->segmentIntersection(l,l1))
@@ -1148,10 +1231,18 @@ public class GeomUtil {
     	}
     	
     	public Point2D[] getVerts(){
-    		if(verts==null)verts = GeomUtil.vertices(s);
+    		if(verts==null)verts = unpackVertices(getPackedVerts());
     		return verts;
     	}
     	
+    	/**
+    	 * The vertices of the shape, packed, see {@link GeomUtil#packedVertices(Shape)}.
+    	 */
+    	public double[] getPackedVerts(){
+    		if(packedVerts==null)packedVerts = GeomUtil.packedVertices(s);
+    		return packedVerts;
+    	}
+    	
     	public double getWidth(){
     		return getBounds().getWidth();
     	}
@@ -1164,8 +1255,17 @@ public class GeomUtil {
     		return r;
     	}
     	
+    	/**
+    	 * Whether the shape is a single convex polygon, which {@link GeomUtil#clipToConvex(double[], double[])}
+    	 * can clip other shapes to.
+    	 */
+    	public boolean isConvex(){
+    		if(convex==null)convex=isConvexPolygon(s, getPackedVerts());
+    		return convex;
+    	}
+    	
     	public double getSignedArea(){
-    		if(signedArea==null)signedArea=areaVerticesCW(getVerts());
+    		if(signedArea==null)signedArea=areaVerticesCW(getPackedVerts());
     		return signedArea;
     	}
     	
@@ -1195,7 +1295,8 @@ public class GeomUtil {
 	     */
 		public Point2D centerOfMass(){
 
-	    	Point2D[] vts = this.getVerts();
+	    	double[] vts = this.getPackedVerts();
+	    	int n = vts.length/2;
 	    	
 	    	double sarea = this.getSignedArea();
 	    	
@@ -1207,13 +1308,12 @@ public class GeomUtil {
 	    	double sumY=0;
 	    	double rArea = 1/(6*sarea);
 	    	
-	    	for(int i=0;i<vts.length;i++){
-	    		Point2D p1=vts[i];
-				Point2D p2=vts[(i+1+vts.length)%vts.length];
+	    	for(int i=0;i<n;i++){
+	    		int j=(i+1+n)%n;
 				
-	    		double w=(p1.getX()*p2.getY()-p2.getX()*p1.getY());
-	    		sumX+= (p1.getX()+p2.getX())*w;
-	    		sumY+= (p1.getY()+p2.getY())*w;    		
+	    		double w=(vts[i]*vts[n+j]-vts[j]*vts[n+i]);
+	    		sumX+= (vts[i]+vts[j])*w;
+	    		sumY+= (vts[n+i]+vts[n+j])*w;    		
 	    	}
 	    	
 	    	return new Point2D.Double(sumX*rArea, sumY*rArea);
@@ -1350,28 +1450,168 @@ public class GeomUtil {
          return Optional.empty();
     }
     
+    /**
+     * The shortest distance between two line segments, 0 if they cross or touch.
+     */
+    public static double segmentDistance(Line2D l1, Line2D l2){
+    	//Line2D thinks 2 points always intersect, if it's a point the
+    	//distances to the ends are enough anyway
+    	boolean point = l1.getP1().equals(l1.getP2()) || l2.getP1().equals(l2.getP2());
+    	if(!point && l1.intersectsLine(l2)){
+    		return 0;
+    	}
+    	return Math.sqrt(Math.min(Math.min(l1.ptSegDistSq(l2.getP1()), l1.ptSegDistSq(l2.getP2())),
+    							  Math.min(l2.ptSegDistSq(l1.getP1()), l2.ptSegDistSq(l1.getP2()))));
+    }
+    
+    /**
+     * All pairs of line segments that cross, or come within tol of each other. This is a sweep
+     * along x, where the segments the sweep line is on are kept in buckets by y, so each segment
+     * is only compared to the ones whose bounds are near its own. That's O(n log n) plus the
+     * number of pairs that are close, instead of testing every pair.
+     * 
+     * <p>
+     * Distances are compared with a little slack, so a pair that is only a rounding error further
+     * apart than tol can be found too, but no pair within tol is ever missed.
+     * </p>
+     * 
+     * @param lines the segments.
+     * @param tol how close two segments must be to count, 0 if they have to cross or touch. 
+     * @return the pairs of indexes into lines, with the smaller index first, sorted by the 
+     * first and then the second index.
+     */
+    public static List<int[]> findIntersectingSegments(List<Line2D> lines, double tol){
+    	int n = lines.size();
+    	List<int[]> pairs = new ArrayList<>();
+    	if(n<2){
+    		return pairs;
+    	}
+    	if(!(tol>=0)){
+    		tol=0;
+    	}
+    	double lim = tol*(1+1e-9)+1e-9;
+    	
+    	double[] minX = new double[n];
+    	double[] minY = new double[n];
+    	double[] maxX = new double[n];
+    	double[] maxY = new double[n];
+    	double y0 = Double.POSITIVE_INFINITY;
+    	double y1 = Double.NEGATIVE_INFINITY;
+    	double height = 0;
+    	for(int i=0;i<n;i++){
+    		Line2D l = lines.get(i);
+    		minX[i] = Math.min(l.getX1(), l.getX2());
+    		maxX[i] = Math.max(l.getX1(), l.getX2());
+    		minY[i] = Math.min(l.getY1(), l.getY2());
+    		maxY[i] = Math.max(l.getY1(), l.getY2());
+    		y0 = Math.min(y0, minY[i]);
+    		y1 = Math.max(y1, maxY[i]);
+    		height += maxY[i]-minY[i];
+    	}
+    	
+    	//each segment covers [minY, maxY+lim] in y, two segments are close enough in y 
+    	//only if those overlap, so only if they share a bucket
+    	double bh = height/n + lim;
+    	int buckets = 1;
+    	if(bh>0 && Double.isFinite(y1-y0) && Double.isFinite(bh)){
+    		buckets = (int)Math.max(1, Math.min(2*n+1, (y1+lim-y0)/bh + 1));
+    	}
+    	bh = (buckets==1)?1:(y1+lim-y0)/(buckets-1);
+    	int[][] bucket = new int[buckets][];
+    	int[] bucketSize = new int[buckets];
+    	
+    	Integer[] order = IntStream.range(0, n).boxed().toArray(i->new Integer[i]);
+    	Arrays.sort(order, (a,b)->Double.compare(minX[a], minX[b]));
+    	
+    	int[] seen = new int[n];
+    	for(int k=0;k<n;k++){
+    		int b = order[k];
+    		Line2D lb = lines.get(b);
+    		int b0 = bucketOf(minY[b], y0, bh, buckets);
+    		int b1 = bucketOf(maxY[b]+lim, y0, bh, buckets);
+    		for(int c=b0;c<=b1;c++){
+    			int[] list = bucket[c];
+    			int kept=0;
+    			for(int m=0;m<bucketSize[c];m++){
+    				int a = list[m];
+    				//the sweep line has passed it, it can't be near anything else
+    				if(maxX[a]+lim<minX[b]){
+    					continue;
+    				}
+    				list[kept++]=a;
+    				if(seen[a]==b+1){
+    					continue;
+    				}
+    				seen[a]=b+1;
+    				double dx = Math.max(0, Math.max(minX[a]-maxX[b], minX[b]-maxX[a]));
+    				double dy = Math.max(0, Math.max(minY[a]-maxY[b], minY[b]-maxY[a]));
+    				if(dx*dx+dy*dy>lim*lim){
+    					continue;
+    				}
+    				if(segmentDistance(lines.get(a), lb)<=lim){
+    					pairs.add(new int[]{Math.min(a, b), Math.max(a, b)});
+    				}
+    			}
+    			bucketSize[c]=kept;
+    		}
+    		for(int c=b0;c<=b1;c++){
+    			if(bucket[c]==null){
+    				bucket[c]=new int[4];
+    			}else if(bucketSize[c]==bucket[c].length){
+    				bucket[c]=Arrays.copyOf(bucket[c], bucketSize[c]*2);
+    			}
+    			bucket[c][bucketSize[c]++]=b;
+    		}
+    	}
+    	pairs.sort((p1,p2)->(p1[0]!=p2[0])?Integer.compare(p1[0], p2[0]):Integer.compare(p1[1], p2[1]));
+    	return pairs;
+    }
+    
+    private static int bucketOf(double y, double y0, double bh, int buckets){
+    	if(!(y>y0)){
+    		return 0;
+    	}
+    	return (int)Math.min(buckets-1, (y-y0)/bh);
+    }
+    
     /**
      * return the intersection point (if any) between two lines
      */
     public static Point2D intersection (Line2D l1, Line2D l2) {
-        Point2D p1 = l1.getP1 (), p2 = l1.getP2 ();
-        Point2D p3 = l2.getP1 (), p4 = l2.getP2 ();
-
-        double c = (p1.getX () - p2.getX ()) * (p3.getY () - p4.getY ())
-            - (p1.getY () - p2.getY ()) * (p3.getX () - p4.getX ());
+        double[] pt = new double[2];
+        if(!intersection (l1.getX1 (), l1.getY1 (), l1.getX2 (), l1.getY2 (),
+        				  l2.getX1 (), l2.getY1 (), l2.getX2 (), l2.getY2 (), pt)){
+        	return null;
+        }
+        return new Point2D.Double (pt[0], pt[1]);
+    }
+    
+    /**
+     * The intersection point of the line through (x1,y1),(x2,y2) and the line
+     * through (x3,y3),(x4,y4), without making any objects.
+     * 
+     * @param out where the x and y of the point go.
+     * @return false if the lines are (nearly) parallel, and there's no point.
+     */
+    public static boolean intersection (double x1, double y1, double x2, double y2,
+    									double x3, double y3, double x4, double y4, double[] out) {
+        double c = (x1 - x2) * (y3 - y4)
+            - (y1 - y2) * (x3 - x4);
 
         if (Math.abs (c) < ZERO_DISTANCE_TOLERANCE)
-            return null;
+            return false;
 
 
-        double x = (p1.getX () * p2.getY () - p1.getY () * p2.getX ())
-            * (p3.getX () - p4.getX ()) - (p1.getX () - p2.getX ())
-            * (p3.getX () * p4.getY () - p3.getY () * p4.getX ());
-        double y = (p1.getX () * p2.getY () - p1.getY () * p2.getX ())
-            * (p3.getY () - p4.getY ()) - (p1.getY () - p2.getY ())
-            * (p3.getX () * p4.getY () - p3.getY () * p4.getX ());
+        double x = (x1 * y2 - y1 * x2)
+            * (x3 - x4) - (x1 - x2)
+            * (x3 * y4 - y3 * x4);
+        double y = (x1 * y2 - y1 * x2)
+            * (y3 - y4) - (y1 - y2)
+            * (x3 * y4 - y3 * x4);
 
-        return new Point2D.Double (x / c, y / c);
+        out[0]=x / c;
+        out[1]=y / c;
+        return true;
     }
     public static List<List<Point2D>> groupPointsCloserThan(List<Point2D> points,double maxDistance){
     	int[] groups = IntStream.range(0, points.size())
@@ -1419,49 +1659,92 @@ public class GeomUtil {
     	});
     }
     
+    /**
+     * Same as {@link #groupShapesIfClosestPointsMatchCriteriaSW(Collection, Predicate)}, for criteria
+     * that are never met when the closest points are more than maxDistance apart,
+     * see {@link #groupThings(Collection, Function, double, Predicate)}.
+     */
+    public static List<List<ShapeWrapper>> groupShapesIfClosestPointsMatchCriteriaSW(Collection<ShapeWrapper> shapes, double maxDistance, Predicate<Tuple<ShapeWrapper[],Point2D[]>> merge){
+    	return groupThings(shapes, ShapeWrapper::getBounds, maxDistance, (t)->{
+    		Point2D[] far=t.k().closestPointsTo(t.v());
+    		ShapeWrapper[] s= new ShapeWrapper[]{t.k(),t.v()};
+    		return merge.test(Tuple.of(s,far));	
+    	});
+    }
+    
     public static List<List<Shape>> groupShapes(Collection<Shape> points, Predicate<Tuple<Shape,Shape>> merge){
     	return groupThings(points,merge);
     }
     
     public static <T> List<List<T>> groupThings(Collection<T> things, Predicate<Tuple<T,T>> merge){
-    	int[] groups = IntStream.range(0, things.size())
-    							.toArray();
-    	BitSet bs = new BitSet(things.size());
-    	
     	List<T> asList = (things instanceof List)?(List<T>)things:things.stream().collect(Collectors.toList());
+    	UnionFind groups = new UnionFind(asList.size());
     	
-    	for(int i=0;i<things.size();i++){
+    	for(int i=0;i<asList.size();i++){
     		T p1=asList.get(i);
-    		for(int j=i+1;j<things.size();j++){
+    		for(int j=i+1;j<asList.size();j++){
     			T p2=asList.get(j);
     			if(merge.test(Tuple.of(p1,p2))){
-    				int g1= groups[i];
-    				int g2= groups[j];
-    				int ng=Math.min(g1, g2);
-    				int rg=Math.max(g1, g2);
-    				groups[i]=ng;
-    				groups[j]=ng;
-    				bs.set(ng);
-    				if(bs.get(rg)){
-    					for(int k=0;k<groups.length;k++){
-    						if(groups[k]==rg){
-    							groups[k]=ng;
-    						}
-    					}
-    				}
+    				groups.union(i, j);
     			}
     		}
     	}
     	
+    	return groupsOf(asList, groups);
+    }
+    
+    /**
+     * Same as {@link #groupThings(Collection, Predicate)}, for predicates that can only
+     * be true for things whose bounds are at most maxDistance apart. Only those pairs
+     * are found, with a {@link SpatialIndex} over the bounds, and pairs that are already in the same group
+     * aren't tested again. So the predicate must not have side effects.
+     * 
+     * @param things the things to group.
+     * @param bounds the bounds of a thing.
+     * @param maxDistance the furthest apart the bounds of two things can be for the predicate
+     * to be true, 0 if the bounds have to touch.
+     * @param merge whether two things go in the same group, it's given the earlier thing first.
+     * @return the groups, in the same order as {@link #groupThings(Collection, Predicate)} would give.
+     */
+    public static <T> List<List<T>> groupThings(Collection<T> things, Function<T,Rectangle2D> bounds, double maxDistance, Predicate<Tuple<T,T>> merge){
+    	if(!(maxDistance>=0) || Double.isInfinite(maxDistance)){
+    		//nothing can be ruled out
+    		return groupThings(things, merge);
+    	}
+    	List<T> asList = (things instanceof List)?(List<T>)things:things.stream().collect(Collectors.toList());
+    	int n = asList.size();
+    	UnionFind groups = new UnionFind(n);
+    	if(n<2){
+    		return groupsOf(asList, groups);
+    	}
     	
-    	return IntStream.range(0, things.size())
-    	         .mapToObj(i->Tuple.of(groups[i],i))
-    	         .map(Tuple.vmap(i->asList.get(i)))
-    	         .collect(Tuple.toLinkedGroupedMap())
-    	         .values()
-    	         .stream()
-    	         .collect(Collectors.toList());
+    	//things are only tested against the ones near enough in the index
+    	SpatialIndex<T> index = SpatialIndex.of(asList, bounds);
+    	for(int i=0;i<n;i++){
+    		T p1=asList.get(i);
+    		for(int j : index.indexesNear(bounds.apply(p1), maxDistance)){
+    			if(j<=i || groups.find(i, j)){
+    				continue;
+    			}
+    			if(merge.test(Tuple.of(p1,asList.get(j)))){
+    				groups.union(i, j);
+    			}
+    		}
+    	}
     	
+    	return groupsOf(asList, groups);
+    }
+    
+    /**
+     * The groups in order of their first thing, and each in the
+     * order of the list.
+     */
+    private static <T> List<List<T>> groupsOf(List<T> things, UnionFind groups){
+    	Map<Integer,List<T>> byRoot = new LinkedHashMap<>();
+    	for(int i=0;i<things.size();i++){
+    		byRoot.computeIfAbsent(groups.getComponent(i), k->new ArrayList<>()).add(things.get(i));
+    	}
+    	return new ArrayList<>(byRoot.values());
     }
     
     public static class LineDistanceCalculator{
@@ -1566,12 +1849,18 @@ public class GeomUtil {
     
     public static boolean intersects (ShapeWrapper s1, ShapeWrapper s2) {
         if(!s1.getBounds().intersects(s2.getBounds()))return false;
-    	Line2D[] lines1 = s1.getLines();
-        Line2D[] lines2 = s2.getLines();
-        for (Line2D l1 : lines1) {
-            for (Line2D l2 : lines2) {
-                Point2D pt = intersection (l1, l2);
-                if (pt != null && intersects (l1, pt) && intersects (l2, pt)) {
+    	double[] segs1 = s1.getPackedLines();
+    	double[] segs2 = s2.getPackedLines();
+    	int n1 = segs1.length/4;
+    	int n2 = segs2.length/4;
+    	double[] pt = new double[2];
+        for (int i=0;i<n1;i++) {
+        	double ax1=segs1[i], ay1=segs1[n1+i], ax2=segs1[2*n1+i], ay2=segs1[3*n1+i];
+            for (int j=0;j<n2;j++) {
+            	double bx1=segs2[j], by1=segs2[n2+j], bx2=segs2[2*n2+j], by2=segs2[3*n2+j];
+                if (intersection (ax1, ay1, ax2, ay2, bx1, by1, bx2, by2, pt) 
+                		&& Line2D.ptSegDist(ax1, ay1, ax2, ay2, pt[0], pt[1]) < ZERO_DISTANCE_TOLERANCE
+                		&& Line2D.ptSegDist(bx1, by1, bx2, by2, pt[0], pt[1]) < ZERO_DISTANCE_TOLERANCE) {
                     return true;
                 }
             }
@@ -1656,12 +1945,38 @@ public class GeomUtil {
     }
     
     public static Point2D[] closestPoints (Line2D[] l1s, Line2D[] l2s) {
+        return closestPoints(l1s, packedSegments(l1s), l2s, packedSegments(l2s));
+    }
+    
+    /**
+     * Same as {@link #closestPoints(Line2D[], Line2D[])}, with the lines also packed as in
+     * {@link #packedSegments(Line2D[])}. Pairs of lines whose bounds are already further apart than
+     * the closest points found so far are skipped, without working out their closest points.
+     */
+    public static Point2D[] closestPoints (Line2D[] l1s, double[] segs1, Line2D[] l2s, double[] segs2) {
         
         Point2D[] closest = null;
         double dist = Double.MAX_VALUE;
+        int n1 = l1s.length;
+        int n2 = l2s.length;
+        //the closest points can be up to the tolerance for an intersection away
+        //from the lines, and a bit more for rounding
+        double slack = 2*ZERO_DISTANCE_TOLERANCE + 1e-6;
       
-        for(Line2D l1: l1s){
-        	for(Line2D l2: l2s){
+        for(int i=0;i<n1;i++){
+        	Line2D l1 = l1s[i];
+        	double minX1 = Math.min(segs1[i], segs1[2*n1+i]);
+        	double maxX1 = Math.max(segs1[i], segs1[2*n1+i]);
+        	double minY1 = Math.min(segs1[n1+i], segs1[3*n1+i]);
+        	double maxY1 = Math.max(segs1[n1+i], segs1[3*n1+i]);
+        	for(int j=0;j<n2;j++){
+        		double dx = Math.max(0, Math.max(Math.min(segs2[j], segs2[2*n2+j])-maxX1, minX1-Math.max(segs2[j], segs2[2*n2+j])));
+        		double dy = Math.max(0, Math.max(Math.min(segs2[n2+j], segs2[3*n2+j])-maxY1, minY1-Math.max(segs2[n2+j], segs2[3*n2+j])));
+        		double gap = Math.sqrt(dx*dx+dy*dy);
+        		if(gap>slack && gap-slack>Math.sqrt(dist)){
+        			continue;
+        		}
+        		Line2D l2 = l2s[j];
         		Point2D[] p=closestPointsOnLines(l1,l2);
         		double d=p[0].distanceSq(p[1]);
         		if(d<dist){
@@ -1746,6 +2061,24 @@ public class GeomUtil {
     	      .min(CompareUtil.naturalOrder());
     }
     
+    /**
+     * Same as {@link #findClosestShapeWTo(Collection, Point2D)}, but only looks at the shapes
+     * of the index that could be the closest.
+     */
+    public static Optional<Tuple<ShapeWrapper,Double>> findClosestShapeWTo(SpatialIndex<ShapeWrapper> shapes, Point2D pt){
+    	return shapes.nearest(pt, ShapeWrapper::distanceTo);
+    }
+    
+    /**
+     * Same as {@link #findClosestPoint(List, Point2D)}, but only looks at the points
+     * of the index that could be the closest.
+     */
+    public static Point2D findClosestPoint(SpatialIndex<Point2D> points, Point2D avgPt){
+    	return points.nearest(avgPt, Point2D::distance)
+    			     .map(t->t.k())
+    			     .orElse(null);
+    }
+    
     public static Shape growLine(Line2D l, double width){
     	double[] v= normalize(asVector(l));
     	double wc=width/2;
@@ -1999,6 +2332,8 @@ public class GeomUtil {
 
 	public static class LineWrapper implements Comparable<LineWrapper>{
 		private Line2D line;
+		//x1, x2, y1, y2, as in packedVertices
+		private double[] packed;
 		private double[] vec = null;
 		private double len = 0;
 		private double rlen = 0;
@@ -2036,16 +2371,27 @@ public class GeomUtil {
 			return GeomUtil.growLine(this.line,d);
 		}
 		
+		/**
+		 * The two end points of the line, packed, see {@link GeomUtil#packedVertices(Shape)}.
+		 */
+		public double[] getPackedVerts(){
+			if(packed==null){
+				packed = new double[]{line.getX1(), line.getX2(), line.getY1(), line.getY2()};
+			}
+			return packed;
+		}
+		
 		public LineWrapper process(){
 			if(process){
 			    return this;
             }
-			vec=asVector(line);
-			len=l2Norm(vec);
+			double[] p = getPackedVerts();
+			vec=new double[]{p[1]-p[0], p[3]-p[2]};
+			len=Math.sqrt(vec[0]*vec[0]+vec[1]*vec[1]);
 			center=GeomUtil.findCenterOfShape(line);
 			rlen=1/len;
-			cvec = asVector(findCenterOfShape(line));
-			offset= negate(asVector(line.getP1()));
+			cvec = new double[]{center.getX(), center.getY()};
+			offset= new double[]{-p[0], -p[2]};
 			process=true;
 			return this;
 		}
@@ -2064,21 +2410,28 @@ public class GeomUtil {
 			double[] l1center=this.centerVector();
 			double[] offset = this.offset();
 			double[] l2center=lw2.centerVector();
-			double[] sVec=addVectors(l1center,offset);
-			double[] rVec=addVectors(l2center,offset);
-			return rejection(sVec,rVec);
+			double sx=l1center[0]+offset[0];
+			double sy=l1center[1]+offset[1];
+			double rx=l2center[0]+offset[0];
+			double ry=l2center[1]+offset[1];
+			//same as rejection(sVec,rVec)
+			return (sx*ry-sy*rx)/Math.sqrt(sx*sx+sy*sy);
 		}
 		
 		public double projectionOffset(Point2D p){
-			double[] pvec = asVector(p);
-			double[] nvec = addVectors(pvec,this.offset());
-			return dot(vector(),nvec)*this.recipLength();
+			double[] v = vector();
+			double[] off = offset();
+			double nx = p.getX()+off[0];
+			double ny = p.getY()+off[1];
+			return (v[0]*nx+v[1]*ny)*this.recipLength();
 		}
 		
 		public double rejectionOffset(Point2D p){
-			double[] pvec = asVector(p);
-			double[] nvec = addVectors(pvec,this.offset());
-			return orthoDot(vector(),nvec)*this.recipLength();
+			double[] v = vector();
+			double[] off = offset();
+			double nx = p.getX()+off[0];
+			double ny = p.getY()+off[1];
+			return (v[0]*ny-v[1]*nx)*this.recipLength();
 		}
 		
 		public double[] vector(){
@@ -2567,7 +2920,8 @@ public class GeomUtil {
 	}
 	
 	public static List<ShapeWrapper> mergeOverlappingShapesSW(List<ShapeWrapper> shapes, double minOverlapRatio){
-		return GeomUtil.groupThings(shapes, t->{
+		//shapes can only overlap if their bounds touch
+		return GeomUtil.groupThings(shapes, ShapeWrapper::getBounds, 0, t->{
 							double areaIntersect=getIntersectionShape(t.k(), t.v()).map(s->s.getArea()).orElse(0.0);
 							if(areaIntersect>ZERO_DISTANCE_TOLERANCE){
 								double areaCombined=add(t.k(),t.v()).getArea();
@@ -2793,9 +3147,35 @@ public class GeomUtil {
 				.map(s->s.getShape());
 	}
 	
+	/**
+	 * The overlap of two shapes, as the convex hull of the part they share.
+	 * 
+	 * <p>
+	 * If both shapes are convex, one is clipped to the other with {@link #clipToConvex(double[], double[])}.
+	 * Otherwise the hull is made from the vertices of each shape inside the other and the
+	 * points where their lines cross, since clipping a shape with dents can add corners of the
+	 * clip polygon that aren't in it.
+	 * </p>
+	 * 
+	 * @return the overlap, empty if the bounds don't overlap or if the shapes
+	 * share fewer than 3 points.
+	 */
 	public static Optional<ShapeWrapper> getIntersectionShape(ShapeWrapper s1, ShapeWrapper s2){
 		if(!s1.getBounds().intersects(s2.getBounds()))return Optional.empty();
-		   
+		
+		if(s1.isConvex() && s2.isConvex()){
+			return hullOfPacked(clipToConvex(s1.getPackedVerts(), s2.getPackedVerts()));
+		}
+		return getIntersectionShapeFromPoints(s1, s2);
+	}
+	
+	private static Optional<ShapeWrapper> hullOfPacked(double[] packed){
+		if(packed.length<6)return Optional.empty();
+		return Optional.ofNullable(convexHull2(unpackVertices(packed)))
+				.map(s->ShapeWrapper.of(s));
+	}
+	
+	static Optional<ShapeWrapper> getIntersectionShapeFromPoints(ShapeWrapper s1, ShapeWrapper s2){
 		List<Point2D> pointsInside1 = Arrays.stream(s1.getVerts())
 				                            .filter(p->s2.contains(p))
 				                            .collect(Collectors.toList());
@@ -2815,6 +3195,164 @@ public class GeomUtil {
 				.map(s->ShapeWrapper.of(s));
 	}
 	
+	/**
+	 * Clips a polygon to a convex polygon, with the Sutherland-Hodgman algorithm.
+	 * The subject doesn't need to be convex, but then the result can have edges
+	 * running along the clip polygon's edges that join its separate pieces.
+	 * 
+	 * @param subject the vertices of the polygon to clip, packed as in {@link #packedVertices(Shape)}.
+	 * @param clip the vertices of the convex polygon to clip to, packed the same way, 
+	 * in either direction.
+	 * @return the packed vertices of the part of subject inside clip, empty if there's nothing.
+	 */
+	public static double[] clipToConvex(double[] subject, double[] clip){
+		int cn = clip.length/2;
+		
+		//which side of the clip edges is inside
+		double twiceArea=0;
+		for(int i=0;i<cn;i++){
+			int j=(i+1)%cn;
+			twiceArea+=clip[i]*clip[cn+j]-clip[j]*clip[cn+i];
+		}
+		if(twiceArea==0 || Double.isNaN(twiceArea)){
+			return new double[0];
+		}
+		double orient = Math.signum(twiceArea);
+		
+		int n = subject.length/2;
+		double[] xs = Arrays.copyOf(subject, n);
+		double[] ys = Arrays.copyOfRange(subject, n, 2*n);
+		double[] nxs = new double[2*n+cn];
+		double[] nys = new double[2*n+cn];
+		
+		for(int e=0;e<cn && n>0;e++){
+			double ax=clip[e];
+			double ay=clip[cn+e];
+			double ex=clip[(e+1)%cn]-ax;
+			double ey=clip[cn+(e+1)%cn]-ay;
+			if(ex==0 && ey==0){
+				//repeated vertex
+				continue;
+			}
+			if(nxs.length<2*n){
+				nxs = new double[2*n];
+				nys = new double[2*n];
+			}
+			int m=0;
+			double px=xs[n-1];
+			double py=ys[n-1];
+			double pside=orient*(ex*(py-ay)-ey*(px-ax));
+			for(int i=0;i<n;i++){
+				double cx=xs[i];
+				double cy=ys[i];
+				double cside=orient*(ex*(cy-ay)-ey*(cx-ax));
+				if(cside>=0){
+					if(pside<0){
+						double t=pside/(pside-cside);
+						nxs[m]=px+t*(cx-px);
+						nys[m]=py+t*(cy-py);
+						m++;
+					}
+					nxs[m]=cx;
+					nys[m]=cy;
+					m++;
+				}else if(pside>=0){
+					double t=pside/(pside-cside);
+					nxs[m]=px+t*(cx-px);
+					nys[m]=py+t*(cy-py);
+					m++;
+				}
+				px=cx;
+				py=cy;
+				pside=cside;
+			}
+			double[] tx=xs;
+			double[] ty=ys;
+			xs=nxs;
+			ys=nys;
+			nxs=tx;
+			nys=ty;
+			n=m;
+		}
+		double[] packed = new double[2*n];
+		System.arraycopy(xs, 0, packed, 0, n);
+		System.arraycopy(ys, 0, packed, n, n);
+		return packed;
+	}
+	
+	/**
+	 * Whether the shape is one convex polygon: a single closed path of straight lines
+	 * that always turns the same way and only goes back and forth once in x.
+	 */
+	private static boolean isConvexPolygon(Shape s, double[] packed){
+		PathIterator p = s.getPathIterator(null);
+		double[] coord = new double[6];
+		int moves=0;
+		while(!p.isDone()){
+			int type = p.currentSegment(coord);
+			if(type==PathIterator.SEG_MOVETO){
+				moves++;
+			}else if(type==PathIterator.SEG_QUADTO || type==PathIterator.SEG_CUBICTO){
+				return false;
+			}
+			p.next();
+		}
+		if(moves!=1)return false;
+		
+		int n = packed.length/2;
+		//without repeated vertices
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		int m=0;
+		for(int i=0;i<n;i++){
+			double x=packed[i];
+			double y=packed[n+i];
+			if(Double.isNaN(x) || Double.isNaN(y))return false;
+			if(m>0 && xs[m-1]==x && ys[m-1]==y)continue;
+			xs[m]=x;
+			ys[m]=y;
+			m++;
+		}
+		while(m>1 && xs[m-1]==xs[0] && ys[m-1]==ys[0]){
+			m--;
+		}
+		if(m<3)return false;
+		
+		double turn=0;
+		int xFlips=0;
+		double lastDx=0;
+		for(int i=0;i<m;i++){
+			int j=(i+1)%m;
+			int k=(i+2)%m;
+			double dx1=xs[j]-xs[i];
+			double dy1=ys[j]-ys[i];
+			double dx2=xs[k]-xs[j];
+			double dy2=ys[k]-ys[j];
+			double cross=dx1*dy2-dy1*dx2;
+			if(cross!=0){
+				if(turn!=0 && Math.signum(cross)!=Math.signum(turn)){
+					return false;
+				}
+				turn=cross;
+			}
+			if(dx1!=0){
+				if(lastDx!=0 && Math.signum(dx1)!=Math.signum(lastDx)){
+					xFlips++;
+				}
+				lastDx=dx1;
+			}
+		}
+		//the flip back to the first edge isn't counted above
+		double firstDx=0;
+		for(int i=0;i<m && firstDx==0;i++){
+			firstDx=xs[(i+1)%m]-xs[i];
+		}
+		if(firstDx!=0 && lastDx!=0 && Math.signum(firstDx)!=Math.signum(lastDx)){
+			xFlips++;
+		}
+		return turn!=0 && xFlips<=2;
+	}
+	
 	/**
 	 * Returns the signed area of a triangle, assuming that a CW orientation is positive,
 	 * and a CCW orientation is negative. This is accomplished by centering the triangle
@@ -2864,22 +3402,48 @@ public class GeomUtil {
 	 * @return
 	 */
 	public static double areaVerticesCW(Point2D[] verts){
-		if(verts.length<3)return 0;
-		if(verts.length==3)return areaTriangle(verts[0],verts[1],verts[2]);
-		List<Point2D> oddPoints=new ArrayList<Point2D>();
+		int n = verts.length;
+		double[] packed = new double[2*n];
+		for(int i=0;i<n;i++){
+			packed[i]=verts[i].getX();
+			packed[n+i]=verts[i].getY();
+		}
+		return areaVerticesCW(packed);
+	}
+	
+	/**
+	 * Same as {@link #areaVerticesCW(Point2D[])}, for vertices packed as 
+	 * in {@link #packedVertices(Shape)}.
+	 */
+	public static double areaVerticesCW(double[] packed){
+		int n = packed.length/2;
+		if(n<3)return 0;
+		if(n==3)return areaTriangle(packed[0], packed[3], packed[1], packed[4], packed[2], packed[5]);
 		double areaSoFar=0;
-		oddPoints.add(verts[0]);
-		for(int i=1;i<verts.length;i+=2){
-			Point2D p1=verts[i-1];
-			
-			Point2D p2=verts[i];
-			
-			Point2D p3=verts[(i+1)%verts.length];
-			oddPoints.add(p3);
-			areaSoFar+=areaTriangle(p1,p2,p3);
+		int m = 1 + n/2;
+		double[] oddPoints = new double[2*m];
+		oddPoints[0]=packed[0];
+		oddPoints[m]=packed[n];
+		int k=1;
+		for(int i=1;i<n;i+=2){
+			int i3=(i+1)%n;
+			areaSoFar+=areaTriangle(packed[i-1], packed[n+i-1], packed[i], packed[n+i], packed[i3], packed[n+i3]);
+			oddPoints[k]=packed[i3];
+			oddPoints[m+k]=packed[n+i3];
+			k++;
 		}
-		return areaSoFar + areaVerticesCW(oddPoints.toArray(new Point2D[]{}));
-		
+		return areaSoFar + areaVerticesCW(oddPoints);
+	}
+	
+	/**
+	 * Same as {@link #areaTriangle(Point2D, Point2D, Point2D)}, without making any vectors.
+	 */
+	public static double areaTriangle(double x1, double y1, double x2, double y2, double x3, double y3){
+		double vx2=x2-x1;
+		double vy2=y2-y1;
+		double vx3=x3-x1;
+		double vy3=y3-y1;
+		return (vx2*vy3-vy2*vx3)/2;
 	}
 	
 	public static Shape shapeFromVertices(Point2D[] pnts){
@@ -0,0 +1,359 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
+
+import gov.nih.ncats.molvec.internal.algo.Tuple;
+import gov.nih.ncats.molvec.internal.util.GeomUtil.LineWrapper;
+import gov.nih.ncats.molvec.internal.util.GeomUtil.ShapeWrapper;
+
+/**
+ * A bucket grid over the bounds of some things (shapes, lines, points ...), for finding the
+ * ones near a point or a rectangle without looking at all of them.
+ *
+ * <p>
+ * The index is a snapshot, it doesn't know if the things move or if the collection
+ * it was made from changes, so it should be made again when they do. It can be shared
+ * between threads.
+ * </p>
+ *
+ * <p>
+ * Results are always in the order of the collection the index was made from, and the nearest
+ * thing is the first one of those that are equally near, so the answers are the same as
+ * a linear scan would give.
+ * </p>
+ */
+public class SpatialIndex<T> {
+	//distances are compared with this much slack, so that nothing is missed
+	//because of rounding
+	private static final double SLACK = 1e-9;
+
+	private final List<T> items;
+	private final double[] minX;
+	private final double[] minY;
+	private final double[] maxX;
+	private final double[] maxY;
+
+	//things with bounds that aren't finite, they can't be ruled out
+	private final int[] unbounded;
+
+	private final double gx;
+	private final double gy;
+	private final double cell;
+	private final int cols;
+	private final int rows;
+	//things of cell c are members[start[c]] to members[start[c+1]-1], in order
+	private final int[] start;
+	private final int[] members;
+
+	private SpatialIndex(Collection<T> things, Function<T,Rectangle2D> bounds){
+		items = new ArrayList<>(things);
+		int n = items.size();
+		minX = new double[n];
+		minY = new double[n];
+		maxX = new double[n];
+		maxY = new double[n];
+
+		double ax = Double.POSITIVE_INFINITY;
+		double ay = Double.POSITIVE_INFINITY;
+		double bx = Double.NEGATIVE_INFINITY;
+		double by = Double.NEGATIVE_INFINITY;
+		double size = 0;
+		int bounded = 0;
+		List<Integer> unb = new ArrayList<>();
+		boolean[] finite = new boolean[n];
+		for(int i=0;i<n;i++){
+			Rectangle2D r = bounds.apply(items.get(i));
+			minX[i]=r.getMinX();
+			minY[i]=r.getMinY();
+			maxX[i]=r.getMaxX();
+			maxY[i]=r.getMaxY();
+			finite[i] = Double.isFinite(minX[i]) && Double.isFinite(minY[i])
+					 && Double.isFinite(maxX[i]) && Double.isFinite(maxY[i]);
+			if(!finite[i]){
+				unb.add(i);
+				continue;
+			}
+			ax = Math.min(ax, minX[i]);
+			ay = Math.min(ay, minY[i]);
+			bx = Math.max(bx, maxX[i]);
+			by = Math.max(by, maxY[i]);
+			size += Math.max(maxX[i]-minX[i], maxY[i]-minY[i]);
+			bounded++;
+		}
+		unbounded = unb.stream().mapToInt(i->i).toArray();
+
+		if(bounded==0){
+			ax=ay=0;
+			bx=by=0;
+		}
+		gx = ax;
+		gy = ay;
+
+		//cells about as big as the things, or with about one thing each if they're small
+		double c = 1;
+		if(bounded>0){
+			c = Math.max(size/bounded, Math.sqrt((bx-ax)*(by-ay)/bounded));
+			if(!(c>0) || !Double.isFinite(c)){
+				c = Math.max(Math.max(bx-ax, by-ay), 1);
+			}
+		}
+		int nc;
+		int nr;
+		while(true){
+			nc = (int)Math.min((bx-ax)/c + 1, Integer.MAX_VALUE);
+			nr = (int)Math.min((by-ay)/c + 1, Integer.MAX_VALUE);
+			if((long)nc*nr <= 4L*bounded + 64){
+				break;
+			}
+			c*=2;
+		}
+		cell = c;
+		cols = nc;
+		rows = nr;
+
+		start = new int[cols*rows+1];
+		for(int i=0;i<n;i++){
+			if(!finite[i])continue;
+			int x0 = colOf(minX[i]), x1 = colOf(maxX[i]);
+			int y0 = rowOf(minY[i]), y1 = rowOf(maxY[i]);
+			for(int y=y0;y<=y1;y++){
+				for(int x=x0;x<=x1;x++){
+					start[y*cols+x+1]++;
+				}
+			}
+		}
+		for(int k=0;k<cols*rows;k++){
+			start[k+1]+=start[k];
+		}
+		members = new int[start[cols*rows]];
+		int[] fill = Arrays.copyOf(start, cols*rows);
+		for(int i=0;i<n;i++){
+			if(!finite[i])continue;
+			int x0 = colOf(minX[i]), x1 = colOf(maxX[i]);
+			int y0 = rowOf(minY[i]), y1 = rowOf(maxY[i]);
+			for(int y=y0;y<=y1;y++){
+				for(int x=x0;x<=x1;x++){
+					members[fill[y*cols+x]++]=i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Index things by their bounds.
+	 */
+	public static <T> SpatialIndex<T> of(Collection<T> things, Function<T,Rectangle2D> bounds){
+		return new SpatialIndex<>(things, bounds);
+	}
+
+	public static SpatialIndex<ShapeWrapper> ofShapes(Collection<ShapeWrapper> shapes){
+		return of(shapes, ShapeWrapper::getBounds);
+	}
+
+	public static SpatialIndex<LineWrapper> ofLines(Collection<LineWrapper> lines){
+		return of(lines, lw->{
+			Line2D l = lw.getLine();
+			return new Rectangle2D.Double(Math.min(l.getX1(), l.getX2()), Math.min(l.getY1(), l.getY2()),
+										  Math.abs(l.getX2()-l.getX1()), Math.abs(l.getY2()-l.getY1()));
+		});
+	}
+
+	public static <T> SpatialIndex<T> ofPoints(Collection<T> things, Function<T,Point2D> point){
+		return of(things, t->{
+			Point2D p = point.apply(t);
+			return new Rectangle2D.Double(p.getX(), p.getY(), 0, 0);
+		});
+	}
+
+	public int size(){
+		return items.size();
+	}
+
+	public T get(int i){
+		return items.get(i);
+	}
+
+	private int colOf(double x){
+		return Math.max(0, Math.min(cols-1, (int)Math.floor((x-gx)/cell)));
+	}
+
+	private int rowOf(double y){
+		return Math.max(0, Math.min(rows-1, (int)Math.floor((y-gy)/cell)));
+	}
+
+	private static double gap(double lo1, double hi1, double lo2, double hi2){
+		return Math.max(0, Math.max(lo2-hi1, lo1-hi2));
+	}
+
+	private static double withSlack(double d){
+		return d*(1+SLACK)+SLACK;
+	}
+
+	/**
+	 * The indexes of the things whose bounds could be within the distance of the rectangle,
+	 * in increasing order. A distance or rectangle that isn't a number can't rule anything out.
+	 */
+	public int[] indexesNear(Rectangle2D r, double distance){
+		int n = items.size();
+		if(!(distance>=0) || Double.isInfinite(distance) || Double.isNaN(r.getMinX()+r.getMinY()+r.getMaxX()+r.getMaxY())){
+			int[] all = new int[n];
+			for(int i=0;i<n;i++)all[i]=i;
+			return all;
+		}
+		double d = withSlack(distance);
+		double qx0=r.getMinX()-d, qx1=r.getMaxX()+d;
+		double qy0=r.getMinY()-d, qy1=r.getMaxY()+d;
+
+		int[] found = new int[16];
+		int k=0;
+		for(int i : unbounded){
+			if(k==found.length)found=Arrays.copyOf(found, k*2);
+			found[k++]=i;
+		}
+		//outside the grid there's nothing to look at
+		if(!(qx1<gx || qy1<gy || qx0>gx+cols*cell || qy0>gy+rows*cell)){
+			int x0 = colOf(qx0), x1 = colOf(qx1);
+			int y0 = rowOf(qy0), y1 = rowOf(qy1);
+			for(int y=y0;y<=y1;y++){
+				for(int x=x0;x<=x1;x++){
+					int c = y*cols+x;
+					for(int m=start[c];m<start[c+1];m++){
+						int i = members[m];
+						double dx = gap(minX[i], maxX[i], r.getMinX(), r.getMaxX());
+						double dy = gap(minY[i], maxY[i], r.getMinY(), r.getMaxY());
+						if(dx*dx+dy*dy>d*d){
+							continue;
+						}
+						if(k==found.length)found=Arrays.copyOf(found, k*2);
+						found[k++]=i;
+					}
+				}
+			}
+		}
+		int[] ret = Arrays.copyOf(found, k);
+		Arrays.sort(ret);
+		//things in more than one cell were found more than once
+		int u=0;
+		for(int i=0;i<ret.length;i++){
+			if(u==0 || ret[u-1]!=ret[i]){
+				ret[u++]=ret[i];
+			}
+		}
+		return Arrays.copyOf(ret, u);
+	}
+
+	/**
+	 * The indexes of the things whose bounds could be within the distance of the point,
+	 * in increasing order.
+	 */
+	public int[] indexesNear(Point2D p, double distance){
+		return indexesNear(new Rectangle2D.Double(p.getX(), p.getY(), 0, 0), distance);
+	}
+
+	/**
+	 * The things whose bounds could be within the distance of the rectangle, in order.
+	 */
+	public List<T> near(Rectangle2D r, double distance){
+		int[] idx = indexesNear(r, distance);
+		List<T> list = new ArrayList<>(idx.length);
+		for(int i : idx){
+			list.add(items.get(i));
+		}
+		return list;
+	}
+
+	/**
+	 * The things whose bounds could be within the distance of the point, in order.
+	 */
+	public List<T> near(Point2D p, double distance){
+		return near(new Rectangle2D.Double(p.getX(), p.getY(), 0, 0), distance);
+	}
+
+	/**
+	 * The nearest thing to the point, the same one that the minimum distance over all of
+	 * them would give, see {@link GeomUtil#findClosestShapeWTo(Collection, Point2D)}.
+	 *
+	 * @param p the point.
+	 * @param distance the distance from a thing to the point, this must never be
+	 * less than the distance from the thing's bounds to the point.
+	 * @return the nearest thing and its distance, empty if there's nothing in the index.
+	 */
+	public Optional<Tuple<T,Double>> nearest(Point2D p, ToDoubleBiFunction<T,Point2D> distance){
+		int n = items.size();
+		if(n==0){
+			return Optional.empty();
+		}
+		double px = p.getX();
+		double py = p.getY();
+
+		int best = -1;
+		double bestD = 0;
+		for(int i : unbounded){
+			double d = distance.applyAsDouble(items.get(i), p);
+			if(best<0 || Double.compare(d, bestD)<0 || (Double.compare(d, bestD)==0 && i<best)){
+				best=i;
+				bestD=d;
+			}
+		}
+
+		boolean[] seen = new boolean[n];
+		int cx = colOf(px);
+		int cy = rowOf(py);
+		for(int ring=0;;ring++){
+			int y0 = Math.max(0, cy-ring), y1 = Math.min(rows-1, cy+ring);
+			int x0 = Math.max(0, cx-ring), x1 = Math.min(cols-1, cx+ring);
+			for(int y=y0;y<=y1;y++){
+				boolean edgeRow = (y==cy-ring || y==cy+ring);
+				for(int x=x0;x<=x1;x++){
+					if(!edgeRow && x!=cx-ring && x!=cx+ring){
+						//inside the ring, already looked at
+						x = Math.max(x, cx+ring-1);
+						continue;
+					}
+					int c = y*cols+x;
+					for(int m=start[c];m<start[c+1];m++){
+						int i = members[m];
+						if(seen[i])continue;
+						seen[i]=true;
+						if(best>=0){
+							double dx = gap(minX[i], maxX[i], px, px);
+							double dy = gap(minY[i], maxY[i], py, py);
+							if(Math.sqrt(dx*dx+dy*dy)>withSlack(bestD)){
+								continue;
+							}
+						}
+						double d = distance.applyAsDouble(items.get(i), p);
+						if(best<0 || Double.compare(d, bestD)<0 || (Double.compare(d, bestD)==0 && i<best)){
+							best=i;
+							bestD=d;
+						}
+					}
+				}
+			}
+			boolean left = cx-ring>0, right = cx+ring<cols-1;
+			boolean up = cy-ring>0, down = cy+ring<rows-1;
+			if(!(left || right || up || down)){
+				break;
+			}
+			//anything not seen yet is outside the rings so far, on a side where the grid goes on
+			double bound = Double.POSITIVE_INFINITY;
+			if(left)bound = Math.min(bound, px-(gx+(cx-ring)*cell));
+			if(right)bound = Math.min(bound, (gx+(cx+ring+1)*cell)-px);
+			if(up)bound = Math.min(bound, py-(gy+(cy-ring)*cell));
+			if(down)bound = Math.min(bound, (gy+(cy+ring+1)*cell)-py);
+			if(best>=0 && Math.max(0, bound)>withSlack(bestD)){
+				break;
+			}
+		}
+		return Optional.of(Tuple.of(items.get(best), bestD).withVComparator());
+	}
+}
@@ -1,6 +1,8 @@
 package gov.nih.ncats.molvec.ui;
 
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -8,16 +10,45 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Created by katzelda on 6/13/19.
  */
 public abstract class AbstractStupidestPossibleSCOCR extends RasterBasedCosineSCOCR {
+    private static final Logger logger =
+        Logger.getLogger(AbstractStupidestPossibleSCOCR.class.getName());
+
     private final Map<String, List<RasterChar>> readAhead = new HashMap<>();
 
     AbstractStupidestPossibleSCOCR(){
-        loadRasters( (k, v)-> readAhead.computeIfAbsent(k, newKey -> new ArrayList<>()).add(v));
+        Map<String, List<RasterChar>> binary = loadBinaryModel();
+        if(binary !=null){
+            readAhead.putAll(binary);
+        }else {
+            loadRasters((k, v) -> readAhead.computeIfAbsent(k, newKey -> new ArrayList<>()).add(v));
+        }
+    }
 
+    /**
+     * Read the templates from the binary model next to the class, which is much
+     * faster than parsing the base64 text. See {@link BinaryRasterModel}.
+     * @return the templates, or null if there isn't a model or it can't be read.
+     */
+    private Map<String, List<RasterChar>> loadBinaryModel(){
+        try(InputStream in = getClass().getResourceAsStream(BinaryRasterModel.resourceName(getClass()))){
+            if(in ==null){
+                return null;
+            }
+            Map<String, List<RasterChar>> map = new HashMap<>();
+            BinaryRasterModel.read(in, (k, v)-> map.computeIfAbsent(k, newKey -> new ArrayList<>()).add(v));
+            return map;
+        }catch(IOException e){
+            logger.log(Level.WARNING, "Couldn't read the binary model of "
+                    + getClass().getSimpleName() + ", using the base64 templates", e);
+            return null;
+        }
     }
     @Override
     public void getBitmapsForChar(Character c, Consumer<RasterChar> rconsumer) {
@@ -30,5 +61,9 @@ public abstract class AbstractStupidestPossibleSCOCR extends RasterBasedCosineSC
         }
     }
 
+    /**
+     * Give every template to the consumer, this is only used when there
+     * isn't a binary model for the class.
+     */
     protected abstract void loadRasters(BiConsumer<String, RasterChar> consumer);
 }
@@ -0,0 +1,157 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.BiConsumer;
+
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+/**
+ * Binary form of the templates of an {@link AbstractStupidestPossibleSCOCR}, so they
+ * can be read straight into arrays instead of decoding and parsing the base64 text
+ * in the class.
+ *
+ * <p>
+ * The format is big endian: the magic number and version, then the number of
+ * templates, then for each template its key (modified UTF-8), the width and height
+ * of the grid, the width and height of the original glyph as doubles, and the grid
+ * values as unsigned bytes, column by column. Templates are in the same order
+ * the base64 text gives them.
+ * </p>
+ *
+ * The files are generated from the base64 templates by {@link #main(String[])},
+ * which the maven build runs in the process-classes phase, and sit next to the
+ * class they belong to in the build output, named after it.
+ */
+final class BinaryRasterModel {
+	private static final int MAGIC = 0x4D564F43; //"MVOC"
+	private static final int VERSION = 1;
+
+	private BinaryRasterModel(){}
+
+	/**
+	 * The name of the model resource of the given class.
+	 */
+	static String resourceName(Class<?> c){
+		return c.getSimpleName() + ".bin";
+	}
+
+	/**
+	 * Read a model, giving each template to the consumer in order.
+	 * @throws IOException if it isn't a model this can read.
+	 */
+	static void read(InputStream in, BiConsumer<String, RasterChar> consumer) throws IOException{
+		DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+		if(din.readInt()!=MAGIC){
+			throw new IOException("not a raster model");
+		}
+		int version = din.readUnsignedShort();
+		if(version!=VERSION){
+			throw new IOException("unsupported raster model version " + version);
+		}
+		int count = din.readInt();
+		byte[] buf = new byte[0];
+		for(int t=0;t<count;t++){
+			String key = din.readUTF();
+			int width = din.readUnsignedShort();
+			int height = din.readUnsignedShort();
+			double rectW = din.readDouble();
+			double rectH = din.readDouble();
+			if(buf.length < width*height){
+				buf = new byte[width*height];
+			}
+			din.readFully(buf, 0, width*height);
+			int[][] data = new int[width][height];
+			int k=0;
+			for(int i=0;i<width;i++){
+				int[] col = data[i];
+				for(int j=0;j<height;j++){
+					col[j] = buf[k++] & 0xFF;
+				}
+			}
+			consumer.accept(key, new RasterChar(data, new Rectangle2D.Double(0, 0, rectW, rectH)));
+		}
+	}
+
+	/**
+	 * Collects templates and writes them as a model.
+	 */
+	static final class Writer implements BiConsumer<String, RasterChar>{
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream templates = new ByteArrayOutputStream();
+		private final DataOutputStream tout = new DataOutputStream(templates);
+		private int count=0;
+
+		Writer(OutputStream out){
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+		}
+
+		@Override
+		public void accept(String key, RasterChar rc) {
+			try{
+				int width = rc.data.length;
+				int height = rc.data[0].length;
+				tout.writeUTF(key);
+				tout.writeShort(width);
+				tout.writeShort(height);
+				tout.writeDouble(rc.rect.getWidth());
+				tout.writeDouble(rc.rect.getHeight());
+				for(int i=0;i<width;i++){
+					for(int j=0;j<height;j++){
+						int v = rc.data[i][j];
+						if(v<0 || v>255){
+							throw new IllegalStateException("template value " + v + " for " + key + " doesn't fit in a byte");
+						}
+						tout.writeByte(v);
+					}
+				}
+				count++;
+			}catch(IOException e){
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void finish() throws IOException{
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(count);
+			templates.writeTo(out);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Write the binary models of the built in OCRs from their base64 templates.
+	 * The build runs this in its own JVM on every compile, with the output directory of this package.
+	 *
+	 * @param args the directory to write to.
+	 */
+	public static void main(String[] args) throws IOException{
+		if(args.length!=1){
+			throw new IllegalArgumentException("usage: BinaryRasterModel <output directory>");
+		}
+		File dir = new File(args[0]);
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("couldn't make directory " + dir);
+		}
+		for(AbstractStupidestPossibleSCOCR ocr : new AbstractStupidestPossibleSCOCR[]{
+				new StupidestPossibleSCOCRSansSerif(),
+				new StupidestPossibleSCOCRSerif()}){
+			File f = new File(dir, resourceName(ocr.getClass()));
+			try(OutputStream out = new FileOutputStream(f)){
+				Writer w = new Writer(out);
+				ocr.loadRasters(w);
+				w.finish();
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
+
+/**
+ * An {@link SCOCR} that remembers the results of {@link #getNBestMatches(int, Bitmap...)}.
+ * Structure images repeat the same labels over and over ("O", "N", "OH" ...) at the
+ * same size, so the same scaled glyph gets scored many times.
+ *
+ * <p>
+ * The key is the full content of the {@link BitmapScaled} of each bitmap (its size and
+ * its on cells and counts, in order), not just a hash of it, so a hit always gives
+ * the same answer the wrapped SCOCR would. This only holds for SCOCRs that look at
+ * nothing but that scaled bitmap, like {@link RasterBasedCosineSCOCR} and the
+ * {@link SCOCR#orElse(SCOCR, double)} and {@link SCOCR#adjustWeights(java.util.function.Function)}
+ * wrappers around it.
+ * </p>
+ *
+ * The least recently used results are dropped once there are more than
+ * the maximum number of entries. This is safe to share between threads.
+ */
+public class CachedSCOCR implements SCOCR{
+	private final SCOCR delegate;
+	private final Map<ScaledKey, Result> cache;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public CachedSCOCR(SCOCR delegate, int maxEntries){
+		if(maxEntries<1){
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		this.delegate=delegate;
+		this.cache = new LinkedHashMap<ScaledKey, Result>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<ScaledKey, Result> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	@Override
+	public void setAlphabet(Set<Character> charSet) {
+		synchronized(cache){
+			cache.clear();
+		}
+		delegate.setAlphabet(charSet);
+	}
+
+	@Override
+	public Set<Character> getAlphabet() {
+		return delegate.getAlphabet();
+	}
+
+	@Override
+	public Map<Character, Number> getRanking(Bitmap r) {
+		return delegate.getRanking(r);
+	}
+
+	@Override
+	public boolean hasScoreAbove(Bitmap r, double cutoff) {
+		return delegate.hasScoreAbove(r, cutoff);
+	}
+
+	@Override
+	public Optional<Map<Character, Number>> getRankingIfAbove(Bitmap r, double cutoff) {
+		return delegate.getRankingIfAbove(r, cutoff);
+	}
+
+	@Override
+	public List<Entry<Character, Number>> getNBestMatches(int n, Bitmap... r) {
+		ScaledKey key = new ScaledKey(n, r);
+		Result res;
+		synchronized(cache){
+			res = cache.get(key);
+		}
+		if(res==null){
+			misses.incrementAndGet();
+			//not computed under the lock, two threads may both compute the same thing
+			res = new Result(delegate.getNBestMatches(n, r));
+			synchronized(cache){
+				cache.put(key, res);
+			}
+		}else{
+			hits.incrementAndGet();
+		}
+		return res.toEntries();
+	}
+
+	/**
+	 * The hits are answered right away, and all of the misses are passed on
+	 * to the wrapped SCOCR as one batch. Repeats within the batch count as hits.
+	 */
+	@Override
+	public List<List<Entry<Character, Number>>> getNBestMatchesForEach(int n, List<Bitmap[]> batch) {
+		Stream<Bitmap[]> stream = (batch.size() > PARALLEL_BATCH_SIZE) ? batch.parallelStream() : batch.stream();
+		List<ScaledKey> keys = stream.map(r -> new ScaledKey(n, r))
+				.collect(Collectors.toList());
+
+		Result[] results = new Result[batch.size()];
+		//each missing key is only scored once, even if it is in the batch more than once
+		Map<ScaledKey, List<Integer>> missed = new LinkedHashMap<>();
+		synchronized(cache){
+			for(int i=0;i<results.length;i++){
+				results[i] = cache.get(keys.get(i));
+				if(results[i]==null){
+					missed.computeIfAbsent(keys.get(i), k->new ArrayList<>()).add(i);
+				}
+			}
+		}
+		hits.addAndGet(results.length - missed.size());
+		misses.addAndGet(missed.size());
+
+		if(!missed.isEmpty()){
+			List<Bitmap[]> todo = new ArrayList<>(missed.size());
+			for(List<Integer> same : missed.values()){
+				todo.add(batch.get(same.get(0)));
+			}
+			List<List<Entry<Character, Number>>> scored = delegate.getNBestMatchesForEach(n, todo);
+			int j=0;
+			synchronized(cache){
+				for(Entry<ScaledKey, List<Integer>> e : missed.entrySet()){
+					Result res = new Result(scored.get(j++));
+					cache.put(e.getKey(), res);
+					for(int i : e.getValue()){
+						results[i] = res;
+					}
+				}
+			}
+		}
+
+		List<List<Entry<Character, Number>>> out = new ArrayList<>(results.length);
+		for(Result res : results){
+			out.add(res.toEntries());
+		}
+		return out;
+	}
+
+	public long getHitCount(){
+		return hits.get();
+	}
+
+	public long getMissCount(){
+		return misses.get();
+	}
+
+	public int size(){
+		synchronized(cache){
+			return cache.size();
+		}
+	}
+
+	/**
+	 * The matches as plain values, the callers get new entries each time
+	 * so nothing they do to them can change the cache.
+	 */
+	private static final class Result{
+		private final char[] chars;
+		private final double[] scores;
+
+		Result(List<Entry<Character, Number>> matches){
+			chars = new char[matches.size()];
+			scores = new double[matches.size()];
+			for(int i=0;i<chars.length;i++){
+				chars[i] = matches.get(i).getKey();
+				scores[i] = matches.get(i).getValue().doubleValue();
+			}
+		}
+
+		List<Entry<Character, Number>> toEntries(){
+			List<Entry<Character, Number>> list = new ArrayList<>(chars.length);
+			for(int i=0;i<chars.length;i++){
+				list.add(new AbstractMap.SimpleImmutableEntry<Character, Number>(chars[i], scores[i]));
+			}
+			return list;
+		}
+	}
+
+	private static final class ScaledKey{
+		private final int[] content;
+		private final int hash;
+
+		ScaledKey(int n, Bitmap... r){
+			int len = 2;
+			BitmapScaled[] scaled = new BitmapScaled[r.length];
+			for(int i=0;i<r.length;i++){
+				scaled[i] = r[i].getScaled(RasterBasedCosineSCOCR.DEF_WIDTH, RasterBasedCosineSCOCR.DEF_HEIGHT);
+				len += 3 + scaled[i].onCell().length*2;
+			}
+			content = new int[len];
+			int k=0;
+			content[k++]=n;
+			content[k++]=r.length;
+			for(BitmapScaled bms : scaled){
+				content[k++]=bms.twidth();
+				content[k++]=bms.theight();
+				int[] onCell = bms.onCell();
+				int[] onCount = bms.onCount();
+				content[k++]=onCell.length;
+				for(int i=0;i<onCell.length;i++){
+					content[k++]=onCell[i];
+					content[k++]=onCount[i];
+				}
+			}
+			hash = Arrays.hashCode(content);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof ScaledKey))return false;
+			ScaledKey other = (ScaledKey)obj;
+			return hash==other.hash && Arrays.equals(content, other.content);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package gov.nih.ncats.molvec.ui;
+
+/**
+ * The integer dot product that the template scores of {@link RasterTemplateBank}
+ * are built from.
+ *
+ * <p>
+ * {@link #SCALAR} is a plain loop. On JDKs with the incubating vector API there is
+ * also <code>VectorCorrelationKernel</code>, which is built from src/main/java17 into
+ * META-INF/versions/17 of the multi-release jar and uses the widest SIMD lanes the CPU has. It is only there when the
+ * jdk.incubator.vector module is added to the JVM, with
+ * <code>--add-modules jdk.incubator.vector</code>, see {@link #vector()}.
+ * </p>
+ */
+interface CorrelationKernel {
+	/**
+	 * System property that turns the vector kernel off when it is "false".
+	 */
+	String VECTOR_PROPERTY = "molvec.vectorKernel";
+
+	/**
+	 * The sum of <code>a[aOff+k]*b[k]</code> for k from 0 to len-1, in int
+	 * arithmetic, so an overflow wraps the same way the plain loop would.
+	 */
+	int dot(int[] a, int aOff, int[] b, int len);
+
+	CorrelationKernel SCALAR = (a, aOff, b, len)->{
+		int sum=0;
+		for(int k=0;k<len;k++){
+			sum += a[aOff+k]*b[k];
+		}
+		return sum;
+	};
+
+	/**
+	 * The vector kernel, if it can be used.
+	 * @return the kernel, or null if it wasn't built, the JVM doesn't have the
+	 * vector module or it was turned off with {@link #VECTOR_PROPERTY}.
+	 */
+	static CorrelationKernel vector(){
+		if("false".equalsIgnoreCase(System.getProperty(VECTOR_PROPERTY))){
+			return null;
+		}
+		try{
+			return (CorrelationKernel) Class.forName(CorrelationKernel.class.getPackage().getName() + ".VectorCorrelationKernel")
+										  .getDeclaredConstructor()
+										  .newInstance();
+		}catch(ReflectiveOperationException | LinkageError e){
+			//not built, or the module isn't there
+			return null;
+		}
+	}
+}
@@ -1,19 +1,21 @@
 package gov.nih.ncats.molvec.ui;
 
 import java.awt.Font;
-import java.awt.Graphics2D;
-import java.awt.Shape;
-import java.awt.font.GlyphVector;
-import java.awt.geom.Point2D;
-import java.awt.geom.Rectangle2D;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 public class FontBasedRasterCosineSCOCR extends RasterBasedCosineSCOCR {
 
 	private List<Font> fontList = new ArrayList<Font>();
+	private File cacheDir = GlyphRasterizer.defaultCacheDir();
+	//the glyphs of the last alphabet
+	private Map<Character, List<RasterChar>> rendered = Collections.emptyMap();
 	
 	public static List<Font> DEFAULT_FONTS(){
 		return SANS_SERIF_FONTS();
@@ -54,55 +56,31 @@ public class FontBasedRasterCosineSCOCR extends RasterBasedCosineSCOCR {
 	}
 	
 	
-	@Override
-	public void getBitmapsForChar(Character c, Consumer<RasterChar> rconsumer) {
-		for (Font f : fontList) {
-			int[][] charMat = new int[DEF_WIDTH][DEF_HEIGHT];
-			Rectangle2D whrat = getBitmap(c,f,charMat);
-			rconsumer.accept(new RasterChar(charMat,whrat));
-		}
-	}
-	
-	
 	/**
+	 * Keep the rendered glyphs in the given directory between runs, so they
+	 * only have to be rendered the first time. By default this is the directory in the
+	 * molvec.glyphCacheDir system property, if it is set.
 	 * 
-	 * @param c
-	 *            Character to generate bitmap for
-	 * @param f
-	 *            Font to use in generation
-	 * @param toRet
-	 *            Integer array to put result into
-	 * @return Returns the Rectangle2D bounding box of the font glyph
+	 * @param dir the directory, or null to not keep them on disk.
+	 * @return this
 	 */
-	private static Rectangle2D getBitmap(Character c, Font f, int[][] toRet) {
-		if (toRet == null) {
-			toRet = new int[DEF_WIDTH][DEF_HEIGHT];
-		}
-
-		Graphics2D g = (Graphics2D) bi.getGraphics();
-		GlyphVector gv = f.createGlyphVector(g.getFontRenderContext(),
-				new char[] { c });
-		Shape outline=gv.getOutline();
-		Rectangle2D r = gv.getVisualBounds();
-
-		double w = r.getWidth();
-		double h = r.getHeight();
-
-		Point2D testPoint = new Point2D.Double();
-		
-		for (int j = 0; j < DEF_HEIGHT; j++) {
-			for (int i = 0; i < DEF_WIDTH; i++) {
-				testPoint.setLocation(r.getMinX() + (w * i) / DEF_WIDTH, 
-									  r.getMinY() + (h * j) / DEF_HEIGHT);
-				toRet[i][j] = outline.contains(testPoint) ? 1
-						: 0;
-			}
+	public FontBasedRasterCosineSCOCR setCacheDir(File dir){
+		this.cacheDir=dir;
+		return this;
+	}
+	
+	@Override
+	protected void prepareBitmapsForChars(Set<Character> chars) {
+		rendered = GlyphRasterizer.render(fontList, chars, cacheDir);
+	}
+	
+	@Override
+	public void getBitmapsForChar(Character c, Consumer<RasterChar> rconsumer) {
+		List<RasterChar> list = rendered.get(c);
+		if(list==null){
+			list = GlyphRasterizer.render(fontList, Collections.singleton(c), cacheDir).get(c);
 		}
-		
-		
-		        
-		blurbmap(toRet);
-		return r;
+		list.forEach(rconsumer);
 	}
 
 }
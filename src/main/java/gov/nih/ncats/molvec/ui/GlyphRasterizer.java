@@ -0,0 +1,267 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+/**
+ * Renders the font glyph templates used by {@link FontBasedRasterCosineSCOCR}.
+ *
+ * <p>
+ * Each thread renders with its own image and buffers, so fonts and characters
+ * can be rendered in parallel. Every glyph is only rendered once per JVM, and
+ * if a cache directory is given the glyphs of each font are also kept there
+ * between runs, in the {@link BinaryRasterModel} format. The cache files are
+ * named after the font that was actually resolved and the java version, since
+ * both change what gets rendered.
+ * </p>
+ */
+final class GlyphRasterizer {
+	private static final Logger logger =
+		Logger.getLogger(GlyphRasterizer.class.getName());
+
+	/**
+	 * System property naming the default directory for cached glyphs,
+	 * there is no disk cache when it isn't set.
+	 */
+	static final String CACHE_DIR_PROPERTY = "molvec.glyphCacheDir";
+
+	private static final Map<GlyphKey, RasterChar> RENDERED = new ConcurrentHashMap<>();
+	//fonts whose cache file has already been read in this JVM
+	private static final Map<String, Boolean> LOADED = new ConcurrentHashMap<>();
+
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	private GlyphRasterizer(){}
+
+	static File defaultCacheDir(){
+		String dir = System.getProperty(CACHE_DIR_PROPERTY);
+		return (dir==null || dir.isEmpty())?null:new File(dir);
+	}
+
+	/**
+	 * Get the templates of the given characters for each of the fonts, rendering
+	 * the ones that aren't known yet in parallel.
+	 * @param fonts the fonts, in the order the templates of each character should be in.
+	 * @param chars the characters.
+	 * @param cacheDir the directory to keep the glyphs in between runs, may be null.
+	 * @return the templates of each character, one for each font, these are
+	 * new copies the caller is free to change.
+	 */
+	static Map<Character, List<RasterChar>> render(List<Font> fonts, Collection<Character> chars, File cacheDir){
+		if(cacheDir!=null){
+			fonts.stream().distinct().forEach(f->loadCache(f, cacheDir));
+		}
+		List<GlyphKey> missing = new ArrayList<>();
+		for(Font f : fonts){
+			for(Character c : chars){
+				GlyphKey key = new GlyphKey(f, c);
+				if(!RENDERED.containsKey(key)){
+					missing.add(key);
+				}
+			}
+		}
+		if(!missing.isEmpty()){
+			missing.parallelStream()
+			       .distinct()
+			       .forEach(k->RENDERED.computeIfAbsent(k, GlyphRasterizer::render));
+			if(cacheDir!=null){
+				missing.stream()
+				       .map(k->k.font)
+				       .distinct()
+				       .forEach(f->saveCache(f, cacheDir));
+			}
+		}
+
+		Map<Character, List<RasterChar>> map = new LinkedHashMap<>();
+		for(Character c : chars){
+			List<RasterChar> list = new ArrayList<>(fonts.size());
+			for(Font f : fonts){
+				list.add(copy(RENDERED.get(new GlyphKey(f, c))));
+			}
+			map.put(c, list);
+		}
+		return map;
+	}
+
+	/**
+	 * Render a single template, this does not look at or change the caches.
+	 */
+	static RasterChar render(Font f, char c){
+		int[][] charMat = new int[RasterBasedCosineSCOCR.DEF_WIDTH][RasterBasedCosineSCOCR.DEF_HEIGHT];
+		Rectangle2D r = getBitmap(c, f, charMat);
+		return new RasterChar(charMat, r);
+	}
+
+	private static RasterChar render(GlyphKey key){
+		return render(key.font, key.c);
+	}
+
+	/**
+	 * Samples the outline of the glyph on a DEF_WIDTH x DEF_HEIGHT grid
+	 * over its visual bounds, then blurs it.
+	 *
+	 * @return the bounding box of the font glyph
+	 */
+	private static Rectangle2D getBitmap(char c, Font f, int[][] toRet) {
+		int width = RasterBasedCosineSCOCR.DEF_WIDTH;
+		int height = RasterBasedCosineSCOCR.DEF_HEIGHT;
+		Buffers buf = BUFFERS.get();
+
+		GlyphVector gv = f.createGlyphVector(buf.frc, new char[] { c });
+		Shape outline=gv.getOutline();
+		Rectangle2D r = gv.getVisualBounds();
+
+		double w = r.getWidth();
+		double h = r.getHeight();
+
+		Point2D testPoint = buf.testPoint;
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				testPoint.setLocation(r.getMinX() + (w * i) / width,
+									  r.getMinY() + (h * j) / height);
+				toRet[i][j] = outline.contains(testPoint) ? 1 : 0;
+			}
+		}
+		RasterBasedCosineSCOCR.blurbmap(toRet);
+		return r;
+	}
+
+	private static RasterChar copy(RasterChar rc){
+		int[][] data = new int[rc.data.length][];
+		for(int i=0;i<data.length;i++){
+			data[i] = rc.data[i].clone();
+		}
+		return new RasterChar(data, (Rectangle2D) rc.rect.clone());
+	}
+
+	private static void loadCache(Font f, File cacheDir){
+		File file = cacheFile(f, cacheDir);
+		if(LOADED.putIfAbsent(file.getAbsolutePath(), Boolean.TRUE)!=null || !file.isFile()){
+			return;
+		}
+		try(InputStream in = new FileInputStream(file)){
+			Map<GlyphKey, RasterChar> read = new LinkedHashMap<>();
+			BinaryRasterModel.read(in, (k, v)->read.put(new GlyphKey(f, k.charAt(0)), v));
+			read.forEach(RENDERED::putIfAbsent);
+		}catch(IOException | RuntimeException e){
+			//a bad cache is the same as no cache, the glyphs get rendered again
+			logger.log(Level.WARNING, "Couldn't read the glyph cache " + file + ", rendering the glyphs of " + f.getFontName(), e);
+		}
+	}
+
+	private static void saveCache(Font f, File cacheDir){
+		if(!cacheDir.isDirectory() && !cacheDir.mkdirs()){
+			logger.log(Level.WARNING, "Couldn't make the glyph cache directory " + cacheDir);
+			return;
+		}
+		File file = cacheFile(f, cacheDir);
+		try{
+			File tmp = File.createTempFile(file.getName(), ".tmp", cacheDir);
+			try{
+				try(OutputStream out = new FileOutputStream(tmp)){
+					BinaryRasterModel.Writer w = new BinaryRasterModel.Writer(out);
+					RENDERED.forEach((k, v)->{
+						if(k.font.equals(f)){
+							w.accept(String.valueOf(k.c), v);
+						}
+					});
+					w.finish();
+				}
+				try{
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				}catch(AtomicMoveNotSupportedException e){
+					Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}finally{
+				Files.deleteIfExists(tmp.toPath());
+			}
+		}catch(IOException e){
+			//not being able to cache isn't an error, it's just slower next time
+			logger.log(Level.WARNING, "Couldn't write the glyph cache " + file, e);
+		}
+	}
+
+	static File cacheFile(Font f, File cacheDir){
+		String desc = f.getName() + "|" + f.getFamily() + "|" + f.getFontName() + "|" + f.getStyle() + "|" + f.getSize2D()
+				+ "|" + RasterBasedCosineSCOCR.DEF_WIDTH + "x" + RasterBasedCosineSCOCR.DEF_HEIGHT
+				+ "|" + System.getProperty("java.vendor") + "|" + System.getProperty("java.version");
+		return new File(cacheDir, "glyphs-" + sha1(desc) + ".bin");
+	}
+
+	private static String sha1(String s){
+		try{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for(byte b : digest){
+				sb.append(String.format("%02x", b & 0xFF));
+			}
+			return sb.toString();
+		}catch(NoSuchAlgorithmException e){
+			//every java has SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class Buffers{
+		private final FontRenderContext frc;
+		private final Point2D testPoint = new Point2D.Double();
+
+		Buffers(){
+			Graphics2D g = new BufferedImage(RasterBasedCosineSCOCR.DEF_WIDTH, RasterBasedCosineSCOCR.DEF_HEIGHT,
+					BufferedImage.TYPE_BYTE_GRAY).createGraphics();
+			frc = g.getFontRenderContext();
+			g.dispose();
+		}
+	}
+
+	private static final class GlyphKey{
+		private final Font font;
+		private final char c;
+
+		GlyphKey(Font font, char c){
+			this.font = font;
+			this.c = c;
+		}
+
+		@Override
+		public int hashCode() {
+			return font.hashCode()*31 + c;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof GlyphKey))return false;
+			GlyphKey other = (GlyphKey)obj;
+			return c==other.c && Objects.equals(font, other.font);
+		}
+	}
+}
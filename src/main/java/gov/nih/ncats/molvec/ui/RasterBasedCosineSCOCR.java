@@ -8,12 +8,17 @@ import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -21,6 +26,7 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 
@@ -32,10 +38,17 @@ import gov.nih.ncats.molvec.internal.algo.Tuple;
 public abstract class RasterBasedCosineSCOCR implements SCOCR{
 	Set<Character> _alphabet;
 	Map<Character, List<RasterChar>> charVal = new HashMap<Character, List<RasterChar>>();
+	//compiled from charVal every time the alphabet is set
+	private volatile RasterTemplateBank templateBank = null;
 	//Map<Character, Rectangle2D> WH_RATIO = new HashMap<Character, Rectangle2D>();
 
 	static int DEF_WIDTH = 20;
 	static int DEF_HEIGHT = 20;
+	/**
+	 * @deprecated shared between every thread, so it isn't safe to draw on.
+	 * Font glyphs are rendered with per thread buffers now, see {@link FontBasedRasterCosineSCOCR}.
+	 */
+	@Deprecated
 	protected static BufferedImage bi = new BufferedImage(DEF_WIDTH, DEF_HEIGHT,
 			BufferedImage.TYPE_BYTE_GRAY);
 	
@@ -322,15 +335,23 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 	
 	public abstract void getBitmapsForChar(Character c, Consumer<RasterChar> rconsumer);
 	
+	/**
+	 * Called with the whole alphabet before {@link #getBitmapsForChar(Character, Consumer)}
+	 * is called for each character, so subclasses that make their templates can make
+	 * them all at once. Does nothing by default.
+	 */
+	protected void prepareBitmapsForChars(Set<Character> chars){
+	}
 
 	private void makeAlphabetMaps() {
+		prepareBitmapsForChars(_alphabet);
 		for (char c : _alphabet) {
 			getBitmapsForChar(c,rc->{
 				charVal.computeIfAbsent(c, (k)->new ArrayList<>())
 				       .add(rc);
 			});
 		}
-		
+		templateBank = new RasterTemplateBank(charVal, DEF_WIDTH, DEF_HEIGHT);
 	}
 
 	@Override
@@ -356,10 +377,207 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 	@Override
 	public Map<Character, Number> getRanking(Bitmap r) {
 		BitmapScaled bms=r.getScaled(DEF_WIDTH, DEF_HEIGHT);
-		
+		RasterTemplateBank bank = templateBank;
+		return ranking(bank, bank.bestScores(bms));
+	}
+	
+	private Map<Character, Number> ranking(RasterTemplateBank bank, double[] best) {
 		return _alphabet
-				.parallelStream()
-				.collect(Collectors.toMap(Function.identity(), c2->correlation(bms, c2)));
+				.stream()
+				.collect(Collectors.toMap(Function.identity(), c2->{
+					int slot = bank.slotOf(c2);
+					return (slot<0)?0:best[slot];
+				}));
+	}
+
+	/**
+	 * Same result as the default, including the order of ties, but characters
+	 * are scored best bound first and characters that can't make it into the
+	 * top n anymore aren't scored.
+	 */
+	@Override
+	public List<Entry<Character, Number>> getNBestMatches(int n, Bitmap... r) {
+		return nBestForEach(templateBank, rankingOrder(), n, Collections.singletonList(r)).get(0);
+	}
+	
+	/**
+	 * Same results as {@link #getNBestMatches(int, Bitmap...)} for each group, but the
+	 * batch is scored in one pass over the template bank: the templates of each character
+	 * are scored against every bitmap of the batch before moving on to the next character.
+	 * Batches bigger than {@link SCOCR#PARALLEL_BATCH_SIZE} are split into chunks of that
+	 * size, which are scored in parallel.
+	 */
+	@Override
+	public List<List<Entry<Character, Number>>> getNBestMatchesForEach(int n, List<Bitmap[]> batch) {
+		RasterTemplateBank bank = templateBank;
+		List<Character> chars = rankingOrder();
+		if (batch.size() <= PARALLEL_BATCH_SIZE) {
+			return nBestForEach(bank, chars, n, batch);
+		}
+		int chunks = (batch.size() + PARALLEL_BATCH_SIZE - 1) / PARALLEL_BATCH_SIZE;
+		return IntStream.range(0, chunks)
+				.parallel()
+				.mapToObj(i -> nBestForEach(bank, chars, n,
+						batch.subList(i * PARALLEL_BATCH_SIZE, Math.min(batch.size(), (i + 1) * PARALLEL_BATCH_SIZE))))
+				.flatMap(List::stream)
+				.collect(Collectors.toList());
+	}
+	
+	/**
+	 * The alphabet in the iteration order of the map from {@link #getRanking(Bitmap)},
+	 * so ties sort the same way.
+	 */
+	private List<Character> rankingOrder() {
+		return new ArrayList<>(_alphabet
+				.stream()
+				.collect(Collectors.toMap(Function.identity(), c2->0))
+				.keySet());
+	}
+	
+	/**
+	 * The n best matches of each group of bitmaps. Characters are visited in order
+	 * of their best bound over the whole batch, and each one is only scored for the groups
+	 * it could still make the top n of. The scores that are kept are exact, and anything
+	 * skipped is under the n-th best score of its group, so the order characters are
+	 * visited in doesn't change the result.
+	 */
+	private static List<List<Entry<Character, Number>>> nBestForEach(RasterTemplateBank bank, List<Character> chars,
+			int n, List<Bitmap[]> batch) {
+		int g = batch.size();
+		RasterTemplateBank.Candidate[][] cands = new RasterTemplateBank.Candidate[g][];
+		for (int b = 0; b < g; b++) {
+			Bitmap[] r = batch.get(b);
+			cands[b] = new RasterTemplateBank.Candidate[r.length];
+			for (int i = 0; i < r.length; i++) {
+				cands[b][i] = bank.prepare(r[i].getScaled(DEF_WIDTH, DEF_HEIGHT));
+			}
+		}
+		
+		int m = chars.size();
+		int[] slot = new int[m];
+		double[][] bound = new double[g][m];
+		double[] batchBound = new double[m];
+		double[][] score = new double[g][m];
+		boolean[][] scored = new boolean[g][m];
+		
+		//min heaps of the n best scores so far of each group
+		List<PriorityQueue<Double>> top = new ArrayList<>(g);
+		for (int b = 0; b < g; b++) {
+			top.add(new PriorityQueue<>());
+		}
+		List<Integer> todo = new ArrayList<>();
+		for (int k = 0; k < m; k++) {
+			slot[k] = bank.slotOf(chars.get(k));
+			if (slot[k] < 0) {
+				for (int b = 0; b < g; b++) {
+					scored[b][k] = true;
+					offer(top.get(b), n, 0.0);
+				}
+				continue;
+			}
+			batchBound[k] = Double.NEGATIVE_INFINITY;
+			for (int b = 0; b < g; b++) {
+				bound[b][k] = Double.NEGATIVE_INFINITY;
+				for (RasterTemplateBank.Candidate c : cands[b]) {
+					bound[b][k] = Math.max(bound[b][k], bank.slotBound(c, slot[k]));
+				}
+				batchBound[k] = Math.max(batchBound[k], bound[b][k]);
+			}
+			todo.add(k);
+		}
+		todo.sort((a, b) -> Double.compare(batchBound[b], batchBound[a]));
+		
+		for (int k : todo) {
+			for (int b = 0; b < g; b++) {
+				PriorityQueue<Double> best = top.get(b);
+				double floor = (best.size() >= n) ? best.peek() : Double.NEGATIVE_INFINITY;
+				if (!RasterTemplateBank.canReach(bound[b][k], floor)) {
+					continue;
+				}
+				//scores under the floor come back as -Infinity, they can't matter for the max
+				RasterTemplateBank.Candidate[] group = cands[b];
+				double largest = bank.slotScore(group[0], slot[k], floor);
+				for (int i = 1; i < group.length; i++) {
+					largest = Math.max(largest, bank.slotScore(group[i], slot[k], floor));
+				}
+				if (largest == Double.NEGATIVE_INFINITY) {
+					continue;
+				}
+				score[b][k] = largest;
+				scored[b][k] = true;
+				offer(best, n, largest);
+			}
+		}
+		
+		List<List<Entry<Character, Number>>> results = new ArrayList<>(g);
+		for (int b = 0; b < g; b++) {
+			List<Entry<Character, Number>> ranks = new ArrayList<>();
+			for (int k = 0; k < m; k++) {
+				if (scored[b][k]) {
+					ranks.add(new AbstractMap.SimpleImmutableEntry<Character, Number>(chars.get(k), score[b][k]));
+				}
+			}
+			ranks.sort((x, y) -> -Double.compare(x.getValue().doubleValue(), y.getValue().doubleValue()));
+			results.add(new ArrayList<>(ranks.subList(0, n)));
+		}
+		return results;
+	}
+	
+	private static void offer(PriorityQueue<Double> top, int n, double score) {
+		top.add(score);
+		if (top.size() > n) {
+			top.poll();
+		}
+	}
+	
+	@Override
+	public boolean hasScoreAbove(Bitmap r, double cutoff) {
+		RasterTemplateBank bank = templateBank;
+		return hasScoreAbove(bank, bank.prepare(r.getScaled(DEF_WIDTH, DEF_HEIGHT)), cutoff);
+	}
+	
+	/**
+	 * Same check as {@link #hasScoreAbove(Bitmap, double)}, and when it passes the
+	 * rest of the ranking is scored with the same prepared bitmap.
+	 */
+	@Override
+	public Optional<Map<Character, Number>> getRankingIfAbove(Bitmap r, double cutoff) {
+		RasterTemplateBank bank = templateBank;
+		RasterTemplateBank.Candidate c = bank.prepare(r.getScaled(DEF_WIDTH, DEF_HEIGHT));
+		if (!hasScoreAbove(bank, c, cutoff)) {
+			return Optional.empty();
+		}
+		double[] best = new double[bank.slotCount()];
+		for (int s = 0; s < best.length; s++) {
+			best[s] = bank.slotScore(c, s, Double.NEGATIVE_INFINITY);
+		}
+		return Optional.of(ranking(bank, best));
+	}
+	
+	private boolean hasScoreAbove(RasterTemplateBank bank, RasterTemplateBank.Candidate c, double cutoff) {
+		List<Integer> slots = new ArrayList<>();
+		for (Character ch : _alphabet) {
+			int s = bank.slotOf(ch);
+			if (s < 0) {
+				if (0.0 > cutoff) return true;
+			} else {
+				slots.add(s);
+			}
+		}
+		double[] bound = new double[bank.slotCount()];
+		for (int s : slots) {
+			bound[s] = bank.slotBound(c, s);
+		}
+		slots.sort((a, b) -> Double.compare(bound[b], bound[a]));
+		for (int s : slots) {
+			if (!RasterTemplateBank.canReach(bound[s], cutoff)) {
+				return false;
+			}
+			if (bank.slotScore(c, s, cutoff) > cutoff) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	public static void debugPrintBmap(int[][] test) {
@@ -377,49 +595,6 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 	
 	
 	
-	private double correlation(BitmapScaled bms, Character c){
-
-		List<RasterChar> rcl = charVal.get(c);
-		if(rcl==null){
-			return 0;
-		}
-		List<int[]> xys = bms.xys;
-		int[][] ccount = bms.ccount;
-		int total = bms.tcount;
-		int twidth = bms.twidth;
-		int theight = bms.theight;
-
-		double maxCor = Double.MIN_VALUE;
-		for (RasterChar rc: rcl) {
-			int[][] cM = rc.data;
-			double cor = 0;
-			int sum=0;
-			for(int[] xy : xys){
-				cor +=cM[xy[0]][xy[1]]*xy[2];
-			}
-
-			
-			for(int i=0;i<DEF_WIDTH;i++){
-				for(int j=0;j<DEF_HEIGHT;j++){
-					int val=cM[i][j];
-					sum+=val*val*ccount[i][j];
-				}
-			}
-			int totalC=sum;
-			
-			double whrat = (double) twidth / (double) theight;
-			whrat = (rc.rect.getWidth()/rc.rect.getHeight()) / whrat;
-			if (whrat > 1) {
-				whrat = 1 / whrat;
-			}
-			whrat = 1 - Math.pow(1 - whrat, 2);
-
-			double tcor = whrat * cor / (Math.sqrt(total) * Math.sqrt(totalC));
-			maxCor = Math.max(tcor, maxCor);
-		}
-		return maxCor;
-	}
-
 //	public double correlation(Bitmap test, Character c) {
 //		int twidth = test.width();
 //		int theight = test.height();
@@ -0,0 +1,382 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+/**
+ * All of the templates of a {@link RasterBasedCosineSCOCR} compiled into flat
+ * primitive arrays, so that a candidate can be scored against every template
+ * in one pass.
+ *
+ * <p>
+ * Template t, cell (i,j) is at <code>t*CELLS + i*height + j</code>. The squared
+ * template values and the width/height ratio of each template are computed once
+ * here instead of on every call. The templates of each character are contiguous.
+ * </p>
+ *
+ * The correlation and energy of a template are sums of int products, so they are exact
+ * whatever order the cells are added in, and the score is always computed from them
+ * with the same expression. A template gets the same score however the bank is searched.
+ *
+ * <p>
+ * A template's score is its aspect ratio penalty <code>whrat</code> times a cosine,
+ * and that cosine can't be more than 1, so <code>whrat</code> is an upper bound on
+ * the score that only depends on the template's aspect ratio. How densely the
+ * candidate fills its cells bounds the cosine itself, and the energy of just the
+ * cells that are on bounds it more tightly. Templates (and whole characters)
+ * whose bound can't beat what is already known are skipped, see
+ * {@link #slotScore(Candidate, int, double)}.
+ * </p>
+ *
+ * <p>
+ * Candidates with enough cells on are also laid out densely, so they can be
+ * scored with a {@link CorrelationKernel}, which uses SIMD lanes when the vector
+ * one is there. That is only done when the int sum can't overflow, so
+ * the scores are the same either way.
+ * </p>
+ */
+final class RasterTemplateBank {
+	private final int width;
+	private final int height;
+	private final int cells;
+
+	private final Map<Character,Integer> slots = new HashMap<>();
+	//templates of slot s are slotStart[s] to slotStart[s+1]-1
+	private final int[] slotStart;
+	private final int[] data;
+	private final int[] squared;
+	private final double[] aspect;
+	//cells where the template isn't 0, as bit masks of maskWords longs per template
+	private final long[] support;
+	private final int maskWords;
+	private final int maxSquared;
+	private final int maxAbs;
+	private final boolean nonNegative;
+	//null to only score sparsely
+	private final CorrelationKernel kernel;
+
+	//the energy of a template only depends on the candidate's width and height,
+	//not on which pixels are on, so it is kept per size. -1 until it's needed
+	private final Map<Long,int[]> energyBySize = new ConcurrentHashMap<>();
+	private static final int MAX_CACHED_SIZES = 1024;
+
+	//slack for rounding in the cosine, bounds are only trusted to this much
+	private static final double BOUND_SLACK = 1e-9;
+
+	//candidates with at least 1/DENSE_FRACTION of the cells on are scored densely
+	private static final int DENSE_FRACTION = 16;
+
+	RasterTemplateBank(Map<Character, List<RasterChar>> charVal, int width, int height){
+		this(charVal, width, height, CorrelationKernel.vector());
+	}
+
+	/**
+	 * @param kernel the kernel for dense scoring, null to always
+	 * go over the cells that are on one by one.
+	 */
+	RasterTemplateBank(Map<Character, List<RasterChar>> charVal, int width, int height, CorrelationKernel kernel){
+		this.width=width;
+		this.height=height;
+		this.cells=width*height;
+		this.kernel=kernel;
+
+		List<RasterChar> all = new ArrayList<>();
+		List<Integer> starts = new ArrayList<>();
+		for(Map.Entry<Character, List<RasterChar>> e: charVal.entrySet()){
+			slots.put(e.getKey(), starts.size());
+			starts.add(all.size());
+			all.addAll(e.getValue());
+		}
+		starts.add(all.size());
+
+		slotStart = starts.stream().mapToInt(i->i).toArray();
+		data = new int[all.size()*cells];
+		squared = new int[all.size()*cells];
+		aspect = new double[all.size()];
+		maskWords = (cells+63)>>>6;
+		support = new long[all.size()*maskWords];
+
+		int maxSq = 0;
+		int maxA = 0;
+		boolean nonNeg = true;
+		for(int t=0;t<all.size();t++){
+			RasterChar rc = all.get(t);
+			int base = t*cells;
+			for(int i=0;i<width;i++){
+				for(int j=0;j<height;j++){
+					int val = rc.data[i][j];
+					int k = i*height + j;
+					data[base + k] = val;
+					squared[base + k] = val*val;
+					if(val!=0){
+						support[t*maskWords + (k>>>6)] |= 1L<<(k&63);
+					}
+					maxSq = Math.max(maxSq, val*val);
+					maxA = Math.max(maxA, Math.abs(val));
+					nonNeg &= val>=0;
+				}
+			}
+			aspect[t] = rc.rect.getWidth()/rc.rect.getHeight();
+		}
+		maxSquared = maxSq;
+		maxAbs = maxA;
+		nonNegative = nonNeg;
+	}
+
+	/**
+	 * A candidate bitmap flattened for scoring, along with the upper
+	 * bound of its score against each template.
+	 */
+	final class Candidate{
+		private final int n;
+		private final int[] onCell;
+		private final int[] onCount;
+		private final int[] ccount;
+		private final double whratC;
+		private final double sqrtTotal;
+		//whether the bounds below hold, see the constructor
+		private final boolean trusted;
+		//+Infinity for templates that would give NaN, or for all of them if the bounds can't be trusted
+		private final double[] bound;
+		//null if not trusted
+		private final int[] energy;
+		//on pixels of each cell and ccount of just the cells that are on,
+		//null unless scored densely
+		private final int[] dense;
+		private final int[] denseCcount;
+
+		private Candidate(BitmapScaled bms){
+			if(bms.swidth()!=width || bms.sheight()!=height){
+				throw new IllegalArgumentException("scaled to " + bms.swidth() + "x" + bms.sheight() + " not " + width + "x" + height);
+			}
+			//same cell numbering, so the scaled bitmap's arrays are used as they are
+			n = bms.onCell().length;
+			onCell = bms.onCell();
+			onCount = bms.onCount();
+			ccount = bms.ccount();
+			long[] cmask = new long[maskWords];
+			for(int k=0;k<cells;k++){
+				if(ccount[k]!=0){
+					cmask[k>>>6] |= 1L<<(k&63);
+				}
+			}
+
+			whratC = (double) bms.twidth() / (double) bms.theight();
+			sqrtTotal = Math.sqrt(bms.tcount());
+
+			//the energy sum is an int, if it could overflow the cosine could be anything
+			trusted = nonNegative && bms.tcount()>0
+					&& (long)maxSquared*bms.twidth()*bms.theight() <= Integer.MAX_VALUE;
+			energy = trusted?energyFor(bms.twidth(), bms.theight()):null;
+
+			//a dense pass costs about the same whatever is on, so it's only worth it
+			//for candidates with enough cells on. The correlation is summed as an
+			//int there, which is exact if it can't be more than maxAbs*tcount
+			if(kernel!=null && n>=cells/DENSE_FRACTION
+					&& (long)maxAbs*bms.tcount() <= Integer.MAX_VALUE){
+				dense = new int[cells];
+				denseCcount = new int[cells];
+				for(int k=0;k<n;k++){
+					dense[onCell[k]] = onCount[k];
+					denseCcount[onCell[k]] = ccount[onCell[k]];
+				}
+			}else{
+				dense = null;
+				denseCcount = null;
+			}
+
+			//By Cauchy-Schwarz the cosine is at most sqrt(sum(on^2/area)/total) over the
+			//cells, which is 1 only when every cell with on pixels is completely filled.
+			//Thin strokes in a big box, like most bonds, can't score high against anything.
+			double density = 0;
+			for(int k=0;k<n;k++){
+				density += (double)onCount[k]*onCount[k]/ccount[onCell[k]];
+			}
+			density = Math.sqrt(density/bms.tcount());
+
+			int templates = aspect.length;
+			bound = new double[templates];
+			for(int t=0;t<templates;t++){
+				if(!trusted){
+					bound[t]=Double.POSITIVE_INFINITY;
+					continue;
+				}
+				boolean overlaps=false;
+				for(int w=0;w<maskWords && !overlaps;w++){
+					overlaps = (support[t*maskWords + w] & cmask[w])!=0;
+				}
+				//no overlap means a 0 energy sum, which is 0/0
+				bound[t] = overlaps?whrat(aspect[t], whratC)*density:Double.POSITIVE_INFINITY;
+			}
+		}
+	}
+
+	Candidate prepare(BitmapScaled bms){
+		return new Candidate(bms);
+	}
+
+	private int[] energyFor(int twidth, int theight){
+		long key = ((long)twidth<<32) | theight;
+		int[] e = energyBySize.get(key);
+		if(e==null){
+			if(energyBySize.size()>=MAX_CACHED_SIZES){
+				energyBySize.clear();
+			}
+			e = new int[aspect.length];
+			Arrays.fill(e, -1);
+			int[] old = energyBySize.putIfAbsent(key, e);
+			if(old!=null){
+				e=old;
+			}
+		}
+		return e;
+	}
+
+	/**
+	 * The slot of the given character, used to look up its score in
+	 * the array returned by {@link #bestScores(BitmapScaled)}.
+	 * @return the slot, or -1 if there aren't any templates for it.
+	 */
+	int slotOf(Character c){
+		Integer s = slots.get(c);
+		return (s==null)?-1:s;
+	}
+
+	/**
+	 * The number of slots, slots are numbered from 0.
+	 */
+	int slotCount(){
+		return slotStart.length-1;
+	}
+
+	/**
+	 * An upper bound (within rounding) of the score of the slot.
+	 * This is +Infinity if the score could be NaN.
+	 */
+	double slotBound(Candidate c, int s){
+		double b = Double.NEGATIVE_INFINITY;
+		for(int t=slotStart[s];t<slotStart[s+1];t++){
+			b = Math.max(b, c.bound[t]);
+		}
+		return b;
+	}
+
+	/**
+	 * Whether a score that can be up to the given bound could be
+	 * at least the threshold.
+	 */
+	static boolean canReach(double bound, double threshold){
+		return !(bound*(1+BOUND_SLACK) < threshold);
+	}
+
+	/**
+	 * Score the candidate against every template.
+	 * @return the best cosine score of each slot.
+	 */
+	double[] bestScores(BitmapScaled bms){
+		Candidate c = prepare(bms);
+		double[] best = new double[slotCount()];
+		for(int s=0;s<best.length;s++){
+			best[s]=slotScore(c, s, Double.NEGATIVE_INFINITY);
+		}
+		return best;
+	}
+
+	/**
+	 * The best cosine score of the candidate against the templates of
+	 * the slot, if it is at least the floor. Templates that can't beat both the
+	 * floor and the best score so far aren't scored, or are only scored
+	 * until that is clear.
+	 *
+	 * @return the exact score, or -Infinity if the score is under the floor.
+	 */
+	double slotScore(Candidate c, int s, double floor){
+		double maxCor = Double.MIN_VALUE;
+		for(int t=slotStart[s];t<slotStart[s+1];t++){
+			double limit = Math.max(maxCor, floor);
+			if(!canReach(c.bound[t], limit)){
+				continue;
+			}
+			double tcor = score(c, t, limit);
+			maxCor = Math.max(tcor, maxCor);
+			if(Double.isNaN(maxCor)){
+				//NaN sticks, nothing else matters
+				return maxCor;
+			}
+		}
+		//anything skipped was under the floor too
+		return (maxCor<floor)?Double.NEGATIVE_INFINITY:maxCor;
+	}
+
+	/**
+	 * The exact score, or -Infinity if it is certainly under the limit.
+	 */
+	private double score(Candidate c, int t, double limit){
+		int base = t*cells;
+		double whrat = whrat(aspect[t], c.whratC);
+		double cor = correlation(c, base);
+		int sum = (c.energy==null)?-1:c.energy[t];
+		if(sum>=0){
+			return whrat * cor / (c.sqrtTotal * Math.sqrt(sum));
+		}
+		//the energy of just the cells that are on already gives a bound,
+		//the rest of the energy can only make the score smaller
+		if(c.trusted && !canReach(whrat * cor / (c.sqrtTotal * Math.sqrt(onEnergy(c, base))), limit)){
+			return Double.NEGATIVE_INFINITY;
+		}
+		sum = energy(c, base);
+		if(c.energy!=null){
+			c.energy[t]=sum;
+		}
+
+		return whrat * cor / (c.sqrtTotal * Math.sqrt(sum));
+	}
+
+	private double correlation(Candidate c, int base){
+		if(c.dense!=null){
+			return kernel.dot(data, base, c.dense, cells);
+		}
+		double cor = 0;
+		for(int k=0;k<c.n;k++){
+			cor += data[base + c.onCell[k]]*c.onCount[k];
+		}
+		return cor;
+	}
+
+	private int onEnergy(Candidate c, int base){
+		if(c.denseCcount!=null){
+			return kernel.dot(squared, base, c.denseCcount, cells);
+		}
+		int sum=0;
+		for(int k=0;k<c.n;k++){
+			sum += squared[base + c.onCell[k]]*c.ccount[c.onCell[k]];
+		}
+		return sum;
+	}
+
+	private int energy(Candidate c, int base){
+		if(kernel!=null){
+			return kernel.dot(squared, base, c.ccount, cells);
+		}
+		int sum=0;
+		for(int k=0;k<cells;k++){
+			sum += squared[base + k]*c.ccount[k];
+		}
+		return sum;
+	}
+
+	private static double whrat(double aspect, double whratC){
+		double whrat = aspect / whratC;
+		if (whrat > 1) {
+			whrat = 1 / whrat;
+		}
+		return 1 - Math.pow(1 - whrat, 2);
+	}
+}
@@ -1,5 +1,6 @@
 package gov.nih.ncats.molvec.ui;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -8,8 +9,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 import gov.nih.ncats.molvec.internal.algo.Tuple;
@@ -30,6 +35,11 @@ import gov.nih.ncats.molvec.internal.algo.Tuple;
  */
 public interface SCOCR {
 
+	/**
+	 * Batches bigger than this are scored in parallel by {@link #getNBestMatchesForEach(int, List)}.
+	 */
+	public static final int PARALLEL_BATCH_SIZE = 20;
+
 	public static Set<Character> SET_ALPHA_UPPER() {
 		Set<Character> toRet = new LinkedHashSet<Character>();
 		for (char c = 'A'; c <= 'Z'; c++) {
@@ -117,6 +127,24 @@ public interface SCOCR {
 		return map[0];
 	}
 	
+	/**
+	 * The n best characters after merging the rankings, taking the best score
+	 * each character gets in any of them. Same result as {@link #bestOf(Map...)}
+	 * followed by {@link #sortMap(Map)}, but leaves the rankings alone.
+	 */
+	public static List<Entry<Character, Number>> nBestOf(int n, List<Map<Character, Number>> rankings) {
+		List<Entry<Character, Number>> merged = new ArrayList<Entry<Character, Number>>();
+		for (Entry<Character, Number> e : rankings.get(0).entrySet()) {
+			double largest = e.getValue().doubleValue();
+			for (int i = 1; i < rankings.size(); i++) {
+				largest = Math.max(largest, rankings.get(i).get(e.getKey()).doubleValue());
+			}
+			merged.add(new AbstractMap.SimpleImmutableEntry<Character, Number>(e.getKey(), largest));
+		}
+		merged.sort((a, b) -> -Double.compare(a.getValue().doubleValue(), b.getValue().doubleValue()));
+		return new ArrayList<Entry<Character, Number>>(merged.subList(0, n));
+	}
+	
 	public static List<Entry<Character, Number>> sortMap(
 			Map<Character, Number> rmap) {
 		List<Entry<Character, Number>> ranks = new ArrayList<Entry<Character, Number>>(
@@ -149,27 +177,77 @@ public interface SCOCR {
 		return getNBestMatches(1, r).get(0);
 	}
 	public default List<Entry<Character, Number>> getNBestMatches(int n, Bitmap... r) {
-		Map[] g = new Map[r.length];
-		for (int i = 0; i < r.length; i++) {
-			g[i] = getRanking(r[i]);
+		List<Map<Character, Number>> rankings = new ArrayList<Map<Character, Number>>(r.length);
+		for (Bitmap b : r) {
+			rankings.add(getRanking(b));
 		}
-		List<Entry<Character, Number>> retRanks = new ArrayList<Entry<Character, Number>>();
-		List<Entry<Character, Number>> ranks = sortMap(bestOf(g));
-		for (int i = 0; i < n; i++) {
-			retRanks.add(ranks.get(i));
-		}
-		return retRanks;
+		return nBestOf(n, rankings);
+	}
+	/**
+	 * {@link #getNBestMatches(int, Bitmap...)} for each of the bitmap groups in the batch,
+	 * in the same order. By default this is just a map over the batch, run on a
+	 * parallel stream for big batches, so callers shouldn't parallelize the calls
+	 * themselves. Implementations may share work between the groups of the batch,
+	 * {@link RasterBasedCosineSCOCR} scores the whole batch in one pass over its templates.
+	 */
+	public default List<List<Entry<Character, Number>>> getNBestMatchesForEach(int n, List<Bitmap[]> batch) {
+		Stream<Bitmap[]> stream = (batch.size() > PARALLEL_BATCH_SIZE) ? batch.parallelStream() : batch.stream();
+		return stream.map(r -> getNBestMatches(n, r))
+				.collect(Collectors.toList());
+	}
+	/**
+	 * Whether any character of {@link #getRanking(Bitmap)} scores more
+	 * than the cutoff. Implementations may answer this without scoring
+	 * every character.
+	 */
+	public default boolean hasScoreAbove(Bitmap r, double cutoff) {
+		return getRanking(r).values()
+				.stream()
+				.anyMatch(n->n.doubleValue()>cutoff);
+	}
+	/**
+	 * {@link #getRanking(Bitmap)} if any character scores more than the cutoff,
+	 * otherwise empty. Implementations may find out that nothing is over
+	 * the cutoff without scoring every character, like {@link #hasScoreAbove(Bitmap, double)}.
+	 */
+	public default Optional<Map<Character, Number>> getRankingIfAbove(Bitmap r, double cutoff) {
+		Map<Character, Number> ranking = getRanking(r);
+		boolean above = ranking.values()
+				.stream()
+				.anyMatch(n->n.doubleValue()>cutoff);
+		return above ? Optional.of(ranking) : Optional.empty();
 	}
 	
+	/**
+	 * A cascade of SCOCRs, each bitmap is answered by the first one that gives
+	 * it a score over the cutoff, or by the last one if none do. Later SCOCRs
+	 * are only consulted when the earlier ones aren't confident, and
+	 * {@link #getTierCounts()} says how often that happens.
+	 */
 	public static class OrElseSCOCR implements SCOCR{
 		private double keepCutoff =0.6;
 		
 		List<SCOCR> scocrList = new ArrayList<>();
+		//lookups answered by each tier, the deepest tier any bitmap needed
+		private final AtomicLongArray tierCounts;
 		
 		
 		public OrElseSCOCR(List<SCOCR> scocrlist, double c){
 			this.scocrList=scocrlist;
 			keepCutoff=c;
+			tierCounts = new AtomicLongArray(Math.max(1, scocrlist.size()));
+		}
+		
+		/**
+		 * How many lookups each SCOCR answered so far, in order. A lookup
+		 * counts for the last SCOCR any of its bitmaps needed.
+		 */
+		public long[] getTierCounts(){
+			long[] counts = new long[scocrList.size()];
+			for(int i=0;i<counts.length;i++){
+				counts[i]=tierCounts.get(i);
+			}
+			return counts;
 		}
 		
 		@Override
@@ -189,17 +267,108 @@ public interface SCOCR {
 
 		@Override
 		public Map<Character, Number> getRanking(Bitmap r) {
-			Map<Character, Number> res=new HashMap<>();
-			for(SCOCR s:scocrList){
-				res=s.getRanking(r);
-				boolean pres=res.values()
-				   .stream()
-				   .filter(n->n.doubleValue()>this.keepCutoff)
-				   .findAny()
-				   .isPresent();
-				if(pres)return res;
+			if(scocrList.isEmpty()){
+				return new HashMap<>();
+			}
+			int last = scocrList.size() - 1;
+			for(int i=0;i<last;i++){
+				Optional<Map<Character, Number>> res=scocrList.get(i).getRankingIfAbove(r, this.keepCutoff);
+				if(res.isPresent()){
+					tierCounts.incrementAndGet(i);
+					return res.get();
+				}
 			}
-			return res;
+			tierCounts.incrementAndGet(last);
+			return scocrList.get(last).getRanking(r);
+		}
+
+		/**
+		 * Same as the default, but each bitmap is only scored by the SCOCRs
+		 * up to the one that answers it, and when every bitmap falls through
+		 * to the last SCOCR its own (possibly faster) {@link #getNBestMatches(int, Bitmap...)}
+		 * is used.
+		 */
+		@Override
+		public List<Entry<Character, Number>> getNBestMatches(int n, Bitmap... r) {
+			if (scocrList.isEmpty()) {
+				return SCOCR.super.getNBestMatches(n, r);
+			}
+			List<Map<Character, Number>> rankings = earlierTierRankings(r);
+			if (fellThrough(r, rankings)) {
+				return scocrList.get(scocrList.size() - 1).getNBestMatches(n, r);
+			}
+			return nBestOf(n, lastTierRankings(r, rankings));
+		}
+		
+		/**
+		 * Same as {@link #getNBestMatches(int, Bitmap...)} for each group, but the groups
+		 * that fall through to the last SCOCR are handed to its
+		 * {@link #getNBestMatchesForEach(int, List)} together, as one batch.
+		 */
+		@Override
+		public List<List<Entry<Character, Number>>> getNBestMatchesForEach(int n, List<Bitmap[]> batch) {
+			if (scocrList.isEmpty()) {
+				return SCOCR.super.getNBestMatchesForEach(n, batch);
+			}
+			Stream<Bitmap[]> stream = (batch.size() > PARALLEL_BATCH_SIZE) ? batch.parallelStream() : batch.stream();
+			List<List<Map<Character, Number>>> rankings = stream.map(this::earlierTierRankings)
+					.collect(Collectors.toList());
+			
+			List<Integer> fellThrough = new ArrayList<>();
+			List<Integer> answered = new ArrayList<>();
+			for (int i = 0; i < batch.size(); i++) {
+				(fellThrough(batch.get(i), rankings.get(i)) ? fellThrough : answered).add(i);
+			}
+			List<List<Entry<Character, Number>>> results = new ArrayList<>(Collections.nCopies(batch.size(), null));
+			if (!fellThrough.isEmpty()) {
+				List<List<Entry<Character, Number>>> scored = scocrList.get(scocrList.size() - 1)
+						.getNBestMatchesForEach(n, fellThrough.stream().map(batch::get).collect(Collectors.toList()));
+				for (int k = 0; k < fellThrough.size(); k++) {
+					results.set(fellThrough.get(k), scored.get(k));
+				}
+			}
+			Stream<Integer> rest = (answered.size() > PARALLEL_BATCH_SIZE) ? answered.parallelStream() : answered.stream();
+			rest.forEach(i -> results.set(i, nBestOf(n, lastTierRankings(batch.get(i), rankings.get(i)))));
+			return results;
+		}
+		
+		/**
+		 * The ranking of each bitmap by the first SCOCR before the last one that is
+		 * confident about it, null where none of them is, and count the lookup.
+		 */
+		private List<Map<Character, Number>> earlierTierRankings(Bitmap[] r) {
+			int last = scocrList.size() - 1;
+			List<Map<Character, Number>> rankings = new ArrayList<Map<Character, Number>>(r.length);
+			int deepest = 0;
+			for (Bitmap b : r) {
+				//stays null if the last SCOCR answers it, that one is only scored later
+				Map<Character, Number> ranking = null;
+				int tier = last;
+				for (int i = 0; i < last && ranking == null; i++) {
+					ranking = scocrList.get(i).getRankingIfAbove(b, this.keepCutoff).orElse(null);
+					if (ranking != null) tier = i;
+				}
+				rankings.add(ranking);
+				deepest = Math.max(deepest, tier);
+			}
+			tierCounts.incrementAndGet(deepest);
+			return rankings;
+		}
+		
+		private static boolean fellThrough(Bitmap[] r, List<Map<Character, Number>> rankings) {
+			return r.length > 0 && rankings.stream().allMatch(m -> m == null);
+		}
+		
+		/**
+		 * Fill in the rankings the earlier SCOCRs left out with the last one.
+		 */
+		private List<Map<Character, Number>> lastTierRankings(Bitmap[] r, List<Map<Character, Number>> rankings) {
+			for (int i = 0; i < r.length; i++) {
+				if (rankings.get(i) == null) {
+					rankings.set(i, scocrList.get(scocrList.size() - 1).getRanking(r[i]));
+				}
+			}
+			return rankings;
 		}
 	}
 	
@@ -210,6 +379,13 @@ public interface SCOCR {
 		return new OrElseSCOCR(nlist,cut);
 	}
 	
+	/**
+	 * Remember the results of {@link #getNBestMatches(int, Bitmap...)}, see {@link CachedSCOCR}.
+	 */
+	public default CachedSCOCR cached(int maxEntries){
+		return new CachedSCOCR(this, maxEntries);
+	}
+	
 	public default SCOCR adjustWeights(Function<Tuple<Character,Number>,Tuple<Character,Number>> transform){
 		SCOCR _this=this;
 		return new SCOCR(){
@@ -7,466 +7,469 @@ import java.util.regex.Pattern;
 
 public class StupidestPossibleSCOCRSansSerif extends AbstractStupidestPossibleSCOCR{
 
-	private static String[] raw=new String[]{"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
-			"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
-			"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
-			"+	MjB4MjAKMy44NTkzNzV4My44NzUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
-			"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
-			"+	MjB4MjAKNC4xNzE4NzV4NC4xODc1CjAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDUsNyw5LDksOSw3LDUsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw3LDgsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsMywzLDMsMywzLDUsNyw5LDksOSw3LDUsMywzLDMsMywzLDMsMwowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDA=", 
-			"-	MjB4MjAKMi40NTMxMjV4MS4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"-	MjB4MjAKMi4xMDkzNzV4MC42NDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"-	MjB4MjAKMi40NTMxMjV4MS4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"-	MjB4MjAKMS44OTA2MjV4MC41NzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"-	MjB4MjAKMi4xMDkzNzV4MC42NDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"-	MjB4MjAKMi4yMDMxMjV4MC44OTA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==",
-			
-			//Added explicitly
-			"-	MjB4MjAKNTIuMHgyMS4wCjAsMiw0LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAowLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAKMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwoxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAKMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAo2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAKNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwCjcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAozLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwCjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDA=",
-			"-	MjB4MjAKNTguMHgxOC4wCjMsNSw3LDgsOSw5LDksNiw2LDYsOSw5LDksOCw1LDIsMCwwLDAsMAo2LDgsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksNiwzLDAsMCwwLDAKNyw5LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDYsMywwLDAsMCwwCjYsOCw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw2LDMsMCwwLDAsMAo0LDcsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksNyw1LDMsMiwxLDAKNCw3LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDgsNyw2LDQsMiwwCjUsOCw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw5LDksOSw2LDMsMAo1LDgsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksOSw5LDksNiwzLDAKNiw4LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDksOSw4LDUsMiwwCjYsOCw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw5LDgsNiwzLDEsMAo3LDksOSw5LDksOSw5LDYsNiw2LDksOSw5LDksOCw2LDMsMSwwLDAKNSw4LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDcsNCwxLDAsMCwwCjQsNyw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw3LDQsMSwwLDAsMAozLDYsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksOCw2LDQsMiwxLDAKMyw2LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDksOCw2LDMsMSwwCjMsNiw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw4LDcsNSwzLDEsMAozLDYsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksNyw1LDIsMSwwLDAKMyw2LDksOSw5LDksOSw2LDYsNiw5LDksOSw4LDUsMiwwLDAsMCwwCjMsNiw5LDksOSw5LDksNiw2LDYsOSw5LDksNyw0LDEsMCwwLDAsMAozLDYsOSw5LDksOSw5LDYsNiw2LDksOSw5LDYsMywwLDAsMCwwLDA",
-			"-	MjB4MjAKMjkuMHgxMi4wCjIsNSwzLDYsNiw2LDYsMyw2LDYsNiw1LDIsNCw0LDQsNCwyLDIsMAozLDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMywzLDAKMyw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsMywwCjIsNSwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDMsMAoxLDMsMiw1LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMywzLDAKMCwyLDIsNSw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsMywwCjEsMywyLDUsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNSwyLDIsMAoxLDQsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDUsMiwyLDAKMiw1LDMsNiw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw1LDIsMiwwCjIsNSwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDMsMAoyLDQsMiw1LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMywzLDAKMiw0LDIsNSw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsMywwCjIsNCwyLDUsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDMsMAoyLDUsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMywzLDAKMSwzLDIsNSw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsMywwCjAsMiwyLDUsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDMsMAoxLDMsMiw1LDYsNiw2LDMsNiw2LDYsNiwzLDYsNSw1LDQsMiwyLDAKMiw1LDMsNiw2LDYsNiwzLDYsNiw2LDYsMyw2LDQsNCwyLDEsMSwwCjMsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsNiwzLDMsMCwwLDAsMAozLDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDYsMywzLDAsMCwwLDA",
-			"-	MjB4MjAKMjUuMHgxMS4wCjEsNCwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsNiwzLDMsMAoxLDQsMyw2LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDYsMywzLDAKMyw1LDMsNiwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMyw2LDMsMywwCjUsNiwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsNiwzLDMsMAo2LDYsMyw2LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDUsMiwyLDAKNiw2LDMsNiwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMyw0LDEsMSwwCjYsNiwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsMywwLDAsMAo1LDYsMyw2LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDMsMCwwLDAKNSw2LDMsNiwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMywzLDAsMCwwCjUsNiwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsMywwLDAsMAo1LDYsMyw2LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDQsMSwxLDAKMyw0LDIsNSwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMyw1LDIsMiwwCjIsNCwyLDUsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsNSwyLDIsMAozLDQsMiw1LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDQsMSwxLDAKNSw2LDMsNiwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMyw0LDEsMSwwCjQsNSwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsNCwxLDEsMAoyLDMsMiw1LDMsNiwzLDYsNiw2LDYsMyw2LDMsNSwyLDMsMSwxLDAKMCwxLDEsNCwzLDYsMyw2LDYsNiw2LDMsNiwzLDQsMSwxLDAsMCwwCjAsMCwwLDMsMyw2LDMsNiw2LDYsNiwzLDYsMywzLDAsMCwwLDAsMAowLDAsMCwzLDMsNiwzLDYsNiw2LDYsMyw2LDMsMywwLDAsMCwwLDA",
-			"-	MjB4MjAKMTYuMHg2LjAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwCjAsMywzLDMsMywzLDMsMCwzLDMsMywzLDMsMywxLDEsMSwwLDAsMAowLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMCwwLDAsMCwwLDAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDAsMCwwLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwwLDAsMCwwLDAsMAowLDMsMywzLDMsMywzLDAsMywzLDMsMywzLDMsMCwwLDAsMCwwLDAKMCwzLDMsMywzLDMsMywwLDMsMywzLDMsMywzLDEsMSwxLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwxLDEsMSwwLDAsMAowLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwCjAsMywzLDMsMywzLDMsMCwzLDMsMywzLDMsMywyLDIsMiwwLDAsMAowLDMsMywzLDMsMywzLDAsMywzLDMsMywzLDMsMiwyLDIsMCwwLDAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDEsMSwxLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMAowLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMSwxLDEsMCwwLDAKMCwyLDIsMiwzLDMsMywwLDMsMywzLDIsMiwyLDEsMSwxLDAsMCwwCjAsMSwxLDEsMywzLDMsMCwzLDMsMywxLDEsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDIsMiwyLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDEsMSwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA",
-		//	"-	MjB4MjAKOC4weDYuMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMiwyLDIsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMSwxLDEsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjIsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMSwxLDEsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMSwxLDEsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMSwxLDEsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
-			
-			"/	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw3LDUsNCwzCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"/	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAowLDEsMiw0LDYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"/	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw3LDUsNCwzCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"/	MjB4MjAKMi4zNDM3NXg1Ljk4NDM3NQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDYsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNSwzLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiw0LDIsMSwwLDAKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw2LDMsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjAsMCwxLDIsNCw2LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"/	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAowLDEsMiw0LDYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"/	MjB4MjAKMi43ODEyNXg2LjI5Njg3NQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOCw3LDYsNgowLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDYsNCwzLDMKMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMAowLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAKMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAozLDUsNyw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKNiw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
-			
-			
-			
-			//Added explicitly
-			"/	MjB4MjAKMTAuMHgxNi4wCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMiwyLDQsMywyLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDIsMiwzLDIsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsMyw0LDQsNiw0LDIsMCwwCjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDIsMiwyLDMsMiwxLDAsMAowLDAsMCwwLDEsMiwzLDIsMyw0LDYsNiw0LDQsNCw2LDUsMywxLDAKMCwwLDAsMCwxLDIsMywyLDIsMiwzLDMsMiwyLDIsMywzLDIsMSwwCjEsMiwyLDIsMyw1LDYsNCw0LDQsNiw2LDQsNCw0LDYsNiw0LDIsMAoxLDIsMiwyLDIsMywzLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwxLDAKNCw1LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsMiwwCjMsMywyLDIsMiwzLDMsMiwyLDIsMywzLDIsMiwyLDMsMywyLDEsMAo2LDYsNCw0LDQsNiw2LDQsNCw0LDYsNiw0LDMsMiwzLDMsMiwxLDAKMywzLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwxLDAsMCwwLDAsMCwwCjYsNiw0LDQsNCw2LDYsNCw0LDMsNCwzLDIsMSwwLDAsMCwwLDAsMAozLDMsMiwyLDIsMywzLDIsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDQsNCw0LDUsNCwyLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywyLDIsMiwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsNCwzLDIsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"/	MjB4MjAKMTQuMHg3LjAKNCwyLDIsMiwyLDIsMiwyLDIsMywzLDMsMCwwLDAsMCwwLDAsMCwwCjQsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwLDAsMCwwLDAsMAo0LDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMCwwLDAsMCwwLDAKNCwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAsMCwwLDAsMCwwCjQsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwLDAsMCwwLDAsMAozLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwxLDEsMSwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAsMCwwCjIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAsMCwwCjIsMiwyLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDEsMSwxLDAsMAoxLDEsMSwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwxLDEsMSwwLDAKMCwwLDAsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwCjAsMCwwLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMAowLDAsMCwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwwLDAKMCwwLDAsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwCjAsMCwwLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMAowLDAsMCwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwwLDAKMCwwLDAsMSwxLDEsMSwxLDEsMSwxLDEsMSwxLDEsMSwxLDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
-			"/	MjB4MjAKOS4weDE0LjAKMywzLDQsMywzLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMiwyLDIsMiwyLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo0LDQsNCw0LDQsNCwzLDMsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwyLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjQsNCw0LDQsNCw0LDQsNCw0LDMsNCwyLDEsMCwwLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDIsMiwyLDMsMiwxLDAsMCwwLDAsMCwwLDAKMywzLDQsNCw0LDQsNCw0LDQsNCw2LDQsMywyLDIsMiwxLDEsMCwwCjEsMSwyLDIsMiwyLDIsMiwyLDIsMywyLDIsMiwyLDIsMSwxLDAsMAoxLDEsMiwyLDIsMiwyLDIsMiwyLDMsMiwyLDIsMiwyLDEsMSwwLDAKMCwwLDAsMSwxLDIsMiwyLDIsMiwzLDIsMiwyLDIsMiwyLDIsMSwwCjAsMCwwLDEsMSwyLDIsMiwyLDIsMywyLDIsMiwyLDIsMiwyLDEsMAowLDAsMCwxLDEsMiwzLDMsNCw0LDYsNCw0LDQsNCw0LDMsMywxLDAKMCwwLDAsMCwwLDAsMSwxLDIsMiwzLDIsMiwyLDIsMiwxLDEsMCwwCjAsMCwwLDAsMCwwLDEsMSwyLDMsNSw0LDQsNCw0LDMsMSwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwxLDIsMiwyLDIsMiwxLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDMsNCw0LDQsMiwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDIsMiwyLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwyLDIsMiwxLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
-			"/	MjB4MjAKMTQuMHg2LjAKMCwyLDIsMiwzLDMsMywwLDMsMywzLDMsMywzLDIsMiwyLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMAowLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMAoxLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDEsMSwxLDAsMCwwCjIsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwxLDEsMSwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMCwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDIsMiwyLDEsMSwxLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsMCwzLDMsMywxLDEsMSwwLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwCjIsMiwyLDIsMiwyLDIsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjIsMiwyLDIsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
-
-			"/	MjB4MjAKMTAyLjB4OTYuMAo5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw2LDgsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDIsMywyLDEsMAowLDIsNSw4LDgsNiw0LDMsMywzLDMsMywzLDMsNCw1LDYsNSw0LDMKMCwxLDMsNiw4LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2CjAsMCwxLDQsNyw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMSw0LDcsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDIsNSw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMSw0LDcsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgoxLDMsNiw4LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMiw1LDgsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
-			"/	MjB4MjAKNTUuMHg5NS4wCjAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMiw1LDgsOCw3LDcsNyw3LDYsNyw3LDgsOCw5LDksOCw3LDYKMCwwLDMsNiw5LDcsNSw0LDQsNCwzLDQsNCw1LDUsNiw2LDUsNCwzCjAsMCwzLDYsOSw2LDMsMSwxLDEsMCwxLDEsMiwyLDMsMywyLDEsMAowLDEsNCw3LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo0LDcsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw4LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"/	MjB4MjAKNTUuMHg3OC4wCjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwxLDQsNyw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzCjAsMCwwLDMsNiw5LDcsNCwxLDAsMCwxLDIsMiwxLDAsMCwwLDAsMAowLDAsMSw0LDcsOSw2LDQsMiwzLDMsNCw1LDUsNCwzLDMsMywzLDMKMCwwLDIsNSw4LDgsNSw0LDQsNiw2LDcsOCw4LDcsNiw2LDYsNiw2CjAsMSw0LDcsOSw3LDQsNCw2LDksOSw5LDksOSw5LDksOSw5LDksOQowLDIsNSw4LDgsNSwyLDIsNCw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMSw0LDcsOSw3LDQsMSwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzCjIsNSw4LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-		//	"/	MjB4MjAKMTMuMHg4LjAKMCwwLDAsMCwwLDAsMCwwLDIsMiwzLDEsMSwxLDEsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwyLDIsNCwyLDIsMiwyLDMsMSwxLDAsMAowLDAsMCwwLDAsMSwxLDEsMiwyLDQsMiwyLDIsMiw0LDIsMiwwLDAKMCwwLDAsMCwwLDEsMSwxLDIsMiw0LDIsMiwyLDIsNCwyLDIsMCwwCjAsMCwwLDAsMCwyLDIsMiwyLDIsNCwyLDIsMiwyLDQsMiwyLDAsMAowLDAsMCwxLDEsMywyLDIsMiwyLDQsMiwyLDIsMiwzLDEsMSwwLDAKMCwwLDAsMSwxLDMsMiwyLDIsMiw0LDIsMiwyLDIsMywxLDEsMCwwCjAsMCwwLDIsMiw0LDIsMiwyLDIsNCwyLDIsMSwxLDEsMCwwLDAsMAoxLDEsMSwyLDIsNCwyLDIsMiwyLDQsMiwyLDAsMCwwLDAsMCwwLDAKMSwxLDEsMiwyLDQsMiwyLDIsMiw0LDIsMiwwLDAsMCwwLDAsMCwwCjIsMiwyLDIsMiw0LDIsMiwyLDIsMywxLDEsMCwwLDAsMCwwLDAsMAozLDIsMiwyLDIsNCwyLDIsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAKMywyLDIsMiwyLDQsMiwyLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwCjQsMiwyLDIsMiw0LDIsMiwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMAozLDIsMiwyLDIsNCwyLDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywyLDIsMiwyLDQsMiwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMSwxLDIsMiw0LDIsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDEsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSwxLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
-        //	"/	MjB4MjAKMjAuMHgxNi4wCjAsMCwwLDAsMCwwLDEsMSwzLDUsOCw5LDYsNiw2LDksNyw0LDEsMAowLDAsMCwwLDAsMCwyLDIsNSw2LDksOSw2LDYsNiw5LDgsNSwyLDAKMCwwLDAsMCwwLDEsNCw0LDYsNiw5LDksNiw2LDYsOSw5LDYsMywwCjAsMCwwLDAsMSwzLDYsNSw2LDYsOSw5LDYsNiw2LDksOSw2LDMsMAowLDAsMCwwLDIsNSw4LDYsNiw2LDksOSw2LDYsNiw5LDgsNSwyLDAKMCwwLDAsMCwzLDYsOSw2LDYsNiw5LDksNiw2LDYsOCw2LDMsMSwwCjAsMCwwLDEsNCw3LDksNiw2LDYsOSw5LDYsNiw2LDcsNCwxLDAsMAowLDEsMSwzLDUsOCw5LDYsNiw2LDksOSw2LDYsNSw1LDIsMCwwLDAKMCwyLDIsNSw2LDksOSw2LDYsNiw5LDksNiw2LDQsNCwxLDAsMCwwCjEsNCw0LDYsNiw5LDksNiw2LDYsOSw5LDYsNSwyLDIsMCwwLDAsMAoyLDUsNSw2LDYsOSw5LDYsNiw2LDksOCw1LDMsMSwxLDAsMCwwLDAKNCw3LDYsNiw2LDksOSw2LDYsNiw5LDcsNCwxLDAsMCwwLDAsMCwwCjUsOCw2LDYsNiw5LDksNiw2LDYsOCw1LDIsMCwwLDAsMCwwLDAsMAo3LDksNiw2LDYsOSw5LDYsNiw2LDcsNCwxLDAsMCwwLDAsMCwwLDAKNyw5LDYsNiw2LDksOSw2LDYsNSw1LDIsMCwwLDAsMCwwLDAsMCwwCjcsOSw2LDYsNiw5LDksNiw1LDMsMywxLDAsMCwwLDAsMCwwLDAsMAo1LDgsNiw2LDYsOSw4LDUsMywxLDEsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDYsNiw2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw2LDYsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDYsNiw2LDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			
-			"0	MjB4MjAKNC43OTY4NzV4Ni4wNDY4NzUKMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5LDkKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjYsOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDkKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
-			"0	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOCw3LDYsNyw4LDksOSw5LDgsNiwzLDEsMAozLDYsOCw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDgsNiw0LDMKNSw4LDgsNiw0LDMsMywyLDEsMCwxLDIsMywzLDQsNiw4LDgsNyw2CjYsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjUsOCw4LDYsNCwzLDMsMiwxLDAsMSwyLDMsMyw0LDYsOCw4LDcsNgozLDYsOCw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDgsNiw0LDMKMSwzLDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
-			"0	MjB4MjAKNC43OTY4NzV4Ni4wNDY4NzUKMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5LDkKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjYsOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDkKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
-			"0	MjB4MjAKMy43MTg3NXg1Ljg1OTM3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDgsNiwzLDEsMAozLDYsOCw4LDcsNiw1LDQsMywzLDMsNCw1LDYsNyw4LDgsNiw0LDMKNSw4LDgsNiw0LDMsMiwxLDAsMCwwLDEsMiwzLDQsNiw4LDgsNyw2CjYsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjUsOCw4LDYsNCwzLDIsMSwwLDAsMCwxLDIsMyw0LDYsOCw4LDcsNgozLDYsOCw4LDcsNiw1LDQsMywzLDMsNCw1LDYsNyw4LDgsNiw0LDMKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
-			"0	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOCw3LDYsNyw4LDksOSw5LDgsNiwzLDEsMAozLDYsOCw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDgsNiw0LDMKNSw4LDgsNiw0LDMsMywyLDEsMCwxLDIsMywzLDQsNiw4LDgsNyw2CjYsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjUsOCw4LDYsNCwzLDMsMiwxLDAsMSwyLDMsMyw0LDYsOCw4LDcsNgozLDYsOCw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDgsNiw0LDMKMSwzLDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
-			"0	MjB4MjAKNC4wMzEyNXg2LjE3MTg3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKNSw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2CjYsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsNCw1LDcsOCw5LDksOQo2LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQo3LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNyw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDkKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjUsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNgozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
-			"1	MjB4MjAKNC4xMDkzNzV4NS44MjgxMjUKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNiw2CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"1	MjB4MjAKMy40ODQzNzV4NS44MjgxMjUKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQo4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"1	MjB4MjAKNC4xMDkzNzV4NS44MjgxMjUKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNiw2CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"1	MjB4MjAKMS45Njg3NXg1LjY3MTg3NQowLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDEsNCw3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwoyLDUsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"1	MjB4MjAKMy40ODQzNzV4NS44MjgxMjUKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQo4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"1	MjB4MjAKMi4yODEyNXg1Ljk4NDM3NQowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDIsNSw4LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjMsNiw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"2	MjB4MjAKNC4yMzQzNzV4NS45Mzc1CjQsNiw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDksOCw4LDgsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDEsMyw2LDgsOSw4LDYsNiw3LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwyLDUsOCw5LDksNyw0LDQsNiw5LDksOQo2LDksOCw1LDIsMCwwLDEsNCw3LDksOSw4LDUsMiwzLDYsOSw5LDkKNiw5LDksNyw1LDMsMyw0LDYsOCw5LDksNyw0LDEsMyw2LDksOSw5CjYsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDUsMiwwLDMsNiw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwzLDYsOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwwLDMsNiw5LDksOQoyLDUsOCw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDkKMSwzLDYsOCw5LDksOSw4LDYsMywxLDAsMCwwLDAsMyw2LDksOSw5CjAsMSw0LDcsOSw5LDksNyw0LDEsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
-			"2	MjB4MjAKMy43MDMxMjV4NS45Mzc1CjMsNSw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOCw4LDgsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDYsNiw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsNyw0LDQsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDUsMiwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiwzLDEsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwyLDUsOCw3LDQsMSwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDEsNCw3LDgsNSwyLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMSwzLDYsOCw3LDQsMSwwLDAsMyw2LDksOQo2LDgsNiwzLDEsMCwxLDMsNiw4LDgsNSwyLDAsMCwwLDMsNiw5LDkKNSw4LDgsNiw0LDMsNCw2LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw5CjQsNyw5LDgsNyw2LDcsOCw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOQoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDMsNiw5LDkKMSwzLDYsOCw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwzLDYsOSw5CjAsMSw0LDcsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
-			"2	MjB4MjAKNC4yMzQzNzV4NS45Mzc1CjQsNiw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDksOCw4LDgsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDEsMyw2LDgsOSw4LDYsNiw3LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwyLDUsOCw5LDksNyw0LDQsNiw5LDksOQo2LDksOCw1LDIsMCwwLDEsNCw3LDksOSw4LDUsMiwzLDYsOSw5LDkKNiw5LDksNyw1LDMsMyw0LDYsOCw5LDksNyw0LDEsMyw2LDksOSw5CjYsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDUsMiwwLDMsNiw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwzLDYsOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwwLDMsNiw5LDksOQoyLDUsOCw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDkKMSwzLDYsOCw5LDksOSw4LDYsMywxLDAsMCwwLDAsMyw2LDksOSw5CjAsMSw0LDcsOSw5LDksNyw0LDEsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
-			"2	MjB4MjAKMy44MjgxMjV4NS42NzE4NzUKMCwxLDIsNCw1LDQsMiwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNiw2CjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwwLDAsMiw0LDcsOCw5LDksOQoyLDUsOCw5LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDkKNCw3LDksOCw3LDQsMiwwLDAsMCwwLDEsMyw2LDcsNyw3LDgsOSw5CjUsOCw4LDYsNCwyLDEsMCwwLDAsMCwyLDUsOCw3LDUsNSw3LDksOQo2LDgsNiwzLDEsMCwwLDAsMCwwLDEsNCw3LDgsNSwyLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwyLDUsOCw3LDQsMSwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDgsNSwyLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDcsNSwyLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDMsNiw4LDUsMiwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDAsMyw2LDksOQo2LDgsNiwzLDEsMCwxLDMsNiw3LDUsMiwwLDAsMCwwLDMsNiw5LDkKNSw4LDgsNiw0LDMsNCw2LDgsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjMsNiw4LDgsNyw2LDcsOCw4LDUsMiwwLDAsMCwwLDAsMyw2LDksOQoxLDMsNiw4LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDMsNiw5LDkKMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"2	MjB4MjAKMy43MDMxMjV4NS45Mzc1CjMsNSw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOCw4LDgsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDYsNiw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsNyw0LDQsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDUsMiwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiwzLDEsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwyLDUsOCw3LDQsMSwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDEsNCw3LDgsNSwyLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMSwzLDYsOCw3LDQsMSwwLDAsMyw2LDksOQo2LDgsNiwzLDEsMCwxLDMsNiw4LDgsNSwyLDAsMCwwLDMsNiw5LDkKNSw4LDgsNiw0LDMsNCw2LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw5CjQsNyw5LDgsNyw2LDcsOCw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOQoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDMsNiw5LDkKMSwzLDYsOCw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwzLDYsOSw5CjAsMSw0LDcsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
-			"2	MjB4MjAKNC4xNTYyNXg1Ljk4NDM3NQowLDAsMSwyLDQsNSw0LDIsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYKMCwxLDMsNSw3LDgsNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5CjEsMyw2LDgsOSw5LDYsMywwLDAsMCwxLDMsNiw4LDksOSw5LDksOQozLDYsOCw5LDksOSw2LDMsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDkKNSw4LDksOSw4LDcsNCwyLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5CjYsOSw4LDcsNSw0LDIsMSwwLDAsMiw1LDgsOSw4LDgsOCw5LDksOQo2LDksNyw1LDIsMSwwLDAsMCwxLDQsNyw5LDgsNiw2LDcsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMiw1LDgsOSw3LDQsNCw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDgsNSwyLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw3LDQsMSwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDIsNSw4LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMSw0LDcsOSw3LDQsMSwwLDMsNiw5LDksOQo2LDksNyw0LDEsMCwwLDIsNSw4LDksNiwzLDAsMCwzLDYsOSw5LDkKNiw5LDgsNiwzLDIsMiw1LDcsOSw4LDUsMiwwLDAsMyw2LDksOSw5CjYsOSw5LDgsNiw1LDUsNyw4LDksNyw0LDEsMCwwLDMsNiw5LDksOQo1LDgsOSw5LDgsOCw4LDksOSw4LDUsMiwwLDAsMCwzLDYsOSw5LDkKMyw2LDgsOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMyw2LDksOSw5CjEsMyw2LDgsOSw5LDksOCw2LDMsMSwwLDAsMCwwLDMsNiw5LDksOQowLDEsNCw3LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5", 
-			"3	MjB4MjAKNC40MDYyNXg2LjA0Njg3NQoyLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNCw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwyLDQsNiw0LDIsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwyLDUsOCw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMyw2LDksOSw3LDQsMSwwLDEsNCw3LDksOSw5CjYsOSw4LDYsNCwzLDUsNyw5LDksOCw2LDMsMiwzLDYsOCw5LDksOQo2LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDUsNiw4LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw5LDksOSw5LDcsNyw3LDksOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOSw5LDksOCw1LDQsNSw4LDksOSw5LDksOSw4LDUsMiwwCjIsNCw3LDgsOSw4LDYsMywyLDMsNiw4LDksOSw5LDgsNiwzLDEsMAoxLDIsNSw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCww", 
-			"3	MjB4MjAKMy44NDM3NXg2LjA0Njg3NQo0LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDEsNCw2LDgsNyw1LDIsMCwwLDAsMiw1LDgsOSw5CjUsOCw4LDYsNCw0LDYsNiw3LDcsNyw1LDMsMywzLDUsNyw4LDcsNgo0LDcsOSw4LDcsNyw4LDYsNSw1LDcsNyw2LDYsNiw3LDgsNyw1LDMKMiw1LDgsOSw5LDksOCw1LDMsNCw3LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDgsNiwzLDEsMAowLDEsNCw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCww", 
-			"3	MjB4MjAKNC40MDYyNXg2LjA0Njg3NQoyLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNCw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwyLDQsNiw0LDIsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwyLDUsOCw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMyw2LDksOSw3LDQsMSwwLDEsNCw3LDksOSw5CjYsOSw4LDYsNCwzLDUsNyw5LDksOCw2LDMsMiwzLDYsOCw5LDksOQo2LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDUsNiw4LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw5LDksOSw5LDcsNyw3LDksOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOSw5LDksOCw1LDQsNSw4LDksOSw5LDksOSw4LDUsMiwwCjIsNCw3LDgsOSw4LDYsMywyLDMsNiw4LDksOSw5LDgsNiwzLDEsMAoxLDIsNSw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCww", 
-			"3	MjB4MjAKMy43OTY4NzV4NS44NTkzNzUKMCwxLDIsNCw1LDQsMiwwLDAsMCwwLDAsMiw0LDYsNSwzLDEsMCwwCjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwwLDMsNiw5LDgsNiwzLDEsMAoyLDUsOCw5LDksNiwzLDAsMCwwLDAsMCwyLDUsOCw5LDgsNiw0LDMKNCw3LDgsNyw2LDQsMiwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNyw2CjUsNyw2LDQsMywyLDEsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMyw2LDksOQo4LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOCw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMSwxLDQsNyw5LDgsNSwyLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDQsNCw2LDgsOSw5LDcsNCwxLDAsMSwzLDYsNyw3LDYKNCw3LDksOCw3LDcsOCw4LDgsOCw4LDYsNCwzLDQsNiw4LDcsNSwzCjIsNSw4LDksOSw5LDgsNiw1LDYsOCw4LDcsNiw3LDgsOCw1LDIsMAoxLDMsNSw3LDgsOCw2LDMsMiwzLDYsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw3LDcsNCwxLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
-			"3	MjB4MjAKMy44NDM3NXg2LjA0Njg3NQo0LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDEsNCw2LDgsNyw1LDIsMCwwLDAsMiw1LDgsOSw5CjUsOCw4LDYsNCw0LDYsNiw3LDcsNyw1LDMsMywzLDUsNyw4LDcsNgo0LDcsOSw4LDcsNyw4LDYsNSw1LDcsNyw2LDYsNiw3LDgsNyw1LDMKMiw1LDgsOSw5LDksOCw1LDMsNCw3LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDgsNiwzLDEsMAowLDEsNCw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCww", 
-			"3	MjB4MjAKNC4xMjV4Ni4xNzE4NzUKMCwxLDIsNCw1LDQsMiwwLDAsMCwwLDAsMiw0LDYsNSwzLDEsMCwwCjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwwLDMsNiw5LDgsNiwzLDEsMAoyLDUsOCw5LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDgsNSwyLDAKNCw3LDksOSw5LDYsMywwLDAsMCwwLDAsMyw2LDksOSw5LDcsNSwzCjUsOCw5LDgsNyw0LDIsMCwwLDAsMCwwLDIsNCw3LDgsOSw4LDcsNgo2LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDAsMSwyLDMsMiwxLDAsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDIsNCw2LDQsMiwwLDAsMCwwLDMsNiw5LDksOQo4LDgsNSwyLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKOCw4LDUsMiwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOSw5CjcsOCw1LDIsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw4LDUsMiwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDYsNCw0LDYsOCw5LDksNyw1LDMsMyw0LDYsOCw5LDksOQo1LDgsOSw4LDcsNyw4LDksOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjIsNSw4LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw3LDgsOSw4LDYsNSw2LDgsOSw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw3LDksNyw0LDIsNCw3LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsNiw5LDYsMywwLDMsNiw5LDksOSw5LDYsMywwLDAsMA==",
-			
-			
-			//added explicitly
-			"3	MjB4MjAKMTAuMHgxNi4wCjQsNiw0LDQsNCw0LDIsMCwwLDAsMSwzLDMsNCw0LDYsNCwyLDAsMAoyLDMsMiwyLDIsMiwxLDAsMCwwLDAsMSwxLDIsMiwzLDIsMSwwLDAKNCw2LDQsMywyLDMsMywyLDEsMCwwLDEsMSwyLDMsNSw1LDMsMSwwCjIsMywyLDEsMCwxLDIsMiwxLDAsMCwwLDAsMCwxLDIsMywyLDEsMAo1LDUsMywxLDAsMiw0LDQsMiwwLDAsMCwwLDAsMiw0LDYsNCwyLDAKMywyLDEsMCwwLDEsMiwyLDEsMCwwLDAsMCwwLDEsMiwzLDIsMSwwCjUsNSwzLDEsMSwzLDUsNCwzLDEsMSwwLDAsMCwyLDQsNiw0LDIsMAoyLDMsMiwxLDEsMiwzLDIsMiwxLDEsMCwwLDAsMSwyLDMsMiwxLDAKNCw2LDQsMywzLDUsNiw0LDQsMiwyLDAsMCwwLDIsNCw2LDQsMiwwCjIsMywyLDIsMiwzLDMsMiwyLDEsMSwwLDAsMCwxLDIsMywyLDEsMAo0LDYsNCw0LDQsNiw2LDQsNCwzLDQsMywyLDIsMyw1LDYsNCwyLDAKMiwzLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwyLDIsMywzLDIsMSwwCjMsNSw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsNCw0LDUsNCwyLDEsMAoxLDIsMiwyLDIsMywzLDIsMiwyLDMsMywyLDIsMiwyLDEsMCwwLDAKMSwyLDIsMiwyLDMsMywyLDIsMyw1LDYsNCw0LDMsMywxLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDIsMiwxLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw0LDMsMSwxLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDIsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"3	MjB4MjAKOS4weDE1LjAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDMsMywxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDIsMSwwCjEsMSwwLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDEsMywzLDIsMAoxLDEsMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDEsMSwxLDAKMiwyLDAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwyLDIsMiwwCjEsMSwwLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDAsMSwxLDEsMAoxLDEsMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDEsMSwxLDAKMSwxLDAsMCwwLDAsMSwyLDMsMiwxLDAsMCwwLDAsMCwxLDEsMSwwCjEsMSwwLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwwLDAsMSwxLDEsMAoyLDIsMiwyLDMsMiwyLDMsNSw0LDIsMCwwLDAsMCwxLDIsMiwxLDAKMSwxLDIsMiwzLDIsMSwxLDIsMiwxLDAsMCwwLDAsMSwxLDEsMCwwCjIsMiw0LDQsNSwzLDEsMSwzLDMsMywyLDMsMiwyLDIsMiwxLDAsMAoxLDEsMiwyLDIsMSwwLDAsMSwxLDIsMiwzLDIsMiwxLDEsMCwwLDAKMSwxLDIsMiwyLDEsMCwwLDEsMSwzLDQsNiw0LDMsMSwxLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMiwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
-			
-			"4	MjB4MjAKNC44NDM3NXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksNiwzLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5LDYsMywwLDAsMAowLDAsMCwwLDEsMyw1LDcsOCw5LDgsOCw4LDksOSw2LDMsMCwwLDAKMCwwLDAsMSwzLDYsOCw5LDgsNyw1LDYsNyw5LDksNiwzLDAsMCwwCjAsMCwxLDMsNiw4LDksOCw2LDQsMiw0LDYsOSw5LDYsMywwLDAsMAowLDEsMyw2LDgsOSw4LDYsMywxLDAsMyw2LDksOSw2LDMsMCwwLDAKMiw0LDYsOCw5LDgsNiwzLDEsMCwwLDMsNiw5LDksNiwzLDAsMCwwCjUsNyw4LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMAo4LDksOSw5LDgsNiw0LDMsMywzLDMsNSw3LDksOSw3LDUsMywzLDMKOSw5LDksOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCww", 
-			"4	MjB4MjAKNC4yNXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDcsOCw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw3LDYsNCw1LDcsNiwzLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDcsNiwzLDEsMyw2LDYsMywwLDAsMCwwCjAsMCwwLDEsMyw1LDcsNyw2LDMsMSwwLDMsNiw2LDMsMCwwLDAsMAowLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwzLDYsNiwzLDAsMCwwLDAKMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwCjEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMAozLDYsNyw3LDUsMywxLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAKNiw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwCjgsOCw2LDQsMywzLDMsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMwo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCww", 
-			"4	MjB4MjAKNC44NDM3NXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksNiwzLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5LDYsMywwLDAsMAowLDAsMCwwLDEsMyw1LDcsOCw5LDgsOCw4LDksOSw2LDMsMCwwLDAKMCwwLDAsMSwzLDYsOCw5LDgsNyw1LDYsNyw5LDksNiwzLDAsMCwwCjAsMCwxLDMsNiw4LDksOCw2LDQsMiw0LDYsOSw5LDYsMywwLDAsMAowLDEsMyw2LDgsOSw4LDYsMywxLDAsMyw2LDksOSw2LDMsMCwwLDAKMiw0LDYsOCw5LDgsNiwzLDEsMCwwLDMsNiw5LDksNiwzLDAsMCwwCjUsNyw4LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMAo4LDksOSw5LDgsNiw0LDMsMywzLDMsNSw3LDksOSw3LDUsMywzLDMKOSw5LDksOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCww", 
-			"4	MjB4MjAKMy45Mzc1eDUuNjcxODc1CjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw2LDgsOCw4LDgsOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw4LDYsNiw3LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDgsNiwzLDQsNiw5LDYsMywwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOCw2LDMsMSwzLDYsOSw2LDMsMCwwLDAsMAowLDAsMSwzLDYsOCw4LDYsMywxLDAsMyw2LDksNiwzLDAsMCwwLDAKMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDMsNiw5LDYsMywwLDAsMCwwCjAsMiw1LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMAoxLDQsNyw4LDYsMywxLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAKMyw2LDgsOCw2LDQsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzCjYsOCw5LDgsNyw2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNgo4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2CjMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw3LDUsMywzLDMsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDA=", 
-			"4	MjB4MjAKNC4yNXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDcsOCw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw3LDYsNCw1LDcsNiwzLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDcsNiwzLDEsMyw2LDYsMywwLDAsMCwwCjAsMCwwLDEsMyw1LDcsNyw2LDMsMSwwLDMsNiw2LDMsMCwwLDAsMAowLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwzLDYsNiwzLDAsMCwwLDAKMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwCjEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMAozLDYsNyw3LDUsMywxLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAKNiw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwCjgsOCw2LDQsMywzLDMsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMwo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCww", 
-			"4	MjB4MjAKNC4yNXg1Ljk4NDM3NQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw4LDgsOCw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw5LDgsNiw2LDcsOSw2LDMsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOCw2LDMsNCw2LDksNiwzLDAsMCwwLDAKMCwwLDEsMyw2LDgsOSw4LDYsMywxLDMsNiw5LDYsMywwLDAsMCwwCjAsMSwzLDYsOCw5LDgsNiwzLDEsMCwzLDYsOSw2LDMsMCwwLDAsMAoxLDMsNiw4LDksOCw2LDMsMSwwLDAsMyw2LDksNiwzLDAsMCwwLDAKMyw2LDgsOSw5LDgsNiw0LDMsMywzLDUsNyw5LDcsNSwzLDMsMywzCjYsOCw5LDksOSw4LDcsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNgo4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCww", 
-			"5	MjB4MjAKNC4zOTA2MjV4NS45Mzc1CjYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMSw0LDcsOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDIsNSw4LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwxLDQsNyw5LDksOQo5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDgsNyw2LDcsOCw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw3LDUsMyw1LDcsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwzLDYsOSw4LDUsMiwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDksOCw2LDMsMiwyLDQsNiw4LDksOSw5CjksOSw2LDMsMCwzLDYsOSw5LDksOCw2LDUsNSw3LDgsOSw5LDksOQo5LDksNiwzLDAsMiw1LDgsOSw5LDksOCw4LDgsOSw5LDksOSw5LDkKOSw5LDYsMywwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDgsNSwyLDAKNiw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw2LDMsMSwwCjMsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"5	MjB4MjAKMy43NjU2MjV4NS45Mzc1CjMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAsMCwwLDIsNSw4LDksOQo2LDYsNiw2LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwxLDQsNyw5LDkKOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsNyw2LDYsNyw4LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw3LDUsMywzLDUsNyw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMSw0LDcsOSw5CjksNiwzLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDIsNSw4LDksOQo5LDYsMywwLDAsMSw0LDcsOCw2LDMsMSwwLDAsMSw0LDcsOSw5LDkKOSw2LDMsMCwwLDAsMyw2LDksOCw2LDQsMywzLDQsNiw4LDgsNyw2CjksNiwzLDAsMCwwLDIsNSw4LDksOCw3LDYsNiw3LDgsOSw3LDUsMwo2LDQsMiwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNSwyLDAKMywyLDEsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDA=", 
-			"5	MjB4MjAKNC4zOTA2MjV4NS45Mzc1CjYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMSw0LDcsOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDIsNSw4LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwxLDQsNyw5LDksOQo5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDgsNyw2LDcsOCw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw3LDUsMyw1LDcsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwzLDYsOSw4LDUsMiwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDksOCw2LDMsMiwyLDQsNiw4LDksOSw5CjksOSw2LDMsMCwzLDYsOSw5LDksOCw2LDUsNSw3LDgsOSw5LDksOQo5LDksNiwzLDAsMiw1LDgsOSw5LDksOCw4LDgsOSw5LDksOSw5LDkKOSw5LDYsMywwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDgsNSwyLDAKNiw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw2LDMsMSwwCjMsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"5	MjB4MjAKMy44MjgxMjV4NS44NTkzNzUKMCwwLDAsMCwxLDIsMywzLDMsMiwxLDAsMCwyLDQsNSwzLDEsMCwwCjIsMywzLDMsNCw1LDYsNiw2LDQsMiwwLDAsMyw2LDgsNiwzLDEsMAo1LDYsNiw2LDcsOCw5LDksOSw2LDMsMCwwLDIsNSw4LDgsNSwyLDAKOCw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwxLDMsNiw4LDcsNSwzCjksOCw3LDYsNiw2LDcsOCw4LDUsMiwwLDAsMCwxLDMsNiw3LDcsNgo5LDcsNSwzLDMsMyw1LDcsNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDkKOSw2LDMsMCwwLDEsNCw2LDUsMiwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwyLDUsNiw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw4LDUsMiwwLDAsMCwwLDAsMSw0LDcsOSw5CjksNiwzLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDIsNSw4LDksOQo5LDYsMywwLDAsMSw0LDcsOCw2LDMsMSwwLDEsMiw1LDcsOCw3LDYKOSw2LDMsMCwwLDAsMiw1LDgsOCw2LDQsMyw0LDUsNyw4LDcsNSwzCjksNiwzLDAsMCwwLDEsNCw3LDksOCw3LDYsNyw4LDksOCw1LDIsMAo2LDQsMiwwLDAsMCwwLDIsNSw4LDksOSw5LDksOSw4LDYsMywxLDAKMywyLDEsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"5	MjB4MjAKMy43NjU2MjV4NS45Mzc1CjMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAsMCwwLDIsNSw4LDksOQo2LDYsNiw2LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwxLDQsNyw5LDkKOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsNyw2LDYsNyw4LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw3LDUsMywzLDUsNyw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMSw0LDcsOSw5CjksNiwzLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDIsNSw4LDksOQo5LDYsMywwLDAsMSw0LDcsOCw2LDMsMSwwLDAsMSw0LDcsOSw5LDkKOSw2LDMsMCwwLDAsMyw2LDksOCw2LDQsMywzLDQsNiw4LDgsNyw2CjksNiwzLDAsMCwwLDIsNSw4LDksOCw3LDYsNiw3LDgsOSw3LDUsMwo2LDQsMiwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNSwyLDAKMywyLDEsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDA=", 
-			"5	MjB4MjAKNC4xNzE4NzV4Ni4xNzE4NzUKMCwwLDAsMCwxLDIsMywzLDMsMiwxLDAsMiw0LDYsNSwzLDEsMCwwCjIsMywzLDMsNCw1LDYsNiw2LDQsMiwwLDMsNiw5LDgsNiwzLDEsMAo1LDYsNiw2LDcsOCw5LDksOSw2LDMsMCwzLDYsOSw5LDgsNSwyLDAKOCw5LDksOSw5LDksOSw5LDksNiwzLDAsMiw1LDgsOSw5LDcsNSwzCjksOSw5LDksOSw5LDksOSw5LDYsMywwLDEsMyw2LDgsOSw4LDcsNgo5LDksOSw4LDcsNyw4LDksOCw1LDIsMCwwLDEsMyw2LDgsOSw5LDkKOSw5LDgsNiw0LDUsNyw5LDcsNCwxLDAsMCwwLDEsNCw3LDksOSw5CjksOSw3LDQsMSwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDcsNCwxLDAsMCwwLDEsNCw3LDksOSw5CjksOSw2LDMsMCwzLDYsOSw4LDYsNCwyLDIsMiw0LDYsOCw5LDksOQo5LDksNiwzLDAsMiw1LDgsOSw4LDcsNSw1LDUsNyw4LDksOCw3LDYKOSw5LDYsMywwLDEsNCw3LDksOSw5LDgsOCw4LDksOSw5LDcsNSwzCjksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDYsNCwyLDAsMCwxLDMsNiw4LDksOSw5LDksOSw4LDYsMywxLDAKMywzLDIsMSwwLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==",
-			
-			//added explicitly
-			"5	MjB4MjAKMjUuMHgzNS4wCjMsMywzLDUsNyw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAo2LDYsNiw3LDgsOSw5LDksOSw4LDcsNyw4LDksOSw5LDYsMywwLDAKOSw5LDksOSw5LDksOSw5LDksNyw1LDUsNyw5LDksOSw3LDQsMSwwCjgsOSw5LDksOSw5LDksOSw5LDYsMywyLDUsOCw5LDksOCw1LDIsMAo3LDksOSw5LDgsOCw4LDksOSw2LDMsMSw0LDcsOSw5LDksNiwzLDAKNiw5LDksOCw2LDYsNyw5LDksNiwzLDAsMyw2LDksOSw5LDcsNSwzCjYsOSw5LDcsNSw1LDcsOSw5LDYsMywwLDMsNiw5LDksOSw4LDcsNgo2LDksOSw2LDQsNCw3LDksOSw2LDMsMCwzLDYsOSw5LDksOSw5LDkKNiw5LDksNiw1LDUsOCw5LDksNiwzLDAsMyw2LDksOSw5LDksOSw5CjYsOSw5LDYsNSw1LDgsOSw5LDYsMywwLDMsNiw5LDksOSw5LDksOQo2LDksOSw2LDYsNiw5LDksOSw3LDUsMyw1LDcsOSw5LDksOSw5LDkKNiw5LDksNiw1LDQsNyw4LDksOCw3LDYsNyw4LDksOSw4LDcsNiw2CjYsOSw5LDYsNCwyLDUsNyw5LDksOSw5LDksOSw5LDksNyw1LDMsMwo2LDksOSw2LDMsMCwyLDUsOCw5LDksOSw5LDksOSw5LDYsMywwLDAKNiw5LDksNiwzLDAsMSw0LDcsOSw5LDksOSw5LDksOCw1LDIsMCwwCjQsNiw2LDQsMiwwLDAsMiw0LDYsNyw4LDksOCw3LDUsMywxLDAsMAoyLDMsMywyLDEsMCwwLDEsMiwzLDUsNyw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDUsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDA=",
-			
-			
-			"6	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw5LDgsNyw3LDgsOSw5LDksOCw3LDcsOCw5LDksOSw5LDkKNiw5LDksOCw2LDQsNSw3LDksOCw3LDUsNCw0LDUsNyw4LDksOSw5CjYsOSw4LDYsMywxLDMsNiw5LDcsNSwyLDEsMSwyLDUsNyw5LDksOQo2LDksNyw0LDEsMSw0LDcsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDIsNSw4LDksNiwzLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMiw1LDgsOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDEsNCw3LDksOCw2LDQsMywzLDQsNiw4LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDYsMywwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsOSw3LDQsMSwwLDEsNCw3LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDYsNSwzLDEsMCwwLDIsNSw4LDksOSw5LDksOSw4LDYsMywxLDAKMiwzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"6	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMiw1LDgsOSw5LDksOCw4LDgsOSw5LDksOSw5LDgsNiwzLDEsMAoxLDQsNyw5LDgsNyw2LDYsNyw4LDgsNyw2LDYsNyw4LDgsNiw0LDMKMiw1LDgsOCw2LDQsNCw1LDcsNyw2LDQsMywzLDQsNiw4LDgsNyw2CjQsNyw4LDYsMywxLDIsNSw3LDYsMywxLDAsMCwxLDMsNiw4LDksOQo1LDcsNiwzLDEsMCwzLDYsNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDkKNiw3LDQsMSwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw4LDYsNCwyLDEsMSwyLDQsNiw3LDcsNgo2LDYsMywwLDAsMCwyLDUsOCw4LDcsNSw0LDQsNSw3LDgsNyw1LDMKNiw3LDQsMSwwLDAsMSwzLDYsOCw5LDgsNyw3LDgsOSw4LDUsMiwwCjQsNSwzLDEsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMAoyLDMsMiwxLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMCww", 
-			"6	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw5LDgsNyw3LDgsOSw5LDksOCw3LDcsOCw5LDksOSw5LDkKNiw5LDksOCw2LDQsNSw3LDksOCw3LDUsNCw0LDUsNyw4LDksOSw5CjYsOSw4LDYsMywxLDMsNiw5LDcsNSwyLDEsMSwyLDUsNyw5LDksOQo2LDksNyw0LDEsMSw0LDcsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDIsNSw4LDksNiwzLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMiw1LDgsOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDEsNCw3LDksOCw2LDQsMywzLDQsNiw4LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDYsMywwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsOSw3LDQsMSwwLDEsNCw3LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDYsNSwzLDEsMCwwLDIsNSw4LDksOSw5LDksOSw4LDYsMywxLDAKMiwzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"6	MjB4MjAKMy43NjU2MjV4NS44NTkzNzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNCwyLDAsMAoxLDMsNiw4LDksOSw4LDcsNyw4LDksOSw5LDksOSw5LDcsNCwxLDAKMiw1LDgsOCw3LDYsNSw1LDYsOCw4LDcsNiw2LDcsOCw4LDYsNCwzCjQsNyw4LDYsNCwzLDIsMyw1LDcsNiw0LDMsMyw0LDYsOCw4LDcsNgo1LDcsNiwzLDEsMCwxLDQsNiw2LDMsMSwwLDAsMSwzLDYsOCw5LDkKNiw3LDQsMSwwLDAsMiw1LDYsNCwxLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5CjYsNyw0LDEsMCwwLDMsNiw4LDUsMiwwLDAsMCwwLDIsNSw4LDksOQo1LDcsNiw0LDIsMSwyLDUsOCw3LDUsMiwxLDEsMiw1LDcsOCw3LDYKNCw3LDgsNyw0LDIsMSw0LDcsOCw3LDUsNCw0LDUsNyw4LDcsNSwzCjIsNSw4LDksNiwzLDAsMiw1LDgsOSw4LDcsNyw4LDksOCw1LDIsMAoxLDMsNSw3LDUsMywwLDEsMyw2LDgsOSw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw0LDMsMCwwLDEsNCw3LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsMywzLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMA==", 
-			"6	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMiw1LDgsOSw5LDksOCw4LDgsOSw5LDksOSw5LDgsNiwzLDEsMAoxLDQsNyw5LDgsNyw2LDYsNyw4LDgsNyw2LDYsNyw4LDgsNiw0LDMKMiw1LDgsOCw2LDQsNCw1LDcsNyw2LDQsMywzLDQsNiw4LDgsNyw2CjQsNyw4LDYsMywxLDIsNSw3LDYsMywxLDAsMCwxLDMsNiw4LDksOQo1LDcsNiwzLDEsMCwzLDYsNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDkKNiw3LDQsMSwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw4LDYsNCwyLDEsMSwyLDQsNiw3LDcsNgo2LDYsMywwLDAsMCwyLDUsOCw4LDcsNSw0LDQsNSw3LDgsNyw1LDMKNiw3LDQsMSwwLDAsMSwzLDYsOCw5LDgsNyw3LDgsOSw4LDUsMiwwCjQsNSwzLDEsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMAoyLDMsMiwxLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMCww", 
-			"6	MjB4MjAKNC4wNzgxMjV4Ni4xNzE4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjQsNyw5LDksOCw3LDcsOCw5LDksOCw3LDYsNiw3LDgsOSw4LDcsNgo1LDgsOSw4LDYsNCw1LDcsOSw4LDYsNCwzLDMsNCw2LDgsOSw5LDkKNiw5LDgsNiwzLDEsMyw2LDksNyw0LDEsMCwwLDEsNCw3LDksOSw5CjYsOSw3LDQsMSwxLDQsNyw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMiw1LDgsOCw1LDIsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDMsNiw5LDgsNSwyLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwzLDYsOSw4LDUsMiwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMiw1LDgsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksNyw0LDEsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDYsMywxLDMsNiw5LDgsNiw0LDMsMyw0LDYsOCw5LDksOQo1LDgsOSw4LDUsMiwzLDYsOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYKNCw3LDksOSw2LDMsMiw1LDgsOSw5LDksOSw5LDksOSw5LDcsNSwzCjIsNSw4LDksNiwzLDEsMyw2LDgsOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw3LDUsMywwLDEsMyw2LDgsOSw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw0LDMsMCwwLDEsNCw3LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsMywzLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMA==", 
-			"7	MjB4MjAKNC40MDYyNXg1LjgyODEyNQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw2LDYKOSw5LDYsMywxLDMsNSw3LDgsOSw5LDksOSw5LDksOCw2LDQsMywzCjksOSw3LDUsNCw2LDgsOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAo5LDksOCw3LDcsOCw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjksOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"7	MjB4MjAKMy43NXg1LjgyODEyNQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5CjksNiwzLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOCw3LDYsNgo5LDYsMywwLDAsMCwwLDEsMiw0LDUsNyw4LDksOSw4LDYsNCwzLDMKOSw2LDMsMCwwLDAsMSwzLDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwCjksNiwzLDAsMSwyLDQsNiw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMAo5LDYsNCwyLDQsNSw3LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKOSw3LDYsNSw3LDgsOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjksOCw4LDgsOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"7	MjB4MjAKNC40MDYyNXg1LjgyODEyNQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw2LDYKOSw5LDYsMywxLDMsNSw3LDgsOSw5LDksOSw5LDksOCw2LDQsMywzCjksOSw3LDUsNCw2LDgsOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAo5LDksOCw3LDcsOCw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjksOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"7	MjB4MjAKMy43ODEyNXg1LjY3MTg3NQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw2CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYsNyw4LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDYsNiw2CjksNiwzLDAsMCwwLDAsMSwyLDQsNiw4LDksOCw3LDUsNCwzLDMsMwo5LDYsMywwLDAsMCwxLDMsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAKOSw2LDMsMCwwLDEsMyw2LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwCjksNiwzLDAsMSwzLDYsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMAo5LDYsMywxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDQsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw2LDYsNyw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsOCw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"7	MjB4MjAKMy43NXg1LjgyODEyNQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5CjksNiwzLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOCw3LDYsNgo5LDYsMywwLDAsMCwwLDEsMiw0LDUsNyw4LDksOSw4LDYsNCwzLDMKOSw2LDMsMCwwLDAsMSwzLDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwCjksNiwzLDAsMSwyLDQsNiw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMAo5LDYsNCwyLDQsNSw3LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKOSw3LDYsNSw3LDgsOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjksOCw4LDgsOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"7	MjB4MjAKNC4wOTM3NXg1Ljk4NDM3NQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDgsNyw2CjksOSw2LDMsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDcsNiw1LDQsMwo5LDksNiwzLDAsMSwzLDUsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAKOSw5LDYsMywxLDMsNiw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwCjksOSw2LDQsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAo5LDksNyw2LDYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDgsOCw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"8	MjB4MjAKNC41OTM3NXg2LjA0Njg3NQoxLDIsNCw1LDYsNSwzLDEsMCwxLDMsNSw2LDYsNiw2LDUsMywxLDAKMiw0LDcsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDgsNiw0LDUsNyw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDgsNyw3LDgsOSw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksOCw2LDQsNCw2LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo3LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwxLDQsNyw5LDksNiwzLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDQsNCw2LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDksOCw3LDcsOCw5LDksOSw4LDcsNiw2LDcsOCw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOCw3LDYKNCw3LDksOSw5LDksOCw2LDQsNSw3LDksOSw5LDksOSw5LDcsNSwzCjIsNCw3LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDksOCw1LDIsMAoxLDIsNSw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCww", 
-			"8	MjB4MjAKNC4weDYuMDQ2ODc1CjAsMSwzLDUsNiw1LDMsMSwwLDEsMyw1LDYsNiw2LDYsNSwzLDEsMAoxLDMsNiw4LDksOCw2LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMyw2LDgsOSw5LDksOCw1LDMsNCw3LDksOCw4LDgsOSw5LDcsNSwzCjUsOCw4LDcsNiw3LDgsNyw2LDYsNyw3LDUsNSw1LDcsOCw4LDcsNgo2LDgsNiw0LDMsNCw2LDcsOCw4LDcsNSwyLDIsMiw0LDYsOCw5LDkKNiw3LDQsMSwwLDEsMyw2LDgsOCw1LDIsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsNCwzLDQsNiw3LDgsOCw3LDUsMiwyLDIsNCw2LDgsOSw5CjUsOCw4LDcsNiw3LDgsNyw2LDYsNyw3LDUsNSw1LDcsOCw4LDcsNgozLDYsOCw5LDksOSw4LDUsMyw0LDcsOSw4LDgsOCw5LDksNyw1LDMKMSwzLDYsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjAsMSw0LDcsOSw3LDQsMSwwLDEsNCw3LDksOSw5LDksNyw0LDEsMAowLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
-			"8	MjB4MjAKNC41OTM3NXg2LjA0Njg3NQoxLDIsNCw1LDYsNSwzLDEsMCwxLDMsNSw2LDYsNiw2LDUsMywxLDAKMiw0LDcsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDgsNiw0LDUsNyw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDgsNyw3LDgsOSw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksOCw2LDQsNCw2LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo3LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwxLDQsNyw5LDksNiwzLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDQsNCw2LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDksOCw3LDcsOCw5LDksOSw4LDcsNiw2LDcsOCw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOCw3LDYKNCw3LDksOSw5LDksOCw2LDQsNSw3LDksOSw5LDksOSw5LDcsNSwzCjIsNCw3LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDksOCw1LDIsMAoxLDIsNSw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCww", 
-			"8	MjB4MjAKMy44MTI1eDUuODU5Mzc1CjAsMSwyLDMsMywzLDIsMSwwLDEsMyw1LDYsNiw2LDUsMywxLDAsMAoxLDMsNSw2LDYsNiw1LDMsMSwyLDUsOCw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOCw1LDMsNCw3LDgsNyw2LDcsOCw4LDUsMiwwCjQsNyw5LDgsNyw3LDgsNyw2LDYsNyw2LDQsMyw0LDYsOCw3LDUsMwo1LDgsOCw2LDQsNCw2LDcsOCw3LDYsMywxLDAsMSwzLDYsNyw3LDYKNiw4LDYsMywxLDEsNCw3LDksNyw0LDEsMCwwLDAsMSw0LDcsOSw5CjYsNyw0LDEsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDgsNiwzLDEsMSw0LDcsOSw4LDUsMiwwLDAsMCwxLDQsNyw5LDkKNSw4LDgsNiw0LDQsNiw3LDgsOCw3LDQsMSwwLDEsMyw2LDcsNyw2CjQsNyw5LDgsNyw3LDgsNyw2LDYsNyw2LDQsMyw0LDYsOCw3LDUsMwoyLDUsOCw5LDksOSw4LDUsMyw0LDcsOCw3LDYsNyw4LDgsNSwyLDAKMSwzLDUsNiw2LDYsNSwzLDEsMiw1LDgsOSw5LDksOCw2LDMsMSwwCjAsMSwyLDMsMywzLDIsMSwwLDEsNCw3LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDA=", 
-			"8	MjB4MjAKNC4weDYuMDQ2ODc1CjAsMSwzLDUsNiw1LDMsMSwwLDEsMyw1LDYsNiw2LDYsNSwzLDEsMAoxLDMsNiw4LDksOCw2LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMyw2LDgsOSw5LDksOCw1LDMsNCw3LDksOCw4LDgsOSw5LDcsNSwzCjUsOCw4LDcsNiw3LDgsNyw2LDYsNyw3LDUsNSw1LDcsOCw4LDcsNgo2LDgsNiw0LDMsNCw2LDcsOCw4LDcsNSwyLDIsMiw0LDYsOCw5LDkKNiw3LDQsMSwwLDEsMyw2LDgsOCw1LDIsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsNCwzLDQsNiw3LDgsOCw3LDUsMiwyLDIsNCw2LDgsOSw5CjUsOCw4LDcsNiw3LDgsNyw2LDYsNyw3LDUsNSw1LDcsOCw4LDcsNgozLDYsOCw5LDksOSw4LDUsMyw0LDcsOSw4LDgsOCw5LDksNyw1LDMKMSwzLDYsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjAsMSw0LDcsOSw3LDQsMSwwLDEsNCw3LDksOSw5LDksNyw0LDEsMAowLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
-			"8	MjB4MjAKNC4xMjV4Ni4xNzE4NzUKMCwxLDIsMywzLDMsMiwxLDAsMiw0LDYsNiw2LDYsNSwzLDEsMCwwCjEsMyw1LDYsNiw2LDUsMywyLDQsNyw5LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw4LDYsNSw2LDgsOSw5LDksOSw5LDgsNSwyLDAKNCw3LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDcsNSwzCjUsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw3LDgsOSw4LDcsNgo2LDksOCw3LDYsNiw3LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDcsNSwzLDMsNSw3LDksOCw1LDIsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDMsNiw5LDksOQo3LDksNiwzLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOSw5CjcsOSw2LDMsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNSwzLDMsNSw3LDksOCw1LDIsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDcsNiw2LDcsOCw5LDksNyw1LDMsMyw0LDYsOCw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYKNCw3LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDcsNSwzCjIsNSw4LDksOSw5LDgsNiw1LDYsOCw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw2LDYsNiw1LDMsMiwzLDYsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
-			"9	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwxLDMsNSw2LDYsNiw2LDYsNSwzLDEsMCwwLDEsMiwzLDMsMywzCjEsMyw2LDgsOSw5LDksOSw5LDgsNSwyLDAsMCwxLDMsNSw2LDYsNgoyLDUsOCw5LDksOSw5LDksOSw5LDcsNCwxLDAsMSw0LDcsOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMyw2LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDMsNiw5LDksOQo2LDksOSw4LDcsNiw2LDcsOCw5LDksNyw0LDEsMCwzLDYsOSw5LDkKNiw5LDgsNiw0LDMsMyw0LDYsOCw5LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDYsMywwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDMsNiw5LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwzLDYsOSw3LDQsMSwxLDQsNyw5LDksOQo2LDksNyw1LDIsMSwxLDIsNSw3LDksNiwzLDEsMyw2LDgsOSw5LDkKNiw5LDgsNyw1LDQsNCw1LDcsOCw5LDcsNSw0LDYsOCw5LDgsNyw2CjUsOCw5LDksOCw3LDcsOCw5LDksOSw4LDcsNyw4LDksOSw3LDUsMwo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"9	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDEsMyw1LDYsNiw2LDYsNSwzLDEsMCwwLDAsMCwxLDIsMywzLDMKMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMSwzLDUsNiw2CjIsNSw4LDksOCw3LDcsOCw5LDgsNiwzLDEsMCwwLDEsNCw3LDksOQo0LDcsOCw3LDUsNCw0LDUsNyw4LDgsNSwyLDAsMCwwLDMsNiw5LDkKNSw3LDYsNCwyLDEsMSwyLDQsNiw4LDYsMywwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDcsNSwyLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDYsNCwxLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDAsMSw0LDcsNiwzLDAsMSwzLDYsNyw3LDYKNiw4LDYsMywxLDAsMCwxLDMsNiw3LDUsMiwxLDMsNiw4LDcsNSwzCjUsOCw4LDYsNCwzLDMsNCw2LDcsNyw1LDQsNCw2LDgsOCw1LDIsMAozLDYsOCw4LDcsNiw2LDcsOCw4LDcsNiw2LDcsOCw5LDcsNCwxLDAKMSwzLDYsOCw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw1LDIsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"9	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwxLDMsNSw2LDYsNiw2LDYsNSwzLDEsMCwwLDEsMiwzLDMsMywzCjEsMyw2LDgsOSw5LDksOSw5LDgsNSwyLDAsMCwxLDMsNSw2LDYsNgoyLDUsOCw5LDksOSw5LDksOSw5LDcsNCwxLDAsMSw0LDcsOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMyw2LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDMsNiw5LDksOQo2LDksOSw4LDcsNiw2LDcsOCw5LDksNyw0LDEsMCwzLDYsOSw5LDkKNiw5LDgsNiw0LDMsMyw0LDYsOCw5LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDYsMywwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDMsNiw5LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwzLDYsOSw3LDQsMSwxLDQsNyw5LDksOQo2LDksNyw1LDIsMSwxLDIsNSw3LDksNiwzLDEsMyw2LDgsOSw5LDkKNiw5LDgsNyw1LDQsNCw1LDcsOCw5LDcsNSw0LDYsOCw5LDgsNyw2CjUsOCw5LDksOCw3LDcsOCw5LDksOSw4LDcsNyw4LDksOSw3LDUsMwo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"9	MjB4MjAKMy43ODEyNXg1Ljg1OTM3NQowLDEsMyw1LDYsNiw2LDYsNSwzLDEsMCwwLDIsMyw0LDIsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwzLDUsNyw1LDMsMSwwCjIsNSw4LDksOCw3LDcsOCw5LDgsNSwyLDAsMyw2LDksOCw1LDIsMAo0LDcsOCw3LDUsNCw0LDUsNyw4LDcsNCwxLDIsNCw3LDgsNyw1LDMKNSw3LDYsNCwyLDEsMSwyLDUsNyw4LDUsMiwxLDIsNCw2LDcsNyw2CjYsNyw0LDEsMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMiw1LDcsNSwyLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDAsMCwxLDQsNyw3LDQsMSwwLDEsMyw2LDcsNyw2CjUsOCw4LDYsNCwzLDMsNCw2LDcsNSwzLDIsMyw0LDYsOCw3LDUsMwo0LDcsOSw4LDcsNiw2LDcsOCw4LDYsNSw1LDYsNyw4LDgsNSwyLDAKMiw1LDgsOSw5LDksOSw5LDksOCw3LDcsOCw5LDksOCw2LDMsMSwwCjEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDEsMiw1LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"9	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDEsMyw1LDYsNiw2LDYsNSwzLDEsMCwwLDAsMCwxLDIsMywzLDMKMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMSwzLDUsNiw2CjIsNSw4LDksOCw3LDcsOCw5LDgsNiwzLDEsMCwwLDEsNCw3LDksOQo0LDcsOCw3LDUsNCw0LDUsNyw4LDgsNSwyLDAsMCwwLDMsNiw5LDkKNSw3LDYsNCwyLDEsMSwyLDQsNiw4LDYsMywwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDcsNSwyLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDYsNCwxLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDAsMSw0LDcsNiwzLDAsMSwzLDYsNyw3LDYKNiw4LDYsMywxLDAsMCwxLDMsNiw3LDUsMiwxLDMsNiw4LDcsNSwzCjUsOCw4LDYsNCwzLDMsNCw2LDcsNyw1LDQsNCw2LDgsOCw1LDIsMAozLDYsOCw4LDcsNiw2LDcsOCw4LDcsNiw2LDcsOCw5LDcsNCwxLDAKMSwzLDYsOCw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw1LDIsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"9	MjB4MjAKNC4wOTM3NXg2LjE3MTg3NQowLDEsMyw1LDYsNiw2LDYsNSwzLDEsMCwwLDIsMyw0LDIsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwzLDUsNyw1LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDgsNiwzLDEsMyw2LDksOCw1LDIsMAo0LDcsOSw5LDksOSw5LDksOSw5LDgsNSwyLDMsNiw5LDksNyw1LDMKNSw4LDksOCw3LDYsNiw3LDgsOSw5LDYsMywyLDUsOCw5LDgsNyw2CjYsOSw4LDYsNCwzLDMsNCw2LDgsOSw2LDMsMSwzLDYsOCw5LDksOQo2LDksNyw0LDEsMCwwLDEsNCw3LDksNiwzLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDMsNiw5LDcsNCwxLDAsMyw2LDksOSw5CjYsOCw1LDIsMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDMsNiw5LDksOQo2LDgsNSwyLDAsMCwwLDAsMyw2LDksNyw0LDEsMCwzLDYsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDEsNCw3LDksNiwzLDEsMyw2LDgsOSw5LDkKNiw5LDgsNiw0LDMsMyw0LDYsOCw5LDcsNSw0LDYsOCw5LDgsNyw2CjUsOCw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNyw4LDksOSw3LDUsMwozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMiw0LDcsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDEsMiw1LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			
-			//Added explicitly
-			"9	MjB4MjAKOS4weDE0LjAKMiwyLDMsNCw0LDQsNCw0LDMsMSwxLDAsMCwwLDAsMCwyLDIsMiwwCjIsMiwyLDIsMiwyLDIsMiwyLDEsMSwwLDAsMCwwLDAsMSwxLDEsMAo0LDMsMiwyLDIsMiwzLDMsNCwzLDMsMSwwLDAsMCwwLDIsMiwyLDAKMiwxLDAsMCwwLDAsMSwxLDIsMiwyLDEsMCwwLDAsMCwxLDEsMSwwCjMsMSwwLDAsMCwwLDEsMSwyLDMsMywyLDAsMCwwLDEsMiwyLDEsMAoxLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwLDAsMCwxLDEsMSwwLDAKMiwwLDAsMCwwLDAsMCwwLDAsMiwyLDIsMCwxLDEsMiwxLDEsMCwwCjEsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAsMSwxLDEsMCwwLDAsMAoxLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwLDEsMSwxLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMAoyLDIsMSwwLDAsMCwwLDAsMCwyLDMsMywxLDAsMCwwLDAsMCwwLDAKMiwyLDEsMCwwLDAsMCwwLDAsMSwyLDIsMSwwLDAsMCwwLDAsMCwwCjMsMywzLDIsMiwyLDIsMiwyLDMsNCwzLDEsMCwwLDAsMCwwLDAsMAoxLDEsMiwyLDIsMiwyLDIsMiwyLDIsMSwwLDAsMCwwLDAsMCwwLDAKMSwxLDMsNCw0LDQsNCw0LDQsMywzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDIsMiwyLDIsMiwyLDEsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDIsMiwyLDIsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
-			
-			"A	MjB4MjAKNi4xMDkzNzV4NS44MjgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5CjAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw2LDYsNgoyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOSw3LDUsMywzLDMKNSw3LDgsOSw5LDksOSw5LDksOCw3LDcsOCw5LDksNiwzLDAsMCwwCjgsOSw5LDksOSw5LDgsNyw2LDUsNCw1LDcsOSw5LDYsMywwLDAsMAo5LDksOSw4LDcsNiw1LDQsMywyLDEsMyw2LDksOSw2LDMsMCwwLDAKOSw5LDksOCw3LDYsNCwyLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwCjksOSw5LDgsNyw2LDUsNCwzLDIsMSwzLDYsOSw5LDYsMywwLDAsMAo4LDksOSw5LDksOSw4LDcsNiw1LDQsNSw3LDksOSw2LDMsMCwwLDAKNSw2LDcsOCw5LDksOSw5LDksOCw3LDcsOCw5LDksNiwzLDAsMCwwCjIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDcsNSwzLDMsMwowLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw4LDcsNiw2LDYKMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"A	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYsNgowLDAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDYsNCwyLDEsMCwwCjAsMCwxLDIsNCw1LDYsNyw4LDgsNyw3LDgsNyw0LDEsMCwwLDAsMAoyLDMsNCw1LDcsOCw4LDcsNiw1LDQsNSw3LDYsMywwLDAsMCwwLDAKNSw2LDcsOCw4LDcsNSw0LDMsMiwxLDMsNiw2LDMsMCwwLDAsMCwwCjgsOCw3LDYsNSw0LDIsMSwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo5LDgsNyw2LDQsMiwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKOCw4LDcsNiw1LDQsMiwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjUsNiw3LDgsOCw3LDUsNCwzLDIsMSwzLDYsNiwzLDAsMCwwLDAsMAoyLDMsNCw1LDcsOCw4LDcsNiw1LDQsNSw3LDYsMywwLDAsMCwwLDAKMCwwLDEsMiw0LDUsNyw4LDksOCw3LDcsOCw2LDMsMCwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksNyw1LDMsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDgsNyw2LDUsNCwzLDMKMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw4LDcsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5", 
-			"A	MjB4MjAKNi4xMDkzNzV4NS44MjgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5CjAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw2LDYsNgoyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOSw3LDUsMywzLDMKNSw3LDgsOSw5LDksOSw5LDksOCw3LDcsOCw5LDksNiwzLDAsMCwwCjgsOSw5LDksOSw5LDgsNyw2LDUsNCw1LDcsOSw5LDYsMywwLDAsMAo5LDksOSw4LDcsNiw1LDQsMywyLDEsMyw2LDksOSw2LDMsMCwwLDAKOSw5LDksOCw3LDYsNCwyLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwCjksOSw5LDgsNyw2LDUsNCwzLDIsMSwzLDYsOSw5LDYsMywwLDAsMAo4LDksOSw5LDksOSw4LDcsNiw1LDQsNSw3LDksOSw2LDMsMCwwLDAKNSw2LDcsOCw5LDksOSw5LDksOCw3LDcsOCw5LDksNiwzLDAsMCwwCjIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDcsNSwzLDMsMwowLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw4LDcsNiw2LDYKMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"A	MjB4MjAKNS4wNzgxMjV4NS44MjgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDgsNyw2LDYKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw1LDQsMywzCjAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDgsNyw1LDQsMiwxLDAsMAowLDEsMiwzLDQsNSw3LDgsOSw4LDgsOCw3LDUsMiwxLDAsMCwwLDAKMiw0LDUsNiw3LDgsOCw3LDYsNSw2LDcsNiwzLDAsMCwwLDAsMCwwCjUsNyw4LDksOCw3LDUsNCwzLDIsNCw2LDYsMywwLDAsMCwwLDAsMAo4LDgsNyw2LDUsNCwyLDEsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAKOSw4LDcsNiw0LDIsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwCjgsOCw3LDYsNSw0LDIsMSwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMAo1LDcsOCw5LDgsNyw1LDQsMywyLDQsNiw2LDMsMCwwLDAsMCwwLDAKMiw0LDUsNiw3LDgsOCw3LDYsNSw2LDcsNiwzLDAsMCwwLDAsMCwwCjAsMSwyLDMsNCw1LDcsOCw5LDgsOCw4LDcsNSwyLDEsMCwwLDAsMAowLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw4LDcsNSw0LDMsMiwxLDAKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"A	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYsNgowLDAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDYsNCwyLDEsMCwwCjAsMCwxLDIsNCw1LDYsNyw4LDgsNyw3LDgsNyw0LDEsMCwwLDAsMAoyLDMsNCw1LDcsOCw4LDcsNiw1LDQsNSw3LDYsMywwLDAsMCwwLDAKNSw2LDcsOCw4LDcsNSw0LDMsMiwxLDMsNiw2LDMsMCwwLDAsMCwwCjgsOCw3LDYsNSw0LDIsMSwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo5LDgsNyw2LDQsMiwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKOCw4LDcsNiw1LDQsMiwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjUsNiw3LDgsOCw3LDUsNCwzLDIsMSwzLDYsNiwzLDAsMCwwLDAsMAoyLDMsNCw1LDcsOCw4LDcsNiw1LDQsNSw3LDYsMywwLDAsMCwwLDAKMCwwLDEsMiw0LDUsNyw4LDksOCw3LDcsOCw2LDMsMCwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksNyw1LDMsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDgsNyw2LDUsNCwzLDMKMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw4LDcsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5", 
-			"A	MjB4MjAKNS41MTU2MjV4Ni4xNDA2MjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw4LDcsNiw2CjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw4LDcsNSw0LDMsMwowLDEsMiw0LDUsNiw3LDgsOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAKMyw0LDUsNyw4LDksOSw5LDgsNyw3LDgsOSw3LDQsMSwwLDAsMCwwCjYsNyw4LDksOSw5LDgsNyw1LDQsNSw3LDksNiwzLDAsMCwwLDAsMAo5LDksOSw4LDcsNiw1LDQsMiwxLDMsNiw5LDYsMywwLDAsMCwwLDAKOSw5LDksOCw3LDYsNCwyLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwCjksOSw5LDgsNyw2LDUsNCwyLDEsMyw2LDksNiwzLDAsMCwwLDAsMAo2LDcsOCw5LDksOSw4LDcsNSw0LDUsNyw5LDYsMywwLDAsMCwwLDAKMyw0LDUsNyw4LDksOSw5LDgsNyw3LDgsOSw3LDQsMSwwLDAsMCwwCjAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw4LDcsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"B	MjB4MjAKNC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDkKOSw5LDcsNSwzLDMsNSw3LDksOSw3LDUsMywzLDMsNSw3LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo4LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksOCw2LDQsMyw1LDcsOSw5LDcsNCwxLDAsMSw0LDcsOSw5LDkKNiw5LDksOCw3LDYsNyw4LDksOSw4LDYsNCwzLDQsNiw4LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw3LDgsOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDgsNyw2CjMsNiw4LDksOSw5LDksNyw2LDYsOCw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw3LDcsNyw2LDQsMywzLDYsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsNSw1LDUsMywyLDEsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDMsMywzLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"B	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDcsOCw5LDkKOSw3LDUsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMyw1LDcsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo4LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMiwyLDUsNyw5LDgsNSwyLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDUsNSw3LDcsOCw4LDcsNSwzLDMsMyw0LDYsOCw5LDkKNCw3LDksOCw4LDgsOSw3LDYsNiw3LDcsNiw2LDYsNyw4LDgsNyw2CjIsNSw4LDksOSw5LDgsNSwzLDQsNyw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw2LDYsNiw1LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"B	MjB4MjAKNC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDkKOSw5LDcsNSwzLDMsNSw3LDksOSw3LDUsMywzLDMsNSw3LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo4LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksOCw2LDQsMyw1LDcsOSw5LDcsNCwxLDAsMSw0LDcsOSw5LDkKNiw5LDksOCw3LDYsNyw4LDksOSw4LDYsNCwzLDQsNiw4LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw3LDgsOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDgsNyw2CjMsNiw4LDksOSw5LDksNyw2LDYsOCw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw3LDcsNyw2LDQsMywzLDYsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsNSw1LDUsMywyLDEsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDMsMywzLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"B	MjB4MjAKNC4zNTkzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDcsOCw5LDkKOSw3LDUsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMyw1LDcsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOCw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMSw0LDcsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsOCw1LDIsMCwxLDMsNiw4LDgsNSwyLDAsMCwwLDAsMyw2LDksOQo2LDksNyw1LDMsNCw2LDgsOSw5LDcsNCwxLDAsMCwxLDQsNyw5LDkKNSw4LDgsNyw2LDcsOCw4LDcsNyw3LDYsNCwzLDMsNCw2LDcsNyw2CjMsNiw4LDksOSw5LDgsNiw0LDUsNyw4LDcsNiw2LDcsOCw3LDUsMwoxLDMsNSw2LDYsNiw1LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"B	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDcsOCw5LDkKOSw3LDUsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMyw1LDcsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo4LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMiwyLDUsNyw5LDgsNSwyLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDUsNSw3LDcsOCw4LDcsNSwzLDMsMyw0LDYsOCw5LDkKNCw3LDksOCw4LDgsOSw3LDYsNiw3LDcsNiw2LDYsNyw4LDgsNyw2CjIsNSw4LDksOSw5LDgsNSwzLDQsNyw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw2LDYsNiw1LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"B	MjB4MjAKNC42NzE4NzV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNyw4LDksOSw5CjksOSw3LDUsMywzLDMsNSw3LDksNyw1LDMsMywzLDUsNyw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOCw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjcsOSw2LDMsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwyLDUsOCw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw4LDYsNCw0LDYsOCw5LDksNyw0LDEsMCwxLDQsNyw5LDksOQo1LDgsOSw4LDcsNyw4LDksOSw5LDgsNiw0LDMsNCw2LDgsOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDcsOCw5LDgsNyw2CjIsNSw4LDksOSw5LDksOCw3LDcsOCw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw2LDYsNiw2LDUsNCw0LDYsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDMsMywyLDEsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==",
-			
-			//Explicitly added
-			"B	MjB4MjAKMTcuMHgzMi4wCjgsOCw4LDgsOSw5LDgsOCw4LDksOCw4LDcsOCw4LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOCw3LDYsNyw3LDcsNyw4LDksOCw4LDgsOCw3LDYsNyw4LDgsNyw2CjcsNSwzLDQsNCw0LDUsNyw5LDcsNiw1LDUsNCwzLDUsNyw3LDUsMwo0LDIsMCwxLDEsMSwyLDQsNiw0LDMsMiwyLDEsMCwyLDQsNCwyLDAKNCwyLDAsMCwwLDAsMiw0LDYsNCwyLDAsMCwwLDAsMiw0LDQsMiwwCjQsMiwwLDAsMCwwLDIsNCw2LDQsMiwwLDAsMCwwLDIsNCw0LDIsMAo2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwzLDYsNyw1LDMKNyw0LDEsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDgsNyw2CjgsNSwyLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwxLDQsNyw5LDksOQo5LDcsNCwxLDEsMiw1LDcsOSw3LDQsMSwwLDAsMiw1LDgsOSw5LDkKNiw1LDMsMSwxLDIsNCw1LDYsNSwzLDEsMCwwLDIsNCw2LDYsNiw2CjUsNiw0LDIsMiw0LDYsNiw2LDYsNCwyLDAsMCwyLDQsNiw1LDQsMwo0LDYsNSw0LDQsNSw2LDYsNiw2LDUsNCwzLDMsNCw1LDUsMywxLDAKNSw4LDgsNyw3LDgsOSw4LDgsOCw4LDcsNiw2LDcsNyw2LDMsMSwwCjMsNiw4LDksOSw4LDcsNSw1LDYsOCw5LDksOSw4LDYsMywxLDAsMAoxLDQsNyw5LDksNyw1LDIsMiw0LDcsOSw5LDgsNiwzLDEsMCwwLDAKMCwyLDQsNiw2LDQsMiwwLDAsMiw0LDYsNiw1LDMsMSwwLDAsMCwwCjAsMSwyLDMsMywyLDEsMCwwLDEsMiwzLDMsMiwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"B	MjB4MjAKMzkuMHg1MC4wCjYsNyw4LDgsOCw3LDcsNiw2LDYsNiw3LDgsOCw3LDcsOCw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYsNiw3LDgsOSw5LDksOQo5LDgsNiw0LDMsMyw1LDcsOSw3LDUsMywzLDMsNSw3LDksOSw5LDkKOSw3LDQsMSwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5CjksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOQo5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5LDkKOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5CjksNyw0LDEsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOQo5LDgsNSwyLDAsMSw0LDcsOSw2LDMsMCwwLDAsMyw2LDksOSw5LDkKOSw5LDcsNCwyLDMsNiw4LDksNyw0LDEsMCwwLDMsNiw5LDksOSw5CjksOSw4LDYsNSw2LDgsOSw5LDgsNSwyLDAsMSw0LDcsOSw4LDcsNgo5LDksOSw4LDgsOCw5LDksOSw5LDcsNSwzLDQsNiw4LDksNyw1LDMKOCw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw3LDgsOSw5LDYsMywwCjYsOCw5LDksOSw5LDgsOCw4LDksOSw5LDksOSw5LDksOCw1LDIsMAozLDUsNyw4LDgsNyw1LDUsNiw4LDksOSw5LDksOSw4LDYsMywxLDAKMSwyLDQsNSw1LDQsMiwyLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsMiwxLDAsMCwxLDIsNSw3LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDA=",
-			
-			"C	MjB4MjAKNC45NTMxMjV4Ni4wNDY4NzUKMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw5LDksNyw1LDMKNSw4LDksOSw4LDYsNCwzLDMsMywzLDMsNCw2LDgsOSw5LDgsNyw2CjYsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo1LDgsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOCw3LDYKNCw3LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDcsNSwzCjMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMA==", 
-			"C	MjB4MjAKNC43MDMxMjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDIsNSw4LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwLDAKMSw0LDcsOSw4LDYsNCwzLDMsMywzLDMsNCw2LDgsOSw3LDQsMSwwCjIsNSw3LDcsNSwzLDEsMCwwLDAsMCwwLDEsMyw1LDcsNyw1LDIsMAo0LDcsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsNyw1LDMKNSw3LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDcsNyw2CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDcsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw3LDYKNCw3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDcsNSwzCjMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMA==", 
-			"C	MjB4MjAKNC45NTMxMjV4Ni4wNDY4NzUKMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw5LDksNyw1LDMKNSw4LDksOSw4LDYsNCwzLDMsMywzLDMsNCw2LDgsOSw5LDgsNyw2CjYsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo1LDgsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOCw3LDYKNCw3LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDcsNSwzCjMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMA==", 
-			"C	MjB4MjAKNS4wMzEyNXg2LjEyNQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw4LDcsNiw3LDgsOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOCw3LDYsNSw0LDMsNCw1LDYsNyw4LDgsNiwzLDEsMAoyLDUsOCw4LDYsNCwzLDIsMSwwLDEsMiwzLDQsNiw4LDgsNSwyLDAKNCw3LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDcsNSwzCjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDQsMiwxLDAsMCwwLDAsMSwyLDMsNCw2LDgsNyw1LDMKMiw1LDgsOCw3LDQsMiwwLDAsMCwwLDIsNCw2LDcsOCw4LDUsMiwwCjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwzLDYsOSw4LDcsNSwzLDEsMAowLDEsMiw1LDcsNiwzLDAsMCwwLDAsMyw2LDksNyw1LDIsMSwwLDAKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCww", 
-			"C	MjB4MjAKNC43MDMxMjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDIsNSw4LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwLDAKMSw0LDcsOSw4LDYsNCwzLDMsMywzLDMsNCw2LDgsOSw3LDQsMSwwCjIsNSw3LDcsNSwzLDEsMCwwLDAsMCwwLDEsMyw1LDcsNyw1LDIsMAo0LDcsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsNyw1LDMKNSw3LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDcsNyw2CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDcsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw3LDYKNCw3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDcsNSwzCjMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMA==", 
-			"C	MjB4MjAKNS4zNTkzNzV4Ni40Mzc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDYsNSw0LDMsNCw1LDYsNyw4LDksOCw1LDIsMAo0LDcsOSw4LDYsNCwzLDIsMSwwLDEsMiwzLDQsNiw4LDksNyw1LDMKNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw2CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDkKNSw4LDksOCw2LDMsMSwwLDAsMCwxLDIsMyw0LDYsOCw5LDgsNyw2CjMsNiw4LDksOCw1LDIsMCwwLDAsMiw0LDYsNyw4LDksOCw2LDQsMwoxLDMsNiw4LDksNiwzLDAsMCwwLDMsNiw5LDksOSw4LDYsMywxLDAKMCwxLDMsNiw4LDYsMywwLDAsMCwzLDYsOSw5LDgsNiwzLDEsMCwwCjAsMCwxLDQsNyw2LDMsMCwwLDAsMyw2LDksOSw3LDQsMSwwLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDA=", 
-			"D	MjB4MjAKNS40ODQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOQo3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDkKNiw5LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw1LDcsOSw5LDksOSw5CjUsOCw5LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOSw4LDcsNgo0LDcsOSw5LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5LDksNyw1LDMKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"D	MjB4MjAKNC45MDYyNXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw3LDYKNSw4LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDcsNSwzCjQsNyw4LDYsNCwyLDEsMCwwLDAsMCwwLDEsMiw0LDYsOCw2LDMsMAoyLDUsOCw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDgsNSwyLDAKMSwzLDYsOCw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"D	MjB4MjAKNS40ODQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOQo3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDkKNiw5LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw1LDcsOSw5LDksOSw5CjUsOCw5LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOSw4LDcsNgo0LDcsOSw5LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5LDksNyw1LDMKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"D	MjB4MjAKNC42MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo4LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsNyw1LDMKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsNCw1LDcsOCw4LDUsMiwwCjEsMyw2LDgsOCw3LDYsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"D	MjB4MjAKNC45MDYyNXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw3LDYKNSw4LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDcsNSwzCjQsNyw4LDYsNCwyLDEsMCwwLDAsMCwwLDEsMiw0LDYsOCw2LDMsMAoyLDUsOCw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDgsNSwyLDAKMSwzLDYsOCw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"D	MjB4MjAKNC45Mzc1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOQo5LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo1LDgsOSw3LDUsMiwxLDAsMCwwLDAsMCwxLDIsNSw3LDksOCw3LDYKNCw3LDksOCw3LDUsNCwzLDMsMywzLDMsNCw1LDcsOCw5LDcsNSwzCjIsNSw4LDksOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=", 
-			"E	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5CjksOSw3LDUsMywzLDUsNyw5LDksNyw1LDMsMywzLDUsNyw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwyLDQsNiw2LDQsMiwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMSwyLDMsMywyLDEsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"E	MjB4MjAKMy43NjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw3LDgsOSw5CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsNSw3LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"E	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5CjksOSw3LDUsMywzLDUsNyw5LDksNyw1LDMsMywzLDUsNyw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwyLDQsNiw2LDQsMiwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMSwyLDMsMywyLDEsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"E	MjB4MjAKNC4xODc1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw3LDgsOSw5CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsNSw3LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMSwyLDIsMSwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
-			"E	MjB4MjAKMy43NjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw3LDgsOSw5CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsNSw3LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"E	MjB4MjAKNC41eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDcsOCw5LDksOQo5LDksNyw1LDMsMywzLDUsNyw5LDcsNSwzLDMsMyw1LDcsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwyLDQsNiw0LDIsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMSwyLDMsMiwxLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
-			"F	MjB4MjAKNC4wNjI1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
-			"F	MjB4MjAKMy4zNTkzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDIsNCw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"F	MjB4MjAKNC4wNjI1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
-			"F	MjB4MjAKMy45MDYyNXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOCw3LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgo5LDcsNSwzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzLDMKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDEsMiwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"F	MjB4MjAKMy4zNTkzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDIsNCw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"F	MjB4MjAKNC4yMTg3NXg2LjE0MDYyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2CjksOSw3LDUsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMiw0LDYsNCwyLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			
-			//added explicitly
-			"F	MjB4MjAKMTIuMHgxOC4wCjMsNSw2LDYsNiw2LDYsNCw0LDQsNiw2LDYsNiw2LDUsMywxLDAsMAo1LDYsNiw2LDYsNiw2LDQsNCw0LDYsNiw2LDYsNiw2LDUsMywxLDAKMywzLDMsMywzLDMsMywyLDIsMiwzLDMsMywzLDMsMywzLDIsMSwwCjYsNiw2LDYsNiw2LDYsNCw0LDQsNiw2LDYsNiw2LDYsNiw0LDIsMAo2LDYsNiw2LDYsNiw2LDQsNCw0LDYsNiw2LDYsNiw1LDQsMiwxLDAKNiw2LDYsNiw2LDYsNiw0LDQsNCw2LDYsNiw2LDYsNSw0LDIsMSwwCjYsNiw2LDUsNCw0LDUsNCw0LDQsNiw2LDUsNCwzLDIsMSwwLDAsMAozLDMsMywyLDEsMSwyLDIsMiwyLDMsMywyLDEsMCwwLDAsMCwwLDAKNiw2LDYsNCwyLDEsMywzLDQsNCw2LDUsMywxLDAsMCwwLDAsMCwwCjYsNiw2LDQsMiwwLDIsMiw0LDQsNiw0LDIsMCwwLDAsMCwwLDAsMAo2LDYsNiw0LDIsMCwyLDIsNCw0LDYsNCwyLDAsMCwwLDAsMCwwLDAKNiw2LDYsNCwyLDAsMiwyLDQsNCw2LDQsMiwwLDAsMCwwLDAsMCwwCjMsMywzLDIsMSwwLDEsMSwyLDIsMywyLDEsMCwwLDAsMCwwLDAsMAo2LDYsNiw0LDIsMCwyLDIsNCw0LDUsMywxLDAsMCwwLDAsMCwwLDAKNSw2LDYsNCwyLDAsMSwxLDIsMiwyLDEsMCwwLDAsMCwwLDAsMCwwCjUsNiw2LDQsMiwwLDEsMSwyLDIsMiwxLDAsMCwwLDAsMCwwLDAsMAo0LDYsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"F	MjB4MjAKMTQuMHgyMC4wCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgozLDUsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDQsMywzCjYsNiw2LDYsNSw0LDQsNSw2LDYsNiw2LDUsNCwzLDMsMiwxLDAsMAo2LDYsNiw2LDUsNCw0LDUsNiw2LDYsNiw1LDQsMywzLDIsMSwwLDAKNiw2LDYsNiw0LDIsMiw0LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwwCjYsNiw2LDYsNCwyLDIsNCw2LDYsNiw2LDQsMiwwLDAsMCwwLDAsMAo5LDksOSw5LDYsMywzLDYsOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAKNiw2LDYsNiw0LDIsMiw0LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwwCjYsNiw2LDYsNCwyLDIsNCw2LDYsNiw1LDMsMSwwLDAsMCwwLDAsMAo2LDYsNiw2LDQsMiwxLDMsNSw2LDUsMywxLDAsMCwwLDAsMCwwLDAKNiw2LDYsNiw0LDIsMSwzLDUsNiw1LDMsMSwwLDAsMCwwLDAsMCwwCjUsNiw2LDYsNCwyLDAsMSwyLDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo0LDYsNiw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw2LDYsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"F	MjB4MjAKMTkuMHgyOC4wCjksOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYsNyw3LDcsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKOSw4LDcsNiw2LDYsNyw4LDksOCw3LDYsNiw3LDcsNyw1LDQsMywzCjksNyw1LDMsMywzLDUsNyw5LDcsNSwzLDMsNCw0LDQsMiwxLDAsMAo5LDYsMywwLDAsMCwyLDUsOCw2LDMsMCwwLDEsMSwxLDAsMCwwLDAKOSw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMSw0LDYsNSwyLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMiwzLDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo4LDUsMiwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			
-			"G	MjB4MjAKNS41NzgxMjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDksOSw3LDUsMwo1LDgsOSw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDksOCw3LDYKNiw5LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDAsMSwyLDMsMywyLDEsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDIsNCw2LDYsNCwyLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksOSw3LDUsMywzLDUsNyw5LDksOQo2LDksNyw0LDEsMCwwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywwLDAsMyw2LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw3LDQsMSwwLDMsNiw5LDksOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOCw1LDIsMCwzLDYsOSw5LDksOSw5LDksOSw5LDYsMywwCjMsNiw5LDksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMA==", 
-			"G	MjB4MjAKNS4wOTM3NXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAoyLDUsOCw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDgsNSwyLDAKNCw3LDgsNiw0LDIsMSwwLDAsMCwwLDAsMSwyLDQsNiw4LDcsNSwzCjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDcsNgo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDEsMiwyLDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMyw2LDcsNSwzLDMsMywzLDUsNyw5LDkKNSw3LDUsMiwwLDAsMCwwLDMsNiw4LDcsNiw2LDYsNiw3LDcsNyw2CjQsNyw3LDQsMSwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw3LDUsMwozLDYsOCw1LDIsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAKMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMyww", 
-			"G	MjB4MjAKNS41NzgxMjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDksOSw3LDUsMwo1LDgsOSw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDksOCw3LDYKNiw5LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDAsMSwyLDMsMywyLDEsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDIsNCw2LDYsNCwyLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksOSw3LDUsMywzLDUsNyw5LDksOQo2LDksNyw0LDEsMCwwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywwLDAsMyw2LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw3LDQsMSwwLDMsNiw5LDksOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOCw1LDIsMCwzLDYsOSw5LDksOSw5LDksOSw5LDYsMywwCjMsNiw5LDksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMA==", 
-			"G	MjB4MjAKNS4zMTI1eDYuMTI1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw4LDcsNiw2LDYsNyw4LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw4LDcsNSw0LDMsMywzLDQsNSw3LDgsOCw2LDMsMSwwCjIsNSw4LDgsNiw0LDIsMSwwLDAsMCwxLDIsNCw2LDgsOCw1LDIsMAo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsNyw1LDMKNSw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDcsNyw2CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwxLDQsNiw3LDYKNSw3LDYsMywxLDAsMCwwLDMsNiw2LDMsMCwwLDEsMyw2LDYsNSwzCjQsNyw4LDYsNCwyLDEsMCwzLDYsNiwzLDAsMSwzLDYsNyw1LDIsMAoyLDUsOCw4LDcsNCwyLDAsMyw2LDcsNSwzLDQsNiw4LDgsNSwyLDAKMSwzLDUsNyw4LDYsMywwLDMsNiw4LDcsNiw3LDgsOSw4LDYsNCwzCjAsMSwyLDUsNyw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwzLDYsNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"G	MjB4MjAKNS4wOTM3NXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAoyLDUsOCw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDgsNSwyLDAKNCw3LDgsNiw0LDIsMSwwLDAsMCwwLDAsMSwyLDQsNiw4LDcsNSwzCjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDcsNgo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDEsMiwyLDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMyw2LDcsNSwzLDMsMywzLDUsNyw5LDkKNSw3LDUsMiwwLDAsMCwwLDMsNiw4LDcsNiw2LDYsNiw3LDcsNyw2CjQsNyw3LDQsMSwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw3LDUsMwozLDYsOCw1LDIsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAKMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMyww", 
-			"G	MjB4MjAKNS42MjV4Ni40Mzc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw1LDIsMAo0LDcsOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksNyw1LDMKNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw2CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMSwyLDMsMiwxLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDIsNCw2LDQsMiwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNyw0LDEsMCwwLDMsNiw5LDYsMywwLDAsMSw0LDcsOCw3LDYKNSw4LDgsNiw0LDIsMSwzLDYsOSw2LDMsMCwxLDMsNiw4LDcsNSwzCjQsNyw5LDgsNyw0LDIsMyw2LDksNyw1LDMsNCw2LDgsOSw2LDMsMAoyLDUsOCw5LDksNiwzLDMsNiw5LDgsNyw2LDcsOCw5LDksNyw1LDMKMSwzLDUsNyw4LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDgsNyw2CjAsMSwyLDUsNyw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwzLDYsNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"H	MjB4MjAKNS4yMzQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"H	MjB4MjAKNC40NTMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzCjYsNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"H	MjB4MjAKNS4yMzQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"H	MjB4MjAKNC41eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"H	MjB4MjAKNC40NTMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzCjYsNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"H	MjB4MjAKNC44MTI1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMywzLDMsMywzLDMsMyw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzCjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=",
-
-			//added explicitly
-			"H	MjB4MjAKMzUuMHg1NC4wCjUsNiw3LDgsOCw3LDYsNiw2LDYsNyw3LDgsNyw3LDYsNiw2LDYsNgo4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDgsOCw4LDksOSw4LDcsNiw2CjYsNiw2LDYsNiw3LDgsOSw5LDgsNyw1LDUsNSw2LDYsNSw0LDMsMwozLDMsMywzLDMsNSw3LDksOSw3LDUsMiwyLDIsMywzLDIsMSwwLDAKMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwxLDEsMSwwLDAsMCwwLDAKMywzLDMsMywzLDUsNyw5LDksNyw1LDMsNCw0LDQsMywzLDMsMywzCjYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDcsNyw3LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOCw3LDcsNiw2LDYsNiw2LDcsNyw3LDYsNiw2LDYsNiw2LDUsNCwzCjcsNSw1LDMsMywzLDMsMyw1LDUsNSwzLDMsMywzLDMsMywyLDEsMAo2LDMsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDA=",
-            "H	MjB4MjAKMzIuMHgzNS4wCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDgsOCw5LDksOQo2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNSw2LDcsOSw5LDkKMywzLDMsNSw3LDksOSw3LDUsMywzLDMsMywzLDIsNCw2LDksOSw5CjAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywyLDQsNiw5LDksOQo2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNCw1LDYsOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNyw3LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMywzLDMKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-            "H	MjB4MjAKMTQuMHgyNy4wCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDQsNCw0LDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsNCwzCjAsMCwxLDEsMSwxLDMsNSw1LDQsMywzLDMsMywzLDMsMywyLDEsMAowLDAsMSwxLDEsMSwzLDUsNSw0LDMsMywzLDMsMywzLDMsMiwxLDAKMCwwLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDIsNCw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNSw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDIsNCw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMyw0LDUsNiw1LDQsMywzLDMsMywzLDMsMiwxLDAsMAo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwwCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw0LDIsMAozLDMsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNCwyLDAKMywzLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDQsMiwwCjAsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywyLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-            "H	MjB4MjAKMjAuMHgzOC4wCjcsOCw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjcsNyw3LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMwo0LDQsNCwzLDQsNiw4LDksOSw4LDcsNiw2LDYsNiw2LDUsNCwzLDMKMSwxLDEsMCwxLDQsNyw5LDksNyw1LDMsMywzLDMsMywyLDEsMCwwCjAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMiwxLDAsMAo2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDUsNCwzLDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw3LDgsOSw4LDYsNCwzCjMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsNSw3LDksNyw0LDEsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDMsNiw5LDYsMywwLDA=",
-            "H	MjB4MjAKMTEuMHgxMC4wCjIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAozLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDMsMiwyLDAKMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMSwwCjQsMiw0LDIsNCwyLDQsMiw0LDIsNCwyLDQsMiw0LDIsNCwyLDIsMAoyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwxLDAKMywxLDIsMSwyLDEsMywyLDMsMSwyLDEsMiwxLDIsMSwzLDIsMiwwCjEsMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAoxLDAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMCwwLDAsMCwwLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoxLDAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMSwwLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjMsMSwyLDEsMiwxLDMsMiwzLDEsMiwxLDIsMSwyLDEsMywyLDIsMAoyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwxLDAKNCwyLDQsMiw0LDIsNCwyLDQsMiw0LDIsNCwyLDQsMiw0LDIsMiwwCjIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDEsMAozLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDMsMiwyLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-            
-			"I	MjB4MjAKMS41eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"I	MjB4MjAKMC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"I	MjB4MjAKMS41eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"I	MjB4MjAKMC43NXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"I	MjB4MjAKMC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"I	MjB4MjAKMS4wNjI1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"K	MjB4MjAKNS43MDMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw3LDgsOSw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNgozLDMsMywzLDQsNiw4LDksOSw5LDksOCw2LDQsMywzLDMsMywzLDMKMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMAowLDEsMyw2LDgsOSw5LDgsNyw3LDgsOSw5LDgsNiwzLDEsMCwwLDAKMSwzLDYsOCw5LDksOCw2LDQsNCw2LDgsOSw5LDgsNiwzLDEsMCwwCjMsNiw4LDksOSw4LDYsMywxLDEsMyw2LDgsOSw5LDgsNiwzLDEsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDMKOCw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNyw2CjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"K	MjB4MjAKNC42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsNSw3LDksOCw2LDQsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwxLDQsNyw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwyLDUsOCw4LDcsNyw4LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsNCw3LDgsNiw0LDQsNiw4LDgsNSwyLDAsMCwwLDAsMAowLDAsMSwzLDYsNyw2LDMsMSwxLDMsNiw4LDcsNCwxLDAsMCwwLDAKMCwxLDMsNiw4LDcsNCwxLDAsMCwxLDQsNyw4LDYsMywxLDAsMCwwCjAsMiw1LDgsOCw1LDIsMCwwLDAsMCwyLDUsOCw4LDYsMywxLDAsMAoxLDQsNyw4LDYsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAKMyw2LDcsNiwzLDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDUsMiwwCjYsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo4LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDYKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"K	MjB4MjAKNS43MDMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw3LDgsOSw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNgozLDMsMywzLDQsNiw4LDksOSw5LDksOCw2LDQsMywzLDMsMywzLDMKMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMAowLDEsMyw2LDgsOSw5LDgsNyw3LDgsOSw5LDgsNiwzLDEsMCwwLDAKMSwzLDYsOCw5LDksOCw2LDQsNCw2LDgsOSw5LDgsNiwzLDEsMCwwCjMsNiw4LDksOSw4LDYsMywxLDEsMyw2LDgsOSw5LDgsNiwzLDEsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDMKOCw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNyw2CjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"K	MjB4MjAKNC42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMyw0LDYsOCw4LDYsNCwzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDEsMyw2LDcsNiwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwyLDUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDEsNCw3LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw3LDgsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAKMCwwLDEsMyw2LDgsNyw2LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMCwyLDUsOCw4LDUsMywzLDYsOCw4LDYsNCwyLDEsMCwwLDAsMAowLDEsNCw3LDgsNiwzLDEsMSwzLDUsNyw3LDcsNSwzLDEsMCwwLDAKMSwzLDYsNyw2LDMsMSwwLDAsMSwyLDQsNiw4LDgsNiwzLDEsMCwwCjMsNiw3LDYsMywxLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiwzLDEsMAo2LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiw0LDMKOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw2CjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"K	MjB4MjAKNC42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsNSw3LDksOCw2LDQsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwxLDQsNyw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwyLDUsOCw4LDcsNyw4LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsNCw3LDgsNiw0LDQsNiw4LDgsNSwyLDAsMCwwLDAsMAowLDAsMSwzLDYsNyw2LDMsMSwxLDMsNiw4LDcsNCwxLDAsMCwwLDAKMCwxLDMsNiw4LDcsNCwxLDAsMCwxLDQsNyw4LDYsMywxLDAsMCwwCjAsMiw1LDgsOCw1LDIsMCwwLDAsMCwyLDUsOCw4LDYsMywxLDAsMAoxLDQsNyw4LDYsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAKMyw2LDcsNiwzLDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDUsMiwwCjYsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo4LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDYKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"K	MjB4MjAKNS4xNDA2MjV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsMywzLDMsMywzLDQsNiw4LDksOCw2LDQsMywzLDMsMywzLDMsMwowLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDIsNSw4LDksOCw3LDcsOCw5LDgsNiw0LDIsMSwwLDAsMCwwCjAsMSw0LDcsOSw4LDYsNCw0LDYsOCw5LDgsNyw1LDMsMSwwLDAsMAoxLDMsNiw4LDgsNiwzLDEsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAKMyw2LDgsOSw3LDQsMSwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwCjYsOCw5LDgsNSwyLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw2LDQsMwo4LDksOCw2LDMsMSwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOCw3LDYKOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDYKNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"L	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"L	MjB4MjAKMy42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"L	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"L	MjB4MjAKMy42MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"L	MjB4MjAKMy42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"L	MjB4MjAKMy45Mzc1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
-			"M	MjB4MjAKNi40ODQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjgsOSw5LDksOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMwo1LDcsOCw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDgsNyw0LDIsMCwwLDAKMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksNiwzLDAsMCwwCjAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOCw3LDQsMiwwLDAsMAowLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDUsNCwyLDEsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjUsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"M	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDUsNiw3LDcsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDMsNCw1LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDcsNyw1LDQsMiwxLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsNyw3LDQsMiwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw3LDcsNCwyLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw3LDcsNSw0LDIsMSwwLDAsMAowLDAsMSwyLDMsNCw1LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMSwyLDQsNSw2LDcsNyw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjQsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"M	MjB4MjAKNi40ODQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjgsOSw5LDksOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMwo1LDcsOCw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDgsNyw0LDIsMCwwLDAKMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksNiwzLDAsMCwwCjAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOCw3LDQsMiwwLDAsMAowLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDUsNCwyLDEsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjUsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"M	MjB4MjAKNS41eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOCw5LDksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjUsNiw3LDcsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAoyLDMsNCw1LDYsNyw3LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKMCwwLDEsMiwzLDQsNSw3LDgsOCw3LDUsNCwzLDIsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw3LDcsNiw1LDQsMywyLDEsMAowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsNyw3LDYsNSw0LDMKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDcsNyw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsNyw3LDYKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDcsNyw2LDUsNCwzCjAsMCwwLDAsMCwxLDIsMyw0LDUsNyw3LDcsNiw1LDQsMywyLDEsMAowLDAsMSwyLDMsNCw1LDYsNyw3LDcsNSw0LDMsMiwxLDAsMCwwLDAKMiwzLDQsNSw2LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjUsNiw3LDcsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"M	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDUsNiw3LDcsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDMsNCw1LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDcsNyw1LDQsMiwxLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsNyw3LDQsMiwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw3LDcsNCwyLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw3LDcsNSw0LDIsMSwwLDAsMAowLDAsMSwyLDMsNCw1LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMSwyLDQsNSw2LDcsNyw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjQsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"M	MjB4MjAKNS44MTI1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw4LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsOCw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjcsOCw4LDgsOCw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMwo0LDUsNiw3LDgsOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKMSwyLDMsNCw1LDYsNyw4LDgsNyw2LDUsNCwzLDMsMiwxLDAsMCwwCjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw4LDcsNiw2LDUsNCwzLDMsMwowLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw4LDcsNiw2LDYKMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOCw3LDYsNiw2CjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDgsNyw2LDUsNCwzLDMsMwoxLDIsMyw0LDUsNiw3LDgsOCw3LDYsNiw1LDQsMywyLDEsMCwwLDAKNCw1LDYsNyw4LDgsNyw2LDUsNCwzLDMsMiwxLDAsMCwwLDAsMCwwCjcsOCw4LDgsOCw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMwo5LDksOCw4LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDgsOCw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"N	MjB4MjAKNS4yMzQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo4LDksOSw5LDksOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjIsNCw1LDcsOCw5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMAowLDEsMiw0LDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDgsNyw1LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDcsNiw2CjMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"N	MjB4MjAKNC40MjE4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOCw5LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwyLDQsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNSw3LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDcsNSwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDgsNyw1LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw3LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"N	MjB4MjAKNS4yMzQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo4LDksOSw5LDksOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjIsNCw1LDcsOCw5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMAowLDEsMiw0LDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDgsNyw1LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDcsNiw2CjMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"N	MjB4MjAKNC41NjI1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOCw5LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwozLDYsOCw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDQsNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNSw3LDgsOCw2LDMsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw2LDMsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDUsMywxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw4LDYsNCwzCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"N	MjB4MjAKNC40MjE4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOCw5LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwyLDQsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNSw3LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDcsNSwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDgsNyw1LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw3LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"N	MjB4MjAKNC44NzV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjUsNyw4LDksOSw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMwoyLDQsNiw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwxLDMsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDgsNyw1LDQsMwozLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDksOCw3LDYKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==",
-			
-			//added explicitly
-			"N	MjB4MjAKMTkuMHgzNi4wCjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjcsNyw4LDksOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo0LDUsNyw5LDksOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMKMSwzLDYsOSw5LDksOSw3LDUsMywzLDIsMSwwLDAsMCwwLDAsMCwwCjAsMiw0LDYsNiw2LDcsNyw3LDYsNiw0LDIsMCwwLDAsMCwwLDAsMAowLDEsMiwzLDMsMyw1LDcsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDcsNSwzLDMsMywyLDEsMCwwCjAsMCwwLDAsMCwwLDIsNCw3LDgsOSw4LDcsNiw2LDYsNCwyLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5LDYsMywwLDAKMywzLDMsMywzLDMsMywzLDQsNiw4LDksOSw5LDksOSw3LDUsMywzCjYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5LDksOCw3LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsOCw4LDgsNyw2LDYsNiw3LDcsOCw4LDgsOCw4LDgsNyw2LDYKNiw1LDUsNSw1LDQsMywzLDMsNCw0LDUsNSw1LDUsNSw1LDQsMywzCjMsMiwyLDIsMiwxLDAsMCwwLDEsMSwyLDIsMiwyLDIsMiwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"N	MjB4MjAKMTkuMHgzNC4wCjgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNSw0LDMKNyw4LDksOSw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDIsMSwwCjQsNiw4LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAoxLDMsNSw3LDgsOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAKMCwxLDIsNSw3LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDIsNCw2LDcsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMAowLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDgsNiw0LDIsMSwwLDAKMCwwLDAsMCwwLDAsMSwyLDMsNSw3LDksOSw5LDgsNyw1LDMsMSwwCjMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOSw5LDksOCw2LDQsMwo2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDQsMywzCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"N	MjB4MjAKMTEuMHgxMC4wCjMsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiwyLDIsMAo0LDIsMywxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDMsMiwyLDAKMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMSwwCjMsMiw0LDIsNCwyLDMsMSwyLDEsMiwxLDIsMSwyLDEsMywyLDIsMAoxLDEsMiwxLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMSwxLDIsMSwzLDIsMywxLDEsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjAsMCwwLDAsMSwxLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMSwzLDIsMywxLDIsMSwxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMSwxLDMsMiw0LDIsMywxLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMSwzLDIsNCwyLDMsMSwxLDAsMCwwLDAsMAoxLDAsMCwwLDAsMCwwLDAsMSwxLDIsMSwzLDIsMywxLDEsMCwwLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDIsMSwxLDAsMCwwCjMsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDMsMiw0LDIsMywxLDEsMAoyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwxLDAKMywxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMSwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"N	MjB4MjAKMTUuMHgxNi4wCjIsNCw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsNCw0LDYsNyw1LDMsMAoyLDQsNCw0LDQsNiw2LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCwyLDAKMiw0LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsMiwwCjEsMiwyLDMsNCw2LDYsNCw0LDQsNSw0LDIsMiwyLDMsMywyLDEsMAoxLDIsMiwzLDUsOCw5LDYsNiw2LDgsNiwzLDIsMiwzLDMsMiwxLDAKMCwwLDAsMSwzLDUsNiw0LDQsNCw1LDMsMSwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDUsNCw0LDQsNiw1LDMsMiwxLDEsMCwwLDAsMAowLDAsMCwwLDAsMSwyLDIsMyw0LDYsNiw0LDQsMywzLDEsMCwwLDAKMCwwLDAsMCwwLDEsMiwyLDMsNCw3LDgsNiw2LDUsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDQsNCw0LDUsNCwyLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwyLDMsNCw2LDYsNCwyLDAKMSwyLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwzLDQsNiw2LDQsMiwwCjIsNCw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsNSw2LDksOSw2LDMsMAoyLDQsNCw0LDQsNiw2LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCwyLDAKMyw1LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsMiwwCjQsNiw0LDMsMiwzLDMsMiwyLDIsMywzLDIsMiwyLDMsMywyLDEsMAo2LDcsNCwzLDIsMywzLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwxLDAKNCw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			
-			"O	MjB4MjAKNi4weDYuMDQ2ODc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksNyw1LDMKNSw4LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDgsNyw2CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNyw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo3LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDksOQo1LDgsOSw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDksOCw3LDYKNCw3LDksOSw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOSw5LDcsNSwzCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=", 
-			"O	MjB4MjAKNS4zOTA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw4LDYsMywxLDAKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjQsNyw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDYKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsNyw1LDMKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjEsMyw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"O	MjB4MjAKNi4weDYuMDQ2ODc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksNyw1LDMKNSw4LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDgsNyw2CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNyw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo3LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDksOQo1LDgsOSw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDksOCw3LDYKNCw3LDksOSw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOSw5LDcsNSwzCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=", 
-			"O	MjB4MjAKNS42NDA2MjV4Ni4xMjUKMCwwLDEsMiw0LDUsNiw2LDcsNyw3LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDgsNyw2LDYsNiw3LDgsOCw3LDUsMywxLDAsMAoxLDMsNiw4LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw4LDYsMywxLDAKMiw1LDgsOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw4LDUsMiwwCjQsNyw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDYKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw3LDcsNgo0LDcsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsNyw1LDMKMiw1LDcsNyw1LDQsMiwxLDAsMCwwLDEsMiw0LDUsNyw3LDUsMiwwCjEsMyw2LDgsOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw4LDcsNiw2LDYsNyw4LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"O	MjB4MjAKNS4zOTA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw4LDYsMywxLDAKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjQsNyw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDYKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsNyw1LDMKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjEsMyw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
-			"O	MjB4MjAKNS45NTMxMjV4Ni40Mzc1CjAsMCwxLDIsNCw1LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw1LDIsMAo0LDcsOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksNyw1LDMKNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw2CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo1LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw3LDYKNCw3LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDcsNSwzCjIsNSw4LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw1LDIsMAoxLDMsNiw4LDksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=",
-			
-			//added explicitly
-			"O	MjB4MjAKMzIuMHg0Ny4wCjQsNyw4LDksOCw3LDcsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAo3LDksOCw3LDUsNCw0LDYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKOCw4LDYsNCwyLDEsMSwzLDYsOCw5LDgsNSwyLDAsMCwwLDAsMCwwCjksNyw0LDEsMCwwLDAsMSwzLDYsOCw5LDYsMywwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMSw0LDcsOSw2LDMsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksNyw1LDMsMywzLDMsMywzCjgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDgsNyw2LDYsNiw2LDYsNgo3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDkKNyw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOCw3LDcsOCw5LDgsNyw2CjgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDcsNSw0LDUsNiw1LDQsMwo5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMSwyLDMsMiwxLDAKOSw2LDMsMCwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAsMCwwCjksNyw0LDEsMCwwLDAsMCwyLDUsOCw4LDUsMiwwLDAsMCwwLDAsMAo4LDgsNiw0LDIsMSwxLDIsNSw3LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw4LDgsNyw1LDQsNCw1LDcsOCw4LDUsMiwwLDAsMCwwLDAsMCwwCjQsNyw5LDksOCw3LDcsOCw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDUsNyw5LDksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"O	MjB4MjAKOS4weDE1LjAKMiwyLDIsMiwzLDIsMiwyLDMsMiwyLDIsMywyLDIsMiwyLDEsMCwwCjEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAsMAoyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMiwxLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiwyLDIsMAoxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDIsMiwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAoxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAoxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsMiwyLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwxLDIsMiwzLDIsMiwyLDMsMiwyLDIsMywyLDIsMSwxLDAsMCwwCjEsMSwyLDIsMywyLDIsMiwzLDIsMiwyLDMsMiwyLDEsMSwwLDAsMAoxLDEsMiwyLDMsMiwyLDIsMywyLDIsMiwzLDIsMiwxLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
-			"O	MjB4MjAKMTguMHgzMi4wCjAsMSwyLDMsMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAoyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwxLDIsMywzLDMKNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDQsNCw1LDYsNiw2CjgsOSw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw3LDcsOCw5LDksOQo5LDgsNyw2LDYsNSw0LDMsNCw1LDYsNiw3LDgsOSw4LDcsNiw2LDYKOCw2LDQsMywzLDIsMSwwLDEsMiwzLDMsNCw2LDgsNyw1LDMsMywzCjcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMAo0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw0LDIsMCwwLDAKNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwCjQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDQsMywxLDEsMAo3LDUsMiwxLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw3LDYsNCw0LDMKOCw3LDUsNCwzLDMsMywzLDMsMyw0LDUsNyw4LDksOCw4LDcsNyw2CjgsOSw4LDcsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOQo1LDcsOCw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNiw2LDYKMiw0LDUsNyw4LDksOSw5LDksOSw4LDcsNSw0LDMsMywzLDMsMywzCjAsMSwyLDQsNSw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMAowLDAsMCwxLDIsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			"O	MjB4MjAKMjMuMHgyOC4wCjQsNyw5LDksOSw4LDcsNiw3LDcsNiw0LDIsMSwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw0LDIsMCwwLDAsMCwwLDAKOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksNiwzLDAsMCwwLDAsMCwwCjksOSw4LDcsNSw0LDMsNCw2LDgsOSw5LDcsNCwxLDAsMCwwLDAsMAo5LDgsNiw0LDIsMSwwLDEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAKOCw2LDMsMSwwLDAsMCwwLDEsMiw1LDcsOSw4LDUsMiwwLDAsMCwwCjYsMywxLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMAo0LDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAKMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwCjMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMAozLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAKNSwyLDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwCjcsNCwyLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw3LDQsMSwwLDAsMAo5LDcsNCwxLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAKOSw4LDYsNCwzLDMsMywzLDQsNiw4LDksOSw5LDksOCw2LDMsMSwwCjksOSw4LDcsNiw2LDYsNiw3LDgsOSw4LDcsNyw4LDksOCw2LDQsMwo4LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDUsNyw5LDksOCw3LDYKNiw4LDksOSw5LDksOSw5LDksOSw3LDQsMSwyLDUsOCw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksNiwzLDAsMSw0LDcsOSw5LDksOQozLDYsOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMyw2LDksOSw5LDk=",
-			
-			//Hack for Cl
-			"~	MjB4MjAKMjMuMHgyMy4wCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMAozLDYsOCw4LDgsNyw3LDYsNiw2LDYsNiw3LDgsOCw2LDMsMSwwLDAKNiw4LDksNyw2LDQsNCwzLDMsMywzLDMsNSw3LDksOCw2LDQsMywzCjgsOCw3LDQsMywxLDEsMCwwLDAsMCwwLDIsNCw3LDgsOCw3LDYsNgo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDksOQo4LDgsNyw0LDIsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDkKNiw4LDksNyw1LDIsMSwwLDAsMCwwLDEsNCw3LDksOSw4LDcsNiw2CjMsNSw3LDcsNyw0LDIsMCwwLDAsMCwyLDUsNyw3LDYsNSw0LDMsMwoxLDIsNSw3LDgsNSwyLDAsMCwwLDAsMyw2LDcsNSwzLDIsMSwwLDAKMywzLDUsNyw4LDYsNCwzLDMsMiwyLDQsNyw3LDUsMywzLDIsMSwwCjYsNiw3LDgsOCw3LDYsNiw2LDUsNSw2LDgsOCw3LDYsNiw1LDQsMwo5LDksOSw5LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=",
-			//Hack for O2
-			"$	MjB4MjAKNDYuMHg0Mi4wCjIsNSw4LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMAo1LDcsOSw5LDgsNyw2LDYsNyw4LDksOCw2LDQsMiwxLDAsMCwwLDAKNyw4LDgsNyw1LDQsMywzLDQsNSw3LDgsOCw3LDQsMiwwLDAsMCwwCjksOCw2LDQsMiwxLDAsMCwxLDIsNSw3LDksOSw2LDMsMCwwLDAsMAo5LDcsNCwxLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwCjksNyw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMAo5LDgsNSwyLDAsMCwwLDAsMCwxLDQsNyw5LDksNiwzLDAsMCwwLDAKOCw5LDcsNSwzLDMsMywzLDMsNCw2LDgsOSw4LDUsMiwwLDAsMCwwCjYsOCw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNSwzLDEsMCwwLDAsMAozLDYsOCw5LDksOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOSw5LDksOSw3LDQsMSwwLDAsMCwxLDIsMywzCjAsMSwyLDQsNSw2LDcsOCw5LDksNiwzLDAsMCwwLDEsMyw1LDYsNgowLDAsMCwxLDIsMyw1LDcsOSw4LDUsMiwwLDAsMSwzLDYsOCw5LDkKMCwwLDAsMCwwLDAsMyw2LDgsNiwzLDEsMCwxLDMsNiw4LDksOSw5CjAsMCwwLDAsMCwwLDMsNiw3LDQsMiwyLDMsNCw2LDcsOCw4LDksOQowLDAsMCwwLDAsMCwzLDYsNyw1LDQsNSw2LDcsNyw2LDYsNyw5LDkKMCwwLDAsMCwwLDAsMiw1LDcsNyw3LDgsOCw3LDUsMyw0LDYsOSw5CjAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDcsNSwyLDEsMyw2LDksOQowLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDMsNiw5LDk=",
-			//Hack for H3
-			"!	MjB4MjAKNTYuMHg1MS4wCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMAo2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNCwyLDAsMCwwLDAKMywzLDMsNSw3LDksOSw3LDUsMywzLDMsMywzLDIsMSwwLDAsMCwwCjAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw5LDksNiw0LDIsMiwyLDEsMSwwLDAsMCwwLDAsMAozLDMsMyw1LDcsOSw5LDcsNiw1LDUsNSw0LDQsMiwxLDAsMCwwLDAKNiw2LDYsNyw4LDksOSw4LDgsOCw4LDgsNyw3LDQsMiwwLDAsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMAo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNSw0LDMsMiwxLDAKMywzLDMsMywzLDMsNCw2LDgsOSw3LDUsMyw0LDUsNiw2LDUsNCwzCjAsMCwwLDAsMCwwLDIsNSw4LDgsNSwyLDAsMiw1LDgsOSw4LDcsNgowLDAsMCwwLDAsMCwzLDYsOSw3LDUsMywzLDMsNCw2LDgsOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksNiw1LDQsNiw0LDMsNCw3LDksOSw5CjAsMCwwLDAsMCwwLDMsNiw5LDcsNyw3LDksNyw1LDUsNyw5LDksOQowLDAsMCwwLDAsMCwyLDUsOCw4LDgsOCw5LDgsNyw3LDgsOCw3LDYKMCwwLDAsMSwyLDMsNCw1LDYsNyw3LDgsOCw5LDksOSw4LDYsNCwzCjAsMCwwLDIsNCw2LDYsNSw0LDUsNSw3LDcsOSw5LDksNyw0LDEsMAowLDAsMCwzLDYsOSw5LDYsMywzLDMsNiw2LDksOSw5LDYsMywwLDA=",
-			
-			//Hack for OC
-			"%	MjB4MjAKNTkuMHgzMy4wCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwyLDEsMAo2LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNCwyLDAKOCw5LDksNyw1LDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDYsMywwCjksOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw3LDUsMwo5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksNyw1LDMKOCw5LDgsNiw0LDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDcsNSwzCjcsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw0LDIsMAo0LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMiwxLDAKMiwzLDUsNyw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwCjEsMiw1LDcsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMAozLDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAKNiw4LDksOCw3LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDQsMiwwCjgsOSw4LDYsNCwzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw2LDMsMAo5LDksNyw0LDEsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDksNiwzLDAKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDYsMywwCjgsOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksOSw2LDMsMAo2LDgsOSw4LDcsNCwyLDAsMCwxLDMsNSw3LDgsOSw4LDcsNCwyLDAKMyw1LDYsNyw4LDYsMywwLDAsMiw1LDgsOSw5LDgsNiw0LDIsMSwwCjEsMiwzLDUsNyw2LDMsMCwwLDMsNiw5LDksOSw3LDQsMSwwLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDA=",
-			//Hack for HO
-			"`	MjB4MjAKNTkuMHgzMy4wCjgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo1LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDUsMywxLDAKMiwzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywyLDEsMCwwCjAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMAoyLDMsMywzLDMsNSw3LDksOSw3LDUsMywzLDMsMywzLDIsMSwwLDAKNSw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw1LDMsMSwwCjgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYsNCwyLDAKNCw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNSw0LDIsMSwwCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAo2LDgsOSw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOSw4LDYsMywxLDAKOCw5LDgsNyw1LDQsMywzLDMsMywzLDQsNSw3LDgsOSw4LDUsMiwwCjksOSw3LDUsMiwxLDAsMCwwLDAsMCwxLDIsNSw3LDksOSw2LDMsMAo5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksNiwzLDAKOCw5LDgsNiw0LDMsMiwxLDAsMCwxLDIsNCw2LDgsOSw5LDYsMywwCjcsOSw5LDgsNyw2LDUsNCwzLDMsNCw1LDcsOCw5LDksOCw1LDIsMAo0LDcsOCw5LDksOSw4LDcsNiw2LDcsOCw5LDksOCw3LDUsMywxLDAKMiw0LDYsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDA=",
-			
-			"/	MjB4MjAKNy4weDguMAowLDAsMCwwLDAsMCwwLDAsMSwxLDMsMiwyLDIsMiw0LDIsMiwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMSwyLDEsMSwxLDEsMiwxLDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwxLDEsMiwxLDEsMSwxLDIsMSwxLDAsMAowLDAsMCwwLDAsMSwxLDEsMSwxLDIsMSwxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDEsMSwxLDEsMSwyLDEsMSwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDEsMSwxLDEsMiwxLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDEsMiwxLDEsMSwxLDEsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSwxLDIsMSwxLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsMSwyLDEsMSwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMAoxLDEsMSwxLDEsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwxLDEsMSwxLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMSwxLDEsMSwyLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDEsMSwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiwxLDEsMSwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwxLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
-			
-			
-			
-			"P	MjB4MjAKNC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAKOCw5LDYsMywwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwCjcsOSw3LDQsMSwwLDAsMSw0LDcsOSw4LDUsMiwwLDAsMCwwLDAsMAo2LDksOCw1LDIsMCwwLDIsNSw4LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw5LDksNyw1LDMsMyw1LDcsOSw5LDYsMywwLDAsMCwwLDAsMCwwCjYsOSw5LDgsNyw2LDYsNyw4LDksOSw2LDMsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKNSw4LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwCjMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAoxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"P	MjB4MjAKMy43NjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNyw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDMsMSwwLDEsMyw2LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw2LDQsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNSw4LDksOCw3LDYsNyw4LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"P	MjB4MjAKNC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAKOCw5LDYsMywwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwCjcsOSw3LDQsMSwwLDAsMSw0LDcsOSw4LDUsMiwwLDAsMCwwLDAsMAo2LDksOCw1LDIsMCwwLDIsNSw4LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw5LDksNyw1LDMsMyw1LDcsOSw5LDYsMywwLDAsMCwwLDAsMCwwCjYsOSw5LDgsNyw2LDYsNyw4LDksOSw2LDMsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKNSw4LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwCjMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAoxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"P	MjB4MjAKNC4yMDMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo3LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDgsNiwzLDEsMCwxLDQsNyw4LDUsMiwwLDAsMCwwLDAsMCwwLDAKNSw4LDgsNiw0LDMsNCw2LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDgsNyw2LDcsOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMyw2LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"P	MjB4MjAKMy43NjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNyw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDMsMSwwLDEsMyw2LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw2LDQsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNSw4LDksOCw3LDYsNyw4LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"P	MjB4MjAKNC41MTU2MjV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2CjksOSw3LDUsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjgsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo3LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsOSw3LDUsMiwyLDIsNSw3LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw3LDUsNSw1LDcsOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNSw4LDksOSw4LDgsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"R	MjB4MjAKNS4yNjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwCjgsOSw2LDMsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMAo3LDksNiwzLDAsMCwwLDMsNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMSw0LDcsOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMAo2LDksOSw4LDcsNiw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAKNiw5LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw3LDUsNCwzCjUsOCw5LDksOSw5LDksOSw4LDYsNiw3LDksOSw5LDksOSw4LDcsNgozLDYsOCw5LDksOSw5LDgsNiwzLDMsNSw4LDksOSw5LDksOSw5LDkKMSwzLDYsOCw5LDksOCw2LDMsMSwxLDMsNSw3LDgsOSw5LDksOSw5CjAsMSwzLDUsNiw2LDUsMywxLDAsMCwxLDIsNCw1LDcsOCw5LDksOQowLDAsMSwyLDMsMywyLDEsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"R	MjB4MjAKNC41NDY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOCw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjcsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMiw1LDgsOCw2LDMsMSwwLDAsMCwwLDAsMAo2LDgsNiw0LDMsMywzLDUsNyw5LDksOCw2LDMsMSwwLDAsMCwwLDAKNSw4LDgsNyw2LDYsNiw3LDcsNyw3LDgsOCw2LDQsMiwxLDAsMCwwCjQsNyw5LDksOSw5LDksOSw3LDUsNCw2LDgsOCw3LDUsMywxLDAsMAoyLDQsNyw4LDksOSw5LDgsNSwyLDEsMyw2LDgsOSw4LDYsNCwzLDMKMSwyLDQsNSw2LDYsNiw1LDMsMSwwLDEsMyw1LDcsOCw4LDcsNiw2CjAsMCwxLDIsMywzLDMsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"R	MjB4MjAKNS4yNjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwCjgsOSw2LDMsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMAo3LDksNiwzLDAsMCwwLDMsNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMSw0LDcsOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMAo2LDksOSw4LDcsNiw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAKNiw5LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw3LDUsNCwzCjUsOCw5LDksOSw5LDksOSw4LDYsNiw3LDksOSw5LDksOSw4LDcsNgozLDYsOCw5LDksOSw5LDgsNiwzLDMsNSw4LDksOSw5LDksOSw5LDkKMSwzLDYsOCw5LDksOCw2LDMsMSwxLDMsNSw3LDgsOSw5LDksOSw5CjAsMSwzLDUsNiw2LDUsMywxLDAsMCwxLDIsNCw1LDcsOCw5LDksOQowLDAsMSwyLDMsMywyLDEsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"R	MjB4MjAKNC42ODc1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNyw2LDMsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwxLDQsNyw5LDcsNCwxLDAsMCwwLDAsMCwwLDAKNiw4LDYsNCwzLDMsNCw2LDcsOCw3LDYsNCwzLDMsMywzLDMsMywzCjUsOCw4LDcsNiw2LDcsOCw3LDYsNiw3LDcsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDksOSw5LDgsNSwzLDMsNiw4LDksOSw5LDksOSw5LDkKMSwzLDUsNiw2LDYsNiw1LDMsMSwxLDMsNSw2LDYsNiw2LDcsOCw5CjAsMSwyLDMsMywzLDMsMiwxLDAsMCwxLDIsMywzLDMsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
-			"R	MjB4MjAKNC41NDY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOCw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjcsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMiw1LDgsOCw2LDMsMSwwLDAsMCwwLDAsMAo2LDgsNiw0LDMsMywzLDUsNyw5LDksOCw2LDMsMSwwLDAsMCwwLDAKNSw4LDgsNyw2LDYsNiw3LDcsNyw3LDgsOCw2LDQsMiwxLDAsMCwwCjQsNyw5LDksOSw5LDksOSw3LDUsNCw2LDgsOCw3LDUsMywxLDAsMAoyLDQsNyw4LDksOSw5LDgsNSwyLDEsMyw2LDgsOSw4LDYsNCwzLDMKMSwyLDQsNSw2LDYsNiw1LDMsMSwwLDEsMyw1LDcsOCw4LDcsNiw2CjAsMCwxLDIsMywzLDMsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"R	MjB4MjAKNS4weDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo4LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNyw5LDYsMywwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDEsNCw3LDksOCw1LDIsMCwwLDAsMCwwLDAsMAo2LDksNyw1LDMsMyw0LDYsOCw5LDksNyw1LDMsMywzLDMsMywzLDMKNiw5LDgsNyw2LDYsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjUsOCw5LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDksOQozLDYsOCw5LDksOSw5LDgsNiw1LDYsOCw5LDksOSw5LDksOSw5LDkKMSwzLDUsNyw4LDgsNyw1LDMsMiwzLDUsNiw2LDYsNiw3LDgsOSw5CjAsMSwyLDUsNyw3LDUsMiwxLDAsMSwyLDMsMywzLDMsNSw3LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
-			"S	MjB4MjAKNC41OTM3NXg2LjA0Njg3NQoxLDMsNSw2LDYsNiw2LDUsMywxLDAsMCwwLDEsMyw1LDYsNSw0LDMKMiw1LDgsOSw5LDksOSw4LDYsMywxLDAsMCwxLDQsNyw5LDgsNyw2CjQsNyw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwzLDYsOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5LDkKNiw5LDksOSw4LDgsOCw5LDksOCw1LDIsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDgsNiw2LDcsOSw5LDksNiwzLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDMsMyw1LDgsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDksNyw0LDEsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMyw2LDksOSw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDIsNSw4LDksOSw2LDMsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwxLDQsNyw5LDksNyw1LDMsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwzLDYsOSw5LDgsNyw2LDcsOCw5LDksOSw5CjYsOSw4LDUsMiwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDcsNSwzCjQsNiw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw1LDIsMAoyLDMsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCww", 
-			"S	MjB4MjAKNC4xMDkzNzV4Ni4wNDY4NzUKMSwzLDUsNiw2LDYsNiw1LDMsMSwwLDAsMCwwLDAsMiw0LDUsNCwzCjIsNSw4LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDIsNSw3LDcsNgo0LDcsOSw4LDcsNyw4LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDkKNSw4LDgsNiw0LDQsNiw4LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMSwxLDQsNyw4LDUsMiwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMyw2LDgsNiw0LDMsMyw0LDYsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDIsNSw4LDgsNyw2LDYsNyw4LDgsNyw2CjYsOCw1LDIsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw3LDUsMwo0LDYsNCwyLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMiwzLDIsMSwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"S	MjB4MjAKNC41OTM3NXg2LjA0Njg3NQoxLDMsNSw2LDYsNiw2LDUsMywxLDAsMCwwLDEsMyw1LDYsNSw0LDMKMiw1LDgsOSw5LDksOSw4LDYsMywxLDAsMCwxLDQsNyw5LDgsNyw2CjQsNyw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwzLDYsOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5LDkKNiw5LDksOSw4LDgsOCw5LDksOCw1LDIsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDgsNiw2LDcsOSw5LDksNiwzLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDMsMyw1LDgsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDksNyw0LDEsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMyw2LDksOSw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDIsNSw4LDksOSw2LDMsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwxLDQsNyw5LDksNyw1LDMsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwzLDYsOSw5LDgsNyw2LDcsOCw5LDksOSw5CjYsOSw4LDUsMiwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDcsNSwzCjQsNiw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw1LDIsMAoyLDMsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCww", 
-			"S	MjB4MjAKNC41NzgxMjV4Ni4xMjUKMCwxLDIsNCw1LDYsNSwzLDEsMCwwLDAsMiw0LDYsNSwzLDEsMCwwCjEsMyw1LDcsOCw5LDgsNiwzLDEsMCwwLDMsNiw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDgsNSwyLDAsMCwyLDQsNyw4LDgsNSwyLDAKNCw3LDgsNyw2LDYsNyw4LDYsMywwLDAsMSwyLDQsNiw4LDcsNSwzCjUsNyw2LDQsMywzLDUsNyw3LDQsMSwwLDAsMCwxLDMsNiw3LDcsNgo2LDcsNCwxLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMyw2LDksOQo1LDcsNiw0LDIsMSwwLDAsMyw2LDgsNSwyLDAsMCwxLDQsNyw5LDkKNCw3LDgsNyw0LDIsMCwwLDIsNSw4LDcsNSwzLDMsNCw2LDcsNyw2CjIsNSw4LDksNiwzLDAsMCwxLDQsNyw4LDcsNiw2LDcsNyw2LDQsMwoxLDMsNSw3LDUsMywwLDAsMCwyLDUsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw0LDMsMCwwLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsMywzLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
-			"S	MjB4MjAKNC4xMDkzNzV4Ni4wNDY4NzUKMSwzLDUsNiw2LDYsNiw1LDMsMSwwLDAsMCwwLDAsMiw0LDUsNCwzCjIsNSw4LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDIsNSw3LDcsNgo0LDcsOSw4LDcsNyw4LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDkKNSw4LDgsNiw0LDQsNiw4LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMSwxLDQsNyw4LDUsMiwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMyw2LDgsNiw0LDMsMyw0LDYsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDIsNSw4LDgsNyw2LDYsNyw4LDgsNyw2CjYsOCw1LDIsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw3LDUsMwo0LDYsNCwyLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMiwzLDIsMSwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
-			"S	MjB4MjAKNC44OTA2MjV4Ni40Mzc1CjAsMSwyLDQsNSw2LDUsMywxLDAsMCwyLDQsNiw2LDUsMywxLDAsMAoxLDMsNSw3LDgsOSw4LDYsMywxLDAsMyw2LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw4LDYsMywxLDMsNiw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw4LDUsMiwyLDQsNiw3LDgsOSw3LDUsMwo1LDgsOCw3LDYsNyw4LDksOSw2LDMsMSwyLDMsNCw2LDgsOCw3LDYKNiw5LDcsNSwzLDQsNiw4LDksNiwzLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwxLDQsNyw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDgsNSwyLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwzLDYsOSw5LDkKNiw3LDQsMSwwLDAsMiw1LDgsOCw1LDIsMCwwLDAsMyw2LDksOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw4LDUsMiwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMyw2LDksOCw1LDIsMCwwLDMsNiw5LDksOQo2LDksOCw2LDQsMiwxLDIsNSw4LDksNiwzLDAsMSw0LDcsOSw5LDkKNSw4LDksOCw3LDQsMiwxLDQsNyw5LDcsNSwzLDQsNiw4LDksOSw5CjQsNyw5LDksOSw2LDMsMCwzLDYsOSw4LDcsNiw3LDgsOSw4LDcsNgoyLDUsOCw5LDksNiwzLDAsMiw1LDgsOSw5LDksOSw5LDgsNiw0LDMKMSwzLDUsNyw4LDYsMywwLDEsMyw2LDgsOSw5LDksOCw2LDMsMSwwCjAsMSwyLDUsNyw2LDMsMCwwLDEsNCw3LDksOSw5LDcsNCwxLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDA=",
-			
-			//Added explicitly
-			"S	MjB4MjAKMTkuMHgyNS4wCjAsMiw0LDYsNiw2LDYsNCwyLDAsMCwyLDQsNyw4LDYsMywwLDAsMAoyLDUsNyw5LDksOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAKNCw3LDgsOCw4LDgsOSw2LDMsMCwwLDMsNiw5LDksNyw0LDEsMCwwCjcsOSw4LDYsNiw3LDksNiwzLDAsMCwyLDQsNyw4LDgsNiwzLDEsMAo4LDgsNiwzLDQsNiw5LDYsMywwLDAsMSwyLDQsNiw4LDgsNSwyLDAKOSw3LDQsMSwzLDYsOSw2LDMsMCwwLDAsMCwxLDQsNyw5LDYsMywwCjksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw2LDMsMAo5LDYsMywwLDMsNiw5LDcsNSwyLDEsMCwwLDAsMyw2LDksNiwzLDAKOSw2LDMsMCwyLDQsNyw3LDcsNCwyLDAsMCwwLDMsNiw5LDYsMywwCjgsNSwyLDAsMSwyLDUsNyw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMAo4LDUsMiwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksNyw1LDMKOCw2LDMsMSwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDgsNyw2CjksOCw1LDIsMCwwLDMsNiw5LDYsMywwLDAsMSw0LDcsOCw3LDYsNgo4LDksNyw0LDEsMCwzLDYsOSw3LDUsMiwyLDMsNiw3LDYsNCwzLDMKNiw4LDgsNiwzLDEsMyw2LDksOCw3LDUsNSw2LDgsNyw0LDEsMCwwCjMsNiw4LDgsNSwyLDIsNCw3LDgsOSw4LDgsOCw4LDUsMiwwLDAsMAoxLDQsNyw4LDUsMiwxLDIsNSw3LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwyLDQsNSwzLDEsMCwwLDIsNCw2LDYsNiw1LDMsMSwwLDAsMCwwCjAsMSwyLDIsMSwwLDAsMCwxLDIsMywzLDMsMiwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			
-			"T	MjB4MjAKNS4zNzV4NS44MjgxMjUKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"T	MjB4MjAKNC45Mzc1eDUuODI4MTI1CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"T	MjB4MjAKNS4zNzV4NS44MjgxMjUKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"T	MjB4MjAKNC41NzgxMjV4NS44MjgxMjUKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"T	MjB4MjAKNC45Mzc1eDUuODI4MTI1CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"T	MjB4MjAKNC44OTA2MjV4Ni4xNDA2MjUKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"U	MjB4MjAKNS4wMzEyNXg1LjkzNzUKOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNSwzLDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOSw4LDcsNgozLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNiw3LDgsOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"U	MjB4MjAKNC40NTMxMjV4NS45Mzc1CjksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDUsMywxLDAsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDcsNyw2CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNSwyLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"U	MjB4MjAKNS4wMzEyNXg1LjkzNzUKOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNSwzLDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOSw4LDcsNgozLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNiw3LDgsOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"U	MjB4MjAKNC40Njg3NXg2LjAxNTYyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDMsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw2LDQsMwozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsNyw1LDMKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDUsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCww", 
-			"U	MjB4MjAKNC40NTMxMjV4NS45Mzc1CjksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDUsMywxLDAsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDcsNyw2CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNSwyLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"U	MjB4MjAKNC43ODEyNXg2LjMyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDMsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksNyw1LDMKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNiw4LDgsNyw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw0LDYsOCw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCww", 
-			"V	MjB4MjAKNi4xMDkzNzV4NS44MjgxMjUKNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMAoyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw1LDQsMywzLDMKMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw5LDksOCw3LDYsNiw2CjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOQowLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDkKMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNiw2CjIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsNCwzLDMsMwo1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAKOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"V	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQo3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw4LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDQsNSw3LDgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDIsNCw1LDYsNyw4LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwCjAsMCwwLDEsMiwzLDQsNSw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMywzLDMKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDgsNyw2LDYsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMywzLDMKMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw1LDQsMiwxLDAsMCwwCjAsMSwyLDQsNSw2LDcsOCw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMAozLDQsNSw3LDgsOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKNiw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"V	MjB4MjAKNi4xMDkzNzV4NS44MjgxMjUKNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMAoyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw1LDQsMywzLDMKMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw5LDksOCw3LDYsNiw2CjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOQowLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDkKMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNiw2CjIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsNCwzLDMsMwo1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAKOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"V	MjB4MjAKNC45MjE4NzV4NS44MjgxMjUKNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDgsOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDYsNyw4LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjEsMiwzLDQsNSw3LDgsOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMAowLDAsMCwxLDIsNCw1LDYsNyw4LDgsNyw2LDUsNCwyLDEsMCwwLDAKMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw4LDcsNSw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw2LDYKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw4LDcsNiw1LDQsMywzCjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw4LDcsNSw0LDMsMiwxLDAsMAowLDEsMiw0LDUsNiw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMyw0LDUsNyw4LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjYsNyw4LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"V	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQo3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw4LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDQsNSw3LDgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDIsNCw1LDYsNyw4LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwCjAsMCwwLDEsMiwzLDQsNSw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMywzLDMKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDgsNyw2LDYsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMywzLDMKMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw1LDQsMiwxLDAsMCwwCjAsMSwyLDQsNSw2LDcsOCw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMAozLDQsNSw3LDgsOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKNiw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"V	MjB4MjAKNS4zNTkzNzV4Ni4xNDA2MjUKNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDksOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjQsNSw2LDcsOCw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMAoxLDIsMyw0LDUsNyw4LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDAKMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw4LDcsNSw0LDMsMywzCjAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDgsNyw2LDYsNgowLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDgsNyw2LDYKMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDgsNyw1LDQsMywzCjAsMSwyLDQsNSw2LDcsOCw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMAozLDQsNSw3LDgsOSw5LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAKNiw3LDgsOSw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjksOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"W	MjB4MjAKOC4zNDM3NXg1LjgyODEyNQo3LDYsNiw2LDYsNSw0LDMsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMywzLDIsMSwwCjYsNiw3LDgsOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNiw1LDQsMwozLDMsNCw1LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOCw3LDYKMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2LDcsOCw5LDksOSw5LDksOQoxLDIsMywzLDMsMyw0LDUsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYKNCw1LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMsMywzCjcsOCw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMywzLDIsMSwwLDAsMAo5LDksOSw4LDcsNiw2LDYsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMsMywzLDMsMiwxLDAsMCwwCjQsNSw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMwoxLDIsMywzLDMsMyw0LDUsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwxLDIsMywzLDMsMyw0LDUsNiw2LDcsOCw5LDksOSw5LDksOQozLDMsNCw1LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw2LDcsOCw5LDksOSw5LDksOSw5LDgsNyw2LDYsNiw2LDUsNCwzCjksOSw5LDksOSw4LDcsNiw2LDYsNiw1LDQsMywzLDMsMywyLDEsMAo5LDksOSw5LDksNyw1LDMsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"W	MjB4MjAKNy4zOTA2MjV4NS44MjgxMjUKNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiw2LDcsNyw3LDYsNiw2LDUsNCwzLDMsMywyLDEsMCwwLDAsMAozLDMsMyw0LDUsNiw2LDYsNyw3LDcsNiw2LDYsNSw0LDMsMywzLDMKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNyw5LDksOCw3LDYKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNSw1LDUsNiw2LDUsNCwzCjMsMywzLDQsNSw2LDUsNCw0LDUsNiw2LDUsNCwzLDMsMywyLDEsMAo2LDUsNCw0LDUsNiw1LDQsMywzLDMsMywyLDEsMCwwLDAsMCwwLDAKOSw4LDcsNiw2LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNSw0LDQsNSw2LDUsNCwzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAozLDMsMyw0LDUsNiw1LDQsNCw1LDYsNiw1LDQsMywzLDMsMiwxLDAKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNSw1LDUsNiw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNyw5LDksOSw5LDkKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw2CjMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMwo2LDYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAKOSw5LDksOSw3LDUsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"W	MjB4MjAKOC4zNDM3NXg1LjgyODEyNQo3LDYsNiw2LDYsNSw0LDMsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMywzLDIsMSwwCjYsNiw3LDgsOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNiw1LDQsMwozLDMsNCw1LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOCw3LDYKMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2LDcsOCw5LDksOSw5LDksOQoxLDIsMywzLDMsMyw0LDUsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYKNCw1LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMsMywzCjcsOCw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMywzLDIsMSwwLDAsMAo5LDksOSw4LDcsNiw2LDYsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMsMywzLDMsMiwxLDAsMCwwCjQsNSw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMwoxLDIsMywzLDMsMyw0LDUsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwxLDIsMywzLDMsMyw0LDUsNiw2LDcsOCw5LDksOSw5LDksOQozLDMsNCw1LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw2LDcsOCw5LDksOSw5LDksOSw5LDgsNyw2LDYsNiw2LDUsNCwzCjksOSw5LDksOSw4LDcsNiw2LDYsNiw1LDQsMywzLDMsMywyLDEsMAo5LDksOSw5LDksNyw1LDMsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"W	MjB4MjAKNy4yNjU2MjV4NS44MjgxMjUKNyw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMAozLDMsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDUsNCwzLDMsMywzLDMKMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDQsNiw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDMsMyw0LDYsOCw5LDgsNyw2LDYKMCwwLDAsMSwyLDMsMyw0LDUsNiw2LDUsNSw1LDYsNiw1LDQsMywzCjMsMywzLDQsNSw2LDUsNSw1LDYsNiw1LDQsMywzLDMsMiwxLDAsMAo2LDYsNSw1LDUsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDgsNyw2LDYsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiw1LDUsNSw2LDYsNSw0LDMsMywyLDEsMCwwLDAsMCwwLDAsMAozLDMsMyw0LDUsNiw2LDYsNiw2LDYsNSw0LDMsMywyLDEsMCwwLDAKMCwwLDAsMSwyLDMsMyw0LDUsNiw2LDYsNiw2LDYsNSw0LDMsMywzCjAsMCwwLDAsMCwwLDAsMSwyLDMsMyw0LDUsNyw4LDgsNyw2LDYsNgowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw5LDkKMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2CjMsMyw0LDUsNiw2LDYsNiw2LDYsNiw2LDYsNSw0LDMsMywzLDMsMwo2LDYsNyw3LDcsNiw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAKOSw5LDksNyw1LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"W	MjB4MjAKNy4zOTA2MjV4NS44MjgxMjUKNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiw2LDcsNyw3LDYsNiw2LDUsNCwzLDMsMywyLDEsMCwwLDAsMAozLDMsMyw0LDUsNiw2LDYsNyw3LDcsNiw2LDYsNSw0LDMsMywzLDMKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNyw5LDksOCw3LDYKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNSw1LDUsNiw2LDUsNCwzCjMsMywzLDQsNSw2LDUsNCw0LDUsNiw2LDUsNCwzLDMsMywyLDEsMAo2LDUsNCw0LDUsNiw1LDQsMywzLDMsMywyLDEsMCwwLDAsMCwwLDAKOSw4LDcsNiw2LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNSw0LDQsNSw2LDUsNCwzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAozLDMsMyw0LDUsNiw1LDQsNCw1LDYsNiw1LDQsMywzLDMsMiwxLDAKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNSw1LDUsNiw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNyw5LDksOSw5LDkKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw2CjMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMwo2LDYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAKOSw5LDksOSw3LDUsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"W	MjB4MjAKNy42NzE4NzV4Ni4xNDA2MjUKNyw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMAo2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDUsNCwzLDMsMywzLDMKMywzLDMsMyw0LDUsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2CjAsMCwwLDAsMSwyLDMsMywzLDQsNSw3LDgsOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDkKMCwxLDIsMywzLDMsNCw1LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2CjMsNCw1LDYsNiw2LDcsOCw5LDgsNyw2LDYsNSw0LDMsMywzLDMsMwo2LDcsOCw5LDgsNyw2LDYsNiw1LDQsMywzLDIsMSwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw2LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw4LDksOCw3LDYsNiw2LDUsNCwzLDMsMiwxLDAsMCwwLDAsMAozLDQsNSw2LDYsNiw3LDgsOSw4LDcsNiw2LDUsNCwzLDMsMywzLDMKMCwxLDIsMywzLDMsNCw1LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2CjAsMCwwLDAsMCwwLDEsMiwzLDQsNiw4LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDEsMiwzLDMsMyw0LDYsOCw5LDksOSw5LDksOSw5LDkKMywzLDMsMyw0LDUsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2CjYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNSw0LDMsMywzLDMsMwo5LDksOSw4LDcsNiw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAKOSw5LDksNyw1LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"X	MjB4MjAKNS44NTkzNzV4NS44MjgxMjUKNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjgsOSw5LDksOCw2LDQsMiwxLDAsMSwzLDUsNyw4LDksOSw5LDksOQo1LDcsOCw5LDksOCw3LDUsNCwzLDQsNiw4LDksOSw5LDgsNyw2LDYKMiw0LDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDQsMywzCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDQsNiw4LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAKMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwCjAsMCwxLDMsNSw3LDgsOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMyw1LDcsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDQsMywzCjYsOCw5LDksOSw4LDcsNSw0LDMsNCw2LDgsOSw5LDksOCw3LDYsNgo4LDksOSw5LDgsNiw0LDIsMSwwLDEsMyw1LDcsOCw5LDksOSw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"X	MjB4MjAKNS4weDUuODI4MTI1CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNgo1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5CjgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDYsNgo2LDgsOCw3LDUsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDYsNCwzLDMKMyw1LDcsOCw4LDYsMywxLDAsMCwxLDMsNiw4LDgsNiwzLDEsMCwwCjEsMiw0LDYsOCw4LDYsMywyLDIsNCw2LDgsOCw2LDMsMSwwLDAsMAowLDAsMSwzLDYsOCw4LDYsNSw1LDcsNyw3LDUsMywxLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw3LDgsOCw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDEsMiw0LDYsOCw4LDcsNyw4LDgsNiw0LDIsMSwwLDAsMCwwCjAsMSwzLDUsNyw4LDgsNiw0LDQsNSw3LDcsNyw1LDMsMSwwLDAsMAoxLDMsNiw4LDgsNyw1LDMsMSwxLDIsNCw2LDgsOCw2LDMsMSwwLDAKMyw2LDgsOCw2LDQsMiwxLDAsMCwwLDEsMyw2LDgsOCw2LDQsMywzCjYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDYsNgo3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQozLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
-			"X	MjB4MjAKNS44NTkzNzV4NS44MjgxMjUKNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjgsOSw5LDksOCw2LDQsMiwxLDAsMSwzLDUsNyw4LDksOSw5LDksOQo1LDcsOCw5LDksOCw3LDUsNCwzLDQsNiw4LDksOSw5LDgsNyw2LDYKMiw0LDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDQsMywzCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDQsNiw4LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAKMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwCjAsMCwxLDMsNSw3LDgsOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMyw1LDcsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDQsMywzCjYsOCw5LDksOSw4LDcsNSw0LDMsNCw2LDgsOSw5LDksOCw3LDYsNgo4LDksOSw5LDgsNiw0LDIsMSwwLDEsMyw1LDcsOCw5LDksOSw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"X	MjB4MjAKNS4wMTU2MjV4NS44MjgxMjUKMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKNyw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNyw2CjQsNiw4LDgsNiwzLDEsMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDQsMwoxLDMsNiw4LDgsNiw0LDIsMSwwLDEsMyw2LDgsOCw2LDQsMiwxLDAKMCwxLDMsNSw3LDcsNyw1LDQsMyw0LDYsOCw4LDYsMywxLDAsMCwwCjAsMCwxLDIsNCw2LDgsOCw3LDYsNyw3LDcsNSwzLDEsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDIsNSw4LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDgsNyw2LDcsNyw3LDUsMywxLDAsMCwwLDAKMCwxLDIsNCw2LDcsNyw1LDQsMyw0LDYsOCw4LDYsMywxLDAsMCwwCjEsMyw1LDcsNyw2LDQsMiwxLDAsMSwzLDYsOCw4LDYsNCwyLDEsMAozLDYsOCw4LDYsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDcsNSw0LDMKNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNyw2CjgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQo3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"X	MjB4MjAKNS4weDUuODI4MTI1CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNgo1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5CjgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDYsNgo2LDgsOCw3LDUsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDYsNCwzLDMKMyw1LDcsOCw4LDYsMywxLDAsMCwxLDMsNiw4LDgsNiwzLDEsMCwwCjEsMiw0LDYsOCw4LDYsMywyLDIsNCw2LDgsOCw2LDMsMSwwLDAsMAowLDAsMSwzLDYsOCw4LDYsNSw1LDcsNyw3LDUsMywxLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw3LDgsOCw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDEsMiw0LDYsOCw4LDcsNyw4LDgsNiw0LDIsMSwwLDAsMCwwCjAsMSwzLDUsNyw4LDgsNiw0LDQsNSw3LDcsNyw1LDMsMSwwLDAsMAoxLDMsNiw4LDgsNyw1LDMsMSwxLDIsNCw2LDgsOCw2LDMsMSwwLDAKMyw2LDgsOCw2LDQsMiwxLDAsMCwwLDEsMyw2LDgsOCw2LDQsMywzCjYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDYsNgo3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQozLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
-			"X	MjB4MjAKNS42MDkzNzV4Ni4xNDA2MjUKNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjcsOCw5LDgsNyw1LDMsMSwwLDAsMCwxLDMsNiw4LDksOSw4LDcsNgo0LDYsOCw5LDksOCw2LDMsMSwxLDIsNCw2LDgsOSw4LDcsNSw0LDMKMSwzLDUsNyw4LDksOCw2LDQsNCw1LDcsOCw5LDgsNiw0LDIsMSwwCjAsMSwyLDQsNiw4LDksOCw3LDcsOCw5LDgsNyw1LDMsMSwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAKMCwwLDAsMCwyLDUsOCw5LDksOSw5LDgsNSwyLDAsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMAowLDEsMiw0LDYsOCw5LDgsNyw3LDgsOSw4LDcsNSwzLDEsMCwwLDAKMSwzLDUsNyw4LDksOCw2LDQsNCw1LDcsOCw5LDgsNiw0LDIsMSwwCjMsNiw4LDksOSw4LDYsMywxLDEsMiw0LDYsOCw5LDgsNyw1LDQsMwo2LDgsOSw4LDcsNSwzLDEsMCwwLDAsMSwzLDYsOCw5LDksOCw3LDYKOCw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQo3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"Y	MjB4MjAKNS45NTMxMjV4NS44MjgxMjUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDcsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAKMiw0LDYsOCw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzCjAsMSwzLDUsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwxLDIsNCw1LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsMyw1LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzCjUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"Y	MjB4MjAKNC45MjE4NzV4NS44MjgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNSw3LDcsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoxLDIsNCw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDEsMyw1LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMSwzLDUsNyw3LDcsNiw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMCwxLDMsNiw4LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"Y	MjB4MjAKNS45NTMxMjV4NS44MjgxMjUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDcsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAKMiw0LDYsOCw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzCjAsMSwzLDUsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwxLDIsNCw1LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsMyw1LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzCjUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"Y	MjB4MjAKNS4xNzE4NzV4NS44MjgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw3LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsNCw2LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDEsMiw0LDYsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDUsNyw3LDcsNSw0LDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDAsMSwyLDQsNiw4LDgsNyw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwxLDIsNCw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNgowLDAsMCwwLDEsMyw1LDcsOCw4LDYsNCwzLDMsMywzLDMsMywzLDMKMCwwLDEsMiw0LDYsOCw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMSwzLDUsNyw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAoyLDQsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw3LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"Y	MjB4MjAKNC45MjE4NzV4NS44MjgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNSw3LDcsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoxLDIsNCw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDEsMyw1LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMSwzLDUsNyw3LDcsNiw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMCwxLDMsNiw4LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"Y	MjB4MjAKNS43MzQzNzV4Ni4xNDA2MjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDQsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDIsNCw2LDgsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNgowLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSw0LDMsMywzLDMsMywzLDMKMCwxLDIsNCw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwCjEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo0LDYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"Z	MjB4MjAKNS4wNzgxMjV4NS44MjgxMjUKNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwxLDMsNiw4LDksOSw5LDgsOCw4LDksOSw5CjksOSw2LDMsMCwwLDEsMyw2LDgsOSw5LDksOCw2LDYsNyw5LDksOQo5LDksNiwzLDAsMSwzLDYsOCw5LDksOSw4LDYsMyw0LDYsOSw5LDkKOSw5LDYsMywxLDMsNiw4LDksOSw5LDgsNiwzLDEsMyw2LDksOSw5CjksOSw2LDQsMyw2LDgsOSw5LDksOCw2LDMsMSwwLDMsNiw5LDksOQo5LDksNyw2LDYsOCw5LDksOSw4LDYsMywxLDAsMCwzLDYsOSw5LDkKOSw5LDgsOCw4LDksOSw5LDgsNiwzLDEsMCwwLDAsMyw2LDksOSw5CjksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDMsNiw5LDksOQo5LDksOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"Z	MjB4MjAKNC43NjU2MjV4NS44MjgxMjUKNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw4LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDYsNiw3LDksOQo5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiwzLDQsNiw5LDkKOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOCw2LDMsMSwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAsMyw2LDksOQo5LDYsMywwLDAsMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwwLDAsMyw2LDksOQo5LDYsMywxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDQsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNyw2LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsOCw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"Z	MjB4MjAKNS4wNzgxMjV4NS44MjgxMjUKNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwxLDMsNiw4LDksOSw5LDgsOCw4LDksOSw5CjksOSw2LDMsMCwwLDEsMyw2LDgsOSw5LDksOCw2LDYsNyw5LDksOQo5LDksNiwzLDAsMSwzLDYsOCw5LDksOSw4LDYsMyw0LDYsOSw5LDkKOSw5LDYsMywxLDMsNiw4LDksOSw5LDgsNiwzLDEsMyw2LDksOSw5CjksOSw2LDQsMyw2LDgsOSw5LDksOCw2LDMsMSwwLDMsNiw5LDksOQo5LDksNyw2LDYsOCw5LDksOSw4LDYsMywxLDAsMCwzLDYsOSw5LDkKOSw5LDgsOCw4LDksOSw5LDgsNiwzLDEsMCwwLDAsMyw2LDksOSw5CjksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDMsNiw5LDksOQo5LDksOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"Z	MjB4MjAKNC40NTMxMjV4NS44MjgxMjUKMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw4LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDYsNiw3LDksOQo5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksNyw0LDQsNiw5LDkKOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOSw4LDUsMiwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDEsMyw2LDksOQo5LDYsMywwLDAsMCwxLDMsNiw4LDksOCw2LDMsMSwwLDMsNiw5LDkKOSw2LDMsMCwwLDEsMyw2LDgsOSw4LDYsMywxLDAsMCwzLDYsOSw5CjksNiwzLDAsMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDAsMyw2LDksOQo5LDYsMywxLDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMiw1LDgsOSw4LDYsMywxLDAsMCwwLDAsMCwzLDYsOSw5CjksNiw0LDQsNyw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDcsNiw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw4LDgsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"Z	MjB4MjAKNC43NjU2MjV4NS44MjgxMjUKNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw4LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDYsNiw3LDksOQo5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiwzLDQsNiw5LDkKOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOCw2LDMsMSwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAsMyw2LDksOQo5LDYsMywwLDAsMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwwLDAsMyw2LDksOQo5LDYsMywxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDQsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNyw2LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsOCw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"Z	MjB4MjAKNC43NjU2MjV4Ni4xNDA2MjUKNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw4LDgsOSw5LDkKOSw5LDYsMywwLDAsMCwwLDEsMyw2LDgsOSw4LDYsNiw3LDksOSw5CjksOSw2LDMsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDQsNiw5LDksOQo5LDksNiwzLDAsMCwxLDMsNiw4LDksOCw2LDMsMSwzLDYsOSw5LDkKOSw5LDYsMywwLDEsMyw2LDgsOSw4LDYsMywxLDAsMyw2LDksOSw5CjksOSw2LDMsMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDMsNiw5LDksOQo5LDksNiw0LDMsNiw4LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDkKOSw5LDcsNiw2LDgsOSw4LDYsMywxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw4LDgsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"\\	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOCw3LDUsMywxLDAKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"\\	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOCw2LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"\\	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOCw3LDUsMywxLDAKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"\\	MjB4MjAKMi4zNDM3NXg1Ljk4NDM3NQo2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw2LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDEsMiw0LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSwzLDYsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDgsNiw0LDIsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOCw2LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
-			"\\	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOCw2LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"\\	MjB4MjAKMi43ODEyNXg2LjI5Njg3NQo2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsNyw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNSw3LDgsOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMAowLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOCw3LDUsMywxLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDcsNSw0LDMKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5",
-			
-			"\\	MjB4MjAKMzIuMHgyNi4wCjcsOCw5LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDksOCw3LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMyw2LDgsOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMCwwLDAsMAowLDIsNCw3LDgsOSw5LDksOSw5LDgsNyw0LDIsMCwwLDAsMCwwLDAKMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMCwwCjAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDgsNyw0LDIsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw5LDgsNSwyLDAsMAowLDAsMCwwLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDYsMywwLDAKMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMAowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksNyw1LDMKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDcsNSwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDUsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDA=",
-			
-			
-			"a	MjB4MjAKNC40MjE4NzV4NC41OTM3NQoyLDMsMywzLDIsMSwwLDAsMSwzLDUsNiw2LDYsNiw2LDUsMywxLDAKNCw2LDYsNiw0LDIsMCwxLDMsNiw4LDksOSw5LDksOSw4LDYsNCwzCjYsOSw5LDgsNSwyLDAsMiw1LDgsOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw3LDQsMSwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksNiwzLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDcsNSwzLDMsNSw3LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw3LDQsMSwwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDgsNyw2CjYsOSw5LDcsNCwxLDMsNiw5LDYsMywwLDAsMSw0LDcsOCw2LDQsMwo2LDksOSw4LDYsNCw1LDcsOSw3LDUsMywzLDQsNiw4LDgsNiw0LDMKNiw5LDksOSw4LDcsNyw4LDksOCw3LDYsNiw3LDgsOSw4LDcsNiw2CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"a	MjB4MjAKMy42ODc1eDQuNTkzNzUKMSwyLDMsMiwxLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwCjMsNSw1LDMsMSwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMAo1LDgsNyw0LDEsMCwwLDIsNSw4LDksOCw3LDcsOCw5LDksNyw1LDMKNiw5LDYsMywwLDAsMCwzLDYsOSw4LDYsNCw0LDUsNyw4LDgsNyw2CjYsOCw1LDIsMCwwLDEsNCw3LDgsNiwzLDEsMSwyLDUsNyw5LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwyLDUsOCw5LDkKNiw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw4LDUsMiwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDgsNyw2CjYsOSw3LDQsMSwwLDMsNiw2LDMsMCwwLDAsMSwzLDYsNyw2LDQsMwo1LDgsOCw2LDQsMiw0LDYsNiwzLDEsMiwzLDQsNiw3LDYsMywxLDAKNCw3LDksOCw3LDUsNiw3LDcsNSw0LDUsNiw3LDgsOCw2LDQsMywzCjIsNSw4LDksOSw4LDgsOCw4LDcsNyw4LDksOSw5LDgsNyw2LDYsNgoxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwxLDIsNSw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"a	MjB4MjAKNC40MjE4NzV4NC41OTM3NQoyLDMsMywzLDIsMSwwLDAsMSwzLDUsNiw2LDYsNiw2LDUsMywxLDAKNCw2LDYsNiw0LDIsMCwxLDMsNiw4LDksOSw5LDksOSw4LDYsNCwzCjYsOSw5LDgsNSwyLDAsMiw1LDgsOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw3LDQsMSwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksNiwzLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDcsNSwzLDMsNSw3LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw3LDQsMSwwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDgsNyw2CjYsOSw5LDcsNCwxLDMsNiw5LDYsMywwLDAsMSw0LDcsOCw2LDQsMwo2LDksOSw4LDYsNCw1LDcsOSw3LDUsMywzLDQsNiw4LDgsNiw0LDMKNiw5LDksOSw4LDcsNyw4LDksOCw3LDYsNiw3LDgsOSw4LDcsNiw2CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"a	MjB4MjAKMy45Mzc1eDQuNQowLDEsMiw0LDUsNCwyLDAsMCwxLDMsNSw2LDYsNiw2LDUsMywxLDAKMSwzLDUsNyw4LDYsMywwLDEsMyw2LDgsOSw5LDksOSw4LDYsNCwzCjIsNSw4LDksOSw2LDMsMCwyLDUsOCw4LDcsNiw2LDcsOCw4LDcsNgo0LDcsOSw4LDcsNCwyLDAsMyw2LDgsNiw0LDMsMyw1LDcsOSw5LDkKNSw4LDgsNiw0LDIsMSwxLDQsNyw3LDQsMSwwLDAsMiw1LDgsOSw5CjYsOCw2LDMsMSwwLDAsMiw1LDgsNiwzLDAsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw3LDQsMSwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMiw1LDcsNyw2CjYsOCw1LDIsMCwwLDEsNCw3LDYsMywwLDAsMCwxLDQsNyw3LDUsMwo2LDksNyw0LDEsMSwzLDYsNyw1LDIsMCwxLDIsNCw2LDcsNSwyLDAKNSw4LDgsNiw0LDQsNiw4LDgsNiw0LDMsNCw1LDcsOCw4LDYsNCwzCjQsNyw5LDgsNyw3LDgsOSw4LDcsNiw2LDcsOCw5LDksOCw3LDYsNgoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjAsMSwyLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5", 
-			"a	MjB4MjAKMy42ODc1eDQuNTkzNzUKMSwyLDMsMiwxLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwCjMsNSw1LDMsMSwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMAo1LDgsNyw0LDEsMCwwLDIsNSw4LDksOCw3LDcsOCw5LDksNyw1LDMKNiw5LDYsMywwLDAsMCwzLDYsOSw4LDYsNCw0LDUsNyw4LDgsNyw2CjYsOCw1LDIsMCwwLDEsNCw3LDgsNiwzLDEsMSwyLDUsNyw5LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwyLDUsOCw5LDkKNiw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw4LDUsMiwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDgsNyw2CjYsOSw3LDQsMSwwLDMsNiw2LDMsMCwwLDAsMSwzLDYsNyw2LDQsMwo1LDgsOCw2LDQsMiw0LDYsNiwzLDEsMiwzLDQsNiw3LDYsMywxLDAKNCw3LDksOCw3LDUsNiw3LDcsNSw0LDUsNiw3LDgsOCw2LDQsMywzCjIsNSw4LDksOSw4LDgsOCw4LDcsNyw4LDksOSw5LDgsNyw2LDYsNgoxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwxLDIsNSw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"a	MjB4MjAKNC4yNXg0LjgxMjUKMCwxLDIsMyw0LDMsMiwwLDEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwCjEsMyw1LDYsNyw1LDMsMCwyLDUsOCw5LDksOSw5LDksOCw2LDQsMwoyLDUsOCw5LDksNiwzLDEsNCw3LDksOSw5LDksOSw5LDksOCw3LDYKNCw3LDksOSw5LDYsMywyLDUsOCw5LDksOCw3LDcsOCw5LDksOSw5CjUsOCw5LDgsNyw0LDIsMyw2LDksOSw4LDYsNCw1LDcsOSw5LDksOQo2LDksOSw3LDUsMiwxLDMsNiw5LDgsNiwzLDEsMiw1LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwzLDYsOSw3LDQsMSwwLDEsNCw3LDksOSw5CjYsOSw3LDQsMSwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwyLDUsOCw5LDYsMywwLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDMsNiw5LDksNiwzLDAsMSw0LDcsOSw4LDcsNgo2LDksOCw2LDMsMiw0LDcsOSw4LDUsMiwxLDMsNiw4LDgsNiw0LDMKNiw5LDksOCw2LDUsNiw4LDksOCw2LDQsNCw2LDgsOSw4LDUsMiwwCjUsOCw5LDksOCw4LDgsOSw5LDgsNyw2LDcsOCw5LDksOCw2LDQsMwo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw1LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOQowLDEsMiwzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
-			"b	MjB4MjAKNC43MDMxMjV4Ni4xODc1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw5LDksOCw4LDgsOSw5LDgsNyw2LDYKMywzLDMsMywzLDQsNiw4LDgsNyw2LDUsNSw1LDcsOCw4LDYsNCwzCjAsMCwwLDAsMCwyLDUsNyw2LDQsMywyLDIsMiw0LDYsNyw2LDQsMwowLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMSw0LDcsOCw3LDYKMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwwLDMsNiw5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"b	MjB4MjAKMy45MDYyNXg2LjE4NzUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYKMywzLDMsMywzLDQsNiw3LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCwzCjAsMCwwLDAsMSwzLDYsNiw1LDIsMSwwLDAsMSwyLDQsNSw1LDQsMwowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDgsNiwzLDEsMCwwLDAsMCwwLDEsNCw3LDksOQowLDAsMCwwLDIsNSw4LDgsNiw0LDIsMSwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwxLDQsNyw5LDgsNyw1LDQsMyw0LDUsNyw4LDcsNSwzCjAsMCwwLDAsMCwyLDUsOCw5LDksOCw3LDYsNyw4LDksOCw1LDIsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"b	MjB4MjAKNC43MDMxMjV4Ni4xODc1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw5LDksOCw4LDgsOSw5LDgsNyw2LDYKMywzLDMsMywzLDQsNiw4LDgsNyw2LDUsNSw1LDcsOCw4LDYsNCwzCjAsMCwwLDAsMCwyLDUsNyw2LDQsMywyLDIsMiw0LDYsNyw2LDQsMwowLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMSw0LDcsOCw3LDYKMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwwLDMsNiw5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"b	MjB4MjAKMy43NXg2LjAxNTYyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNgozLDMsMywzLDMsNSw3LDgsNyw1LDQsMywzLDQsNSw3LDgsNyw1LDMKMCwwLDAsMCwxLDQsNyw3LDUsMiwxLDAsMCwxLDIsNSw3LDcsNSwzCjAsMCwwLDAsMiw1LDcsNSwyLDAsMCwwLDAsMCwwLDIsNSw3LDcsNgowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwzLDYsOCw2LDMsMSwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMiw1LDgsOCw2LDMsMSwwLDAsMSwzLDYsOCw4LDcsNgowLDAsMCwwLDEsNCw3LDksOCw2LDQsMywzLDQsNiw4LDksNyw1LDMKMCwwLDAsMCwwLDIsNSw4LDksOCw3LDYsNiw3LDgsOSw4LDUsMiwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw3LDQsMSwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksNiwzLDAsMCww", 
-			"b	MjB4MjAKMy45MDYyNXg2LjE4NzUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYKMywzLDMsMywzLDQsNiw3LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCwzCjAsMCwwLDAsMSwzLDYsNiw1LDIsMSwwLDAsMSwyLDQsNSw1LDQsMwowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDgsNiwzLDEsMCwwLDAsMCwwLDEsNCw3LDksOQowLDAsMCwwLDIsNSw4LDgsNiw0LDIsMSwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwxLDQsNyw5LDgsNyw1LDQsMyw0LDUsNyw4LDcsNSwzCjAsMCwwLDAsMCwyLDUsOCw5LDksOCw3LDYsNyw4LDksOCw1LDIsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"b	MjB4MjAKNC4wNjI1eDYuMzI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNyw4LDksOSw5LDgsNyw2LDYsNyw4LDksOSw5LDksOQozLDMsMywzLDUsNyw5LDksOCw2LDQsMywzLDQsNiw4LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw4LDYsMywxLDAsMCwxLDMsNiw4LDksOSw5CjAsMCwwLDEsNCw3LDgsNiwzLDEsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKMCwwLDAsMyw2LDksOCw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDIsNSw4LDksNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwxLDQsNyw5LDgsNiw0LDMsMywzLDMsNCw2LDgsOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDcsOCw5LDgsNyw2CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwowLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"c	MjB4MjAKMy44NTkzNzV4NC41OTM3NQowLDAsMCwxLDMsNSw2LDYsNyw3LDcsNiw2LDUsMywxLDAsMCwwLDAKMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDgsNiw0LDMsMywzLDQsNiw4LDksOSw5LDksOSw5CjYsOSw5LDksOCw2LDMsMSwwLDAsMCwxLDMsNiw4LDksOSw5LDksOQo2LDksOSw4LDYsMywxLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOQo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDkKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5", 
-			"c	MjB4MjAKMy40Njg3NXg0LjU5Mzc1CjAsMCwwLDEsMyw1LDYsNiw3LDcsNyw2LDYsNSwzLDEsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNiw0LDMsMywzLDMsMyw0LDYsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDMsMSwwLDAsMCwwLDAsMSwzLDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
-			"c	MjB4MjAKMy44NTkzNzV4NC41OTM3NQowLDAsMCwxLDMsNSw2LDYsNyw3LDcsNiw2LDUsMywxLDAsMCwwLDAKMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDgsNiw0LDMsMywzLDQsNiw4LDksOSw5LDksOSw5CjYsOSw5LDksOCw2LDMsMSwwLDAsMCwxLDMsNiw4LDksOSw5LDksOQo2LDksOSw4LDYsMywxLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOQo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDkKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5", 
-			"c	MjB4MjAKMy41NjI1eDQuNQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOCw3LDYsNyw4LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNyw2LDUsNCwzLDQsNSw2LDcsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDQsMywyLDEsMCwxLDIsMyw0LDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjUsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDEsMiw0LDYsOCw4LDcsNgo0LDcsOSw4LDcsNCwyLDAsMCwwLDAsMSwzLDUsNyw4LDksNyw1LDMKMiw1LDgsOSw5LDYsMywwLDAsMCwwLDIsNSw4LDksOSw4LDUsMiwwCjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwzLDYsOSw5LDgsNiwzLDEsMAowLDEsMiw1LDcsNiwzLDAsMCwwLDAsMyw2LDksOSw3LDQsMSwwLDAKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCww", 
-			"c	MjB4MjAKMy40Njg3NXg0LjU5Mzc1CjAsMCwwLDEsMyw1LDYsNiw3LDcsNyw2LDYsNSwzLDEsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNiw0LDMsMywzLDMsMyw0LDYsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDMsMSwwLDAsMCwwLDAsMSwzLDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
-			"c	MjB4MjAKMy44OTA2MjV4NC44MTI1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw5LDksNyw1LDMKNSw4LDksOCw3LDUsNCwzLDMsMywzLDMsNCw2LDgsOSw5LDgsNyw2CjYsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDkKNSw4LDksOSw4LDcsNCwyLDAsMCwxLDMsNSw3LDgsOSw5LDgsNyw2CjQsNyw5LDksOSw5LDYsMywwLDAsMiw1LDgsOSw5LDksOSw3LDUsMwoyLDUsOCw5LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5LDgsNSwyLDAKMSwzLDUsNyw4LDksNiwzLDAsMCwzLDYsOSw5LDgsNyw1LDMsMSwwCjAsMSwyLDUsNyw5LDYsMywwLDAsMyw2LDksOSw3LDUsMiwxLDAsMAowLDAsMCwzLDYsOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDA=", 
-			"d	MjB4MjAKNC43MDMxMjV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDcsOCw5LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMCwwLDEsNCw3LDgsNyw2CjAsMCwwLDAsMCwyLDUsNyw2LDQsMywyLDIsMiw0LDYsNyw2LDQsMwozLDMsMywzLDMsNCw2LDgsOCw3LDYsNSw1LDUsNyw4LDgsNiw0LDMKNiw2LDYsNiw2LDYsNyw4LDksOSw5LDgsOCw4LDksOSw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"d	MjB4MjAKMy45MjE4NzV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDIsNSw4LDksOSw4LDcsNiw3LDgsOSw4LDUsMiwwCjAsMCwwLDAsMSw0LDcsOSw4LDcsNSw0LDMsNCw1LDcsOCw3LDUsMwowLDAsMCwwLDIsNSw4LDgsNiw0LDIsMSwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwzLDYsOCw2LDMsMSwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKMCwwLDAsMCwxLDMsNiw2LDUsMiwxLDAsMCwxLDIsNCw1LDUsNCwzCjMsMywzLDMsMyw0LDYsNyw3LDUsNCwzLDMsNCw1LDcsNyw2LDQsMwo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"d	MjB4MjAKNC43MDMxMjV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDcsOCw5LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMCwwLDEsNCw3LDgsNyw2CjAsMCwwLDAsMCwyLDUsNyw2LDQsMywyLDIsMiw0LDYsNyw2LDQsMwozLDMsMywzLDMsNCw2LDgsOCw3LDYsNSw1LDUsNyw4LDgsNiw0LDMKNiw2LDYsNiw2LDYsNyw4LDksOSw5LDgsOCw4LDksOSw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"d	MjB4MjAKMy43NjU2MjV4Ni4wMTU2MjUKMCwwLDAsMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNSwzLDEsMCwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDAsMCwwLDAsMiw1LDgsOSw4LDcsNiw2LDcsOCw5LDgsNSwyLDAKMCwwLDAsMCwxLDQsNyw5LDgsNiw0LDMsMyw0LDYsOCw5LDcsNSwzCjAsMCwwLDAsMiw1LDgsOCw2LDMsMSwwLDAsMSwzLDYsOCw4LDcsNgowLDAsMCwwLDMsNiw4LDYsMywxLDAsMCwwLDAsMSwzLDYsOCw5LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMiw1LDcsNSwyLDAsMCwwLDAsMCwwLDEsNCw2LDcsNgowLDAsMCwwLDEsNCw3LDcsNSwyLDEsMCwwLDEsMiw0LDYsNiw1LDMKMywzLDMsMywzLDUsNyw4LDcsNSw0LDMsMyw0LDUsNyw4LDcsNSwzCjYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"d	MjB4MjAKMy45MjE4NzV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDIsNSw4LDksOSw4LDcsNiw3LDgsOSw4LDUsMiwwCjAsMCwwLDAsMSw0LDcsOSw4LDcsNSw0LDMsNCw1LDcsOCw3LDUsMwowLDAsMCwwLDIsNSw4LDgsNiw0LDIsMSwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwzLDYsOCw2LDMsMSwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKMCwwLDAsMCwxLDMsNiw2LDUsMiwxLDAsMCwxLDIsNCw1LDUsNCwzCjMsMywzLDMsMyw0LDYsNyw3LDUsNCwzLDMsNCw1LDcsNyw2LDQsMwo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"d	MjB4MjAKNC4wNzgxMjV4Ni4zMjgxMjUKMCwwLDAsMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNSwzLDEsMCwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMCwwLDAsMCwyLDUsOCw5LDksOSw4LDgsOCw5LDksOSw5LDcsNSwzCjAsMCwwLDAsMyw2LDksOSw4LDcsNSw1LDUsNiw3LDgsOSw4LDcsNgowLDAsMCwwLDMsNiw5LDgsNiw0LDIsMiwyLDMsNCw2LDgsOSw5LDkKMCwwLDAsMSw0LDcsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDIsNSw4LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwzLDYsOSw4LDUsMiwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMiw1LDgsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDEsNCw3LDksOCw2LDMsMSwwLDEsMiw0LDYsOCw5LDksOQozLDMsMywzLDUsNyw5LDksOCw2LDQsMyw0LDUsNyw4LDksOSw5LDkKNiw2LDYsNiw3LDgsOSw5LDksOCw3LDYsNyw4LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"e	MjB4MjAKNC43MDMxMjV4NC41OTM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjUsOCw5LDksOCw3LDcsOCw5LDksOCw3LDYsNyw4LDksOSw4LDcsNgo2LDksOSw4LDYsNCw1LDcsOSw5LDcsNSwzLDQsNiw4LDksOSw5LDkKNiw5LDksNyw0LDEsMyw2LDksOSw2LDMsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDcsNCwxLDMsNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw4LDYsNCw1LDcsOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNSw4LDksOSw4LDcsNyw4LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQoyLDUsOCw5LDksOSw5LDksOSw5LDYsMywwLDEsNCw3LDksOSw5LDkKMSwzLDYsOCw5LDksOSw5LDksOSw2LDMsMCwyLDUsOCw5LDgsNyw2CjAsMSwzLDUsNyw4LDksOSw5LDksNiwzLDEsNCw3LDksOSw3LDUsMwowLDAsMSwyLDUsNyw5LDksOSw5LDYsMywyLDUsOCw5LDksNiwzLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMyw2LDksOSw5LDYsMyww", 
-			"e	MjB4MjAKNC4wNjI1eDQuNTkzNzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw4LDgsOCw4LDcsNyw4LDksOSw4LDYsMywxLDAKMiw1LDgsOSw4LDcsNSw2LDcsNyw1LDQsNSw3LDgsOSw4LDUsMiwwCjQsNyw5LDgsNiw0LDIsNCw2LDYsMywxLDIsNCw2LDgsOSw3LDUsMwo1LDgsOCw2LDMsMSwwLDMsNiw2LDMsMCwwLDEsMyw2LDgsOCw3LDYKNiw5LDcsNCwxLDAsMCwzLDYsNiwzLDAsMCwwLDEsNCw3LDksOSw5CjYsOCw1LDIsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDIsNSw4LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw4LDUsMiwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsOSw3LDQsMSwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDMsMSwwLDMsNiw2LDMsMCwwLDAsMCwyLDUsOCw5LDkKMyw2LDgsOCw2LDQsMyw1LDcsNiwzLDAsMCwwLDAsMyw2LDksOSw5CjEsMyw2LDgsOCw3LDYsNyw4LDYsMywwLDAsMCwwLDMsNiw4LDcsNgowLDEsMyw2LDgsOSw5LDksOSw2LDMsMCwwLDAsMSw0LDcsNyw1LDMKMCwwLDEsNCw3LDksOSw5LDksNiwzLDAsMCwwLDIsNSw4LDYsMywwCjAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMA==", 
-			"e	MjB4MjAKNC43MDMxMjV4NC41OTM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjUsOCw5LDksOCw3LDcsOCw5LDksOCw3LDYsNyw4LDksOSw4LDcsNgo2LDksOSw4LDYsNCw1LDcsOSw5LDcsNSwzLDQsNiw4LDksOSw5LDkKNiw5LDksNyw0LDEsMyw2LDksOSw2LDMsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDcsNCwxLDMsNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw4LDYsNCw1LDcsOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNSw4LDksOSw4LDcsNyw4LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQoyLDUsOCw5LDksOSw5LDksOSw5LDYsMywwLDEsNCw3LDksOSw5LDkKMSwzLDYsOCw5LDksOSw5LDksOSw2LDMsMCwyLDUsOCw5LDgsNyw2CjAsMSwzLDUsNyw4LDksOSw5LDksNiwzLDEsNCw3LDksOSw3LDUsMwowLDAsMSwyLDUsNyw5LDksOSw5LDYsMywyLDUsOCw5LDksNiwzLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMyw2LDksOSw5LDYsMyww", 
-			"e	MjB4MjAKMy43OTY4NzV4NC41CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOCw4LDgsOCw3LDYsNyw4LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDUsNiw3LDcsNSwzLDQsNiw4LDksOCw1LDIsMAo0LDcsOSw4LDYsNCwyLDQsNiw2LDMsMCwxLDMsNiw4LDksNyw1LDMKNSw4LDgsNiwzLDEsMCwzLDYsNiwzLDAsMCwxLDMsNiw4LDgsNyw2CjYsOCw2LDMsMSwwLDAsMyw2LDYsMywwLDAsMCwxLDQsNyw5LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwyLDUsOCw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjYsOCw1LDIsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDIsNSw4LDksOQo2LDksNyw0LDEsMCwwLDMsNiw2LDMsMCwwLDAsMSw0LDcsOSw5LDkKNSw4LDgsNiw0LDIsMSwzLDYsNiwzLDAsMSwyLDQsNiw4LDgsNyw2CjMsNiw4LDgsNyw1LDQsNSw3LDYsMywwLDIsNCw3LDgsOCw2LDQsMwoxLDMsNiw4LDksOCw3LDcsOCw2LDMsMCwzLDYsOSw4LDYsMywxLDAKMCwxLDMsNiw4LDksOSw5LDksNiwzLDAsMyw2LDgsNiwzLDEsMCwwCjAsMCwxLDQsNyw5LDksOSw5LDYsMywwLDMsNiw3LDQsMSwwLDAsMAowLDAsMCwzLDYsOSw5LDksOSw2LDMsMCwzLDYsNiwzLDAsMCwwLDA=", 
-			"e	MjB4MjAKNC4wNjI1eDQuNTkzNzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw4LDgsOCw4LDcsNyw4LDksOSw4LDYsMywxLDAKMiw1LDgsOSw4LDcsNSw2LDcsNyw1LDQsNSw3LDgsOSw4LDUsMiwwCjQsNyw5LDgsNiw0LDIsNCw2LDYsMywxLDIsNCw2LDgsOSw3LDUsMwo1LDgsOCw2LDMsMSwwLDMsNiw2LDMsMCwwLDEsMyw2LDgsOCw3LDYKNiw5LDcsNCwxLDAsMCwzLDYsNiwzLDAsMCwwLDEsNCw3LDksOSw5CjYsOCw1LDIsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDIsNSw4LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw4LDUsMiwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsOSw3LDQsMSwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDMsMSwwLDMsNiw2LDMsMCwwLDAsMCwyLDUsOCw5LDkKMyw2LDgsOCw2LDQsMyw1LDcsNiwzLDAsMCwwLDAsMyw2LDksOSw5CjEsMyw2LDgsOCw3LDYsNyw4LDYsMywwLDAsMCwwLDMsNiw4LDcsNgowLDEsMyw2LDgsOSw5LDksOSw2LDMsMCwwLDAsMSw0LDcsNyw1LDMKMCwwLDEsNCw3LDksOSw5LDksNiwzLDAsMCwwLDIsNSw4LDYsMywwCjAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMA==", 
-			"e	MjB4MjAKNC4xMDkzNzV4NC44MTI1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw1LDIsMAo0LDcsOSw5LDgsNyw3LDgsOSw5LDcsNiw1LDcsOCw5LDksNyw1LDMKNSw4LDksOCw2LDQsNSw3LDksOSw2LDQsMiw0LDYsOCw5LDgsNyw2CjYsOSw5LDcsNCwxLDIsNSw4LDksNiwzLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwxLDQsNyw5LDYsMywwLDAsMiw1LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwzLDYsOSw2LDMsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNyw0LDEsMCwwLDMsNiw5LDYsMywwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwzLDYsOSw2LDMsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNCwxLDAsMyw2LDksNiwzLDAsMSw0LDcsOSw5LDksOQo2LDksOSw4LDYsNCwzLDUsNyw5LDYsNCwyLDQsNiw4LDksOCw3LDYKNSw4LDksOSw4LDcsNiw3LDgsOSw2LDUsNCw3LDgsOSw5LDcsNSwzCjMsNiw4LDksOSw5LDksOSw5LDksNiw2LDYsOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDYsNiw2LDksOSw4LDYsMywxLDAKMCwxLDMsNiw4LDksOSw5LDksOSw2LDYsNiw4LDcsNSwzLDEsMCwwCjAsMCwxLDQsNyw5LDksOSw5LDksNiw2LDYsNyw1LDIsMSwwLDAsMAowLDAsMCwzLDYsOSw5LDksOSw5LDYsNiw2LDYsMywwLDAsMCwwLDA=", 
-			"f	MjB4MjAKMy4zOTA2MjV4Ni4wNzgxMjUKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwxLDIsMyw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzCjEsMyw1LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOCw3LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNyw5LDcsNSw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzCjgsOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"f	MjB4MjAKMi43ODEyNXg2LjA3ODEyNQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDUsNyw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMSwyLDQsNSw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDgsNyw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw3LDUsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsNiwzLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDUsMiwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw0LDEsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDEsMiwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"f	MjB4MjAKMy4zOTA2MjV4Ni4wNzgxMjUKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwxLDIsMyw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzCjEsMyw1LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOCw3LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNyw5LDcsNSw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzCjgsOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"f	MjB4MjAKMS45MjE4NzV4NS44NTkzNzUKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMwoxLDMsNSw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDgsNyw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw3LDUsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsNiwzLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw1LDIsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNCwxLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"f	MjB4MjAKMi43ODEyNXg2LjA3ODEyNQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDUsNyw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMSwyLDQsNSw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDgsNyw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw3LDUsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsNiwzLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDUsMiwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw0LDEsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDEsMiwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"f	MjB4MjAKMi4yMzQzNzV4Ni4xNzE4NzUKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiwzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMwoyLDQsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDgsNyw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOCw2LDQsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMwo2LDcsNCwxLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"g	MjB4MjAKNC43MDMxMjV4Ni4yMDMxMjUKMCwxLDMsNSw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDgsNyw0LDIsMCwxLDIsMywzLDMsMwozLDYsOCw5LDksOSw5LDksOSw5LDksNyw0LDEsMSwzLDUsNiw2LDYKNSw4LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDEsNCw3LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDMsNiw5LDksOQo2LDksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDUsMiwzLDYsOSw5LDkKNiw5LDgsNiw0LDMsMywzLDQsNiw4LDksOSw2LDMsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwxLDMsNiw4LDksNiwzLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDYsMywzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOCw1LDIsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDEsNCw3LDcsNCwxLDMsNiw5LDksOQo1LDgsNyw0LDEsMCwwLDAsMCwyLDUsNyw1LDIsMSw0LDcsOSw5LDkKMyw2LDcsNiw0LDIsMiwyLDMsNSw3LDcsNSwzLDQsNiw4LDksOSw5CjMsNiw4LDgsNyw1LDUsNSw2LDcsOCw3LDYsNSw3LDgsOSw5LDksOQo0LDcsOCw5LDksOCw4LDgsOSw5LDksOCw4LDgsOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"g	MjB4MjAKMy45MjE4NzV4Ni4xNTYyNQowLDEsMyw1LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOCw3LDQsMiwwLDAsMCwxLDIsMywzCjIsNSw4LDksOCw3LDYsNyw4LDksOSw3LDQsMSwwLDAsMiw0LDYsNgo0LDcsOCw3LDUsNCwzLDQsNSw3LDgsOCw1LDIsMCwwLDMsNiw5LDkKNSw3LDYsNCwyLDEsMCwxLDIsNCw2LDgsNyw0LDEsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDEsMyw2LDcsNSwyLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDIsNSw4LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwxLDQsNyw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwzLDYsOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDEsNCw3LDkKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwyLDUsOCw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw2LDUsMiwwLDMsNiw5LDkKNSw2LDQsMSwwLDAsMCwwLDAsMSwzLDYsNiw0LDEsMSw0LDcsOSw5CjMsNSw1LDQsMiwxLDAsMCwxLDMsNiw3LDUsMiwxLDMsNiw4LDksOQozLDYsNyw3LDUsNCwzLDMsNCw2LDgsOCw2LDQsNCw2LDgsOCw3LDYKNCw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDcsOCw4LDYsNCwzCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCww", 
-			"g	MjB4MjAKNC43MDMxMjV4Ni4yMDMxMjUKMCwxLDMsNSw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDgsNyw0LDIsMCwxLDIsMywzLDMsMwozLDYsOCw5LDksOSw5LDksOSw5LDksNyw0LDEsMSwzLDUsNiw2LDYKNSw4LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDEsNCw3LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDMsNiw5LDksOQo2LDksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDUsMiwzLDYsOSw5LDkKNiw5LDgsNiw0LDMsMywzLDQsNiw4LDksOSw2LDMsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwxLDMsNiw4LDksNiwzLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDYsMywzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOCw1LDIsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDEsNCw3LDcsNCwxLDMsNiw5LDksOQo1LDgsNyw0LDEsMCwwLDAsMCwyLDUsNyw1LDIsMSw0LDcsOSw5LDkKMyw2LDcsNiw0LDIsMiwyLDMsNSw3LDcsNSwzLDQsNiw4LDksOSw5CjMsNiw4LDgsNyw1LDUsNSw2LDcsOCw3LDYsNSw3LDgsOSw5LDksOQo0LDcsOCw5LDksOCw4LDgsOSw5LDksOCw4LDgsOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"g	MjB4MjAKMy42NzE4NzV4Ni4wNjI1CjAsMSwzLDUsNiw2LDYsNiw2LDYsNSwzLDEsMCwyLDMsNCwyLDEsMAoxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMyw1LDcsNCwyLDAKMiw1LDgsOSw4LDcsNiw2LDcsOCw5LDgsNSwyLDMsNiw5LDcsNSwzCjQsNyw4LDcsNSw0LDMsMyw0LDYsOCw5LDcsNCwzLDUsOCw4LDcsNgo1LDgsNyw1LDIsMSwwLDAsMSwzLDYsOCw4LDUsMywzLDYsOCw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMSwzLDYsOCw2LDMsMSw0LDcsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMiw1LDgsOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDEsNCw3LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDMsNiw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwzLDYsOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMyw2LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwxLDQsNyw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMSw0LDYsNSwyLDAsMiw1LDgsOQo1LDYsNCwxLDAsMCwwLDAsMCwwLDIsNSw2LDQsMSwxLDQsNyw5LDkKNCw2LDYsNCwyLDEsMCwwLDEsMiw1LDYsNSwyLDEsMyw2LDgsOSw5CjQsNyw4LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCw0LDYsOCw4LDcsNgo1LDgsOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYsNyw4LDgsNiw0LDMKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
-			"g	MjB4MjAKMy45MjE4NzV4Ni4xNTYyNQowLDEsMyw1LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOCw3LDQsMiwwLDAsMCwxLDIsMywzCjIsNSw4LDksOCw3LDYsNyw4LDksOSw3LDQsMSwwLDAsMiw0LDYsNgo0LDcsOCw3LDUsNCwzLDQsNSw3LDgsOCw1LDIsMCwwLDMsNiw5LDkKNSw3LDYsNCwyLDEsMCwxLDIsNCw2LDgsNyw0LDEsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDEsMyw2LDcsNSwyLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDIsNSw4LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwxLDQsNyw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwzLDYsOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDEsNCw3LDkKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwyLDUsOCw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw2LDUsMiwwLDMsNiw5LDkKNSw2LDQsMSwwLDAsMCwwLDAsMSwzLDYsNiw0LDEsMSw0LDcsOSw5CjMsNSw1LDQsMiwxLDAsMCwxLDMsNiw3LDUsMiwxLDMsNiw4LDksOQozLDYsNyw3LDUsNCwzLDMsNCw2LDgsOCw2LDQsNCw2LDgsOCw3LDYKNCw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDcsOCw4LDYsNCwzCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCww", 
-			"g	MjB4MjAKMy45ODQzNzV4Ni4zNzUKMCwxLDMsNSw2LDYsNiw2LDYsNiw1LDMsMSwwLDIsMywzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwzLDUsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOCw1LDIsMyw2LDgsNiw0LDMKNCw3LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDQsNiw5LDgsNyw2CjUsOCw5LDgsNyw2LDYsNiw2LDcsOCw5LDgsNSw0LDUsOCw5LDksOQo2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDYsNCw0LDcsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw3LDQsMyw1LDgsOSw5CjYsOCw1LDIsMCwwLDAsMCwwLDAsMiw1LDgsOCw1LDMsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDEsNCw3LDksNiwzLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOCw1LDIsMyw2LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDIsNSw4LDcsNCwyLDQsNyw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw2LDMsMiw1LDgsOSw5CjYsOSw4LDYsNCwyLDEsMSwyLDQsNiw4LDksNyw1LDUsNyw5LDksOQo2LDksOSw4LDcsNSw0LDQsNSw3LDgsOSw5LDgsNyw3LDgsOSw5LDkKNiw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMwo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
-			"h	MjB4MjAKNC40MDYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsNCw2LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwxLDMsNiw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"h	MjB4MjAKMy42NTYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsNCw2LDgsOCw3LDUsNCwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDIsNSw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSw0LDYsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDIsNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDIsNSw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwxLDQsNyw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"h	MjB4MjAKNC40MDYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsNCw2LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwxLDMsNiw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"h	MjB4MjAKMy4zMjgxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDQsNiw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwyLDUsNyw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsNCw2LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwyLDUsNiw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwzLDYsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"h	MjB4MjAKMy42NTYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsNCw2LDgsOCw3LDUsNCwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDIsNSw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSw0LDYsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDIsNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDIsNSw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwxLDQsNyw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"h	MjB4MjAKMy42NDA2MjV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDUsNyw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMiw1LDgsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsNCw3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDMsNiw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==",
-			
-			//explicitly added
-			"h	MjB4MjAKMTQuMHgyMC4wCjUsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo0LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDYKNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsMywzLDMsMywzLDMsNCw0LDQsMywzLDMsMywzLDMsMyw0LDUsNgoyLDMsMywzLDMsMywzLDQsNCw0LDMsMywzLDMsMywzLDMsNCw1LDYKMCwwLDAsMCwwLDAsMSwzLDMsMiwwLDAsMCwwLDAsMCwwLDIsNCw2CjAsMCwwLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwxLDIsMwowLDAsMCwwLDAsMCwyLDMsMywxLDAsMCwwLDAsMCwwLDAsMSwyLDMKMCwwLDAsMCwwLDEsMywzLDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwowLDAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwwLDIsNCw1LDMsMSwwLDAsMCwwLDAsMCwwLDIsNCw2CjAsMCwwLDAsMCwxLDMsNSw1LDQsMywzLDMsMywzLDMsMyw0LDUsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsMywzLDMsMyw0LDUsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			
-			
-			"i	MjB4MjAKMS40MDYyNXg2LjA3ODEyNQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"i	MjB4MjAKMC43MTg3NXg2LjA3ODEyNQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"i	MjB4MjAKMS40MDYyNXg2LjA3ODEyNQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"i	MjB4MjAKMC42NzE4NzV4NS44MjgxMjUKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"i	MjB4MjAKMC43MTg3NXg2LjA3ODEyNQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"i	MjB4MjAKMC45ODQzNzV4Ni4xNDA2MjUKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"k	MjB4MjAKNC43OTY4NzV4Ni4wNzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw3LDQsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw4LDgsOCw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwyLDUsOCw5LDksNyw2LDYsOCw5LDksOCw2LDQsMwowLDAsMCwwLDEsNCw3LDksOSw4LDUsMywzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwyLDUsOCw5LDgsNiwzLDEsMSwzLDYsOCw5LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDMsMSwwLDAsMSw0LDcsOSw5LDksOQowLDAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMiw1LDgsOSw5LDkKMCwwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMyw1LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"k	MjB4MjAKMy44NzV4Ni4wNzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw3LDQsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDcsNyw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDIsNSw3LDYsNCw1LDcsOCw1LDIsMCwwLDAKMCwwLDAsMCwwLDAsMSw0LDcsNyw0LDEsMiw1LDgsNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDEsMyw2LDcsNiwzLDEsMAowLDAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDEsNCw3LDgsNSwyLDAKMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDIsNSw4LDcsNSwzCjAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDAsMCwxLDQsNyw4LDcsNgowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjAsMCwwLDAsMyw1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"k	MjB4MjAKNC43OTY4NzV4Ni4wNzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw3LDQsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw4LDgsOCw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwyLDUsOCw5LDksNyw2LDYsOCw5LDksOCw2LDQsMwowLDAsMCwwLDEsNCw3LDksOSw4LDUsMywzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwyLDUsOCw5LDgsNiwzLDEsMSwzLDYsOCw5LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDMsMSwwLDAsMSw0LDcsOSw5LDksOQowLDAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMiw1LDgsOSw5LDkKMCwwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMyw1LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"k	MjB4MjAKMy41NDY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOCw2LDQsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSw0LDcsOSw3LDQsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMiw1LDgsOCw4LDgsOCw2LDMsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDQsNyw4LDYsNSw2LDgsOCw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMiw1LDcsNiwzLDIsMyw2LDgsOCw2LDMsMSwwLDAKMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDEsMyw2LDgsOCw2LDMsMSwwCjAsMCwwLDAsMiw1LDcsNSwyLDAsMCwwLDEsMyw2LDgsOCw2LDQsMwowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDEsMyw2LDgsOCw3LDYKMCwwLDAsMCwzLDUsNSwyLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMiwzLDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"k	MjB4MjAKMy44NzV4Ni4wNzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw3LDQsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDcsNyw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDIsNSw3LDYsNCw1LDcsOCw1LDIsMCwwLDAKMCwwLDAsMCwwLDAsMSw0LDcsNyw0LDEsMiw1LDgsNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDEsMyw2LDcsNiwzLDEsMAowLDAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDEsNCw3LDgsNSwyLDAKMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDIsNSw4LDcsNSwzCjAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDAsMCwxLDQsNyw4LDcsNgowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjAsMCwwLDAsMyw1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"k	MjB4MjAKMy45ODQzNzV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2CjMsMywzLDMsMywzLDMsMyw0LDYsOCw5LDgsNiw0LDMsMywzLDMsMwowLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw3LDQsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksNiwzLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDcsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw4LDYsMywxLDAsMCwwLDAKMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw4LDYsMywxLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw4LDcsNyw4LDksOSw4LDYsMywxLDAsMAowLDAsMCwwLDIsNSw4LDksNyw1LDQsNiw4LDksOSw4LDYsMywxLDAKMCwwLDAsMCwzLDYsOSw4LDUsMiwxLDMsNiw4LDksOSw4LDYsNCwzCjAsMCwwLDAsMyw2LDksNyw0LDEsMCwxLDMsNiw4LDksOSw4LDcsNgowLDAsMCwwLDMsNiw4LDUsMiwwLDAsMCwxLDMsNiw4LDksOSw5LDkKMCwwLDAsMCwzLDUsNiwzLDEsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjAsMCwwLDAsMyw0LDQsMSwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQowLDAsMCwwLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
-			"l	MjB4MjAKMS40MDYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"l	MjB4MjAKMC43MTg3NXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"l	MjB4MjAKMS40MDYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"l	MjB4MjAKMC42NzE4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"l	MjB4MjAKMC43MTg3NXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"l	MjB4MjAKMC45ODQzNzV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"m	MjB4MjAKNy4wMzEyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgozLDUsNyw4LDgsNyw2LDYsNiw1LDQsMywzLDMsMywzLDMsMywzLDMKMyw1LDcsNyw2LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDcsOSw5LDksOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjEsNCw3LDksOCw3LDYsNiw2LDUsNCwzLDMsMywzLDMsMywzLDMsMwozLDYsOCw4LDYsNCwzLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNSw4LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDcsNSwzLDIsMSwxLDIsMywzLDMsMywzLDMsMywzLDMsMwo2LDksOSw4LDcsNiw1LDQsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw5LDksOSw5LDksOCw3LDcsOCw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoyLDUsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"m	MjB4MjAKNi4zNzV4NC40ODQzNzUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo0LDcsNyw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNCw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo0LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw2LDcsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDUsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo0LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw1LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"m	MjB4MjAKNy4wMzEyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgozLDUsNyw4LDgsNyw2LDYsNiw1LDQsMywzLDMsMywzLDMsMywzLDMKMyw1LDcsNyw2LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDcsOSw5LDksOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjEsNCw3LDksOCw3LDYsNiw2LDUsNCwzLDMsMywzLDMsMywzLDMsMwozLDYsOCw4LDYsNCwzLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNSw4LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDcsNSwzLDIsMSwxLDIsMywzLDMsMywzLDMsMywzLDMsMwo2LDksOSw4LDcsNiw1LDQsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw5LDksOSw5LDksOCw3LDcsOCw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoyLDUsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"m	MjB4MjAKNS41MzEyNXg0LjMxMjUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsNyw3LDUsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMyw1LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsNiw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo1LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjIsNSw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsNyw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo1LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"m	MjB4MjAKNi4zNzV4NC40ODQzNzUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo0LDcsNyw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNCw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo0LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw2LDcsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDUsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo0LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw1LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"m	MjB4MjAKNS44NDM3NXg0LjYyNQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo2LDksOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjUsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjMsNiw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo1LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"n	MjB4MjAKNC40MDYyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMiw1LDgsOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoxLDIsNSw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"n	MjB4MjAKMy42NTYyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgoyLDQsNiw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMSwzLDYsNyw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMyw2LDgsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"n	MjB4MjAKNC40MDYyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMiw1LDgsOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoxLDIsNSw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"n	MjB4MjAKMy4zMjgxMjV4NC4zMTI1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjIsNCw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgoxLDMsNiw3LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMiw1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDcsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo1LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"n	MjB4MjAKMy42NTYyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgoyLDQsNiw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMSwzLDYsNyw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMyw2LDgsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"n	MjB4MjAKMy42NDA2MjV4NC42MjUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjUsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo1LDgsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNSw4LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo2LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"o	MjB4MjAKNC44MTI1eDQuNTkzNzUKMCwwLDEsMiw0LDUsNiw2LDcsNyw3LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo3LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNyw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjcsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
-			"o	MjB4MjAKNC4wMTU2MjV4NC41OTM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjUsOCw5LDgsNiw0LDIsMSwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNgozLDYsOCw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDgsNiw0LDMKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"o	MjB4MjAKNC44MTI1eDQuNTkzNzUKMCwwLDEsMiw0LDUsNiw2LDcsNyw3LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo3LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNyw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjcsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
-			"o	MjB4MjAKMy43OTY4NzV4NC41CjAsMCwxLDMsNSw2LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw2LDQsMwo0LDcsOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksOCw3LDYKNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjYsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw3LDYKNSw4LDgsNiw0LDMsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDcsNSwzCjMsNiw4LDgsNyw2LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw1LDIsMAoxLDMsNiw4LDksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDA=", 
-			"o	MjB4MjAKNC4wMTU2MjV4NC41OTM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjUsOCw5LDgsNiw0LDIsMSwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNgozLDYsOCw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDgsNiw0LDMKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
-			"o	MjB4MjAKNC4xMDkzNzV4NC44MTI1CjAsMCwxLDMsNSw2LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOCw3LDYsNyw4LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDgsNyw2LDUsNCwzLDQsNSw2LDcsOCw5LDksNyw1LDMKNSw4LDksOCw2LDQsMywyLDEsMCwxLDIsMyw0LDYsOCw5LDgsNyw2CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOSw4LDYsNCwzLDIsMSwwLDEsMiwzLDQsNiw4LDksOCw3LDYKNSw4LDksOSw4LDcsNiw1LDQsMyw0LDUsNiw3LDgsOSw5LDcsNSwzCjMsNiw4LDksOSw5LDksOCw3LDYsNyw4LDksOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDA=", 
-			"p	MjB4MjAKNC43MDMxMjV4Ni4xNTYyNQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOSw5LDgsNyw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsNiw4LDgsNyw1LDQsNCw1LDcsOCw4LDYsNCwzLDMsMywzLDMsMwozLDYsNyw2LDQsMiwxLDEsMiw0LDYsNyw2LDMsMSwwLDAsMCwwLDAKNSw4LDcsNCwxLDAsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAsMAo2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAKNiw5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw2LDMsMCwwLDAsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMAo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAKMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMAowLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCww", 
-			"p	MjB4MjAKMy45MDYyNXg2LjE1NjI1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsNiw3LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCwzLDMsMywzLDMsMwozLDUsNSw0LDIsMSwwLDAsMSwyLDQsNSw1LDMsMSwwLDAsMCwwLDAKNSw2LDQsMSwwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAKNSw4LDcsNSwyLDEsMCwxLDIsMyw1LDcsOCw1LDIsMCwwLDAsMCwwCjQsNyw4LDcsNSw0LDMsNCw1LDYsNyw4LDcsNCwxLDAsMCwwLDAsMAoyLDUsOCw5LDgsNyw2LDcsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
-			"p	MjB4MjAKNC43MDMxMjV4Ni4xNTYyNQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOSw5LDgsNyw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsNiw4LDgsNyw1LDQsNCw1LDcsOCw4LDYsNCwzLDMsMywzLDMsMwozLDYsNyw2LDQsMiwxLDEsMiw0LDYsNyw2LDMsMSwwLDAsMCwwLDAKNSw4LDcsNCwxLDAsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAsMAo2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAKNiw5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw2LDMsMCwwLDAsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMAo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAKMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMAowLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCww", 
-			"p	MjB4MjAKMy43NXg2LjA2MjUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYKNCw3LDgsNyw1LDQsMywzLDQsNSw3LDgsNyw1LDMsMywzLDMsMywzCjQsNiw2LDQsMiwxLDAsMCwxLDIsNSw3LDcsNCwxLDAsMCwwLDAsMAo1LDYsNCwxLDAsMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwCjYsOCw1LDIsMCwwLDAsMCwwLDEsMyw2LDgsNiwzLDAsMCwwLDAsMAo1LDgsNyw1LDIsMSwwLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwwLDAKNCw3LDgsNyw1LDQsMywzLDQsNiw4LDksNyw0LDEsMCwwLDAsMCwwCjIsNSw4LDksOCw3LDYsNiw3LDgsOSw4LDUsMiwwLDAsMCwwLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwxLDQsNyw5LDksOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
-			"p	MjB4MjAKMy45MDYyNXg2LjE1NjI1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsNiw3LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCwzLDMsMywzLDMsMwozLDUsNSw0LDIsMSwwLDAsMSwyLDQsNSw1LDMsMSwwLDAsMCwwLDAKNSw2LDQsMSwwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAKNSw4LDcsNSwyLDEsMCwxLDIsMyw1LDcsOCw1LDIsMCwwLDAsMCwwCjQsNyw4LDcsNSw0LDMsNCw1LDYsNyw4LDcsNCwxLDAsMCwwLDAsMAoyLDUsOCw5LDgsNyw2LDcsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
-			"p	MjB4MjAKNC4wNjI1eDYuMzc1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw4LDcsNyw4LDksOSw5LDksOCw3LDYsNiw2LDYsNgo2LDksOSw4LDcsNSw0LDQsNSw3LDgsOSw5LDcsNSwzLDMsMywzLDMKNiw5LDgsNiw0LDIsMSwxLDIsNCw2LDgsOSw2LDMsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw4LDUsMiwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwyLDUsOCw4LDUsMiwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksNyw0LDEsMCwwLDAsMAo2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAKNSw4LDksOCw3LDYsNiw2LDYsNyw4LDksOCw1LDIsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
-			"r	MjB4MjAKMy4yNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw2LDgsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMsMwoxLDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiw1LDgsOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"r	MjB4MjAKMi41NjI1eDQuNDg0Mzc1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjEsMyw2LDcsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"r	MjB4MjAKMy4yNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw2LDgsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMsMwoxLDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiw1LDgsOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"r	MjB4MjAKMi4wMTU2MjV4NC4zMTI1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw2LDgsOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMwowLDIsNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsNSw4LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo0LDcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw4LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"r	MjB4MjAKMi41NjI1eDQuNDg0Mzc1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjEsMyw2LDcsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"r	MjB4MjAKMi4zMjgxMjV4NC42MjUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjUsOCw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo0LDcsOSw5LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNCw3LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"s	MjB4MjAKMy45Njg3NXg0LjU5Mzc1CjEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwLDAsMiw0LDYsNiw1LDQsMwoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDIsNSw4LDksOCw3LDYKNCw3LDksOSw5LDksOSw5LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNiw5LDksOCw3LDcsOCw5LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDcsNSw0LDYsOCw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMSw0LDcsOSw5LDcsNCwxLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw4LDUsMiwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksOSw2LDMsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDksNiwzLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw5LDcsNCwyLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDIsNSw4LDksOSw4LDYsNSw2LDgsOSw5LDksOQo2LDksOSw2LDMsMCwxLDQsNyw5LDksOSw4LDgsOCw5LDksOSw5LDkKNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMiw1LDgsOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw4LDUsMiwwLDEsNCw3LDksOSw5LDksOSw5LDksNyw1LDMKNCw2LDYsNiw0LDIsMCwwLDIsNSw4LDksOSw5LDksOSw4LDUsMiwwCjIsMywzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDA=", 
-			"s	MjB4MjAKMy4zNDM3NXg0LjU5Mzc1CjEsMiw0LDUsNiw2LDYsNSwzLDEsMCwwLDAsMCwyLDUsOCw4LDcsNgoyLDQsNyw4LDksOSw5LDgsNSwyLDAsMCwwLDAsMSw0LDcsOSw5LDkKNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjUsOCw4LDcsNiw3LDgsOSw4LDUsMiwwLDAsMCwwLDIsNSw4LDksOQo2LDksNyw1LDMsNCw2LDgsOSw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw5LDYsMywwLDEsNCw3LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsOCw1LDIsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDIsNSw4LDksOQo2LDcsNCwxLDAsMCwwLDEsNCw3LDgsNSwyLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDMsNiw5LDcsNSwzLDQsNiw4LDgsNyw2CjYsOSw2LDMsMCwwLDAsMCwyLDUsOCw4LDcsNiw3LDgsOSw3LDUsMwo2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDgsNSwyLDAKNCw2LDQsMiwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw3LDQsMSwwCjIsMywyLDEsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksNiwzLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
-			"s	MjB4MjAKMy45Njg3NXg0LjU5Mzc1CjEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwLDAsMiw0LDYsNiw1LDQsMwoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDIsNSw4LDksOCw3LDYKNCw3LDksOSw5LDksOSw5LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNiw5LDksOCw3LDcsOCw5LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDcsNSw0LDYsOCw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMSw0LDcsOSw5LDcsNCwxLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw4LDUsMiwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksOSw2LDMsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDksNiwzLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw5LDcsNCwyLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDIsNSw4LDksOSw4LDYsNSw2LDgsOSw5LDksOQo2LDksOSw2LDMsMCwxLDQsNyw5LDksOSw4LDgsOCw5LDksOSw5LDkKNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMiw1LDgsOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw4LDUsMiwwLDEsNCw3LDksOSw5LDksOSw5LDksNyw1LDMKNCw2LDYsNiw0LDIsMCwwLDIsNSw4LDksOSw5LDksOSw4LDUsMiwwCjIsMywzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDA=", 
-			"s	MjB4MjAKMy40MDYyNXg0LjUKMCwxLDMsNSw2LDYsNSwzLDEsMCwwLDAsMiw0LDYsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDMsNiw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDgsNiw0LDMKNCw3LDksOCw3LDcsOCw5LDcsNCwxLDAsMiw0LDcsOCw5LDgsNyw2CjUsOCw4LDYsNCw0LDYsOCw4LDUsMiwwLDEsMiw0LDYsOCw5LDksOQo2LDksNyw0LDEsMSw0LDcsOSw2LDMsMCwwLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMiw1LDgsOSw5CjYsNyw0LDEsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwxLDQsNyw4LDUsMiwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwxLDQsNyw5LDkKNiw4LDUsMiwwLDAsMCwyLDUsOCw3LDQsMSwwLDAsMiw1LDgsOSw5CjYsOSw3LDUsMiwxLDAsMSw0LDcsOCw1LDIsMCwxLDQsNyw5LDksOQo1LDgsOCw3LDQsMiwwLDAsMyw2LDksNyw1LDMsNCw2LDgsOCw3LDYKNCw3LDksOSw2LDMsMCwwLDIsNSw4LDgsNyw2LDcsOCw5LDcsNSwzCjIsNSw4LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
-			"s	MjB4MjAKMy4zNDM3NXg0LjU5Mzc1CjEsMiw0LDUsNiw2LDYsNSwzLDEsMCwwLDAsMCwyLDUsOCw4LDcsNgoyLDQsNyw4LDksOSw5LDgsNSwyLDAsMCwwLDAsMSw0LDcsOSw5LDkKNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjUsOCw4LDcsNiw3LDgsOSw4LDUsMiwwLDAsMCwwLDIsNSw4LDksOQo2LDksNyw1LDMsNCw2LDgsOSw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw5LDYsMywwLDEsNCw3LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsOCw1LDIsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDIsNSw4LDksOQo2LDcsNCwxLDAsMCwwLDEsNCw3LDgsNSwyLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDMsNiw5LDcsNSwzLDQsNiw4LDgsNyw2CjYsOSw2LDMsMCwwLDAsMCwyLDUsOCw4LDcsNiw3LDgsOSw3LDUsMwo2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDgsNSwyLDAKNCw2LDQsMiwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw3LDQsMSwwCjIsMywyLDEsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksNiwzLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
-			"s	MjB4MjAKMy43MTg3NXg0LjgxMjUKMCwxLDMsNSw2LDYsNiw1LDMsMSwwLDIsNCw2LDYsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOCw1LDIsMCwzLDYsOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksNyw0LDEsMyw2LDksOSw5LDgsNiw0LDMKNCw3LDksOSw5LDksOSw5LDgsNSwyLDMsNiw5LDksOSw5LDgsNyw2CjUsOCw5LDksOSw5LDksOSw5LDcsNCwzLDQsNyw4LDksOSw5LDksOQo2LDksOSw4LDcsNyw4LDksOSw4LDUsMywyLDQsNiw4LDksOSw5LDkKNiw5LDksNyw1LDQsNiw4LDksOSw2LDMsMCwxLDQsNyw5LDksOSw5CjYsOSw4LDUsMiwxLDQsNyw5LDksNiwzLDAsMCwyLDUsOCw5LDksOQo2LDksNyw0LDEsMCwzLDYsOSw5LDYsMywwLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDAsMyw2LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDIsNSw4LDksOCw1LDIsMCwxLDQsNyw5LDksOQo2LDksOCw1LDIsMCwxLDQsNyw5LDksNiwzLDAsMiw1LDgsOSw5LDkKNiw5LDksNyw1LDIsMSwzLDYsOSw5LDcsNCwxLDMsNiw5LDksOSw5CjYsOSw5LDgsNyw0LDIsMyw2LDksOSw4LDYsNCw1LDcsOSw5LDksOQo1LDgsOSw5LDksNiwzLDIsNSw4LDksOSw4LDcsNyw4LDksOCw3LDYKNCw3LDksOSw5LDYsMywxLDQsNyw5LDksOSw5LDksOSw5LDcsNSwzCjIsNSw4LDksOSw2LDMsMCwyLDUsOCw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw2LDcsNSwzLDAsMSwzLDYsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsMyw1LDQsMywwLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMywzLDMsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
-			"t	MjB4MjAKMy41MzEyNXg1LjYyNQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywyLDEsMCwwLDAsMAo2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNSw0LDMsMiwxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDQsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5CjMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5", 
-			"t	MjB4MjAKMi43MzQzNzV4NS42MjUKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAKNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw0LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"t	MjB4MjAKMy41MzEyNXg1LjYyNQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywyLDEsMCwwLDAsMAo2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNSw0LDMsMiwxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDQsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5CjMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5", 
-			"t	MjB4MjAKMS45MjE4NzV4NS41MzEyNQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwCjYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw0LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQozLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5", 
-			"t	MjB4MjAKMi43MzQzNzV4NS42MjUKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAKNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw0LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
-			"t	MjB4MjAKMi4yMzQzNzV4NS44NDM3NQowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwCjYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDQsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDkKMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMsNSw3LDksOSw5CjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5", 
-			"u	MjB4MjAKNC40MDYyNXg0LjQ4NDM3NQo5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYsNiw1LDQsMiwxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDQsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDcsNSwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDksOCw1LDIsMAozLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw5LDgsNiw0LDMKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"u	MjB4MjAKMy42NTYyNXg0LjU5Mzc1CjYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2LDUsMywxLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNCw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDYsNCwzCjIsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNSw3LDgsOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw2LDMsMSwwCjIsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw4LDgsNiw0LDMsMwo0LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"u	MjB4MjAKNC40MDYyNXg0LjQ4NDM3NQo5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYsNiw1LDQsMiwxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDQsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDcsNSwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDksOCw1LDIsMAozLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw5LDgsNiw0LDMKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"u	MjB4MjAKMy4zNDM3NXg0LjM3NQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDUsMywxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNiw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDYsNCwzCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDcsNiwzLDEsMAo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDYsNCwzLDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
-			"u	MjB4MjAKMy42NTYyNXg0LjU5Mzc1CjYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2LDUsMywxLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNCw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDYsNCwzCjIsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNSw3LDgsOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw2LDMsMSwwCjIsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw4LDgsNiw0LDMsMwo0LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
-			"u	MjB4MjAKMy42NTYyNXg0LjY4NzUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDMsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDgsNyw2CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNiw4LDksOSw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
-			"v	MjB4MjAKNC45Njg3NXg0LjM3NQo3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAKNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwCjQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMwoxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOQoxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywzCjcsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMAo5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"v	MjB4MjAKNC4yNjU2MjV4NC4zNzUKNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDgsOSw5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDcsOCw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwCjEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMAowLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw4LDcsNSw0LDMsMiwxLDAKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwzCjAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMAoxLDIsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAKNCw1LDcsOCw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjcsOCw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"v	MjB4MjAKNC45Njg3NXg0LjM3NQo3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAKNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwCjQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMwoxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOQoxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywzCjcsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMAo5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"v	MjB4MjAKMy44MTI1eDQuMTg3NQo3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo1LDcsOCw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwCjAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMAowLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDYsNSw0LDMKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDgsNyw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw3LDgsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw2CjAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDgsNyw1LDQsMwowLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw1LDQsMiwxLDAKMCwxLDIsMyw0LDUsNyw4LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwCjIsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMAo1LDcsOCw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
-			"v	MjB4MjAKNC4yNjU2MjV4NC4zNzUKNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDgsOSw5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDcsOCw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwCjEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMAowLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw4LDcsNSw0LDMsMiwxLDAKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwzCjAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMAoxLDIsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAKNCw1LDcsOCw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjcsOCw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"v	MjB4MjAKNC4yNjU2MjV4NC41CjcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMAo2LDcsOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAKMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNSw0LDIsMSwwCjAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw1LDQsMwowLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDkKMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw4LDcsNiw2CjAsMSwyLDMsNCw1LDcsOCw5LDksOSw5LDksOCw3LDYsNSw0LDMsMwozLDQsNSw2LDcsOCw5LDksOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAKNiw3LDgsOSw5LDksOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjksOSw5LDksOSw5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"y	MjB4MjAKNC45ODQzNzV4Ni4xMDkzNzUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwyLDQsNiw2LDYKOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMyw2LDksOSw5CjgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDMsNiw5LDksOQo1LDcsOCw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwzLDYsOSw5LDkKMiw0LDUsNyw4LDksOSw5LDksOSw4LDcsNSw0LDMsNSw3LDksOSw5CjAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw2LDcsOCw5LDksOQowLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDksOSw5LDgsNyw2CjAsMCwwLDAsMSwyLDMsNCw2LDgsOSw5LDksOSw5LDgsNyw1LDQsMwowLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDgsNyw1LDQsMiwxLDAKMiwzLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwCjUsNiw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMAo4LDksOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"y	MjB4MjAKNC4yNjU2MjV4Ni4wNDY4NzUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjIsNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMyw2LDksOQowLDEsMiw0LDYsOCw5LDgsNyw1LDMsMSwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMSwzLDUsNyw4LDksOCw2LDQsMiwyLDIsNCw2LDgsOSw5CjAsMCwwLDAsMSwyLDQsNSw3LDgsOCw3LDUsNSw1LDcsOCw4LDcsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw4LDgsOCw5LDgsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwCjAsMSwyLDQsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMAoyLDQsNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"y	MjB4MjAKNC45ODQzNzV4Ni4xMDkzNzUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwyLDQsNiw2LDYKOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMyw2LDksOSw5CjgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDMsNiw5LDksOQo1LDcsOCw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwzLDYsOSw5LDkKMiw0LDUsNyw4LDksOSw5LDksOSw4LDcsNSw0LDMsNSw3LDksOSw5CjAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw2LDcsOCw5LDksOQowLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDksOSw5LDgsNyw2CjAsMCwwLDAsMSwyLDMsNCw2LDgsOSw5LDksOSw5LDgsNyw1LDQsMwowLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDgsNyw1LDQsMiwxLDAKMiwzLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwCjUsNiw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMAo4LDksOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"y	MjB4MjAKMy42NzE4NzV4NS45Mzc1CjYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMwo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2LDYKOCw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjUsNyw4LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOQoyLDQsNiw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwxLDQsNyw5LDkKMCwxLDMsNSw3LDgsOSw5LDgsNiw0LDIsMSwwLDEsMyw2LDgsOSw5CjAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMyw0LDYsOCw4LDcsNgowLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw3LDYsNyw4LDksNyw1LDMKMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOCw3LDQsMiwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwCjAsMCwxLDIsNCw1LDcsOCw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAoxLDIsNCw1LDcsOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
-			"y	MjB4MjAKNC4yNjU2MjV4Ni4wNDY4NzUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjIsNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMyw2LDksOQowLDEsMiw0LDYsOCw5LDgsNyw1LDMsMSwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMSwzLDUsNyw4LDksOCw2LDQsMiwyLDIsNCw2LDgsOSw5CjAsMCwwLDAsMSwyLDQsNSw3LDgsOCw3LDUsNSw1LDcsOCw4LDcsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw4LDgsOCw5LDgsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwCjAsMSwyLDQsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMAoyLDQsNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
-			"y	MjB4MjAKNC4xMDkzNzV4Ni4yNQo2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMKOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNiw2CjksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwzLDYsOSw5LDkKNyw4LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDEsNCw3LDksOSw5CjQsNSw3LDgsOSw5LDksOSw4LDcsNSw0LDIsMiwzLDYsOCw5LDksOQoxLDIsNCw1LDcsOCw5LDksOSw5LDgsNyw1LDUsNiw4LDksOSw5LDkKMCwwLDEsMiw0LDUsNyw4LDksOSw5LDksOCw4LDgsOSw5LDgsNyw2CjAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOSw5LDksOCw2LDQsMwowLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw3LDUsMywxLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw4LDYsNCwyLDEsMCwwCjAsMCwxLDIsNCw1LDcsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMAoxLDIsNCw1LDcsOCw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAKNCw1LDcsOCw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjcsOCw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
-			
-			"(	MjB4MjAKMTAuMHgzNi4wCjAsMCwwLDEsMyw1LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwLDAsMAowLDAsMCwxLDIsMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAKMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwyLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMAowLDIsNCw2LDYsNiw1LDQsMywzLDQsNSw2LDYsNiw0LDIsMCwwLDAKMCwxLDIsMywzLDMsMiwxLDAsMCwxLDIsMywzLDMsMiwxLDAsMCwwCjEsMyw1LDYsNiw1LDMsMSwwLDAsMSwyLDQsNSw2LDUsMywxLDAsMAoxLDIsMywzLDMsMiwxLDAsMCwwLDAsMCwxLDIsMywzLDIsMSwwLDAKMyw1LDYsNiw1LDMsMSwwLDAsMCwwLDAsMSwzLDUsNiw1LDMsMSwwCjIsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywyLDEsMAo0LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDEsMyw1LDYsNCwyLDAKMiwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDIsMSwwCjQsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw1LDQsMwoyLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMKNSw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNiw2CjMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo0LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDYKMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzCjEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
-			")	MjB4MjAKMTEuMHgzNi4wCjIsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo0LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2LDYKMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzCjUsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDYsNgoyLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDMKNCw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDUsNCwzCjIsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywyLDEsMAozLDUsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDIsNCw2LDUsMywxLDAKMiw0LDYsNiw1LDMsMSwwLDAsMCwwLDEsMiw0LDUsNiw0LDIsMCwwCjIsNCw2LDYsNSwzLDEsMCwwLDAsMCwxLDIsNCw1LDYsNCwyLDAsMAoxLDMsNSw2LDYsNSw0LDMsMywzLDMsNCw1LDYsNiw1LDMsMSwwLDAKMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwCjAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMAowLDAsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwLDAKMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwCjAsMCwwLDAsMSwyLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMiw0LDUsNiw2LDUsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMSwyLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMiwzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA="
+	//only initialized when there isn't a binary model, see BinaryRasterModel
+	private static class Base64Templates{
+		private static final String[] raw=new String[]{"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
+				"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
+				"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
+				"+	MjB4MjAKMy44NTkzNzV4My44NzUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
+				"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
+				"+	MjB4MjAKNC4xNzE4NzV4NC4xODc1CjAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDUsNyw5LDksOSw3LDUsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw3LDgsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsMywzLDMsMywzLDUsNyw5LDksOSw3LDUsMywzLDMsMywzLDMsMwowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDA=", 
+				"-	MjB4MjAKMi40NTMxMjV4MS4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"-	MjB4MjAKMi4xMDkzNzV4MC42NDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"-	MjB4MjAKMi40NTMxMjV4MS4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"-	MjB4MjAKMS44OTA2MjV4MC41NzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"-	MjB4MjAKMi4xMDkzNzV4MC42NDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"-	MjB4MjAKMi4yMDMxMjV4MC44OTA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==",
+				
+				//Added explicitly
+				"-	MjB4MjAKNTIuMHgyMS4wCjAsMiw0LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAowLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAKMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwoxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAKMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAo2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAKNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwCjcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAozLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwCjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDA=",
+				"-	MjB4MjAKNTguMHgxOC4wCjMsNSw3LDgsOSw5LDksNiw2LDYsOSw5LDksOCw1LDIsMCwwLDAsMAo2LDgsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksNiwzLDAsMCwwLDAKNyw5LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDYsMywwLDAsMCwwCjYsOCw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw2LDMsMCwwLDAsMAo0LDcsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksNyw1LDMsMiwxLDAKNCw3LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDgsNyw2LDQsMiwwCjUsOCw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw5LDksOSw2LDMsMAo1LDgsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksOSw5LDksNiwzLDAKNiw4LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDksOSw4LDUsMiwwCjYsOCw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw5LDgsNiwzLDEsMAo3LDksOSw5LDksOSw5LDYsNiw2LDksOSw5LDksOCw2LDMsMSwwLDAKNSw4LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDcsNCwxLDAsMCwwCjQsNyw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw3LDQsMSwwLDAsMAozLDYsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksOCw2LDQsMiwxLDAKMyw2LDksOSw5LDksOSw2LDYsNiw5LDksOSw5LDksOCw2LDMsMSwwCjMsNiw5LDksOSw5LDksNiw2LDYsOSw5LDksOSw4LDcsNSwzLDEsMAozLDYsOSw5LDksOSw5LDYsNiw2LDksOSw5LDksNyw1LDIsMSwwLDAKMyw2LDksOSw5LDksOSw2LDYsNiw5LDksOSw4LDUsMiwwLDAsMCwwCjMsNiw5LDksOSw5LDksNiw2LDYsOSw5LDksNyw0LDEsMCwwLDAsMAozLDYsOSw5LDksOSw5LDYsNiw2LDksOSw5LDYsMywwLDAsMCwwLDA",
+				"-	MjB4MjAKMjkuMHgxMi4wCjIsNSwzLDYsNiw2LDYsMyw2LDYsNiw1LDIsNCw0LDQsNCwyLDIsMAozLDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMywzLDAKMyw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsMywwCjIsNSwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDMsMAoxLDMsMiw1LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMywzLDAKMCwyLDIsNSw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsMywwCjEsMywyLDUsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNSwyLDIsMAoxLDQsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDUsMiwyLDAKMiw1LDMsNiw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw1LDIsMiwwCjIsNSwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDMsMAoyLDQsMiw1LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMywzLDAKMiw0LDIsNSw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsMywwCjIsNCwyLDUsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDMsMAoyLDUsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDYsNiw2LDYsMywzLDAKMSwzLDIsNSw2LDYsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsMywwCjAsMiwyLDUsNiw2LDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDMsMAoxLDMsMiw1LDYsNiw2LDMsNiw2LDYsNiwzLDYsNSw1LDQsMiwyLDAKMiw1LDMsNiw2LDYsNiwzLDYsNiw2LDYsMyw2LDQsNCwyLDEsMSwwCjMsNiwzLDYsNiw2LDYsMyw2LDYsNiw2LDMsNiwzLDMsMCwwLDAsMAozLDYsMyw2LDYsNiw2LDMsNiw2LDYsNiwzLDYsMywzLDAsMCwwLDA",
+				"-	MjB4MjAKMjUuMHgxMS4wCjEsNCwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsNiwzLDMsMAoxLDQsMyw2LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDYsMywzLDAKMyw1LDMsNiwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMyw2LDMsMywwCjUsNiwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsNiwzLDMsMAo2LDYsMyw2LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDUsMiwyLDAKNiw2LDMsNiwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMyw0LDEsMSwwCjYsNiwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsMywwLDAsMAo1LDYsMyw2LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDMsMCwwLDAKNSw2LDMsNiwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMywzLDAsMCwwCjUsNiwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsMywwLDAsMAo1LDYsMyw2LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDQsMSwxLDAKMyw0LDIsNSwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMyw1LDIsMiwwCjIsNCwyLDUsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsNSwyLDIsMAozLDQsMiw1LDMsNiwzLDYsNiw2LDYsMyw2LDMsNiwzLDQsMSwxLDAKNSw2LDMsNiwzLDYsMyw2LDYsNiw2LDMsNiwzLDYsMyw0LDEsMSwwCjQsNSwzLDYsMyw2LDMsNiw2LDYsNiwzLDYsMyw2LDMsNCwxLDEsMAoyLDMsMiw1LDMsNiwzLDYsNiw2LDYsMyw2LDMsNSwyLDMsMSwxLDAKMCwxLDEsNCwzLDYsMyw2LDYsNiw2LDMsNiwzLDQsMSwxLDAsMCwwCjAsMCwwLDMsMyw2LDMsNiw2LDYsNiwzLDYsMywzLDAsMCwwLDAsMAowLDAsMCwzLDMsNiwzLDYsNiw2LDYsMyw2LDMsMywwLDAsMCwwLDA",
+				"-	MjB4MjAKMTYuMHg2LjAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwCjAsMywzLDMsMywzLDMsMCwzLDMsMywzLDMsMywxLDEsMSwwLDAsMAowLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMCwwLDAsMCwwLDAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDAsMCwwLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwwLDAsMCwwLDAsMAowLDMsMywzLDMsMywzLDAsMywzLDMsMywzLDMsMCwwLDAsMCwwLDAKMCwzLDMsMywzLDMsMywwLDMsMywzLDMsMywzLDEsMSwxLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwxLDEsMSwwLDAsMAowLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwCjAsMywzLDMsMywzLDMsMCwzLDMsMywzLDMsMywyLDIsMiwwLDAsMAowLDMsMywzLDMsMywzLDAsMywzLDMsMywzLDMsMiwyLDIsMCwwLDAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDEsMSwxLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMAowLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMSwxLDEsMCwwLDAKMCwyLDIsMiwzLDMsMywwLDMsMywzLDIsMiwyLDEsMSwxLDAsMCwwCjAsMSwxLDEsMywzLDMsMCwzLDMsMywxLDEsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDIsMiwyLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDEsMSwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA",
+			//	"-	MjB4MjAKOC4weDYuMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMiwyLDIsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMSwxLDEsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjIsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMSwxLDEsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMSwxLDEsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAoxLDEsMSwxLDEsMSwxLDAsMSwxLDEsMSwxLDEsMSwxLDEsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDEsMSwxLDEsMSwxLDEsMSwxLDAsMCwwCjEsMSwxLDEsMSwxLDEsMCwxLDEsMSwxLDEsMSwxLDEsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
+				
+				"/	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw3LDUsNCwzCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"/	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAowLDEsMiw0LDYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"/	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw3LDUsNCwzCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"/	MjB4MjAKMi4zNDM3NXg1Ljk4NDM3NQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDYsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNSwzLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiw0LDIsMSwwLDAKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw2LDMsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjAsMCwxLDIsNCw2LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"/	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAowLDEsMiw0LDYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"/	MjB4MjAKMi43ODEyNXg2LjI5Njg3NQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOCw3LDYsNgowLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDYsNCwzLDMKMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMAowLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAKMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAozLDUsNyw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKNiw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
+				
+				
+				
+				//Added explicitly
+				"/	MjB4MjAKMTAuMHgxNi4wCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMiwyLDQsMywyLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDIsMiwzLDIsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsMyw0LDQsNiw0LDIsMCwwCjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDIsMiwyLDMsMiwxLDAsMAowLDAsMCwwLDEsMiwzLDIsMyw0LDYsNiw0LDQsNCw2LDUsMywxLDAKMCwwLDAsMCwxLDIsMywyLDIsMiwzLDMsMiwyLDIsMywzLDIsMSwwCjEsMiwyLDIsMyw1LDYsNCw0LDQsNiw2LDQsNCw0LDYsNiw0LDIsMAoxLDIsMiwyLDIsMywzLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwxLDAKNCw1LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsMiwwCjMsMywyLDIsMiwzLDMsMiwyLDIsMywzLDIsMiwyLDMsMywyLDEsMAo2LDYsNCw0LDQsNiw2LDQsNCw0LDYsNiw0LDMsMiwzLDMsMiwxLDAKMywzLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwxLDAsMCwwLDAsMCwwCjYsNiw0LDQsNCw2LDYsNCw0LDMsNCwzLDIsMSwwLDAsMCwwLDAsMAozLDMsMiwyLDIsMywzLDIsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDQsNCw0LDUsNCwyLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywyLDIsMiwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsNCwzLDIsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"/	MjB4MjAKMTQuMHg3LjAKNCwyLDIsMiwyLDIsMiwyLDIsMywzLDMsMCwwLDAsMCwwLDAsMCwwCjQsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwLDAsMCwwLDAsMAo0LDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMCwwLDAsMCwwLDAKNCwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAsMCwwLDAsMCwwCjQsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwLDAsMCwwLDAsMAozLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwxLDEsMSwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAsMCwwCjIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAsMCwwCjIsMiwyLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDEsMSwxLDAsMAoxLDEsMSwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwxLDEsMSwwLDAKMCwwLDAsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwCjAsMCwwLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMAowLDAsMCwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwwLDAKMCwwLDAsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMCwwCjAsMCwwLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDAsMAowLDAsMCwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwyLDIsMiwwLDAKMCwwLDAsMSwxLDEsMSwxLDEsMSwxLDEsMSwxLDEsMSwxLDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
+				"/	MjB4MjAKOS4weDE0LjAKMywzLDQsMywzLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMiwyLDIsMiwyLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo0LDQsNCw0LDQsNCwzLDMsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwyLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjQsNCw0LDQsNCw0LDQsNCw0LDMsNCwyLDEsMCwwLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDIsMiwyLDMsMiwxLDAsMCwwLDAsMCwwLDAKMywzLDQsNCw0LDQsNCw0LDQsNCw2LDQsMywyLDIsMiwxLDEsMCwwCjEsMSwyLDIsMiwyLDIsMiwyLDIsMywyLDIsMiwyLDIsMSwxLDAsMAoxLDEsMiwyLDIsMiwyLDIsMiwyLDMsMiwyLDIsMiwyLDEsMSwwLDAKMCwwLDAsMSwxLDIsMiwyLDIsMiwzLDIsMiwyLDIsMiwyLDIsMSwwCjAsMCwwLDEsMSwyLDIsMiwyLDIsMywyLDIsMiwyLDIsMiwyLDEsMAowLDAsMCwxLDEsMiwzLDMsNCw0LDYsNCw0LDQsNCw0LDMsMywxLDAKMCwwLDAsMCwwLDAsMSwxLDIsMiwzLDIsMiwyLDIsMiwxLDEsMCwwCjAsMCwwLDAsMCwwLDEsMSwyLDMsNSw0LDQsNCw0LDMsMSwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwxLDIsMiwyLDIsMiwxLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDMsNCw0LDQsMiwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDIsMiwyLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwyLDIsMiwxLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
+				"/	MjB4MjAKMTQuMHg2LjAKMCwyLDIsMiwzLDMsMywwLDMsMywzLDMsMywzLDIsMiwyLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMAowLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAKMCwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDIsMiwyLDAsMCwwCjAsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwyLDIsMiwwLDAsMAoxLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMiwyLDIsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDIsMiwyLDIsMiwyLDEsMSwxLDAsMCwwCjIsMiwyLDIsMiwyLDIsMCwyLDIsMiwyLDIsMiwxLDEsMSwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMiwyLDIsMiwyLDIsMCwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDIsMiwyLDEsMSwxLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsMCwzLDMsMywxLDEsMSwwLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwCjIsMiwyLDIsMiwyLDIsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAKMiwyLDIsMiwyLDIsMiwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjIsMiwyLDIsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDIsMiwyLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwxLDEsMSwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
 	
+				"/	MjB4MjAKMTAyLjB4OTYuMAo5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw2LDgsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDIsMywyLDEsMAowLDIsNSw4LDgsNiw0LDMsMywzLDMsMywzLDMsNCw1LDYsNSw0LDMKMCwxLDMsNiw4LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2CjAsMCwxLDQsNyw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMSw0LDcsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDIsNSw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMSw0LDcsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgoxLDMsNiw4LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMiw1LDgsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
+				"/	MjB4MjAKNTUuMHg5NS4wCjAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMiw1LDgsOCw3LDcsNyw3LDYsNyw3LDgsOCw5LDksOCw3LDYKMCwwLDMsNiw5LDcsNSw0LDQsNCwzLDQsNCw1LDUsNiw2LDUsNCwzCjAsMCwzLDYsOSw2LDMsMSwxLDEsMCwxLDEsMiwyLDMsMywyLDEsMAowLDEsNCw3LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo0LDcsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw4LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"/	MjB4MjAKNTUuMHg3OC4wCjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwxLDQsNyw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzCjAsMCwwLDMsNiw5LDcsNCwxLDAsMCwxLDIsMiwxLDAsMCwwLDAsMAowLDAsMSw0LDcsOSw2LDQsMiwzLDMsNCw1LDUsNCwzLDMsMywzLDMKMCwwLDIsNSw4LDgsNSw0LDQsNiw2LDcsOCw4LDcsNiw2LDYsNiw2CjAsMSw0LDcsOSw3LDQsNCw2LDksOSw5LDksOSw5LDksOSw5LDksOQowLDIsNSw4LDgsNSwyLDIsNCw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMSw0LDcsOSw3LDQsMSwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzCjIsNSw4LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+			//	"/	MjB4MjAKMTMuMHg4LjAKMCwwLDAsMCwwLDAsMCwwLDIsMiwzLDEsMSwxLDEsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwyLDIsNCwyLDIsMiwyLDMsMSwxLDAsMAowLDAsMCwwLDAsMSwxLDEsMiwyLDQsMiwyLDIsMiw0LDIsMiwwLDAKMCwwLDAsMCwwLDEsMSwxLDIsMiw0LDIsMiwyLDIsNCwyLDIsMCwwCjAsMCwwLDAsMCwyLDIsMiwyLDIsNCwyLDIsMiwyLDQsMiwyLDAsMAowLDAsMCwxLDEsMywyLDIsMiwyLDQsMiwyLDIsMiwzLDEsMSwwLDAKMCwwLDAsMSwxLDMsMiwyLDIsMiw0LDIsMiwyLDIsMywxLDEsMCwwCjAsMCwwLDIsMiw0LDIsMiwyLDIsNCwyLDIsMSwxLDEsMCwwLDAsMAoxLDEsMSwyLDIsNCwyLDIsMiwyLDQsMiwyLDAsMCwwLDAsMCwwLDAKMSwxLDEsMiwyLDQsMiwyLDIsMiw0LDIsMiwwLDAsMCwwLDAsMCwwCjIsMiwyLDIsMiw0LDIsMiwyLDIsMywxLDEsMCwwLDAsMCwwLDAsMAozLDIsMiwyLDIsNCwyLDIsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAKMywyLDIsMiwyLDQsMiwyLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwCjQsMiwyLDIsMiw0LDIsMiwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMAozLDIsMiwyLDIsNCwyLDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywyLDIsMiwyLDQsMiwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMSwxLDIsMiw0LDIsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDEsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSwxLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
+	        //	"/	MjB4MjAKMjAuMHgxNi4wCjAsMCwwLDAsMCwwLDEsMSwzLDUsOCw5LDYsNiw2LDksNyw0LDEsMAowLDAsMCwwLDAsMCwyLDIsNSw2LDksOSw2LDYsNiw5LDgsNSwyLDAKMCwwLDAsMCwwLDEsNCw0LDYsNiw5LDksNiw2LDYsOSw5LDYsMywwCjAsMCwwLDAsMSwzLDYsNSw2LDYsOSw5LDYsNiw2LDksOSw2LDMsMAowLDAsMCwwLDIsNSw4LDYsNiw2LDksOSw2LDYsNiw5LDgsNSwyLDAKMCwwLDAsMCwzLDYsOSw2LDYsNiw5LDksNiw2LDYsOCw2LDMsMSwwCjAsMCwwLDEsNCw3LDksNiw2LDYsOSw5LDYsNiw2LDcsNCwxLDAsMAowLDEsMSwzLDUsOCw5LDYsNiw2LDksOSw2LDYsNSw1LDIsMCwwLDAKMCwyLDIsNSw2LDksOSw2LDYsNiw5LDksNiw2LDQsNCwxLDAsMCwwCjEsNCw0LDYsNiw5LDksNiw2LDYsOSw5LDYsNSwyLDIsMCwwLDAsMAoyLDUsNSw2LDYsOSw5LDYsNiw2LDksOCw1LDMsMSwxLDAsMCwwLDAKNCw3LDYsNiw2LDksOSw2LDYsNiw5LDcsNCwxLDAsMCwwLDAsMCwwCjUsOCw2LDYsNiw5LDksNiw2LDYsOCw1LDIsMCwwLDAsMCwwLDAsMAo3LDksNiw2LDYsOSw5LDYsNiw2LDcsNCwxLDAsMCwwLDAsMCwwLDAKNyw5LDYsNiw2LDksOSw2LDYsNSw1LDIsMCwwLDAsMCwwLDAsMCwwCjcsOSw2LDYsNiw5LDksNiw1LDMsMywxLDAsMCwwLDAsMCwwLDAsMAo1LDgsNiw2LDYsOSw4LDUsMywxLDEsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDYsNiw2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw2LDYsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDYsNiw2LDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				
+				"0	MjB4MjAKNC43OTY4NzV4Ni4wNDY4NzUKMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5LDkKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjYsOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDkKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
+				"0	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOCw3LDYsNyw4LDksOSw5LDgsNiwzLDEsMAozLDYsOCw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDgsNiw0LDMKNSw4LDgsNiw0LDMsMywyLDEsMCwxLDIsMywzLDQsNiw4LDgsNyw2CjYsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjUsOCw4LDYsNCwzLDMsMiwxLDAsMSwyLDMsMyw0LDYsOCw4LDcsNgozLDYsOCw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDgsNiw0LDMKMSwzLDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
+				"0	MjB4MjAKNC43OTY4NzV4Ni4wNDY4NzUKMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5LDkKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjYsOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDkKNiw5LDgsNyw1LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
+				"0	MjB4MjAKMy43MTg3NXg1Ljg1OTM3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDgsNiwzLDEsMAozLDYsOCw4LDcsNiw1LDQsMywzLDMsNCw1LDYsNyw4LDgsNiw0LDMKNSw4LDgsNiw0LDMsMiwxLDAsMCwwLDEsMiwzLDQsNiw4LDgsNyw2CjYsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjUsOCw4LDYsNCwzLDIsMSwwLDAsMCwxLDIsMyw0LDYsOCw4LDcsNgozLDYsOCw4LDcsNiw1LDQsMywzLDMsNCw1LDYsNyw4LDgsNiw0LDMKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
+				"0	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOCw3LDYsNyw4LDksOSw5LDgsNiwzLDEsMAozLDYsOCw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDgsNiw0LDMKNSw4LDgsNiw0LDMsMywyLDEsMCwxLDIsMywzLDQsNiw4LDgsNyw2CjYsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjUsOCw4LDYsNCwzLDMsMiwxLDAsMSwyLDMsMyw0LDYsOCw4LDcsNgozLDYsOCw4LDcsNiw2LDUsNCwzLDQsNSw2LDYsNyw4LDgsNiw0LDMKMSwzLDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
+				"0	MjB4MjAKNC4wMzEyNXg2LjE3MTg3NQowLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKNSw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2CjYsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsNCw1LDcsOCw5LDksOQo2LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQo3LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNyw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDkKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw5CjUsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNgozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCww", 
+				"1	MjB4MjAKNC4xMDkzNzV4NS44MjgxMjUKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNiw2CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"1	MjB4MjAKMy40ODQzNzV4NS44MjgxMjUKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQo4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"1	MjB4MjAKNC4xMDkzNzV4NS44MjgxMjUKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNiw2CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"1	MjB4MjAKMS45Njg3NXg1LjY3MTg3NQowLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDEsNCw3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwoyLDUsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"1	MjB4MjAKMy40ODQzNzV4NS44MjgxMjUKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQo4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"1	MjB4MjAKMi4yODEyNXg1Ljk4NDM3NQowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDIsNSw4LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjMsNiw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"2	MjB4MjAKNC4yMzQzNzV4NS45Mzc1CjQsNiw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDksOCw4LDgsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDEsMyw2LDgsOSw4LDYsNiw3LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwyLDUsOCw5LDksNyw0LDQsNiw5LDksOQo2LDksOCw1LDIsMCwwLDEsNCw3LDksOSw4LDUsMiwzLDYsOSw5LDkKNiw5LDksNyw1LDMsMyw0LDYsOCw5LDksNyw0LDEsMyw2LDksOSw5CjYsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDUsMiwwLDMsNiw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwzLDYsOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwwLDMsNiw5LDksOQoyLDUsOCw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDkKMSwzLDYsOCw5LDksOSw4LDYsMywxLDAsMCwwLDAsMyw2LDksOSw5CjAsMSw0LDcsOSw5LDksNyw0LDEsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
+				"2	MjB4MjAKMy43MDMxMjV4NS45Mzc1CjMsNSw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOCw4LDgsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDYsNiw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsNyw0LDQsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDUsMiwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiwzLDEsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwyLDUsOCw3LDQsMSwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDEsNCw3LDgsNSwyLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMSwzLDYsOCw3LDQsMSwwLDAsMyw2LDksOQo2LDgsNiwzLDEsMCwxLDMsNiw4LDgsNSwyLDAsMCwwLDMsNiw5LDkKNSw4LDgsNiw0LDMsNCw2LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw5CjQsNyw5LDgsNyw2LDcsOCw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOQoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDMsNiw5LDkKMSwzLDYsOCw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwzLDYsOSw5CjAsMSw0LDcsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
+				"2	MjB4MjAKNC4yMzQzNzV4NS45Mzc1CjQsNiw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDksOCw4LDgsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDEsMyw2LDgsOSw4LDYsNiw3LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwyLDUsOCw5LDksNyw0LDQsNiw5LDksOQo2LDksOCw1LDIsMCwwLDEsNCw3LDksOSw4LDUsMiwzLDYsOSw5LDkKNiw5LDksNyw1LDMsMyw0LDYsOCw5LDksNyw0LDEsMyw2LDksOSw5CjYsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDUsMiwwLDMsNiw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwzLDYsOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwwLDMsNiw5LDksOQoyLDUsOCw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDkKMSwzLDYsOCw5LDksOSw4LDYsMywxLDAsMCwwLDAsMyw2LDksOSw5CjAsMSw0LDcsOSw5LDksNyw0LDEsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMyw2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
+				"2	MjB4MjAKMy44MjgxMjV4NS42NzE4NzUKMCwxLDIsNCw1LDQsMiwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNiw2CjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwwLDAsMiw0LDcsOCw5LDksOQoyLDUsOCw5LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDkKNCw3LDksOCw3LDQsMiwwLDAsMCwwLDEsMyw2LDcsNyw3LDgsOSw5CjUsOCw4LDYsNCwyLDEsMCwwLDAsMCwyLDUsOCw3LDUsNSw3LDksOQo2LDgsNiwzLDEsMCwwLDAsMCwwLDEsNCw3LDgsNSwyLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwyLDUsOCw3LDQsMSwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDgsNSwyLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDcsNSwyLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDMsNiw4LDUsMiwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDAsMyw2LDksOQo2LDgsNiwzLDEsMCwxLDMsNiw3LDUsMiwwLDAsMCwwLDMsNiw5LDkKNSw4LDgsNiw0LDMsNCw2LDgsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjMsNiw4LDgsNyw2LDcsOCw4LDUsMiwwLDAsMCwwLDAsMyw2LDksOQoxLDMsNiw4LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDMsNiw5LDkKMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"2	MjB4MjAKMy43MDMxMjV4NS45Mzc1CjMsNSw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOCw4LDgsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDYsNiw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsNyw0LDQsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDUsMiwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiwzLDEsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwyLDUsOCw3LDQsMSwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDEsNCw3LDgsNSwyLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMSwzLDYsOCw3LDQsMSwwLDAsMyw2LDksOQo2LDgsNiwzLDEsMCwxLDMsNiw4LDgsNSwyLDAsMCwwLDMsNiw5LDkKNSw4LDgsNiw0LDMsNCw2LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw5CjQsNyw5LDgsNyw2LDcsOCw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOQoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDMsNiw5LDkKMSwzLDYsOCw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwzLDYsOSw5CjAsMSw0LDcsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
+				"2	MjB4MjAKNC4xNTYyNXg1Ljk4NDM3NQowLDAsMSwyLDQsNSw0LDIsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYKMCwxLDMsNSw3LDgsNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5CjEsMyw2LDgsOSw5LDYsMywwLDAsMCwxLDMsNiw4LDksOSw5LDksOQozLDYsOCw5LDksOSw2LDMsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDkKNSw4LDksOSw4LDcsNCwyLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5CjYsOSw4LDcsNSw0LDIsMSwwLDAsMiw1LDgsOSw4LDgsOCw5LDksOQo2LDksNyw1LDIsMSwwLDAsMCwxLDQsNyw5LDgsNiw2LDcsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMiw1LDgsOSw3LDQsNCw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDgsNSwyLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw3LDQsMSwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDIsNSw4LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMSw0LDcsOSw3LDQsMSwwLDMsNiw5LDksOQo2LDksNyw0LDEsMCwwLDIsNSw4LDksNiwzLDAsMCwzLDYsOSw5LDkKNiw5LDgsNiwzLDIsMiw1LDcsOSw4LDUsMiwwLDAsMyw2LDksOSw5CjYsOSw5LDgsNiw1LDUsNyw4LDksNyw0LDEsMCwwLDMsNiw5LDksOQo1LDgsOSw5LDgsOCw4LDksOSw4LDUsMiwwLDAsMCwzLDYsOSw5LDkKMyw2LDgsOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMyw2LDksOSw5CjEsMyw2LDgsOSw5LDksOCw2LDMsMSwwLDAsMCwwLDMsNiw5LDksOQowLDEsNCw3LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDMsNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5", 
+				"3	MjB4MjAKNC40MDYyNXg2LjA0Njg3NQoyLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNCw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwyLDQsNiw0LDIsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwyLDUsOCw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMyw2LDksOSw3LDQsMSwwLDEsNCw3LDksOSw5CjYsOSw4LDYsNCwzLDUsNyw5LDksOCw2LDMsMiwzLDYsOCw5LDksOQo2LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDUsNiw4LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw5LDksOSw5LDcsNyw3LDksOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOSw5LDksOCw1LDQsNSw4LDksOSw5LDksOSw4LDUsMiwwCjIsNCw3LDgsOSw4LDYsMywyLDMsNiw4LDksOSw5LDgsNiwzLDEsMAoxLDIsNSw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCww", 
+				"3	MjB4MjAKMy44NDM3NXg2LjA0Njg3NQo0LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDEsNCw2LDgsNyw1LDIsMCwwLDAsMiw1LDgsOSw5CjUsOCw4LDYsNCw0LDYsNiw3LDcsNyw1LDMsMywzLDUsNyw4LDcsNgo0LDcsOSw4LDcsNyw4LDYsNSw1LDcsNyw2LDYsNiw3LDgsNyw1LDMKMiw1LDgsOSw5LDksOCw1LDMsNCw3LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDgsNiwzLDEsMAowLDEsNCw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCww", 
+				"3	MjB4MjAKNC40MDYyNXg2LjA0Njg3NQoyLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNCw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwyLDQsNiw0LDIsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwyLDUsOCw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMyw2LDksOSw3LDQsMSwwLDEsNCw3LDksOSw5CjYsOSw4LDYsNCwzLDUsNyw5LDksOCw2LDMsMiwzLDYsOCw5LDksOQo2LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDUsNiw4LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw5LDksOSw5LDcsNyw3LDksOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOSw5LDksOCw1LDQsNSw4LDksOSw5LDksOSw4LDUsMiwwCjIsNCw3LDgsOSw4LDYsMywyLDMsNiw4LDksOSw5LDgsNiwzLDEsMAoxLDIsNSw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCww", 
+				"3	MjB4MjAKMy43OTY4NzV4NS44NTkzNzUKMCwxLDIsNCw1LDQsMiwwLDAsMCwwLDAsMiw0LDYsNSwzLDEsMCwwCjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwwLDMsNiw5LDgsNiwzLDEsMAoyLDUsOCw5LDksNiwzLDAsMCwwLDAsMCwyLDUsOCw5LDgsNiw0LDMKNCw3LDgsNyw2LDQsMiwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNyw2CjUsNyw2LDQsMywyLDEsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMyw2LDksOQo4LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOCw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMSwxLDQsNyw5LDgsNSwyLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDQsNCw2LDgsOSw5LDcsNCwxLDAsMSwzLDYsNyw3LDYKNCw3LDksOCw3LDcsOCw4LDgsOCw4LDYsNCwzLDQsNiw4LDcsNSwzCjIsNSw4LDksOSw5LDgsNiw1LDYsOCw4LDcsNiw3LDgsOCw1LDIsMAoxLDMsNSw3LDgsOCw2LDMsMiwzLDYsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw3LDcsNCwxLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
+				"3	MjB4MjAKMy44NDM3NXg2LjA0Njg3NQo0LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDEsNCw2LDgsNyw1LDIsMCwwLDAsMiw1LDgsOSw5CjUsOCw4LDYsNCw0LDYsNiw3LDcsNyw1LDMsMywzLDUsNyw4LDcsNgo0LDcsOSw4LDcsNyw4LDYsNSw1LDcsNyw2LDYsNiw3LDgsNyw1LDMKMiw1LDgsOSw5LDksOCw1LDMsNCw3LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDgsNiwzLDEsMAowLDEsNCw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw3LDQsMSwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksNiwzLDAsMCww", 
+				"3	MjB4MjAKNC4xMjV4Ni4xNzE4NzUKMCwxLDIsNCw1LDQsMiwwLDAsMCwwLDAsMiw0LDYsNSwzLDEsMCwwCjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwwLDMsNiw5LDgsNiwzLDEsMAoyLDUsOCw5LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDgsNSwyLDAKNCw3LDksOSw5LDYsMywwLDAsMCwwLDAsMyw2LDksOSw5LDcsNSwzCjUsOCw5LDgsNyw0LDIsMCwwLDAsMCwwLDIsNCw3LDgsOSw4LDcsNgo2LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDAsMSwyLDMsMiwxLDAsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDIsNCw2LDQsMiwwLDAsMCwwLDMsNiw5LDksOQo4LDgsNSwyLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKOCw4LDUsMiwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOSw5CjcsOCw1LDIsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw4LDUsMiwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDYsNCw0LDYsOCw5LDksNyw1LDMsMyw0LDYsOCw5LDksOQo1LDgsOSw4LDcsNyw4LDksOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjIsNSw4LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw3LDgsOSw4LDYsNSw2LDgsOSw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw3LDksNyw0LDIsNCw3LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsNiw5LDYsMywwLDMsNiw5LDksOSw5LDYsMywwLDAsMA==",
+				
+				
+				//added explicitly
+				"3	MjB4MjAKMTAuMHgxNi4wCjQsNiw0LDQsNCw0LDIsMCwwLDAsMSwzLDMsNCw0LDYsNCwyLDAsMAoyLDMsMiwyLDIsMiwxLDAsMCwwLDAsMSwxLDIsMiwzLDIsMSwwLDAKNCw2LDQsMywyLDMsMywyLDEsMCwwLDEsMSwyLDMsNSw1LDMsMSwwCjIsMywyLDEsMCwxLDIsMiwxLDAsMCwwLDAsMCwxLDIsMywyLDEsMAo1LDUsMywxLDAsMiw0LDQsMiwwLDAsMCwwLDAsMiw0LDYsNCwyLDAKMywyLDEsMCwwLDEsMiwyLDEsMCwwLDAsMCwwLDEsMiwzLDIsMSwwCjUsNSwzLDEsMSwzLDUsNCwzLDEsMSwwLDAsMCwyLDQsNiw0LDIsMAoyLDMsMiwxLDEsMiwzLDIsMiwxLDEsMCwwLDAsMSwyLDMsMiwxLDAKNCw2LDQsMywzLDUsNiw0LDQsMiwyLDAsMCwwLDIsNCw2LDQsMiwwCjIsMywyLDIsMiwzLDMsMiwyLDEsMSwwLDAsMCwxLDIsMywyLDEsMAo0LDYsNCw0LDQsNiw2LDQsNCwzLDQsMywyLDIsMyw1LDYsNCwyLDAKMiwzLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwyLDIsMywzLDIsMSwwCjMsNSw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsNCw0LDUsNCwyLDEsMAoxLDIsMiwyLDIsMywzLDIsMiwyLDMsMywyLDIsMiwyLDEsMCwwLDAKMSwyLDIsMiwyLDMsMywyLDIsMyw1LDYsNCw0LDMsMywxLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDIsMiwxLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw0LDMsMSwxLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDIsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"3	MjB4MjAKOS4weDE1LjAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDMsMywxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDIsMSwwCjEsMSwwLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDEsMywzLDIsMAoxLDEsMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDEsMSwxLDAKMiwyLDAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwyLDIsMiwwCjEsMSwwLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDAsMSwxLDEsMAoxLDEsMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDEsMSwxLDAKMSwxLDAsMCwwLDAsMSwyLDMsMiwxLDAsMCwwLDAsMCwxLDEsMSwwCjEsMSwwLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwwLDAsMSwxLDEsMAoyLDIsMiwyLDMsMiwyLDMsNSw0LDIsMCwwLDAsMCwxLDIsMiwxLDAKMSwxLDIsMiwzLDIsMSwxLDIsMiwxLDAsMCwwLDAsMSwxLDEsMCwwCjIsMiw0LDQsNSwzLDEsMSwzLDMsMywyLDMsMiwyLDIsMiwxLDAsMAoxLDEsMiwyLDIsMSwwLDAsMSwxLDIsMiwzLDIsMiwxLDEsMCwwLDAKMSwxLDIsMiwyLDEsMCwwLDEsMSwzLDQsNiw0LDMsMSwxLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMiwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
+				
+				"4	MjB4MjAKNC44NDM3NXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksNiwzLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5LDYsMywwLDAsMAowLDAsMCwwLDEsMyw1LDcsOCw5LDgsOCw4LDksOSw2LDMsMCwwLDAKMCwwLDAsMSwzLDYsOCw5LDgsNyw1LDYsNyw5LDksNiwzLDAsMCwwCjAsMCwxLDMsNiw4LDksOCw2LDQsMiw0LDYsOSw5LDYsMywwLDAsMAowLDEsMyw2LDgsOSw4LDYsMywxLDAsMyw2LDksOSw2LDMsMCwwLDAKMiw0LDYsOCw5LDgsNiwzLDEsMCwwLDMsNiw5LDksNiwzLDAsMCwwCjUsNyw4LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMAo4LDksOSw5LDgsNiw0LDMsMywzLDMsNSw3LDksOSw3LDUsMywzLDMKOSw5LDksOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCww", 
+				"4	MjB4MjAKNC4yNXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDcsOCw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw3LDYsNCw1LDcsNiwzLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDcsNiwzLDEsMyw2LDYsMywwLDAsMCwwCjAsMCwwLDEsMyw1LDcsNyw2LDMsMSwwLDMsNiw2LDMsMCwwLDAsMAowLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwzLDYsNiwzLDAsMCwwLDAKMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwCjEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMAozLDYsNyw3LDUsMywxLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAKNiw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwCjgsOCw2LDQsMywzLDMsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMwo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCww", 
+				"4	MjB4MjAKNC44NDM3NXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksNiwzLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5LDYsMywwLDAsMAowLDAsMCwwLDEsMyw1LDcsOCw5LDgsOCw4LDksOSw2LDMsMCwwLDAKMCwwLDAsMSwzLDYsOCw5LDgsNyw1LDYsNyw5LDksNiwzLDAsMCwwCjAsMCwxLDMsNiw4LDksOCw2LDQsMiw0LDYsOSw5LDYsMywwLDAsMAowLDEsMyw2LDgsOSw4LDYsMywxLDAsMyw2LDksOSw2LDMsMCwwLDAKMiw0LDYsOCw5LDgsNiwzLDEsMCwwLDMsNiw5LDksNiwzLDAsMCwwCjUsNyw4LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMAo4LDksOSw5LDgsNiw0LDMsMywzLDMsNSw3LDksOSw3LDUsMywzLDMKOSw5LDksOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCww", 
+				"4	MjB4MjAKMy45Mzc1eDUuNjcxODc1CjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw2LDgsOCw4LDgsOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw4LDYsNiw3LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDgsNiwzLDQsNiw5LDYsMywwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOCw2LDMsMSwzLDYsOSw2LDMsMCwwLDAsMAowLDAsMSwzLDYsOCw4LDYsMywxLDAsMyw2LDksNiwzLDAsMCwwLDAKMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDMsNiw5LDYsMywwLDAsMCwwCjAsMiw1LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMAoxLDQsNyw4LDYsMywxLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAKMyw2LDgsOCw2LDQsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzCjYsOCw5LDgsNyw2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNgo4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2CjMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw3LDUsMywzLDMsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDA=", 
+				"4	MjB4MjAKNC4yNXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDcsOCw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw3LDYsNCw1LDcsNiwzLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDcsNiwzLDEsMyw2LDYsMywwLDAsMCwwCjAsMCwwLDEsMyw1LDcsNyw2LDMsMSwwLDMsNiw2LDMsMCwwLDAsMAowLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwzLDYsNiwzLDAsMCwwLDAKMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMyw2LDYsMywwLDAsMCwwCjEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMAozLDYsNyw3LDUsMywxLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAKNiw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwCjgsOCw2LDQsMywzLDMsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMwo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCww", 
+				"4	MjB4MjAKNC4yNXg1Ljk4NDM3NQowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw4LDgsOCw5LDYsMywwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw5LDgsNiw2LDcsOSw2LDMsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOCw2LDMsNCw2LDksNiwzLDAsMCwwLDAKMCwwLDEsMyw2LDgsOSw4LDYsMywxLDMsNiw5LDYsMywwLDAsMCwwCjAsMSwzLDYsOCw5LDgsNiwzLDEsMCwzLDYsOSw2LDMsMCwwLDAsMAoxLDMsNiw4LDksOCw2LDMsMSwwLDAsMyw2LDksNiwzLDAsMCwwLDAKMyw2LDgsOSw5LDgsNiw0LDMsMywzLDUsNyw5LDcsNSwzLDMsMywzCjYsOCw5LDksOSw4LDcsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNgo4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCww", 
+				"5	MjB4MjAKNC4zOTA2MjV4NS45Mzc1CjYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMSw0LDcsOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDIsNSw4LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwxLDQsNyw5LDksOQo5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDgsNyw2LDcsOCw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw3LDUsMyw1LDcsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwzLDYsOSw4LDUsMiwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDksOCw2LDMsMiwyLDQsNiw4LDksOSw5CjksOSw2LDMsMCwzLDYsOSw5LDksOCw2LDUsNSw3LDgsOSw5LDksOQo5LDksNiwzLDAsMiw1LDgsOSw5LDksOCw4LDgsOSw5LDksOSw5LDkKOSw5LDYsMywwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDgsNSwyLDAKNiw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw2LDMsMSwwCjMsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDA=", 
+				"5	MjB4MjAKMy43NjU2MjV4NS45Mzc1CjMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAsMCwwLDIsNSw4LDksOQo2LDYsNiw2LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwxLDQsNyw5LDkKOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsNyw2LDYsNyw4LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw3LDUsMywzLDUsNyw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMSw0LDcsOSw5CjksNiwzLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDIsNSw4LDksOQo5LDYsMywwLDAsMSw0LDcsOCw2LDMsMSwwLDAsMSw0LDcsOSw5LDkKOSw2LDMsMCwwLDAsMyw2LDksOCw2LDQsMywzLDQsNiw4LDgsNyw2CjksNiwzLDAsMCwwLDIsNSw4LDksOCw3LDYsNiw3LDgsOSw3LDUsMwo2LDQsMiwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNSwyLDAKMywyLDEsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDA=", 
+				"5	MjB4MjAKNC4zOTA2MjV4NS45Mzc1CjYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMSw0LDcsOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDIsNSw4LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwxLDQsNyw5LDksOQo5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDgsNyw2LDcsOCw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw3LDUsMyw1LDcsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwzLDYsOSw4LDUsMiwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDksOCw2LDMsMiwyLDQsNiw4LDksOSw5CjksOSw2LDMsMCwzLDYsOSw5LDksOCw2LDUsNSw3LDgsOSw5LDksOQo5LDksNiwzLDAsMiw1LDgsOSw5LDksOCw4LDgsOSw5LDksOSw5LDkKOSw5LDYsMywwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDgsNSwyLDAKNiw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw2LDMsMSwwCjMsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDA=", 
+				"5	MjB4MjAKMy44MjgxMjV4NS44NTkzNzUKMCwwLDAsMCwxLDIsMywzLDMsMiwxLDAsMCwyLDQsNSwzLDEsMCwwCjIsMywzLDMsNCw1LDYsNiw2LDQsMiwwLDAsMyw2LDgsNiwzLDEsMAo1LDYsNiw2LDcsOCw5LDksOSw2LDMsMCwwLDIsNSw4LDgsNSwyLDAKOCw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwxLDMsNiw4LDcsNSwzCjksOCw3LDYsNiw2LDcsOCw4LDUsMiwwLDAsMCwxLDMsNiw3LDcsNgo5LDcsNSwzLDMsMyw1LDcsNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDkKOSw2LDMsMCwwLDEsNCw2LDUsMiwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwyLDUsNiw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw4LDUsMiwwLDAsMCwwLDAsMSw0LDcsOSw5CjksNiwzLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDIsNSw4LDksOQo5LDYsMywwLDAsMSw0LDcsOCw2LDMsMSwwLDEsMiw1LDcsOCw3LDYKOSw2LDMsMCwwLDAsMiw1LDgsOCw2LDQsMyw0LDUsNyw4LDcsNSwzCjksNiwzLDAsMCwwLDEsNCw3LDksOCw3LDYsNyw4LDksOCw1LDIsMAo2LDQsMiwwLDAsMCwwLDIsNSw4LDksOSw5LDksOSw4LDYsMywxLDAKMywyLDEsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"5	MjB4MjAKMy43NjU2MjV4NS45Mzc1CjMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAsMCwwLDIsNSw4LDksOQo2LDYsNiw2LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwxLDQsNyw5LDkKOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsNyw2LDYsNyw4LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw3LDUsMywzLDUsNyw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMSw0LDcsOSw5CjksNiwzLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDIsNSw4LDksOQo5LDYsMywwLDAsMSw0LDcsOCw2LDMsMSwwLDAsMSw0LDcsOSw5LDkKOSw2LDMsMCwwLDAsMyw2LDksOCw2LDQsMywzLDQsNiw4LDgsNyw2CjksNiwzLDAsMCwwLDIsNSw4LDksOCw3LDYsNiw3LDgsOSw3LDUsMwo2LDQsMiwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNSwyLDAKMywyLDEsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDA=", 
+				"5	MjB4MjAKNC4xNzE4NzV4Ni4xNzE4NzUKMCwwLDAsMCwxLDIsMywzLDMsMiwxLDAsMiw0LDYsNSwzLDEsMCwwCjIsMywzLDMsNCw1LDYsNiw2LDQsMiwwLDMsNiw5LDgsNiwzLDEsMAo1LDYsNiw2LDcsOCw5LDksOSw2LDMsMCwzLDYsOSw5LDgsNSwyLDAKOCw5LDksOSw5LDksOSw5LDksNiwzLDAsMiw1LDgsOSw5LDcsNSwzCjksOSw5LDksOSw5LDksOSw5LDYsMywwLDEsMyw2LDgsOSw4LDcsNgo5LDksOSw4LDcsNyw4LDksOCw1LDIsMCwwLDEsMyw2LDgsOSw5LDkKOSw5LDgsNiw0LDUsNyw5LDcsNCwxLDAsMCwwLDEsNCw3LDksOSw5CjksOSw3LDQsMSwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDMsNiw5LDcsNCwxLDAsMCwwLDEsNCw3LDksOSw5CjksOSw2LDMsMCwzLDYsOSw4LDYsNCwyLDIsMiw0LDYsOCw5LDksOQo5LDksNiwzLDAsMiw1LDgsOSw4LDcsNSw1LDUsNyw4LDksOCw3LDYKOSw5LDYsMywwLDEsNCw3LDksOSw5LDgsOCw4LDksOSw5LDcsNSwzCjksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDYsNCwyLDAsMCwxLDMsNiw4LDksOSw5LDksOSw4LDYsMywxLDAKMywzLDIsMSwwLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==",
+				
+				//added explicitly
+				"5	MjB4MjAKMjUuMHgzNS4wCjMsMywzLDUsNyw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMAo2LDYsNiw3LDgsOSw5LDksOSw4LDcsNyw4LDksOSw5LDYsMywwLDAKOSw5LDksOSw5LDksOSw5LDksNyw1LDUsNyw5LDksOSw3LDQsMSwwCjgsOSw5LDksOSw5LDksOSw5LDYsMywyLDUsOCw5LDksOCw1LDIsMAo3LDksOSw5LDgsOCw4LDksOSw2LDMsMSw0LDcsOSw5LDksNiwzLDAKNiw5LDksOCw2LDYsNyw5LDksNiwzLDAsMyw2LDksOSw5LDcsNSwzCjYsOSw5LDcsNSw1LDcsOSw5LDYsMywwLDMsNiw5LDksOSw4LDcsNgo2LDksOSw2LDQsNCw3LDksOSw2LDMsMCwzLDYsOSw5LDksOSw5LDkKNiw5LDksNiw1LDUsOCw5LDksNiwzLDAsMyw2LDksOSw5LDksOSw5CjYsOSw5LDYsNSw1LDgsOSw5LDYsMywwLDMsNiw5LDksOSw5LDksOQo2LDksOSw2LDYsNiw5LDksOSw3LDUsMyw1LDcsOSw5LDksOSw5LDkKNiw5LDksNiw1LDQsNyw4LDksOCw3LDYsNyw4LDksOSw4LDcsNiw2CjYsOSw5LDYsNCwyLDUsNyw5LDksOSw5LDksOSw5LDksNyw1LDMsMwo2LDksOSw2LDMsMCwyLDUsOCw5LDksOSw5LDksOSw5LDYsMywwLDAKNiw5LDksNiwzLDAsMSw0LDcsOSw5LDksOSw5LDksOCw1LDIsMCwwCjQsNiw2LDQsMiwwLDAsMiw0LDYsNyw4LDksOCw3LDUsMywxLDAsMAoyLDMsMywyLDEsMCwwLDEsMiwzLDUsNyw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDUsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDA=",
+				
+				
+				"6	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw5LDgsNyw3LDgsOSw5LDksOCw3LDcsOCw5LDksOSw5LDkKNiw5LDksOCw2LDQsNSw3LDksOCw3LDUsNCw0LDUsNyw4LDksOSw5CjYsOSw4LDYsMywxLDMsNiw5LDcsNSwyLDEsMSwyLDUsNyw5LDksOQo2LDksNyw0LDEsMSw0LDcsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDIsNSw4LDksNiwzLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMiw1LDgsOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDEsNCw3LDksOCw2LDQsMywzLDQsNiw4LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDYsMywwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsOSw3LDQsMSwwLDEsNCw3LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDYsNSwzLDEsMCwwLDIsNSw4LDksOSw5LDksOSw4LDYsMywxLDAKMiwzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"6	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMiw1LDgsOSw5LDksOCw4LDgsOSw5LDksOSw5LDgsNiwzLDEsMAoxLDQsNyw5LDgsNyw2LDYsNyw4LDgsNyw2LDYsNyw4LDgsNiw0LDMKMiw1LDgsOCw2LDQsNCw1LDcsNyw2LDQsMywzLDQsNiw4LDgsNyw2CjQsNyw4LDYsMywxLDIsNSw3LDYsMywxLDAsMCwxLDMsNiw4LDksOQo1LDcsNiwzLDEsMCwzLDYsNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDkKNiw3LDQsMSwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw4LDYsNCwyLDEsMSwyLDQsNiw3LDcsNgo2LDYsMywwLDAsMCwyLDUsOCw4LDcsNSw0LDQsNSw3LDgsNyw1LDMKNiw3LDQsMSwwLDAsMSwzLDYsOCw5LDgsNyw3LDgsOSw4LDUsMiwwCjQsNSwzLDEsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMAoyLDMsMiwxLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMCww", 
+				"6	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAowLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw5LDgsNyw3LDgsOSw5LDksOCw3LDcsOCw5LDksOSw5LDkKNiw5LDksOCw2LDQsNSw3LDksOCw3LDUsNCw0LDUsNyw4LDksOSw5CjYsOSw4LDYsMywxLDMsNiw5LDcsNSwyLDEsMSwyLDUsNyw5LDksOQo2LDksNyw0LDEsMSw0LDcsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDIsNSw4LDksNiwzLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMiw1LDgsOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDEsNCw3LDksOCw2LDQsMywzLDQsNiw4LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDYsMywwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsOSw3LDQsMSwwLDEsNCw3LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDYsNSwzLDEsMCwwLDIsNSw4LDksOSw5LDksOSw4LDYsMywxLDAKMiwzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"6	MjB4MjAKMy43NjU2MjV4NS44NTkzNzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNCwyLDAsMAoxLDMsNiw4LDksOSw4LDcsNyw4LDksOSw5LDksOSw5LDcsNCwxLDAKMiw1LDgsOCw3LDYsNSw1LDYsOCw4LDcsNiw2LDcsOCw4LDYsNCwzCjQsNyw4LDYsNCwzLDIsMyw1LDcsNiw0LDMsMyw0LDYsOCw4LDcsNgo1LDcsNiwzLDEsMCwxLDQsNiw2LDMsMSwwLDAsMSwzLDYsOCw5LDkKNiw3LDQsMSwwLDAsMiw1LDYsNCwxLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5CjYsNyw0LDEsMCwwLDMsNiw4LDUsMiwwLDAsMCwwLDIsNSw4LDksOQo1LDcsNiw0LDIsMSwyLDUsOCw3LDUsMiwxLDEsMiw1LDcsOCw3LDYKNCw3LDgsNyw0LDIsMSw0LDcsOCw3LDUsNCw0LDUsNyw4LDcsNSwzCjIsNSw4LDksNiwzLDAsMiw1LDgsOSw4LDcsNyw4LDksOCw1LDIsMAoxLDMsNSw3LDUsMywwLDEsMyw2LDgsOSw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw0LDMsMCwwLDEsNCw3LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsMywzLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMA==", 
+				"6	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNSwzLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMiw1LDgsOSw5LDksOCw4LDgsOSw5LDksOSw5LDgsNiwzLDEsMAoxLDQsNyw5LDgsNyw2LDYsNyw4LDgsNyw2LDYsNyw4LDgsNiw0LDMKMiw1LDgsOCw2LDQsNCw1LDcsNyw2LDQsMywzLDQsNiw4LDgsNyw2CjQsNyw4LDYsMywxLDIsNSw3LDYsMywxLDAsMCwxLDMsNiw4LDksOQo1LDcsNiwzLDEsMCwzLDYsNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDkKNiw3LDQsMSwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwyLDUsNyw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw4LDYsNCwyLDEsMSwyLDQsNiw3LDcsNgo2LDYsMywwLDAsMCwyLDUsOCw4LDcsNSw0LDQsNSw3LDgsNyw1LDMKNiw3LDQsMSwwLDAsMSwzLDYsOCw5LDgsNyw3LDgsOSw4LDUsMiwwCjQsNSwzLDEsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMAoyLDMsMiwxLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMCww", 
+				"6	MjB4MjAKNC4wNzgxMjV4Ni4xNzE4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjQsNyw5LDksOCw3LDcsOCw5LDksOCw3LDYsNiw3LDgsOSw4LDcsNgo1LDgsOSw4LDYsNCw1LDcsOSw4LDYsNCwzLDMsNCw2LDgsOSw5LDkKNiw5LDgsNiwzLDEsMyw2LDksNyw0LDEsMCwwLDEsNCw3LDksOSw5CjYsOSw3LDQsMSwxLDQsNyw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMiw1LDgsOCw1LDIsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDMsNiw5LDgsNSwyLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwzLDYsOSw4LDUsMiwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMiw1LDgsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksNyw0LDEsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDYsMywxLDMsNiw5LDgsNiw0LDMsMyw0LDYsOCw5LDksOQo1LDgsOSw4LDUsMiwzLDYsOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYKNCw3LDksOSw2LDMsMiw1LDgsOSw5LDksOSw5LDksOSw5LDcsNSwzCjIsNSw4LDksNiwzLDEsMyw2LDgsOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw3LDUsMywwLDEsMyw2LDgsOSw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw0LDMsMCwwLDEsNCw3LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsMywzLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMA==", 
+				"7	MjB4MjAKNC40MDYyNXg1LjgyODEyNQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw2LDYKOSw5LDYsMywxLDMsNSw3LDgsOSw5LDksOSw5LDksOCw2LDQsMywzCjksOSw3LDUsNCw2LDgsOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAo5LDksOCw3LDcsOCw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjksOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"7	MjB4MjAKMy43NXg1LjgyODEyNQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5CjksNiwzLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOCw3LDYsNgo5LDYsMywwLDAsMCwwLDEsMiw0LDUsNyw4LDksOSw4LDYsNCwzLDMKOSw2LDMsMCwwLDAsMSwzLDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwCjksNiwzLDAsMSwyLDQsNiw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMAo5LDYsNCwyLDQsNSw3LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKOSw3LDYsNSw3LDgsOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjksOCw4LDgsOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"7	MjB4MjAKNC40MDYyNXg1LjgyODEyNQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw2LDYKOSw5LDYsMywxLDMsNSw3LDgsOSw5LDksOSw5LDksOCw2LDQsMywzCjksOSw3LDUsNCw2LDgsOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAo5LDksOCw3LDcsOCw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjksOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"7	MjB4MjAKMy43ODEyNXg1LjY3MTg3NQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw2CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYsNyw4LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDYsNiw2CjksNiwzLDAsMCwwLDAsMSwyLDQsNiw4LDksOCw3LDUsNCwzLDMsMwo5LDYsMywwLDAsMCwxLDMsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAKOSw2LDMsMCwwLDEsMyw2LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwCjksNiwzLDAsMSwzLDYsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMAo5LDYsMywxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDQsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw2LDYsNyw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsOCw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"7	MjB4MjAKMy43NXg1LjgyODEyNQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5CjksNiwzLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOCw3LDYsNgo5LDYsMywwLDAsMCwwLDEsMiw0LDUsNyw4LDksOSw4LDYsNCwzLDMKOSw2LDMsMCwwLDAsMSwzLDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwCjksNiwzLDAsMSwyLDQsNiw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMAo5LDYsNCwyLDQsNSw3LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKOSw3LDYsNSw3LDgsOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjksOCw4LDgsOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"7	MjB4MjAKNC4wOTM3NXg1Ljk4NDM3NQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDgsNyw2CjksOSw2LDMsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDcsNiw1LDQsMwo5LDksNiwzLDAsMSwzLDUsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAKOSw5LDYsMywxLDMsNiw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwCjksOSw2LDQsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAo5LDksNyw2LDYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDgsOCw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"8	MjB4MjAKNC41OTM3NXg2LjA0Njg3NQoxLDIsNCw1LDYsNSwzLDEsMCwxLDMsNSw2LDYsNiw2LDUsMywxLDAKMiw0LDcsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDgsNiw0LDUsNyw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDgsNyw3LDgsOSw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksOCw2LDQsNCw2LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo3LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwxLDQsNyw5LDksNiwzLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDQsNCw2LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDksOCw3LDcsOCw5LDksOSw4LDcsNiw2LDcsOCw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOCw3LDYKNCw3LDksOSw5LDksOCw2LDQsNSw3LDksOSw5LDksOSw5LDcsNSwzCjIsNCw3LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDksOCw1LDIsMAoxLDIsNSw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCww", 
+				"8	MjB4MjAKNC4weDYuMDQ2ODc1CjAsMSwzLDUsNiw1LDMsMSwwLDEsMyw1LDYsNiw2LDYsNSwzLDEsMAoxLDMsNiw4LDksOCw2LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMyw2LDgsOSw5LDksOCw1LDMsNCw3LDksOCw4LDgsOSw5LDcsNSwzCjUsOCw4LDcsNiw3LDgsNyw2LDYsNyw3LDUsNSw1LDcsOCw4LDcsNgo2LDgsNiw0LDMsNCw2LDcsOCw4LDcsNSwyLDIsMiw0LDYsOCw5LDkKNiw3LDQsMSwwLDEsMyw2LDgsOCw1LDIsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsNCwzLDQsNiw3LDgsOCw3LDUsMiwyLDIsNCw2LDgsOSw5CjUsOCw4LDcsNiw3LDgsNyw2LDYsNyw3LDUsNSw1LDcsOCw4LDcsNgozLDYsOCw5LDksOSw4LDUsMyw0LDcsOSw4LDgsOCw5LDksNyw1LDMKMSwzLDYsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjAsMSw0LDcsOSw3LDQsMSwwLDEsNCw3LDksOSw5LDksNyw0LDEsMAowLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
+				"8	MjB4MjAKNC41OTM3NXg2LjA0Njg3NQoxLDIsNCw1LDYsNSwzLDEsMCwxLDMsNSw2LDYsNiw2LDUsMywxLDAKMiw0LDcsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDgsNiw0LDUsNyw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDgsNyw3LDgsOSw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksOCw2LDQsNCw2LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo3LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwxLDQsNyw5LDksNiwzLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDQsNCw2LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDksOCw3LDcsOCw5LDksOSw4LDcsNiw2LDcsOCw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOCw3LDYKNCw3LDksOSw5LDksOCw2LDQsNSw3LDksOSw5LDksOSw5LDcsNSwzCjIsNCw3LDgsOSw4LDYsMywxLDIsNSw4LDksOSw5LDksOCw1LDIsMAoxLDIsNSw3LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOSw2LDMsMCww", 
+				"8	MjB4MjAKMy44MTI1eDUuODU5Mzc1CjAsMSwyLDMsMywzLDIsMSwwLDEsMyw1LDYsNiw2LDUsMywxLDAsMAoxLDMsNSw2LDYsNiw1LDMsMSwyLDUsOCw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOCw1LDMsNCw3LDgsNyw2LDcsOCw4LDUsMiwwCjQsNyw5LDgsNyw3LDgsNyw2LDYsNyw2LDQsMyw0LDYsOCw3LDUsMwo1LDgsOCw2LDQsNCw2LDcsOCw3LDYsMywxLDAsMSwzLDYsNyw3LDYKNiw4LDYsMywxLDEsNCw3LDksNyw0LDEsMCwwLDAsMSw0LDcsOSw5CjYsNyw0LDEsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDgsNiwzLDEsMSw0LDcsOSw4LDUsMiwwLDAsMCwxLDQsNyw5LDkKNSw4LDgsNiw0LDQsNiw3LDgsOCw3LDQsMSwwLDEsMyw2LDcsNyw2CjQsNyw5LDgsNyw3LDgsNyw2LDYsNyw2LDQsMyw0LDYsOCw3LDUsMwoyLDUsOCw5LDksOSw4LDUsMyw0LDcsOCw3LDYsNyw4LDgsNSwyLDAKMSwzLDUsNiw2LDYsNSwzLDEsMiw1LDgsOSw5LDksOCw2LDMsMSwwCjAsMSwyLDMsMywzLDIsMSwwLDEsNCw3LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDA=", 
+				"8	MjB4MjAKNC4weDYuMDQ2ODc1CjAsMSwzLDUsNiw1LDMsMSwwLDEsMyw1LDYsNiw2LDYsNSwzLDEsMAoxLDMsNiw4LDksOCw2LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMyw2LDgsOSw5LDksOCw1LDMsNCw3LDksOCw4LDgsOSw5LDcsNSwzCjUsOCw4LDcsNiw3LDgsNyw2LDYsNyw3LDUsNSw1LDcsOCw4LDcsNgo2LDgsNiw0LDMsNCw2LDcsOCw4LDcsNSwyLDIsMiw0LDYsOCw5LDkKNiw3LDQsMSwwLDEsMyw2LDgsOCw1LDIsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwxLDQsNyw5LDkKNiw4LDYsNCwzLDQsNiw3LDgsOCw3LDUsMiwyLDIsNCw2LDgsOSw5CjUsOCw4LDcsNiw3LDgsNyw2LDYsNyw3LDUsNSw1LDcsOCw4LDcsNgozLDYsOCw5LDksOSw4LDUsMyw0LDcsOSw4LDgsOCw5LDksNyw1LDMKMSwzLDYsOCw5LDgsNiwzLDEsMiw1LDgsOSw5LDksOSw4LDUsMiwwCjAsMSw0LDcsOSw3LDQsMSwwLDEsNCw3LDksOSw5LDksNyw0LDEsMAowLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
+				"8	MjB4MjAKNC4xMjV4Ni4xNzE4NzUKMCwxLDIsMywzLDMsMiwxLDAsMiw0LDYsNiw2LDYsNSwzLDEsMCwwCjEsMyw1LDYsNiw2LDUsMywyLDQsNyw5LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw4LDYsNSw2LDgsOSw5LDksOSw5LDgsNSwyLDAKNCw3LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDcsNSwzCjUsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw3LDgsOSw4LDcsNgo2LDksOCw3LDYsNiw3LDgsOSw5LDcsNSwzLDMsNCw2LDgsOSw5LDkKNiw5LDcsNSwzLDMsNSw3LDksOCw1LDIsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDMsNiw5LDksOQo3LDksNiwzLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOSw5CjcsOSw2LDMsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNSwzLDMsNSw3LDksOCw1LDIsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDcsNiw2LDcsOCw5LDksNyw1LDMsMyw0LDYsOCw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYKNCw3LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDcsNSwzCjIsNSw4LDksOSw5LDgsNiw1LDYsOCw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw2LDYsNiw1LDMsMiwzLDYsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
+				"9	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwxLDMsNSw2LDYsNiw2LDYsNSwzLDEsMCwwLDEsMiwzLDMsMywzCjEsMyw2LDgsOSw5LDksOSw5LDgsNSwyLDAsMCwxLDMsNSw2LDYsNgoyLDUsOCw5LDksOSw5LDksOSw5LDcsNCwxLDAsMSw0LDcsOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMyw2LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDMsNiw5LDksOQo2LDksOSw4LDcsNiw2LDcsOCw5LDksNyw0LDEsMCwzLDYsOSw5LDkKNiw5LDgsNiw0LDMsMyw0LDYsOCw5LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDYsMywwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDMsNiw5LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwzLDYsOSw3LDQsMSwxLDQsNyw5LDksOQo2LDksNyw1LDIsMSwxLDIsNSw3LDksNiwzLDEsMyw2LDgsOSw5LDkKNiw5LDgsNyw1LDQsNCw1LDcsOCw5LDcsNSw0LDYsOCw5LDgsNyw2CjUsOCw5LDksOCw3LDcsOCw5LDksOSw4LDcsNyw4LDksOSw3LDUsMwo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
+				"9	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDEsMyw1LDYsNiw2LDYsNSwzLDEsMCwwLDAsMCwxLDIsMywzLDMKMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMSwzLDUsNiw2CjIsNSw4LDksOCw3LDcsOCw5LDgsNiwzLDEsMCwwLDEsNCw3LDksOQo0LDcsOCw3LDUsNCw0LDUsNyw4LDgsNSwyLDAsMCwwLDMsNiw5LDkKNSw3LDYsNCwyLDEsMSwyLDQsNiw4LDYsMywwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDcsNSwyLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDYsNCwxLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDAsMSw0LDcsNiwzLDAsMSwzLDYsNyw3LDYKNiw4LDYsMywxLDAsMCwxLDMsNiw3LDUsMiwxLDMsNiw4LDcsNSwzCjUsOCw4LDYsNCwzLDMsNCw2LDcsNyw1LDQsNCw2LDgsOCw1LDIsMAozLDYsOCw4LDcsNiw2LDcsOCw4LDcsNiw2LDcsOCw5LDcsNCwxLDAKMSwzLDYsOCw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw1LDIsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
+				"9	MjB4MjAKNC42NDA2MjV4Ni4wNDY4NzUKMCwxLDMsNSw2LDYsNiw2LDYsNSwzLDEsMCwwLDEsMiwzLDMsMywzCjEsMyw2LDgsOSw5LDksOSw5LDgsNSwyLDAsMCwxLDMsNSw2LDYsNgoyLDUsOCw5LDksOSw5LDksOSw5LDcsNCwxLDAsMSw0LDcsOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMyw2LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDMsNiw5LDksOQo2LDksOSw4LDcsNiw2LDcsOCw5LDksNyw0LDEsMCwzLDYsOSw5LDkKNiw5LDgsNiw0LDMsMyw0LDYsOCw5LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMSw0LDcsOSw5LDYsMywwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDMsNiw5LDgsNSwyLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwzLDYsOSw3LDQsMSwxLDQsNyw5LDksOQo2LDksNyw1LDIsMSwxLDIsNSw3LDksNiwzLDEsMyw2LDgsOSw5LDkKNiw5LDgsNyw1LDQsNCw1LDcsOCw5LDcsNSw0LDYsOCw5LDgsNyw2CjUsOCw5LDksOCw3LDcsOCw5LDksOSw4LDcsNyw4LDksOSw3LDUsMwo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
+				"9	MjB4MjAKMy43ODEyNXg1Ljg1OTM3NQowLDEsMyw1LDYsNiw2LDYsNSwzLDEsMCwwLDIsMyw0LDIsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwzLDUsNyw1LDMsMSwwCjIsNSw4LDksOCw3LDcsOCw5LDgsNSwyLDAsMyw2LDksOCw1LDIsMAo0LDcsOCw3LDUsNCw0LDUsNyw4LDcsNCwxLDIsNCw3LDgsNyw1LDMKNSw3LDYsNCwyLDEsMSwyLDUsNyw4LDUsMiwxLDIsNCw2LDcsNyw2CjYsNyw0LDEsMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMiw1LDcsNSwyLDAsMCwxLDQsNyw5LDkKNiw4LDYsMywxLDAsMCwxLDQsNyw3LDQsMSwwLDEsMyw2LDcsNyw2CjUsOCw4LDYsNCwzLDMsNCw2LDcsNSwzLDIsMyw0LDYsOCw3LDUsMwo0LDcsOSw4LDcsNiw2LDcsOCw4LDYsNSw1LDYsNyw4LDgsNSwyLDAKMiw1LDgsOSw5LDksOSw5LDksOCw3LDcsOCw5LDksOCw2LDMsMSwwCjEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDEsMiw1LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
+				"9	MjB4MjAKNC4wMzEyNXg2LjA0Njg3NQowLDEsMyw1LDYsNiw2LDYsNSwzLDEsMCwwLDAsMCwxLDIsMywzLDMKMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMSwzLDUsNiw2CjIsNSw4LDksOCw3LDcsOCw5LDgsNiwzLDEsMCwwLDEsNCw3LDksOQo0LDcsOCw3LDUsNCw0LDUsNyw4LDgsNSwyLDAsMCwwLDMsNiw5LDkKNSw3LDYsNCwyLDEsMSwyLDQsNiw4LDYsMywwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDcsNSwyLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMiw1LDYsNCwxLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDAsMSw0LDcsNiwzLDAsMSwzLDYsNyw3LDYKNiw4LDYsMywxLDAsMCwxLDMsNiw3LDUsMiwxLDMsNiw4LDcsNSwzCjUsOCw4LDYsNCwzLDMsNCw2LDcsNyw1LDQsNCw2LDgsOCw1LDIsMAozLDYsOCw4LDcsNiw2LDcsOCw4LDcsNiw2LDcsOCw5LDcsNCwxLDAKMSwzLDYsOCw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw1LDIsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
+				"9	MjB4MjAKNC4wOTM3NXg2LjE3MTg3NQowLDEsMyw1LDYsNiw2LDYsNSwzLDEsMCwwLDIsMyw0LDIsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwzLDUsNyw1LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDgsNiwzLDEsMyw2LDksOCw1LDIsMAo0LDcsOSw5LDksOSw5LDksOSw5LDgsNSwyLDMsNiw5LDksNyw1LDMKNSw4LDksOCw3LDYsNiw3LDgsOSw5LDYsMywyLDUsOCw5LDgsNyw2CjYsOSw4LDYsNCwzLDMsNCw2LDgsOSw2LDMsMSwzLDYsOCw5LDksOQo2LDksNyw0LDEsMCwwLDEsNCw3LDksNiwzLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDMsNiw5LDcsNCwxLDAsMyw2LDksOSw5CjYsOCw1LDIsMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDMsNiw5LDksOQo2LDgsNSwyLDAsMCwwLDAsMyw2LDksNyw0LDEsMCwzLDYsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDEsNCw3LDksNiwzLDEsMyw2LDgsOSw5LDkKNiw5LDgsNiw0LDMsMyw0LDYsOCw5LDcsNSw0LDYsOCw5LDgsNyw2CjUsOCw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNyw4LDksOSw3LDUsMwozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMiw0LDcsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDEsMiw1LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
+				
+				//Added explicitly
+				"9	MjB4MjAKOS4weDE0LjAKMiwyLDMsNCw0LDQsNCw0LDMsMSwxLDAsMCwwLDAsMCwyLDIsMiwwCjIsMiwyLDIsMiwyLDIsMiwyLDEsMSwwLDAsMCwwLDAsMSwxLDEsMAo0LDMsMiwyLDIsMiwzLDMsNCwzLDMsMSwwLDAsMCwwLDIsMiwyLDAKMiwxLDAsMCwwLDAsMSwxLDIsMiwyLDEsMCwwLDAsMCwxLDEsMSwwCjMsMSwwLDAsMCwwLDEsMSwyLDMsMywyLDAsMCwwLDEsMiwyLDEsMAoxLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwLDAsMCwxLDEsMSwwLDAKMiwwLDAsMCwwLDAsMCwwLDAsMiwyLDIsMCwxLDEsMiwxLDEsMCwwCjEsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAsMSwxLDEsMCwwLDAsMAoxLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwLDEsMSwxLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMAoyLDIsMSwwLDAsMCwwLDAsMCwyLDMsMywxLDAsMCwwLDAsMCwwLDAKMiwyLDEsMCwwLDAsMCwwLDAsMSwyLDIsMSwwLDAsMCwwLDAsMCwwCjMsMywzLDIsMiwyLDIsMiwyLDMsNCwzLDEsMCwwLDAsMCwwLDAsMAoxLDEsMiwyLDIsMiwyLDIsMiwyLDIsMSwwLDAsMCwwLDAsMCwwLDAKMSwxLDMsNCw0LDQsNCw0LDQsMywzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDIsMiwyLDIsMiwyLDEsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDIsMiwyLDIsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
+				
+				"A	MjB4MjAKNi4xMDkzNzV4NS44MjgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5CjAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw2LDYsNgoyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOSw3LDUsMywzLDMKNSw3LDgsOSw5LDksOSw5LDksOCw3LDcsOCw5LDksNiwzLDAsMCwwCjgsOSw5LDksOSw5LDgsNyw2LDUsNCw1LDcsOSw5LDYsMywwLDAsMAo5LDksOSw4LDcsNiw1LDQsMywyLDEsMyw2LDksOSw2LDMsMCwwLDAKOSw5LDksOCw3LDYsNCwyLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwCjksOSw5LDgsNyw2LDUsNCwzLDIsMSwzLDYsOSw5LDYsMywwLDAsMAo4LDksOSw5LDksOSw4LDcsNiw1LDQsNSw3LDksOSw2LDMsMCwwLDAKNSw2LDcsOCw5LDksOSw5LDksOCw3LDcsOCw5LDksNiwzLDAsMCwwCjIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDcsNSwzLDMsMwowLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw4LDcsNiw2LDYKMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"A	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYsNgowLDAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDYsNCwyLDEsMCwwCjAsMCwxLDIsNCw1LDYsNyw4LDgsNyw3LDgsNyw0LDEsMCwwLDAsMAoyLDMsNCw1LDcsOCw4LDcsNiw1LDQsNSw3LDYsMywwLDAsMCwwLDAKNSw2LDcsOCw4LDcsNSw0LDMsMiwxLDMsNiw2LDMsMCwwLDAsMCwwCjgsOCw3LDYsNSw0LDIsMSwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo5LDgsNyw2LDQsMiwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKOCw4LDcsNiw1LDQsMiwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjUsNiw3LDgsOCw3LDUsNCwzLDIsMSwzLDYsNiwzLDAsMCwwLDAsMAoyLDMsNCw1LDcsOCw4LDcsNiw1LDQsNSw3LDYsMywwLDAsMCwwLDAKMCwwLDEsMiw0LDUsNyw4LDksOCw3LDcsOCw2LDMsMCwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksNyw1LDMsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDgsNyw2LDUsNCwzLDMKMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw4LDcsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5", 
+				"A	MjB4MjAKNi4xMDkzNzV4NS44MjgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5CjAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw2LDYsNgoyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOSw3LDUsMywzLDMKNSw3LDgsOSw5LDksOSw5LDksOCw3LDcsOCw5LDksNiwzLDAsMCwwCjgsOSw5LDksOSw5LDgsNyw2LDUsNCw1LDcsOSw5LDYsMywwLDAsMAo5LDksOSw4LDcsNiw1LDQsMywyLDEsMyw2LDksOSw2LDMsMCwwLDAKOSw5LDksOCw3LDYsNCwyLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwCjksOSw5LDgsNyw2LDUsNCwzLDIsMSwzLDYsOSw5LDYsMywwLDAsMAo4LDksOSw5LDksOSw4LDcsNiw1LDQsNSw3LDksOSw2LDMsMCwwLDAKNSw2LDcsOCw5LDksOSw5LDksOCw3LDcsOCw5LDksNiwzLDAsMCwwCjIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDcsNSwzLDMsMwowLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDksOSw4LDcsNiw2LDYKMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"A	MjB4MjAKNS4wNzgxMjV4NS44MjgxMjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDgsNyw2LDYKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw1LDQsMywzCjAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDgsNyw1LDQsMiwxLDAsMAowLDEsMiwzLDQsNSw3LDgsOSw4LDgsOCw3LDUsMiwxLDAsMCwwLDAKMiw0LDUsNiw3LDgsOCw3LDYsNSw2LDcsNiwzLDAsMCwwLDAsMCwwCjUsNyw4LDksOCw3LDUsNCwzLDIsNCw2LDYsMywwLDAsMCwwLDAsMAo4LDgsNyw2LDUsNCwyLDEsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAKOSw4LDcsNiw0LDIsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwCjgsOCw3LDYsNSw0LDIsMSwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMAo1LDcsOCw5LDgsNyw1LDQsMywyLDQsNiw2LDMsMCwwLDAsMCwwLDAKMiw0LDUsNiw3LDgsOCw3LDYsNSw2LDcsNiwzLDAsMCwwLDAsMCwwCjAsMSwyLDMsNCw1LDcsOCw5LDgsOCw4LDcsNSwyLDEsMCwwLDAsMAowLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw4LDcsNSw0LDMsMiwxLDAKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"A	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYsNgowLDAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDYsNCwyLDEsMCwwCjAsMCwxLDIsNCw1LDYsNyw4LDgsNyw3LDgsNyw0LDEsMCwwLDAsMAoyLDMsNCw1LDcsOCw4LDcsNiw1LDQsNSw3LDYsMywwLDAsMCwwLDAKNSw2LDcsOCw4LDcsNSw0LDMsMiwxLDMsNiw2LDMsMCwwLDAsMCwwCjgsOCw3LDYsNSw0LDIsMSwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo5LDgsNyw2LDQsMiwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKOCw4LDcsNiw1LDQsMiwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjUsNiw3LDgsOCw3LDUsNCwzLDIsMSwzLDYsNiwzLDAsMCwwLDAsMAoyLDMsNCw1LDcsOCw4LDcsNiw1LDQsNSw3LDYsMywwLDAsMCwwLDAKMCwwLDEsMiw0LDUsNyw4LDksOCw3LDcsOCw2LDMsMCwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksNyw1LDMsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDgsNyw2LDUsNCwzLDMKMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw4LDcsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5", 
+				"A	MjB4MjAKNS41MTU2MjV4Ni4xNDA2MjUKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw4LDcsNiw2CjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw4LDcsNSw0LDMsMwowLDEsMiw0LDUsNiw3LDgsOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAKMyw0LDUsNyw4LDksOSw5LDgsNyw3LDgsOSw3LDQsMSwwLDAsMCwwCjYsNyw4LDksOSw5LDgsNyw1LDQsNSw3LDksNiwzLDAsMCwwLDAsMAo5LDksOSw4LDcsNiw1LDQsMiwxLDMsNiw5LDYsMywwLDAsMCwwLDAKOSw5LDksOCw3LDYsNCwyLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwCjksOSw5LDgsNyw2LDUsNCwyLDEsMyw2LDksNiwzLDAsMCwwLDAsMAo2LDcsOCw5LDksOSw4LDcsNSw0LDUsNyw5LDYsMywwLDAsMCwwLDAKMyw0LDUsNyw4LDksOSw5LDgsNyw3LDgsOSw3LDQsMSwwLDAsMCwwCjAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw4LDcsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw1LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"B	MjB4MjAKNC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDkKOSw5LDcsNSwzLDMsNSw3LDksOSw3LDUsMywzLDMsNSw3LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo4LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksOCw2LDQsMyw1LDcsOSw5LDcsNCwxLDAsMSw0LDcsOSw5LDkKNiw5LDksOCw3LDYsNyw4LDksOSw4LDYsNCwzLDQsNiw4LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw3LDgsOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDgsNyw2CjMsNiw4LDksOSw5LDksNyw2LDYsOCw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw3LDcsNyw2LDQsMywzLDYsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsNSw1LDUsMywyLDEsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDMsMywzLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
+				"B	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDcsOCw5LDkKOSw3LDUsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMyw1LDcsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo4LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMiwyLDUsNyw5LDgsNSwyLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDUsNSw3LDcsOCw4LDcsNSwzLDMsMyw0LDYsOCw5LDkKNCw3LDksOCw4LDgsOSw3LDYsNiw3LDcsNiw2LDYsNyw4LDgsNyw2CjIsNSw4LDksOSw5LDgsNSwzLDQsNyw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw2LDYsNiw1LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
+				"B	MjB4MjAKNC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDkKOSw5LDcsNSwzLDMsNSw3LDksOSw3LDUsMywzLDMsNSw3LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo4LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNyw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksOCw2LDQsMyw1LDcsOSw5LDcsNCwxLDAsMSw0LDcsOSw5LDkKNiw5LDksOCw3LDYsNyw4LDksOSw4LDYsNCwzLDQsNiw4LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw3LDgsOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDgsNyw2CjMsNiw4LDksOSw5LDksNyw2LDYsOCw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw3LDcsNyw2LDQsMywzLDYsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsNSw1LDUsMywyLDEsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDMsMywzLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
+				"B	MjB4MjAKNC4zNTkzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDcsOCw5LDkKOSw3LDUsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMyw1LDcsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOCw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjcsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMSw0LDcsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsOCw1LDIsMCwxLDMsNiw4LDgsNSwyLDAsMCwwLDAsMyw2LDksOQo2LDksNyw1LDMsNCw2LDgsOSw5LDcsNCwxLDAsMCwxLDQsNyw5LDkKNSw4LDgsNyw2LDcsOCw4LDcsNyw3LDYsNCwzLDMsNCw2LDcsNyw2CjMsNiw4LDksOSw5LDgsNiw0LDUsNyw4LDcsNiw2LDcsOCw3LDUsMwoxLDMsNSw2LDYsNiw1LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
+				"B	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDcsOCw5LDkKOSw3LDUsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMyw1LDcsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo4LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMiwyLDUsNyw5LDgsNSwyLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDUsNSw3LDcsOCw4LDcsNSwzLDMsMyw0LDYsOCw5LDkKNCw3LDksOCw4LDgsOSw3LDYsNiw3LDcsNiw2LDYsNyw4LDgsNyw2CjIsNSw4LDksOSw5LDgsNSwzLDQsNyw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw2LDYsNiw1LDMsMSwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDMsMiwxLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
+				"B	MjB4MjAKNC42NzE4NzV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNyw4LDksOSw5CjksOSw3LDUsMywzLDMsNSw3LDksNyw1LDMsMywzLDUsNyw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOCw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjcsOSw2LDMsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwyLDUsOCw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw4LDYsNCw0LDYsOCw5LDksNyw0LDEsMCwxLDQsNyw5LDksOQo1LDgsOSw4LDcsNyw4LDksOSw5LDgsNiw0LDMsNCw2LDgsOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDcsOCw5LDgsNyw2CjIsNSw4LDksOSw5LDksOCw3LDcsOCw5LDksOSw5LDksOSw3LDUsMwoxLDMsNSw2LDYsNiw2LDUsNCw0LDYsOCw5LDksOSw5LDgsNSwyLDAKMCwxLDIsMywzLDMsMywyLDEsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==",
+				
+				//Explicitly added
+				"B	MjB4MjAKMTcuMHgzMi4wCjgsOCw4LDgsOSw5LDgsOCw4LDksOCw4LDcsOCw4LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOCw3LDYsNyw3LDcsNyw4LDksOCw4LDgsOCw3LDYsNyw4LDgsNyw2CjcsNSwzLDQsNCw0LDUsNyw5LDcsNiw1LDUsNCwzLDUsNyw3LDUsMwo0LDIsMCwxLDEsMSwyLDQsNiw0LDMsMiwyLDEsMCwyLDQsNCwyLDAKNCwyLDAsMCwwLDAsMiw0LDYsNCwyLDAsMCwwLDAsMiw0LDQsMiwwCjQsMiwwLDAsMCwwLDIsNCw2LDQsMiwwLDAsMCwwLDIsNCw0LDIsMAo2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwzLDYsNyw1LDMKNyw0LDEsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDgsNyw2CjgsNSwyLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwxLDQsNyw5LDksOQo5LDcsNCwxLDEsMiw1LDcsOSw3LDQsMSwwLDAsMiw1LDgsOSw5LDkKNiw1LDMsMSwxLDIsNCw1LDYsNSwzLDEsMCwwLDIsNCw2LDYsNiw2CjUsNiw0LDIsMiw0LDYsNiw2LDYsNCwyLDAsMCwyLDQsNiw1LDQsMwo0LDYsNSw0LDQsNSw2LDYsNiw2LDUsNCwzLDMsNCw1LDUsMywxLDAKNSw4LDgsNyw3LDgsOSw4LDgsOCw4LDcsNiw2LDcsNyw2LDMsMSwwCjMsNiw4LDksOSw4LDcsNSw1LDYsOCw5LDksOSw4LDYsMywxLDAsMAoxLDQsNyw5LDksNyw1LDIsMiw0LDcsOSw5LDgsNiwzLDEsMCwwLDAKMCwyLDQsNiw2LDQsMiwwLDAsMiw0LDYsNiw1LDMsMSwwLDAsMCwwCjAsMSwyLDMsMywyLDEsMCwwLDEsMiwzLDMsMiwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"B	MjB4MjAKMzkuMHg1MC4wCjYsNyw4LDgsOCw3LDcsNiw2LDYsNiw3LDgsOCw3LDcsOCw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYsNiw3LDgsOSw5LDksOQo5LDgsNiw0LDMsMyw1LDcsOSw3LDUsMywzLDMsNSw3LDksOSw5LDkKOSw3LDQsMSwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5CjksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOQo5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5LDkKOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5CjksNyw0LDEsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDksOQo5LDgsNSwyLDAsMSw0LDcsOSw2LDMsMCwwLDAsMyw2LDksOSw5LDkKOSw5LDcsNCwyLDMsNiw4LDksNyw0LDEsMCwwLDMsNiw5LDksOSw5CjksOSw4LDYsNSw2LDgsOSw5LDgsNSwyLDAsMSw0LDcsOSw4LDcsNgo5LDksOSw4LDgsOCw5LDksOSw5LDcsNSwzLDQsNiw4LDksNyw1LDMKOCw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw3LDgsOSw5LDYsMywwCjYsOCw5LDksOSw5LDgsOCw4LDksOSw5LDksOSw5LDksOCw1LDIsMAozLDUsNyw4LDgsNyw1LDUsNiw4LDksOSw5LDksOSw4LDYsMywxLDAKMSwyLDQsNSw1LDQsMiwyLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsMiwxLDAsMCwxLDIsNSw3LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDA=",
+				
+				"C	MjB4MjAKNC45NTMxMjV4Ni4wNDY4NzUKMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw5LDksNyw1LDMKNSw4LDksOSw4LDYsNCwzLDMsMywzLDMsNCw2LDgsOSw5LDgsNyw2CjYsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo1LDgsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOCw3LDYKNCw3LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDcsNSwzCjMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMA==", 
+				"C	MjB4MjAKNC43MDMxMjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDIsNSw4LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwLDAKMSw0LDcsOSw4LDYsNCwzLDMsMywzLDMsNCw2LDgsOSw3LDQsMSwwCjIsNSw3LDcsNSwzLDEsMCwwLDAsMCwwLDEsMyw1LDcsNyw1LDIsMAo0LDcsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsNyw1LDMKNSw3LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDcsNyw2CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDcsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw3LDYKNCw3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDcsNSwzCjMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMA==", 
+				"C	MjB4MjAKNC45NTMxMjV4Ni4wNDY4NzUKMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw5LDksNyw1LDMKNSw4LDksOSw4LDYsNCwzLDMsMywzLDMsNCw2LDgsOSw5LDgsNyw2CjYsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo1LDgsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOCw3LDYKNCw3LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDcsNSwzCjMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMA==", 
+				"C	MjB4MjAKNS4wMzEyNXg2LjEyNQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw4LDcsNiw3LDgsOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOCw3LDYsNSw0LDMsNCw1LDYsNyw4LDgsNiwzLDEsMAoyLDUsOCw4LDYsNCwzLDIsMSwwLDEsMiwzLDQsNiw4LDgsNSwyLDAKNCw3LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDcsNSwzCjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDQsMiwxLDAsMCwwLDAsMSwyLDMsNCw2LDgsNyw1LDMKMiw1LDgsOCw3LDQsMiwwLDAsMCwwLDIsNCw2LDcsOCw4LDUsMiwwCjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwzLDYsOSw4LDcsNSwzLDEsMAowLDEsMiw1LDcsNiwzLDAsMCwwLDAsMyw2LDksNyw1LDIsMSwwLDAKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCww", 
+				"C	MjB4MjAKNC43MDMxMjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDIsNSw4LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwLDAKMSw0LDcsOSw4LDYsNCwzLDMsMywzLDMsNCw2LDgsOSw3LDQsMSwwCjIsNSw3LDcsNSwzLDEsMCwwLDAsMCwwLDEsMyw1LDcsNyw1LDIsMAo0LDcsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsNyw1LDMKNSw3LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDcsNyw2CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo1LDcsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw3LDYKNCw3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDcsNSwzCjMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMA==", 
+				"C	MjB4MjAKNS4zNTkzNzV4Ni40Mzc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDYsNSw0LDMsNCw1LDYsNyw4LDksOCw1LDIsMAo0LDcsOSw4LDYsNCwzLDIsMSwwLDEsMiwzLDQsNiw4LDksNyw1LDMKNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw2CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDkKNSw4LDksOCw2LDMsMSwwLDAsMCwxLDIsMyw0LDYsOCw5LDgsNyw2CjMsNiw4LDksOCw1LDIsMCwwLDAsMiw0LDYsNyw4LDksOCw2LDQsMwoxLDMsNiw4LDksNiwzLDAsMCwwLDMsNiw5LDksOSw4LDYsMywxLDAKMCwxLDMsNiw4LDYsMywwLDAsMCwzLDYsOSw5LDgsNiwzLDEsMCwwCjAsMCwxLDQsNyw2LDMsMCwwLDAsMyw2LDksOSw3LDQsMSwwLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDA=", 
+				"D	MjB4MjAKNS40ODQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOQo3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDkKNiw5LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw1LDcsOSw5LDksOSw5CjUsOCw5LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOSw4LDcsNgo0LDcsOSw5LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5LDksNyw1LDMKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
+				"D	MjB4MjAKNC45MDYyNXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw3LDYKNSw4LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDcsNSwzCjQsNyw4LDYsNCwyLDEsMCwwLDAsMCwwLDEsMiw0LDYsOCw2LDMsMAoyLDUsOCw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDgsNSwyLDAKMSwzLDYsOCw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
+				"D	MjB4MjAKNS40ODQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOQo3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5LDkKNiw5LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw1LDcsOSw5LDksOSw5CjUsOCw5LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOSw4LDcsNgo0LDcsOSw5LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5LDksNyw1LDMKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
+				"D	MjB4MjAKNC42MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo4LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNyw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsNyw1LDMKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsNCw1LDcsOCw4LDUsMiwwCjEsMyw2LDgsOCw3LDYsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
+				"D	MjB4MjAKNC45MDYyNXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo3LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsNyw3LDYKNSw4LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDcsNSwzCjQsNyw4LDYsNCwyLDEsMCwwLDAsMCwwLDEsMiw0LDYsOCw2LDMsMAoyLDUsOCw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDgsNSwyLDAKMSwzLDYsOCw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
+				"D	MjB4MjAKNC45Mzc1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOQo5LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQo1LDgsOSw3LDUsMiwxLDAsMCwwLDAsMCwxLDIsNSw3LDksOCw3LDYKNCw3LDksOCw3LDUsNCwzLDMsMywzLDMsNCw1LDcsOCw5LDcsNSwzCjIsNSw4LDksOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=", 
+				"E	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5CjksOSw3LDUsMywzLDUsNyw5LDksNyw1LDMsMywzLDUsNyw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwyLDQsNiw2LDQsMiwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMSwyLDMsMywyLDEsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"E	MjB4MjAKMy43NjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw3LDgsOSw5CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsNSw3LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"E	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5CjksOSw3LDUsMywzLDUsNyw5LDksNyw1LDMsMywzLDUsNyw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwyLDQsNiw2LDQsMiwwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMSwyLDMsMywyLDEsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"E	MjB4MjAKNC4xODc1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw3LDgsOSw5CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsNSw3LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMSwyLDIsMSwwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
+				"E	MjB4MjAKMy43NjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw3LDgsOSw5CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsNSw3LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"E	MjB4MjAKNC41eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDcsOCw5LDksOQo5LDksNyw1LDMsMywzLDUsNyw5LDcsNSwzLDMsMyw1LDcsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKOSw5LDYsMywwLDAsMCwyLDQsNiw0LDIsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMSwyLDMsMiwxLDAsMCwwLDMsNiw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
+				"F	MjB4MjAKNC4wNjI1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
+				"F	MjB4MjAKMy4zNTkzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDIsNCw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"F	MjB4MjAKNC4wNjI1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
+				"F	MjB4MjAKMy45MDYyNXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOCw3LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgo5LDcsNSwzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzLDMKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDEsMiwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"F	MjB4MjAKMy4zNTkzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDIsNCw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"F	MjB4MjAKNC4yMTg3NXg2LjE0MDYyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2CjksOSw3LDUsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMiw0LDYsNCwyLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDEsMiwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				
+				//added explicitly
+				"F	MjB4MjAKMTIuMHgxOC4wCjMsNSw2LDYsNiw2LDYsNCw0LDQsNiw2LDYsNiw2LDUsMywxLDAsMAo1LDYsNiw2LDYsNiw2LDQsNCw0LDYsNiw2LDYsNiw2LDUsMywxLDAKMywzLDMsMywzLDMsMywyLDIsMiwzLDMsMywzLDMsMywzLDIsMSwwCjYsNiw2LDYsNiw2LDYsNCw0LDQsNiw2LDYsNiw2LDYsNiw0LDIsMAo2LDYsNiw2LDYsNiw2LDQsNCw0LDYsNiw2LDYsNiw1LDQsMiwxLDAKNiw2LDYsNiw2LDYsNiw0LDQsNCw2LDYsNiw2LDYsNSw0LDIsMSwwCjYsNiw2LDUsNCw0LDUsNCw0LDQsNiw2LDUsNCwzLDIsMSwwLDAsMAozLDMsMywyLDEsMSwyLDIsMiwyLDMsMywyLDEsMCwwLDAsMCwwLDAKNiw2LDYsNCwyLDEsMywzLDQsNCw2LDUsMywxLDAsMCwwLDAsMCwwCjYsNiw2LDQsMiwwLDIsMiw0LDQsNiw0LDIsMCwwLDAsMCwwLDAsMAo2LDYsNiw0LDIsMCwyLDIsNCw0LDYsNCwyLDAsMCwwLDAsMCwwLDAKNiw2LDYsNCwyLDAsMiwyLDQsNCw2LDQsMiwwLDAsMCwwLDAsMCwwCjMsMywzLDIsMSwwLDEsMSwyLDIsMywyLDEsMCwwLDAsMCwwLDAsMAo2LDYsNiw0LDIsMCwyLDIsNCw0LDUsMywxLDAsMCwwLDAsMCwwLDAKNSw2LDYsNCwyLDAsMSwxLDIsMiwyLDEsMCwwLDAsMCwwLDAsMCwwCjUsNiw2LDQsMiwwLDEsMSwyLDIsMiwxLDAsMCwwLDAsMCwwLDAsMAo0LDYsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"F	MjB4MjAKMTQuMHgyMC4wCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgozLDUsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDQsMywzCjYsNiw2LDYsNSw0LDQsNSw2LDYsNiw2LDUsNCwzLDMsMiwxLDAsMAo2LDYsNiw2LDUsNCw0LDUsNiw2LDYsNiw1LDQsMywzLDIsMSwwLDAKNiw2LDYsNiw0LDIsMiw0LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwwCjYsNiw2LDYsNCwyLDIsNCw2LDYsNiw2LDQsMiwwLDAsMCwwLDAsMAo5LDksOSw5LDYsMywzLDYsOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAKNiw2LDYsNiw0LDIsMiw0LDYsNiw2LDYsNCwyLDAsMCwwLDAsMCwwCjYsNiw2LDYsNCwyLDIsNCw2LDYsNiw1LDMsMSwwLDAsMCwwLDAsMAo2LDYsNiw2LDQsMiwxLDMsNSw2LDUsMywxLDAsMCwwLDAsMCwwLDAKNiw2LDYsNiw0LDIsMSwzLDUsNiw1LDMsMSwwLDAsMCwwLDAsMCwwCjUsNiw2LDYsNCwyLDAsMSwyLDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo0LDYsNiw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw2LDYsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"F	MjB4MjAKMTkuMHgyOC4wCjksOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYsNyw3LDcsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKOSw4LDcsNiw2LDYsNyw4LDksOCw3LDYsNiw3LDcsNyw1LDQsMywzCjksNyw1LDMsMywzLDUsNyw5LDcsNSwzLDMsNCw0LDQsMiwxLDAsMAo5LDYsMywwLDAsMCwyLDUsOCw2LDMsMCwwLDEsMSwxLDAsMCwwLDAKOSw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMSw0LDYsNSwyLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMiwzLDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo4LDUsMiwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				
+				"G	MjB4MjAKNS41NzgxMjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDksOSw3LDUsMwo1LDgsOSw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDksOCw3LDYKNiw5LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDAsMSwyLDMsMywyLDEsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDIsNCw2LDYsNCwyLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksOSw3LDUsMywzLDUsNyw5LDksOQo2LDksNyw0LDEsMCwwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywwLDAsMyw2LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw3LDQsMSwwLDMsNiw5LDksOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOCw1LDIsMCwzLDYsOSw5LDksOSw5LDksOSw5LDYsMywwCjMsNiw5LDksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMA==", 
+				"G	MjB4MjAKNS4wOTM3NXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAoyLDUsOCw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDgsNSwyLDAKNCw3LDgsNiw0LDIsMSwwLDAsMCwwLDAsMSwyLDQsNiw4LDcsNSwzCjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDcsNgo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDEsMiwyLDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMyw2LDcsNSwzLDMsMywzLDUsNyw5LDkKNSw3LDUsMiwwLDAsMCwwLDMsNiw4LDcsNiw2LDYsNiw3LDcsNyw2CjQsNyw3LDQsMSwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw3LDUsMwozLDYsOCw1LDIsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAKMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMyww", 
+				"G	MjB4MjAKNS41NzgxMjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDksOSw3LDUsMwo1LDgsOSw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDksOCw3LDYKNiw5LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDAsMSwyLDMsMywyLDEsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDIsNCw2LDYsNCwyLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksOSw3LDUsMywzLDUsNyw5LDksOQo2LDksNyw0LDEsMCwwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywwLDAsMyw2LDksOSw5LDksOSw5LDksOSw4LDcsNgo1LDgsOSw3LDQsMSwwLDMsNiw5LDksOSw5LDksOSw5LDksNyw1LDMKNCw3LDksOCw1LDIsMCwzLDYsOSw5LDksOSw5LDksOSw5LDYsMywwCjMsNiw5LDksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMA==", 
+				"G	MjB4MjAKNS4zMTI1eDYuMTI1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw4LDcsNiw2LDYsNyw4LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw4LDcsNSw0LDMsMywzLDQsNSw3LDgsOCw2LDMsMSwwCjIsNSw4LDgsNiw0LDIsMSwwLDAsMCwxLDIsNCw2LDgsOCw1LDIsMAo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsNyw1LDMKNSw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDcsNyw2CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwxLDIsMiwxLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwxLDQsNiw3LDYKNSw3LDYsMywxLDAsMCwwLDMsNiw2LDMsMCwwLDEsMyw2LDYsNSwzCjQsNyw4LDYsNCwyLDEsMCwzLDYsNiwzLDAsMSwzLDYsNyw1LDIsMAoyLDUsOCw4LDcsNCwyLDAsMyw2LDcsNSwzLDQsNiw4LDgsNSwyLDAKMSwzLDUsNyw4LDYsMywwLDMsNiw4LDcsNiw3LDgsOSw4LDYsNCwzCjAsMSwyLDUsNyw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwzLDYsNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"G	MjB4MjAKNS4wOTM3NXg2LjA0Njg3NQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAoyLDUsOCw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDgsNSwyLDAKNCw3LDgsNiw0LDIsMSwwLDAsMCwwLDAsMSwyLDQsNiw4LDcsNSwzCjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDcsNgo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDEsMiwyLDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDAsMyw2LDcsNSwzLDMsMywzLDUsNyw5LDkKNSw3LDUsMiwwLDAsMCwwLDMsNiw4LDcsNiw2LDYsNiw3LDcsNyw2CjQsNyw3LDQsMSwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw3LDUsMwozLDYsOCw1LDIsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAKMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMyww", 
+				"G	MjB4MjAKNS42MjV4Ni40Mzc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw1LDIsMAo0LDcsOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksNyw1LDMKNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw2CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMSwyLDMsMiwxLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDIsNCw2LDQsMiwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNyw0LDEsMCwwLDMsNiw5LDYsMywwLDAsMSw0LDcsOCw3LDYKNSw4LDgsNiw0LDIsMSwzLDYsOSw2LDMsMCwxLDMsNiw4LDcsNSwzCjQsNyw5LDgsNyw0LDIsMyw2LDksNyw1LDMsNCw2LDgsOSw2LDMsMAoyLDUsOCw5LDksNiwzLDMsNiw5LDgsNyw2LDcsOCw5LDksNyw1LDMKMSwzLDUsNyw4LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDgsNyw2CjAsMSwyLDUsNyw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwzLDYsNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"H	MjB4MjAKNS4yMzQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"H	MjB4MjAKNC40NTMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzCjYsNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"H	MjB4MjAKNS4yMzQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"H	MjB4MjAKNC41eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"H	MjB4MjAKNC40NTMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzCjYsNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"H	MjB4MjAKNC44MTI1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMywzLDMsMywzLDMsMyw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzCjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=",
+	
+				//added explicitly
+				"H	MjB4MjAKMzUuMHg1NC4wCjUsNiw3LDgsOCw3LDYsNiw2LDYsNyw3LDgsNyw3LDYsNiw2LDYsNgo4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDgsOCw4LDksOSw4LDcsNiw2CjYsNiw2LDYsNiw3LDgsOSw5LDgsNyw1LDUsNSw2LDYsNSw0LDMsMwozLDMsMywzLDMsNSw3LDksOSw3LDUsMiwyLDIsMywzLDIsMSwwLDAKMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwxLDEsMSwwLDAsMCwwLDAKMywzLDMsMywzLDUsNyw5LDksNyw1LDMsNCw0LDQsMywzLDMsMywzCjYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDcsNyw3LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOCw3LDcsNiw2LDYsNiw2LDcsNyw3LDYsNiw2LDYsNiw2LDUsNCwzCjcsNSw1LDMsMywzLDMsMyw1LDUsNSwzLDMsMywzLDMsMywyLDEsMAo2LDMsMywwLDAsMCwwLDAsMywzLDMsMCwwLDAsMCwwLDAsMCwwLDA=",
+	            "H	MjB4MjAKMzIuMHgzNS4wCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDgsOCw5LDksOQo2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNSw2LDcsOSw5LDkKMywzLDMsNSw3LDksOSw3LDUsMywzLDMsMywzLDIsNCw2LDksOSw5CjAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywyLDQsNiw5LDksOQo2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNCw1LDYsOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNyw3LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMywzLDMKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAsMCwwCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
+	            "H	MjB4MjAKMTQuMHgyNy4wCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDQsNCw0LDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsNCwzCjAsMCwxLDEsMSwxLDMsNSw1LDQsMywzLDMsMywzLDMsMywyLDEsMAowLDAsMSwxLDEsMSwzLDUsNSw0LDMsMywzLDMsMywzLDMsMiwxLDAKMCwwLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDIsNCw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNSw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDIsNCw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMyw0LDUsNiw1LDQsMywzLDMsMywzLDMsMiwxLDAsMAo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDUsMywxLDAKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwwCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw0LDIsMAozLDMsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNCwyLDAKMywzLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDQsMiwwCjAsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywyLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+	            "H	MjB4MjAKMjAuMHgzOC4wCjcsOCw5LDksOSw5LDksOCw4LDgsOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjcsNyw3LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMwo0LDQsNCwzLDQsNiw4LDksOSw4LDcsNiw2LDYsNiw2LDUsNCwzLDMKMSwxLDEsMCwxLDQsNyw5LDksNyw1LDMsMywzLDMsMywyLDEsMCwwCjAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMsMiwxLDAsMAo2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDUsNCwzLDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKNiw2LDYsNiw2LDYsNiw3LDgsOCw3LDYsNiw3LDgsOSw4LDYsNCwzCjMsMywzLDMsMywzLDMsNSw3LDcsNSwzLDMsNSw3LDksNyw0LDEsMAowLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDMsNiw5LDYsMywwLDA=",
+	            "H	MjB4MjAKMTEuMHgxMC4wCjIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAozLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDMsMiwyLDAKMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMSwwCjQsMiw0LDIsNCwyLDQsMiw0LDIsNCwyLDQsMiw0LDIsNCwyLDIsMAoyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwxLDAKMywxLDIsMSwyLDEsMywyLDMsMSwyLDEsMiwxLDIsMSwzLDIsMiwwCjEsMCwwLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAoxLDAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMCwwLDAsMCwwLDAsMiwyLDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoxLDAsMCwwLDAsMCwyLDIsMiwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMSwwLDAsMCwwLDAsMSwxLDEsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjMsMSwyLDEsMiwxLDMsMiwzLDEsMiwxLDIsMSwyLDEsMywyLDIsMAoyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwxLDAKNCwyLDQsMiw0LDIsNCwyLDQsMiw0LDIsNCwyLDQsMiw0LDIsMiwwCjIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDEsMAozLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDMsMiwyLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+	            
+				"I	MjB4MjAKMS41eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"I	MjB4MjAKMC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"I	MjB4MjAKMS41eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"I	MjB4MjAKMC43NXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"I	MjB4MjAKMC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"I	MjB4MjAKMS4wNjI1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"K	MjB4MjAKNS43MDMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw3LDgsOSw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNgozLDMsMywzLDQsNiw4LDksOSw5LDksOCw2LDQsMywzLDMsMywzLDMKMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMAowLDEsMyw2LDgsOSw5LDgsNyw3LDgsOSw5LDgsNiwzLDEsMCwwLDAKMSwzLDYsOCw5LDksOCw2LDQsNCw2LDgsOSw5LDgsNiwzLDEsMCwwCjMsNiw4LDksOSw4LDYsMywxLDEsMyw2LDgsOSw5LDgsNiwzLDEsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDMKOCw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNyw2CjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"K	MjB4MjAKNC42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsNSw3LDksOCw2LDQsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwxLDQsNyw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwyLDUsOCw4LDcsNyw4LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsNCw3LDgsNiw0LDQsNiw4LDgsNSwyLDAsMCwwLDAsMAowLDAsMSwzLDYsNyw2LDMsMSwxLDMsNiw4LDcsNCwxLDAsMCwwLDAKMCwxLDMsNiw4LDcsNCwxLDAsMCwxLDQsNyw4LDYsMywxLDAsMCwwCjAsMiw1LDgsOCw1LDIsMCwwLDAsMCwyLDUsOCw4LDYsMywxLDAsMAoxLDQsNyw4LDYsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAKMyw2LDcsNiwzLDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDUsMiwwCjYsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo4LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDYKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"K	MjB4MjAKNS43MDMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw3LDgsOSw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNgozLDMsMywzLDQsNiw4LDksOSw5LDksOCw2LDQsMywzLDMsMywzLDMKMCwwLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMAowLDEsMyw2LDgsOSw5LDgsNyw3LDgsOSw5LDgsNiwzLDEsMCwwLDAKMSwzLDYsOCw5LDksOCw2LDQsNCw2LDgsOSw5LDgsNiwzLDEsMCwwCjMsNiw4LDksOSw4LDYsMywxLDEsMyw2LDgsOSw5LDgsNiwzLDEsMAo2LDgsOSw5LDgsNiwzLDEsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDMKOCw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNyw2CjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"K	MjB4MjAKNC42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMyw0LDYsOCw4LDYsNCwzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDEsMyw2LDcsNiwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwyLDUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDEsNCw3LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw3LDgsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAKMCwwLDEsMyw2LDgsNyw2LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMCwyLDUsOCw4LDUsMywzLDYsOCw4LDYsNCwyLDEsMCwwLDAsMAowLDEsNCw3LDgsNiwzLDEsMSwzLDUsNyw3LDcsNSwzLDEsMCwwLDAKMSwzLDYsNyw2LDMsMSwwLDAsMSwyLDQsNiw4LDgsNiwzLDEsMCwwCjMsNiw3LDYsMywxLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiwzLDEsMAo2LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiw0LDMKOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw2CjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"K	MjB4MjAKNC42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsNSw3LDksOCw2LDQsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwxLDQsNyw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwyLDUsOCw4LDcsNyw4LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwwLDEsNCw3LDgsNiw0LDQsNiw4LDgsNSwyLDAsMCwwLDAsMAowLDAsMSwzLDYsNyw2LDMsMSwxLDMsNiw4LDcsNCwxLDAsMCwwLDAKMCwxLDMsNiw4LDcsNCwxLDAsMCwxLDQsNyw4LDYsMywxLDAsMCwwCjAsMiw1LDgsOCw1LDIsMCwwLDAsMCwyLDUsOCw4LDYsMywxLDAsMAoxLDQsNyw4LDYsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAKMyw2LDcsNiwzLDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDUsMiwwCjYsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo4LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDYKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"K	MjB4MjAKNS4xNDA2MjV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsMywzLDMsMywzLDQsNiw4LDksOCw2LDQsMywzLDMsMywzLDMsMwowLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDIsNSw4LDksOCw3LDcsOCw5LDgsNiw0LDIsMSwwLDAsMCwwCjAsMSw0LDcsOSw4LDYsNCw0LDYsOCw5LDgsNyw1LDMsMSwwLDAsMAoxLDMsNiw4LDgsNiwzLDEsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAKMyw2LDgsOSw3LDQsMSwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwCjYsOCw5LDgsNSwyLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw2LDQsMwo4LDksOCw2LDMsMSwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOCw3LDYKOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQo2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDYKNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzCjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"L	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"L	MjB4MjAKMy42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"L	MjB4MjAKNC4xNDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"L	MjB4MjAKMy42MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"L	MjB4MjAKMy42NDA2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"L	MjB4MjAKMy45Mzc1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
+				"M	MjB4MjAKNi40ODQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjgsOSw5LDksOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMwo1LDcsOCw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDgsNyw0LDIsMCwwLDAKMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksNiwzLDAsMCwwCjAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOCw3LDQsMiwwLDAsMAowLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDUsNCwyLDEsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjUsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"M	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDUsNiw3LDcsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDMsNCw1LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDcsNyw1LDQsMiwxLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsNyw3LDQsMiwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw3LDcsNCwyLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw3LDcsNSw0LDIsMSwwLDAsMAowLDAsMSwyLDMsNCw1LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMSwyLDQsNSw2LDcsNyw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjQsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"M	MjB4MjAKNi40ODQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjgsOSw5LDksOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMwo1LDcsOCw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDgsNyw0LDIsMCwwLDAKMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksNiwzLDAsMCwwCjAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOCw3LDQsMiwwLDAsMAowLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDUsNCwyLDEsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjUsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"M	MjB4MjAKNS41eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOCw5LDksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjUsNiw3LDcsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAoyLDMsNCw1LDYsNyw3LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKMCwwLDEsMiwzLDQsNSw3LDgsOCw3LDUsNCwzLDIsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw3LDcsNiw1LDQsMywyLDEsMAowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsNyw3LDYsNSw0LDMKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDcsNyw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsNyw3LDYKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDcsNyw2LDUsNCwzCjAsMCwwLDAsMCwxLDIsMyw0LDUsNyw3LDcsNiw1LDQsMywyLDEsMAowLDAsMSwyLDMsNCw1LDYsNyw3LDcsNSw0LDMsMiwxLDAsMCwwLDAKMiwzLDQsNSw2LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjUsNiw3LDcsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"M	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOCw3LDYsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDUsNiw3LDcsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDMsNCw1LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDcsNyw1LDQsMiwxLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsNyw3LDQsMiwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw2LDMsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw3LDcsNCwyLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw3LDcsNSw0LDIsMSwwLDAsMAowLDAsMSwyLDMsNCw1LDcsNyw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMSwyLDQsNSw2LDcsNyw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjQsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDcsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"M	MjB4MjAKNS44MTI1eDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw4LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsOCw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjcsOCw4LDgsOCw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMwo0LDUsNiw3LDgsOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKMSwyLDMsNCw1LDYsNyw4LDgsNyw2LDUsNCwzLDMsMiwxLDAsMCwwCjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw4LDcsNiw2LDUsNCwzLDMsMwowLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw4LDcsNiw2LDYKMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOCw3LDYsNiw2CjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDgsNyw2LDUsNCwzLDMsMwoxLDIsMyw0LDUsNiw3LDgsOCw3LDYsNiw1LDQsMywyLDEsMCwwLDAKNCw1LDYsNyw4LDgsNyw2LDUsNCwzLDMsMiwxLDAsMCwwLDAsMCwwCjcsOCw4LDgsOCw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMwo5LDksOCw4LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDgsOCw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"N	MjB4MjAKNS4yMzQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo4LDksOSw5LDksOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjIsNCw1LDcsOCw5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMAowLDEsMiw0LDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDgsNyw1LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDcsNiw2CjMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"N	MjB4MjAKNC40MjE4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOCw5LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwyLDQsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNSw3LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDcsNSwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDgsNyw1LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw3LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"N	MjB4MjAKNS4yMzQzNzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo4LDksOSw5LDksOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjIsNCw1LDcsOCw5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMAowLDEsMiw0LDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDgsNyw1LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDksOCw3LDUsNCwzLDMKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDcsNiw2CjMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"N	MjB4MjAKNC41NjI1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOCw5LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwozLDYsOCw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDQsNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDMsNSw3LDgsOCw2LDMsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw2LDMsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDUsMywxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw4LDYsNCwzCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"N	MjB4MjAKNC40MjE4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOCw5LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwyLDQsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNSw3LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw4LDcsNSwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDgsNyw1LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw3LDYKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"N	MjB4MjAKNC44NzV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOCw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjUsNyw4LDksOSw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMwoyLDQsNiw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwxLDMsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDgsNyw1LDQsMwozLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDksOCw3LDYKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==",
+				
+				//added explicitly
+				"N	MjB4MjAKMTkuMHgzNi4wCjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjcsNyw4LDksOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo0LDUsNyw5LDksOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMKMSwzLDYsOSw5LDksOSw3LDUsMywzLDIsMSwwLDAsMCwwLDAsMCwwCjAsMiw0LDYsNiw2LDcsNyw3LDYsNiw0LDIsMCwwLDAsMCwwLDAsMAowLDEsMiwzLDMsMyw1LDcsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDcsNSwzLDMsMywyLDEsMCwwCjAsMCwwLDAsMCwwLDIsNCw3LDgsOSw4LDcsNiw2LDYsNCwyLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw5LDYsMywwLDAKMywzLDMsMywzLDMsMywzLDQsNiw4LDksOSw5LDksOSw3LDUsMywzCjYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5LDksOCw3LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsOCw4LDgsNyw2LDYsNiw3LDcsOCw4LDgsOCw4LDgsNyw2LDYKNiw1LDUsNSw1LDQsMywzLDMsNCw0LDUsNSw1LDUsNSw1LDQsMywzCjMsMiwyLDIsMiwxLDAsMCwwLDEsMSwyLDIsMiwyLDIsMiwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"N	MjB4MjAKMTkuMHgzNC4wCjgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNSw0LDMKNyw4LDksOSw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDIsMSwwCjQsNiw4LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAoxLDMsNSw3LDgsOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAKMCwxLDIsNSw3LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDIsNCw2LDcsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMAowLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDgsNiw0LDIsMSwwLDAKMCwwLDAsMCwwLDAsMSwyLDMsNSw3LDksOSw5LDgsNyw1LDMsMSwwCjMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOSw5LDksOCw2LDQsMwo2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDQsMywzCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"N	MjB4MjAKMTEuMHgxMC4wCjMsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiwyLDIsMAo0LDIsMywxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDMsMiwyLDAKMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMSwwCjMsMiw0LDIsNCwyLDMsMSwyLDEsMiwxLDIsMSwyLDEsMywyLDIsMAoxLDEsMiwxLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMSwxLDIsMSwzLDIsMywxLDEsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjAsMCwwLDAsMSwxLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMSwzLDIsMywxLDIsMSwxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMSwxLDMsMiw0LDIsMywxLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMSwzLDIsNCwyLDMsMSwxLDAsMCwwLDAsMAoxLDAsMCwwLDAsMCwwLDAsMSwxLDIsMSwzLDIsMywxLDEsMCwwLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDIsMSwxLDAsMCwwCjMsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDMsMiw0LDIsMywxLDEsMAoyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwxLDAKMywxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMiwxLDIsMSwyLDEsMSwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"N	MjB4MjAKMTUuMHgxNi4wCjIsNCw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsNCw0LDYsNyw1LDMsMAoyLDQsNCw0LDQsNiw2LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCwyLDAKMiw0LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsMiwwCjEsMiwyLDMsNCw2LDYsNCw0LDQsNSw0LDIsMiwyLDMsMywyLDEsMAoxLDIsMiwzLDUsOCw5LDYsNiw2LDgsNiwzLDIsMiwzLDMsMiwxLDAKMCwwLDAsMSwzLDUsNiw0LDQsNCw1LDMsMSwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDUsNCw0LDQsNiw1LDMsMiwxLDEsMCwwLDAsMAowLDAsMCwwLDAsMSwyLDIsMyw0LDYsNiw0LDQsMywzLDEsMCwwLDAKMCwwLDAsMCwwLDEsMiwyLDMsNCw3LDgsNiw2LDUsNiw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDQsNCw0LDUsNCwyLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwyLDMsNCw2LDYsNCwyLDAKMSwyLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwzLDQsNiw2LDQsMiwwCjIsNCw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsNSw2LDksOSw2LDMsMAoyLDQsNCw0LDQsNiw2LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCwyLDAKMyw1LDQsNCw0LDYsNiw0LDQsNCw2LDYsNCw0LDQsNiw2LDQsMiwwCjQsNiw0LDMsMiwzLDMsMiwyLDIsMywzLDIsMiwyLDMsMywyLDEsMAo2LDcsNCwzLDIsMywzLDIsMiwyLDMsMywyLDIsMiwzLDMsMiwxLDAKNCw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				
+				"O	MjB4MjAKNi4weDYuMDQ2ODc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksNyw1LDMKNSw4LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDgsNyw2CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNyw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo3LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDksOQo1LDgsOSw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDksOCw3LDYKNCw3LDksOSw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOSw5LDcsNSwzCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=", 
+				"O	MjB4MjAKNS4zOTA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw4LDYsMywxLDAKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjQsNyw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDYKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsNyw1LDMKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjEsMyw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
+				"O	MjB4MjAKNi4weDYuMDQ2ODc1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksNyw1LDMKNSw4LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDgsNyw2CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNyw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo3LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDksOQo1LDgsOSw4LDcsNSw0LDMsMywzLDMsMyw0LDUsNyw4LDksOCw3LDYKNCw3LDksOSw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOSw5LDcsNSwzCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=", 
+				"O	MjB4MjAKNS42NDA2MjV4Ni4xMjUKMCwwLDEsMiw0LDUsNiw2LDcsNyw3LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDgsNyw2LDYsNiw3LDgsOCw3LDUsMywxLDAsMAoxLDMsNiw4LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw4LDYsMywxLDAKMiw1LDgsOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw4LDUsMiwwCjQsNyw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDYKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw3LDcsNgo0LDcsNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsNyw1LDMKMiw1LDcsNyw1LDQsMiwxLDAsMCwwLDEsMiw0LDUsNyw3LDUsMiwwCjEsMyw2LDgsOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw4LDcsNiw2LDYsNyw4LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
+				"O	MjB4MjAKNS4zOTA2MjV4Ni4wNDY4NzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw4LDYsMywxLDAKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjQsNyw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw3LDUsMwo1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsNyw3LDYKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjUsNyw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgo0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsNyw1LDMKMiw1LDgsOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw4LDUsMiwwCjEsMyw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDgsNiwzLDEsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMCwwLDEsMiw1LDcsOSw5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwCjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMA==", 
+				"O	MjB4MjAKNS45NTMxMjV4Ni40Mzc1CjAsMCwxLDIsNCw1LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw1LDIsMAo0LDcsOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksNyw1LDMKNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw2CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo1LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw3LDYKNCw3LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDcsNSwzCjIsNSw4LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw1LDIsMAoxLDMsNiw4LDksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDA=",
+				
+				//added explicitly
+				"O	MjB4MjAKMzIuMHg0Ny4wCjQsNyw4LDksOCw3LDcsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAo3LDksOCw3LDUsNCw0LDYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKOCw4LDYsNCwyLDEsMSwzLDYsOCw5LDgsNSwyLDAsMCwwLDAsMCwwCjksNyw0LDEsMCwwLDAsMSwzLDYsOCw5LDYsMywwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMSw0LDcsOSw2LDMsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksNyw1LDMsMywzLDMsMywzCjgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDgsNyw2LDYsNiw2LDYsNgo3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDkKNyw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOCw3LDcsOCw5LDgsNyw2CjgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDcsNSw0LDUsNiw1LDQsMwo5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMSwyLDMsMiwxLDAKOSw2LDMsMCwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAsMCwwCjksNyw0LDEsMCwwLDAsMCwyLDUsOCw4LDUsMiwwLDAsMCwwLDAsMAo4LDgsNiw0LDIsMSwxLDIsNSw3LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw4LDgsNyw1LDQsNCw1LDcsOCw4LDUsMiwwLDAsMCwwLDAsMCwwCjQsNyw5LDksOCw3LDcsOCw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDUsNyw5LDksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"O	MjB4MjAKOS4weDE1LjAKMiwyLDIsMiwzLDIsMiwyLDMsMiwyLDIsMywyLDIsMiwyLDEsMCwwCjEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAsMAoyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMiwxLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiwyLDIsMAoxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDIsMiwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAoxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMSwxLDAKMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAoxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsMiwyLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDEsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwxLDEsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwxLDIsMiwzLDIsMiwyLDMsMiwyLDIsMywyLDIsMSwxLDAsMCwwCjEsMSwyLDIsMywyLDIsMiwzLDIsMiwyLDMsMiwyLDEsMSwwLDAsMAoxLDEsMiwyLDMsMiwyLDIsMywyLDIsMiwzLDIsMiwxLDEsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==",
+				"O	MjB4MjAKMTguMHgzMi4wCjAsMSwyLDMsMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAoyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwxLDIsMywzLDMKNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDQsNCw1LDYsNiw2CjgsOSw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw3LDcsOCw5LDksOQo5LDgsNyw2LDYsNSw0LDMsNCw1LDYsNiw3LDgsOSw4LDcsNiw2LDYKOCw2LDQsMywzLDIsMSwwLDEsMiwzLDMsNCw2LDgsNyw1LDMsMywzCjcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDAsMAo0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw0LDIsMCwwLDAKNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwCjQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDQsMywxLDEsMAo3LDUsMiwxLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw3LDYsNCw0LDMKOCw3LDUsNCwzLDMsMywzLDMsMyw0LDUsNyw4LDksOCw4LDcsNyw2CjgsOSw4LDcsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOQo1LDcsOCw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNiw2LDYKMiw0LDUsNyw4LDksOSw5LDksOSw4LDcsNSw0LDMsMywzLDMsMywzCjAsMSwyLDQsNSw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMAowLDAsMCwxLDIsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				"O	MjB4MjAKMjMuMHgyOC4wCjQsNyw5LDksOSw4LDcsNiw3LDcsNiw0LDIsMSwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw0LDIsMCwwLDAsMCwwLDAKOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksNiwzLDAsMCwwLDAsMCwwCjksOSw4LDcsNSw0LDMsNCw2LDgsOSw5LDcsNCwxLDAsMCwwLDAsMAo5LDgsNiw0LDIsMSwwLDEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAKOCw2LDMsMSwwLDAsMCwwLDEsMiw1LDcsOSw4LDUsMiwwLDAsMCwwCjYsMywxLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMAo0LDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAKMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwCjMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMAozLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAKNSwyLDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwCjcsNCwyLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw3LDQsMSwwLDAsMAo5LDcsNCwxLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAKOSw4LDYsNCwzLDMsMywzLDQsNiw4LDksOSw5LDksOCw2LDMsMSwwCjksOSw4LDcsNiw2LDYsNiw3LDgsOSw4LDcsNyw4LDksOCw2LDQsMwo4LDksOSw5LDksOSw5LDksOSw5LDgsNiw0LDUsNyw5LDksOCw3LDYKNiw4LDksOSw5LDksOSw5LDksOSw3LDQsMSwyLDUsOCw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksNiwzLDAsMSw0LDcsOSw5LDksOQozLDYsOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMyw2LDksOSw5LDk=",
+				
+				//Hack for Cl
+				"~	MjB4MjAKMjMuMHgyMy4wCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMAozLDYsOCw4LDgsNyw3LDYsNiw2LDYsNiw3LDgsOCw2LDMsMSwwLDAKNiw4LDksNyw2LDQsNCwzLDMsMywzLDMsNSw3LDksOCw2LDQsMywzCjgsOCw3LDQsMywxLDEsMCwwLDAsMCwwLDIsNCw3LDgsOCw3LDYsNgo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDEsMiw1LDcsOSw5LDksOQo4LDgsNyw0LDIsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDkKNiw4LDksNyw1LDIsMSwwLDAsMCwwLDEsNCw3LDksOSw4LDcsNiw2CjMsNSw3LDcsNyw0LDIsMCwwLDAsMCwyLDUsNyw3LDYsNSw0LDMsMwoxLDIsNSw3LDgsNSwyLDAsMCwwLDAsMyw2LDcsNSwzLDIsMSwwLDAKMywzLDUsNyw4LDYsNCwzLDMsMiwyLDQsNyw3LDUsMywzLDIsMSwwCjYsNiw3LDgsOCw3LDYsNiw2LDUsNSw2LDgsOCw3LDYsNiw1LDQsMwo5LDksOSw5LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=",
+				//Hack for O2
+				"$	MjB4MjAKNDYuMHg0Mi4wCjIsNSw4LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMAo1LDcsOSw5LDgsNyw2LDYsNyw4LDksOCw2LDQsMiwxLDAsMCwwLDAKNyw4LDgsNyw1LDQsMywzLDQsNSw3LDgsOCw3LDQsMiwwLDAsMCwwCjksOCw2LDQsMiwxLDAsMCwxLDIsNSw3LDksOSw2LDMsMCwwLDAsMAo5LDcsNCwxLDAsMCwwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwCjksNyw0LDEsMCwwLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMAo5LDgsNSwyLDAsMCwwLDAsMCwxLDQsNyw5LDksNiwzLDAsMCwwLDAKOCw5LDcsNSwzLDMsMywzLDMsNCw2LDgsOSw4LDUsMiwwLDAsMCwwCjYsOCw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNSwzLDEsMCwwLDAsMAozLDYsOCw5LDksOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOSw5LDksOSw3LDQsMSwwLDAsMCwxLDIsMywzCjAsMSwyLDQsNSw2LDcsOCw5LDksNiwzLDAsMCwwLDEsMyw1LDYsNgowLDAsMCwxLDIsMyw1LDcsOSw4LDUsMiwwLDAsMSwzLDYsOCw5LDkKMCwwLDAsMCwwLDAsMyw2LDgsNiwzLDEsMCwxLDMsNiw4LDksOSw5CjAsMCwwLDAsMCwwLDMsNiw3LDQsMiwyLDMsNCw2LDcsOCw4LDksOQowLDAsMCwwLDAsMCwzLDYsNyw1LDQsNSw2LDcsNyw2LDYsNyw5LDkKMCwwLDAsMCwwLDAsMiw1LDcsNyw3LDgsOCw3LDUsMyw0LDYsOSw5CjAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDcsNSwyLDEsMyw2LDksOQowLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDMsNiw5LDk=",
+				//Hack for H3
+				"!	MjB4MjAKNTYuMHg1MS4wCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMAo2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNCwyLDAsMCwwLDAKMywzLDMsNSw3LDksOSw3LDUsMywzLDMsMywzLDIsMSwwLDAsMCwwCjAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw5LDksNiw0LDIsMiwyLDEsMSwwLDAsMCwwLDAsMAozLDMsMyw1LDcsOSw5LDcsNiw1LDUsNSw0LDQsMiwxLDAsMCwwLDAKNiw2LDYsNyw4LDksOSw4LDgsOCw4LDgsNyw3LDQsMiwwLDAsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMAo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNSw0LDMsMiwxLDAKMywzLDMsMywzLDMsNCw2LDgsOSw3LDUsMyw0LDUsNiw2LDUsNCwzCjAsMCwwLDAsMCwwLDIsNSw4LDgsNSwyLDAsMiw1LDgsOSw4LDcsNgowLDAsMCwwLDAsMCwzLDYsOSw3LDUsMywzLDMsNCw2LDgsOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksNiw1LDQsNiw0LDMsNCw3LDksOSw5CjAsMCwwLDAsMCwwLDMsNiw5LDcsNyw3LDksNyw1LDUsNyw5LDksOQowLDAsMCwwLDAsMCwyLDUsOCw4LDgsOCw5LDgsNyw3LDgsOCw3LDYKMCwwLDAsMSwyLDMsNCw1LDYsNyw3LDgsOCw5LDksOSw4LDYsNCwzCjAsMCwwLDIsNCw2LDYsNSw0LDUsNSw3LDcsOSw5LDksNyw0LDEsMAowLDAsMCwzLDYsOSw5LDYsMywzLDMsNiw2LDksOSw5LDYsMywwLDA=",
+				
+				//Hack for OC
+				"%	MjB4MjAKNTkuMHgzMy4wCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwyLDEsMAo2LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNCwyLDAKOCw5LDksNyw1LDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDYsMywwCjksOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw3LDUsMwo5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksNyw1LDMKOCw5LDgsNiw0LDMsMywzLDMsMywzLDMsNCw2LDgsOSw5LDcsNSwzCjcsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw0LDIsMAo0LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMiwxLDAKMiwzLDUsNyw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwCjEsMiw1LDcsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMAozLDUsNyw4LDksOSw5LDksOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAKNiw4LDksOCw3LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDQsMiwwCjgsOSw4LDYsNCwzLDMsMywzLDMsMyw0LDUsNyw4LDksOSw2LDMsMAo5LDksNyw0LDEsMCwwLDAsMCwwLDAsMSwyLDUsNyw5LDksNiwzLDAKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDYsMywwCjgsOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksOSw2LDMsMAo2LDgsOSw4LDcsNCwyLDAsMCwxLDMsNSw3LDgsOSw4LDcsNCwyLDAKMyw1LDYsNyw4LDYsMywwLDAsMiw1LDgsOSw5LDgsNiw0LDIsMSwwCjEsMiwzLDUsNyw2LDMsMCwwLDMsNiw5LDksOSw3LDQsMSwwLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwzLDYsOSw5LDksNiwzLDAsMCwwLDA=",
+				//Hack for HO
+				"`	MjB4MjAKNTkuMHgzMy4wCjgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo1LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDUsMywxLDAKMiwzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywyLDEsMCwwCjAsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMAoyLDMsMywzLDMsNSw3LDksOSw3LDUsMywzLDMsMywzLDIsMSwwLDAKNSw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw1LDMsMSwwCjgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYsNCwyLDAKNCw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNSw0LDIsMSwwCjMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAo2LDgsOSw5LDgsNyw2LDYsNiw2LDYsNyw4LDksOSw4LDYsMywxLDAKOCw5LDgsNyw1LDQsMywzLDMsMywzLDQsNSw3LDgsOSw4LDUsMiwwCjksOSw3LDUsMiwxLDAsMCwwLDAsMCwxLDIsNSw3LDksOSw2LDMsMAo5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksNiwzLDAKOCw5LDgsNiw0LDMsMiwxLDAsMCwxLDIsNCw2LDgsOSw5LDYsMywwCjcsOSw5LDgsNyw2LDUsNCwzLDMsNCw1LDcsOCw5LDksOCw1LDIsMAo0LDcsOCw5LDksOSw4LDcsNiw2LDcsOCw5LDksOCw3LDUsMywxLDAKMiw0LDYsOCw5LDksOSw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDA=",
+				
+				"/	MjB4MjAKNy4weDguMAowLDAsMCwwLDAsMCwwLDAsMSwxLDMsMiwyLDIsMiw0LDIsMiwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMSwyLDEsMSwxLDEsMiwxLDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwxLDEsMiwxLDEsMSwxLDIsMSwxLDAsMAowLDAsMCwwLDAsMSwxLDEsMSwxLDIsMSwxLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDEsMSwxLDEsMSwyLDEsMSwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDEsMSwxLDEsMiwxLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDEsMiwxLDEsMSwxLDEsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSwxLDIsMSwxLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsMSwyLDEsMSwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMAoxLDEsMSwxLDEsMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwxLDEsMSwxLDIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMSwxLDEsMSwyLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDEsMSwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiwxLDEsMSwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwxLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiwxLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
+				
+				
+				
+				"P	MjB4MjAKNC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAKOCw5LDYsMywwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwCjcsOSw3LDQsMSwwLDAsMSw0LDcsOSw4LDUsMiwwLDAsMCwwLDAsMAo2LDksOCw1LDIsMCwwLDIsNSw4LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw5LDksNyw1LDMsMyw1LDcsOSw5LDYsMywwLDAsMCwwLDAsMCwwCjYsOSw5LDgsNyw2LDYsNyw4LDksOSw2LDMsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKNSw4LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwCjMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAoxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"P	MjB4MjAKMy43NjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNyw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDMsMSwwLDEsMyw2LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw2LDQsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNSw4LDksOCw3LDYsNyw4LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"P	MjB4MjAKNC43OTY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAKOCw5LDYsMywwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDAsMCwwCjcsOSw3LDQsMSwwLDAsMSw0LDcsOSw4LDUsMiwwLDAsMCwwLDAsMAo2LDksOCw1LDIsMCwwLDIsNSw4LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw5LDksNyw1LDMsMyw1LDcsOSw5LDYsMywwLDAsMCwwLDAsMCwwCjYsOSw5LDgsNyw2LDYsNyw4LDksOSw2LDMsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAKNSw4LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwCjMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMAoxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDQsNyw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"P	MjB4MjAKNC4yMDMxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo3LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDgsNiwzLDEsMCwxLDQsNyw4LDUsMiwwLDAsMCwwLDAsMCwwLDAKNSw4LDgsNiw0LDMsNCw2LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDgsNyw2LDcsOCw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMyw2LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"P	MjB4MjAKMy43NjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNyw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDMsMSwwLDEsMyw2LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw2LDQsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNSw4LDksOCw3LDYsNyw4LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"P	MjB4MjAKNC41MTU2MjV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDgsNyw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2CjksOSw3LDUsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjgsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo3LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsOSw3LDUsMiwyLDIsNSw3LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw3LDUsNSw1LDcsOCw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNSw4LDksOSw4LDgsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMyw2LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"R	MjB4MjAKNS4yNjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwCjgsOSw2LDMsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMAo3LDksNiwzLDAsMCwwLDMsNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMSw0LDcsOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMAo2LDksOSw4LDcsNiw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAKNiw5LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw3LDUsNCwzCjUsOCw5LDksOSw5LDksOSw4LDYsNiw3LDksOSw5LDksOSw4LDcsNgozLDYsOCw5LDksOSw5LDgsNiwzLDMsNSw4LDksOSw5LDksOSw5LDkKMSwzLDYsOCw5LDksOCw2LDMsMSwxLDMsNSw3LDgsOSw5LDksOSw5CjAsMSwzLDUsNiw2LDUsMywxLDAsMCwxLDIsNCw1LDcsOCw5LDksOQowLDAsMSwyLDMsMywyLDEsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"R	MjB4MjAKNC41NDY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOCw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjcsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMiw1LDgsOCw2LDMsMSwwLDAsMCwwLDAsMAo2LDgsNiw0LDMsMywzLDUsNyw5LDksOCw2LDMsMSwwLDAsMCwwLDAKNSw4LDgsNyw2LDYsNiw3LDcsNyw3LDgsOCw2LDQsMiwxLDAsMCwwCjQsNyw5LDksOSw5LDksOSw3LDUsNCw2LDgsOCw3LDUsMywxLDAsMAoyLDQsNyw4LDksOSw5LDgsNSwyLDEsMyw2LDgsOSw4LDYsNCwzLDMKMSwyLDQsNSw2LDYsNiw1LDMsMSwwLDEsMyw1LDcsOCw4LDcsNiw2CjAsMCwxLDIsMywzLDMsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"R	MjB4MjAKNS4yNjU2MjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMywzLDUsNyw5LDksNyw1LDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMCwzLDYsOSw5LDYsMywwLDAsMCwwLDAsMCwwCjgsOSw2LDMsMCwwLDAsMyw2LDksOSw2LDMsMCwwLDAsMCwwLDAsMAo3LDksNiwzLDAsMCwwLDMsNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMSw0LDcsOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMAo2LDksOSw4LDcsNiw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAKNiw5LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw3LDUsNCwzCjUsOCw5LDksOSw5LDksOSw4LDYsNiw3LDksOSw5LDksOSw4LDcsNgozLDYsOCw5LDksOSw5LDgsNiwzLDMsNSw4LDksOSw5LDksOSw5LDkKMSwzLDYsOCw5LDksOCw2LDMsMSwxLDMsNSw3LDgsOSw5LDksOSw5CjAsMSwzLDUsNiw2LDUsMywxLDAsMCwxLDIsNCw1LDcsOCw5LDksOQowLDAsMSwyLDMsMywyLDEsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"R	MjB4MjAKNC42ODc1eDUuODI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw4LDcsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2CjksNyw1LDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMwo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNyw2LDMsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwxLDQsNyw5LDcsNCwxLDAsMCwwLDAsMCwwLDAKNiw4LDYsNCwzLDMsNCw2LDcsOCw3LDYsNCwzLDMsMywzLDMsMywzCjUsOCw4LDcsNiw2LDcsOCw3LDYsNiw3LDcsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDksOSw5LDgsNSwzLDMsNiw4LDksOSw5LDksOSw5LDkKMSwzLDUsNiw2LDYsNiw1LDMsMSwxLDMsNSw2LDYsNiw2LDcsOCw5CjAsMSwyLDMsMywzLDMsMiwxLDAsMCwxLDIsMywzLDMsMyw1LDcsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
+				"R	MjB4MjAKNC41NDY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDUsNyw3LDUsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKOCw2LDMsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwCjcsNiwzLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMiw1LDgsOCw2LDMsMSwwLDAsMCwwLDAsMAo2LDgsNiw0LDMsMywzLDUsNyw5LDksOCw2LDMsMSwwLDAsMCwwLDAKNSw4LDgsNyw2LDYsNiw3LDcsNyw3LDgsOCw2LDQsMiwxLDAsMCwwCjQsNyw5LDksOSw5LDksOSw3LDUsNCw2LDgsOCw3LDUsMywxLDAsMAoyLDQsNyw4LDksOSw5LDgsNSwyLDEsMyw2LDgsOSw4LDYsNCwzLDMKMSwyLDQsNSw2LDYsNiw1LDMsMSwwLDEsMyw1LDcsOCw4LDcsNiw2CjAsMCwxLDIsMywzLDMsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDUsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"R	MjB4MjAKNS4weDYuMTQwNjI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw4LDcsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgo5LDksNyw1LDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAo4LDksNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKNyw5LDYsMywwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDEsNCw3LDksOCw1LDIsMCwwLDAsMCwwLDAsMAo2LDksNyw1LDMsMyw0LDYsOCw5LDksNyw1LDMsMywzLDMsMywzLDMKNiw5LDgsNyw2LDYsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjUsOCw5LDksOSw5LDksOSw4LDgsOCw5LDksOSw5LDksOSw5LDksOQozLDYsOCw5LDksOSw5LDgsNiw1LDYsOCw5LDksOSw5LDksOSw5LDkKMSwzLDUsNyw4LDgsNyw1LDMsMiwzLDUsNiw2LDYsNiw3LDgsOSw5CjAsMSwyLDUsNyw3LDUsMiwxLDAsMSwyLDMsMywzLDMsNSw3LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDk=", 
+				"S	MjB4MjAKNC41OTM3NXg2LjA0Njg3NQoxLDMsNSw2LDYsNiw2LDUsMywxLDAsMCwwLDEsMyw1LDYsNSw0LDMKMiw1LDgsOSw5LDksOSw4LDYsMywxLDAsMCwxLDQsNyw5LDgsNyw2CjQsNyw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwzLDYsOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5LDkKNiw5LDksOSw4LDgsOCw5LDksOCw1LDIsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDgsNiw2LDcsOSw5LDksNiwzLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDMsMyw1LDgsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDksNyw0LDEsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMyw2LDksOSw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDIsNSw4LDksOSw2LDMsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwxLDQsNyw5LDksNyw1LDMsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwzLDYsOSw5LDgsNyw2LDcsOCw5LDksOSw5CjYsOSw4LDUsMiwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDcsNSwzCjQsNiw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw1LDIsMAoyLDMsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCww", 
+				"S	MjB4MjAKNC4xMDkzNzV4Ni4wNDY4NzUKMSwzLDUsNiw2LDYsNiw1LDMsMSwwLDAsMCwwLDAsMiw0LDUsNCwzCjIsNSw4LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDIsNSw3LDcsNgo0LDcsOSw4LDcsNyw4LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDkKNSw4LDgsNiw0LDQsNiw4LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMSwxLDQsNyw4LDUsMiwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMyw2LDgsNiw0LDMsMyw0LDYsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDIsNSw4LDgsNyw2LDYsNyw4LDgsNyw2CjYsOCw1LDIsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw3LDUsMwo0LDYsNCwyLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMiwzLDIsMSwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
+				"S	MjB4MjAKNC41OTM3NXg2LjA0Njg3NQoxLDMsNSw2LDYsNiw2LDUsMywxLDAsMCwwLDEsMyw1LDYsNSw0LDMKMiw1LDgsOSw5LDksOSw4LDYsMywxLDAsMCwxLDQsNyw5LDgsNyw2CjQsNyw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwzLDYsOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5LDkKNiw5LDksOSw4LDgsOCw5LDksOCw1LDIsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDgsNiw2LDcsOSw5LDksNiwzLDAsMCwxLDQsNyw5LDksOQo2LDksOCw2LDMsMyw1LDgsOSw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw5LDcsNCwxLDEsNCw3LDksOSw2LDMsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDMsNiw5LDksNyw0LDEsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwzLDYsOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDkKNiw5LDYsMywwLDAsMyw2LDksOSw5LDYsMywwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDIsNSw4LDksOSw2LDMsMCwxLDQsNyw5LDksOQo2LDksNiwzLDAsMCwxLDQsNyw5LDksNyw1LDMsNCw2LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwzLDYsOSw5LDgsNyw2LDcsOCw5LDksOSw5CjYsOSw4LDUsMiwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw2LDMsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw5LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDcsNSwzCjQsNiw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw1LDIsMAoyLDMsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDcsNCwxLDAKMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw2LDMsMCww", 
+				"S	MjB4MjAKNC41NzgxMjV4Ni4xMjUKMCwxLDIsNCw1LDYsNSwzLDEsMCwwLDAsMiw0LDYsNSwzLDEsMCwwCjEsMyw1LDcsOCw5LDgsNiwzLDEsMCwwLDMsNiw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDgsNSwyLDAsMCwyLDQsNyw4LDgsNSwyLDAKNCw3LDgsNyw2LDYsNyw4LDYsMywwLDAsMSwyLDQsNiw4LDcsNSwzCjUsNyw2LDQsMywzLDUsNyw3LDQsMSwwLDAsMCwxLDMsNiw3LDcsNgo2LDcsNCwxLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMyw2LDksOQo1LDcsNiw0LDIsMSwwLDAsMyw2LDgsNSwyLDAsMCwxLDQsNyw5LDkKNCw3LDgsNyw0LDIsMCwwLDIsNSw4LDcsNSwzLDMsNCw2LDcsNyw2CjIsNSw4LDksNiwzLDAsMCwxLDQsNyw4LDcsNiw2LDcsNyw2LDQsMwoxLDMsNSw3LDUsMywwLDAsMCwyLDUsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsNSw0LDMsMCwwLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDMsMywzLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
+				"S	MjB4MjAKNC4xMDkzNzV4Ni4wNDY4NzUKMSwzLDUsNiw2LDYsNiw1LDMsMSwwLDAsMCwwLDAsMiw0LDUsNCwzCjIsNSw4LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDIsNSw3LDcsNgo0LDcsOSw4LDcsNyw4LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDkKNSw4LDgsNiw0LDQsNiw4LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsOCw2LDMsMSwxLDQsNyw4LDUsMiwwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMiw1LDgsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMyw2LDgsNiw0LDMsMyw0LDYsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDIsNSw4LDgsNyw2LDYsNyw4LDgsNyw2CjYsOCw1LDIsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw3LDUsMwo0LDYsNCwyLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDgsNSwyLDAKMiwzLDIsMSwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDAsMA==", 
+				"S	MjB4MjAKNC44OTA2MjV4Ni40Mzc1CjAsMSwyLDQsNSw2LDUsMywxLDAsMCwyLDQsNiw2LDUsMywxLDAsMAoxLDMsNSw3LDgsOSw4LDYsMywxLDAsMyw2LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw4LDYsMywxLDMsNiw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw4LDUsMiwyLDQsNiw3LDgsOSw3LDUsMwo1LDgsOCw3LDYsNyw4LDksOSw2LDMsMSwyLDMsNCw2LDgsOCw3LDYKNiw5LDcsNSwzLDQsNiw4LDksNiwzLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwxLDQsNyw5LDYsMywwLDAsMCwwLDMsNiw5LDksOQo2LDgsNSwyLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwzLDYsOSw5LDkKNiw3LDQsMSwwLDAsMiw1LDgsOCw1LDIsMCwwLDAsMyw2LDksOSw5CjYsNiwzLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwzLDYsOSw5LDkKNiw4LDUsMiwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMyw2LDksOCw1LDIsMCwwLDMsNiw5LDksOQo2LDksOCw2LDQsMiwxLDIsNSw4LDksNiwzLDAsMSw0LDcsOSw5LDkKNSw4LDksOCw3LDQsMiwxLDQsNyw5LDcsNSwzLDQsNiw4LDksOSw5CjQsNyw5LDksOSw2LDMsMCwzLDYsOSw4LDcsNiw3LDgsOSw4LDcsNgoyLDUsOCw5LDksNiwzLDAsMiw1LDgsOSw5LDksOSw5LDgsNiw0LDMKMSwzLDUsNyw4LDYsMywwLDEsMyw2LDgsOSw5LDksOCw2LDMsMSwwCjAsMSwyLDUsNyw2LDMsMCwwLDEsNCw3LDksOSw5LDcsNCwxLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwwLDMsNiw5LDksOSw2LDMsMCwwLDA=",
+				
+				//Added explicitly
+				"S	MjB4MjAKMTkuMHgyNS4wCjAsMiw0LDYsNiw2LDYsNCwyLDAsMCwyLDQsNyw4LDYsMywwLDAsMAoyLDUsNyw5LDksOSw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDAKNCw3LDgsOCw4LDgsOSw2LDMsMCwwLDMsNiw5LDksNyw0LDEsMCwwCjcsOSw4LDYsNiw3LDksNiwzLDAsMCwyLDQsNyw4LDgsNiwzLDEsMAo4LDgsNiwzLDQsNiw5LDYsMywwLDAsMSwyLDQsNiw4LDgsNSwyLDAKOSw3LDQsMSwzLDYsOSw2LDMsMCwwLDAsMCwxLDQsNyw5LDYsMywwCjksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw2LDMsMAo5LDYsMywwLDMsNiw5LDcsNSwyLDEsMCwwLDAsMyw2LDksNiwzLDAKOSw2LDMsMCwyLDQsNyw3LDcsNCwyLDAsMCwwLDMsNiw5LDYsMywwCjgsNSwyLDAsMSwyLDUsNyw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMAo4LDUsMiwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMyw2LDksNyw1LDMKOCw2LDMsMSwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDgsNyw2CjksOCw1LDIsMCwwLDMsNiw5LDYsMywwLDAsMSw0LDcsOCw3LDYsNgo4LDksNyw0LDEsMCwzLDYsOSw3LDUsMiwyLDMsNiw3LDYsNCwzLDMKNiw4LDgsNiwzLDEsMyw2LDksOCw3LDUsNSw2LDgsNyw0LDEsMCwwCjMsNiw4LDgsNSwyLDIsNCw3LDgsOSw4LDgsOCw4LDUsMiwwLDAsMAoxLDQsNyw4LDUsMiwxLDIsNSw3LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwyLDQsNSwzLDEsMCwwLDIsNCw2LDYsNiw1LDMsMSwwLDAsMCwwCjAsMSwyLDIsMSwwLDAsMCwxLDIsMywzLDMsMiwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				
+				"T	MjB4MjAKNS4zNzV4NS44MjgxMjUKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"T	MjB4MjAKNC45Mzc1eDUuODI4MTI1CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
+				"T	MjB4MjAKNS4zNzV4NS44MjgxMjUKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"T	MjB4MjAKNC41NzgxMjV4NS44MjgxMjUKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"T	MjB4MjAKNC45Mzc1eDUuODI4MTI1CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
+				"T	MjB4MjAKNC44OTA2MjV4Ni4xNDA2MjUKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"U	MjB4MjAKNS4wMzEyNXg1LjkzNzUKOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNSwzLDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOSw4LDcsNgozLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNiw3LDgsOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"U	MjB4MjAKNC40NTMxMjV4NS45Mzc1CjksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDUsMywxLDAsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDcsNyw2CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNSwyLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
+				"U	MjB4MjAKNS4wMzEyNXg1LjkzNzUKOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNSwzLDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOSw4LDcsNgozLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDUsNyw5LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNiw3LDgsOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"U	MjB4MjAKNC40Njg3NXg2LjAxNTYyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDMsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOCw2LDQsMwozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDcsNgozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDgsNyw1LDMKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDUsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCww", 
+				"U	MjB4MjAKNC40NTMxMjV4NS45Mzc1CjksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2LDUsMywxLDAsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDUsMiwwCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDcsNyw2CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw3LDUsMwo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNSwyLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
+				"U	MjB4MjAKNC43ODEyNXg2LjMyODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDMsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksNyw1LDMKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNiw4LDgsNyw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw0LDYsOCw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCww", 
+				"V	MjB4MjAKNi4xMDkzNzV4NS44MjgxMjUKNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMAoyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw1LDQsMywzLDMKMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw5LDksOCw3LDYsNiw2CjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOQowLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDkKMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNiw2CjIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsNCwzLDMsMwo1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAKOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"V	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQo3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw4LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDQsNSw3LDgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDIsNCw1LDYsNyw4LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwCjAsMCwwLDEsMiwzLDQsNSw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMywzLDMKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDgsNyw2LDYsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMywzLDMKMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw1LDQsMiwxLDAsMCwwCjAsMSwyLDQsNSw2LDcsOCw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMAozLDQsNSw3LDgsOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKNiw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"V	MjB4MjAKNi4xMDkzNzV4NS44MjgxMjUKNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMAoyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw1LDQsMywzLDMKMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw5LDksOCw3LDYsNiw2CjAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOQowLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDkKMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNiw2CjIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsNCwzLDMsMwo1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAKOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"V	MjB4MjAKNC45MjE4NzV4NS44MjgxMjUKNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDgsOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDYsNyw4LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjEsMiwzLDQsNSw3LDgsOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMAowLDAsMCwxLDIsNCw1LDYsNyw4LDgsNyw2LDUsNCwyLDEsMCwwLDAKMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw4LDcsNSw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw2LDYKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw4LDcsNiw1LDQsMywzCjAsMCwwLDEsMiwzLDQsNSw3LDgsOSw4LDcsNSw0LDMsMiwxLDAsMAowLDEsMiw0LDUsNiw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAKMyw0LDUsNyw4LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjYsNyw4LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"V	MjB4MjAKNS4zNDM3NXg1LjgyODEyNQo3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw4LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDQsNSw3LDgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDIsNCw1LDYsNyw4LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwCjAsMCwwLDEsMiwzLDQsNSw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMywzLDMKMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOCw3LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDgsNyw2LDYsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMywzLDMKMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw1LDQsMiwxLDAsMCwwCjAsMSwyLDQsNSw2LDcsOCw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMAozLDQsNSw3LDgsOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKNiw3LDgsOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"V	MjB4MjAKNS4zNTkzNzV4Ni4xNDA2MjUKNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDksOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwCjQsNSw2LDcsOCw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMAoxLDIsMyw0LDUsNyw4LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDAKMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw4LDcsNSw0LDMsMywzCjAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDgsNyw2LDYsNgowLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDgsNyw2LDYKMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDgsNyw1LDQsMywzCjAsMSwyLDQsNSw2LDcsOCw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMAozLDQsNSw3LDgsOSw5LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAKNiw3LDgsOSw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjksOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"W	MjB4MjAKOC4zNDM3NXg1LjgyODEyNQo3LDYsNiw2LDYsNSw0LDMsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMywzLDIsMSwwCjYsNiw3LDgsOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNiw1LDQsMwozLDMsNCw1LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOCw3LDYKMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2LDcsOCw5LDksOSw5LDksOQoxLDIsMywzLDMsMyw0LDUsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYKNCw1LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMsMywzCjcsOCw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMywzLDIsMSwwLDAsMAo5LDksOSw4LDcsNiw2LDYsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMsMywzLDMsMiwxLDAsMCwwCjQsNSw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMwoxLDIsMywzLDMsMyw0LDUsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwxLDIsMywzLDMsMyw0LDUsNiw2LDcsOCw5LDksOSw5LDksOQozLDMsNCw1LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw2LDcsOCw5LDksOSw5LDksOSw5LDgsNyw2LDYsNiw2LDUsNCwzCjksOSw5LDksOSw4LDcsNiw2LDYsNiw1LDQsMywzLDMsMywyLDEsMAo5LDksOSw5LDksNyw1LDMsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"W	MjB4MjAKNy4zOTA2MjV4NS44MjgxMjUKNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiw2LDcsNyw3LDYsNiw2LDUsNCwzLDMsMywyLDEsMCwwLDAsMAozLDMsMyw0LDUsNiw2LDYsNyw3LDcsNiw2LDYsNSw0LDMsMywzLDMKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNyw5LDksOCw3LDYKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNSw1LDUsNiw2LDUsNCwzCjMsMywzLDQsNSw2LDUsNCw0LDUsNiw2LDUsNCwzLDMsMywyLDEsMAo2LDUsNCw0LDUsNiw1LDQsMywzLDMsMywyLDEsMCwwLDAsMCwwLDAKOSw4LDcsNiw2LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNSw0LDQsNSw2LDUsNCwzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAozLDMsMyw0LDUsNiw1LDQsNCw1LDYsNiw1LDQsMywzLDMsMiwxLDAKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNSw1LDUsNiw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNyw5LDksOSw5LDkKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw2CjMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMwo2LDYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAKOSw5LDksOSw3LDUsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"W	MjB4MjAKOC4zNDM3NXg1LjgyODEyNQo3LDYsNiw2LDYsNSw0LDMsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMywzLDIsMSwwCjYsNiw3LDgsOSw5LDksOSw5LDksOSw4LDcsNiw2LDYsNiw1LDQsMwozLDMsNCw1LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOCw3LDYKMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiw0LDUsNiw2LDcsOCw5LDksOSw5LDksOQoxLDIsMywzLDMsMyw0LDUsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYKNCw1LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMsMywzCjcsOCw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMywzLDIsMSwwLDAsMAo5LDksOSw4LDcsNiw2LDYsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMsMywzLDMsMiwxLDAsMCwwCjQsNSw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDUsNCwzLDMsMwoxLDIsMywzLDMsMyw0LDUsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYsNyw4LDksOSw5LDksOSw5CjAsMCwxLDIsMywzLDMsMyw0LDUsNiw2LDcsOCw5LDksOSw5LDksOQozLDMsNCw1LDYsNiw2LDYsNyw4LDksOSw5LDksOSw5LDksOCw3LDYKNiw2LDcsOCw5LDksOSw5LDksOSw5LDgsNyw2LDYsNiw2LDUsNCwzCjksOSw5LDksOSw4LDcsNiw2LDYsNiw1LDQsMywzLDMsMywyLDEsMAo5LDksOSw5LDksNyw1LDMsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"W	MjB4MjAKNy4yNjU2MjV4NS44MjgxMjUKNyw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMAozLDMsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDUsNCwzLDMsMywzLDMKMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDQsNiw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDMsMyw0LDYsOCw5LDgsNyw2LDYKMCwwLDAsMSwyLDMsMyw0LDUsNiw2LDUsNSw1LDYsNiw1LDQsMywzCjMsMywzLDQsNSw2LDUsNSw1LDYsNiw1LDQsMywzLDMsMiwxLDAsMAo2LDYsNSw1LDUsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDgsNyw2LDYsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiw1LDUsNSw2LDYsNSw0LDMsMywyLDEsMCwwLDAsMCwwLDAsMAozLDMsMyw0LDUsNiw2LDYsNiw2LDYsNSw0LDMsMywyLDEsMCwwLDAKMCwwLDAsMSwyLDMsMyw0LDUsNiw2LDYsNiw2LDYsNSw0LDMsMywzCjAsMCwwLDAsMCwwLDAsMSwyLDMsMyw0LDUsNyw4LDgsNyw2LDYsNgowLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw5LDkKMCwwLDEsMiwzLDMsMywzLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2CjMsMyw0LDUsNiw2LDYsNiw2LDYsNiw2LDYsNSw0LDMsMywzLDMsMwo2LDYsNyw3LDcsNiw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAKOSw5LDksNyw1LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"W	MjB4MjAKNy4zOTA2MjV4NS44MjgxMjUKNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiw2LDcsNyw3LDYsNiw2LDUsNCwzLDMsMywyLDEsMCwwLDAsMAozLDMsMyw0LDUsNiw2LDYsNyw3LDcsNiw2LDYsNSw0LDMsMywzLDMKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNyw5LDksOCw3LDYKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNSw1LDUsNiw2LDUsNCwzCjMsMywzLDQsNSw2LDUsNCw0LDUsNiw2LDUsNCwzLDMsMywyLDEsMAo2LDUsNCw0LDUsNiw1LDQsMywzLDMsMywyLDEsMCwwLDAsMCwwLDAKOSw4LDcsNiw2LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNSw0LDQsNSw2LDUsNCwzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAozLDMsMyw0LDUsNiw1LDQsNCw1LDYsNiw1LDQsMywzLDMsMiwxLDAKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNSw1LDUsNiw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsNSw3LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDUsNyw5LDksOSw5LDkKMCwwLDAsMSwyLDMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw2CjMsMywzLDQsNSw2LDYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMwo2LDYsNiw3LDcsNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAKOSw5LDksOSw3LDUsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"W	MjB4MjAKNy42NzE4NzV4Ni4xNDA2MjUKNyw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw2LDYsNiw1LDQsMywzLDMsMiwxLDAsMCwwLDAsMAo2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDUsNCwzLDMsMywzLDMKMywzLDMsMyw0LDUsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2CjAsMCwwLDAsMSwyLDMsMywzLDQsNSw3LDgsOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDksOSw5LDkKMCwxLDIsMywzLDMsNCw1LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2CjMsNCw1LDYsNiw2LDcsOCw5LDgsNyw2LDYsNSw0LDMsMywzLDMsMwo2LDcsOCw5LDgsNyw2LDYsNiw1LDQsMywzLDIsMSwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw2LDYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw4LDksOCw3LDYsNiw2LDUsNCwzLDMsMiwxLDAsMCwwLDAsMAozLDQsNSw2LDYsNiw3LDgsOSw4LDcsNiw2LDUsNCwzLDMsMywzLDMKMCwxLDIsMywzLDMsNCw1LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2CjAsMCwwLDAsMCwwLDEsMiwzLDQsNiw4LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDEsMiwzLDMsMyw0LDYsOCw5LDksOSw5LDksOSw5LDkKMywzLDMsMyw0LDUsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2CjYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNSw0LDMsMywzLDMsMwo5LDksOSw4LDcsNiw2LDYsNSw0LDMsMywzLDIsMSwwLDAsMCwwLDAKOSw5LDksNyw1LDMsMywzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"X	MjB4MjAKNS44NTkzNzV4NS44MjgxMjUKNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjgsOSw5LDksOCw2LDQsMiwxLDAsMSwzLDUsNyw4LDksOSw5LDksOQo1LDcsOCw5LDksOCw3LDUsNCwzLDQsNiw4LDksOSw5LDgsNyw2LDYKMiw0LDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDQsMywzCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDQsNiw4LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAKMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwCjAsMCwxLDMsNSw3LDgsOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMyw1LDcsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDQsMywzCjYsOCw5LDksOSw4LDcsNSw0LDMsNCw2LDgsOSw5LDksOCw3LDYsNgo4LDksOSw5LDgsNiw0LDIsMSwwLDEsMyw1LDcsOCw5LDksOSw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"X	MjB4MjAKNS4weDUuODI4MTI1CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNgo1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5CjgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDYsNgo2LDgsOCw3LDUsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDYsNCwzLDMKMyw1LDcsOCw4LDYsMywxLDAsMCwxLDMsNiw4LDgsNiwzLDEsMCwwCjEsMiw0LDYsOCw4LDYsMywyLDIsNCw2LDgsOCw2LDMsMSwwLDAsMAowLDAsMSwzLDYsOCw4LDYsNSw1LDcsNyw3LDUsMywxLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw3LDgsOCw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDEsMiw0LDYsOCw4LDcsNyw4LDgsNiw0LDIsMSwwLDAsMCwwCjAsMSwzLDUsNyw4LDgsNiw0LDQsNSw3LDcsNyw1LDMsMSwwLDAsMAoxLDMsNiw4LDgsNyw1LDMsMSwxLDIsNCw2LDgsOCw2LDMsMSwwLDAKMyw2LDgsOCw2LDQsMiwxLDAsMCwwLDEsMyw2LDgsOCw2LDQsMywzCjYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDYsNgo3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQozLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
+				"X	MjB4MjAKNS44NTkzNzV4NS44MjgxMjUKNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjgsOSw5LDksOCw2LDQsMiwxLDAsMSwzLDUsNyw4LDksOSw5LDksOQo1LDcsOCw5LDksOCw3LDUsNCwzLDQsNiw4LDksOSw5LDgsNyw2LDYKMiw0LDYsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDQsMywzCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDQsNiw4LDksOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAKMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwCjAsMCwxLDMsNSw3LDgsOSw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMAoxLDIsNCw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMyw1LDcsOCw5LDksOSw4LDcsNiw3LDgsOSw5LDksOCw2LDQsMywzCjYsOCw5LDksOSw4LDcsNSw0LDMsNCw2LDgsOSw5LDksOCw3LDYsNgo4LDksOSw5LDgsNiw0LDIsMSwwLDEsMyw1LDcsOCw5LDksOSw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"X	MjB4MjAKNS4wMTU2MjV4NS44MjgxMjUKMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKNyw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNyw2CjQsNiw4LDgsNiwzLDEsMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDQsMwoxLDMsNiw4LDgsNiw0LDIsMSwwLDEsMyw2LDgsOCw2LDQsMiwxLDAKMCwxLDMsNSw3LDcsNyw1LDQsMyw0LDYsOCw4LDYsMywxLDAsMCwwCjAsMCwxLDIsNCw2LDgsOCw3LDYsNyw3LDcsNSwzLDEsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDIsNSw4LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDgsNyw2LDcsNyw3LDUsMywxLDAsMCwwLDAKMCwxLDIsNCw2LDcsNyw1LDQsMyw0LDYsOCw4LDYsMywxLDAsMCwwCjEsMyw1LDcsNyw2LDQsMiwxLDAsMSwzLDYsOCw4LDYsNCwyLDEsMAozLDYsOCw4LDYsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDcsNSw0LDMKNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNyw2CjgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQo3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"X	MjB4MjAKNS4weDUuODI4MTI1CjIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNgo1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5CjgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDYsNgo2LDgsOCw3LDUsMywxLDAsMCwwLDAsMSwzLDYsOCw4LDYsNCwzLDMKMyw1LDcsOCw4LDYsMywxLDAsMCwxLDMsNiw4LDgsNiwzLDEsMCwwCjEsMiw0LDYsOCw4LDYsMywyLDIsNCw2LDgsOCw2LDMsMSwwLDAsMAowLDAsMSwzLDYsOCw4LDYsNSw1LDcsNyw3LDUsMywxLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw3LDgsOCw4LDYsNCwyLDEsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDEsMiw0LDYsOCw4LDcsNyw4LDgsNiw0LDIsMSwwLDAsMCwwCjAsMSwzLDUsNyw4LDgsNiw0LDQsNSw3LDcsNyw1LDMsMSwwLDAsMAoxLDMsNiw4LDgsNyw1LDMsMSwxLDIsNCw2LDgsOCw2LDMsMSwwLDAKMyw2LDgsOCw2LDQsMiwxLDAsMCwwLDEsMyw2LDgsOCw2LDQsMywzCjYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw1LDcsNyw3LDYsNgo3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQozLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDk=", 
+				"X	MjB4MjAKNS42MDkzNzV4Ni4xNDA2MjUKNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2CjcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDkKOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjcsOCw5LDgsNyw1LDMsMSwwLDAsMCwxLDMsNiw4LDksOSw4LDcsNgo0LDYsOCw5LDksOCw2LDMsMSwxLDIsNCw2LDgsOSw4LDcsNSw0LDMKMSwzLDUsNyw4LDksOCw2LDQsNCw1LDcsOCw5LDgsNiw0LDIsMSwwCjAsMSwyLDQsNiw4LDksOCw3LDcsOCw5LDgsNyw1LDMsMSwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAKMCwwLDAsMCwyLDUsOCw5LDksOSw5LDgsNSwyLDAsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMAowLDEsMiw0LDYsOCw5LDgsNyw3LDgsOSw4LDcsNSwzLDEsMCwwLDAKMSwzLDUsNyw4LDksOCw2LDQsNCw1LDcsOCw5LDgsNiw0LDIsMSwwCjMsNiw4LDksOSw4LDYsMywxLDEsMiw0LDYsOCw5LDgsNyw1LDQsMwo2LDgsOSw4LDcsNSwzLDEsMCwwLDAsMSwzLDYsOCw5LDksOCw3LDYKOCw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQo3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"Y	MjB4MjAKNS45NTMxMjV4NS44MjgxMjUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDcsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAKMiw0LDYsOCw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzCjAsMSwzLDUsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwxLDIsNCw1LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsMyw1LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzCjUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"Y	MjB4MjAKNC45MjE4NzV4NS44MjgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNSw3LDcsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoxLDIsNCw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDEsMyw1LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMSwzLDUsNyw3LDcsNiw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMCwxLDMsNiw4LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"Y	MjB4MjAKNS45NTMxMjV4NS44MjgxMjUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDcsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAKMiw0LDYsOCw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzCjAsMSwzLDUsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwxLDIsNCw1LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsMyw1LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw5LDksOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzCjUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"Y	MjB4MjAKNS4xNzE4NzV4NS44MjgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw3LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsNCw2LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDEsMiw0LDYsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDUsNyw3LDcsNSw0LDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDAsMSwyLDQsNiw4LDgsNyw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwxLDIsNCw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNgowLDAsMCwwLDEsMyw1LDcsOCw4LDYsNCwzLDMsMywzLDMsMywzLDMKMCwwLDEsMiw0LDYsOCw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMSwzLDUsNyw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAoyLDQsNiw4LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw3LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"Y	MjB4MjAKNC45MjE4NzV4NS44MjgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNSw3LDcsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoxLDIsNCw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsMyw2LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDEsMyw1LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMSwzLDUsNyw3LDcsNiw2LDYsNiw2LDYsNiw2LDYsNgowLDAsMCwxLDMsNiw4LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDUsNyw3LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"Y	MjB4MjAKNS43MzQzNzV4Ni4xNDA2MjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDQsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwxLDIsNCw2LDgsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNgowLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSw0LDMsMywzLDMsMywzLDMKMCwxLDIsNCw2LDgsOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwCjEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMAo0LDYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"Z	MjB4MjAKNS4wNzgxMjV4NS44MjgxMjUKNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwxLDMsNiw4LDksOSw5LDgsOCw4LDksOSw5CjksOSw2LDMsMCwwLDEsMyw2LDgsOSw5LDksOCw2LDYsNyw5LDksOQo5LDksNiwzLDAsMSwzLDYsOCw5LDksOSw4LDYsMyw0LDYsOSw5LDkKOSw5LDYsMywxLDMsNiw4LDksOSw5LDgsNiwzLDEsMyw2LDksOSw5CjksOSw2LDQsMyw2LDgsOSw5LDksOCw2LDMsMSwwLDMsNiw5LDksOQo5LDksNyw2LDYsOCw5LDksOSw4LDYsMywxLDAsMCwzLDYsOSw5LDkKOSw5LDgsOCw4LDksOSw5LDgsNiwzLDEsMCwwLDAsMyw2LDksOSw5CjksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDMsNiw5LDksOQo5LDksOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"Z	MjB4MjAKNC43NjU2MjV4NS44MjgxMjUKNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw4LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDYsNiw3LDksOQo5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiwzLDQsNiw5LDkKOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOCw2LDMsMSwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAsMyw2LDksOQo5LDYsMywwLDAsMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwwLDAsMyw2LDksOQo5LDYsMywxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDQsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNyw2LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsOCw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"Z	MjB4MjAKNS4wNzgxMjV4NS44MjgxMjUKNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywwLDAsMCwxLDMsNiw4LDksOSw5LDgsOCw4LDksOSw5CjksOSw2LDMsMCwwLDEsMyw2LDgsOSw5LDksOCw2LDYsNyw5LDksOQo5LDksNiwzLDAsMSwzLDYsOCw5LDksOSw4LDYsMyw0LDYsOSw5LDkKOSw5LDYsMywxLDMsNiw4LDksOSw5LDgsNiwzLDEsMyw2LDksOSw5CjksOSw2LDQsMyw2LDgsOSw5LDksOCw2LDMsMSwwLDMsNiw5LDksOQo5LDksNyw2LDYsOCw5LDksOSw4LDYsMywxLDAsMCwzLDYsOSw5LDkKOSw5LDgsOCw4LDksOSw5LDgsNiwzLDEsMCwwLDAsMyw2LDksOSw5CjksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDMsNiw5LDksOQo5LDksOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"Z	MjB4MjAKNC40NTMxMjV4NS44MjgxMjUKMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjYsNCwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw4LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDYsNiw3LDksOQo5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDksNyw0LDQsNiw5LDkKOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOSw4LDUsMiwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDEsMyw2LDksOQo5LDYsMywwLDAsMCwxLDMsNiw4LDksOCw2LDMsMSwwLDMsNiw5LDkKOSw2LDMsMCwwLDEsMyw2LDgsOSw4LDYsMywxLDAsMCwzLDYsOSw5CjksNiwzLDAsMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDAsMyw2LDksOQo5LDYsMywxLDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDMsNiw5LDkKOSw2LDMsMiw1LDgsOSw4LDYsMywxLDAsMCwwLDAsMCwzLDYsOSw5CjksNiw0LDQsNyw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDcsNiw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw4LDgsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"Z	MjB4MjAKNC43NjU2MjV4NS44MjgxMjUKNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw4LDgsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDYsNiw3LDksOQo5LDYsMywwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNiwzLDQsNiw5LDkKOSw2LDMsMCwwLDAsMCwwLDEsMyw2LDgsOCw2LDMsMSwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMSwzLDYsOCw4LDYsMywxLDAsMyw2LDksOQo5LDYsMywwLDAsMCwxLDMsNiw4LDgsNiwzLDEsMCwwLDMsNiw5LDkKOSw2LDMsMCwwLDEsMyw2LDgsOCw2LDMsMSwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMSwzLDYsOCw4LDYsMywxLDAsMCwwLDAsMyw2LDksOQo5LDYsMywxLDMsNiw4LDgsNiwzLDEsMCwwLDAsMCwwLDMsNiw5LDkKOSw2LDQsMyw2LDgsOCw2LDMsMSwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNyw2LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsOCw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"Z	MjB4MjAKNC43NjU2MjV4Ni4xNDA2MjUKNiw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKOSw5LDYsMywwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOQo5LDksNiwzLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw4LDgsOSw5LDkKOSw5LDYsMywwLDAsMCwwLDEsMyw2LDgsOSw4LDYsNiw3LDksOSw5CjksOSw2LDMsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDQsNiw5LDksOQo5LDksNiwzLDAsMCwxLDMsNiw4LDksOCw2LDMsMSwzLDYsOSw5LDkKOSw5LDYsMywwLDEsMyw2LDgsOSw4LDYsMywxLDAsMyw2LDksOSw5CjksOSw2LDMsMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDMsNiw5LDksOQo5LDksNiw0LDMsNiw4LDksOCw2LDMsMSwwLDAsMCwzLDYsOSw5LDkKOSw5LDcsNiw2LDgsOSw4LDYsMywxLDAsMCwwLDAsMyw2LDksOSw5CjksOSw4LDgsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"\\	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOCw3LDUsMywxLDAKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"\\	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOCw2LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"\\	MjB4MjAKMi45MjE4NzV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjEsMiw0LDYsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAKMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwCjAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5LDksOCw3LDUsMywxLDAKMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"\\	MjB4MjAKMi4zNDM3NXg1Ljk4NDM3NQo2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMyw2LDgsOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMyw1LDcsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDEsMiw0LDYsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSwzLDYsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDgsNiwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDgsNiw0LDIsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDgsNyw1LDMsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOCw2LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5", 
+				"\\	MjB4MjAKMi43MDMxMjV4Ni41NzgxMjUKNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDQsNiw4LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwCjAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDgsNiwzLDEsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDgsNiw0LDIsMSwwLDAKMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOCw2LDQsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"\\	MjB4MjAKMi43ODEyNXg2LjI5Njg3NQo2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsNyw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDQsNiw4LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwCjAsMCwxLDMsNSw3LDgsOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMAowLDAsMCwxLDIsNCw2LDgsOSw5LDksOCw2LDQsMiwxLDAsMCwwLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOCw3LDUsMywxLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw4LDcsNSw0LDMKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOSw5LDgsNyw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5",
+				
+				"\\	MjB4MjAKMzIuMHgyNi4wCjcsOCw5LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDksOCw3LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAKMyw2LDgsOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwCjEsNCw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMCwwLDAsMAowLDIsNCw3LDgsOSw5LDksOSw5LDgsNyw0LDIsMCwwLDAsMCwwLDAKMCwxLDIsNSw3LDksOSw5LDksOSw5LDksNyw1LDIsMSwwLDAsMCwwCjAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDgsNyw0LDIsMCwwLDAsMAowLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksNyw0LDEsMCwwLDAKMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDksOSw5LDgsNSwyLDAsMAowLDAsMCwwLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDYsMywwLDAKMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw3LDQsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMAowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksNyw1LDMKMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDcsNSwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw3LDUsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksNiwzLDA=",
+				
+				
+				"a	MjB4MjAKNC40MjE4NzV4NC41OTM3NQoyLDMsMywzLDIsMSwwLDAsMSwzLDUsNiw2LDYsNiw2LDUsMywxLDAKNCw2LDYsNiw0LDIsMCwxLDMsNiw4LDksOSw5LDksOSw4LDYsNCwzCjYsOSw5LDgsNSwyLDAsMiw1LDgsOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw3LDQsMSwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksNiwzLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDcsNSwzLDMsNSw3LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw3LDQsMSwwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDgsNyw2CjYsOSw5LDcsNCwxLDMsNiw5LDYsMywwLDAsMSw0LDcsOCw2LDQsMwo2LDksOSw4LDYsNCw1LDcsOSw3LDUsMywzLDQsNiw4LDgsNiw0LDMKNiw5LDksOSw4LDcsNyw4LDksOCw3LDYsNiw3LDgsOSw4LDcsNiw2CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"a	MjB4MjAKMy42ODc1eDQuNTkzNzUKMSwyLDMsMiwxLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwCjMsNSw1LDMsMSwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMAo1LDgsNyw0LDEsMCwwLDIsNSw4LDksOCw3LDcsOCw5LDksNyw1LDMKNiw5LDYsMywwLDAsMCwzLDYsOSw4LDYsNCw0LDUsNyw4LDgsNyw2CjYsOCw1LDIsMCwwLDEsNCw3LDgsNiwzLDEsMSwyLDUsNyw5LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwyLDUsOCw5LDkKNiw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw4LDUsMiwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDgsNyw2CjYsOSw3LDQsMSwwLDMsNiw2LDMsMCwwLDAsMSwzLDYsNyw2LDQsMwo1LDgsOCw2LDQsMiw0LDYsNiwzLDEsMiwzLDQsNiw3LDYsMywxLDAKNCw3LDksOCw3LDUsNiw3LDcsNSw0LDUsNiw3LDgsOCw2LDQsMywzCjIsNSw4LDksOSw4LDgsOCw4LDcsNyw4LDksOSw5LDgsNyw2LDYsNgoxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwxLDIsNSw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"a	MjB4MjAKNC40MjE4NzV4NC41OTM3NQoyLDMsMywzLDIsMSwwLDAsMSwzLDUsNiw2LDYsNiw2LDUsMywxLDAKNCw2LDYsNiw0LDIsMCwxLDMsNiw4LDksOSw5LDksOSw4LDYsNCwzCjYsOSw5LDgsNSwyLDAsMiw1LDgsOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw3LDQsMSwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksNiwzLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksOCw3LDYsNiw3LDgsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDcsNSwzLDMsNSw3LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw3LDQsMSwwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDgsNyw2CjYsOSw5LDcsNCwxLDMsNiw5LDYsMywwLDAsMSw0LDcsOCw2LDQsMwo2LDksOSw4LDYsNCw1LDcsOSw3LDUsMywzLDQsNiw4LDgsNiw0LDMKNiw5LDksOSw4LDcsNyw4LDksOCw3LDYsNiw3LDgsOSw4LDcsNiw2CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"a	MjB4MjAKMy45Mzc1eDQuNQowLDEsMiw0LDUsNCwyLDAsMCwxLDMsNSw2LDYsNiw2LDUsMywxLDAKMSwzLDUsNyw4LDYsMywwLDEsMyw2LDgsOSw5LDksOSw4LDYsNCwzCjIsNSw4LDksOSw2LDMsMCwyLDUsOCw4LDcsNiw2LDcsOCw4LDcsNgo0LDcsOSw4LDcsNCwyLDAsMyw2LDgsNiw0LDMsMyw1LDcsOSw5LDkKNSw4LDgsNiw0LDIsMSwxLDQsNyw3LDQsMSwwLDAsMiw1LDgsOSw5CjYsOCw2LDMsMSwwLDAsMiw1LDgsNiwzLDAsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw3LDQsMSwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMiw1LDcsNyw2CjYsOCw1LDIsMCwwLDEsNCw3LDYsMywwLDAsMCwxLDQsNyw3LDUsMwo2LDksNyw0LDEsMSwzLDYsNyw1LDIsMCwxLDIsNCw2LDcsNSwyLDAKNSw4LDgsNiw0LDQsNiw4LDgsNiw0LDMsNCw1LDcsOCw4LDYsNCwzCjQsNyw5LDgsNyw3LDgsOSw4LDcsNiw2LDcsOCw5LDksOCw3LDYsNgoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMSwzLDUsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5CjAsMSwyLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5", 
+				"a	MjB4MjAKMy42ODc1eDQuNTkzNzUKMSwyLDMsMiwxLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwCjMsNSw1LDMsMSwwLDAsMSwzLDYsOCw5LDksOSw5LDksOCw1LDIsMAo1LDgsNyw0LDEsMCwwLDIsNSw4LDksOCw3LDcsOCw5LDksNyw1LDMKNiw5LDYsMywwLDAsMCwzLDYsOSw4LDYsNCw0LDUsNyw4LDgsNyw2CjYsOCw1LDIsMCwwLDEsNCw3LDgsNiwzLDEsMSwyLDUsNyw5LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwyLDUsOCw5LDkKNiw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDcsNCwxLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw4LDUsMiwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDgsNyw2CjYsOSw3LDQsMSwwLDMsNiw2LDMsMCwwLDAsMSwzLDYsNyw2LDQsMwo1LDgsOCw2LDQsMiw0LDYsNiwzLDEsMiwzLDQsNiw3LDYsMywxLDAKNCw3LDksOCw3LDUsNiw3LDcsNSw0LDUsNiw3LDgsOCw2LDQsMywzCjIsNSw4LDksOSw4LDgsOCw4LDcsNyw4LDksOSw5LDgsNyw2LDYsNgoxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwxLDIsNSw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"a	MjB4MjAKNC4yNXg0LjgxMjUKMCwxLDIsMyw0LDMsMiwwLDEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwCjEsMyw1LDYsNyw1LDMsMCwyLDUsOCw5LDksOSw5LDksOCw2LDQsMwoyLDUsOCw5LDksNiwzLDEsNCw3LDksOSw5LDksOSw5LDksOCw3LDYKNCw3LDksOSw5LDYsMywyLDUsOCw5LDksOCw3LDcsOCw5LDksOSw5CjUsOCw5LDgsNyw0LDIsMyw2LDksOSw4LDYsNCw1LDcsOSw5LDksOQo2LDksOSw3LDUsMiwxLDMsNiw5LDgsNiwzLDEsMiw1LDgsOSw5LDkKNiw5LDgsNSwyLDAsMCwzLDYsOSw3LDQsMSwwLDEsNCw3LDksOSw5CjYsOSw3LDQsMSwwLDEsNCw3LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwyLDUsOCw5LDYsMywwLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDAsMyw2LDksOSw2LDMsMCwwLDIsNSw4LDksOSw5CjYsOSw3LDQsMSwwLDMsNiw5LDksNiwzLDAsMSw0LDcsOSw4LDcsNgo2LDksOCw2LDMsMiw0LDcsOSw4LDUsMiwxLDMsNiw4LDgsNiw0LDMKNiw5LDksOCw2LDUsNiw4LDksOCw2LDQsNCw2LDgsOSw4LDUsMiwwCjUsOCw5LDksOCw4LDgsOSw5LDgsNyw2LDcsOCw5LDksOCw2LDQsMwo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw1LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOQowLDEsMiwzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQ==", 
+				"b	MjB4MjAKNC43MDMxMjV4Ni4xODc1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw5LDksOCw4LDgsOSw5LDgsNyw2LDYKMywzLDMsMywzLDQsNiw4LDgsNyw2LDUsNSw1LDcsOCw4LDYsNCwzCjAsMCwwLDAsMCwyLDUsNyw2LDQsMywyLDIsMiw0LDYsNyw2LDQsMwowLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMSw0LDcsOCw3LDYKMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwwLDMsNiw5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
+				"b	MjB4MjAKMy45MDYyNXg2LjE4NzUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYKMywzLDMsMywzLDQsNiw3LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCwzCjAsMCwwLDAsMSwzLDYsNiw1LDIsMSwwLDAsMSwyLDQsNSw1LDQsMwowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDgsNiwzLDEsMCwwLDAsMCwwLDEsNCw3LDksOQowLDAsMCwwLDIsNSw4LDgsNiw0LDIsMSwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwxLDQsNyw5LDgsNyw1LDQsMyw0LDUsNyw4LDcsNSwzCjAsMCwwLDAsMCwyLDUsOCw5LDksOCw3LDYsNyw4LDksOCw1LDIsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"b	MjB4MjAKNC43MDMxMjV4Ni4xODc1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw5LDksOCw4LDgsOSw5LDgsNyw2LDYKMywzLDMsMywzLDQsNiw4LDgsNyw2LDUsNSw1LDcsOCw4LDYsNCwzCjAsMCwwLDAsMCwyLDUsNyw2LDQsMywyLDIsMiw0LDYsNyw2LDQsMwowLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMSw0LDcsOCw3LDYKMCwwLDAsMCwyLDUsOCw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwwLDMsNiw5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNiw0LDMKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
+				"b	MjB4MjAKMy43NXg2LjAxNTYyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNgozLDMsMywzLDMsNSw3LDgsNyw1LDQsMywzLDQsNSw3LDgsNyw1LDMKMCwwLDAsMCwxLDQsNyw3LDUsMiwxLDAsMCwxLDIsNSw3LDcsNSwzCjAsMCwwLDAsMiw1LDcsNSwyLDAsMCwwLDAsMCwwLDIsNSw3LDcsNgowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwzLDYsOCw2LDMsMSwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMiw1LDgsOCw2LDMsMSwwLDAsMSwzLDYsOCw4LDcsNgowLDAsMCwwLDEsNCw3LDksOCw2LDQsMywzLDQsNiw4LDksNyw1LDMKMCwwLDAsMCwwLDIsNSw4LDksOCw3LDYsNiw3LDgsOSw4LDUsMiwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw3LDQsMSwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksNiwzLDAsMCww", 
+				"b	MjB4MjAKMy45MDYyNXg2LjE4NzUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYKMywzLDMsMywzLDQsNiw3LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCwzCjAsMCwwLDAsMSwzLDYsNiw1LDIsMSwwLDAsMSwyLDQsNSw1LDQsMwowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDgsNiwzLDEsMCwwLDAsMCwwLDEsNCw3LDksOQowLDAsMCwwLDIsNSw4LDgsNiw0LDIsMSwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwxLDQsNyw5LDgsNyw1LDQsMyw0LDUsNyw4LDcsNSwzCjAsMCwwLDAsMCwyLDUsOCw5LDksOCw3LDYsNyw4LDksOCw1LDIsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"b	MjB4MjAKNC4wNjI1eDYuMzI4MTI1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNyw4LDksOSw5LDgsNyw2LDYsNyw4LDksOSw5LDksOQozLDMsMywzLDUsNyw5LDksOCw2LDQsMywzLDQsNiw4LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw4LDYsMywxLDAsMCwxLDMsNiw4LDksOSw5CjAsMCwwLDEsNCw3LDgsNiwzLDEsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKMCwwLDAsMyw2LDksOCw1LDIsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDIsNSw4LDksNyw0LDEsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwxLDQsNyw5LDgsNiw0LDMsMywzLDMsNCw2LDgsOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDcsOCw5LDgsNyw2CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwowLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
+				"c	MjB4MjAKMy44NTkzNzV4NC41OTM3NQowLDAsMCwxLDMsNSw2LDYsNyw3LDcsNiw2LDUsMywxLDAsMCwwLDAKMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDgsNiw0LDMsMywzLDQsNiw4LDksOSw5LDksOSw5CjYsOSw5LDksOCw2LDMsMSwwLDAsMCwxLDMsNiw4LDksOSw5LDksOQo2LDksOSw4LDYsMywxLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOQo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDkKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5", 
+				"c	MjB4MjAKMy40Njg3NXg0LjU5Mzc1CjAsMCwwLDEsMyw1LDYsNiw3LDcsNyw2LDYsNSwzLDEsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNiw0LDMsMywzLDMsMyw0LDYsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDMsMSwwLDAsMCwwLDAsMSwzLDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
+				"c	MjB4MjAKMy44NTkzNzV4NC41OTM3NQowLDAsMCwxLDMsNSw2LDYsNyw3LDcsNiw2LDUsMywxLDAsMCwwLDAKMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwCjAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDksOSw4LDcsNiw2LDYsNyw4LDksOSw5LDksOCw3LDYKNiw5LDksOSw5LDgsNiw0LDMsMywzLDQsNiw4LDksOSw5LDksOSw5CjYsOSw5LDksOCw2LDMsMSwwLDAsMCwxLDMsNiw4LDksOSw5LDksOQo2LDksOSw4LDYsMywxLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDkKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOQo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDkKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5", 
+				"c	MjB4MjAKMy41NjI1eDQuNQowLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOCw3LDYsNyw4LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNyw2LDUsNCwzLDQsNSw2LDcsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDQsMywyLDEsMCwxLDIsMyw0LDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjUsOCw4LDYsNCwyLDEsMCwwLDAsMCwwLDEsMiw0LDYsOCw4LDcsNgo0LDcsOSw4LDcsNCwyLDAsMCwwLDAsMSwzLDUsNyw4LDksNyw1LDMKMiw1LDgsOSw5LDYsMywwLDAsMCwwLDIsNSw4LDksOSw4LDUsMiwwCjEsMyw1LDcsOCw2LDMsMCwwLDAsMCwzLDYsOSw5LDgsNiwzLDEsMAowLDEsMiw1LDcsNiwzLDAsMCwwLDAsMyw2LDksOSw3LDQsMSwwLDAKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDMsNiw5LDksNiwzLDAsMCww", 
+				"c	MjB4MjAKMy40Njg3NXg0LjU5Mzc1CjAsMCwwLDEsMyw1LDYsNiw3LDcsNyw2LDYsNSwzLDEsMCwwLDAsMAowLDAsMSwzLDYsOCw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAKMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjEsMyw2LDgsOSw4LDcsNiw2LDYsNiw2LDcsOCw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNiw0LDMsMywzLDMsMyw0LDYsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDMsMSwwLDAsMCwwLDAsMSwzLDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDk=", 
+				"c	MjB4MjAKMy44OTA2MjV4NC44MTI1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDksOCw3LDYsNiw2LDYsNiw3LDgsOSw5LDksNyw1LDMKNSw4LDksOCw3LDUsNCwzLDMsMywzLDMsNCw2LDgsOSw5LDgsNyw2CjYsOSw5LDcsNSwyLDEsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDkKNSw4LDksOSw4LDcsNCwyLDAsMCwxLDMsNSw3LDgsOSw5LDgsNyw2CjQsNyw5LDksOSw5LDYsMywwLDAsMiw1LDgsOSw5LDksOSw3LDUsMwoyLDUsOCw5LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5LDgsNSwyLDAKMSwzLDUsNyw4LDksNiwzLDAsMCwzLDYsOSw5LDgsNyw1LDMsMSwwCjAsMSwyLDUsNyw5LDYsMywwLDAsMyw2LDksOSw3LDUsMiwxLDAsMAowLDAsMCwzLDYsOSw2LDMsMCwwLDMsNiw5LDksNiwzLDAsMCwwLDA=", 
+				"d	MjB4MjAKNC43MDMxMjV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDcsOCw5LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMCwwLDEsNCw3LDgsNyw2CjAsMCwwLDAsMCwyLDUsNyw2LDQsMywyLDIsMiw0LDYsNyw2LDQsMwozLDMsMywzLDMsNCw2LDgsOCw3LDYsNSw1LDUsNyw4LDgsNiw0LDMKNiw2LDYsNiw2LDYsNyw4LDksOSw5LDgsOCw4LDksOSw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"d	MjB4MjAKMy45MjE4NzV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDIsNSw4LDksOSw4LDcsNiw3LDgsOSw4LDUsMiwwCjAsMCwwLDAsMSw0LDcsOSw4LDcsNSw0LDMsNCw1LDcsOCw3LDUsMwowLDAsMCwwLDIsNSw4LDgsNiw0LDIsMSwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwzLDYsOCw2LDMsMSwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKMCwwLDAsMCwxLDMsNiw2LDUsMiwxLDAsMCwxLDIsNCw1LDUsNCwzCjMsMywzLDMsMyw0LDYsNyw3LDUsNCwzLDMsNCw1LDcsNyw2LDQsMwo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"d	MjB4MjAKNC43MDMxMjV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDcsOCw5LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDAsMCwwLDEsNCw3LDgsNyw2CjAsMCwwLDAsMCwyLDUsNyw2LDQsMywyLDIsMiw0LDYsNyw2LDQsMwozLDMsMywzLDMsNCw2LDgsOCw3LDYsNSw1LDUsNyw4LDgsNiw0LDMKNiw2LDYsNiw2LDYsNyw4LDksOSw5LDgsOCw4LDksOSw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"d	MjB4MjAKMy43NjU2MjV4Ni4wMTU2MjUKMCwwLDAsMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNSwzLDEsMCwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDAsMCwwLDAsMiw1LDgsOSw4LDcsNiw2LDcsOCw5LDgsNSwyLDAKMCwwLDAsMCwxLDQsNyw5LDgsNiw0LDMsMyw0LDYsOCw5LDcsNSwzCjAsMCwwLDAsMiw1LDgsOCw2LDMsMSwwLDAsMSwzLDYsOCw4LDcsNgowLDAsMCwwLDMsNiw4LDYsMywxLDAsMCwwLDAsMSwzLDYsOCw5LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMiw1LDcsNSwyLDAsMCwwLDAsMCwwLDEsNCw2LDcsNgowLDAsMCwwLDEsNCw3LDcsNSwyLDEsMCwwLDEsMiw0LDYsNiw1LDMKMywzLDMsMywzLDUsNyw4LDcsNSw0LDMsMyw0LDUsNyw4LDcsNSwzCjYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNgo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"d	MjB4MjAKMy45MjE4NzV4Ni4xODc1CjAsMCwwLDAsMCwwLDEsMyw1LDYsNiw2LDYsNiw2LDUsMywxLDAsMAowLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwwLDAsMCwwLDIsNSw4LDksOSw4LDcsNiw3LDgsOSw4LDUsMiwwCjAsMCwwLDAsMSw0LDcsOSw4LDcsNSw0LDMsNCw1LDcsOCw3LDUsMwowLDAsMCwwLDIsNSw4LDgsNiw0LDIsMSwwLDEsMiw0LDYsNyw3LDYKMCwwLDAsMCwzLDYsOCw2LDMsMSwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDkKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5CjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwxLDQsNiw3LDYKMCwwLDAsMCwxLDMsNiw2LDUsMiwxLDAsMCwxLDIsNCw1LDUsNCwzCjMsMywzLDMsMyw0LDYsNyw3LDUsNCwzLDMsNCw1LDcsNyw2LDQsMwo2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"d	MjB4MjAKNC4wNzgxMjV4Ni4zMjgxMjUKMCwwLDAsMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNSwzLDEsMCwwCjAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDAsMCwwLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKMCwwLDAsMCwyLDUsOCw5LDksOSw4LDgsOCw5LDksOSw5LDcsNSwzCjAsMCwwLDAsMyw2LDksOSw4LDcsNSw1LDUsNiw3LDgsOSw4LDcsNgowLDAsMCwwLDMsNiw5LDgsNiw0LDIsMiwyLDMsNCw2LDgsOSw5LDkKMCwwLDAsMSw0LDcsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDIsNSw4LDgsNSwyLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwzLDYsOSw4LDUsMiwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMiw1LDgsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDEsNCw3LDksOCw2LDMsMSwwLDEsMiw0LDYsOCw5LDksOQozLDMsMywzLDUsNyw5LDksOCw2LDQsMyw0LDUsNyw4LDksOSw5LDkKNiw2LDYsNiw3LDgsOSw5LDksOCw3LDYsNyw4LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"e	MjB4MjAKNC43MDMxMjV4NC41OTM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjUsOCw5LDksOCw3LDcsOCw5LDksOCw3LDYsNyw4LDksOSw4LDcsNgo2LDksOSw4LDYsNCw1LDcsOSw5LDcsNSwzLDQsNiw4LDksOSw5LDkKNiw5LDksNyw0LDEsMyw2LDksOSw2LDMsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDcsNCwxLDMsNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw4LDYsNCw1LDcsOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNSw4LDksOSw4LDcsNyw4LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQoyLDUsOCw5LDksOSw5LDksOSw5LDYsMywwLDEsNCw3LDksOSw5LDkKMSwzLDYsOCw5LDksOSw5LDksOSw2LDMsMCwyLDUsOCw5LDgsNyw2CjAsMSwzLDUsNyw4LDksOSw5LDksNiwzLDEsNCw3LDksOSw3LDUsMwowLDAsMSwyLDUsNyw5LDksOSw5LDYsMywyLDUsOCw5LDksNiwzLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMyw2LDksOSw5LDYsMyww", 
+				"e	MjB4MjAKNC4wNjI1eDQuNTkzNzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw4LDgsOCw4LDcsNyw4LDksOSw4LDYsMywxLDAKMiw1LDgsOSw4LDcsNSw2LDcsNyw1LDQsNSw3LDgsOSw4LDUsMiwwCjQsNyw5LDgsNiw0LDIsNCw2LDYsMywxLDIsNCw2LDgsOSw3LDUsMwo1LDgsOCw2LDMsMSwwLDMsNiw2LDMsMCwwLDEsMyw2LDgsOCw3LDYKNiw5LDcsNCwxLDAsMCwzLDYsNiwzLDAsMCwwLDEsNCw3LDksOSw5CjYsOCw1LDIsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDIsNSw4LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw4LDUsMiwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsOSw3LDQsMSwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDMsMSwwLDMsNiw2LDMsMCwwLDAsMCwyLDUsOCw5LDkKMyw2LDgsOCw2LDQsMyw1LDcsNiwzLDAsMCwwLDAsMyw2LDksOSw5CjEsMyw2LDgsOCw3LDYsNyw4LDYsMywwLDAsMCwwLDMsNiw4LDcsNgowLDEsMyw2LDgsOSw5LDksOSw2LDMsMCwwLDAsMSw0LDcsNyw1LDMKMCwwLDEsNCw3LDksOSw5LDksNiwzLDAsMCwwLDIsNSw4LDYsMywwCjAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMA==", 
+				"e	MjB4MjAKNC43MDMxMjV4NC41OTM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDAKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjUsOCw5LDksOCw3LDcsOCw5LDksOCw3LDYsNyw4LDksOSw4LDcsNgo2LDksOSw4LDYsNCw1LDcsOSw5LDcsNSwzLDQsNiw4LDksOSw5LDkKNiw5LDksNyw0LDEsMyw2LDksOSw2LDMsMCwxLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDcsNCwxLDMsNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw4LDYsNCw1LDcsOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNSw4LDksOSw4LDcsNyw4LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQoyLDUsOCw5LDksOSw5LDksOSw5LDYsMywwLDEsNCw3LDksOSw5LDkKMSwzLDYsOCw5LDksOSw5LDksOSw2LDMsMCwyLDUsOCw5LDgsNyw2CjAsMSwzLDUsNyw4LDksOSw5LDksNiwzLDEsNCw3LDksOSw3LDUsMwowLDAsMSwyLDUsNyw5LDksOSw5LDYsMywyLDUsOCw5LDksNiwzLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw2LDMsMyw2LDksOSw5LDYsMyww", 
+				"e	MjB4MjAKMy43OTY4NzV4NC41CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOCw4LDgsOCw3LDYsNyw4LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDUsNiw3LDcsNSwzLDQsNiw4LDksOCw1LDIsMAo0LDcsOSw4LDYsNCwyLDQsNiw2LDMsMCwxLDMsNiw4LDksNyw1LDMKNSw4LDgsNiwzLDEsMCwzLDYsNiwzLDAsMCwxLDMsNiw4LDgsNyw2CjYsOCw2LDMsMSwwLDAsMyw2LDYsMywwLDAsMCwxLDQsNyw5LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwyLDUsOCw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw3LDQsMSwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMSw0LDcsOSw5CjYsOCw1LDIsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDIsNSw4LDksOQo2LDksNyw0LDEsMCwwLDMsNiw2LDMsMCwwLDAsMSw0LDcsOSw5LDkKNSw4LDgsNiw0LDIsMSwzLDYsNiwzLDAsMSwyLDQsNiw4LDgsNyw2CjMsNiw4LDgsNyw1LDQsNSw3LDYsMywwLDIsNCw3LDgsOCw2LDQsMwoxLDMsNiw4LDksOCw3LDcsOCw2LDMsMCwzLDYsOSw4LDYsMywxLDAKMCwxLDMsNiw4LDksOSw5LDksNiwzLDAsMyw2LDgsNiwzLDEsMCwwCjAsMCwxLDQsNyw5LDksOSw5LDYsMywwLDMsNiw3LDQsMSwwLDAsMAowLDAsMCwzLDYsOSw5LDksOSw2LDMsMCwzLDYsNiwzLDAsMCwwLDA=", 
+				"e	MjB4MjAKNC4wNjI1eDQuNTkzNzUKMCwwLDEsMiw0LDUsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw4LDgsOCw4LDcsNyw4LDksOSw4LDYsMywxLDAKMiw1LDgsOSw4LDcsNSw2LDcsNyw1LDQsNSw3LDgsOSw4LDUsMiwwCjQsNyw5LDgsNiw0LDIsNCw2LDYsMywxLDIsNCw2LDgsOSw3LDUsMwo1LDgsOCw2LDMsMSwwLDMsNiw2LDMsMCwwLDEsMyw2LDgsOCw3LDYKNiw5LDcsNCwxLDAsMCwzLDYsNiwzLDAsMCwwLDEsNCw3LDksOSw5CjYsOCw1LDIsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDIsNSw4LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDMsNiw5LDkKNiw4LDUsMiwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsOSw3LDQsMSwwLDAsMyw2LDYsMywwLDAsMCwwLDEsNCw3LDksOQo1LDgsOCw2LDMsMSwwLDMsNiw2LDMsMCwwLDAsMCwyLDUsOCw5LDkKMyw2LDgsOCw2LDQsMyw1LDcsNiwzLDAsMCwwLDAsMyw2LDksOSw5CjEsMyw2LDgsOCw3LDYsNyw4LDYsMywwLDAsMCwwLDMsNiw4LDcsNgowLDEsMyw2LDgsOSw5LDksOSw2LDMsMCwwLDAsMSw0LDcsNyw1LDMKMCwwLDEsNCw3LDksOSw5LDksNiwzLDAsMCwwLDIsNSw4LDYsMywwCjAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDAsMCwzLDYsOSw2LDMsMA==", 
+				"e	MjB4MjAKNC4xMDkzNzV4NC44MTI1CjAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw1LDcsOCw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOSw5LDksOCw4LDgsOSw5LDksOCw1LDIsMAo0LDcsOSw5LDgsNyw3LDgsOSw5LDcsNiw1LDcsOCw5LDksNyw1LDMKNSw4LDksOCw2LDQsNSw3LDksOSw2LDQsMiw0LDYsOCw5LDgsNyw2CjYsOSw5LDcsNCwxLDIsNSw4LDksNiwzLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwxLDQsNyw5LDYsMywwLDAsMiw1LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwzLDYsOSw2LDMsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDMsNiw5LDksOQo2LDksNyw0LDEsMCwwLDMsNiw5LDYsMywwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwzLDYsOSw2LDMsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNCwxLDAsMyw2LDksNiwzLDAsMSw0LDcsOSw5LDksOQo2LDksOSw4LDYsNCwzLDUsNyw5LDYsNCwyLDQsNiw4LDksOCw3LDYKNSw4LDksOSw4LDcsNiw3LDgsOSw2LDUsNCw3LDgsOSw5LDcsNSwzCjMsNiw4LDksOSw5LDksOSw5LDksNiw2LDYsOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDYsNiw2LDksOSw4LDYsMywxLDAKMCwxLDMsNiw4LDksOSw5LDksOSw2LDYsNiw4LDcsNSwzLDEsMCwwCjAsMCwxLDQsNyw5LDksOSw5LDksNiw2LDYsNyw1LDIsMSwwLDAsMAowLDAsMCwzLDYsOSw5LDksOSw5LDYsNiw2LDYsMywwLDAsMCwwLDA=", 
+				"f	MjB4MjAKMy4zOTA2MjV4Ni4wNzgxMjUKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwxLDIsMyw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzCjEsMyw1LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOCw3LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNyw5LDcsNSw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzCjgsOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"f	MjB4MjAKMi43ODEyNXg2LjA3ODEyNQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDUsNyw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMSwyLDQsNSw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDgsNyw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw3LDUsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsNiwzLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDUsMiwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw0LDEsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDEsMiwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"f	MjB4MjAKMy4zOTA2MjV4Ni4wNzgxMjUKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwxLDIsMyw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzCjEsMyw1LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOCw3LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNyw5LDcsNSw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzCjgsOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksNiwzLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDYsMywzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw2LDMsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"f	MjB4MjAKMS45MjE4NzV4NS44NTkzNzUKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMSwyLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMwoxLDMsNSw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDgsNyw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw3LDUsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsNiwzLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw1LDIsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNCwxLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"f	MjB4MjAKMi43ODEyNXg2LjA3ODEyNQowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMSwyLDUsNyw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMSwyLDQsNSw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDgsNyw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw3LDUsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjYsNiwzLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDUsMiwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw0LDEsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsMywwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDMsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMiw0LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDEsMiwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"f	MjB4MjAKMi4yMzQzNzV4Ni4xNzE4NzUKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjEsMiwzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMwoyLDQsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDgsNyw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOCw2LDQsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMwo2LDcsNCwxLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"g	MjB4MjAKNC43MDMxMjV4Ni4yMDMxMjUKMCwxLDMsNSw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDgsNyw0LDIsMCwxLDIsMywzLDMsMwozLDYsOCw5LDksOSw5LDksOSw5LDksNyw0LDEsMSwzLDUsNiw2LDYKNSw4LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDEsNCw3LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDMsNiw5LDksOQo2LDksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDUsMiwzLDYsOSw5LDkKNiw5LDgsNiw0LDMsMywzLDQsNiw4LDksOSw2LDMsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwxLDMsNiw4LDksNiwzLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDYsMywzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOCw1LDIsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDEsNCw3LDcsNCwxLDMsNiw5LDksOQo1LDgsNyw0LDEsMCwwLDAsMCwyLDUsNyw1LDIsMSw0LDcsOSw5LDkKMyw2LDcsNiw0LDIsMiwyLDMsNSw3LDcsNSwzLDQsNiw4LDksOSw5CjMsNiw4LDgsNyw1LDUsNSw2LDcsOCw3LDYsNSw3LDgsOSw5LDksOQo0LDcsOCw5LDksOCw4LDgsOSw5LDksOCw4LDgsOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"g	MjB4MjAKMy45MjE4NzV4Ni4xNTYyNQowLDEsMyw1LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOCw3LDQsMiwwLDAsMCwxLDIsMywzCjIsNSw4LDksOCw3LDYsNyw4LDksOSw3LDQsMSwwLDAsMiw0LDYsNgo0LDcsOCw3LDUsNCwzLDQsNSw3LDgsOCw1LDIsMCwwLDMsNiw5LDkKNSw3LDYsNCwyLDEsMCwxLDIsNCw2LDgsNyw0LDEsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDEsMyw2LDcsNSwyLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDIsNSw4LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwxLDQsNyw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwzLDYsOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDEsNCw3LDkKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwyLDUsOCw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw2LDUsMiwwLDMsNiw5LDkKNSw2LDQsMSwwLDAsMCwwLDAsMSwzLDYsNiw0LDEsMSw0LDcsOSw5CjMsNSw1LDQsMiwxLDAsMCwxLDMsNiw3LDUsMiwxLDMsNiw4LDksOQozLDYsNyw3LDUsNCwzLDMsNCw2LDgsOCw2LDQsNCw2LDgsOCw3LDYKNCw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDcsOCw4LDYsNCwzCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCww", 
+				"g	MjB4MjAKNC43MDMxMjV4Ni4yMDMxMjUKMCwxLDMsNSw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDgsNyw0LDIsMCwxLDIsMywzLDMsMwozLDYsOCw5LDksOSw5LDksOSw5LDksNyw0LDEsMSwzLDUsNiw2LDYKNSw4LDksOSw5LDksOSw5LDksOSw5LDgsNSwyLDEsNCw3LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDMsNiw5LDksOQo2LDksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDUsMiwzLDYsOSw5LDkKNiw5LDgsNiw0LDMsMywzLDQsNiw4LDksOSw2LDMsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDAsMCwxLDMsNiw4LDksNiwzLDMsNiw5LDksOQo2LDksNiwzLDAsMCwwLDAsMCwxLDQsNyw5LDYsMywzLDYsOSw5LDkKNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOCw1LDIsMyw2LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDEsNCw3LDcsNCwxLDMsNiw5LDksOQo1LDgsNyw0LDEsMCwwLDAsMCwyLDUsNyw1LDIsMSw0LDcsOSw5LDkKMyw2LDcsNiw0LDIsMiwyLDMsNSw3LDcsNSwzLDQsNiw4LDksOSw5CjMsNiw4LDgsNyw1LDUsNSw2LDcsOCw3LDYsNSw3LDgsOSw5LDksOQo0LDcsOCw5LDksOCw4LDgsOSw5LDksOCw4LDgsOSw5LDksOCw3LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNSwzCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"g	MjB4MjAKMy42NzE4NzV4Ni4wNjI1CjAsMSwzLDUsNiw2LDYsNiw2LDYsNSwzLDEsMCwyLDMsNCwyLDEsMAoxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMyw1LDcsNCwyLDAKMiw1LDgsOSw4LDcsNiw2LDcsOCw5LDgsNSwyLDMsNiw5LDcsNSwzCjQsNyw4LDcsNSw0LDMsMyw0LDYsOCw5LDcsNCwzLDUsOCw4LDcsNgo1LDgsNyw1LDIsMSwwLDAsMSwzLDYsOCw4LDUsMywzLDYsOCw5LDkKNiw4LDUsMiwwLDAsMCwwLDAsMSwzLDYsOCw2LDMsMSw0LDcsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMiw1LDgsOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDEsNCw3LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDMsNiw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwzLDYsOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMyw2LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwxLDQsNyw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMSw0LDYsNSwyLDAsMiw1LDgsOQo1LDYsNCwxLDAsMCwwLDAsMCwwLDIsNSw2LDQsMSwxLDQsNyw5LDkKNCw2LDYsNCwyLDEsMCwwLDEsMiw1LDYsNSwyLDEsMyw2LDgsOSw5CjQsNyw4LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCw0LDYsOCw4LDcsNgo1LDgsOSw5LDgsNyw2LDYsNyw4LDksOCw3LDYsNyw4LDgsNiw0LDMKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDA=", 
+				"g	MjB4MjAKMy45MjE4NzV4Ni4xNTYyNQowLDEsMyw1LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOCw3LDQsMiwwLDAsMCwxLDIsMywzCjIsNSw4LDksOCw3LDYsNyw4LDksOSw3LDQsMSwwLDAsMiw0LDYsNgo0LDcsOCw3LDUsNCwzLDQsNSw3LDgsOCw1LDIsMCwwLDMsNiw5LDkKNSw3LDYsNCwyLDEsMCwxLDIsNCw2LDgsNyw0LDEsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDEsMyw2LDcsNSwyLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw3LDYsMywwLDIsNSw4LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwxLDQsNyw5CjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwzLDYsOQo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDEsNCw3LDkKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwyLDUsOCw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDEsNCw2LDUsMiwwLDMsNiw5LDkKNSw2LDQsMSwwLDAsMCwwLDAsMSwzLDYsNiw0LDEsMSw0LDcsOSw5CjMsNSw1LDQsMiwxLDAsMCwxLDMsNiw3LDUsMiwxLDMsNiw4LDksOQozLDYsNyw3LDUsNCwzLDMsNCw2LDgsOCw2LDQsNCw2LDgsOCw3LDYKNCw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDcsOCw4LDYsNCwzCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCww", 
+				"g	MjB4MjAKMy45ODQzNzV4Ni4zNzUKMCwxLDMsNSw2LDYsNiw2LDYsNiw1LDMsMSwwLDIsMywzLDEsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwzLDUsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOCw1LDIsMyw2LDgsNiw0LDMKNCw3LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDQsNiw5LDgsNyw2CjUsOCw5LDgsNyw2LDYsNiw2LDcsOCw5LDgsNSw0LDUsOCw5LDksOQo2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDYsNCw0LDcsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw3LDQsMyw1LDgsOSw5CjYsOCw1LDIsMCwwLDAsMCwwLDAsMiw1LDgsOCw1LDMsNCw3LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDEsNCw3LDksNiwzLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsOCw1LDIsMyw2LDksOQo2LDgsNSwyLDAsMCwwLDAsMCwwLDIsNSw4LDcsNCwyLDQsNyw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMSw0LDcsOSw2LDMsMiw1LDgsOSw5CjYsOSw4LDYsNCwyLDEsMSwyLDQsNiw4LDksNyw1LDUsNyw5LDksOQo2LDksOSw4LDcsNSw0LDQsNSw3LDgsOSw5LDgsNyw3LDgsOSw5LDkKNiw5LDksOSw5LDgsNyw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDQsMwo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw0LDEsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMA==", 
+				"h	MjB4MjAKNC40MDYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsNCw2LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwxLDMsNiw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"h	MjB4MjAKMy42NTYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsNCw2LDgsOCw3LDUsNCwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDIsNSw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSw0LDYsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDIsNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDIsNSw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwxLDQsNyw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"h	MjB4MjAKNC40MDYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsNCw2LDgsOCw2LDQsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwxLDMsNiw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwzLDYsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDIsNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwxLDQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"h	MjB4MjAKMy4zMjgxMjV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDQsNiw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwyLDUsNyw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDEsNCw2LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwyLDUsNiw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwzLDYsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"h	MjB4MjAKMy42NTYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsNCw2LDgsOCw3LDUsNCwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDIsNSw3LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMSw0LDYsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDIsNSw2LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDIsNSw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwxLDQsNyw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"h	MjB4MjAKMy42NDA2MjV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDUsNyw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMyw2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMiw1LDgsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDEsNCw3LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMwowLDAsMCwwLDMsNiw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDAsMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==",
+				
+				//explicitly added
+				"h	MjB4MjAKMTQuMHgyMC4wCjUsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMyw1LDcsOQo0LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDYKNSw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsMywzLDMsMywzLDMsNCw0LDQsMywzLDMsMywzLDMsMyw0LDUsNgoyLDMsMywzLDMsMywzLDQsNCw0LDMsMywzLDMsMywzLDMsNCw1LDYKMCwwLDAsMCwwLDAsMSwzLDMsMiwwLDAsMCwwLDAsMCwwLDIsNCw2CjAsMCwwLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwxLDIsMwowLDAsMCwwLDAsMCwyLDMsMywxLDAsMCwwLDAsMCwwLDAsMSwyLDMKMCwwLDAsMCwwLDEsMywzLDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwyLDQsNCwyLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwowLDAsMCwwLDAsMyw2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwwLDIsNCw1LDMsMSwwLDAsMCwwLDAsMCwwLDIsNCw2CjAsMCwwLDAsMCwxLDMsNSw1LDQsMywzLDMsMywzLDMsMyw0LDUsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDYKMCwwLDAsMCwwLDAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw2CjAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMsMywzLDMsMyw0LDUsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				
+				
+				"i	MjB4MjAKMS40MDYyNXg2LjA3ODEyNQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"i	MjB4MjAKMC43MTg3NXg2LjA3ODEyNQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"i	MjB4MjAKMS40MDYyNXg2LjA3ODEyNQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"i	MjB4MjAKMC42NzE4NzV4NS44MjgxMjUKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"i	MjB4MjAKMC43MTg3NXg2LjA3ODEyNQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksNiwzLDAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDYsMywwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw2LDMsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"i	MjB4MjAKMC45ODQzNzV4Ni4xNDA2MjUKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksNiwzLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDYsMywzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw2LDMsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"k	MjB4MjAKNC43OTY4NzV4Ni4wNzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw3LDQsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw4LDgsOCw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwyLDUsOCw5LDksNyw2LDYsOCw5LDksOCw2LDQsMwowLDAsMCwwLDEsNCw3LDksOSw4LDUsMywzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwyLDUsOCw5LDgsNiwzLDEsMSwzLDYsOCw5LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDMsMSwwLDAsMSw0LDcsOSw5LDksOQowLDAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMiw1LDgsOSw5LDkKMCwwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMyw1LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"k	MjB4MjAKMy44NzV4Ni4wNzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw3LDQsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDcsNyw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDIsNSw3LDYsNCw1LDcsOCw1LDIsMCwwLDAKMCwwLDAsMCwwLDAsMSw0LDcsNyw0LDEsMiw1LDgsNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDEsMyw2LDcsNiwzLDEsMAowLDAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDEsNCw3LDgsNSwyLDAKMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDIsNSw4LDcsNSwzCjAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDAsMCwxLDQsNyw4LDcsNgowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjAsMCwwLDAsMyw1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"k	MjB4MjAKNC43OTY4NzV4Ni4wNzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5LDcsNSwzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw3LDQsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOCw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDAsMCwwLDEsMyw2LDgsOSw4LDgsOCw5LDksOCw2LDMsMSwwCjAsMCwwLDAsMCwyLDUsOCw5LDksNyw2LDYsOCw5LDksOCw2LDQsMwowLDAsMCwwLDEsNCw3LDksOSw4LDUsMywzLDYsOCw5LDksOCw3LDYKMCwwLDAsMCwyLDUsOCw5LDgsNiwzLDEsMSwzLDYsOCw5LDksOSw5CjAsMCwwLDAsMyw2LDksOCw2LDMsMSwwLDAsMSw0LDcsOSw5LDksOQowLDAsMCwwLDMsNiw5LDcsNCwxLDAsMCwwLDAsMiw1LDgsOSw5LDkKMCwwLDAsMCwzLDYsOCw1LDIsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMyw1LDYsMywxLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"k	MjB4MjAKMy41NDY4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsNCw2LDgsOCw2LDQsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSw0LDcsOSw3LDQsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwxLDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMiw1LDgsOCw4LDgsOCw2LDMsMSwwLDAsMCwwCjAsMCwwLDAsMCwxLDQsNyw4LDYsNSw2LDgsOCw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMiw1LDcsNiwzLDIsMyw2LDgsOCw2LDMsMSwwLDAKMCwwLDAsMCwxLDQsNyw3LDQsMSwwLDEsMyw2LDgsOCw2LDMsMSwwCjAsMCwwLDAsMiw1LDcsNSwyLDAsMCwwLDEsMyw2LDgsOCw2LDQsMwowLDAsMCwwLDMsNiw3LDQsMSwwLDAsMCwwLDEsMyw2LDgsOCw3LDYKMCwwLDAsMCwzLDUsNSwyLDAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5CjAsMCwwLDAsMiwzLDMsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQowLDAsMCwwLDEsMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"k	MjB4MjAKMy44NzV4Ni4wNzgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMywzLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDcsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw3LDQsMSwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDcsNyw2LDMsMSwwLDAsMAowLDAsMCwwLDAsMCwwLDIsNSw3LDYsNCw1LDcsOCw1LDIsMCwwLDAKMCwwLDAsMCwwLDAsMSw0LDcsNyw0LDEsMiw1LDgsNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDEsMyw2LDcsNiwzLDEsMAowLDAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDEsNCw3LDgsNSwyLDAKMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDIsNSw4LDcsNSwzCjAsMCwwLDAsMSw0LDcsNyw0LDEsMCwwLDAsMCwxLDQsNyw4LDcsNgowLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKMCwwLDAsMCwzLDYsNyw0LDEsMCwwLDAsMCwwLDAsMSwzLDYsOCw5CjAsMCwwLDAsMyw1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOQowLDAsMCwwLDIsMywzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"k	MjB4MjAKMy45ODQzNzV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2CjMsMywzLDMsMywzLDMsMyw0LDYsOCw5LDgsNiw0LDMsMywzLDMsMwowLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw3LDQsMSwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksNiwzLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMyw2LDgsOSw5LDcsNCwxLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw4LDYsMywxLDAsMCwwLDAKMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksOSw4LDYsMywxLDAsMCwwCjAsMCwwLDAsMSwzLDYsOCw4LDcsNyw4LDksOSw4LDYsMywxLDAsMAowLDAsMCwwLDIsNSw4LDksNyw1LDQsNiw4LDksOSw4LDYsMywxLDAKMCwwLDAsMCwzLDYsOSw4LDUsMiwxLDMsNiw4LDksOSw4LDYsNCwzCjAsMCwwLDAsMyw2LDksNyw0LDEsMCwxLDMsNiw4LDksOSw4LDcsNgowLDAsMCwwLDMsNiw4LDUsMiwwLDAsMCwxLDMsNiw4LDksOSw5LDkKMCwwLDAsMCwzLDUsNiwzLDEsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjAsMCwwLDAsMyw0LDQsMSwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQowLDAsMCwwLDIsMiwyLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKMCwwLDAsMCwxLDEsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQ==", 
+				"l	MjB4MjAKMS40MDYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"l	MjB4MjAKMC43MTg3NXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"l	MjB4MjAKMS40MDYyNXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"l	MjB4MjAKMC42NzE4NzV4NS44MjgxMjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"l	MjB4MjAKMC43MTg3NXg2LjA3ODEyNQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"l	MjB4MjAKMC45ODQzNzV4Ni4xNDA2MjUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"m	MjB4MjAKNy4wMzEyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgozLDUsNyw4LDgsNyw2LDYsNiw1LDQsMywzLDMsMywzLDMsMywzLDMKMyw1LDcsNyw2LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDcsOSw5LDksOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjEsNCw3LDksOCw3LDYsNiw2LDUsNCwzLDMsMywzLDMsMywzLDMsMwozLDYsOCw4LDYsNCwzLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNSw4LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDcsNSwzLDIsMSwxLDIsMywzLDMsMywzLDMsMywzLDMsMwo2LDksOSw4LDcsNiw1LDQsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw5LDksOSw5LDksOCw3LDcsOCw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoyLDUsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"m	MjB4MjAKNi4zNzV4NC40ODQzNzUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo0LDcsNyw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNCw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo0LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw2LDcsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDUsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo0LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw1LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"m	MjB4MjAKNy4wMzEyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNgozLDUsNyw4LDgsNyw2LDYsNiw1LDQsMywzLDMsMywzLDMsMywzLDMKMyw1LDcsNyw2LDQsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDcsOSw5LDksOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2CjEsNCw3LDksOCw3LDYsNiw2LDUsNCwzLDMsMywzLDMsMywzLDMsMwozLDYsOCw4LDYsNCwzLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNSw4LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDcsNSwzLDIsMSwxLDIsMywzLDMsMywzLDMsMywzLDMsMwo2LDksOSw4LDcsNiw1LDQsNCw1LDYsNiw2LDYsNiw2LDYsNiw2LDYKNiw5LDksOSw5LDksOCw3LDcsOCw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoyLDUsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"m	MjB4MjAKNS41MzEyNXg0LjMxMjUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsNyw3LDUsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMyw1LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsNiw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo1LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjIsNSw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsNyw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw3LDUsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo1LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"m	MjB4MjAKNi4zNzV4NC40ODQzNzUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo0LDcsNyw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNCw2LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo0LDcsNyw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsMyw2LDcsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDUsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNSw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo0LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw1LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"m	MjB4MjAKNS44NDM3NXg0LjYyNQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo2LDksOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNyw1LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzCjUsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMiw1LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjMsNiw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo1LDgsOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"n	MjB4MjAKNC40MDYyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMiw1LDgsOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoxLDIsNSw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"n	MjB4MjAKMy42NTYyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgoyLDQsNiw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMSwzLDYsNyw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMyw2LDgsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"n	MjB4MjAKNC40MDYyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw4LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgozLDYsOCw5LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMiw1LDgsOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNiw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjIsNCw3LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoxLDIsNSw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"n	MjB4MjAKMy4zMjgxMjV4NC4zMTI1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjIsNCw2LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgoxLDMsNiw3LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMiw1LDcsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDcsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo1LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"n	MjB4MjAKMy42NTYyNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNiw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgoyLDQsNiw4LDgsNyw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMSwzLDYsNyw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsNiw3LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw4LDYsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw4LDcsNiw1LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKMyw2LDgsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQowLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"n	MjB4MjAKMy42NDA2MjV4NC42MjUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjUsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo1LDgsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNSw4LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMwo2LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKNSw4LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQoyLDUsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKMSw0LDcsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjAsMyw2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"o	MjB4MjAKNC44MTI1eDQuNTkzNzUKMCwwLDEsMiw0LDUsNiw2LDcsNyw3LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo3LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNyw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjcsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
+				"o	MjB4MjAKNC4wMTU2MjV4NC41OTM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjUsOCw5LDgsNiw0LDIsMSwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNgozLDYsOCw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDgsNiw0LDMKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
+				"o	MjB4MjAKNC44MTI1eDQuNTkzNzUKMCwwLDEsMiw0LDUsNiw2LDcsNyw3LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMiw1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo1LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOCw3LDYKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo3LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDkKNyw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5CjcsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOQo2LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKNiw5LDksOCw2LDQsMywzLDMsMywzLDMsMyw0LDYsOCw5LDksOSw5CjYsOSw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwLDAKMCwwLDEsNCw3LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwCjAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMA==", 
+				"o	MjB4MjAKMy43OTY4NzV4NC41CjAsMCwxLDMsNSw2LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjIsNSw4LDksOCw3LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw2LDQsMwo0LDcsOSw4LDYsNCwyLDEsMCwwLDAsMSwyLDQsNiw4LDksOCw3LDYKNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjYsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjYsOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOCw3LDYKNSw4LDgsNiw0LDMsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDcsNSwzCjMsNiw4LDgsNyw2LDUsNCwzLDMsMyw0LDUsNyw4LDksOCw1LDIsMAoxLDMsNiw4LDksOSw4LDcsNiw2LDYsNyw4LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDA=", 
+				"o	MjB4MjAKNC4wMTU2MjV4NC41OTM3NQowLDAsMSwyLDQsNSw2LDYsNyw3LDcsNiw2LDUsNCwyLDEsMCwwLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw4LDcsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDgsNyw2LDYsNiw3LDgsOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDgsNSwyLDAKNCw3LDksOCw2LDQsMiwxLDAsMCwwLDEsMiw0LDYsOCw5LDcsNSwzCjUsOCw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNgo2LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOQo2LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDkKNiw5LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOSw5CjUsOCw5LDgsNiw0LDIsMSwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNgozLDYsOCw5LDgsNyw1LDQsMywzLDMsNCw1LDcsOCw5LDgsNiw0LDMKMSwzLDYsOCw5LDksOCw3LDYsNiw2LDcsOCw5LDksOCw2LDMsMSwwCjAsMSwzLDUsNyw4LDksOSw5LDksOSw5LDksOCw3LDUsMywxLDAsMAowLDAsMSwyLDUsNyw5LDksOSw5LDksOSw5LDcsNSwyLDEsMCwwLDAKMCwwLDAsMCwzLDYsOSw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCww", 
+				"o	MjB4MjAKNC4xMDkzNzV4NC44MTI1CjAsMCwxLDMsNSw2LDYsNiw3LDcsNyw2LDYsNSw0LDIsMSwwLDAsMAowLDEsMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNyw1LDMsMSwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw5LDksOSw5LDksOCw2LDMsMSwwCjIsNSw4LDksOSw5LDksOCw3LDYsNyw4LDksOSw5LDksOCw1LDIsMAo0LDcsOSw5LDgsNyw2LDUsNCwzLDQsNSw2LDcsOCw5LDksNyw1LDMKNSw4LDksOCw2LDQsMywyLDEsMCwxLDIsMyw0LDYsOCw5LDgsNyw2CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOCw1LDIsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5LDkKNiw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo2LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKNiw5LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjYsOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQo2LDksOSw4LDYsNCwzLDIsMSwwLDEsMiwzLDQsNiw4LDksOCw3LDYKNSw4LDksOSw4LDcsNiw1LDQsMyw0LDUsNiw3LDgsOSw5LDcsNSwzCjMsNiw4LDksOSw5LDksOCw3LDYsNyw4LDksOSw5LDksOCw1LDIsMAoxLDMsNiw4LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKMCwxLDMsNSw3LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwCjAsMCwxLDIsNSw3LDksOSw5LDksOSw5LDksOSw3LDQsMSwwLDAsMAowLDAsMCwwLDMsNiw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDA=", 
+				"p	MjB4MjAKNC43MDMxMjV4Ni4xNTYyNQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOSw5LDgsNyw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsNiw4LDgsNyw1LDQsNCw1LDcsOCw4LDYsNCwzLDMsMywzLDMsMwozLDYsNyw2LDQsMiwxLDEsMiw0LDYsNyw2LDMsMSwwLDAsMCwwLDAKNSw4LDcsNCwxLDAsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAsMAo2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAKNiw5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw2LDMsMCwwLDAsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMAo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAKMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMAowLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCww", 
+				"p	MjB4MjAKMy45MDYyNXg2LjE1NjI1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsNiw3LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCwzLDMsMywzLDMsMwozLDUsNSw0LDIsMSwwLDAsMSwyLDQsNSw1LDMsMSwwLDAsMCwwLDAKNSw2LDQsMSwwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAKNSw4LDcsNSwyLDEsMCwxLDIsMyw1LDcsOCw1LDIsMCwwLDAsMCwwCjQsNyw4LDcsNSw0LDMsNCw1LDYsNyw4LDcsNCwxLDAsMCwwLDAsMAoyLDUsOCw5LDgsNyw2LDcsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
+				"p	MjB4MjAKNC43MDMxMjV4Ni4xNTYyNQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOSw5LDgsNyw3LDgsOSw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsNiw4LDgsNyw1LDQsNCw1LDcsOCw4LDYsNCwzLDMsMywzLDMsMwozLDYsNyw2LDQsMiwxLDEsMiw0LDYsNyw2LDMsMSwwLDAsMCwwLDAKNSw4LDcsNCwxLDAsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAsMAo2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAKNiw5LDksOCw3LDYsNiw2LDYsNyw4LDksOSw2LDMsMCwwLDAsMCwwCjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMAo1LDgsOSw5LDksOSw5LDksOSw5LDksOSw4LDUsMiwwLDAsMCwwLDAKMyw2LDgsOSw5LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwCjEsMyw2LDgsOSw5LDksOSw5LDksOCw2LDMsMSwwLDAsMCwwLDAsMAowLDEsNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDksOSw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCww", 
+				"p	MjB4MjAKMy43NXg2LjA2MjUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo1LDgsOSw5LDgsNyw2LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYKNCw3LDgsNyw1LDQsMywzLDQsNSw3LDgsNyw1LDMsMywzLDMsMywzCjQsNiw2LDQsMiwxLDAsMCwxLDIsNSw3LDcsNCwxLDAsMCwwLDAsMAo1LDYsNCwxLDAsMCwwLDAsMCwwLDIsNSw3LDUsMiwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw2LDMsMCwwLDAsMCwwCjYsOCw1LDIsMCwwLDAsMCwwLDEsMyw2LDgsNiwzLDAsMCwwLDAsMAo1LDgsNyw1LDIsMSwwLDAsMSwzLDYsOCw4LDUsMiwwLDAsMCwwLDAKNCw3LDgsNyw1LDQsMywzLDQsNiw4LDksNyw0LDEsMCwwLDAsMCwwCjIsNSw4LDksOCw3LDYsNiw3LDgsOSw4LDUsMiwwLDAsMCwwLDAsMAoxLDMsNiw4LDksOSw5LDksOSw5LDgsNiwzLDEsMCwwLDAsMCwwLDAKMCwxLDQsNyw5LDksOSw5LDksOSw3LDQsMSwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw5LDksOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
+				"p	MjB4MjAKMy45MDYyNXg2LjE1NjI1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw3LDgsOSw4LDcsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2CjMsNiw3LDcsNSw0LDMsMyw0LDUsNyw3LDYsNCwzLDMsMywzLDMsMwozLDUsNSw0LDIsMSwwLDAsMSwyLDQsNSw1LDMsMSwwLDAsMCwwLDAKNSw2LDQsMSwwLDAsMCwwLDAsMCwxLDQsNiw1LDIsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNSw1LDIsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjUsNSwyLDAsMCwwLDAsMCwwLDAsMCwzLDYsNiwzLDAsMCwwLDAsMAo1LDUsMiwwLDAsMCwwLDAsMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMSw0LDcsNiwzLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDIsNSw4LDYsMywwLDAsMCwwLDAKNSw4LDcsNSwyLDEsMCwxLDIsMyw1LDcsOCw1LDIsMCwwLDAsMCwwCjQsNyw4LDcsNSw0LDMsNCw1LDYsNyw4LDcsNCwxLDAsMCwwLDAsMAoyLDUsOCw5LDgsNyw2LDcsOCw5LDksOCw1LDIsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
+				"p	MjB4MjAKNC4wNjI1eDYuMzc1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw4LDcsNyw4LDksOSw5LDksOCw3LDYsNiw2LDYsNgo2LDksOSw4LDcsNSw0LDQsNSw3LDgsOSw5LDcsNSwzLDMsMywzLDMKNiw5LDgsNiw0LDIsMSwxLDIsNCw2LDgsOSw2LDMsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDAKNiw3LDQsMSwwLDAsMCwwLDAsMCwxLDQsNyw4LDUsMiwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMAo2LDgsNSwyLDAsMCwwLDAsMCwwLDEsNCw3LDksNiwzLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwyLDUsOCw4LDUsMiwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDEsNCw3LDksNyw0LDEsMCwwLDAsMAo2LDksOCw2LDQsMywzLDMsMyw0LDYsOCw5LDYsMywwLDAsMCwwLDAKNSw4LDksOCw3LDYsNiw2LDYsNyw4LDksOCw1LDIsMCwwLDAsMCwwCjQsNyw5LDksOSw5LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMAoyLDUsOCw5LDksOSw5LDksOSw5LDksOCw1LDIsMCwwLDAsMCwwLDAKMSwzLDYsOCw5LDksOSw5LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwCjAsMSw0LDcsOSw5LDksOSw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksOSw5LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
+				"r	MjB4MjAKMy4yNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw2LDgsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMsMwoxLDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiw1LDgsOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"r	MjB4MjAKMi41NjI1eDQuNDg0Mzc1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjEsMyw2LDcsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
+				"r	MjB4MjAKMy4yNXg0LjQ4NDM3NQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw2LDgsOSw5LDgsNiw0LDMsMywzLDMsMywzLDMsMywzLDMsMwoxLDMsNiw4LDksOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMiw1LDgsOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjQsNyw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo1LDgsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"r	MjB4MjAKMi4wMTU2MjV4NC4zMTI1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNCw2LDcsOCw5LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2CjIsNCw2LDgsOSw4LDYsNCwzLDMsMywzLDMsMywzLDMsMywzLDMsMwowLDIsNSw4LDgsNiwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMSw0LDcsOCw2LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjIsNSw4LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo0LDcsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNSw4LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
+				"r	MjB4MjAKMi41NjI1eDQuNDg0Mzc1CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo0LDYsNyw4LDksOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYKMiw0LDYsOCw4LDcsNSw0LDMsMywzLDMsMywzLDMsMywzLDMsMywzCjEsMyw2LDcsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAoyLDUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNCw3LDgsNSwyLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw3LDQsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDcsNCwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
+				"r	MjB4MjAKMi4zMjgxMjV4NC42MjUKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjUsOCw5LDksOSw5LDgsNyw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNgo0LDcsOSw5LDksOCw2LDQsMywzLDMsMywzLDMsMywzLDMsMywzLDMKNCw3LDksOSw4LDYsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjUsOCw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw4LDUsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNyw0LDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDksOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiw5LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsOSw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"s	MjB4MjAKMy45Njg3NXg0LjU5Mzc1CjEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwLDAsMiw0LDYsNiw1LDQsMwoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDIsNSw4LDksOCw3LDYKNCw3LDksOSw5LDksOSw5LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNiw5LDksOCw3LDcsOCw5LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDcsNSw0LDYsOCw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMSw0LDcsOSw5LDcsNCwxLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw4LDUsMiwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksOSw2LDMsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDksNiwzLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw5LDcsNCwyLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDIsNSw4LDksOSw4LDYsNSw2LDgsOSw5LDksOQo2LDksOSw2LDMsMCwxLDQsNyw5LDksOSw4LDgsOCw5LDksOSw5LDkKNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMiw1LDgsOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw4LDUsMiwwLDEsNCw3LDksOSw5LDksOSw5LDksNyw1LDMKNCw2LDYsNiw0LDIsMCwwLDIsNSw4LDksOSw5LDksOSw4LDUsMiwwCjIsMywzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDA=", 
+				"s	MjB4MjAKMy4zNDM3NXg0LjU5Mzc1CjEsMiw0LDUsNiw2LDYsNSwzLDEsMCwwLDAsMCwyLDUsOCw4LDcsNgoyLDQsNyw4LDksOSw5LDgsNSwyLDAsMCwwLDAsMSw0LDcsOSw5LDkKNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjUsOCw4LDcsNiw3LDgsOSw4LDUsMiwwLDAsMCwwLDIsNSw4LDksOQo2LDksNyw1LDMsNCw2LDgsOSw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw5LDYsMywwLDEsNCw3LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsOCw1LDIsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDIsNSw4LDksOQo2LDcsNCwxLDAsMCwwLDEsNCw3LDgsNSwyLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDMsNiw5LDcsNSwzLDQsNiw4LDgsNyw2CjYsOSw2LDMsMCwwLDAsMCwyLDUsOCw4LDcsNiw3LDgsOSw3LDUsMwo2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDgsNSwyLDAKNCw2LDQsMiwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw3LDQsMSwwCjIsMywyLDEsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksNiwzLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
+				"s	MjB4MjAKMy45Njg3NXg0LjU5Mzc1CjEsMyw1LDYsNiw2LDYsNiw1LDMsMSwwLDAsMiw0LDYsNiw1LDQsMwoyLDUsOCw5LDksOSw5LDksOCw1LDIsMCwwLDIsNSw4LDksOCw3LDYKNCw3LDksOSw5LDksOSw5LDksNyw0LDEsMCwxLDQsNyw5LDksOSw5CjUsOCw5LDksOSw5LDksOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDYsMywwLDAsMyw2LDksOSw5LDkKNiw5LDksOCw3LDcsOCw5LDksOSw2LDMsMCwwLDMsNiw5LDksOSw5CjYsOSw5LDcsNSw0LDYsOCw5LDksNiwzLDAsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMSw0LDcsOSw5LDcsNCwxLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw4LDUsMiwwLDMsNiw5LDksOSw5CjYsOSw5LDYsMywwLDMsNiw5LDksOSw2LDMsMCwzLDYsOSw5LDksOQo2LDksOSw2LDMsMCwzLDYsOSw5LDksNiwzLDAsMyw2LDksOSw5LDkKNiw5LDksNiwzLDAsMyw2LDksOSw5LDcsNCwyLDQsNyw5LDksOSw5CjYsOSw5LDYsMywwLDIsNSw4LDksOSw4LDYsNSw2LDgsOSw5LDksOQo2LDksOSw2LDMsMCwxLDQsNyw5LDksOSw4LDgsOCw5LDksOSw5LDkKNiw5LDksNiwzLDAsMCwzLDYsOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDcsNCwxLDAsMiw1LDgsOSw5LDksOSw5LDksOSw4LDcsNgo2LDksOSw4LDUsMiwwLDEsNCw3LDksOSw5LDksOSw5LDksNyw1LDMKNCw2LDYsNiw0LDIsMCwwLDIsNSw4LDksOSw5LDksOSw4LDUsMiwwCjIsMywzLDMsMiwxLDAsMCwxLDQsNyw5LDksOSw5LDksNyw0LDEsMAowLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDksOSw5LDYsMywwLDA=", 
+				"s	MjB4MjAKMy40MDYyNXg0LjUKMCwxLDMsNSw2LDYsNSwzLDEsMCwwLDAsMiw0LDYsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDgsNiwzLDEsMCwwLDMsNiw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDgsNSwyLDAsMCwzLDYsOSw5LDgsNiw0LDMKNCw3LDksOCw3LDcsOCw5LDcsNCwxLDAsMiw0LDcsOCw5LDgsNyw2CjUsOCw4LDYsNCw0LDYsOCw4LDUsMiwwLDEsMiw0LDYsOCw5LDksOQo2LDksNyw0LDEsMSw0LDcsOSw2LDMsMCwwLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMiw1LDgsOSw5CjYsNyw0LDEsMCwwLDIsNSw4LDcsNCwxLDAsMCwwLDEsNCw3LDksOQo2LDYsMywwLDAsMCwxLDQsNyw4LDUsMiwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwxLDQsNyw5LDkKNiw4LDUsMiwwLDAsMCwyLDUsOCw3LDQsMSwwLDAsMiw1LDgsOSw5CjYsOSw3LDUsMiwxLDAsMSw0LDcsOCw1LDIsMCwxLDQsNyw5LDksOQo1LDgsOCw3LDQsMiwwLDAsMyw2LDksNyw1LDMsNCw2LDgsOCw3LDYKNCw3LDksOSw2LDMsMCwwLDIsNSw4LDgsNyw2LDcsOCw5LDcsNSwzCjIsNSw4LDksNiwzLDAsMCwxLDQsNyw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw2LDQsMiwwLDAsMCwyLDUsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsMywyLDEsMCwwLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
+				"s	MjB4MjAKMy4zNDM3NXg0LjU5Mzc1CjEsMiw0LDUsNiw2LDYsNSwzLDEsMCwwLDAsMCwyLDUsOCw4LDcsNgoyLDQsNyw4LDksOSw5LDgsNSwyLDAsMCwwLDAsMSw0LDcsOSw5LDkKNCw3LDksOSw5LDksOSw5LDcsNCwxLDAsMCwwLDAsMyw2LDksOSw5CjUsOCw4LDcsNiw3LDgsOSw4LDUsMiwwLDAsMCwwLDIsNSw4LDksOQo2LDksNyw1LDMsNCw2LDgsOSw2LDMsMCwwLDAsMCwxLDQsNyw5LDkKNiw5LDYsMywwLDEsNCw3LDksNiwzLDAsMCwwLDAsMCwzLDYsOSw5CjYsOCw1LDIsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMyw2LDksOQo2LDcsNCwxLDAsMCwyLDUsOCw3LDQsMSwwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMSw0LDcsOCw1LDIsMCwwLDAsMCwzLDYsOSw5CjYsNiwzLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMyw2LDksOQo2LDYsMywwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDMsNiw5LDkKNiw2LDMsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMSw0LDcsOSw5CjYsNiwzLDAsMCwwLDAsMiw1LDgsNyw0LDEsMCwwLDIsNSw4LDksOQo2LDcsNCwxLDAsMCwwLDEsNCw3LDgsNSwyLDAsMSw0LDcsOSw5LDkKNiw4LDUsMiwwLDAsMCwwLDMsNiw5LDcsNSwzLDQsNiw4LDgsNyw2CjYsOSw2LDMsMCwwLDAsMCwyLDUsOCw4LDcsNiw3LDgsOSw3LDUsMwo2LDksNiwzLDAsMCwwLDAsMSw0LDcsOSw5LDksOSw5LDgsNSwyLDAKNCw2LDQsMiwwLDAsMCwwLDAsMiw1LDgsOSw5LDksOSw3LDQsMSwwCjIsMywyLDEsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDksNiwzLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOSw5LDYsMywwLDA=", 
+				"s	MjB4MjAKMy43MTg3NXg0LjgxMjUKMCwxLDMsNSw2LDYsNiw1LDMsMSwwLDIsNCw2LDYsNSwzLDEsMCwwCjEsMyw2LDgsOSw5LDksOCw1LDIsMCwzLDYsOSw5LDgsNiwzLDEsMAoyLDUsOCw5LDksOSw5LDksNyw0LDEsMyw2LDksOSw5LDgsNiw0LDMKNCw3LDksOSw5LDksOSw5LDgsNSwyLDMsNiw5LDksOSw5LDgsNyw2CjUsOCw5LDksOSw5LDksOSw5LDcsNCwzLDQsNyw4LDksOSw5LDksOQo2LDksOSw4LDcsNyw4LDksOSw4LDUsMywyLDQsNiw4LDksOSw5LDkKNiw5LDksNyw1LDQsNiw4LDksOSw2LDMsMCwxLDQsNyw5LDksOSw5CjYsOSw4LDUsMiwxLDQsNyw5LDksNiwzLDAsMCwyLDUsOCw5LDksOQo2LDksNyw0LDEsMCwzLDYsOSw5LDYsMywwLDAsMSw0LDcsOSw5LDkKNiw5LDYsMywwLDAsMyw2LDksOSw3LDQsMSwwLDAsMyw2LDksOSw5CjYsOSw3LDQsMSwwLDIsNSw4LDksOCw1LDIsMCwxLDQsNyw5LDksOQo2LDksOCw1LDIsMCwxLDQsNyw5LDksNiwzLDAsMiw1LDgsOSw5LDkKNiw5LDksNyw1LDIsMSwzLDYsOSw5LDcsNCwxLDMsNiw5LDksOSw5CjYsOSw5LDgsNyw0LDIsMyw2LDksOSw4LDYsNCw1LDcsOSw5LDksOQo1LDgsOSw5LDksNiwzLDIsNSw4LDksOSw4LDcsNyw4LDksOCw3LDYKNCw3LDksOSw5LDYsMywxLDQsNyw5LDksOSw5LDksOSw5LDcsNSwzCjIsNSw4LDksOSw2LDMsMCwyLDUsOCw5LDksOSw5LDksOCw1LDIsMAoxLDMsNSw2LDcsNSwzLDAsMSwzLDYsOCw5LDksOSw4LDYsMywxLDAKMCwxLDIsMyw1LDQsMywwLDAsMSw0LDcsOSw5LDksNyw0LDEsMCwwCjAsMCwwLDAsMywzLDMsMCwwLDAsMyw2LDksOSw5LDYsMywwLDAsMA==", 
+				"t	MjB4MjAKMy41MzEyNXg1LjYyNQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywyLDEsMCwwLDAsMAo2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNSw0LDMsMiwxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDQsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5CjMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5", 
+				"t	MjB4MjAKMi43MzQzNzV4NS42MjUKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAKNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw0LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"t	MjB4MjAKMy41MzEyNXg1LjYyNQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywyLDEsMCwwLDAsMAo2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNSw0LDMsMiwxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDQsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw5CjMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMyw0LDYsOCw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5", 
+				"t	MjB4MjAKMS45MjE4NzV4NS41MzEyNQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwCjYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw0LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDcsOCw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOQozLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5", 
+				"t	MjB4MjAKMi43MzQzNzV4NS42MjUKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAozLDMsMyw1LDcsNyw1LDMsMywzLDMsMywzLDMsMywyLDEsMCwwLDAKNiw2LDYsNyw4LDgsNyw2LDYsNiw2LDYsNiw2LDYsNSw0LDIsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw0LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw3LDgsOCw3LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDkKMywzLDMsNSw3LDcsNSwzLDMsMywzLDMsMywzLDMsMyw1LDcsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwzLDYsNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMyw2LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDMsNiw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQ==", 
+				"t	MjB4MjAKMi4yMzQzNzV4NS44NDM3NQowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwCjYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2LDYsNiw1LDQsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDkKMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMsNSw3LDksOSw5CjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5CjAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQowLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAsMyw2LDksOSw5", 
+				"u	MjB4MjAKNC40MDYyNXg0LjQ4NDM3NQo5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYsNiw1LDQsMiwxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDQsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDcsNSwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDksOCw1LDIsMAozLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw5LDgsNiw0LDMKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"u	MjB4MjAKMy42NTYyNXg0LjU5Mzc1CjYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2LDUsMywxLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNCw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDYsNCwzCjIsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNSw3LDgsOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw2LDMsMSwwCjIsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw4LDgsNiw0LDMsMwo0LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"u	MjB4MjAKNC40MDYyNXg0LjQ4NDM3NQo5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDYsNiw1LDQsMiwxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDQsMiwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw3LDUsMwo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDksOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDUsNyw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDcsNSwzCjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNSw3LDksOCw1LDIsMAozLDMsMywzLDMsMywzLDMsMywzLDMsNCw1LDcsOCw5LDgsNiw0LDMKNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw5LDksOSw4LDcsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"u	MjB4MjAKMy4zNDM3NXg0LjM3NQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDUsMywxLDAKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsNCwzCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw5LDkKMywzLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNiw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSw0LDcsOCw3LDYKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw3LDYsNCwzCjMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNCw2LDcsNiwzLDEsMAo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDcsOCw4LDYsNCwzLDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5", 
+				"u	MjB4MjAKMy42NTYyNXg0LjU5Mzc1CjYsOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNiw2LDUsMywxLDAsMAo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDYsMywxLDAKNCw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDYsNCwzCjIsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNSw3LDgsOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMyw2LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw1LDgsOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw2LDcsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiw0LDYsNyw2LDMsMSwwCjIsMywzLDMsMywzLDMsMywzLDMsMyw0LDUsNyw4LDgsNiw0LDMsMwo0LDYsNiw2LDYsNiw2LDYsNiw2LDYsNyw4LDksOSw4LDcsNiw2LDYKNiw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
+				"u	MjB4MjAKMy42NTYyNXg0LjY4NzUKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDMsMSwwCjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOCw1LDIsMAo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksNyw1LDMKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDgsNyw2CjYsNiw2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOQozLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDMsNSw3LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNSw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDUsOCw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsNCw3LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDgsNyw2CjMsMywzLDMsMywzLDMsMywzLDMsMywzLDQsNiw4LDksOSw4LDcsNgo2LDYsNiw2LDYsNiw2LDYsNiw2LDYsNiw3LDgsOSw5LDksOCw3LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQ==", 
+				"v	MjB4MjAKNC45Njg3NXg0LjM3NQo3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAKNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwCjQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMwoxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOQoxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywzCjcsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMAo5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"v	MjB4MjAKNC4yNjU2MjV4NC4zNzUKNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDgsOSw5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDcsOCw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwCjEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMAowLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw4LDcsNSw0LDMsMiwxLDAKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwzCjAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMAoxLDIsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAKNCw1LDcsOCw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjcsOCw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"v	MjB4MjAKNC45Njg3NXg0LjM3NQo3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAKNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwCjQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMwoxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw3LDgsOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5CjAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOQoxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDgsNyw2LDYKNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywzCjcsOCw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMAo5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"v	MjB4MjAKMy44MTI1eDQuMTg3NQo3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo1LDcsOCw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKMiw0LDUsNiw3LDgsOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwCjAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMAowLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDYsNSw0LDMKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDgsNyw2CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDQsNSw3LDgsOSw5LDksOQowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDgsNyw2CjAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDgsNyw1LDQsMwowLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw1LDQsMiwxLDAKMCwxLDIsMyw0LDUsNyw4LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwCjIsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMAo1LDcsOCw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAKOCw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
+				"v	MjB4MjAKNC4yNjU2MjV4NC4zNzUKNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDgsOSw5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNCw1LDcsOCw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwCjEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMAowLDAsMSwyLDMsNCw1LDcsOCw5LDksOSw4LDcsNSw0LDMsMiwxLDAKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwzCjAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw4LDcsNgowLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNyw4LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsNCw1LDcsOCw5LDksOQowLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOCw3LDYKMCwwLDAsMCwwLDEsMiw0LDUsNiw3LDgsOSw5LDgsNyw2LDUsNCwzCjAsMCwxLDIsMyw0LDUsNyw4LDksOSw4LDcsNiw1LDQsMywyLDEsMAoxLDIsNCw1LDYsNyw4LDksOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAKNCw1LDcsOCw5LDksOCw3LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjcsOCw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"v	MjB4MjAKNC4yNjU2MjV4NC41CjcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDksOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAsMCwwLDAsMAo2LDcsOCw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAKMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOCw3LDYsNSw0LDIsMSwwCjAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDgsNyw1LDQsMwowLDAsMCwwLDEsMiwzLDQsNSw2LDcsOCw5LDksOSw5LDksOCw3LDYKMCwwLDAsMCwwLDAsMCwxLDIsMyw0LDUsNyw4LDksOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDcsOCw5LDksOSw5LDksOQowLDAsMCwwLDAsMCwxLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDkKMCwwLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw4LDcsNiw2CjAsMSwyLDMsNCw1LDcsOCw5LDksOSw5LDksOCw3LDYsNSw0LDMsMwozLDQsNSw2LDcsOCw5LDksOSw5LDksOCw3LDUsNCwzLDIsMSwwLDAKNiw3LDgsOSw5LDksOSw5LDgsNyw2LDUsNCwyLDEsMCwwLDAsMCwwCjksOSw5LDksOSw5LDgsNyw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMAo5LDksOSw4LDcsNiw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
+				"y	MjB4MjAKNC45ODQzNzV4Ni4xMDkzNzUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwyLDQsNiw2LDYKOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMyw2LDksOSw5CjgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDMsNiw5LDksOQo1LDcsOCw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwzLDYsOSw5LDkKMiw0LDUsNyw4LDksOSw5LDksOSw4LDcsNSw0LDMsNSw3LDksOSw5CjAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw2LDcsOCw5LDksOQowLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDksOSw5LDgsNyw2CjAsMCwwLDAsMSwyLDMsNCw2LDgsOSw5LDksOSw5LDgsNyw1LDQsMwowLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDgsNyw1LDQsMiwxLDAKMiwzLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwCjUsNiw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMAo4LDksOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"y	MjB4MjAKNC4yNjU2MjV4Ni4wNDY4NzUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjIsNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMyw2LDksOQowLDEsMiw0LDYsOCw5LDgsNyw1LDMsMSwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMSwzLDUsNyw4LDksOCw2LDQsMiwyLDIsNCw2LDgsOSw5CjAsMCwwLDAsMSwyLDQsNSw3LDgsOCw3LDUsNSw1LDcsOCw4LDcsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw4LDgsOCw5LDgsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwCjAsMSwyLDQsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMAoyLDQsNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"y	MjB4MjAKNC45ODQzNzV4Ni4xMDkzNzUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwyLDQsNiw2LDYKOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMyw2LDksOSw5CjgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDMsNiw5LDksOQo1LDcsOCw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwzLDYsOSw5LDkKMiw0LDUsNyw4LDksOSw5LDksOSw4LDcsNSw0LDMsNSw3LDksOSw5CjAsMSwyLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw2LDcsOCw5LDksOQowLDAsMCwxLDIsNCw1LDYsNyw4LDksOSw5LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDEsMiw0LDYsOCw5LDksOSw5LDksOSw5LDgsNyw2CjAsMCwwLDAsMSwyLDMsNCw2LDgsOSw5LDksOSw5LDgsNyw1LDQsMwowLDAsMSwyLDQsNSw2LDcsOCw5LDksOSw5LDgsNyw1LDQsMiwxLDAKMiwzLDQsNSw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwCjUsNiw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMAo4LDksOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"y	MjB4MjAKMy42NzE4NzV4NS45Mzc1CjYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMwo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDIsNCw2LDYKOCw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjUsNyw4LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMyw2LDksOQoyLDQsNiw4LDksOSw4LDcsNSwzLDEsMCwwLDAsMCwxLDQsNyw5LDkKMCwxLDMsNSw3LDgsOSw5LDgsNiw0LDIsMSwwLDEsMyw2LDgsOSw5CjAsMCwxLDIsNCw1LDcsOCw5LDgsNyw1LDQsMyw0LDYsOCw4LDcsNgowLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw3LDYsNyw4LDksNyw1LDMKMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOCw3LDQsMiwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDksOSw4LDYsNCwyLDEsMAowLDAsMCwwLDAsMCwxLDMsNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwCjAsMCwxLDIsNCw1LDcsOCw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMAoxLDIsNCw1LDcsOCw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAKMyw1LDcsOCw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwCjYsOCw5LDksOCw2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=", 
+				"y	MjB4MjAKNC4yNjU2MjV4Ni4wNDY4NzUKNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNgo4LDksOCw3LDUsMywxLDAsMCwwLDAsMCwwLDAsMCwwLDMsNiw5LDkKNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwzLDYsOSw5CjIsNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMyw2LDksOQowLDEsMiw0LDYsOCw5LDgsNyw1LDMsMSwwLDAsMCwxLDQsNyw5LDkKMCwwLDAsMSwzLDUsNyw4LDksOCw2LDQsMiwyLDIsNCw2LDgsOSw5CjAsMCwwLDAsMSwyLDQsNSw3LDgsOCw3LDUsNSw1LDcsOCw4LDcsNgowLDAsMCwwLDAsMCwxLDIsNCw1LDcsOCw4LDgsOCw5LDgsNiw0LDMKMCwwLDAsMCwwLDAsMCwwLDIsNCw3LDgsOSw5LDgsNyw1LDMsMSwwCjAsMCwwLDAsMCwwLDEsMiw0LDUsNyw4LDksOCw2LDQsMiwxLDAsMAowLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDUsMywxLDAsMCwwLDAKMCwwLDAsMSwyLDQsNiw4LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwCjAsMSwyLDQsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMAoyLDQsNSw3LDgsOSw4LDYsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAKNSw3LDgsOSw4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
+				"y	MjB4MjAKNC4xMDkzNzV4Ni4yNQo2LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMKOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNiw2CjksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDMsNiw5LDksOQo5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwzLDYsOSw5LDkKNyw4LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDEsNCw3LDksOSw5CjQsNSw3LDgsOSw5LDksOSw4LDcsNSw0LDIsMiwzLDYsOCw5LDksOQoxLDIsNCw1LDcsOCw5LDksOSw5LDgsNyw1LDUsNiw4LDksOSw5LDkKMCwwLDEsMiw0LDUsNyw4LDksOSw5LDksOCw4LDgsOSw5LDgsNyw2CjAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDksOSw5LDksOCw2LDQsMwowLDAsMCwwLDAsMCwyLDUsOCw5LDksOSw5LDksOCw3LDUsMywxLDAKMCwwLDAsMCwxLDIsNCw2LDgsOSw5LDksOSw4LDYsNCwyLDEsMCwwCjAsMCwxLDIsNCw1LDcsOCw5LDksOSw4LDcsNSwzLDEsMCwwLDAsMAoxLDIsNCw1LDcsOCw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAKNCw1LDcsOCw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjcsOCw5LDksOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNyw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww",
+				
+				"(	MjB4MjAKMTAuMHgzNi4wCjAsMCwwLDEsMyw1LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwLDAsMAowLDAsMCwxLDIsMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAKMCwxLDIsNCw1LDYsNiw2LDYsNiw2LDYsNiw1LDQsMiwxLDAsMCwwCjAsMSwyLDMsMywzLDMsMywzLDMsMywzLDMsMywzLDIsMSwwLDAsMAowLDIsNCw2LDYsNiw1LDQsMywzLDQsNSw2LDYsNiw0LDIsMCwwLDAKMCwxLDIsMywzLDMsMiwxLDAsMCwxLDIsMywzLDMsMiwxLDAsMCwwCjEsMyw1LDYsNiw1LDMsMSwwLDAsMSwyLDQsNSw2LDUsMywxLDAsMAoxLDIsMywzLDMsMiwxLDAsMCwwLDAsMCwxLDIsMywzLDIsMSwwLDAKMyw1LDYsNiw1LDMsMSwwLDAsMCwwLDAsMSwzLDUsNiw1LDMsMSwwCjIsMywzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywyLDEsMAo0LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDEsMyw1LDYsNCwyLDAKMiwzLDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDIsMSwwCjQsNiw0LDIsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw1LDQsMwoyLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMKNSw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMiw0LDYsNiw2CjMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo0LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDYKMSwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzCjEsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMwowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA=",
+				")	MjB4MjAKMTEuMHgzNi4wCjIsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo0LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2LDYKMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzCjUsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDYsNgoyLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDMKNCw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDUsNCwzCjIsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywyLDEsMAozLDUsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDIsNCw2LDUsMywxLDAKMiw0LDYsNiw1LDMsMSwwLDAsMCwwLDEsMiw0LDUsNiw0LDIsMCwwCjIsNCw2LDYsNSwzLDEsMCwwLDAsMCwxLDIsNCw1LDYsNCwyLDAsMAoxLDMsNSw2LDYsNSw0LDMsMywzLDMsNCw1LDYsNiw1LDMsMSwwLDAKMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwCjAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMAowLDAsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwLDAKMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwCjAsMCwwLDAsMSwyLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMiw0LDUsNiw2LDUsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMSwyLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMiwzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA="
+		
 	};
+	}
 
 private static final Pattern PREPROCESS_PATTERN = Pattern.compile("\t");
 
@@ -474,7 +477,7 @@ private static final Pattern PREPROCESS_PATTERN = Pattern.compile("\t");
 	protected void loadRasters(BiConsumer<String, RasterChar> consumer) {
 		Charset  cs = Charset.defaultCharset();
 
-		for(String s : raw) {
+		for(String s : Base64Templates.raw) {
 			String l[] = PREPROCESS_PATTERN.split(s);
 			consumer.accept(l[0],RasterChar.parseFromString(new String(Base64.getDecoder().decode(l[1]), cs)));
 		}
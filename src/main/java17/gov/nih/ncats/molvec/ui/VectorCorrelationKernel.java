@@ -0,0 +1,37 @@
+package gov.nih.ncats.molvec.ui;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link CorrelationKernel} on the vector API, using the widest lanes
+ * the CPU has (8 ints with AVX2, 16 with AVX-512).
+ * Int multiplication and addition wrap the same way in every lane, so the
+ * result is the same as {@link CorrelationKernel#SCALAR} for any input.
+ *
+ * <p>
+ * This needs JDK 17 or newer to build, and <code>--add-modules jdk.incubator.vector</code>
+ * to build and run, it's only compiled by the profile that is active on those JDKs.
+ * Nothing refers to it directly, it's loaded by {@link CorrelationKernel#vector()}.
+ * </p>
+ */
+final class VectorCorrelationKernel implements CorrelationKernel {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public int dot(int[] a, int aOff, int[] b, int len) {
+		IntVector acc = IntVector.zero(SPECIES);
+		int k=0;
+		for(int upper = SPECIES.loopBound(len);k<upper;k+=SPECIES.length()){
+			IntVector va = IntVector.fromArray(SPECIES, a, aOff+k);
+			IntVector vb = IntVector.fromArray(SPECIES, b, k);
+			acc = va.mul(vb).add(acc);
+		}
+		int sum = acc.reduceLanes(VectorOperators.ADD);
+		for(;k<len;k++){
+			sum += a[aOff+k]*b[k];
+		}
+		return sum;
+	}
+}
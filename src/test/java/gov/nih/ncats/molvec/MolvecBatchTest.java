@@ -0,0 +1,75 @@
+package gov.nih.ncats.molvec;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class MolvecBatchTest {
+
+    private static File getFile(String name){
+        return new File(MolvecBatchTest.class.getResource(name).getFile());
+    }
+
+    private static List<File> inputs(){
+        File tylenol = getFile("/moleculeTest/tylenol.png");
+        return Arrays.asList(tylenol, new File(tylenol.getParentFile(), "doesNotExist.png"), tylenol, tylenol);
+    }
+
+    @Test
+    public void orderedResultsComeBackInInputOrder() throws Exception{
+        List<File> files = inputs();
+        List<MolvecBatchResult<File>> results;
+        try(Stream<MolvecBatchResult<File>> s = new MolvecBatch()
+                                                        .concurrency(2)
+                                                        .ocrFiles(files.iterator())){
+            results = s.collect(Collectors.toList());
+        }
+        assertEquals(files.size(), results.size());
+        for(int i=0; i< results.size(); i++){
+            assertEquals(i, results.get(i).getIndex());
+            assertSame(files.get(i), results.get(i).getSource());
+        }
+        assertTrue(results.get(1).getResult().hasError());
+
+        String expected = Molvec.ocr(files.get(0));
+        assertEquals(expected, results.get(0).getResult().getMolfile().get());
+        assertEquals(expected, results.get(3).getResult().getMolfile().get());
+    }
+
+    @Test
+    public void unorderedResultsReturnEveryImage() throws Exception{
+        List<File> files = inputs();
+        List<Long> indexes;
+        try(Stream<MolvecBatchResult<File>> s = new MolvecBatch()
+                                                        .concurrency(3)
+                                                        .ordered(false)
+                                                        .ocrFiles(files.stream())){
+            indexes = s.map(MolvecBatchResult::getIndex)
+                       .sorted()
+                       .collect(Collectors.toList());
+        }
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), indexes);
+    }
+
+    @Test
+    public void closingEarlyStopsPullingInput() throws Exception{
+        File tylenol = getFile("/moleculeTest/tylenol.png");
+        int[] pulled = new int[]{0};
+        Stream<File> endless = Stream.generate(()->{
+            pulled[0]++;
+            return tylenol;
+        });
+        try(Stream<MolvecBatchResult<File>> s = new MolvecBatch()
+                                                        .concurrency(2)
+                                                        .ocrFiles(endless)){
+            assertEquals(3, s.limit(3).count());
+        }
+        assertTrue(pulled[0] <= 5);
+    }
+}
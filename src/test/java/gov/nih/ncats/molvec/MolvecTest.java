@@ -2,13 +2,20 @@ package gov.nih.ncats.molvec;
 
 import org.junit.Test;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import javax.imageio.ImageIO;
+
 import static org.junit.Assert.*;
 public class MolvecTest {
     private static final String lineSep = System.lineSeparator();
@@ -55,4 +62,94 @@ public class MolvecTest {
         assertTrue(mol, mol.contains("$$$$"));
 
     }
+
+    @Test
+    public void stepListenerGetsEveryStep() throws Exception{
+        File f = new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        List<MolvecStepMetrics> steps = new ArrayList<>();
+        MolvecResult result = Molvec.ocr(f, new MolvecOptions().stepListener(steps::add));
+
+        assertFalse(result.hasError());
+        assertFalse(steps.isEmpty());
+
+        MolvecStepMetrics first = steps.get(0);
+        assertEquals(0, first.getStepNumber());
+        assertTrue(first.getPolygonCount() > 0);
+        assertEquals(0, first.getNodeCountAfter());
+
+        assertTrue(steps.stream().anyMatch(s-> s.getStepNumber()==0 && s.getOcrCalls() > 0));
+        assertTrue(steps.stream().anyMatch(s-> s.getStepNumber()==0 && s.getSegmentCount() > 0));
+
+        MolvecStepMetrics last = steps.get(steps.size()-1);
+        assertEquals(60, last.getStepNumber());
+        assertEquals(11, last.getNodeCountAfter());
+        assertEquals(11, last.getEdgeCountAfter());
+        for(int i=1;i<steps.size();i++){
+            assertEquals(steps.get(i-1).getNodeCountAfter(), steps.get(i).getNodeCountBefore());
+            assertEquals(steps.get(i-1).getEdgeCountAfter(), steps.get(i).getEdgeCountBefore());
+        }
+        assertTrue(steps.stream().allMatch(s-> s.getWallTimeNanos() >= 0));
+    }
+
+    @Test
+    public void speculativeBinarizationGivesSameStructure() throws Exception{
+        File f = new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile());
+        MolvecResult result = Molvec.ocr(f, new MolvecOptions().speculativeBinarization(true));
+
+        String mol=result.getMolfile().get();
+        assertFalse(result.hasError());
+        assertTrue(mol, mol.contains("11 11  0  0  0  0  0  0  0  0999 V2000"));
+    }
+
+    @Test
+    public void speculativeBinarizationUsesResizedImageWhenTooSmall() throws Exception{
+        BufferedImage small = tooSmallTylenol();
+
+        String expected = Molvec.ocr(small, new MolvecOptions()).getMolfile().get();
+        MolvecResult result = Molvec.ocr(small, new MolvecOptions().speculativeBinarization(true));
+
+        assertFalse(result.hasError());
+        assertEquals(countsLine(expected), countsLine(result.getMolfile().get()));
+        assertTrue(expected, countsLine(expected).startsWith(" 11 11"));
+    }
+
+    @Test
+    public void speculativeBinarizationReportsSameStepsAsSequential() throws Exception{
+        BufferedImage small = tooSmallTylenol();
+
+        List<MolvecStepMetrics> expected = new ArrayList<>();
+        Molvec.ocr(small, new MolvecOptions().stepListener(expected::add));
+        List<MolvecStepMetrics> steps = new ArrayList<>();
+        MolvecResult result = Molvec.ocr(small, new MolvecOptions().speculativeBinarization(true).stepListener(steps::add));
+
+        assertFalse(result.hasError());
+        //more than one attempt was needed
+        assertTrue(steps.stream().filter(s-> s.getStepNumber()==0).count() >= 2);
+        assertEquals(60, steps.get(steps.size()-1).getStepNumber());
+        assertEquals(11, steps.get(steps.size()-1).getNodeCountAfter());
+        assertEquals(describe(expected), describe(steps));
+    }
+
+    //shrunk enough that the default binarization is too small and it has to be resized
+    private static BufferedImage tooSmallTylenol() throws Exception{
+        BufferedImage original = ImageIO.read(new File(MolvecTest.class.getResource("/moleculeTest/tylenol.png").getFile()));
+        BufferedImage small = new BufferedImage((int)(original.getWidth()*0.22), (int)(original.getHeight()*0.22), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = small.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(original, 0, 0, small.getWidth(), small.getHeight(), null);
+        g.dispose();
+        return small;
+    }
+
+    private static List<String> describe(List<MolvecStepMetrics> steps){
+        List<String> list = new ArrayList<>();
+        for(MolvecStepMetrics s : steps){
+            list.add(s.getStepNumber() + " " + s.getDescription() + " " + s.getNodeCountAfter() + " " + s.getEdgeCountAfter());
+        }
+        return list;
+    }
+
+    private static String countsLine(String mol){
+        return mol.split("\\R")[3];
+    }
 }
@@ -0,0 +1,115 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import static org.junit.Assert.*;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BitmapConnectedComponentsTest {
+
+	/**
+	 * 8-connected flood fill, starting a new component at each unvisited
+	 * pixel in row by row order.
+	 */
+	private static List<Rectangle> referenceBounds(Bitmap bm){
+		boolean[][] seen = new boolean[bm.height()][bm.width()];
+		List<Rectangle> comps = new ArrayList<>();
+		for(int y=0;y<bm.height();y++){
+			for(int x=0;x<bm.width();x++){
+				if(!bm.get(x, y) || seen[y][x])continue;
+				Rectangle r = new Rectangle(x, y, 1, 1);
+				Deque<int[]> todo = new ArrayDeque<>();
+				todo.add(new int[]{x,y});
+				seen[y][x]=true;
+				while(!todo.isEmpty()){
+					int[] p = todo.poll();
+					r.add(new Rectangle(p[0], p[1], 1, 1));
+					for(int dy=-1;dy<=1;dy++){
+						for(int dx=-1;dx<=1;dx++){
+							int nx=p[0]+dx;
+							int ny=p[1]+dy;
+							if(bm.get(nx, ny) && !seen[ny][nx]){
+								seen[ny][nx]=true;
+								todo.add(new int[]{nx,ny});
+							}
+						}
+					}
+				}
+				comps.add(r);
+			}
+		}
+		return comps;
+	}
+
+	private static void assertSameComponents(Bitmap bm){
+		List<Rectangle> expected = referenceBounds(bm);
+		List<Shape> actual = bm.connectedComponents(Bitmap.Bbox.Rectangular);
+		assertEquals(expected.size(), actual.size());
+		for(int i=0;i<expected.size();i++){
+			assertEquals("component " + i, expected.get(i), actual.get(i));
+		}
+		assertEquals(expected.size(), bm.connectedComponents(Bitmap.Bbox.DoublePolygon).size());
+	}
+
+	@Test
+	public void sameAsFloodFillForRandomImages(){
+		Random r = new Random(99);
+		int[][] sizes = new int[][]{{1,1},{7,3},{64,20},{65,65},{130,47}};
+		for(int[] wh : sizes){
+			for(int i=0;i<5;i++){
+				Bitmap bm = new Bitmap(wh[0], wh[1]);
+				double fill = 0.1 + 0.1*i;
+				for(int y=0;y<wh[1];y++){
+					for(int x=0;x<wh[0];x++){
+						if(r.nextDouble()<fill){
+							bm.set(x, y, true);
+						}
+					}
+				}
+				assertSameComponents(bm);
+			}
+		}
+	}
+
+	@Test
+	public void diagonalPixelsAreConnected(){
+		Bitmap bm = new Bitmap(10, 10);
+		for(int i=0;i<10;i++){
+			bm.set(i, i, true);
+			bm.set(9-i, i, true);
+		}
+		assertEquals(1, bm.connectedComponents(Bitmap.Bbox.Rectangular).size());
+	}
+
+	@Test
+	public void invertedImagePaddingIsIgnored(){
+		//width isn't a multiple of 8, so inverting turns on the padding bits in each row
+		Bitmap bm = new Bitmap(13, 5);
+		bm.set(0, 0, true);
+		bm = bm.invert();
+		List<Shape> comps = bm.connectedComponents(Bitmap.Bbox.Rectangular);
+		assertEquals(1, comps.size());
+		assertEquals(new Rectangle(0, 0, 13, 5), comps.get(0));
+	}
+
+	@Test
+	public void moreComponentsThanFitInAShort(){
+		//every other pixel on every other row, all isolated
+		Bitmap bm = new Bitmap(500, 300);
+		for(int y=0;y<300;y+=2){
+			for(int x=0;x<500;x+=2){
+				bm.set(x, y, true);
+			}
+		}
+		List<Shape> comps = bm.connectedComponents(Bitmap.Bbox.Rectangular);
+		assertEquals(250*150, comps.size());
+		assertEquals(new Rectangle(498, 298, 1, 1), comps.get(comps.size()-1));
+	}
+}
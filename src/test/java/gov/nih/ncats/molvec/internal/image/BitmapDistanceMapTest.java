@@ -0,0 +1,55 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BitmapDistanceMapTest {
+
+	private static int bruteForceSquaredDistance(Bitmap bm, int x, int y){
+		int best = Integer.MAX_VALUE;
+		for(int yy=0;yy<bm.height();yy++){
+			for(int xx=0;xx<bm.width();xx++){
+				if(bm.get(xx, yy)){
+					best = Math.min(best, (xx-x)*(xx-x) + (yy-y)*(yy-y));
+				}
+			}
+		}
+		return best;
+	}
+
+	@Test
+	public void squaredDistancesAreExact(){
+		Random r = new Random(7);
+		int[][] sizes = new int[][]{{1,1},{9,4},{33,61},{80,25}};
+		for(int[] wh : sizes){
+			for(double fill : new double[]{0.001, 0.02, 0.3}){
+				Bitmap bm = RandomBitmaps.random(r, wh[0], wh[1], fill);
+				bm.set(r.nextInt(wh[0]), r.nextInt(wh[1]), true);
+				int[] dd = bm.getSquaredDistanceMap();
+				for(int y=0;y<wh[1];y++){
+					for(int x=0;x<wh[0];x++){
+						assertEquals(x + "," + y, bruteForceSquaredDistance(bm, x, y), dd[y*wh[0]+x]);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void scaledDistancesAreCappedAtLimit(){
+		Bitmap bm = new Bitmap(40, 3);
+		bm.set(0, 1, true);
+		byte[] dist = bm.getNNPixelMapX(5);
+
+		assertEquals(0, dist[40]);
+		assertEquals(4, dist[41]);
+		assertEquals(Math.round(Math.sqrt(2)*4), dist[1]);
+		//7*7 is still under 2*5*5, 8*8 isn't
+		assertEquals(28, dist[47]);
+		assertEquals(Byte.MAX_VALUE, dist[48]);
+		assertEquals(Byte.MAX_VALUE, dist[79]);
+	}
+}
@@ -0,0 +1,85 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
+
+public class BitmapScaledTest {
+
+	@Test
+	public void countsAreTheSameAsPixelByPixel(){
+		Random r = new Random(11);
+		int[][] sizes = new int[][]{{1,1},{3,40},{20,20},{21,19},{57,13},{130,90}};
+		for(int[] wh : sizes){
+			for(double fill : new double[]{0.001, 0.05, 0.5, 1}){
+				Bitmap bm = RandomBitmaps.random(r, wh[0], wh[1], fill);
+				bm.set(r.nextInt(wh[0]), r.nextInt(wh[1]), true);
+				BitmapScaled bms = bm.getScaled(20, 20);
+
+				int[] on = new int[20*20];
+				int[] all = new int[20*20];
+				int total = 0;
+				for(int x=0;x<wh[0];x++){
+					for(int y=0;y<wh[1];y++){
+						int cell = ((x*20)/wh[0])*20 + (y*20)/wh[1];
+						all[cell]++;
+						if(bm.get(x, y)){
+							on[cell]++;
+							total++;
+						}
+					}
+				}
+
+				assertEquals(wh[0], bms.twidth());
+				assertEquals(wh[1], bms.theight());
+				assertArrayEquals(all, bms.ccount());
+				assertEquals(total, bms.tcount());
+				int k=0;
+				for(int cell=0;cell<on.length;cell++){
+					if(on[cell]>0){
+						assertEquals(cell, bms.onCell()[k]);
+						assertEquals(on[cell], bms.onCount()[k]);
+						k++;
+					}
+				}
+				assertEquals(k, bms.onCell().length);
+			}
+		}
+	}
+
+	@Test
+	public void scaledOnceForEachSize(){
+		Bitmap bm = RandomBitmaps.random(new Random(3), 30, 17, 0.3);
+		BitmapScaled bms = bm.getScaled(20, 20);
+		assertSame(bms, bm.getScaled(20, 20));
+		BitmapScaled other = bm.getScaled(10, 5);
+		assertEquals(10*5, other.ccount().length);
+		assertEquals(bms.tcount(), other.tcount());
+	}
+
+	@Test
+	public void failedScalingDoesNotLeakCounts(){
+		Bitmap bm = RandomBitmaps.random(new Random(5), 30, 17, 0.3);
+		BitmapScaled expected = BitmapScaled.of(bm, 20, 20);
+		Bitmap failing = new Bitmap(30, 17){
+			@Override
+			public Stream<int[]> getXYOnPoints(){
+				return Stream.concat(bm.getXYOnPoints(), Stream.of((int[])null));
+			}
+		};
+		try{
+			BitmapScaled.of(failing, 20, 20);
+			fail("expected the null point to fail");
+		}catch(NullPointerException e){
+		}
+		BitmapScaled bms = BitmapScaled.of(bm, 20, 20);
+		assertEquals(expected.tcount(), bms.tcount());
+		assertArrayEquals(expected.onCell(), bms.onCell());
+		assertArrayEquals(expected.onCount(), bms.onCount());
+	}
+}
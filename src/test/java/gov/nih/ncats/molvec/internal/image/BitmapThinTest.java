@@ -0,0 +1,110 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BitmapThinTest {
+
+	/**
+	 * The original pixel by pixel thinning, every pass looks
+	 * at every pixel of the image as it was at the start of the pass.
+	 */
+	private static Bitmap referenceThin(Bitmap bm){
+		Bitmap thin = new Bitmap(bm);
+		Bitmap next = new Bitmap(bm);
+		int parity = 1;
+		boolean changed;
+		do{
+			changed=false;
+			parity = 1 - parity;
+			for(int y=0;y<thin.height();y++){
+				for(int x=0;x<thin.width();x++){
+					if(thin.isOn(x, y) && thin.shouldThin(thin.neighbor8Index(x, y), parity)){
+						next.set(x, y, false);
+						changed=true;
+					}
+				}
+			}
+			if(changed){
+				thin = new Bitmap(next);
+			}
+		}while(changed);
+		return thin;
+	}
+
+	private static void assertSameThinning(Bitmap bm){
+		Bitmap expected = referenceThin(bm);
+		assertSameBitmap(expected, bm.thin(false));
+		assertSameBitmap(expected, bm.thin(true));
+	}
+
+	private static void assertSameBitmap(Bitmap expected, Bitmap actual){
+		assertEquals(expected.width(), actual.width());
+		assertEquals(expected.height(), actual.height());
+		for(int y=0;y<expected.height();y++){
+			for(int x=0;x<expected.width();x++){
+				assertEquals("pixel " + x + "," + y, expected.get(x, y), actual.get(x, y));
+			}
+		}
+		assertEquals(expected.getXYOnPoints().count(), actual.getXYOnPoints().count());
+	}
+
+	private static Bitmap randomBlobs(Random r, int width, int height, int blobs){
+		Bitmap bm = new Bitmap(width, height);
+		for(int i=0;i<blobs;i++){
+			int cx = r.nextInt(width);
+			int cy = r.nextInt(height);
+			int w = 1 + r.nextInt(12);
+			int h = 1 + r.nextInt(12);
+			for(int y=Math.max(0, cy-h);y<Math.min(height, cy+h);y++){
+				for(int x=Math.max(0, cx-w);x<Math.min(width, cx+w);x++){
+					if(r.nextInt(10)!=0){
+						bm.set(x, y, true);
+					}
+				}
+			}
+		}
+		return bm;
+	}
+
+	@Test
+	public void sameAsPixelByPixelForRandomShapes(){
+		Random r = new Random(1234);
+		int[][] sizes = new int[][]{{1,1},{3,2},{63,17},{64,64},{65,40},{127,33},{200,129}};
+		for(int[] wh : sizes){
+			for(int i=0;i<5;i++){
+				assertSameThinning(randomBlobs(r, wh[0], wh[1], 1 + r.nextInt(20)));
+			}
+		}
+	}
+
+	@Test
+	public void sameAsPixelByPixelForFilledImage(){
+		Bitmap bm = new Bitmap(70, 30);
+		for(int y=0;y<30;y++){
+			for(int x=0;x<70;x++){
+				bm.set(x, y, true);
+			}
+		}
+		assertSameThinning(bm);
+	}
+
+	@Test
+	public void sameAsPixelByPixelForStructureImages() throws Exception{
+		for(String name : new String[]{"tylenol.png", "CCl3NotCC13.png", "cagedStructure3.png"}){
+			File f = new File(BitmapThinTest.class.getResource("/moleculeTest/" + name).getFile());
+			assertSameThinning(Bitmap.read(f).clean());
+		}
+	}
+
+	@Test
+	public void parallelSameAsSerialForLargeImage(){
+		Random r = new Random(42);
+		Bitmap bm = randomBlobs(r, 1500, 1100, 4000);
+		assertSameBitmap(bm.thin(false), bm.thin(true));
+	}
+}
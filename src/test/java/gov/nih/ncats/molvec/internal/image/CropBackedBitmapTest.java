@@ -0,0 +1,74 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import static org.junit.Assert.*;
+
+import java.awt.Polygon;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
+import gov.nih.ncats.molvec.internal.image.Bitmap.CropBackedBitmap;
+
+public class CropBackedBitmapTest {
+
+	private static Shape randomShape(Random r, int width, int height){
+		int x = r.nextInt(width+10)-5;
+		int y = r.nextInt(height+10)-5;
+		int w = 1 + r.nextInt(40);
+		int h = 1 + r.nextInt(40);
+		if(r.nextBoolean()){
+			return new Ellipse2D.Double(x, y, w, h);
+		}
+		Polygon p = new Polygon();
+		p.addPoint(x, y + h/2);
+		p.addPoint(x + w/2, y);
+		p.addPoint(x + w, y + r.nextInt(h+1));
+		p.addPoint(x + r.nextInt(w+1), y + h);
+		return p;
+	}
+
+	private static List<String> points(Bitmap bm){
+		return bm.getXYOnPoints()
+				 .map(xy->xy[0] + "," + xy[1])
+				 .collect(Collectors.toList());
+	}
+
+	@Test
+	public void sameAsCrop(){
+		Random r = new Random(19);
+		for(int i=0;i<500;i++){
+			int width = 5 + r.nextInt(60);
+			int height = 5 + r.nextInt(60);
+			Bitmap bm = RandomBitmaps.random(r, width, height, r.nextDouble());
+			bm.set(0, 0, true);
+			Shape s = randomShape(r, width, height);
+
+			Bitmap crop = bm.crop(s);
+			CropBackedBitmap lazy = bm.getLazyCrop(s);
+			if(crop==null){
+				assertNull(lazy);
+				continue;
+			}
+			assertEquals(crop.width(), lazy.width());
+			assertEquals(crop.height(), lazy.height());
+			assertEquals(crop.fractionPixelsOn(), lazy.fractionPixelsOn(), 0);
+			if(crop.fractionPixelsOn()==0){
+				//a bitmap that never had a pixel set has no on points to list
+				assertEquals(0, lazy.getXYOnPoints().count());
+			}else{
+				assertEquals(points(crop), points(lazy));
+
+				BitmapScaled expected = crop.getScaled(20, 20);
+				BitmapScaled actual = lazy.getScaled(20, 20);
+				assertArrayEquals(expected.onCell(), actual.onCell());
+				assertArrayEquals(expected.onCount(), actual.onCount());
+				assertEquals(expected.tcount(), actual.tcount());
+			}
+		}
+	}
+}
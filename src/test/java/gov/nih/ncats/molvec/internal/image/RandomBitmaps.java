@@ -0,0 +1,26 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.util.Random;
+
+/**
+ * Random bitmap fixtures shared by the bitmap tests.
+ */
+final class RandomBitmaps {
+
+	private RandomBitmaps(){}
+
+	/**
+	 * A bitmap where each pixel is on with the given probability.
+	 */
+	static Bitmap random(Random r, int width, int height, double fill){
+		Bitmap bm = new Bitmap(width, height);
+		for(int y=0;y<height;y++){
+			for(int x=0;x<width;x++){
+				if(r.nextDouble()<fill){
+					bm.set(x, y, true);
+				}
+			}
+		}
+		return bm;
+	}
+}
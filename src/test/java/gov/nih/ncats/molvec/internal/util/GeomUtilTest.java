@@ -14,8 +14,12 @@ import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -456,6 +460,194 @@ public class GeomUtilTest {
     	
     }
     
+    /**
+     * Connected components, by going over the pairs until nothing changes,
+     * ordered by their first element.
+     */
+    private static <T> List<List<T>> components(List<T> things, Predicate<Tuple<T,T>> merge){
+    	int[] label = IntStream.range(0, things.size()).toArray();
+    	boolean changed=true;
+    	while(changed){
+    		changed=false;
+    		for(int i=0;i<things.size();i++){
+    			for(int j=i+1;j<things.size();j++){
+    				if(label[i]!=label[j] && merge.test(Tuple.of(things.get(i),things.get(j)))){
+    					int l=Math.min(label[i], label[j]);
+    					changed|= label[i]!=l || label[j]!=l;
+    					label[i]=l;
+    					label[j]=l;
+    				}
+    			}
+    		}
+    	}
+    	Map<Integer,List<T>> groups = new LinkedHashMap<>();
+    	for(int i=0;i<things.size();i++){
+    		groups.computeIfAbsent(label[i], k->new ArrayList<>()).add(things.get(i));
+    	}
+    	return new ArrayList<>(groups.values());
+    }
+    
+    private static double gap(Rectangle2D a, Rectangle2D b){
+    	double dx = Math.max(0, Math.max(b.getMinX()-a.getMaxX(), a.getMinX()-b.getMaxX()));
+    	double dy = Math.max(0, Math.max(b.getMinY()-a.getMaxY(), a.getMinY()-b.getMaxY()));
+    	return Math.sqrt(dx*dx+dy*dy);
+    }
+    
+    @Test
+    public void groupThingsNearbySameAsEveryPair(){
+    	Random r = new Random(21);
+    	for(int run=0;run<200;run++){
+    		int n = r.nextInt(150);
+    		double extent = 10 + r.nextInt(1000);
+    		double maxDistance = (run%5==0)?0:r.nextDouble()*20;
+    		List<Rectangle2D> rects = new ArrayList<>();
+    		for(int i=0;i<n;i++){
+    			double w = (r.nextInt(10)==0)?r.nextDouble()*extent:r.nextDouble()*10;
+    			double h = (r.nextInt(10)==0)?r.nextDouble()*extent:r.nextDouble()*10;
+    			rects.add(new Rectangle2D.Double(r.nextDouble()*extent, r.nextDouble()*extent, w, h));
+    		}
+    		//close enough, and only some of those, so it isn't just about the bounds
+    		Predicate<Tuple<Rectangle2D,Rectangle2D>> merge =
+    				t->gap(t.k(), t.v())<=maxDistance && ((t.k().hashCode()^t.v().hashCode())&3)!=0;
+    		
+    		List<List<Rectangle2D>> expected = components(rects, merge);
+    		assertEquals(expected, GeomUtil.groupThings(rects, merge));
+    		assertEquals(expected, GeomUtil.groupThings(rects, b->b, maxDistance, merge));
+    	}
+    }
+    
+    @Test
+    public void findIntersectingSegmentsSameAsEveryPair(){
+    	Random r = new Random(23);
+    	for(int run=0;run<200;run++){
+    		int n = r.nextInt(200);
+    		int extent = 10 + r.nextInt(500);
+    		double tol = (run%4==0)?0:r.nextInt(5)+r.nextDouble();
+    		//whole numbers, so there are segments that just touch or lie on each other
+    		List<Line2D> lines = new ArrayList<>();
+    		for(int i=0;i<n;i++){
+    			int x = r.nextInt(extent);
+    			int y = r.nextInt(extent);
+    			int len = (r.nextInt(10)==0)?extent:20;
+    			int dx = (r.nextInt(4)==0)?0:r.nextInt(2*len+1)-len;
+    			int dy = (r.nextInt(4)==0)?0:r.nextInt(2*len+1)-len;
+    			lines.add(new Line2D.Double(x, y, x+dx, y+dy));
+    		}
+    		
+    		List<String> found = GeomUtil.findIntersectingSegments(lines, tol)
+    									 .stream()
+    									 .map(p->p[0] + "," + p[1])
+    									 .collect(Collectors.toList());
+    		for(int i=0;i<n;i++){
+    			for(int j=i+1;j<n;j++){
+    				double d = GeomUtil.segmentDistance(lines.get(i), lines.get(j));
+    				if(d<=tol){
+    					assertTrue(i + "," + j, found.contains(i + "," + j));
+    				}else if(d>tol+1e-6){
+    					assertFalse(i + "," + j, found.contains(i + "," + j));
+    				}
+    			}
+    		}
+    		List<String> sorted = GeomUtil.findIntersectingSegments(lines, tol)
+    									  .stream()
+    									  .sorted((p1,p2)->(p1[0]!=p2[0])?p1[0]-p2[0]:p1[1]-p2[1])
+    									  .map(p->p[0] + "," + p[1])
+    									  .collect(Collectors.toList());
+    		assertEquals(sorted, found);
+    		assertEquals(found.size(), found.stream().distinct().count());
+    	}
+    }
+    
+    @Test
+    public void packedShapeSameAsPoints(){
+    	Random r = new Random(24);
+    	for(int run=0;run<300;run++){
+    		Point2D[] pts = new Point2D[3+r.nextInt(10)];
+    		for(int i=0;i<pts.length;i++){
+    			pts[i] = new Point2D.Double(r.nextDouble()*100, r.nextDouble()*100);
+    		}
+    		Shape s = GeomUtil.convexHull2(pts);
+    		GeomUtil.ShapeWrapper sw = GeomUtil.ShapeWrapper.of(s);
+    		
+    		assertArrayEquals(vertices(s), GeomUtil.unpackVertices(GeomUtil.packedVertices(s)));
+    		assertArrayEquals(vertices(s), sw.getVerts());
+    		
+    		Point2D p = new Point2D.Double(r.nextDouble()*150-25, r.nextDouble()*150-25);
+    		assertEquals(GeomUtil.distanceTo(s, p), sw.distanceTo(p), 0);
+    		
+    		Line2D[] l1s = GeomUtil.lines(s);
+    		Line2D[] l2s = GeomUtil.lines(GeomUtil.convexHull2(new Point2D.Double(p.getX(), p.getY()),
+    															new Point2D.Double(p.getX()+r.nextDouble()*20, p.getY()),
+    															new Point2D.Double(p.getX(), p.getY()+r.nextDouble()*20)));
+    		Point2D[] expected = null;
+    		double dist = Double.MAX_VALUE;
+    		for(Line2D l1 : l1s){
+    			for(Line2D l2 : l2s){
+    				Point2D[] cp = GeomUtil.closestPointsOnLines(l1, l2);
+    				if(cp[0].distanceSq(cp[1])<dist){
+    					dist = cp[0].distanceSq(cp[1]);
+    					expected = cp;
+    				}
+    			}
+    		}
+    		assertArrayEquals(expected, GeomUtil.closestPoints(l1s, l2s));
+    	}
+    }
+    
+    private static Shape randomPolygon(Random r, double x, double y, double size, boolean convex){
+    	Point2D[] pts = new Point2D[3+r.nextInt(8)];
+    	for(int i=0;i<pts.length;i++){
+    		pts[i] = new Point2D.Double(x+r.nextDouble()*size, y+r.nextDouble()*size);
+    	}
+    	if(convex){
+    		return GeomUtil.convexHull2(pts);
+    	}
+    	//a star around the center, so it's simple but not convex
+    	double[] angles = r.doubles(pts.length, 0, 2*Math.PI).sorted().toArray();
+    	Point2D[] star = new Point2D[angles.length];
+    	for(int i=0;i<star.length;i++){
+    		double rad = size/2*(i%2==0?1:0.3+0.4*r.nextDouble());
+    		star[i] = new Point2D.Double(x+size/2+rad*Math.cos(angles[i]), y+size/2+rad*Math.sin(angles[i]));
+    	}
+    	return shapeFromVertices(star);
+    }
+    
+    @Test
+    public void clippedIntersectionSameAsFromPoints(){
+    	Random r = new Random(25);
+    	for(int run=0;run<2000;run++){
+    		GeomUtil.ShapeWrapper s1 = GeomUtil.ShapeWrapper.of(randomPolygon(r, 0, 0, 50, run%3!=0));
+    		GeomUtil.ShapeWrapper s2 = GeomUtil.ShapeWrapper.of((run%5==0)?
+    				new Rectangle2D.Double(r.nextDouble()*40, r.nextDouble()*40, 1+r.nextDouble()*30, 1+r.nextDouble()*30)
+    				:randomPolygon(r, r.nextDouble()*40, r.nextDouble()*40, 10+r.nextDouble()*40, run%3!=1));
+    		
+    		Optional<GeomUtil.ShapeWrapper> expected = GeomUtil.getIntersectionShapeFromPoints(s1, s2);
+    		Optional<GeomUtil.ShapeWrapper> actual = GeomUtil.getIntersectionShape(s1, s2);
+    		double expectedArea = expected.map(s->s.getArea()).orElse(0.0);
+    		double actualArea = actual.map(s->s.getArea()).orElse(0.0);
+    		//hulls are on a grid of 1/5 units, so a sliver can come and go
+    		assertEquals(expectedArea, actualArea, 0.5);
+    		if(expectedArea>1){
+    			assertTrue(actual.isPresent());
+    			assertEquals(expected.get().getBounds().getCenterX(), actual.get().getBounds().getCenterX(), 0.5);
+    			assertEquals(expected.get().getBounds().getCenterY(), actual.get().getBounds().getCenterY(), 0.5);
+    		}
+    	}
+    }
+    
+    @Test
+    public void clipToConvexSquare(){
+    	double[] square = GeomUtil.packedVertices(new Rectangle2D.Double(0, 0, 10, 10));
+    	double[] triangle = GeomUtil.packedVertices(shapeFromVertices(new Point2D[]{
+    			new Point2D.Double(5, -5), new Point2D.Double(15, 5), new Point2D.Double(5, 5)}));
+    	double[] clipped = GeomUtil.clipToConvex(triangle, square);
+    	assertEquals(25, Math.abs(GeomUtil.areaVerticesCW(clipped)), 1e-9);
+    	
+    	double[] far = GeomUtil.packedVertices(new Rectangle2D.Double(20, 20, 5, 5));
+    	assertEquals(0, GeomUtil.clipToConvex(far, square).length);
+    	assertEquals(25, Math.abs(GeomUtil.areaVerticesCW(GeomUtil.clipToConvex(far, far))), 1e-9);
+    }
+    
     @Test
     public void testIntersectingShape(){
     	Shape s = GeomUtil.convexHull2(new Point2D.Double(0, 0),new Point2D.Double(1, 0),new Point2D.Double(0, 1), new Point2D.Double(1,1));
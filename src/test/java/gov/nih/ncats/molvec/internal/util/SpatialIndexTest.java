@@ -0,0 +1,118 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.algo.Tuple;
+import gov.nih.ncats.molvec.internal.util.GeomUtil.ShapeWrapper;
+
+public class SpatialIndexTest {
+
+	private static List<Rectangle2D> rects(Random r, int n, double extent){
+		List<Rectangle2D> rects = new ArrayList<>();
+		for(int i=0;i<n;i++){
+			//whole numbers, so that there are ties
+			double w = (r.nextInt(10)==0)?r.nextInt((int)extent):r.nextInt(10);
+			double h = (r.nextInt(10)==0)?r.nextInt((int)extent):r.nextInt(10);
+			rects.add(new Rectangle2D.Double(r.nextInt((int)extent), r.nextInt((int)extent), w, h));
+		}
+		return rects;
+	}
+
+	private static Point2D point(Random r, double extent){
+		return new Point2D.Double(r.nextInt((int)extent*2)-extent/2, r.nextInt((int)extent*2)-extent/2);
+	}
+
+	private static double gap(Rectangle2D a, Point2D p){
+		double dx = Math.max(0, Math.max(a.getMinX()-p.getX(), p.getX()-a.getMaxX()));
+		double dy = Math.max(0, Math.max(a.getMinY()-p.getY(), p.getY()-a.getMaxY()));
+		return Math.sqrt(dx*dx+dy*dy);
+	}
+
+	@Test
+	public void nearestSameAsEveryThing(){
+		Random r = new Random(22);
+		for(int run=0;run<200;run++){
+			double extent = 10 + r.nextInt(500);
+			List<Rectangle2D> rects = rects(r, r.nextInt(150), extent);
+			SpatialIndex<Rectangle2D> index = SpatialIndex.of(rects, b->b);
+			for(int q=0;q<20;q++){
+				Point2D p = point(r, extent);
+				Optional<Tuple<Rectangle2D,Double>> expected = rects.stream()
+						.map(b->Tuple.of(b,gap(b,p)).withVComparator())
+						.min(CompareUtil.naturalOrder());
+				Optional<Tuple<Rectangle2D,Double>> actual = index.nearest(p, SpatialIndexTest::gap);
+				assertEquals(expected.isPresent(), actual.isPresent());
+				if(expected.isPresent()){
+					assertSame(expected.get().k(), actual.get().k());
+					assertEquals(expected.get().v(), actual.get().v(), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void nearestShapeSameAsEveryShape(){
+		Random r = new Random(220);
+		for(int run=0;run<100;run++){
+			double extent = 50 + r.nextInt(500);
+			List<ShapeWrapper> shapes = new ArrayList<>();
+			for(Rectangle2D b : rects(r, 1+r.nextInt(80), extent)){
+				Point2D[] pts = new Point2D[4];
+				for(int k=0;k<pts.length;k++){
+					pts[k] = new Point2D.Double(b.getX()+r.nextDouble()*(b.getWidth()+1), b.getY()+r.nextDouble()*(b.getHeight()+1));
+				}
+				shapes.add(ShapeWrapper.of(GeomUtil.convexHull2(pts)));
+			}
+			SpatialIndex<ShapeWrapper> index = SpatialIndex.ofShapes(shapes);
+			for(int q=0;q<20;q++){
+				Point2D p = point(r, extent);
+				Tuple<ShapeWrapper,Double> expected = GeomUtil.findClosestShapeWTo(shapes, p).get();
+				Tuple<ShapeWrapper,Double> actual = GeomUtil.findClosestShapeWTo(index, p).get();
+				assertSame(expected.k(), actual.k());
+				assertEquals(expected.v(), actual.v(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void nearHasEverythingCloseEnough(){
+		Random r = new Random(221);
+		for(int run=0;run<200;run++){
+			double extent = 10 + r.nextInt(500);
+			List<Rectangle2D> rects = rects(r, r.nextInt(150), extent);
+			SpatialIndex<Rectangle2D> index = SpatialIndex.of(rects, b->b);
+			for(int q=0;q<20;q++){
+				Point2D p = point(r, extent);
+				double d = (q%5==0)?0:r.nextDouble()*extent/4;
+
+				List<Integer> expected = new ArrayList<>();
+				for(int i=0;i<rects.size();i++){
+					if(gap(rects.get(i), p)<=d){
+						expected.add(i);
+					}
+				}
+				List<Integer> actual = new ArrayList<>();
+				for(int i : index.indexesNear(p, d)){
+					actual.add(i);
+				}
+				assertEquals(expected, actual);
+
+				List<Rectangle2D> things = index.near(p, d);
+				assertEquals(actual.size(), things.size());
+				for(int k=0;k<things.size();k++){
+					assertSame(rects.get(actual.get(k)), things.get(k));
+				}
+			}
+			assertEquals(rects.size(), index.indexesNear(new Point2D.Double(0, 0), Double.NaN).length);
+		}
+	}
+}
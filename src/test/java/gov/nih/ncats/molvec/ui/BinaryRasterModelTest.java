@@ -0,0 +1,89 @@
+package gov.nih.ncats.molvec.ui;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+public class BinaryRasterModelTest {
+
+	private static List<String> describe(List<String> keys, List<RasterChar> chars){
+		List<String> list = new ArrayList<>();
+		for(int i=0;i<keys.size();i++){
+			list.add(keys.get(i) + "\n" + chars.get(i).rawDataAsString());
+		}
+		return list;
+	}
+
+	private static void assertSameAsBase64(AbstractStupidestPossibleSCOCR ocr) throws IOException{
+		List<String> keys = new ArrayList<>();
+		List<RasterChar> chars = new ArrayList<>();
+		ocr.loadRasters((k, v)->{
+			keys.add(k);
+			chars.add(v);
+		});
+
+		List<String> binKeys = new ArrayList<>();
+		List<RasterChar> binChars = new ArrayList<>();
+		try(InputStream in = ocr.getClass().getResourceAsStream(BinaryRasterModel.resourceName(ocr.getClass()))){
+			assertNotNull("no binary model for " + ocr.getClass().getSimpleName() + ", it is generated in the process-classes phase", in);
+			BinaryRasterModel.read(in, (k, v)->{
+				binKeys.add(k);
+				binChars.add(v);
+			});
+		}
+		assertEquals("binary model doesn't match the base64 templates", describe(keys, chars), describe(binKeys, binChars));
+	}
+
+	@Test
+	public void sansSerifModelSameAsBase64() throws IOException{
+		assertSameAsBase64(new StupidestPossibleSCOCRSansSerif());
+	}
+
+	@Test
+	public void serifModelSameAsBase64() throws IOException{
+		assertSameAsBase64(new StupidestPossibleSCOCRSerif());
+	}
+
+	@Test
+	public void roundTrip() throws IOException{
+		int[][] data = new int[][]{{0, 1, 2}, {255, 4, 5}};
+		RasterChar rc = new RasterChar(data, new java.awt.geom.Rectangle2D.Double(0, 0, 3.25, 7.5));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryRasterModel.Writer w = new BinaryRasterModel.Writer(out);
+		w.accept("Cl", rc);
+		w.finish();
+
+		List<RasterChar> read = new ArrayList<>();
+		BinaryRasterModel.read(new ByteArrayInputStream(out.toByteArray()), (k, v)->{
+			assertEquals("Cl", k);
+			read.add(v);
+		});
+		assertEquals(1, read.size());
+		assertEquals(rc.rawDataAsString(), read.get(0).rawDataAsString());
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedModel() throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryRasterModel.Writer w = new BinaryRasterModel.Writer(out);
+		w.accept("C", new RasterChar(new int[][]{{1, 2}, {3, 4}}, new java.awt.geom.Rectangle2D.Double(0, 0, 2, 2)));
+		w.finish();
+		byte[] bytes = out.toByteArray();
+		BinaryRasterModel.read(new ByteArrayInputStream(bytes, 0, bytes.length-1), (k, v)->{});
+	}
+
+	@Test(expected = IOException.class)
+	public void notAModel() throws IOException{
+		BinaryRasterModel.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6}), (k, v)->{});
+	}
+}
@@ -0,0 +1,101 @@
+package gov.nih.ncats.molvec.ui;
+
+import static gov.nih.ncats.molvec.ui.OcrAsserts.assertSameMatches;
+import static org.junit.Assert.*;
+
+import java.awt.Shape;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+public class CachedSCOCRTest {
+
+	private static Bitmap structure(String name) throws Exception{
+		File f = new File(CachedSCOCRTest.class.getResource("/moleculeTest/" + name).getFile());
+		return Bitmap.read(f).clean();
+	}
+
+	@Test
+	public void cachedSameAsUncached() throws Exception{
+		SCOCR ocr = new StupidestPossibleSCOCRSansSerif();
+		ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+		CachedSCOCR cached = ocr.cached(1000);
+
+		Bitmap bm = structure("tylenol.png");
+		Bitmap thin = bm.thin();
+		for(int pass=0;pass<2;pass++){
+			for(Shape s : bm.connectedComponents(Bitmap.Bbox.DoublePolygon)){
+				if(s.getBounds().width*s.getBounds().height<20)continue;
+				//new crops every time, so hits come from the content and not the bitmap
+				Bitmap crop = bm.getLazyCrop(s);
+				Bitmap thinCrop = thin.getLazyCrop(s);
+				assertSameMatches(ocr.getNBestMatches(4, crop, thinCrop), cached.getNBestMatches(4, crop, thinCrop));
+			}
+		}
+		//everything in the second pass is a hit, and some labels repeat in the first
+		assertTrue(cached.getHitCount() >= cached.getMissCount());
+	}
+
+	@Test
+	public void batchSameAsOneAtATime() throws Exception{
+		SCOCR ocr = new StupidestPossibleSCOCRSansSerif();
+		ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+		CachedSCOCR cached = ocr.cached(1000);
+
+		Bitmap bm = structure("tylenol.png");
+		Bitmap thin = bm.thin();
+		List<Bitmap[]> batch = new ArrayList<>();
+		for(int pass=0;pass<2;pass++){
+			for(Shape s : bm.connectedComponents(Bitmap.Bbox.DoublePolygon)){
+				if(s.getBounds().width*s.getBounds().height<20)continue;
+				batch.add(new Bitmap[]{bm.getLazyCrop(s), thin.getLazyCrop(s)});
+			}
+		}
+		List<List<Entry<Character, Number>>> uncached = ocr.getNBestMatchesForEach(4, batch);
+		List<List<Entry<Character, Number>>> all = cached.getNBestMatchesForEach(4, batch);
+		assertEquals(batch.size(), all.size());
+		for(int i=0;i<batch.size();i++){
+			assertSameMatches(ocr.getNBestMatches(4, batch.get(i)), uncached.get(i));
+			assertSameMatches(uncached.get(i), all.get(i));
+		}
+		//the second half of the batch repeats the first, those are only scored once
+		assertTrue(cached.getMissCount() <= batch.size()/2);
+		assertEquals(batch.size(), cached.getHitCount() + cached.getMissCount());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsDropped(){
+		SCOCR ocr = new StupidestPossibleSCOCRSansSerif();
+		ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+		CachedSCOCR cached = ocr.cached(2);
+
+		Bitmap a = new Bitmap(10, 20);
+		Bitmap b = new Bitmap(20, 20);
+		Bitmap c = new Bitmap(20, 10);
+		for(Bitmap bm : new Bitmap[]{a, b, c}){
+			for(int i=0;i<10;i++){
+				bm.set(i, i, true);
+			}
+		}
+		cached.getNBestMatches(4, a);
+		cached.getNBestMatches(4, b);
+		cached.getNBestMatches(4, a);
+		cached.getNBestMatches(4, c);
+		assertEquals(2, cached.size());
+		assertEquals(1, cached.getHitCount());
+
+		//b was the least recently used, so it has to be scored again
+		cached.getNBestMatches(4, b);
+		assertEquals(1, cached.getHitCount());
+		cached.getNBestMatches(4, c);
+		assertEquals(2, cached.getHitCount());
+		//a different n is a different result
+		cached.getNBestMatches(2, c);
+		assertEquals(2, cached.getHitCount());
+	}
+}
@@ -0,0 +1,74 @@
+package gov.nih.ncats.molvec.ui;
+
+import static org.junit.Assert.*;
+
+import java.awt.Font;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+public class GlyphRasterizerTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static Set<Character> chars(){
+		Set<Character> chars = SCOCR.SET_COMMON_PUCTUATION();
+		chars.addAll(SCOCR.SET_ALPHANUMERIC());
+		return chars;
+	}
+
+	@Test
+	public void parallelSameAsOneAtATime(){
+		List<Font> fonts = FontBasedRasterCosineSCOCR.SERIF_FONTS();
+		Set<Character> chars = chars();
+		Map<Character, List<RasterChar>> all = GlyphRasterizer.render(fonts, chars, null);
+		assertEquals(chars, all.keySet());
+		for(Character c : chars){
+			assertEquals(fonts.size(), all.get(c).size());
+			for(int i=0;i<fonts.size();i++){
+				assertEquals(GlyphRasterizer.render(fonts.get(i), c).rawDataAsString(), all.get(c).get(i).rawDataAsString());
+			}
+		}
+	}
+
+	@Test
+	public void cacheHasEveryGlyphOfEachFont() throws Exception{
+		File dir = tmp.newFolder();
+		List<Font> fonts = FontBasedRasterCosineSCOCR.SANS_SERIF_FONTS();
+		Set<Character> chars = chars();
+		GlyphRasterizer.render(fonts, chars, dir);
+
+		for(Font f : fonts){
+			File file = GlyphRasterizer.cacheFile(f, dir);
+			assertTrue(file.isFile());
+			Map<Character, String> cached = new HashMap<>();
+			try(InputStream in = new FileInputStream(file)){
+				BinaryRasterModel.read(in, (k, v)->cached.put(k.charAt(0), v.rawDataAsString()));
+			}
+			for(Character c : chars){
+				assertEquals(GlyphRasterizer.render(f, c).rawDataAsString(), cached.get(c));
+			}
+		}
+	}
+
+	@Test
+	public void templatesAreCopies(){
+		List<Font> fonts = FontBasedRasterCosineSCOCR.SERIF_FONTS();
+		Set<Character> chars = chars();
+		RasterChar first = GlyphRasterizer.render(fonts, chars, null).get('A').get(0);
+		String expected = first.rawDataAsString();
+		first.data[0][0] = 1000;
+		assertEquals(expected, GlyphRasterizer.render(fonts, chars, null).get('A').get(0).rawDataAsString());
+	}
+}
@@ -0,0 +1,25 @@
+package gov.nih.ncats.molvec.ui;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Assertions shared by the SCOCR tests.
+ */
+final class OcrAsserts {
+
+	private OcrAsserts(){}
+
+	/**
+	 * The same characters with exactly the same scores, in the same order.
+	 */
+	static void assertSameMatches(List<Entry<Character, Number>> expected, List<Entry<Character, Number>> actual){
+		assertEquals(expected.size(), actual.size());
+		for(int i=0;i<expected.size();i++){
+			assertEquals(expected.get(i).getKey(), actual.get(i).getKey());
+			assertEquals(expected.get(i).getValue().doubleValue(), actual.get(i).getValue().doubleValue(), 0);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package gov.nih.ncats.molvec.ui;
+
+import static gov.nih.ncats.molvec.ui.OcrAsserts.assertSameMatches;
+import static org.junit.Assert.*;
+
+import java.awt.Shape;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+public class RasterBasedCosineSCOCRTest {
+
+	private static List<Bitmap[]> crops(String... names) throws Exception{
+		List<Bitmap[]> crops = new ArrayList<>();
+		for(String name : names){
+			File f = new File(RasterBasedCosineSCOCRTest.class.getResource("/moleculeTest/" + name).getFile());
+			Bitmap bm = Bitmap.read(f).clean();
+			Bitmap thin = bm.thin();
+			for(Shape s : bm.connectedComponents(Bitmap.Bbox.DoublePolygon)){
+				if(s.getBounds().width*s.getBounds().height<20)continue;
+				crops.add(new Bitmap[]{bm.getLazyCrop(s), thin.getLazyCrop(s)});
+			}
+		}
+		return crops;
+	}
+
+	/**
+	 * The full scan, every character scored.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Entry<Character, Number>> fullScan(SCOCR ocr, int n, Bitmap... r){
+		Map<Character, Number>[] g = new Map[r.length];
+		for(int i=0;i<r.length;i++){
+			g[i] = ocr.getRanking(r[i]);
+		}
+		return SCOCR.sortMap(SCOCR.bestOf(g)).subList(0, n);
+	}
+
+	@Test
+	public void prunedBestMatchesSameAsFullScan() throws Exception{
+		SCOCR sans = new StupidestPossibleSCOCRSansSerif();
+		SCOCR serif = new StupidestPossibleSCOCRSerif();
+		Set<Character> alpha = SCOCR.SET_COMMON_CHEM_ALL();
+		sans.setAlphabet(alpha);
+		serif.setAlphabet(alpha);
+		SCOCR combo = sans.orElse(serif, 0.65);
+
+		for(Bitmap[] c : crops("tylenol.png", "CCl3NotCC13.png", "cagedStructure3.png")){
+			for(int n : new int[]{1, 4, 10}){
+				assertSameMatches(fullScan(sans, n, c), sans.getNBestMatches(n, c));
+				assertSameMatches(fullScan(serif, n, c[0]), serif.getNBestMatches(n, c[0]));
+				assertSameMatches(fullScan(combo, n, c), combo.getNBestMatches(n, c));
+			}
+		}
+	}
+
+	@Test
+	public void batchedBestMatchesSameAsOneByOne() throws Exception{
+		SCOCR sans = new StupidestPossibleSCOCRSansSerif();
+		SCOCR serif = new StupidestPossibleSCOCRSerif();
+		Set<Character> alpha = SCOCR.SET_COMMON_CHEM_ALL();
+		sans.setAlphabet(alpha);
+		serif.setAlphabet(alpha);
+		SCOCR combo = sans.orElse(serif, 0.65);
+
+		//more than one parallel chunk, and a small batch
+		List<Bitmap[]> big = crops("tylenol.png", "CCl3NotCC13.png", "cagedStructure3.png");
+		assertTrue(big.size() > SCOCR.PARALLEL_BATCH_SIZE);
+		List<Bitmap[]> small = big.subList(0, 3);
+		for(List<Bitmap[]> batch : Arrays.asList(big, small)){
+			for(int n : new int[]{1, 4, 10}){
+				for(SCOCR ocr : new SCOCR[]{sans, serif, combo}){
+					List<List<Entry<Character, Number>>> batched = ocr.getNBestMatchesForEach(n, batch);
+					assertEquals(batch.size(), batched.size());
+					for(int i=0;i<batch.size();i++){
+						assertSameMatches(ocr.getNBestMatches(n, batch.get(i)), batched.get(i));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void cascadeCountsTheTierThatAnswered() throws Exception{
+		SCOCR sans = new StupidestPossibleSCOCRSansSerif();
+		SCOCR serif = new StupidestPossibleSCOCRSerif();
+		Set<Character> alpha = SCOCR.SET_COMMON_CHEM_ALL();
+		sans.setAlphabet(alpha);
+		serif.setAlphabet(alpha);
+		SCOCR.OrElseSCOCR combo = sans.orElse(serif, 0.65);
+
+		long firstOnly = 0;
+		List<Bitmap[]> crops = crops("tylenol.png", "CCl3NotCC13.png");
+		for(Bitmap[] c : crops){
+			combo.getNBestMatches(4, c);
+			if(sans.hasScoreAbove(c[0], 0.65) && sans.hasScoreAbove(c[1], 0.65)){
+				firstOnly++;
+			}
+		}
+		long[] counts = combo.getTierCounts();
+		assertEquals(2, counts.length);
+		assertEquals(firstOnly, counts[0]);
+		assertEquals(crops.size() - firstOnly, counts[1]);
+	}
+
+	@Test
+	public void hasScoreAboveSameAsFullScan() throws Exception{
+		SCOCR sans = new StupidestPossibleSCOCRSansSerif();
+		sans.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+
+		for(Bitmap[] c : crops("tylenol.png", "CCl3NotCC13.png")){
+			for(Bitmap bm : c){
+				Map<Character, Number> ranking = sans.getRanking(bm);
+				for(double cutoff : new double[]{0.3, 0.65, 0.9}){
+					boolean expected = ranking.values().stream().anyMatch(v->v.doubleValue()>cutoff);
+					assertEquals(expected, sans.hasScoreAbove(bm, cutoff));
+					assertEquals(expected ? ranking : null, sans.getRankingIfAbove(bm, cutoff).orElse(null));
+				}
+			}
+		}
+	}
+}
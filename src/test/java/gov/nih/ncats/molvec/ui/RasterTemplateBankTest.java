@@ -0,0 +1,102 @@
+package gov.nih.ncats.molvec.ui;
+
+import static org.junit.Assert.*;
+
+import java.awt.Shape;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+public class RasterTemplateBankTest {
+
+	private static Map<Character, List<RasterChar>> templates(){
+		RasterBasedCosineSCOCR ocr = new StupidestPossibleSCOCRSansSerif();
+		Map<Character, List<RasterChar>> map = new LinkedHashMap<>();
+		for(Character c : SCOCR.SET_COMMON_CHEM_ALL()){
+			List<RasterChar> list = new ArrayList<>();
+			ocr.getBitmapsForChar(c, list::add);
+			if(!list.isEmpty()){
+				map.put(c, list);
+			}
+		}
+		return map;
+	}
+
+	private static List<BitmapScaled> candidates(String... names) throws Exception{
+		List<BitmapScaled> list = new ArrayList<>();
+		for(String name : names){
+			File f = new File(RasterTemplateBankTest.class.getResource("/moleculeTest/" + name).getFile());
+			Bitmap bm = Bitmap.read(f).clean();
+			Bitmap thin = bm.thin();
+			for(Shape s : bm.connectedComponents(Bitmap.Bbox.DoublePolygon)){
+				if(s.getBounds().width*s.getBounds().height<20)continue;
+				for(Bitmap crop : new Bitmap[]{bm.getLazyCrop(s), thin.getLazyCrop(s)}){
+					if(crop.fractionPixelsOn()>0){
+						list.add(crop.getScaled(RasterBasedCosineSCOCR.DEF_WIDTH, RasterBasedCosineSCOCR.DEF_HEIGHT));
+					}
+				}
+			}
+		}
+		return list;
+	}
+
+	private static void assertSameScores(CorrelationKernel kernel) throws Exception{
+		Map<Character, List<RasterChar>> templates = templates();
+		int w = RasterBasedCosineSCOCR.DEF_WIDTH;
+		int h = RasterBasedCosineSCOCR.DEF_HEIGHT;
+		RasterTemplateBank sparse = new RasterTemplateBank(templates, w, h, null);
+		RasterTemplateBank dense = new RasterTemplateBank(templates, w, h, kernel);
+
+		for(BitmapScaled bms : candidates("tylenol.png", "CCl3NotCC13.png", "cagedStructure3.png")){
+			assertArrayEquals(sparse.bestScores(bms), dense.bestScores(bms), 0);
+
+			RasterTemplateBank.Candidate a = sparse.prepare(bms);
+			RasterTemplateBank.Candidate b = dense.prepare(bms);
+			for(int s=0;s<sparse.slotCount();s++){
+				assertEquals(sparse.slotScore(a, s, 0.6), dense.slotScore(b, s, 0.6), 0);
+			}
+		}
+	}
+
+	@Test
+	public void denseScoresSameAsSparse() throws Exception{
+		assertSameScores(CorrelationKernel.SCALAR);
+	}
+
+	@Test
+	public void vectorScoresSameAsSparse() throws Exception{
+		CorrelationKernel vector = CorrelationKernel.vector();
+		Assume.assumeNotNull(vector);
+		assertSameScores(vector);
+	}
+
+	@Test
+	public void vectorDotWrapsLikeScalar(){
+		CorrelationKernel vector = CorrelationKernel.vector();
+		Assume.assumeNotNull(vector);
+		Random r = new Random(20);
+		for(int i=0;i<200;i++){
+			int len = r.nextInt(500);
+			int off = r.nextInt(50);
+			int[] a = new int[off+len];
+			int[] b = new int[len];
+			for(int k=0;k<a.length;k++){
+				a[k] = (i%2==0)?r.nextInt():r.nextInt(100);
+			}
+			for(int k=0;k<b.length;k++){
+				b[k] = (i%2==0)?r.nextInt():r.nextInt(100);
+			}
+			assertEquals(CorrelationKernel.SCALAR.dot(a, off, b, len), vector.dot(a, off, b, len));
+		}
+	}
+}